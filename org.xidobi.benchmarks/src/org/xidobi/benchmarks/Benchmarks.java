@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks twice, first to measure the throughput in operations per second and then
+ * to sample the latency percentiles in microseconds. The allocation rate is reported by the GC
+ * profiler for both runs.
+ * <p>
+ * Usage: <code>java -jar benchmarks.jar [regexp]</code>, the optional regular expression
+ * selects the benchmarks to run. For full control, the JMH command line is available with
+ * <code>java -cp benchmarks.jar org.openjdk.jmh.Main</code>.
+ * 
+ * @author Christian Schwarz
+ */
+public final class Benchmarks {
+
+	/** no instances allowed */
+	private Benchmarks() {}
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : Benchmarks.class.getPackage().getName();
+
+		new Runner(options(include).mode(Mode.Throughput).timeUnit(SECONDS).build()).run();
+		new Runner(options(include).mode(Mode.SampleTime).timeUnit(MICROSECONDS).build()).run();
+	}
+
+	/** Returns the options that are shared by both runs. */
+	private static ChainedOptionsBuilder options(String include) {
+		return new OptionsBuilder().include(include).addProfiler(GCProfiler.class).warmupIterations(5).measurementIterations(5).forks(1);
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.xidobi.DCBConfigurator;
+import org.xidobi.SerialPortSettings;
+import org.xidobi.structs.DCB;
+
+/**
+ * Measures {@link DCBConfigurator#configureDCB(DCB, SerialPortSettings)}, that is called every
+ * time a port is opened.
+ * 
+ * @author Christian Schwarz
+ */
+@State(Scope.Thread)
+public class DCBConfiguratorBenchmark {
+
+	/** the configurator under test */
+	private final DCBConfigurator configurator = new DCBConfigurator();
+
+	/** the settings that are applied */
+	private final SerialPortSettings settings = from9600bauds8N1().create();
+
+	/** receives the settings */
+	private final DCB dcb = new DCB();
+
+	@Benchmark
+	public DCB configureDCB() {
+		configurator.configureDCB(dcb, settings);
+		return dcb;
+	}
+}
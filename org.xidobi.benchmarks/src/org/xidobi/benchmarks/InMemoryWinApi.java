@@ -0,0 +1,417 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.xidobi.WinApi.ERROR_NO_MORE_ITEMS;
+import static org.xidobi.WinApi.ERROR_SUCCESS;
+import static org.xidobi.WinApi.EV_RXCHAR;
+import static org.xidobi.WinApi.WAIT_OBJECT_0;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.WinApi;
+import org.xidobi.structs.COMSTAT;
+import org.xidobi.structs.DCB;
+import org.xidobi.structs.DWORD;
+import org.xidobi.structs.HKEY;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.NativeByteArray;
+import org.xidobi.structs.OVERLAPPED;
+
+/**
+ * A stand-in for the native Win32-API, that keeps the "native" memory on the Java heap and
+ * completes every I/O operation immediately. It lets the benchmarks measure the overhead of the
+ * Java code paths, without the native library and without a serial device.
+ * <ul>
+ * <li>Every write succeeds immediately and transfers all bytes.
+ * <li><code>WaitCommEvent</code> signals {@link WinApi#EV_RXCHAR EV_RXCHAR} immediately and
+ * <code>ClearCommError</code> reports the configured number of available bytes.
+ * <li>The combined read function reads the available bytes immediately, if it is enabled.
+ * <li>Every read succeeds immediately, the read bytes are those of the configured pattern.
+ * <li>The registry contains the configured number of serial ports.
+ * </ul>
+ * This class is not thread-safe, every benchmark thread must use its own instance.
+ * 
+ * @author Christian Schwarz
+ */
+public class InMemoryWinApi implements WinApi {
+
+	/** the handle of the first serial port that is opened */
+	private static final int FIRST_HANDLE = 0x100;
+
+	/** the allocated memory blocks, a pointer is the index of its block plus 1 */
+	private byte[][] memory = new byte[64][];
+	/** the indices of the freed memory blocks, that can be reused */
+	private int[] freeBlocks = new int[64];
+	/** the number of freed memory blocks */
+	private int freeBlockCount;
+	/** the number of memory blocks that were used so far */
+	private int usedBlockCount;
+
+	/** the next handle, that is returned for a port or an event */
+	private int nextHandle = FIRST_HANDLE;
+
+	/** the number of bytes, that are available to read */
+	private int availableBytes;
+	/** the bytes that are received, they are repeated if more bytes are read */
+	private byte[] pattern = { 0 };
+	/** the number of serial ports in the registry */
+	private int portCount;
+	/** <code>true</code>, if the combined read function is reported as available */
+	private boolean isWaitAndReadAvailableSupported;
+	/** <code>true</code>, if the structs can access their memory through a buffer */
+	private boolean isMemoryViewSupported;
+
+	/**
+	 * Sets the number of bytes, that are reported as available by every call of
+	 * <code>ClearCommError</code>.
+	 * 
+	 * @param availableBytes
+	 *            the number of available bytes, must not be negative
+	 */
+	public void setAvailableBytes(@Nonnegative int availableBytes) {
+		this.availableBytes = availableBytes;
+	}
+
+	/**
+	 * Sets the bytes that are received, they are repeated if more bytes are read.
+	 * 
+	 * @param pattern
+	 *            the received bytes, must not be empty
+	 */
+	public void setPattern(@Nonnull byte[] pattern) {
+		this.pattern = pattern.clone();
+	}
+
+	/**
+	 * Sets the number of serial ports in the registry. The ports are named <code>COM1</code> to
+	 * <code>COMn</code>.
+	 * 
+	 * @param portCount
+	 *            the number of serial ports, must not be negative
+	 */
+	public void setPortCount(@Nonnegative int portCount) {
+		this.portCount = portCount;
+	}
+
+	/**
+	 * Enables or disables the combined read function
+	 * {@link #WaitAndReadAvailable(int, DWORD, DWORD, OVERLAPPED, ByteBuffer, int, INT, COMSTAT)}.
+	 * It must be set before a reader is created.
+	 * 
+	 * @param isSupported
+	 *            <code>true</code> to report the combined read function as available
+	 */
+	public void setWaitAndReadAvailableSupported(boolean isSupported) {
+		this.isWaitAndReadAvailableSupported = isSupported;
+	}
+
+	/**
+	 * Enables or disables the buffers over the allocated memory, that are returned by
+	 * {@link #newDirectByteBuffer(int, int)}. If they are disabled, the structs use the accessors
+	 * like {@link #getValue_DWORD(DWORD)}. It must be set before the structs are created.
+	 * 
+	 * @param isSupported
+	 *            <code>true</code> to return a buffer over the allocated memory
+	 */
+	public void setMemoryViewSupported(boolean isSupported) {
+		this.isMemoryViewSupported = isSupported;
+	}
+
+	// Ports and events ///////////////////////////////////////////////////////////////////////
+
+	public int CreateFileA(String lpFileName, int dwDesiredAccess, int dwShareMode, int lpSecurityAttributes, int dwCreationDisposition, int dwFlagsAndAttributes, int hTemplateFile) {
+		return nextHandle++;
+	}
+
+	public boolean CloseHandle(int handle) {
+		return true;
+	}
+
+	public boolean GetCommState(int handle, DCB dcb) {
+		return true;
+	}
+
+	public boolean SetCommState(int handle, DCB dcb) {
+		return true;
+	}
+
+	public int CreateEventA(int lpEventAttributes, boolean bManualReset, boolean bInitialState, @Nullable String lpName) {
+		return nextHandle++;
+	}
+
+	public boolean ResetEvent(int hEvent) {
+		return true;
+	}
+
+	public boolean SetEvent(int hEvent) {
+		return true;
+	}
+
+	public int WaitForSingleObject(int hHandle, int dwMilliseconds) {
+		return WAIT_OBJECT_0;
+	}
+
+	public boolean SetCommMask(int hFile, int dwEvtMask) {
+		return true;
+	}
+
+	public boolean PurgeComm(int hFile, int dwFlags) {
+		return true;
+	}
+
+	public boolean SetCommBreak(int hFile) {
+		return true;
+	}
+
+	public boolean ClearCommBreak(int hFile) {
+		return true;
+	}
+
+	public boolean CancelIo(int hFile) {
+		return true;
+	}
+
+	public int GetLastError() {
+		return ERROR_SUCCESS;
+	}
+
+	// I/O operations /////////////////////////////////////////////////////////////////////////
+
+	public boolean WriteFile(int handle, @Nonnull byte[] lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped) {
+		return transferred(lpNumberOfBytesWritten, nNumberOfBytesToWrite);
+	}
+
+	public boolean WriteFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped) {
+		return transferred(lpNumberOfBytesWritten, nNumberOfBytesToWrite);
+	}
+
+	public boolean ReadFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped) {
+		byte[] block = block(lpBuffer.address());
+		for (int i = 0; i < nNumberOfBytesToRead; i++)
+			block[i] = pattern[i % pattern.length];
+		return transferred(lpNumberOfBytesRead, nNumberOfBytesToRead);
+	}
+
+	public boolean ReadFile(int handle, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped) {
+		// like the native code, the bytes are written at the position without advancing it
+		int position = lpBuffer.position();
+		for (int i = 0; i < nNumberOfBytesToRead; i++)
+			lpBuffer.put(position + i, pattern[i % pattern.length]);
+		return transferred(lpNumberOfBytesRead, nNumberOfBytesToRead);
+	}
+
+	public boolean GetOverlappedResult(int handle, OVERLAPPED lpOverlapped, DWORD lpNumberOfBytesTransferred, boolean bWait) {
+		// all operations complete immediately, so there is never a pending one
+		return true;
+	}
+
+	public boolean HasOverlappedIoCompleted(OVERLAPPED lpOverlapped) {
+		return true;
+	}
+
+	public boolean WaitCommEvent(int hFile, DWORD lpEvtMask, OVERLAPPED lpOverlapped) {
+		lpEvtMask.setValue(EV_RXCHAR);
+		return true;
+	}
+
+	public boolean ClearCommError(int hFile, INT lpErrors, COMSTAT lpStat) {
+		lpErrors.value = 0;
+		lpStat.cbInQue = availableBytes;
+		return true;
+	}
+
+	public int WaitAndReadAvailable(int hFile, @Nonnull DWORD lpEvtMask, @Nonnull DWORD lpCanceled, @Nonnull OVERLAPPED lpOverlapped, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nonnull INT lpErrors, @Nonnull COMSTAT lpStat) {
+		// the data is always available, so there is never a wait
+		int length = Math.min(availableBytes, nNumberOfBytesToRead);
+		int position = lpBuffer.position();
+		for (int i = 0; i < length; i++)
+			lpBuffer.put(position + i, pattern[i % pattern.length]);
+		lpErrors.value = 0;
+		lpStat.cbInQue = availableBytes - length;
+		return length;
+	}
+
+	public boolean isWaitAndReadAvailableSupported() {
+		return isWaitAndReadAvailableSupported;
+	}
+
+	/** Sets the number of transferred bytes and returns <code>true</code>. */
+	private boolean transferred(@Nullable DWORD numberOfBytesTransferred, int length) {
+		if (numberOfBytesTransferred != null)
+			numberOfBytesTransferred.setValue(length);
+		return true;
+	}
+
+	// I/O completion ports ///////////////////////////////////////////////////////////////////
+
+	public int CreateIoCompletionPort(int FileHandle, int ExistingCompletionPort, int CompletionKey, int NumberOfConcurrentThreads) {
+		throw new UnsupportedOperationException("I/O completion ports are not supported!");
+	}
+
+	public boolean GetQueuedCompletionStatus(int CompletionPort, @Nonnull INT lpNumberOfBytes, @Nonnull INT lpCompletionKey, @Nonnull INT lpOverlapped, int dwMilliseconds) {
+		throw new UnsupportedOperationException("I/O completion ports are not supported!");
+	}
+
+	public boolean PostQueuedCompletionStatus(int CompletionPort, int dwNumberOfBytesTransferred, int dwCompletionKey, int lpOverlapped) {
+		throw new UnsupportedOperationException("I/O completion ports are not supported!");
+	}
+	// Registry ///////////////////////////////////////////////////////////////////////////////
+
+	public int RegOpenKeyExA(int hKey, String lpSubKey, int ulOptions, int samDesired, HKEY phkResult) {
+		return ERROR_SUCCESS;
+	}
+
+	public int RegCloseKey(HKEY hKey) {
+		return ERROR_SUCCESS;
+	}
+
+	public int RegNotifyChangeKeyValue(HKEY hKey, boolean bWatchSubtree, int dwNotifyFilter, int hEvent, boolean fAsynchronous) {
+		// the ports never change
+		return ERROR_SUCCESS;
+	}
+
+	public int RegEnumValueA(HKEY hKey, int dwIndex, byte[] lpValueName, INT lpcchValueName, int lpReserved, INT lpType, byte[] lpData, INT lpcbData) {
+		if (dwIndex >= portCount)
+			return ERROR_NO_MORE_ITEMS;
+
+		// the value name is the description of the port, the data is the null terminated name
+		lpcchValueName.value = copyAscii("\\Device\\Serial" + dwIndex, lpValueName);
+		lpcbData.value = copyAscii("COM" + (dwIndex + 1) + "\0", lpData);
+		return ERROR_SUCCESS;
+	}
+
+	/** Copies the characters of the given string to the given array and returns their number. */
+	private static int copyAscii(String string, byte[] dst) {
+		int length = string.length();
+		for (int i = 0; i < length; i++)
+			dst[i] = (byte) string.charAt(i);
+		return length;
+	}
+
+	// Error messages /////////////////////////////////////////////////////////////////////////
+
+	public int MAKELANGID(short usPrimaryLanguage, short usSubLanguage) {
+		return (usSubLanguage << 10) | usPrimaryLanguage;
+	}
+
+	public int FormatMessageA(int dwFlags, Void lpSource, int dwMessageId, int dwLanguageId, @Nonnull byte[] lpBuffer, int nSize, Void arguments) {
+		// no message available
+		return 0;
+	}
+
+	// Memory /////////////////////////////////////////////////////////////////////////////////
+
+	public int malloc(@Nonnegative int size) {
+		int index;
+		if (freeBlockCount > 0)
+			index = freeBlocks[--freeBlockCount];
+		else {
+			if (usedBlockCount == memory.length)
+				memory = copyOf(memory, memory.length * 2);
+			index = usedBlockCount++;
+		}
+		memory[index] = new byte[size];
+		return index + 1;
+	}
+
+	public void memset(int ptr, int value, int num) {
+		byte[] block = block(ptr);
+		for (int i = 0; i < num; i++)
+			block[i] = (byte) value;
+	}
+
+	public void free(int pointer) {
+		memory[pointer - 1] = null;
+		if (freeBlockCount == freeBlocks.length) {
+			int[] newFreeBlocks = new int[freeBlocks.length * 2];
+			System.arraycopy(freeBlocks, 0, newFreeBlocks, 0, freeBlockCount);
+			freeBlocks = newFreeBlocks;
+		}
+		freeBlocks[freeBlockCount++] = pointer - 1;
+	}
+
+	public int sizeOf_OVERLAPPED() {
+		return 20;
+	}
+
+	public int sizeOf_HKEY() {
+		return 4;
+	}
+
+	public int sizeOf_DWORD() {
+		return 4;
+	}
+
+	public byte[] getByteArray(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(block(nativeByteArray.address()), 0, result, 0, length);
+		return result;
+	}
+
+	public void setByteArray(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int offset, @Nonnull byte[] data, @Nonnegative int dataOffset, @Nonnegative int length) {
+		System.arraycopy(data, dataOffset, block(nativeByteArray.address()), offset, length);
+	}
+
+	public void setByteBuffer(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int offset, @Nonnull ByteBuffer data, @Nonnegative int length) {
+		// like the native code, the position of the buffer is not modified
+		byte[] block = block(nativeByteArray.address());
+		int position = data.position();
+		for (int i = 0; i < length; i++)
+			block[offset + i] = data.get(position + i);
+	}
+
+	public int getValue_DWORD(@Nonnull DWORD dword) {
+		byte[] block = block(dword.address());
+		return (block[0] & 0xFF) | (block[1] & 0xFF) << 8 | (block[2] & 0xFF) << 16 | (block[3] & 0xFF) << 24;
+	}
+
+	public void setValue_DWORD(@Nonnull DWORD dword, int value) {
+		byte[] block = block(dword.address());
+		block[0] = (byte) value;
+		block[1] = (byte) (value >> 8);
+		block[2] = (byte) (value >> 16);
+		block[3] = (byte) (value >> 24);
+	}
+
+	public ByteBuffer newDirectByteBuffer(int address, @Nonnegative int capacity) {
+		if (!isMemoryViewSupported)
+			return null;
+		// the memory is on the heap, so the buffer isn't direct but shares the memory block
+		ByteBuffer buffer = ByteBuffer.wrap(block(address), 0, capacity).slice();
+		return buffer.order(LITTLE_ENDIAN);
+	}
+
+	/** Returns the memory block of the given pointer. */
+	private byte[] block(int pointer) {
+		byte[] block = memory[pointer - 1];
+		if (block == null)
+			throw new IllegalStateException("The memory at " + pointer + " was freed!");
+		return block;
+	}
+
+	/** Returns a copy of the given array with the given length. */
+	private static byte[][] copyOf(byte[][] array, int length) {
+		byte[][] copy = new byte[length][];
+		System.arraycopy(array, 0, copy, 0, array.length);
+		return copy;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import static org.xidobi.WinApi.FILE_FLAG_OVERLAPPED;
+import static org.xidobi.WinApi.GENERIC_READ;
+import static org.xidobi.WinApi.GENERIC_WRITE;
+import static org.xidobi.WinApi.OPEN_EXISTING;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xidobi.ReaderImpl;
+import org.xidobi.SerialPortImpl;
+import org.xidobi.WriterImpl;
+
+/**
+ * Measures the {@link ReaderImpl} and the {@link WriterImpl} without the
+ * {@link org.xidobi.spi.BasicSerialConnection BasicSerialConnection} in front of them.
+ * 
+ * @author Christian Schwarz
+ */
+@State(Scope.Thread)
+public class IoOperationBenchmark {
+
+	/** the number of bytes that are read or written by each operation */
+	@Param({ "1", "64", "1024" })
+	public int size;
+
+	/** <code>true</code>, if the reads wait and read with a single call of the native code */
+	@Param({ "false", "true" })
+	public boolean combinedRead;
+
+	/** the read operation under test */
+	private ReaderImpl reader;
+	/** the write operation under test */
+	private WriterImpl writer;
+
+	/** the data that is written */
+	private byte[] data;
+	/** receives the data of the buffer based read operation */
+	private ByteBuffer directBuffer;
+
+	@Setup
+	public void setUp() {
+		InMemoryWinApi os = new InMemoryWinApi();
+		os.setAvailableBytes(size);
+		os.setWaitAndReadAvailableSupported(combinedRead);
+
+		SerialPortImpl port = new SerialPortImpl(os, "COM1", "benchmark");
+		int handle = os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, FILE_FLAG_OVERLAPPED, 0);
+		reader = new ReaderImpl(port, os, handle);
+		writer = new WriterImpl(port, os, handle);
+
+		data = new byte[size];
+		directBuffer = ByteBuffer.allocateDirect(size);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		reader.close();
+		reader.dispose();
+		writer.close();
+		writer.dispose();
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		writer.write(data);
+	}
+
+	@Benchmark
+	public byte[] read() throws IOException {
+		return reader.read();
+	}
+
+	/**
+	 * Reads into a direct buffer, which polls <code>ClearCommError</code> with the reused
+	 * <code>COMSTAT</code>. The read loop must not allocate, so <code>gc.alloc.rate.norm</code> is
+	 * expected to be 0 bytes per operation. This is verified by <code>TestReadAllocation</code>.
+	 */
+	@Benchmark
+	public int read_directBuffer() throws IOException {
+		directBuffer.clear();
+		return reader.read(directBuffer);
+	}
+}
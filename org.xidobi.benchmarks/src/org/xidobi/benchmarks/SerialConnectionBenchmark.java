@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialPortImpl;
+import org.xidobi.spi.BasicSerialConnection;
+
+/**
+ * Measures the read and write operations of a {@link BasicSerialConnection}, including the
+ * {@link org.xidobi.ReaderImpl ReaderImpl} and the {@link org.xidobi.WriterImpl WriterImpl} it
+ * delegates to.
+ * 
+ * @author Christian Schwarz
+ */
+@State(Scope.Thread)
+public class SerialConnectionBenchmark {
+
+	/** the number of bytes that are read or written by each operation */
+	@Param({ "1", "64", "1024" })
+	public int size;
+
+	/** the connection under test */
+	private SerialConnection connection;
+
+	/** the data that is written */
+	private byte[] data;
+	/** receives or provides the data of the buffer based operations */
+	private ByteBuffer heapBuffer;
+	/** receives or provides the data of the buffer based operations */
+	private ByteBuffer directBuffer;
+
+	@Setup
+	public void setUp() throws IOException {
+		InMemoryWinApi os = new InMemoryWinApi();
+		os.setAvailableBytes(size);
+
+		connection = new SerialPortImpl(os, "COM1", "benchmark").open(from9600bauds8N1().create());
+
+		data = new byte[size];
+		heapBuffer = ByteBuffer.allocate(size);
+		directBuffer = ByteBuffer.allocateDirect(size);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		connection.close();
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		connection.write(data);
+	}
+
+	@Benchmark
+	public void write_heapBuffer() throws IOException {
+		heapBuffer.clear();
+		connection.write(heapBuffer);
+	}
+
+	@Benchmark
+	public void write_directBuffer() throws IOException {
+		directBuffer.clear();
+		connection.write(directBuffer);
+	}
+
+	@Benchmark
+	public byte[] read() throws IOException {
+		return connection.read();
+	}
+
+	@Benchmark
+	public int read_heapBuffer() throws IOException {
+		heapBuffer.clear();
+		return connection.read(heapBuffer);
+	}
+
+	@Benchmark
+	public int read_directBuffer() throws IOException {
+		directBuffer.clear();
+		return connection.read(directBuffer);
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xidobi.CachingSerialPortFinder;
+import org.xidobi.SerialPort;
+import org.xidobi.SerialPortFinderImpl;
+
+/**
+ * Measures {@link SerialPortFinderImpl#getAll()}, that enumerates the serial ports in the
+ * registry, and the lookup of a port with and without the {@link CachingSerialPortFinder}.
+ * 
+ * @author Christian Schwarz
+ */
+@State(Scope.Thread)
+public class SerialPortFinderBenchmark {
+
+	/** the number of serial ports in the registry */
+	@Param({ "1", "16" })
+	public int portCount;
+
+	/** the finder under test */
+	private SerialPortFinderImpl finder;
+	/** caches the ports of the finder */
+	private CachingSerialPortFinder cache;
+
+	@Setup
+	public void setUp() {
+		InMemoryWinApi os = new InMemoryWinApi();
+		os.setPortCount(portCount);
+
+		finder = new SerialPortFinderImpl(os);
+		cache = new CachingSerialPortFinder(finder, 1, HOURS);
+	}
+
+	@Benchmark
+	public Set<SerialPort> getAll() {
+		return finder.getAll();
+	}
+
+	@Benchmark
+	public SerialPort get() {
+		return finder.get("COM1");
+	}
+
+	@Benchmark
+	public SerialPort get_cached() {
+		return cache.get("COM1");
+	}
+}
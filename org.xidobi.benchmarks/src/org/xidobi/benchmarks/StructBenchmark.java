@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xidobi.WinApi;
+import org.xidobi.structs.DWORD;
+import org.xidobi.structs.NativeByteArray;
+
+/**
+ * Measures the field access of the structs, either through the buffer over their memory or
+ * through the accessors of the {@link WinApi} like {@link WinApi#getValue_DWORD(DWORD)}.
+ * <p>
+ * <b>NOTE:</b> The accessors of the {@link InMemoryWinApi} are plain Java code, so this benchmark
+ * shows only the overhead of the Java code paths. With the native library every accessor is a
+ * JNI call, that is avoided by the buffer.
+ * 
+ * @author Christian Schwarz
+ */
+@State(Scope.Thread)
+public class StructBenchmark {
+
+	/** <code>true</code>, if the structs access their memory through a buffer */
+	@Param({ "false", "true" })
+	public boolean memoryView;
+
+	/** the DWORD under test */
+	private DWORD dword;
+	/** the native byte array under test */
+	private NativeByteArray byteArray;
+
+	/** the data that is copied into the native byte array */
+	private final byte[] data = new byte[64];
+
+	@Setup
+	public void setUp() {
+		InMemoryWinApi os = new InMemoryWinApi();
+		os.setMemoryViewSupported(memoryView);
+
+		dword = new DWORD(os);
+		byteArray = new NativeByteArray(os, data.length);
+	}
+
+	@TearDown
+	public void tearDown() {
+		dword.dispose();
+		byteArray.dispose();
+	}
+
+	@Benchmark
+	public int dword_setAndGet() {
+		dword.setValue(dword.getValue() + 1);
+		return dword.getValue();
+	}
+
+	@Benchmark
+	public byte[] nativeByteArray_setAndGet() {
+		byteArray.setByteArray(0, data, 0, data.length);
+		return byteArray.getByteArray();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks;
+
+import static java.lang.management.ManagementFactory.getThreadMXBean;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.xidobi.WinApi.FILE_FLAG_OVERLAPPED;
+import static org.xidobi.WinApi.GENERIC_READ;
+import static org.xidobi.WinApi.GENERIC_WRITE;
+import static org.xidobi.WinApi.OPEN_EXISTING;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xidobi.ReaderImpl;
+import org.xidobi.SerialPortImpl;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Verifies that the read loop of the {@link ReaderImpl}, that polls <code>ClearCommError</code>
+ * with the reused <code>COMSTAT</code>, doesn't allocate on the Java heap. The
+ * {@link InMemoryWinApi} doesn't allocate on this path, so every allocated byte is caused by the
+ * reader.
+ * 
+ * @author Christian Schwarz
+ */
+public class TestReadAllocation {
+
+	/** the number of reads, that are performed before the allocations are measured */
+	private static final int WARMUP_READS = 20000;
+	/** the number of reads, whose allocations are measured */
+	private static final int MEASURED_READS = 100000;
+	/**
+	 * the number of bytes, that may be allocated by the measurement itself, it is much lower than
+	 * one byte per read
+	 */
+	private static final long TOLERATED_BYTES = 1024;
+
+	/** measures the allocated bytes of the current thread */
+	private ThreadMXBean threads;
+
+	/** the read operation under test */
+	private ReaderImpl reader;
+	/** receives the read data */
+	private ByteBuffer directBuffer;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		threads = (ThreadMXBean) getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		InMemoryWinApi os = new InMemoryWinApi();
+		os.setAvailableBytes(64);
+
+		SerialPortImpl port = new SerialPortImpl(os, "COM1", "allocation");
+		int handle = os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, FILE_FLAG_OVERLAPPED, 0);
+		reader = new ReaderImpl(port, os, handle);
+		directBuffer = ByteBuffer.allocateDirect(64);
+	}
+
+	@After
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws IOException {
+		reader.close();
+		reader.dispose();
+	}
+
+	/**
+	 * Verifies that a read into a direct buffer allocates no bytes.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_directBuffer() throws IOException {
+		readDirectBuffer(WARMUP_READS);
+
+		long threadId = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(threadId);
+		readDirectBuffer(MEASURED_READS);
+		long allocatedBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+		assertThat(allocatedBytes, is(lessThan(TOLERATED_BYTES)));
+	}
+
+	/** Reads the given number of times into the direct buffer. */
+	private void readDirectBuffer(int reads) throws IOException {
+		for (int i = 0; i < reads; i++) {
+			directBuffer.clear();
+			reader.read(directBuffer);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.benchmarks.linux;
+
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.xidobi.PosixApi.ECHO;
+import static org.xidobi.PosixApi.FIONREAD;
+import static org.xidobi.PosixApi.ICANON;
+import static org.xidobi.PosixApi.OPOST;
+import static org.xidobi.PosixApi.TCSANOW;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xidobi.ForeignOS;
+import org.xidobi.OS;
+import org.xidobi.PosixApi;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.Termios;
+
+/**
+ * Measures the overhead of the native calls of the JNI backend {@link OS} and the backend on the
+ * Foreign Function &amp; Memory API {@link ForeignOS}. The calls go to a pseudo terminal, so no
+ * serial port hardware is needed.
+ * <p>
+ * <b>NOTE:</b> The JNI backend needs the native library of the Linux fragment on the
+ * <code>java.library.path</code>, it is passed to the forked VM.
+ * 
+ * @author Christian Schwarz
+ */
+@State(Scope.Thread)
+@Fork(jvmArgsAppend = "--enable-native-access=ALL-UNNAMED")
+public class PosixCallBenchmark {
+
+	/** the backend under test */
+	@Param({ "jni", "ffm" })
+	public String backend;
+
+	/** the number of bytes that are written and read */
+	@Param({ "1", "256" })
+	public int length;
+
+	/** the backend under test */
+	private PosixApi os;
+
+	/** the file descriptor of the master of the pseudo terminal */
+	private int master;
+	/** the file descriptor of the slave of the pseudo terminal */
+	private int slave;
+
+	/** the data that is written to the slave */
+	private ByteBuffer src;
+	/** receives the data from the master */
+	private ByteBuffer dst;
+	/** receives the number of available bytes */
+	private final INT available = new INT();
+
+	@Setup
+	public void setUp() throws IOException {
+		os = "jni".equals(backend) ? OS.OS : ForeignOS.OS;
+
+		INT master = new INT(-1);
+		INT slave = new INT(-1);
+		if (os.openpty(master, slave) != 0)
+			throw new IOException("openpty failed: " + os.strerror(os.errno()));
+		this.master = master.value;
+		this.slave = slave.value;
+
+		// the data must pass the slave unchanged
+		Termios termios = new Termios();
+		if (os.tcgetattr(this.slave, termios) != 0)
+			throw new IOException("tcgetattr failed: " + os.strerror(os.errno()));
+		termios.c_oflag &= ~OPOST;
+		termios.c_lflag &= ~(ICANON | ECHO);
+		if (os.tcsetattr(this.slave, TCSANOW, termios) != 0)
+			throw new IOException("tcsetattr failed: " + os.strerror(os.errno()));
+
+		src = allocateDirect(length);
+		dst = allocateDirect(length);
+	}
+
+	@TearDown
+	public void tearDown() {
+		os.close(slave);
+		os.close(master);
+	}
+
+	/** A call that fails immediately, it shows the pure overhead including the errno. */
+	@Benchmark
+	public int failingCall() {
+		os.close(-1);
+		return os.errno();
+	}
+
+	/** A short call with an out parameter. */
+	@Benchmark
+	public int availableBytes() {
+		os.ioctl(master, FIONREAD, available);
+		return available.value;
+	}
+
+	/** Transfers the data through the pseudo terminal, the read blocks until it arrived. */
+	@Benchmark
+	public int writeAndRead() throws IOException {
+		if (os.write(slave, src, 0, length) != length)
+			throw new IOException("write failed: " + os.strerror(os.errno()));
+
+		int bytesRead = 0;
+		while (bytesRead < length) {
+			int result = os.read(master, dst, bytesRead, length - bytesRead);
+			if (result <= 0)
+				throw new IOException("read failed: " + os.strerror(os.errno()));
+			bytesRead += result;
+		}
+		return bytesRead;
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.integration;
+
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.ECHO;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.ENOENT;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_ADD;
+import static org.xidobi.PosixApi.FIONREAD;
+import static org.xidobi.PosixApi.ICANON;
+import static org.xidobi.PosixApi.O_NOCTTY;
+import static org.xidobi.PosixApi.O_RDWR;
+import static org.xidobi.PosixApi.TCSANOW;
+import static org.xidobi.PosixApi.VMIN;
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xidobi.ForeignOS;
+import org.xidobi.PosixApi;
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialPortImpl;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.Termios;
+
+/**
+ * Integration test, that calls the C library through {@link ForeignOS} with a pseudo terminal. No
+ * serial port hardware and no native library of xidobi is needed for this test, but Java 22.
+ *
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestForeignOS {
+
+	/** Class under test */
+	private PosixApi os = ForeignOS.OS;
+
+	/** the file descriptor of the master of the pseudo terminal */
+	private int master;
+	/** the file descriptor of the slave of the pseudo terminal */
+	private int slave;
+
+	@Before
+	public void setUp() {
+		INT master = new INT(-1);
+		INT slave = new INT(-1);
+		assertThat(os.openpty(master, slave), is(0));
+
+		this.master = master.value;
+		this.slave = slave.value;
+	}
+
+	@After
+	public void tearDown() {
+		os.close(slave);
+		os.close(master);
+	}
+
+	/**
+	 * Verifies that the name of the slave is returned.
+	 */
+	@Test(timeout = 2000)
+	public void ttyname() {
+		assertThat(os.ttyname(slave), startsWith("/dev/pts/"));
+	}
+
+	/**
+	 * Verifies that the data written to the slave can be read from the master, at the given
+	 * offsets of the buffers.
+	 */
+	@Test(timeout = 2000)
+	public void writeAndRead() {
+		ByteBuffer src = allocateDirect(8);
+		src.position(3);
+		src.put("Hello".getBytes());
+		assertThat(os.write(slave, src, 3, 5), is(5));
+
+		assertThat(readFromMaster(5, 2), is("Hello"));
+	}
+
+	/**
+	 * Verifies that the number of available bytes is returned through the <code>INT</code>
+	 * argument of <code>ioctl</code>.
+	 */
+	@Test(timeout = 2000)
+	public void ioctl_FIONREAD() {
+		ByteBuffer src = allocateDirect(5);
+		src.put("Hello".getBytes());
+		assertThat(os.write(slave, src, 0, 5), is(5));
+		awaitReadable(master);
+
+		INT available = new INT();
+		assertThat(os.ioctl(master, FIONREAD, available), is(0));
+
+		assertThat(available.value, is(5));
+	}
+
+	/**
+	 * Verifies that the fields of the termios struct are read and written.
+	 */
+	@Test(timeout = 2000)
+	public void tcsetattr() {
+		Termios termios = new Termios();
+		assertThat(os.tcgetattr(slave, termios), is(0));
+		termios.c_lflag &= ~(ICANON | ECHO);
+		termios.c_cc[VMIN] = 3;
+
+		assertThat(os.tcsetattr(slave, TCSANOW, termios), is(0));
+
+		Termios result = new Termios();
+		assertThat(os.tcgetattr(slave, result), is(0));
+		assertThat(result.c_lflag & (ICANON | ECHO), is(0));
+		assertThat(result.c_cflag, is(termios.c_cflag));
+		assertThat(result.c_cc[VMIN], is((byte) 3));
+	}
+
+	/**
+	 * Verifies that a signaled eventfd object is returned by <code>epoll_wait</code>.
+	 */
+	@Test(timeout = 2000)
+	public void epoll_wait() {
+		int epfd = os.epoll_create1(EPOLL_CLOEXEC);
+		int efd = os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+		try {
+			assertThat(os.epoll_ctl(epfd, EPOLL_CTL_ADD, efd, EPOLLIN), is(0));
+			assertThat(os.eventfd_write(efd, 1), is(0));
+
+			int[] fds = new int[4];
+			int[] events = new int[4];
+			assertThat(os.epoll_wait(epfd, fds, events, 1000), is(1));
+
+			assertThat(fds[0], is(efd));
+			assertThat(events[0] & EPOLLIN, is(EPOLLIN));
+		}
+		finally {
+			os.close(efd);
+			os.close(epfd);
+		}
+	}
+
+	/**
+	 * Verifies that the errno of a failed call is captured and described.
+	 */
+	@Test(timeout = 2000)
+	public void errno() {
+		assertThat(os.close(-1), is(-1));
+
+		assertThat(os.errno(), is(EBADF));
+		assertThat(os.strerror(EBADF), is("Bad file descriptor"));
+	}
+
+	/**
+	 * Verifies that the errno is captured for the calling thread.
+	 */
+	@Test(timeout = 2000)
+	public void errno_ofOtherThread() throws Exception {
+		assertThat(os.open("/dev/xidobi-does-not-exist", O_RDWR | O_NOCTTY), is(-1));
+
+		Thread other = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				os.close(-1);
+			}
+		});
+		other.start();
+		other.join();
+
+		assertThat(os.errno(), is(ENOENT));
+	}
+
+	/**
+	 * Verifies that a serial port can be opened and written with this backend.
+	 */
+	@Test(timeout = 2000)
+	public void serialPort() throws Exception {
+		String slaveName = os.ttyname(slave);
+		assertThat(slaveName, is(notNullValue()));
+
+		SerialConnection connection = new SerialPortImpl(os, slaveName, null).open(from9600bauds8N1().create());
+		try {
+			connection.write("Hello".getBytes());
+
+			assertThat(readFromMaster(5, 0), is("Hello"));
+		}
+		finally {
+			connection.close();
+		}
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Blocks until data can be read from the given file descriptor. */
+	private void awaitReadable(int fd) {
+		int epfd = os.epoll_create1(EPOLL_CLOEXEC);
+		try {
+			assertThat(os.epoll_ctl(epfd, EPOLL_CTL_ADD, fd, EPOLLIN), is(0));
+			assertThat(os.epoll_wait(epfd, new int[1], new int[1], 1000), is(1));
+		}
+		finally {
+			os.close(epfd);
+		}
+	}
+
+	/** Reads the given number of bytes from the master into a buffer at the given offset. */
+	private String readFromMaster(int length, int offset) {
+		ByteBuffer buffer = allocateDirect(offset + length);
+		int bytesRead = 0;
+		while (bytesRead < length) {
+			int result = os.read(master, buffer, offset + bytesRead, length - bytesRead);
+			assertThat(result > 0, is(true));
+			bytesRead += result;
+		}
+		byte[] data = new byte[length];
+		buffer.position(offset);
+		buffer.get(data);
+		return new String(data);
+	}
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.EPOLLHUP;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_ADD;
+import static org.xidobi.PosixApi.INFINITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.spi.NativeCodeException;
+
+/**
+ * Tests the class {@link IoOperationImpl}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestIoOperationImpl {
+
+	/** a dummy error code */
+	private static final int DUMMY_ERROR_CODE = 214;
+
+	/** a dummy file descriptor of the serial port */
+	private static final int PORT_FD = 3;
+	/** a dummy file descriptor of the epoll instance */
+	private static final int EPOLL_FD = 4;
+	/** a dummy file descriptor of the eventfd object */
+	private static final int EVENT_FD = 5;
+
+	/** needed to verifiy exception */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/** class under test */
+	private IoOperationImpl operation;
+
+	@Mock
+	private SerialPort port;
+
+	@Mock
+	private PosixApi os;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(EPOLL_FD);
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(EVENT_FD);
+		when(port.getPortName()).thenReturn("/dev/ttyS0");
+
+		operation = new _IoOperation(port, os, PORT_FD);
+	}
+
+	/**
+	 * Verfies that an {@link IllegalArgumentException} is thrown if the {@link SerialPort} is
+	 * <code>null</code>
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_withNullPort() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >port< must not be null!");
+
+		new _IoOperation(null, os, PORT_FD);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown if the {@link PosixApi} is
+	 * <code>null</code>.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_withNullOS() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >os< must not be null!");
+
+		new _IoOperation(port, null, PORT_FD);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown if an invalid file descriptor is
+	 * passed.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_withInvalidFd() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >fd< is invalid!");
+
+		new _IoOperation(port, os, -1);
+	}
+
+	/**
+	 * Verifies that the eventfd object and the serial port are registered on the epoll instance.
+	 */
+	@Test
+	public void new_registersFileDescriptors() {
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, EVENT_FD, EPOLLIN);
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, PORT_FD, EPOLLIN);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, if the epoll instance can't be
+	 * created.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_epollCreateFails() {
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("epoll_create1 failed unexpected!");
+
+		new _IoOperation(port, os, PORT_FD);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown and the epoll instance is closed, if
+	 * the eventfd object can't be created.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_eventfdFails() {
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("eventfd failed unexpected!");
+
+		try {
+			new _IoOperation(port, os, PORT_FD);
+		}
+		finally {
+			verify(os).close(EPOLL_FD);
+		}
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown and all file descriptors are closed, if
+	 * the serial port can't be registered on the epoll instance.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_epollCtlFails() {
+		when(os.epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, PORT_FD, EPOLLIN)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("epoll_ctl failed unexpected!");
+
+		try {
+			new _IoOperation(port, os, PORT_FD);
+		}
+		finally {
+			verify(os).close(EVENT_FD);
+			verify(os).close(EPOLL_FD);
+		}
+	}
+
+	/**
+	 * Verifies that the signaled events of the serial port are returned.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void awaitEvents() throws Exception {
+		mockEpollWait(1, PORT_FD, EPOLLIN);
+
+		assertThat(operation.awaitEvents(INFINITE), is(EPOLLIN));
+	}
+
+	/**
+	 * Verifies that <code>0</code> is returned, when the timeout elapsed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void awaitEvents_timeout() throws Exception {
+		mockEpollWait(0);
+
+		assertThat(operation.awaitEvents(100), is(0));
+		verify(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), eq(100));
+	}
+
+	/**
+	 * Verifies that the wait is repeated, when it was interrupted by a signal.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void awaitEvents_EINTR() throws Exception {
+		when(os.epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), anyInt())).thenReturn(-1).thenAnswer(epollWaitAnswer(1, PORT_FD, EPOLLIN));
+		when(os.errno()).thenReturn(EINTR);
+
+		assertThat(operation.awaitEvents(INFINITE), is(EPOLLIN));
+		verify(os, times(2)).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), eq(INFINITE));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when a hang up is signaled.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void awaitEvents_hangUp() throws Exception {
+		mockEpollWait(1, PORT_FD, EPOLLHUP);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! I/O operation failed, because a hang up or an error was signaled.");
+
+		operation.awaitEvents(INFINITE);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when <code>epoll_wait</code> fails with
+	 * <code>EBADF</code>.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void awaitEvents_EBADF() throws Exception {
+		mockEpollWait(-1);
+		when(os.errno()).thenReturn(EBADF);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! I/O operation failed, because the file descriptor is invalid.");
+
+		operation.awaitEvents(INFINITE);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when <code>epoll_wait</code> fails
+	 * unexpected.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void awaitEvents_failsUnexpected() throws Exception {
+		mockEpollWait(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("epoll_wait failed unexpected!");
+
+		operation.awaitEvents(INFINITE);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when the eventfd object was signaled by
+	 * {@link IoOperationImpl#close()}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void awaitEvents_closed() throws Exception {
+		mockEpollWait(1, EVENT_FD, EPOLLIN);
+		operation.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! I/O operation was canceled.");
+
+		try {
+			operation.awaitEvents(INFINITE);
+		}
+		finally {
+			verify(os, never()).epoll_wait(anyInt(), any(int[].class), any(int[].class), anyInt());
+		}
+	}
+
+	/**
+	 * Verifies that the eventfd object is signaled on close.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close() throws Exception {
+		operation.close();
+
+		verify(os).eventfd_write(EVENT_FD, 1);
+		verify(os, never()).close(anyInt());
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when <code>eventfd_write</code> fails.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close_eventfdWriteFails() throws Exception {
+		when(os.eventfd_write(EVENT_FD, 1)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("eventfd_write failed unexpected!");
+
+		operation.close();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when the I/O operation is closed for the
+	 * second time.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close_twice() throws Exception {
+		operation.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed!");
+
+		operation.close();
+	}
+
+	/**
+	 * Verifies that the file descriptors of the epoll instance and the eventfd object are closed.
+	 */
+	@Test
+	public void dispose() {
+		operation.dispose();
+
+		verify(os).close(EVENT_FD);
+		verify(os).close(EPOLL_FD);
+		verify(os, never()).close(PORT_FD);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalStateException} is thrown, when the I/O operation is disposed
+	 * for the second time.
+	 */
+	@Test
+	public void dispose_twice() {
+		operation.dispose();
+
+		exception.expect(IllegalStateException.class);
+		exception.expectMessage("The instance of " + _IoOperation.class.getName() + " was already disposed!");
+
+		operation.dispose();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown for <code>EIO</code>.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void handleNativeError_EIO() throws Exception {
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! I/O operation failed, because of an input/output error.");
+
+		operation.handleNativeError("read", EIO);
+	}
+
+	/**
+	 * Verifies that a new direct buffer is allocated, if no buffer is passed.
+	 */
+	@Test
+	public void ensureCapacity_null() {
+		ByteBuffer buffer = IoOperationImpl.ensureCapacity(null, 10);
+
+		assertThat(buffer.isDirect(), is(true));
+		assertThat(buffer.capacity(), is(10));
+	}
+
+	/**
+	 * Verifies that the given buffer is returned, if it is large enough.
+	 */
+	@Test
+	public void ensureCapacity_largeEnough() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+
+		assertThat(IoOperationImpl.ensureCapacity(buffer, 10), is(sameInstance(buffer)));
+	}
+
+	/**
+	 * Verifies that the capacity is at least doubled, if the given buffer is too small.
+	 */
+	@Test
+	public void ensureCapacity_tooSmall() {
+		ByteBuffer buffer = IoOperationImpl.ensureCapacity(ByteBuffer.allocateDirect(10), 11);
+
+		assertThat(buffer.isDirect(), is(true));
+		assertThat(buffer.capacity(), is(20));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/**
+	 * Mocks <code>epoll_wait</code> to return the given result and to signal the given pairs of
+	 * file descriptor and events.
+	 */
+	private void mockEpollWait(int result, int... fdsAndEvents) {
+		doAnswer(epollWaitAnswer(result, fdsAndEvents)).when(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), anyInt());
+	}
+
+	/**
+	 * Returns an answer for <code>epoll_wait</code> that returns the given result and signals the
+	 * given pairs of file descriptor and events.
+	 */
+	private Answer<Integer> epollWaitAnswer(final int result, final int... fdsAndEvents) {
+		return new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				int[] fds = (int[]) invocation.getArguments()[1];
+				int[] events = (int[]) invocation.getArguments()[2];
+				for (int i = 0; i < fdsAndEvents.length / 2; i++) {
+					fds[i] = fdsAndEvents[i * 2];
+					events[i] = fdsAndEvents[i * 2 + 1];
+				}
+				return result;
+			}
+		};
+	}
+
+	/** Implementation for testing purpose. */
+	private static class _IoOperation extends IoOperationImpl {
+
+		public _IoOperation(SerialPort port,
+							PosixApi os,
+							int fd) {
+			super(port, os, fd, EPOLLIN);
+		}
+	}
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.Thread.currentThread;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.PosixApi.EAGAIN;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_ADD;
+import static org.xidobi.PosixApi.FIONREAD;
+import static org.xidobi.PosixApi.INFINITE;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.INT;
+
+/**
+ * Tests the class {@link ReaderImpl}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestReaderImpl {
+
+	/** a dummy error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** a dummy file descriptor of the serial port */
+	private static final int PORT_FD = 3;
+	/** a dummy file descriptor of the epoll instance */
+	private static final int EPOLL_FD = 4;
+	/** a dummy file descriptor of the eventfd object */
+	private static final int EVENT_FD = 5;
+
+	/** the dummy data that is read */
+	private static final byte[] DATA = { 1, 2, 3, 4, 5 };
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private PosixApi os;
+
+	@Mock
+	private SerialPort port;
+
+	/** the class under test */
+	private ReaderImpl reader;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+
+		when(port.getPortName()).thenReturn("/dev/ttyS0");
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(EPOLL_FD);
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(EVENT_FD);
+
+		reader = new ReaderImpl(port, os, PORT_FD);
+	}
+
+	/**
+	 * Verifies that the serial port is registered for <code>EPOLLIN</code>.
+	 */
+	@Test
+	public void new_registersEPOLLIN() {
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, PORT_FD, EPOLLIN);
+	}
+
+	/**
+	 * Verifies that the available data is read without waiting.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_dataAvailable() throws Exception {
+		mockAvailableBytes(DATA.length);
+		mockRead(DATA);
+
+		assertThat(reader.read(), is(DATA));
+		verify(os, never()).epoll_wait(anyInt(), any(int[].class), any(int[].class), anyInt());
+	}
+
+	/**
+	 * Verifies that the reader waits without a timeout, if no data is available.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_waitsForData() throws Exception {
+		mockAvailableBytes(0, DATA.length);
+		mockEpollWait(1, PORT_FD, EPOLLIN);
+		mockRead(DATA);
+
+		assertThat(reader.read(), is(DATA));
+		verify(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), eq(INFINITE));
+	}
+
+	/**
+	 * Verifies that the reader waits again, if the available data is gone before it was read.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_EAGAIN() throws Exception {
+		mockAvailableBytes(DATA.length);
+		when(os.read(eq(PORT_FD), any(ByteBuffer.class), eq(0), eq(DATA.length))).thenReturn(-1).thenAnswer(readAnswer(DATA));
+		when(os.errno()).thenReturn(EAGAIN);
+
+		assertThat(reader.read(), is(DATA));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if <code>read</code> returns <code>0</code>
+	 * (end of file).
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_endOfFile() throws Exception {
+		mockAvailableBytes(DATA.length);
+		when(os.read(eq(PORT_FD), any(ByteBuffer.class), anyInt(), anyInt())).thenReturn(0);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! Read operation failed, because the end of file was reached.");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if <code>read</code> fails with
+	 * <code>EIO</code>.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_EIO() throws Exception {
+		mockAvailableBytes(DATA.length);
+		when(os.read(eq(PORT_FD), any(ByteBuffer.class), anyInt(), anyInt())).thenReturn(-1);
+		when(os.errno()).thenReturn(EIO);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! I/O operation failed, because of an input/output error.");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, if <code>ioctl</code> fails
+	 * unexpected.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_ioctlFails() throws Exception {
+		when(os.ioctl(eq(PORT_FD), eq(FIONREAD), any(INT.class))).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("ioctl failed unexpected!");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that an {@link InterruptedIOException} is thrown, if the thread is interrupted.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_interrupted() throws Exception {
+		currentThread().interrupt();
+
+		exception.expect(InterruptedIOException.class);
+		exception.expectMessage("The thread for the read operation is interrupted!");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the reader was closed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_closed() throws Exception {
+		reader.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed!");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the reader is closed while it waits for
+	 * data.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_closedWhileWaiting() throws Exception {
+		mockAvailableBytes(0);
+		doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				// simulates close() of another thread
+				reader.close();
+				return 1;
+			}
+		}).when(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), anyInt());
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! I/O operation was canceled.");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that the read buffer is reused.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void read_reusesReadBuffer() throws Exception {
+		final ByteBuffer[] buffers = new ByteBuffer[2];
+		mockAvailableBytes(DATA.length);
+		when(os.read(eq(PORT_FD), any(ByteBuffer.class), eq(0), eq(DATA.length))).thenAnswer(new Answer<Integer>() {
+			private int call;
+
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				buffers[call++] = (ByteBuffer) invocation.getArguments()[1];
+				return DATA.length;
+			}
+		});
+
+		reader.read();
+		reader.read();
+
+		assertThat(buffers[0] == buffers[1], is(true));
+	}
+
+	/**
+	 * Verifies that the data is read directly into a direct buffer and its position is advanced.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void readByteBuffer_direct() throws Exception {
+		ByteBuffer dst = ByteBuffer.allocateDirect(10);
+		dst.position(2);
+		mockAvailableBytes(DATA.length);
+		when(os.read(PORT_FD, dst, 2, DATA.length)).thenAnswer(readAnswer(DATA));
+
+		assertThat(reader.read(dst), is(DATA.length));
+		assertThat(dst.position(), is(2 + DATA.length));
+		assertThat(dst.get(2), is(DATA[0]));
+	}
+
+	/**
+	 * Verifies that not more bytes are read than the heap buffer can hold.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void readByteBuffer_heapLimitsNumberOfBytes() throws Exception {
+		ByteBuffer dst = ByteBuffer.allocate(3);
+		mockAvailableBytes(DATA.length);
+		when(os.read(eq(PORT_FD), any(ByteBuffer.class), eq(0), eq(3))).thenAnswer(readAnswer(DATA));
+
+		assertThat(reader.read(dst), is(3));
+		assertThat(dst.array(), is(new byte[] { 1, 2, 3 }));
+		assertThat(dst.hasRemaining(), is(false));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Mocks <code>ioctl(FIONREAD)</code> to return the given numbers of available bytes. */
+	private void mockAvailableBytes(final int... availableBytes) {
+		doAnswer(new Answer<Integer>() {
+			private int call;
+
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				INT argp = (INT) invocation.getArguments()[2];
+				argp.value = availableBytes[Math.min(call++, availableBytes.length - 1)];
+				return 0;
+			}
+		}).when(os).ioctl(eq(PORT_FD), eq(FIONREAD), any(INT.class));
+	}
+
+	/** Mocks <code>read</code> to read the given data. */
+	private void mockRead(byte[] data) {
+		when(os.read(eq(PORT_FD), any(ByteBuffer.class), anyInt(), anyInt())).thenAnswer(readAnswer(data));
+	}
+
+	/**
+	 * Returns an answer for <code>read</code> that copies the given data into the buffer, at most
+	 * <code>count</code> bytes.
+	 */
+	private Answer<Integer> readAnswer(final byte[] data) {
+		return new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[1];
+				int offset = (Integer) invocation.getArguments()[2];
+				int count = Math.min((Integer) invocation.getArguments()[3], data.length);
+				for (int i = 0; i < count; i++)
+					buffer.put(offset + i, data[i]);
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Mocks <code>epoll_wait</code> to return the given result and to signal the given pairs of
+	 * file descriptor and events.
+	 */
+	private void mockEpollWait(final int result, final int... fdsAndEvents) {
+		doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				int[] fds = (int[]) invocation.getArguments()[1];
+				int[] events = (int[]) invocation.getArguments()[2];
+				for (int i = 0; i < fdsAndEvents.length / 2; i++) {
+					fds[i] = fdsAndEvents[i * 2];
+					events[i] = fdsAndEvents[i * 2 + 1];
+				}
+				return result;
+			}
+		}).when(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), anyInt());
+	}
+}
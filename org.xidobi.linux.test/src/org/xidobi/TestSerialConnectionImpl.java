@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.TCIOFLUSH;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.xidobi.spi.NativeCodeException;
+
+/**
+ * Tests the class {@link SerialConnectionImpl}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestSerialConnectionImpl {
+
+	/** a dummy error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** a dummy file descriptor of the serial port */
+	private static final int PORT_FD = 3;
+	/** a dummy file descriptor of the epoll instances */
+	private static final int EPOLL_FD = 4;
+	/** a dummy file descriptor of the eventfd objects */
+	private static final int EVENT_FD = 5;
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private PosixApi os;
+
+	@Mock
+	private SerialPort port;
+
+	/** the class under test */
+	private SerialConnectionImpl connection;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+
+		when(port.getPortName()).thenReturn("/dev/ttyS0");
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(EPOLL_FD);
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(EVENT_FD);
+
+		connection = new SerialConnectionImpl(port, os, PORT_FD);
+	}
+
+	/**
+	 * Verifies that the pending operations are woken up, before the buffers of the port are
+	 * flushed and the file descriptor is closed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close() throws Exception {
+		connection.close();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os, times(2)).eventfd_write(EVENT_FD, 1);
+		inOrder.verify(os).tcflush(PORT_FD, TCIOFLUSH);
+		inOrder.verify(os).close(PORT_FD);
+		assertThat(connection.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that the native resources of the reader and writer are released on close.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close_disposesReaderAndWriter() throws Exception {
+		connection.close();
+
+		verify(os, times(2)).close(EVENT_FD);
+		verify(os, times(2)).close(EPOLL_FD);
+	}
+
+	/**
+	 * Verifies that the file descriptor is closed, even if the flush fails.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close_flushFails() throws Exception {
+		when(os.tcflush(PORT_FD, TCIOFLUSH)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("tcflush failed unexpected!");
+
+		try {
+			connection.close();
+		}
+		finally {
+			verify(os).close(PORT_FD);
+		}
+	}
+
+	/**
+	 * Verifies that the connection is closed without an exception, if the port was removed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close_portRemoved() throws Exception {
+		when(os.tcflush(PORT_FD, TCIOFLUSH)).thenReturn(-1);
+		when(os.close(PORT_FD)).thenReturn(-1);
+		when(os.errno()).thenReturn(EIO);
+
+		connection.close();
+
+		assertThat(connection.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that <code>EBADF</code> is ignored.
+	 */
+	@Test
+	public void handleNativeError_EBADF() {
+		connection.handleNativeError("close", EBADF);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown for unexpected error codes.
+	 */
+	@Test
+	public void handleNativeError_unexpected() {
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("close failed unexpected!");
+
+		connection.handleNativeError("close", DUMMY_ERROR_CODE);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the native method name is
+	 * <code>null</code>.
+	 */
+	@Test
+	public void handleNativeError_withNullName() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >nativeMethodName< must not be null!");
+
+		connection.handleNativeError(null, DUMMY_ERROR_CODE);
+	}
+
+	/**
+	 * Verifies that the connection can't be used after it was closed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_afterClose() throws Exception {
+		connection.close();
+
+		exception.expect(IOException.class);
+
+		connection.write(new byte[] { 1 });
+	}
+}
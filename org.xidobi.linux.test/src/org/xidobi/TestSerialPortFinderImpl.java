@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+
+/**
+ * Tests the class {@link SerialPortFinderImpl}. The sysfs is simulated by a temporary directory
+ * with symbolic links.
+ *
+ * @author Christian Schwarz
+ */
+public class TestSerialPortFinderImpl {
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/** the simulated sysfs */
+	@Rule
+	public TemporaryFolder sysfs = new TemporaryFolder();
+
+	@Mock
+	private PosixApi os;
+
+	/** the simulated "/sys/class/tty" */
+	private File ttyClassDir;
+
+	/** the class under test */
+	private SerialPortFinderImpl finder;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		ttyClassDir = newFolder("class", "tty");
+		newFolder("bus", "usb-serial");
+		newFolder("bus", "platform");
+		newFolder("drivers", "ftdi_sio");
+
+		finder = new SerialPortFinderImpl(os, ttyClassDir, new File("/dev"));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the tty class directory is
+	 * <code>null</code>.
+	 */
+	@Test
+	public void new_withNullTtyClassDir() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >ttyClassDir< must not be null!");
+
+		new SerialPortFinderImpl(os, null, new File("/dev"));
+	}
+
+	/**
+	 * Verifies that an empty set is returned, if the sysfs is not available.
+	 */
+	@Test
+	public void getAll_noSysfs() {
+		finder = new SerialPortFinderImpl(os, new File(ttyClassDir, "notExisting"), new File("/dev"));
+
+		assertThat(finder.getAll().isEmpty(), is(true));
+	}
+
+	/**
+	 * Verifies that a serial port with a device is found, its description is the name of the
+	 * driver.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void getAll_serialPort() throws Exception {
+		addTty("ttyUSB0", "usb-serial", "ftdi_sio");
+
+		Set<SerialPort> ports = finder.getAll();
+
+		assertThat(ports.size(), is(1));
+		SerialPort port = ports.iterator().next();
+		assertThat(port.getPortName(), is("/dev/ttyUSB0"));
+		assertThat(port.getDescription(), is("ftdi_sio"));
+	}
+
+	/**
+	 * Verifies that virtual terminals without a device are ignored.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void getAll_virtualTerminal() throws Exception {
+		new File(ttyClassDir, "tty0").mkdir();
+
+		assertThat(finder.getAll().isEmpty(), is(true));
+	}
+
+	/**
+	 * Verifies that the placeholders for legacy ports are ignored.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void getAll_legacyPlaceholder() throws Exception {
+		addTty("ttyS1", "platform", null);
+
+		assertThat(finder.getAll().isEmpty(), is(true));
+	}
+
+	/**
+	 * Verifies that the description is <code>null</code>, if the device has no driver.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void getAll_noDriver() throws Exception {
+		addTty("ttyUSB0", "usb-serial", null);
+
+		assertThat(finder.getAll().iterator().next().getDescription(), is(nullValue()));
+	}
+
+	/**
+	 * Verifies that a port can be found by its name.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void get() throws Exception {
+		addTty("ttyUSB0", "usb-serial", "ftdi_sio");
+		addTty("ttyUSB1", "usb-serial", "ftdi_sio");
+
+		assertThat(finder.get("/dev/ttyUSB1").getPortName(), is("/dev/ttyUSB1"));
+	}
+
+	/**
+	 * Verifies that <code>null</code> is returned, if the port doesn't exist.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void get_notExisting() throws Exception {
+		addTty("ttyUSB0", "usb-serial", "ftdi_sio");
+
+		assertThat(finder.get("/dev/ttyUSB1"), is(nullValue()));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the port name is
+	 * <code>null</code>.
+	 */
+	@Test
+	public void get_withNullPortName() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >portName< must not be null!");
+
+		finder.get(null);
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/**
+	 * Adds a tty with a device to the simulated sysfs, the device links to the given subsystem
+	 * and driver, if not <code>null</code>.
+	 */
+	private void addTty(String name, String subsystem, String driver) throws IOException {
+		File device = newFolder("devices", name);
+		new File(ttyClassDir, name).mkdir();
+		Files.createSymbolicLink(path(ttyClassDir, name, "device"), device.toPath());
+		Files.createSymbolicLink(path(device, "subsystem"), path(sysfs.getRoot(), "bus", subsystem));
+		if (driver != null)
+			Files.createSymbolicLink(path(device, "driver"), path(sysfs.getRoot(), "drivers", driver));
+	}
+
+	/** Creates the given folder and its parents in the simulated sysfs. */
+	private File newFolder(String... names) {
+		File folder = path(sysfs.getRoot(), names).toFile();
+		folder.mkdirs();
+		return folder;
+	}
+
+	/** Returns the path of the given file relative to the given directory. */
+	private Path path(File dir, String... names) {
+		Path path = dir.toPath();
+		for (String name : names)
+			path = path.resolve(name);
+		return path;
+	}
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.PosixApi.CRTSCTS;
+import static org.xidobi.PosixApi.EACCES;
+import static org.xidobi.PosixApi.EBUSY;
+import static org.xidobi.PosixApi.ENOENT;
+import static org.xidobi.PosixApi.ENOTTY;
+import static org.xidobi.PosixApi.EWOULDBLOCK;
+import static org.xidobi.PosixApi.LOCK_EX;
+import static org.xidobi.PosixApi.LOCK_NB;
+import static org.xidobi.PosixApi.O_CLOEXEC;
+import static org.xidobi.PosixApi.O_NOCTTY;
+import static org.xidobi.PosixApi.O_NONBLOCK;
+import static org.xidobi.PosixApi.O_RDWR;
+import static org.xidobi.PosixApi.TCIOFLUSH;
+import static org.xidobi.PosixApi.TCSANOW;
+import static org.xidobi.PosixApi.TIOCEXCL;
+import static org.xidobi.PosixApi.TIOCMBIC;
+import static org.xidobi.PosixApi.TIOCMBIS;
+import static org.xidobi.PosixApi.TIOCM_DTR;
+import static org.xidobi.PosixApi.TIOCM_RTS;
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.Termios;
+
+/**
+ * Tests the class {@link SerialPortImpl}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestSerialPortImpl {
+
+	/** a dummy error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** the name of the port */
+	private static final String PORT_NAME = "/dev/ttyS0";
+
+	/** a dummy file descriptor of the serial port */
+	private static final int PORT_FD = 3;
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private PosixApi os;
+
+	@Mock
+	private TermiosConfigurator configurator;
+
+	/** the settings that are applied on open */
+	private SerialPortSettings settings;
+
+	/** the class under test */
+	private SerialPortImpl port;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+
+		settings = from9600bauds8N1().create();
+		when(os.open(PORT_NAME, O_RDWR | O_NOCTTY | O_NONBLOCK | O_CLOEXEC)).thenReturn(PORT_FD);
+		when(os.strerror(anyInt())).thenReturn("This is a dummy error message.");
+
+		port = new SerialPortImpl(os, PORT_NAME, "description", configurator);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the POSIX-API is
+	 * <code>null</code>.
+	 */
+	@Test
+	public void new_withNullOs() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >os< must not be null!");
+
+		new SerialPortImpl(null, PORT_NAME, null);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the port name is
+	 * <code>null</code>.
+	 */
+	@Test
+	public void new_withNullPortName() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >portName< must not be null!");
+
+		new SerialPortImpl(os, null, null);
+	}
+
+	/**
+	 * Verifies that the getters return the values passed to the constructor.
+	 */
+	@Test
+	public void getters() {
+		assertThat(port.getPortName(), is(PORT_NAME));
+		assertThat(port.getDescription(), is("description"));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the settings are
+	 * <code>null</code>.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_withNullSettings() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >settings< must not be null!");
+
+		port.open(null);
+	}
+
+	/**
+	 * Verifies that the port is locked, configured and flushed on open.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open() throws Exception {
+		SerialConnection connection = port.open(settings);
+
+		assertThat(connection, is(notNullValue()));
+		verify(os).flock(PORT_FD, LOCK_EX | LOCK_NB);
+		verify(os).ioctl(PORT_FD, TIOCEXCL, null);
+		verify(os).tcgetattr(eq(PORT_FD), any(Termios.class));
+		verify(configurator).configureTermios(any(Termios.class), eq(settings));
+		verify(os).tcsetattr(eq(PORT_FD), eq(TCSANOW), any(Termios.class));
+		verify(os).tcflush(PORT_FD, TCIOFLUSH);
+		verify(os, never()).close(PORT_FD);
+	}
+
+	/**
+	 * Verifies that RTS and DTR are set as specified by the settings.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_setsModemLines() throws Exception {
+		settings = from9600bauds8N1().rts(false).dtr(true).create();
+
+		port.open(settings);
+
+		verify(os).ioctl(eq(PORT_FD), eq(TIOCMBIC), argThat(isINT(TIOCM_RTS)));
+		verify(os).ioctl(eq(PORT_FD), eq(TIOCMBIS), argThat(isINT(TIOCM_DTR)));
+	}
+
+	/**
+	 * Verifies that RTS is not modified, if hardware flow control is enabled.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_hardwareFlowControl() throws Exception {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((Termios) invocation.getArguments()[0]).c_cflag |= CRTSCTS;
+				return null;
+			}
+		}).when(configurator).configureTermios(any(Termios.class), eq(settings));
+
+		port.open(settings);
+
+		verify(os, never()).ioctl(anyInt(), anyInt(), argThat(isINT(TIOCM_RTS)));
+	}
+
+	/**
+	 * Verifies that devices without modem lines, e.g. pseudo terminals, can be opened.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_noModemLines() throws Exception {
+		when(os.ioctl(eq(PORT_FD), eq(TIOCMBIS), any(INT.class))).thenReturn(-1);
+		when(os.errno()).thenReturn(ENOTTY);
+
+		assertThat(port.open(settings), is(notNullValue()));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the port is used by another process.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_EBUSY() throws Exception {
+		when(os.open(eq(PORT_NAME), anyInt())).thenReturn(-1);
+		when(os.errno()).thenReturn(EBUSY);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port in use (" + PORT_NAME + ")!");
+
+		port.open(settings);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the port doesn't exist.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_ENOENT() throws Exception {
+		when(os.open(eq(PORT_NAME), anyInt())).thenReturn(-1);
+		when(os.errno()).thenReturn(ENOENT);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port not found (" + PORT_NAME + ")!");
+
+		port.open(settings);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} with the error description is thrown, if the port can't
+	 * be opened for another reason.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_EACCES() throws Exception {
+		when(os.open(eq(PORT_NAME), anyInt())).thenReturn(-1);
+		when(os.errno()).thenReturn(EACCES);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Unable to open port (" + PORT_NAME + ")!\nError-Code " + EACCES + ": This is a dummy error message.");
+
+		port.open(settings);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown and the file descriptor is closed, if the port
+	 * is locked by another process.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_locked() throws Exception {
+		when(os.flock(PORT_FD, LOCK_EX | LOCK_NB)).thenReturn(-1);
+		when(os.errno()).thenReturn(EWOULDBLOCK);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port in use (" + PORT_NAME + ")!");
+
+		try {
+			port.open(settings);
+		}
+		finally {
+			verify(os).close(PORT_FD);
+		}
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown and the file descriptor is closed, if the
+	 * settings can't be retrieved.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_tcgetattrFails() throws Exception {
+		when(os.tcgetattr(eq(PORT_FD), any(Termios.class))).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Unable to retrieve the current control settings for port (" + PORT_NAME + ")!");
+
+		try {
+			port.open(settings);
+		}
+		finally {
+			verify(os).close(PORT_FD);
+		}
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown and the file descriptor is closed, if the
+	 * settings can't be applied.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_tcsetattrFails() throws Exception {
+		when(os.tcsetattr(eq(PORT_FD), eq(TCSANOW), any(Termios.class))).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Unable to set the control settings (" + PORT_NAME + ")!");
+
+		try {
+			port.open(settings);
+		}
+		finally {
+			verify(os).close(PORT_FD);
+		}
+	}
+
+	/**
+	 * Verifies that the file descriptor is closed, if the settings are invalid.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_invalidSettings() throws Exception {
+		doThrow(new IllegalArgumentException("invalid")).when(configurator).configureTermios(any(Termios.class), eq(settings));
+
+		exception.expect(IllegalArgumentException.class);
+
+		try {
+			port.open(settings);
+		}
+		finally {
+			verify(os).close(PORT_FD);
+		}
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown and the file descriptor is closed, if
+	 * the buffers can't be flushed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void open_tcflushFails() throws Exception {
+		when(os.tcflush(PORT_FD, TCIOFLUSH)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("tcflush failed!");
+
+		try {
+			port.open(settings);
+		}
+		finally {
+			verify(os).close(PORT_FD);
+		}
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Matches an {@link INT} with the given value. */
+	private ArgumentMatcher<INT> isINT(final int value) {
+		return new ArgumentMatcher<INT>() {
+
+			@Override
+			public boolean matches(Object argument) {
+				return argument instanceof INT && ((INT) argument).value == value;
+			}
+		};
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.PosixApi.EAGAIN;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.EPOLLHUP;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLLOUT;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_DEL;
+import static org.xidobi.PosixApi.EPOLL_CTL_MOD;
+import static org.xidobi.PosixApi.FIONREAD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.structs.INT;
+
+/**
+ * Tests the class {@link SerialSelectionKeyImpl}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestSerialSelectionKeyImpl {
+
+	/** a dummy error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** a dummy file descriptor of the serial port */
+	private static final int PORT_FD = 3;
+	/** a dummy file descriptor of the epoll instance of the selector */
+	private static final int EPOLL_FD = 4;
+	/** a dummy file descriptor of the eventfd object of the selector */
+	private static final int EVENT_FD = 5;
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private PosixApi os;
+
+	@Mock
+	private SerialPort port;
+
+	@Mock
+	private SerialEventHandler handler;
+
+	/** the registered connection */
+	private SerialConnectionImpl connection;
+
+	/** the class under test */
+	private SerialSelectionKeyImpl key;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		when(port.getPortName()).thenReturn("/dev/ttyS0");
+		// the selector is created first, the other descriptors belong to the reader and writer
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(EPOLL_FD, 10, 11);
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(EVENT_FD, 12, 13);
+
+		SerialSelectorImpl selector = new SerialSelectorImpl(os);
+		connection = new SerialConnectionImpl(port, os, PORT_FD);
+		key = (SerialSelectionKeyImpl) selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that the available bytes are read and dispatched to the handler.
+	 */
+	@Test
+	public void processEvents_EPOLLIN() {
+		mockAvailableBytes(3);
+		mockRead(3);
+
+		assertThat(key.processEvents(EPOLLIN), is(1));
+
+		verify(handler).dataReceived(eq(key), argThat(hasRemaining(3)));
+	}
+
+	/**
+	 * Verifies that nothing is dispatched, if the data is gone.
+	 */
+	@Test
+	public void processEvents_EPOLLIN_EAGAIN() {
+		mockRead(-1);
+		when(os.errno()).thenReturn(EAGAIN);
+
+		assertThat(key.processEvents(EPOLLIN), is(0));
+
+		verifyZeroInteractions(handler);
+		assertThat(key.isValid(), is(true));
+	}
+
+	/**
+	 * Verifies that the key is cancelled and the handler is notified, when the end of file was
+	 * reached.
+	 */
+	@Test
+	public void processEvents_EPOLLIN_endOfFile() {
+		mockRead(0);
+
+		assertThat(key.processEvents(EPOLLIN), is(1));
+
+		verify(handler).failed(eq(key), argThat(hasMessage("Port /dev/ttyS0 was closed! Read operation failed, because the end of file was reached.")));
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_DEL, PORT_FD, 0);
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that the key is cancelled and the handler is notified, when the read fails with
+	 * <code>EIO</code>.
+	 */
+	@Test
+	public void processEvents_EPOLLIN_EIO() {
+		mockRead(-1);
+		when(os.errno()).thenReturn(EIO);
+
+		key.processEvents(EPOLLIN);
+
+		verify(handler).failed(eq(key), argThat(hasMessage("Port /dev/ttyS0 was closed! I/O operation failed, because of an input/output error.")));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that an unexpected error of <code>ioctl</code> is passed to the handler.
+	 */
+	@Test
+	public void processEvents_EPOLLIN_ioctlFails() {
+		when(os.ioctl(eq(PORT_FD), eq(FIONREAD), any(INT.class))).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		key.processEvents(EPOLLIN);
+
+		verify(handler).failed(eq(key), argThat(hasMessage("ioctl failed unexpected!")));
+	}
+
+	/**
+	 * Verifies that a hang up cancels the key and is passed to the handler.
+	 */
+	@Test
+	public void processEvents_EPOLLHUP() {
+		assertThat(key.processEvents(EPOLLHUP), is(1));
+
+		verify(handler).failed(eq(key), argThat(hasMessage("Port /dev/ttyS0 was closed! I/O operation failed, because a hang up or an error was signaled.")));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that no events are processed, after the key was cancelled.
+	 */
+	@Test
+	public void processEvents_cancelled() {
+		key.cancel();
+
+		assertThat(key.processEvents(EPOLLIN | EPOLLOUT | EPOLLHUP), is(0));
+
+		verify(os, never()).read(eq(PORT_FD), any(ByteBuffer.class), anyInt(), anyInt());
+		verifyZeroInteractions(handler);
+	}
+
+	/**
+	 * Verifies that a write registers the file descriptor for <code>EPOLLOUT</code> and that the
+	 * data is written when the port is writable.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write() throws Exception {
+		ByteBuffer src = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+		when(os.write(eq(PORT_FD), any(ByteBuffer.class), eq(0), eq(3))).thenReturn(3);
+
+		key.write(src);
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_MOD, PORT_FD, EPOLLIN | EPOLLOUT);
+		assertThat(src.position(), is(0));
+
+		assertThat(key.processEvents(EPOLLOUT), is(1));
+
+		verify(handler).writeCompleted(eq(key), same(src));
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_MOD, PORT_FD, EPOLLIN);
+		assertThat(src.hasRemaining(), is(false));
+	}
+
+	/**
+	 * Verifies that the write is continued, when the output buffer of the port was full.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_outputBufferFull() throws Exception {
+		ByteBuffer src = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+		when(os.write(eq(PORT_FD), any(ByteBuffer.class), eq(0), eq(3))).thenReturn(1);
+		when(os.write(eq(PORT_FD), any(ByteBuffer.class), eq(1), eq(2))).thenReturn(-1, 2);
+		when(os.errno()).thenReturn(EAGAIN);
+
+		key.write(src);
+
+		assertThat(key.processEvents(EPOLLOUT), is(0));
+		verifyZeroInteractions(handler);
+
+		assertThat(key.processEvents(EPOLLOUT), is(1));
+		verify(handler).writeCompleted(eq(key), same(src));
+	}
+
+	/**
+	 * Verifies that the next write is started, when the previous one is completed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_queued() throws Exception {
+		ByteBuffer first = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+		ByteBuffer second = ByteBuffer.wrap(new byte[] { 4, 5 });
+		when(os.write(eq(PORT_FD), any(ByteBuffer.class), eq(0), eq(3))).thenReturn(3);
+		when(os.write(eq(PORT_FD), any(ByteBuffer.class), eq(0), eq(2))).thenReturn(2);
+
+		key.write(first);
+		key.write(second);
+
+		key.processEvents(EPOLLOUT);
+		verify(handler).writeCompleted(eq(key), same(first));
+		verify(handler, never()).writeCompleted(eq(key), same(second));
+
+		key.processEvents(EPOLLOUT);
+		verify(handler).writeCompleted(eq(key), same(second));
+	}
+
+	/**
+	 * Verifies that the key is cancelled, if the write can't be started.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_epollCtlFails() throws Exception {
+		when(os.epoll_ctl(EPOLL_FD, EPOLL_CTL_MOD, PORT_FD, EPOLLIN | EPOLLOUT)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("epoll_ctl failed unexpected!");
+
+		try {
+			key.write(ByteBuffer.wrap(new byte[] { 1 }));
+		}
+		finally {
+			assertThat(key.isValid(), is(false));
+		}
+	}
+
+	/**
+	 * Verifies that a write fails, if the key was cancelled.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_cancelled() throws Exception {
+		key.cancel();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selection key of port /dev/ttyS0 is not valid!");
+
+		key.write(ByteBuffer.wrap(new byte[] { 1 }));
+	}
+
+	/**
+	 * Verifies that the file descriptor is removed from the epoll instance, when the key is
+	 * cancelled.
+	 */
+	@Test
+	public void cancel() {
+		key.cancel();
+
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_DEL, PORT_FD, 0);
+		assertThat(key.isValid(), is(false));
+		assertThat(connection.isClosed(), is(false));
+	}
+
+	/**
+	 * Verifies that the key is cancelled and the selector is woken up, when the connection is
+	 * closed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void connectionClosed() throws Exception {
+		connection.close();
+
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_DEL, PORT_FD, 0);
+		verify(os).eventfd_write(EVENT_FD, 1);
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that closing the connection doesn't notify the selector, if the key was already
+	 * cancelled.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void connectionClosed_cancelled() throws Exception {
+		key.cancel();
+
+		connection.close();
+
+		verify(os, never()).eventfd_write(EVENT_FD, 1);
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Mocks <code>ioctl(FIONREAD)</code> to return the given number of available bytes. */
+	private void mockAvailableBytes(final int availableBytes) {
+		doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				INT argp = (INT) invocation.getArguments()[2];
+				argp.value = availableBytes;
+				return 0;
+			}
+		}).when(os).ioctl(eq(PORT_FD), eq(FIONREAD), any(INT.class));
+	}
+
+	/** Mocks <code>read</code> to return the given result. */
+	private void mockRead(int result) {
+		when(os.read(eq(PORT_FD), any(ByteBuffer.class), anyInt(), anyInt())).thenReturn(result);
+	}
+
+	/** Matches a {@link ByteBuffer} with the given number of remaining bytes. */
+	private ArgumentMatcher<ByteBuffer> hasRemaining(final int remaining) {
+		return new ArgumentMatcher<ByteBuffer>() {
+			@Override
+			public boolean matches(Object argument) {
+				return ((ByteBuffer) argument).remaining() == remaining;
+			}
+		};
+	}
+
+	/** Matches an {@link IOException} whose message starts with the given prefix. */
+	private ArgumentMatcher<IOException> hasMessage(final String prefix) {
+		return new ArgumentMatcher<IOException>() {
+			@Override
+			public boolean matches(Object argument) {
+				return ((IOException) argument).getMessage().startsWith(prefix);
+			}
+		};
+	}
+}
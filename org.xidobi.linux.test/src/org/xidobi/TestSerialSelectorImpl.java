@@ -0,0 +1,466 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_ADD;
+import static org.xidobi.PosixApi.EPOLL_CTL_DEL;
+import static org.xidobi.PosixApi.FIONREAD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.INT;
+
+/**
+ * Tests the class {@link SerialSelectorImpl}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestSerialSelectorImpl {
+
+	/** a dummy error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** a dummy file descriptor of the serial port */
+	private static final int PORT_FD = 3;
+	/** a dummy file descriptor of the epoll instance of the selector */
+	private static final int EPOLL_FD = 4;
+	/** a dummy file descriptor of the eventfd object of the selector */
+	private static final int EVENT_FD = 5;
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private PosixApi os;
+
+	@Mock
+	private SerialPort port;
+
+	@Mock
+	private SerialEventHandler handler;
+
+	/** the registered connection */
+	private SerialConnectionImpl connection;
+
+	/** the class under test */
+	private SerialSelectorImpl selector;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+
+		when(port.getPortName()).thenReturn("/dev/ttyS0");
+		// the selector is created first, the other descriptors belong to the reader and writer
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(EPOLL_FD, 10, 11);
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(EVENT_FD, 12, 13);
+
+		selector = new SerialSelectorImpl(os);
+		connection = new SerialConnectionImpl(port, os, PORT_FD);
+	}
+
+	/**
+	 * Verifies that the eventfd object is registered on the epoll instance.
+	 */
+	@Test
+	public void new_registersEventFd() {
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, EVENT_FD, EPOLLIN);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown and the epoll instance is closed, when
+	 * the eventfd object can't be created.
+	 */
+	@Test
+	public void new_eventfdFails() {
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(EPOLL_FD);
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("eventfd failed unexpected!");
+
+		try {
+			new SerialSelectorImpl(os);
+		}
+		finally {
+			verify(os).close(EPOLL_FD);
+		}
+	}
+
+	/**
+	 * Verifies that the file descriptor of the connection is registered for <code>EPOLLIN</code>.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void register() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, PORT_FD, EPOLLIN);
+		assertThat(key.getConnection(), is((SerialConnection) connection));
+		assertThat(key.getSelector(), is((SerialSelector) selector));
+		assertThat(key.isValid(), is(true));
+	}
+
+	/**
+	 * Verifies that connections of other implementations are rejected.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void register_foreignConnection() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< is invalid! The connection wasn't opened by xidobi for Linux!");
+
+		selector.register(mock(SerialConnection.class), handler);
+	}
+
+	/**
+	 * Verifies that a connection can't be registered twice.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void register_twice() throws Exception {
+		selector.register(connection, handler);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< is invalid! The connection is already registered!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that a connection can be registered again, after its key was cancelled.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void register_afterCancel() throws Exception {
+		selector.register(connection, handler).cancel();
+
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		assertThat(key.isValid(), is(true));
+	}
+
+	/**
+	 * Verifies that a closed connection can't be registered.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void register_closedConnection() throws Exception {
+		connection.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the file descriptor of the connection is
+	 * invalid.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void register_badFileDescriptor() throws Exception {
+		when(os.epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, PORT_FD, EPOLLIN)).thenReturn(-1);
+		when(os.errno()).thenReturn(EBADF);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that no connection can be registered with a closed selector.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void register_closedSelector() throws Exception {
+		selector.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selector was closed!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that the data, that is signaled by the epoll instance, is dispatched to the
+	 * handler.
+	 *
+	 * @throws Exception
+	 */
+	@Test(timeout = 1000)
+	public void select_dataReceived() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+		mockEpollWait(1, PORT_FD, EPOLLIN);
+		mockAvailableBytes(3);
+		mockRead(new byte[] { 1, 2, 3 });
+
+		assertThat(selector.select(), is(1));
+
+		verify(handler).dataReceived(eq(key), argThat(hasRemaining(3)));
+	}
+
+	/**
+	 * Verifies that the events of unknown file descriptors are ignored, e.g. of a key that was
+	 * cancelled concurrently.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void selectTimeout_unknownFileDescriptor() throws Exception {
+		mockEpollWait(1, PORT_FD, EPOLLIN);
+
+		assertThat(selector.select(0), is(0));
+	}
+
+	/**
+	 * Verifies that <code>select(int)</code> returns <code>0</code>, if the timeout elapsed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void selectTimeout_elapsed() throws Exception {
+		mockEpollWait(0);
+
+		assertThat(selector.select(100), is(0));
+		verify(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), eq(100));
+	}
+
+	/**
+	 * Verifies that <code>select(int)</code> returns <code>0</code>, if the wait was interrupted
+	 * by a signal.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void selectTimeout_EINTR() throws Exception {
+		mockEpollWait(-1);
+		when(os.errno()).thenReturn(EINTR);
+
+		assertThat(selector.select(100), is(0));
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, if <code>epoll_wait</code> fails
+	 * unexpected.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void selectTimeout_epollWaitFails() throws Exception {
+		mockEpollWait(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("epoll_wait failed unexpected!");
+
+		selector.select(100);
+	}
+
+	/**
+	 * Verifies that a negative timeout is rejected.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void selectTimeout_negative() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >timeout< is invalid! Expected a value greater or equal to 0!");
+
+		selector.select(-1);
+	}
+
+	/**
+	 * Verifies that <code>select()</code> returns, when the eventfd object is signaled by
+	 * {@link SerialSelectorImpl#wakeup()}.
+	 *
+	 * @throws Exception
+	 */
+	@Test(timeout = 1000)
+	public void select_wakeup() throws Exception {
+		mockEpollWait(1, EVENT_FD, EPOLLIN);
+
+		assertThat(selector.select(), is(0));
+		verify(os).read(eq(EVENT_FD), any(ByteBuffer.class), eq(0), eq(8));
+	}
+
+	/**
+	 * Verifies that the handler is notified by the next selection, when a registered connection
+	 * is closed.
+	 *
+	 * @throws Exception
+	 */
+	@Test(timeout = 1000)
+	public void select_connectionClosed() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+		connection.close();
+		mockEpollWait(1, EVENT_FD, EPOLLIN);
+
+		assertThat(selector.select(), is(1));
+
+		verify(handler).failed(eq(key), argThat(hasMessage("Port /dev/ttyS0 was closed!")));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that a closed selector can't select.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void select_closed() throws Exception {
+		selector.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selector was closed!");
+
+		selector.select();
+	}
+
+	/**
+	 * Verifies that {@link SerialSelectorImpl#wakeup()} signals the eventfd object.
+	 */
+	@Test
+	public void wakeup() {
+		selector.wakeup();
+
+		verify(os).eventfd_write(EVENT_FD, 1);
+	}
+
+	/**
+	 * Verifies that the keys are cancelled and the native resources are released on close.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void close() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		selector.close();
+
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_DEL, PORT_FD, 0);
+		verify(os).close(EVENT_FD);
+		verify(os).close(EPOLL_FD);
+		assertThat(key.isValid(), is(false));
+		assertThat(selector.isClosed(), is(true));
+		assertThat(connection.isClosed(), is(false));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Mocks <code>ioctl(FIONREAD)</code> to return the given number of available bytes. */
+	private void mockAvailableBytes(final int availableBytes) {
+		doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				INT argp = (INT) invocation.getArguments()[2];
+				argp.value = availableBytes;
+				return 0;
+			}
+		}).when(os).ioctl(eq(PORT_FD), eq(FIONREAD), any(INT.class));
+	}
+
+	/** Mocks <code>read</code> to read the given data. */
+	private void mockRead(final byte[] data) {
+		doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[1];
+				int offset = (Integer) invocation.getArguments()[2];
+				for (int i = 0; i < data.length; i++)
+					buffer.put(offset + i, data[i]);
+				return data.length;
+			}
+		}).when(os).read(eq(PORT_FD), any(ByteBuffer.class), anyInt(), anyInt());
+	}
+
+	/**
+	 * Mocks <code>epoll_wait</code> to return the given result and to signal the given pairs of
+	 * file descriptor and events.
+	 */
+	private void mockEpollWait(final int result, final int... fdsAndEvents) {
+		doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				int[] fds = (int[]) invocation.getArguments()[1];
+				int[] events = (int[]) invocation.getArguments()[2];
+				for (int i = 0; i < fdsAndEvents.length / 2; i++) {
+					fds[i] = fdsAndEvents[i * 2];
+					events[i] = fdsAndEvents[i * 2 + 1];
+				}
+				return result;
+			}
+		}).when(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), anyInt());
+	}
+
+	/** Matches a {@link ByteBuffer} with the given number of remaining bytes. */
+	private ArgumentMatcher<ByteBuffer> hasRemaining(final int remaining) {
+		return new ArgumentMatcher<ByteBuffer>() {
+			@Override
+			public boolean matches(Object argument) {
+				return ((ByteBuffer) argument).remaining() == remaining;
+			}
+		};
+	}
+
+	/** Matches an {@link IOException} whose message starts with the given prefix. */
+	private ArgumentMatcher<IOException> hasMessage(final String prefix) {
+		return new ArgumentMatcher<IOException>() {
+			@Override
+			public boolean matches(Object argument) {
+				return ((IOException) argument).getMessage().startsWith(prefix);
+			}
+		};
+	}
+}
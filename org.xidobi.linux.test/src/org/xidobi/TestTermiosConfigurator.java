@@ -0,0 +1,348 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.DataBits.DATABITS_5;
+import static org.xidobi.DataBits.DATABITS_6;
+import static org.xidobi.DataBits.DATABITS_7;
+import static org.xidobi.DataBits.DATABITS_8;
+import static org.xidobi.DataBits.DATABITS_9;
+import static org.xidobi.FlowControl.FLOWCONTROL_NONE;
+import static org.xidobi.FlowControl.FLOWCONTROL_RTSCTS_IN;
+import static org.xidobi.FlowControl.FLOWCONTROL_RTSCTS_IN_OUT;
+import static org.xidobi.FlowControl.FLOWCONTROL_RTSCTS_OUT;
+import static org.xidobi.FlowControl.FLOWCONTROL_XONXOFF_IN;
+import static org.xidobi.FlowControl.FLOWCONTROL_XONXOFF_IN_OUT;
+import static org.xidobi.FlowControl.FLOWCONTROL_XONXOFF_OUT;
+import static org.xidobi.Parity.PARITY_EVEN;
+import static org.xidobi.Parity.PARITY_MARK;
+import static org.xidobi.Parity.PARITY_NONE;
+import static org.xidobi.Parity.PARITY_ODD;
+import static org.xidobi.Parity.PARITY_SPACE;
+import static org.xidobi.PosixApi.B115200;
+import static org.xidobi.PosixApi.B4000000;
+import static org.xidobi.PosixApi.B50;
+import static org.xidobi.PosixApi.B9600;
+import static org.xidobi.PosixApi.CBAUD;
+import static org.xidobi.PosixApi.CLOCAL;
+import static org.xidobi.PosixApi.CMSPAR;
+import static org.xidobi.PosixApi.CREAD;
+import static org.xidobi.PosixApi.CRTSCTS;
+import static org.xidobi.PosixApi.CS5;
+import static org.xidobi.PosixApi.CS6;
+import static org.xidobi.PosixApi.CS7;
+import static org.xidobi.PosixApi.CS8;
+import static org.xidobi.PosixApi.CSIZE;
+import static org.xidobi.PosixApi.CSTOPB;
+import static org.xidobi.PosixApi.ECHO;
+import static org.xidobi.PosixApi.ICANON;
+import static org.xidobi.PosixApi.ICRNL;
+import static org.xidobi.PosixApi.ISIG;
+import static org.xidobi.PosixApi.IXANY;
+import static org.xidobi.PosixApi.IXOFF;
+import static org.xidobi.PosixApi.IXON;
+import static org.xidobi.PosixApi.OPOST;
+import static org.xidobi.PosixApi.PARENB;
+import static org.xidobi.PosixApi.PARODD;
+import static org.xidobi.PosixApi.VMIN;
+import static org.xidobi.PosixApi.VSTART;
+import static org.xidobi.PosixApi.VSTOP;
+import static org.xidobi.PosixApi.VTIME;
+import static org.xidobi.StopBits.STOPBITS_1;
+import static org.xidobi.StopBits.STOPBITS_1_5;
+import static org.xidobi.StopBits.STOPBITS_2;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.xidobi.structs.Termios;
+
+/**
+ * Tests the class {@link TermiosConfigurator}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestTermiosConfigurator {
+
+	/** Class under test */
+	private TermiosConfigurator configurator;
+
+	@Mock
+	private SerialPortSettings settings;
+
+	private Termios termios;
+
+	/** expected exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+		configurator = new TermiosConfigurator();
+		termios = new Termios();
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when
+	 * <code>termios == null</code> is passed.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void configureTermios_withNullTermios() {
+		configurator.configureTermios(null, settings);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when
+	 * <code>settings == null</code> is passed.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void configureTermios_withNullSettings() {
+		configurator.configureTermios(termios, null);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when 5 data bits are used with 2
+	 * stop bits.
+	 */
+	@Test
+	public void configureTermios_with5dataBitsAnd2stopBits() {
+		mockSerialPortSettings(9600, DATABITS_5, STOPBITS_2, PARITY_NONE, FLOWCONTROL_NONE);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Invalid serial port settings! The use of 2 stop bits with 5 data bits is an invalid combination.");
+
+		configurator.configureTermios(termios, settings);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when 8 data bits are used with
+	 * 1.5 stop bits.
+	 */
+	@Test
+	public void configureTermios_with8dataBitsAnd1_5stopBits() {
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1_5, PARITY_NONE, FLOWCONTROL_NONE);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Invalid serial port settings! The use of 1.5 stop bits with 6, 7 or 8 data bits is an invalid combination.");
+
+		configurator.configureTermios(termios, settings);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when 9 data bits are used,
+	 * termios supports only 5 to 8 data bits.
+	 */
+	@Test
+	public void configureTermios_with9dataBits() {
+		mockSerialPortSettings(9600, DATABITS_9, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Invalid serial port settings! 9 data bits are not supported.");
+
+		configurator.configureTermios(termios, settings);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the baud rate is not
+	 * supported by termios.
+	 */
+	@Test
+	public void configureTermios_withUnsupportedBaudRate() {
+		mockSerialPortSettings(14400, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Invalid serial port settings! The baud rate 14400 is not supported.");
+
+		configurator.configureTermios(termios, settings);
+	}
+
+	/**
+	 * Verifies that the terminal is configured in raw mode and read operations return as soon as
+	 * one byte is available.
+	 */
+	@Test
+	public void configureTermios_rawMode() {
+		termios.c_iflag = ICRNL | IXANY;
+		termios.c_oflag = OPOST;
+		termios.c_lflag = ECHO | ICANON | ISIG;
+		termios.c_cc[VMIN] = 0;
+		termios.c_cc[VTIME] = 10;
+
+		configurator.configureTermios(termios, settings);
+
+		assertThat(termios.c_iflag, is(0));
+		assertThat(termios.c_oflag, is(0));
+		assertThat(termios.c_lflag, is(0));
+		assertThat(termios.c_cflag & (CLOCAL | CREAD), is(CLOCAL | CREAD));
+		assertThat(termios.c_cc[VMIN], is((byte) 1));
+		assertThat(termios.c_cc[VTIME], is((byte) 0));
+	}
+
+	/**
+	 * Verifies that the baud rate is encoded in <code>c_cflag</code> and a previous baud rate is
+	 * replaced.
+	 */
+	@Test
+	public void configureTermios_baudRate() {
+		termios.c_cflag = B4000000;
+
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CBAUD, is(B9600));
+
+		mockSerialPortSettings(115200, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CBAUD, is(B115200));
+
+		mockSerialPortSettings(50, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CBAUD, is(B50));
+	}
+
+	/**
+	 * Verifies that the data bits are configured correctly.
+	 */
+	@Test
+	public void configureTermios_dataBits() {
+		mockSerialPortSettings(9600, DATABITS_5, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CSIZE, is(CS5));
+
+		mockSerialPortSettings(9600, DATABITS_6, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CSIZE, is(CS6));
+
+		mockSerialPortSettings(9600, DATABITS_7, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CSIZE, is(CS7));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CSIZE, is(CS8));
+	}
+
+	/**
+	 * Verifies that the stop bits are configured correctly.
+	 */
+	@Test
+	public void configureTermios_stopBits() {
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_2, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CSTOPB, is(CSTOPB));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CSTOPB, is(0));
+
+		mockSerialPortSettings(9600, DATABITS_5, STOPBITS_1_5, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CSTOPB, is(CSTOPB));
+	}
+
+	/**
+	 * Verifies that the parity is configured correctly.
+	 */
+	@Test
+	public void configureTermios_parity() {
+		int mask = PARENB | PARODD | CMSPAR;
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_EVEN, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & mask, is(PARENB));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_ODD, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & mask, is(PARENB | PARODD));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_MARK, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & mask, is(PARENB | PARODD | CMSPAR));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_SPACE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & mask, is(PARENB | CMSPAR));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & mask, is(0));
+	}
+
+	/**
+	 * Verifies that RTS/CTS flow control is configured with <code>CRTSCTS</code> for input, output
+	 * and both.
+	 */
+	@Test
+	public void configureTermios_flowControlRtsCts() {
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_RTSCTS_IN);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CRTSCTS, is(CRTSCTS));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_RTSCTS_OUT);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CRTSCTS, is(CRTSCTS));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_RTSCTS_IN_OUT);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CRTSCTS, is(CRTSCTS));
+		assertThat(termios.c_iflag & (IXON | IXOFF), is(0));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_NONE);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_cflag & CRTSCTS, is(0));
+	}
+
+	/**
+	 * Verifies that XON/XOFF flow control is configured with <code>IXOFF</code> for input and
+	 * <code>IXON</code> for output.
+	 */
+	@Test
+	public void configureTermios_flowControlXonXoff() {
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_XONXOFF_IN);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_iflag & (IXON | IXOFF), is(IXOFF));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_XONXOFF_OUT);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_iflag & (IXON | IXOFF), is(IXON));
+
+		mockSerialPortSettings(9600, DATABITS_8, STOPBITS_1, PARITY_NONE, FLOWCONTROL_XONXOFF_IN_OUT);
+		configurator.configureTermios(termios, settings);
+		assertThat(termios.c_iflag & (IXON | IXOFF), is(IXON | IXOFF));
+		assertThat(termios.c_cflag & CRTSCTS, is(0));
+		assertThat(termios.c_cc[VSTART], is((byte) 17));
+		assertThat(termios.c_cc[VSTOP], is((byte) 19));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Mocks the serial port settings with the given values. */
+	private void mockSerialPortSettings(int bauds, DataBits dataBits, StopBits stopBits, Parity parity, FlowControl flowControl) {
+		when(settings.getBauds()).thenReturn(bauds);
+		when(settings.getDataBits()).thenReturn(dataBits);
+		when(settings.getStopBits()).thenReturn(stopBits);
+		when(settings.getParity()).thenReturn(parity);
+		when(settings.getFlowControl()).thenReturn(flowControl);
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.PosixApi.EAGAIN;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.EPOLLOUT;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_ADD;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.spi.SerialConnectionMetrics;
+
+/**
+ * Tests the class {@link WriterImpl}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestWriterImpl {
+
+	/** a dummy error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** a dummy file descriptor of the serial port */
+	private static final int PORT_FD = 3;
+	/** a dummy file descriptor of the epoll instance */
+	private static final int EPOLL_FD = 4;
+	/** a dummy file descriptor of the eventfd object */
+	private static final int EVENT_FD = 5;
+
+	/** the dummy data that is written */
+	private static final byte[] DATA = { 1, 2, 3, 4, 5 };
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private PosixApi os;
+
+	@Mock
+	private SerialPort port;
+
+	/** the class under test */
+	private WriterImpl writer;
+
+	/** the bytes that were passed to <code>write</code> */
+	private ByteArrayOutputStream written;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+
+		when(port.getPortName()).thenReturn("/dev/ttyS0");
+		when(os.epoll_create1(EPOLL_CLOEXEC)).thenReturn(EPOLL_FD);
+		when(os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC)).thenReturn(EVENT_FD);
+
+		written = new ByteArrayOutputStream();
+		writer = new WriterImpl(port, os, PORT_FD);
+	}
+
+	/**
+	 * Verifies that the serial port is registered for <code>EPOLLOUT</code>.
+	 */
+	@Test
+	public void new_registersEPOLLOUT() {
+		verify(os).epoll_ctl(EPOLL_FD, EPOLL_CTL_ADD, PORT_FD, EPOLLOUT);
+	}
+
+	/**
+	 * Verifies that all bytes are written without waiting, if the port can take them.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_allBytesWritten() throws Exception {
+		mockWrite(DATA.length);
+
+		writer.write(DATA);
+
+		assertThat(written.toByteArray(), is(DATA));
+		verify(os, never()).epoll_wait(anyInt(), any(int[].class), any(int[].class), anyInt());
+	}
+
+	/**
+	 * Verifies that the latency is recorded, when all bytes were written.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_recordsLatency() throws Exception {
+		SerialConnectionMetrics metrics = new SerialConnectionMetrics();
+		writer = new WriterImpl(port, os, PORT_FD, metrics);
+		mockWrite(DATA.length);
+
+		writer.write(DATA);
+
+		assertThat(metrics.getWriteLatency().getCount(), is(1L));
+	}
+
+	/**
+	 * Verifies that nothing is written for empty data.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_emptyData() throws Exception {
+		writer.write(new byte[0]);
+
+		verify(os, never()).write(anyInt(), any(ByteBuffer.class), anyInt(), anyInt());
+	}
+
+	/**
+	 * Verifies that the remaining bytes are written, after a partial write.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_partialWrite() throws Exception {
+		mockWrite(2, 3);
+
+		writer.write(DATA);
+
+		assertThat(written.toByteArray(), is(DATA));
+	}
+
+	/**
+	 * Verifies that only the given range of the array is written.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_offsetAndLength() throws Exception {
+		mockWrite(3);
+
+		writer.write(DATA, 1, 3);
+
+		assertThat(written.toByteArray(), is(new byte[] { 2, 3, 4 }));
+	}
+
+	/**
+	 * Verifies that the write is repeated, if it was interrupted by a signal.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_EINTR() throws Exception {
+		mockWrite(-1, DATA.length);
+		when(os.errno()).thenReturn(EINTR);
+
+		writer.write(DATA);
+
+		assertThat(written.toByteArray(), is(DATA));
+		verify(os, never()).epoll_wait(anyInt(), any(int[].class), any(int[].class), anyInt());
+	}
+
+	/**
+	 * Verifies that the writer waits with the write timeout, if the output buffer of the port is
+	 * full.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_EAGAIN() throws Exception {
+		mockWrite(-1, DATA.length);
+		when(os.errno()).thenReturn(EAGAIN);
+		mockEpollWait(1, PORT_FD, EPOLLOUT);
+
+		writer.write(DATA);
+
+		assertThat(written.toByteArray(), is(DATA));
+		verify(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), eq(2000));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the port can't take more data within the
+	 * write timeout.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_timeout() throws Exception {
+		mockWrite(-1);
+		when(os.errno()).thenReturn(EAGAIN);
+		mockEpollWait(0);
+
+		exception.expect(InterruptedIOException.class);
+		exception.expectMessage("Write operation timed out after 2000 milliseconds!");
+
+		writer.write(DATA);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if <code>write</code> fails with
+	 * <code>EIO</code>.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_EIO() throws Exception {
+		mockWrite(-1);
+		when(os.errno()).thenReturn(EIO);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed! I/O operation failed, because of an input/output error.");
+
+		writer.write(DATA);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, if <code>write</code> fails
+	 * unexpected.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_unexpectedError() throws Exception {
+		mockWrite(-1);
+		when(os.errno()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("write failed unexpected!");
+
+		writer.write(DATA);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the writer was closed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void write_closed() throws Exception {
+		writer.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port /dev/ttyS0 was closed!");
+
+		writer.write(DATA);
+	}
+
+	/**
+	 * Verifies that the remaining bytes of all buffers are written at once and that the buffers
+	 * are consumed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void writeByteBuffers() throws Exception {
+		ByteBuffer heap = ByteBuffer.wrap(new byte[] { 0, 1, 2 });
+		heap.position(1);
+		ByteBuffer direct = ByteBuffer.allocateDirect(3);
+		direct.put(new byte[] { 3, 4, 5 }).flip();
+		mockWrite(5);
+
+		writer.write(new ByteBuffer[] { heap, direct });
+
+		assertThat(written.toByteArray(), is(new byte[] { 1, 2, 3, 4, 5 }));
+		assertThat(heap.hasRemaining(), is(false));
+		assertThat(direct.hasRemaining(), is(false));
+	}
+
+	/**
+	 * Verifies that the buffers are not consumed, if the write fails.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void writeByteBuffers_fails() throws Exception {
+		ByteBuffer src = ByteBuffer.wrap(DATA);
+		mockWrite(-1);
+		when(os.errno()).thenReturn(EIO);
+
+		try {
+			writer.write(new ByteBuffer[] { src });
+		}
+		catch (IOException expected) {}
+
+		assertThat(src.position(), is(0));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/**
+	 * Mocks <code>write</code> to return the given results in the given order and records the
+	 * bytes that were written.
+	 */
+	private void mockWrite(final int... results) {
+		doAnswer(new Answer<Integer>() {
+			private int call;
+
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				int result = results[Math.min(call++, results.length - 1)];
+				ByteBuffer buffer = (ByteBuffer) invocation.getArguments()[1];
+				int offset = (Integer) invocation.getArguments()[2];
+				for (int i = 0; i < result; i++)
+					written.write(buffer.get(offset + i));
+				return result;
+			}
+		}).when(os).write(eq(PORT_FD), any(ByteBuffer.class), anyInt(), anyInt());
+	}
+
+	/**
+	 * Mocks <code>epoll_wait</code> to return the given result and to signal the given pairs of
+	 * file descriptor and events.
+	 */
+	private void mockEpollWait(final int result, final int... fdsAndEvents) {
+		doAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				int[] fds = (int[]) invocation.getArguments()[1];
+				int[] events = (int[]) invocation.getArguments()[2];
+				for (int i = 0; i < fdsAndEvents.length / 2; i++) {
+					fds[i] = fdsAndEvents[i * 2];
+					events[i] = fdsAndEvents[i * 2 + 1];
+				}
+				return result;
+			}
+		}).when(os).epoll_wait(eq(EPOLL_FD), any(int[].class), any(int[].class), anyInt());
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.integration;
+
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xidobi.OS;
+import org.xidobi.PosixApi;
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialPort;
+import org.xidobi.SerialPortImpl;
+import org.xidobi.structs.INT;
+
+/**
+ * Integration test, that opens the slave of a pseudo terminal as serial port and transfers data
+ * through the master. No serial port hardware is needed for this test.
+ *
+ * @author Christian Schwarz
+ */
+public class TestPseudoTerminal {
+
+	/** the native POSIX-API */
+	private PosixApi os = OS.OS;
+
+	/** the file descriptor of the master of the pseudo terminal */
+	private int master;
+
+	/** Class under test */
+	private SerialPort port;
+	/** the opened connection to the slave of the pseudo terminal */
+	private SerialConnection connection;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() throws Exception {
+		INT master = new INT(-1);
+		INT slave = new INT(-1);
+		assertThat(os.openpty(master, slave), is(0));
+
+		String slaveName = os.ttyname(slave.value);
+		assertThat(slaveName, is(notNullValue()));
+		// the port opens the slave by its path
+		assertThat(os.close(slave.value), is(0));
+
+		this.master = master.value;
+		port = new SerialPortImpl(os, slaveName, null);
+		connection = port.open(from9600bauds8N1().create());
+	}
+
+	@After
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws Exception {
+		connection.close();
+		os.close(master);
+	}
+
+	/**
+	 * Verifies that the data written to the port can be read from the master.
+	 */
+	@Test(timeout = 2000)
+	public void write() throws Exception {
+		connection.write("Hello".getBytes());
+
+		assertThat(readFromMaster(5), is("Hello"));
+	}
+
+	/**
+	 * Verifies that the data written to the master can be read from the port.
+	 */
+	@Test(timeout = 2000)
+	public void read() throws Exception {
+		writeToMaster("Hello");
+
+		assertThat(readFromPort(5), is("Hello"));
+	}
+
+	/**
+	 * Verifies that the data written to the master can be read from the port into a direct buffer.
+	 */
+	@Test(timeout = 2000)
+	public void read_directByteBuffer() throws Exception {
+		writeToMaster("Hello");
+
+		ByteBuffer dst = allocateDirect(16);
+		while (dst.position() < 5)
+			connection.read(dst);
+
+		dst.flip();
+		byte[] data = new byte[dst.remaining()];
+		dst.get(data);
+		assertThat(new String(data), is("Hello"));
+	}
+
+	/**
+	 * Verifies that a port can't be opened twice.
+	 */
+	@Test(timeout = 2000)
+	public void open_portInUse() throws Exception {
+		try {
+			port.open(from9600bauds8N1().create());
+			fail("Expected an IOException!");
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage(), is("Port in use (" + port.getPortName() + ")!"));
+		}
+	}
+
+	/**
+	 * Verifies that a pending read operation is woken up, when the connection is closed.
+	 */
+	@Test(timeout = 2000)
+	public void close_wakesUpPendingRead() throws Exception {
+		final AtomicReference<Exception> result = new AtomicReference<Exception>();
+		Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					connection.read();
+				}
+				catch (Exception e) {
+					result.set(e);
+				}
+			}
+		});
+		reader.start();
+		Thread.sleep(100);
+
+		connection.close();
+		reader.join();
+
+		assertThat(result.get().getMessage(), startsWith("Port " + port.getPortName() + " was closed!"));
+		assertThat(connection.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that a pending read operation fails, when the master of the pseudo terminal is
+	 * closed, this is the same as if the device was removed.
+	 */
+	@Test(timeout = 2000)
+	public void read_hangUp() throws Exception {
+		final AtomicReference<Exception> result = new AtomicReference<Exception>();
+		Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					connection.read();
+				}
+				catch (Exception e) {
+					result.set(e);
+				}
+			}
+		});
+		reader.start();
+		Thread.sleep(100);
+
+		os.close(master);
+		reader.join();
+
+		assertThat(result.get().getMessage(), startsWith("Port " + port.getPortName() + " was closed!"));
+		assertThat(connection.isClosed(), is(true));
+	}
+
+	/** Reads the given number of bytes from the port. */
+	private String readFromPort(int length) throws IOException {
+		StringBuilder data = new StringBuilder();
+		while (data.length() < length)
+			data.append(new String(connection.read()));
+		return data.toString();
+	}
+
+	/** Writes the given data to the master. */
+	private void writeToMaster(String data) {
+		ByteBuffer buffer = allocateDirect(data.length());
+		buffer.put(data.getBytes());
+		assertThat(os.write(master, buffer, 0, data.length()), is(data.length()));
+	}
+
+	/** Reads the given number of bytes from the master. */
+	private String readFromMaster(int length) {
+		ByteBuffer buffer = allocateDirect(length);
+		int offset = 0;
+		while (offset < length) {
+			int bytesRead = os.read(master, buffer, offset, length - offset);
+			assertThat(bytesRead > 0, is(true));
+			offset += bytesRead;
+		}
+		byte[] data = new byte[length];
+		buffer.get(data);
+		return new String(data);
+	}
+}
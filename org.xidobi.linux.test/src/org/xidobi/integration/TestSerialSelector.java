@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.integration;
+
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xidobi.OS;
+import org.xidobi.PosixApi;
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialEventHandler;
+import org.xidobi.SerialPort;
+import org.xidobi.SerialPortImpl;
+import org.xidobi.SerialSelectionKey;
+import org.xidobi.SerialSelector;
+import org.xidobi.SerialSelectorImpl;
+import org.xidobi.structs.INT;
+
+/**
+ * Integration test, that registers the slave of a pseudo terminal with a {@link SerialSelector}
+ * and transfers data through the master. No serial port hardware is needed for this test.
+ *
+ * @author Christian Schwarz
+ */
+public class TestSerialSelector {
+
+	/** the native POSIX-API */
+	private PosixApi os = OS.OS;
+
+	/** the file descriptor of the master of the pseudo terminal */
+	private int master;
+
+	/** the opened connection to the slave of the pseudo terminal */
+	private SerialConnection connection;
+
+	/** records the events of the connection */
+	private RecordingHandler handler = new RecordingHandler();
+
+	/** Class under test */
+	private SerialSelector selector;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() throws Exception {
+		INT master = new INT(-1);
+		INT slave = new INT(-1);
+		assertThat(os.openpty(master, slave), is(0));
+
+		String slaveName = os.ttyname(slave.value);
+		assertThat(slaveName, is(notNullValue()));
+		// the port opens the slave by its path
+		assertThat(os.close(slave.value), is(0));
+
+		this.master = master.value;
+		SerialPort port = new SerialPortImpl(os, slaveName, null);
+		connection = port.open(from9600bauds8N1().create());
+		selector = new SerialSelectorImpl(os);
+	}
+
+	@After
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws Exception {
+		selector.close();
+		connection.close();
+		os.close(master);
+	}
+
+	/**
+	 * Verifies that the data written to the master is dispatched to the handler.
+	 */
+	@Test(timeout = 2000)
+	public void select_dataReceived() throws Exception {
+		selector.register(connection, handler);
+		writeToMaster("Hello");
+
+		while (handler.received.length() < 5)
+			selector.select();
+
+		assertThat(handler.received.toString(), is("Hello"));
+	}
+
+	/**
+	 * Verifies that the data written by the key can be read from the master and that the
+	 * completion is dispatched to the handler.
+	 */
+	@Test(timeout = 2000)
+	public void write() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		key.write(ByteBuffer.wrap("Hel".getBytes()));
+		key.write(ByteBuffer.wrap("lo".getBytes()));
+		while (handler.writesCompleted < 2)
+			selector.select();
+
+		assertThat(readFromMaster(5), is("Hello"));
+	}
+
+	/**
+	 * Verifies that the handler is notified, when the connection is closed.
+	 */
+	@Test(timeout = 2000)
+	public void select_connectionClosed() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		connection.close();
+		while (handler.failure == null)
+			selector.select();
+
+		assertThat(handler.failure.getMessage(), startsWith("Port "));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that the handler is notified, when the master of the pseudo terminal is closed,
+	 * this is the same as if the device was removed.
+	 */
+	@Test(timeout = 2000)
+	public void select_hangUp() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		os.close(master);
+		master = -1;
+		while (handler.failure == null)
+			selector.select();
+
+		assertThat(key.isValid(), is(false));
+		assertThat(connection.isClosed(), is(false));
+	}
+
+	/**
+	 * Verifies that a selection operation in progress returns, when the selector is woken up by
+	 * another thread.
+	 */
+	@Test(timeout = 2000)
+	public void wakeup() throws Exception {
+		selector.register(connection, handler);
+		new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				sleep(100);
+				selector.wakeup();
+			}
+		}).start();
+
+		assertThat(selector.select(), is(0));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Records the events of the connection. */
+	private static class RecordingHandler implements SerialEventHandler {
+
+		/** the received data */
+		private final StringBuilder received = new StringBuilder();
+		/** the number of completed writes */
+		private int writesCompleted;
+		/** the failure or <code>null</code> */
+		private IOException failure;
+
+		@Override
+		public void dataReceived(SerialSelectionKey key, ByteBuffer data) {
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			received.append(new String(bytes));
+		}
+
+		@Override
+		public void writeCompleted(SerialSelectionKey key, ByteBuffer src) {
+			writesCompleted++;
+		}
+
+		@Override
+		public void failed(SerialSelectionKey key, IOException cause) {
+			failure = cause;
+		}
+	}
+
+	/** Writes the given data to the master. */
+	private void writeToMaster(String data) {
+		ByteBuffer buffer = allocateDirect(data.length());
+		buffer.put(data.getBytes());
+		assertThat(os.write(master, buffer, 0, data.length()), is(data.length()));
+	}
+
+	/** Reads the given number of bytes from the master. */
+	private String readFromMaster(int length) {
+		ByteBuffer buffer = allocateDirect(length);
+		int offset = 0;
+		while (offset < length) {
+			int bytesRead = os.read(master, buffer, offset, length - offset);
+			assertThat(bytesRead > 0, is(true));
+			offset += bytesRead;
+		}
+		byte[] data = new byte[length];
+		buffer.get(data);
+		return new String(data);
+	}
+
+	/** Sleeps the given number of milliseconds. */
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
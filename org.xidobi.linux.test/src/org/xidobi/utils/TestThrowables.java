@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.utils;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.xidobi.PosixApi;
+import org.xidobi.spi.NativeCodeException;
+
+/**
+ * Tests class {@link Throwables}.
+ *
+ * @author Christian Schwarz
+ */
+public class TestThrowables {
+
+	private static String MESSAGE = "An error message!";
+	private static int ERROR_CODE = 1;
+
+	@Mock
+	private PosixApi os;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>null</code> is
+	 * passed.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void newNativeCodeException_withNullPosixApi() {
+		Throwables.newNativeCodeException(null, MESSAGE, ERROR_CODE);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>null</code> is
+	 * passed.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void newNativeCodeException_withNullMessage() {
+		Throwables.newNativeCodeException(os, null, ERROR_CODE);
+	}
+
+	/**
+	 * Verifies that {@link Throwables#newNativeCodeException(PosixApi, String, int)} returns a
+	 * {@link NativeCodeException} with a default text, when no error message is available for the
+	 * given error code.
+	 */
+	@Test
+	public void newNativeCodeException_noNativeErrorMessage() {
+		when(os.strerror(ERROR_CODE)).thenReturn(null);
+
+		NativeCodeException result = Throwables.newNativeCodeException(os, MESSAGE, ERROR_CODE);
+
+		assertThat(result.getMessage(), startsWith("An error message!\nError-Code 1: No error description available."));
+	}
+
+	/**
+	 * Verifies that {@link Throwables#newNativeCodeException(PosixApi, String, int)} returns a
+	 * {@link NativeCodeException} with an error message for the given error code.
+	 */
+	@Test
+	public void newNativeCodeException_withNativeErrorMessage() {
+		when(os.strerror(ERROR_CODE)).thenReturn("Operation not permitted");
+
+		NativeCodeException result = Throwables.newNativeCodeException(os, MESSAGE, ERROR_CODE);
+
+		assertThat(result.getMessage(), startsWith("An error message!\nError-Code 1: Operation not permitted"));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>null</code> is
+	 * passed.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void newIOException_withNullMessage() {
+		Throwables.newIOException(os, null, ERROR_CODE);
+	}
+
+	/**
+	 * Verifies that {@link Throwables#newIOException(PosixApi, String, int)} returns an
+	 * {@link IOException} with an error message for the given error code.
+	 */
+	@Test
+	public void newIOException_withNativeErrorMessage() {
+		when(os.strerror(ERROR_CODE)).thenReturn("Operation not permitted");
+
+		IOException result = Throwables.newIOException(os, MESSAGE, ERROR_CODE);
+
+		assertThat(result, is(instanceOf(IOException.class)));
+		assertThat(result.getMessage(), is("An error message!\nError-Code 1: Operation not permitted"));
+	}
+
+	/**
+	 * Verifies that {@link Throwables#getErrorMessage(PosixApi, int)} returns the error code and
+	 * the error message.
+	 */
+	@Test
+	public void getErrorMessage() {
+		when(os.strerror(ERROR_CODE)).thenReturn("Operation not permitted");
+
+		assertThat(Throwables.getErrorMessage(os, ERROR_CODE), is("Error-Code 1: Operation not permitted"));
+	}
+}
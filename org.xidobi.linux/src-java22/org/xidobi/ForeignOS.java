@@ -0,0 +1,495 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.foreign.MemoryLayout.PathElement.groupElement;
+import static java.lang.foreign.ValueLayout.ADDRESS;
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.Termios;
+import org.xidobi.utils.LastErrorSlot;
+
+/**
+ * Calls the functions of the C library with the Foreign Function &amp; Memory API instead of the
+ * JNI library of {@link OS}, so <code>libxidobi.so</code> is not needed. The structs are mapped
+ * to {@link MemorySegment}s and the <code>errno</code> of each call is captured by the linker.
+ * <p>
+ * Calls that return immediately, like <code>read</code> and <code>write</code> on the
+ * non-blocking file descriptor of a serial port, are linked as critical functions to avoid the
+ * thread state transitions. Calls that may block, like <code>epoll_wait</code>, are linked
+ * normally, because a critical function holds off the garbage collector.
+ * <p>
+ * This class needs Java 22 or later. It is packaged in the versioned section of the multi-release
+ * bundle, older VMs only see {@link OS}. The VM should be started with
+ * <code>--enable-native-access</code>, otherwise it warns about the restricted methods.
+ *
+ * @author Christian Schwarz
+ */
+public final class ForeignOS implements PosixApi {
+
+	/** the maximum number of events, that are returned by a single call of epoll_wait */
+	private static final int MAX_EPOLL_EVENTS = 16;
+
+	/** the size of the buffer, that receives the name of a terminal */
+	private static final int TTY_NAME_SIZE = 256;
+
+	/** the library, that contains the pseudo terminal functions in older versions of glibc */
+	private static final String LIBUTIL = "libutil.so.1";
+
+	/** the linker of the native platform */
+	private static final Linker LINKER = Linker.nativeLinker();
+
+	/** the layout of the call state, that is captured after each call */
+	private static final StructLayout CALL_STATE = Linker.Option.captureStateLayout();
+	/** the offset of the errno in the captured call state */
+	private static final long ERRNO = CALL_STATE.byteOffset(groupElement("errno"));
+
+	/** captures the errno of a call */
+	private static final Linker.Option CAPTURE_ERRNO = Linker.Option.captureCallState("errno");
+	/** links a function that returns immediately and doesn't access the Java heap */
+	private static final Linker.Option CRITICAL = Linker.Option.critical(false);
+
+	/** <code>struct termios</code> of glibc on x86_64 */
+	private static final StructLayout TERMIOS = MemoryLayout.structLayout(
+			JAVA_INT.withName("c_iflag"),
+			JAVA_INT.withName("c_oflag"),
+			JAVA_INT.withName("c_cflag"),
+			JAVA_INT.withName("c_lflag"),
+			JAVA_BYTE.withName("c_line"),
+			MemoryLayout.sequenceLayout(NCCS, JAVA_BYTE).withName("c_cc"),
+			MemoryLayout.paddingLayout(3),
+			JAVA_INT.withName("c_ispeed"),
+			JAVA_INT.withName("c_ospeed"));
+	private static final long C_IFLAG = TERMIOS.byteOffset(groupElement("c_iflag"));
+	private static final long C_OFLAG = TERMIOS.byteOffset(groupElement("c_oflag"));
+	private static final long C_CFLAG = TERMIOS.byteOffset(groupElement("c_cflag"));
+	private static final long C_LFLAG = TERMIOS.byteOffset(groupElement("c_lflag"));
+	private static final long C_LINE = TERMIOS.byteOffset(groupElement("c_line"));
+	private static final long C_CC = TERMIOS.byteOffset(groupElement("c_cc"));
+	private static final long C_ISPEED = TERMIOS.byteOffset(groupElement("c_ispeed"));
+	private static final long C_OSPEED = TERMIOS.byteOffset(groupElement("c_ospeed"));
+
+	/** <code>struct epoll_event</code>, it is packed on x86_64, the data contains the fd */
+	private static final StructLayout EPOLL_EVENT = MemoryLayout.structLayout(
+			JAVA_INT.withName("events"),
+			JAVA_INT.withName("fd"),
+			MemoryLayout.paddingLayout(4));
+	private static final long EVENTS = EPOLL_EVENT.byteOffset(groupElement("events"));
+	private static final long FD = EPOLL_EVENT.byteOffset(groupElement("fd"));
+
+	// @formatter:off
+	private static final MethodHandle OPEN = downcall("open", FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle CLOSE = downcall("close", FunctionDescriptor.of(JAVA_INT, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle READ = downcall("read", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle WRITE = downcall("write", FunctionDescriptor.of(JAVA_LONG, JAVA_INT, ADDRESS, JAVA_LONG), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle IOCTL = downcall("ioctl", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG, ADDRESS), CAPTURE_ERRNO, CRITICAL, Linker.Option.firstVariadicArg(2));
+	private static final MethodHandle FLOCK = downcall("flock", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle TCGETATTR = downcall("tcgetattr", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle TCSETATTR = downcall("tcsetattr", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS), CAPTURE_ERRNO);
+	private static final MethodHandle TCFLUSH = downcall("tcflush", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle EPOLL_CREATE1 = downcall("epoll_create1", FunctionDescriptor.of(JAVA_INT, JAVA_INT), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle EPOLL_CTL = downcall("epoll_ctl", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle EPOLL_WAIT = downcall("epoll_wait", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), CAPTURE_ERRNO);
+	private static final MethodHandle EVENTFD = downcall("eventfd", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_INT), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle EVENTFD_WRITE = downcall("eventfd_write", FunctionDescriptor.of(JAVA_INT, JAVA_INT, JAVA_LONG), CAPTURE_ERRNO, CRITICAL);
+	private static final MethodHandle OPENPTY = downcall("openpty", FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, ADDRESS, ADDRESS, ADDRESS), CAPTURE_ERRNO);
+	private static final MethodHandle TTYNAME_R = downcall("ttyname_r", FunctionDescriptor.of(JAVA_INT, JAVA_INT, ADDRESS, JAVA_LONG), CRITICAL);
+	private static final MethodHandle STRERROR = downcall("strerror", FunctionDescriptor.of(ADDRESS, JAVA_INT), CRITICAL);
+	// @formatter:on
+
+	/** the offset of the first int of the scratch memory, it follows the call state */
+	private static final long SCRATCH_INT_0 = (CALL_STATE.byteSize() + 7) & ~7;
+	/** the offset of the second int of the scratch memory */
+	private static final long SCRATCH_INT_1 = SCRATCH_INT_0 + JAVA_INT.byteSize();
+	/** the size of the scratch memory */
+	private static final long SCRATCH_SIZE = SCRATCH_INT_1 + JAVA_INT.byteSize();
+
+	/** The singleton instance of this class */
+	public final static PosixApi OS = new ForeignOS();
+
+	/** Stores the last native error code of each thread, it is copied from the call state */
+	private final LastErrorSlot lastErrors = new LastErrorSlot();
+
+	/**
+	 * The memory of each thread, that receives the call state and the small out parameters. It is
+	 * reused for all calls of the thread and freed, when the thread is gone.
+	 */
+	private final ThreadLocal<MemorySegment> scratch = new ThreadLocal<MemorySegment>() {
+		@Override
+		protected MemorySegment initialValue() {
+			return Arena.ofAuto().allocate(SCRATCH_SIZE, 8);
+		}
+	};
+
+	/**
+	 * This class is not intended to be instantiated.
+	 *
+	 * @see #OS
+	 */
+	private ForeignOS() {}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int open(@Nonnull String pathname, int flags) {
+		checkArgumentNotNull(pathname, "pathname");
+
+		MemorySegment state = scratch.get();
+		try (Arena arena = Arena.ofConfined()) {
+			int fd = (int) OPEN.invokeExact(state, arena.allocateFrom(pathname), flags);
+			return preserveLastError(state, fd);
+		}
+		catch (Throwable e) {
+			throw unexpected("open", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int close(int fd) {
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) CLOSE.invokeExact(state, fd));
+		}
+		catch (Throwable e) {
+			throw unexpected("close", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int read(int fd, @Nonnull ByteBuffer buffer, int offset, int count) {
+		MemorySegment memory = slice(buffer, offset, count);
+
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) (long) READ.invokeExact(state, fd, memory, (long) count));
+		}
+		catch (Throwable e) {
+			throw unexpected("read", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int write(int fd, @Nonnull ByteBuffer buffer, int offset, int count) {
+		MemorySegment memory = slice(buffer, offset, count);
+
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) (long) WRITE.invokeExact(state, fd, memory, (long) count));
+		}
+		catch (Throwable e) {
+			throw unexpected("write", e);
+		}
+	}
+
+	/**
+	 * Returns the memory of the given range of the buffer. The buffer must be direct, because the
+	 * memory of a heap buffer may be moved by the garbage collector.
+	 */
+	private static MemorySegment slice(ByteBuffer buffer, int offset, int count) {
+		checkArgumentNotNull(buffer, "buffer");
+		checkArgument(buffer.isDirect(), "buffer", "Expected a direct buffer!");
+		checkArgument(offset >= 0 && offset <= buffer.capacity(), "offset", "Expected a value between 0 and buffer.capacity()!");
+		checkArgument(count >= 0 && count <= buffer.capacity() - offset, "count", "Expected a value between 0 and buffer.capacity() - offset!");
+
+		// the segment of a buffer starts at its position
+		return MemorySegment.ofBuffer(buffer.duplicate().clear()).asSlice(offset, count);
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int ioctl(int fd, int request, @Nullable INT argp) {
+		MemorySegment state = scratch.get();
+		MemorySegment arg = MemorySegment.NULL;
+		if (argp != null) {
+			arg = state.asSlice(SCRATCH_INT_0, JAVA_INT.byteSize());
+			arg.set(JAVA_INT, 0, argp.value);
+		}
+
+		try {
+			int result = (int) IOCTL.invokeExact(state, fd, (long) request, arg);
+			if (argp != null)
+				argp.value = arg.get(JAVA_INT, 0);
+			return preserveLastError(state, result);
+		}
+		catch (Throwable e) {
+			throw unexpected("ioctl", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int flock(int fd, int operation) {
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) FLOCK.invokeExact(state, fd, operation));
+		}
+		catch (Throwable e) {
+			throw unexpected("flock", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int tcgetattr(int fd, @Nonnull Termios termios) {
+		checkArgumentNotNull(termios, "termios");
+
+		MemorySegment state = scratch.get();
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment termiosStruct = arena.allocate(TERMIOS);
+			int result = (int) TCGETATTR.invokeExact(state, fd, termiosStruct);
+			if (result == 0)
+				getTermiosFields(termiosStruct, termios);
+			return preserveLastError(state, result);
+		}
+		catch (Throwable e) {
+			throw unexpected("tcgetattr", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int tcsetattr(int fd, int optionalActions, @Nonnull Termios termios) {
+		checkArgumentNotNull(termios, "termios");
+
+		MemorySegment state = scratch.get();
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment termiosStruct = arena.allocate(TERMIOS);
+			setTermiosFields(termios, termiosStruct);
+			return preserveLastError(state, (int) TCSETATTR.invokeExact(state, fd, optionalActions, termiosStruct));
+		}
+		catch (Throwable e) {
+			throw unexpected("tcsetattr", e);
+		}
+	}
+
+	/** Copies the fields of the given struct into the given object. */
+	private static void getTermiosFields(MemorySegment termiosStruct, Termios termios) {
+		termios.c_iflag = termiosStruct.get(JAVA_INT, C_IFLAG);
+		termios.c_oflag = termiosStruct.get(JAVA_INT, C_OFLAG);
+		termios.c_cflag = termiosStruct.get(JAVA_INT, C_CFLAG);
+		termios.c_lflag = termiosStruct.get(JAVA_INT, C_LFLAG);
+		termios.c_line = termiosStruct.get(JAVA_BYTE, C_LINE);
+		MemorySegment.copy(termiosStruct, JAVA_BYTE, C_CC, termios.c_cc, 0, NCCS);
+	}
+
+	/** Copies the fields of the given object into the given struct. */
+	private static void setTermiosFields(Termios termios, MemorySegment termiosStruct) {
+		termiosStruct.set(JAVA_INT, C_IFLAG, termios.c_iflag);
+		termiosStruct.set(JAVA_INT, C_OFLAG, termios.c_oflag);
+		termiosStruct.set(JAVA_INT, C_CFLAG, termios.c_cflag);
+		termiosStruct.set(JAVA_INT, C_LFLAG, termios.c_lflag);
+		termiosStruct.set(JAVA_BYTE, C_LINE, termios.c_line);
+		MemorySegment.copy(termios.c_cc, 0, termiosStruct, JAVA_BYTE, C_CC, NCCS);
+		// the baud rate is encoded in c_cflag, the separate speed fields must match it
+		termiosStruct.set(JAVA_INT, C_ISPEED, termios.c_cflag & CBAUD);
+		termiosStruct.set(JAVA_INT, C_OSPEED, termios.c_cflag & CBAUD);
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int tcflush(int fd, int queueSelector) {
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) TCFLUSH.invokeExact(state, fd, queueSelector));
+		}
+		catch (Throwable e) {
+			throw unexpected("tcflush", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int epoll_create1(int flags) {
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) EPOLL_CREATE1.invokeExact(state, flags));
+		}
+		catch (Throwable e) {
+			throw unexpected("epoll_create1", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int epoll_ctl(int epfd, int op, int fd, int events) {
+		MemorySegment state = scratch.get();
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment event = arena.allocate(EPOLL_EVENT);
+			event.set(JAVA_INT, EVENTS, events);
+			event.set(JAVA_INT, FD, fd);
+			return preserveLastError(state, (int) EPOLL_CTL.invokeExact(state, epfd, op, fd, event));
+		}
+		catch (Throwable e) {
+			throw unexpected("epoll_ctl", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int epoll_wait(int epfd, @Nonnull int[] fds, @Nonnull int[] events, int timeout) {
+		checkArgumentNotNull(fds, "fds");
+		checkArgumentNotNull(events, "events");
+		int maxEvents = Math.min(Math.min(fds.length, events.length), MAX_EPOLL_EVENTS);
+
+		MemorySegment state = scratch.get();
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment readyEvents = arena.allocate(EPOLL_EVENT, MAX_EPOLL_EVENTS);
+			int result = (int) EPOLL_WAIT.invokeExact(state, epfd, readyEvents, maxEvents, timeout);
+			for (int i = 0; i < result; i++) {
+				MemorySegment event = readyEvents.asSlice(i * EPOLL_EVENT.byteSize(), EPOLL_EVENT.byteSize());
+				fds[i] = event.get(JAVA_INT, FD);
+				events[i] = event.get(JAVA_INT, EVENTS);
+			}
+			return preserveLastError(state, result);
+		}
+		catch (Throwable e) {
+			throw unexpected("epoll_wait", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int eventfd(int initval, int flags) {
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) EVENTFD.invokeExact(state, initval, flags));
+		}
+		catch (Throwable e) {
+			throw unexpected("eventfd", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int eventfd_write(int fd, long value) {
+		MemorySegment state = scratch.get();
+		try {
+			return preserveLastError(state, (int) EVENTFD_WRITE.invokeExact(state, fd, value));
+		}
+		catch (Throwable e) {
+			throw unexpected("eventfd_write", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int openpty(@Nonnull INT master, @Nonnull INT slave) {
+		checkArgumentNotNull(master, "master");
+		checkArgumentNotNull(slave, "slave");
+
+		MemorySegment state = scratch.get();
+		MemorySegment amaster = state.asSlice(SCRATCH_INT_0, JAVA_INT.byteSize());
+		MemorySegment aslave = state.asSlice(SCRATCH_INT_1, JAVA_INT.byteSize());
+		amaster.set(JAVA_INT, 0, -1);
+		aslave.set(JAVA_INT, 0, -1);
+		try {
+			int result = (int) OPENPTY.invokeExact(state, amaster, aslave, MemorySegment.NULL, MemorySegment.NULL, MemorySegment.NULL);
+			master.value = amaster.get(JAVA_INT, 0);
+			slave.value = aslave.get(JAVA_INT, 0);
+			return preserveLastError(state, result);
+		}
+		catch (Throwable e) {
+			throw unexpected("openpty", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckForNull
+	public String ttyname(int fd) {
+		try (Arena arena = Arena.ofConfined()) {
+			MemorySegment name = arena.allocate(TTY_NAME_SIZE);
+			if ((int) TTYNAME_R.invokeExact(fd, name, (long) TTY_NAME_SIZE) != 0)
+				return null;
+			return name.getString(0);
+		}
+		catch (Throwable e) {
+			throw unexpected("ttyname_r", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public String strerror(int errnum) {
+		try {
+			MemorySegment message = (MemorySegment) STRERROR.invokeExact(errnum);
+			// the size of the returned string is unknown, it is terminated by a null character
+			return message.reinterpret(Integer.MAX_VALUE).getString(0);
+		}
+		catch (Throwable e) {
+			throw unexpected("strerror", e);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int errno() {
+		return lastErrors.get();
+	}
+
+	/** Stores the errno of the captured call state as last error and returns the given result. */
+	private int preserveLastError(MemorySegment state, int result) {
+		lastErrors.clear().value = state.get(JAVA_INT, ERRNO);
+		return result;
+	}
+
+	/** Links the function of the C library with the given name. */
+	private static MethodHandle downcall(String name, FunctionDescriptor function, Linker.Option... options) {
+		Optional<MemorySegment> address = LINKER.defaultLookup().find(name);
+		if (address.isEmpty())
+			// openpty is part of libutil in glibc before 2.34
+			address = SymbolLookup.libraryLookup(LIBUTIL, Arena.global()).find(name);
+		if (address.isEmpty())
+			throw new UnsatisfiedLinkError("Unable to find the function " + name + " in the C library!");
+		return LINKER.downcallHandle(address.get(), function, options);
+	}
+
+	/**
+	 * Returns the exception, that is thrown when a downcall fails unexpected. The linked functions
+	 * don't throw checked exceptions, so the given one is a {@link RuntimeException} or an
+	 * {@link Error} in practice.
+	 */
+	private static RuntimeException unexpected(String function, Throwable e) {
+		if (e instanceof RuntimeException)
+			return (RuntimeException) e;
+		if (e instanceof Error)
+			throw (Error) e;
+		NativeCodeException exception = new NativeCodeException("The call of " + function + " failed unexpected!");
+		exception.initCause(e);
+		return exception;
+	}
+}
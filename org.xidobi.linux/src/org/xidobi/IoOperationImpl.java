@@ -0,0 +1,407 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.Math.max;
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.ENODEV;
+import static org.xidobi.PosixApi.ENXIO;
+import static org.xidobi.PosixApi.EPOLLERR;
+import static org.xidobi.PosixApi.EPOLLHUP;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_ADD;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+import static org.xidobi.utils.Throwables.newNativeCodeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.OverridingMethodsMustInvokeSuper;
+
+import org.xidobi.spi.IoOperation;
+import org.xidobi.spi.NativeCodeException;
+
+/**
+ * Abstract class for I/O operations.
+ * <p>
+ * Every I/O operation owns an epoll instance, that is used to wait until the serial port is ready
+ * for the operation, and an eventfd object, that is used to wake up a waiting operation when it is
+ * closed.
+ * <p>
+ * Subclasses are:
+ *
+ * <ul>
+ * <li>{@link ReaderImpl} for read operations</li>
+ * <li>{@link WriterImpl} for write operations</li>
+ * </ul>
+ *
+ * @author Christian Schwarz
+ *
+ * @see IoOperation
+ * @see WriterImpl
+ * @see ReaderImpl
+ */
+public abstract class IoOperationImpl implements IoOperation {
+
+	/** the serial port, never <code>null</code> */
+	@Nonnull
+	protected final SerialPort port;
+	/** the native POSIX-API, never <code>null</code> */
+	@Nonnull
+	protected final PosixApi os;
+	/** the file descriptor of the serial port */
+	protected final int fd;
+
+	/** the file descriptor of the epoll instance */
+	private final int epfd;
+	/** the file descriptor of the eventfd object, that wakes up a waiting operation */
+	private final int eventFd;
+
+	/** Receives the file descriptors of the signaled events, it is reused for every wait */
+	private final int[] signaledFds = new int[2];
+	/** Receives the signaled events, it is reused for every wait */
+	private final int[] signaledEvents = new int[2];
+
+	/**
+	 * Ensures that the shared resources can only be disposed, when no read or write operations are
+	 * in progress.
+	 */
+	protected final Lock disposeLock = new ReentrantLock(true);
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if this instance is disposed
+	 * <li> <code>false</code> if this instance is not disposed
+	 * </ul>
+	 */
+	private boolean isDisposed;
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if this I/O operation is closed
+	 * <li> <code>false</code> if this I/O operation is not closed
+	 * </ul>
+	 */
+	private boolean isClosed;
+
+	/**
+	 * Set to <code>true</code> when this I/O operation is closed, an operation that is woken up
+	 * while waiting must not continue in this case
+	 */
+	private volatile boolean isCloseRequested;
+
+	/**
+	 * Creates a new I/O operation.
+	 *
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param fd
+	 *            the file descriptor of the serial port
+	 * @param events
+	 *            the epoll events of the serial port, this I/O operation waits for
+	 */
+	public IoOperationImpl(	@Nonnull SerialPort port,
+							@Nonnull PosixApi os,
+							int fd,
+							int events) {
+		this.port = checkArgumentNotNull(port, "port");
+		this.os = checkArgumentNotNull(os, "os");
+		checkArgument(fd != -1, "fd", "Invalid file descriptor (-1)!");
+		this.fd = fd;
+
+		// initialize shared resources:
+		epfd = newEpoll(os);
+		eventFd = newEventFd(os, epfd);
+		register(fd, events);
+	}
+
+	/** Creates a new epoll instance and returns its file descriptor. */
+	private static int newEpoll(PosixApi os) {
+		int epfd = os.epoll_create1(EPOLL_CLOEXEC);
+		if (epfd == -1)
+			throw newNativeCodeException(os, "epoll_create1 failed unexpected!", os.errno());
+		return epfd;
+	}
+
+	/**
+	 * Creates a new eventfd object, registers it on the given epoll instance and returns its file
+	 * descriptor.
+	 */
+	private static int newEventFd(PosixApi os, int epfd) {
+		int eventFd = os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+		if (eventFd == -1) {
+			int errno = os.errno();
+			os.close(epfd);
+			throw newNativeCodeException(os, "eventfd failed unexpected!", errno);
+		}
+		if (os.epoll_ctl(epfd, EPOLL_CTL_ADD, eventFd, EPOLLIN) == -1) {
+			int errno = os.errno();
+			os.close(eventFd);
+			os.close(epfd);
+			throw newNativeCodeException(os, "epoll_ctl failed unexpected!", errno);
+		}
+		return eventFd;
+	}
+
+	/** Registers the file descriptor of the serial port on the epoll instance. */
+	private void register(int fd, int events) {
+		if (os.epoll_ctl(epfd, EPOLL_CTL_ADD, fd, events) != -1)
+			return;
+
+		int errno = os.errno();
+		os.close(eventFd);
+		os.close(epfd);
+		throw newNativeCodeException(os, "epoll_ctl failed unexpected!", errno);
+	}
+
+	/**
+	 * Blocks until one of the registered events of the serial port is signaled, the given timeout
+	 * elapsed or this I/O operation is closed.
+	 *
+	 * @param timeout
+	 *            the timeout in milliseconds, {@link PosixApi#INFINITE INFINITE} to wait without a
+	 *            timeout
+	 * @return the signaled events of the serial port, <code>0</code> if the timeout elapsed
+	 * @throws IOException
+	 *             if this I/O operation was closed or the serial port signaled a hang up or an
+	 *             error
+	 */
+	protected final int awaitEvents(int timeout) throws IOException {
+		while (true) {
+			if (isCloseRequested)
+				throw portClosedException("I/O operation was canceled.");
+
+			int numberOfEvents = os.epoll_wait(epfd, signaledFds, signaledEvents, timeout);
+			if (numberOfEvents == -1) {
+				int errno = os.errno();
+				if (errno == EINTR)
+					// the wait was interrupted by a signal, we must wait again
+					continue;
+				handleNativeError("epoll_wait", errno);
+			}
+
+			if (isCloseRequested)
+				// the eventfd object was signaled by close()
+				throw portClosedException("I/O operation was canceled.");
+
+			int events = 0;
+			for (int i = 0; i < numberOfEvents; i++)
+				if (signaledFds[i] == fd)
+					events = signaledEvents[i];
+
+			if ((events & (EPOLLHUP | EPOLLERR)) != 0)
+				throw portClosedException("I/O operation failed, because a hang up or an error was signaled.");
+			return events;
+		}
+	}
+
+	/**
+	 * Returns a direct buffer that can hold at least the given number of bytes. The given buffer is
+	 * returned, if it is large enough. Otherwise it is replaced by a new one. The capacity of the
+	 * new buffer is at least doubled, to keep the number of reallocations low when the amount of
+	 * transferred data grows.
+	 *
+	 * @param buffer
+	 *            the current buffer, may be <code>null</code>
+	 * @param size
+	 *            the number of bytes the buffer must be able to hold, must be greater than 0
+	 * @return the given buffer or a new one, never <code>null</code>
+	 */
+	@Nonnull
+	protected static final ByteBuffer ensureCapacity(@Nullable ByteBuffer buffer, int size) {
+		if (buffer == null)
+			return allocateDirect(size);
+		if (buffer.capacity() >= size)
+			// the current buffer is large enough
+			return buffer;
+		return allocateDirect(max(size, buffer.capacity() * 2));
+	}
+
+	/**
+	 * Handles the native error and throws an {@link IOException}, if the given error code is one of
+	 * the following:
+	 * <ul>
+	 * <li>{@link PosixApi#EBADF EBADF}
+	 * <li>{@link PosixApi#EIO EIO}
+	 * <li>{@link PosixApi#ENXIO ENXIO}
+	 * <li>{@link PosixApi#ENODEV ENODEV}
+	 * </ul>
+	 * Otherwise it throws a {@link NativeCodeException} with the error code and the given name of
+	 * the native method.
+	 *
+	 * @param nativeMethodName
+	 *            the name of the native method, must not be <code>null</code>
+	 * @param errorCode
+	 *            the last error code
+	 * @throws IOException
+	 *             if the error code is one of the following:
+	 *             <ul>
+	 *             <li>{@link PosixApi#EBADF EBADF}
+	 *             <li>{@link PosixApi#EIO EIO}
+	 *             <li>{@link PosixApi#ENXIO ENXIO}
+	 *             <li>{@link PosixApi#ENODEV ENODEV}
+	 *             </ul>
+	 * @exception NativeCodeException
+	 *                for all unexpected error codes
+	 */
+	protected final void handleNativeError(@Nonnull String nativeMethodName, int errorCode) throws IOException {
+		checkArgumentNotNull(nativeMethodName, "nativeMethodName");
+
+		switch (errorCode) {
+			case EBADF:
+				throw portClosedException("I/O operation failed, because the file descriptor is invalid.");
+			case EIO:
+				throw portClosedException("I/O operation failed, because of an input/output error.");
+			case ENXIO:
+			case ENODEV:
+				throw portClosedException("I/O operation failed, because the device was removed.");
+			default:
+				throw newNativeCodeException(os, nativeMethodName + " failed unexpected!", errorCode);
+		}
+	}
+
+	/**
+	 * Wakes up an I/O operation, that is waiting for the serial port, and closes this I/O
+	 * operation. The waiting operation throws an {@link IOException}.
+	 */
+	@OverridingMethodsMustInvokeSuper
+	public void close() throws IOException {
+		checkIfClosedOrDisposed();
+
+		isCloseRequested = true;
+
+		// signal the eventfd object to wake up a waiting operation
+		if (os.eventfd_write(eventFd, 1) == -1)
+			throw newNativeCodeException(os, "eventfd_write failed unexpected!", os.errno());
+
+		isClosed = true;
+	}
+
+	/**
+	 * Blocks until an I/O operation, that is currently in progress, has returned. This method
+	 * should only be called after {@link #close()}, so that a waiting operation was woken up.
+	 */
+	public final void awaitTermination() {
+		disposeLock.lock();
+		disposeLock.unlock();
+	}
+
+	/**
+	 * Returns <code>true</code>, if this I/O operation is closed.
+	 *
+	 * @return <ul>
+	 *         <li> <code>true</code> if closed
+	 *         <li> <code>false</code> if not closed
+	 *         </ul>
+	 */
+	protected final boolean isClosed() {
+		return isClosed;
+	}
+
+	/**
+	 * Throws an {@link IOException} if this I/O operation was already closed or an
+	 * {@link IllegalStateException} if this instance was already disposed.
+	 *
+	 * @throws IOException
+	 *             when this I/O operation was already closed
+	 * @throws IllegalStateException
+	 *             when this instance was already disposed
+	 */
+	protected final void checkIfClosedOrDisposed() throws IOException {
+		if (isClosed())
+			throw portClosedException(null);
+		checkIfDisposed();
+	}
+
+	/**
+	 * Returns a new {@link IOException} indicating that the port is closed. Subclasses may use this
+	 * to throw a consitent {@link IOException}, if a closed port was detected.
+	 *
+	 * @param message
+	 *            error description, may be <code>null</code>
+	 */
+	@Nonnull
+	protected final IOException portClosedException(@Nullable String message) {
+		if (message == null)
+			message = "";
+		else
+			message = " " + message;
+		return new IOException("Port " + port.getPortName() + " was closed!" + message);
+	}
+
+	/** {@inheritDoc} */
+	public final void dispose() {
+		//@formatter:off
+		disposeLock.lock();
+		try {
+			checkIfDisposed();
+		try {
+			os.close(eventFd);
+		} finally {	try {
+			os.close(epfd);
+		} finally {
+			disposeInternal();
+		}}} finally {
+			isDisposed = true;
+			disposeLock.unlock();
+		}
+		// @formatter:on
+	}
+
+	/**
+	 * Subclasses can overwrite this method in order to dispose their resources.
+	 * <p>
+	 * <b>IMPORTANT:</b> Don't call this method yourself!
+	 */
+	protected void disposeInternal() {}
+
+	/**
+	 * Returns <code>true</code> if this instance is disposed.
+	 *
+	 * @return <ul>
+	 *         <li> <code>true</code> if this instance is disposed
+	 *         <li> <code>false</code> if this instance is not disposed
+	 *         </ul>
+	 */
+	protected final boolean isDisposed() {
+		return isDisposed;
+	}
+
+	/**
+	 * Throws an {@link IllegalStateException} if this instance was already disposed.
+	 *
+	 * @throws IllegalStateException
+	 *             when this instance was already disposed
+	 */
+	protected final void checkIfDisposed() {
+		if (isDisposed())
+			throw new IllegalStateException("The instance of " + getClass().getName() + " was already disposed!");
+	}
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.System.loadLibrary;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.structs.INT;
+import org.xidobi.structs.Termios;
+import org.xidobi.utils.LastErrorSlot;
+
+/**
+ * This class contains one-to-one mappings of native methods used by the OS to control serial ports.
+ *
+ * @author Christian Schwarz
+ */
+public class OS implements PosixApi {
+
+	/** The name of the native shared library. */
+	private static final String NATIVE_LIB = "xidobi";
+
+	/** Stores the last native error code of each thread, the native methods write into it */
+	private final LastErrorSlot lastErrors = new LastErrorSlot();
+
+	/** The singleton instance of this class */
+	public final static PosixApi OS = new OS();
+
+	/**
+	 * This class is not intended to be instantiated.
+	 *
+	 * @see #OS
+	 */
+	private OS() {
+		try {
+			loadLibrary(NATIVE_LIB);
+			return;
+		}
+		catch (UnsatisfiedLinkError ignore) {
+			throw new UnsatisfiedLinkError("Unable to find lib" + NATIVE_LIB + ".so!\nYou must run in an OSGi enviroment!");
+		}
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int open(@Nonnull String pathname, int flags) {
+		return open(pathname, flags, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #open(String, int)}. */
+	private native int open(String pathname, int flags, INT lastError);
+
+	/** {@inheritDoc} */
+	public int close(int fd) {
+		return close(fd, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #close(int)}. */
+	private native int close(int fd, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int read(int fd, @Nonnull ByteBuffer buffer, int offset, int count) {
+		checkBufferRange(buffer, offset, count);
+
+		return read(fd, buffer, offset, count, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #read(int, ByteBuffer, int, int)}. */
+	private native int read(int fd, ByteBuffer buffer, int offset, int count, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int write(int fd, @Nonnull ByteBuffer buffer, int offset, int count) {
+		checkBufferRange(buffer, offset, count);
+
+		return write(fd, buffer, offset, count, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #write(int, ByteBuffer, int, int)}. */
+	private native int write(int fd, ByteBuffer buffer, int offset, int count, INT lastError);
+
+	/**
+	 * Verifies that the given buffer is direct and that the given range doesn't exceed its
+	 * capacity, the native code accesses the memory of the buffer without any checks.
+	 */
+	private void checkBufferRange(ByteBuffer buffer, int offset, int count) {
+		checkArgumentNotNull(buffer, "buffer");
+		checkArgument(buffer.isDirect(), "buffer", "Expected a direct buffer!");
+		checkArgument(offset >= 0 && offset <= buffer.capacity(), "offset", "Expected a value between 0 and buffer.capacity()!");
+		checkArgument(count >= 0 && count <= buffer.capacity() - offset, "count", "Expected a value between 0 and buffer.capacity() - offset!");
+	}
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int ioctl(int fd, int request, @Nullable INT argp) {
+		return ioctl(fd, request, argp, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #ioctl(int, int, INT)}. */
+	private native int ioctl(int fd, int request, INT argp, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int flock(int fd, int operation) {
+		return flock(fd, operation, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #flock(int, int)}. */
+	private native int flock(int fd, int operation, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int tcgetattr(int fd, @Nonnull Termios termios) {
+		return tcgetattr(fd, termios, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #tcgetattr(int, Termios)}. */
+	private native int tcgetattr(int fd, Termios termios, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int tcsetattr(int fd, int optionalActions, @Nonnull Termios termios) {
+		return tcsetattr(fd, optionalActions, termios, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #tcsetattr(int, int, Termios)}. */
+	private native int tcsetattr(int fd, int optionalActions, Termios termios, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int tcflush(int fd, int queueSelector) {
+		return tcflush(fd, queueSelector, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #tcflush(int, int)}. */
+	private native int tcflush(int fd, int queueSelector, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int epoll_create1(int flags) {
+		return epoll_create1(flags, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #epoll_create1(int)}. */
+	private native int epoll_create1(int flags, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int epoll_ctl(int epfd, int op, int fd, int events) {
+		return epoll_ctl(epfd, op, fd, events, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #epoll_ctl(int, int, int, int)}. */
+	private native int epoll_ctl(int epfd, int op, int fd, int events, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int epoll_wait(int epfd, @Nonnull int[] fds, @Nonnull int[] events, int timeout) {
+		return epoll_wait(epfd, fds, events, timeout, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #epoll_wait(int, int[], int[], int)}. */
+	private native int epoll_wait(int epfd, int[] fds, int[] events, int timeout, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int eventfd(int initval, int flags) {
+		return eventfd(initval, flags, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #eventfd(int, int)}. */
+	private native int eventfd(int initval, int flags, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int eventfd_write(int fd, long value) {
+		return eventfd_write(fd, value, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #eventfd_write(int, long)}. */
+	private native int eventfd_write(int fd, long value, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int openpty(@Nonnull INT master, @Nonnull INT slave) {
+		return openpty(master, slave, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #openpty(INT, INT)}. */
+	private native int openpty(INT master, INT slave, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckForNull
+	public native String ttyname(int fd);
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public native String strerror(int errnum);
+
+	/** {@inheritDoc} */
+	public int errno() {
+		return lastErrors.get();
+	}
+}
@@ -0,0 +1,544 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.structs.INT;
+import org.xidobi.structs.Termios;
+
+/**
+ * Interface for the native operations of the POSIX API, that are used to control serial ports on
+ * Linux.
+ * <p>
+ * Nearly all methods return <code>-1</code> on failure. The error code of the last failed call can
+ * be retrieved by {@link #errno()}.
+ *
+ * @author Christian Schwarz
+ */
+public interface PosixApi {
+
+	/** Used for timeout durations. */
+	int INFINITE = -1;
+
+	/** Open for reading and writing. */
+	int O_RDWR = 0x0002;
+	/** The opened terminal device will not become the controlling terminal of the process. */
+	int O_NOCTTY = 0x0100;
+	/** The file is opened in nonblocking mode. */
+	int O_NONBLOCK = 0x0800;
+	/** Enable the close-on-exec flag for the new file descriptor. */
+	int O_CLOEXEC = 0x80000;
+
+	/** No such file or directory. */
+	int ENOENT = 2;
+	/** Interrupted system call. */
+	int EINTR = 4;
+	/** Input/output error. */
+	int EIO = 5;
+	/** No such device or address. */
+	int ENXIO = 6;
+	/** Bad file descriptor. */
+	int EBADF = 9;
+	/** Resource temporarily unavailable. */
+	int EAGAIN = 11;
+	/** Operation would block, same as {@link #EAGAIN}. */
+	int EWOULDBLOCK = EAGAIN;
+	/** Permission denied. */
+	int EACCES = 13;
+	/** Device or resource busy. */
+	int EBUSY = 16;
+	/** No such device. */
+	int ENODEV = 19;
+	/** Invalid argument. */
+	int EINVAL = 22;
+	/** Inappropriate I/O control operation. */
+	int ENOTTY = 25;
+
+	/** Get the number of bytes in the input buffer. */
+	int FIONREAD = 0x541B;
+	/** Put the terminal into exclusive mode. */
+	int TIOCEXCL = 0x540C;
+	/** Set the indicated modem bits. */
+	int TIOCMBIS = 0x5416;
+	/** Clear the indicated modem bits. */
+	int TIOCMBIC = 0x5417;
+	/** Modem bit: DTR (data terminal ready) */
+	int TIOCM_DTR = 0x002;
+	/** Modem bit: RTS (request to send) */
+	int TIOCM_RTS = 0x004;
+
+	/** Place an exclusive lock. */
+	int LOCK_EX = 2;
+	/** Don't block when locking. */
+	int LOCK_NB = 4;
+
+	/** The change occurs immediately. */
+	int TCSANOW = 0;
+	/** Flushes both data received but not read, and data written but not transmitted. */
+	int TCIOFLUSH = 2;
+
+	/** Ignore BREAK condition on input. */
+	int IGNBRK = 0x0001;
+	/** Signal interrupt on BREAK. */
+	int BRKINT = 0x0002;
+	/** Mark parity and framing errors. */
+	int PARMRK = 0x0008;
+	/** Enable input parity check. */
+	int INPCK = 0x0010;
+	/** Strip off eighth bit. */
+	int ISTRIP = 0x0020;
+	/** Translate NL to CR on input. */
+	int INLCR = 0x0040;
+	/** Ignore carriage return on input. */
+	int IGNCR = 0x0080;
+	/** Translate carriage return to newline on input. */
+	int ICRNL = 0x0100;
+	/** Enable XON/XOFF flow control on output. */
+	int IXON = 0x0400;
+	/** Typing any character will restart stopped output. */
+	int IXANY = 0x0800;
+	/** Enable XON/XOFF flow control on input. */
+	int IXOFF = 0x1000;
+
+	/** Enable implementation-defined output processing. */
+	int OPOST = 0x0001;
+
+	/** Baud speed mask. */
+	int CBAUD = 0x100F;
+	/** Character size mask. */
+	int CSIZE = 0x0030;
+	/** Character size: 5 bits */
+	int CS5 = 0x0000;
+	/** Character size: 6 bits */
+	int CS6 = 0x0010;
+	/** Character size: 7 bits */
+	int CS7 = 0x0020;
+	/** Character size: 8 bits */
+	int CS8 = 0x0030;
+	/** Set two stop bits, rather than one. */
+	int CSTOPB = 0x0040;
+	/** Enable receiver. */
+	int CREAD = 0x0080;
+	/** Enable parity generation on output and parity checking for input. */
+	int PARENB = 0x0100;
+	/** If set, then parity for input and output is odd; otherwise even parity is used. */
+	int PARODD = 0x0200;
+	/** Ignore modem control lines. */
+	int CLOCAL = 0x0800;
+	/** Use "stick" (mark/space) parity. */
+	int CMSPAR = 0x40000000;
+	/** Enable RTS/CTS (hardware) flow control. */
+	int CRTSCTS = 0x80000000;
+
+	/** Enable signals. */
+	int ISIG = 0x0001;
+	/** Enable canonical mode. */
+	int ICANON = 0x0002;
+	/** Echo input characters. */
+	int ECHO = 0x0008;
+	/** Echo the NL character even if ECHO is not set. */
+	int ECHONL = 0x0040;
+	/** Enable implementation-defined input processing. */
+	int IEXTEN = 0x8000;
+
+	/** Index of the timeout in deciseconds for noncanonical read in <code>c_cc</code>. */
+	int VTIME = 5;
+	/** Index of the minimum number of characters for noncanonical read in <code>c_cc</code>. */
+	int VMIN = 6;
+	/** Index of the start character (XON) in <code>c_cc</code>. */
+	int VSTART = 8;
+	/** Index of the stop character (XOFF) in <code>c_cc</code>. */
+	int VSTOP = 9;
+	/** Size of the array <code>c_cc</code>. */
+	int NCCS = 32;
+
+	/** The associated file is available for read operations. */
+	int EPOLLIN = 0x001;
+	/** The associated file is available for write operations. */
+	int EPOLLOUT = 0x004;
+	/** Error condition happened on the associated file descriptor. */
+	int EPOLLERR = 0x008;
+	/** Hang up happened on the associated file descriptor. */
+	int EPOLLHUP = 0x010;
+	/** Register the target file descriptor on the epoll instance. */
+	int EPOLL_CTL_ADD = 1;
+	/** Remove the target file descriptor from the epoll instance. */
+	int EPOLL_CTL_DEL = 2;
+	/** Change the event associated with the target file descriptor. */
+	int EPOLL_CTL_MOD = 3;
+	/** Set the close-on-exec flag on the new epoll file descriptor. */
+	int EPOLL_CLOEXEC = 0x80000;
+
+	/** Set the nonblocking flag on the new eventfd file descriptor. */
+	int EFD_NONBLOCK = 0x800;
+	/** Set the close-on-exec flag on the new eventfd file descriptor. */
+	int EFD_CLOEXEC = 0x80000;
+
+	/** Baudrate: 50 */
+	int B50 = 0x0001;
+	/** Baudrate: 75 */
+	int B75 = 0x0002;
+	/** Baudrate: 110 */
+	int B110 = 0x0003;
+	/** Baudrate: 134 */
+	int B134 = 0x0004;
+	/** Baudrate: 150 */
+	int B150 = 0x0005;
+	/** Baudrate: 200 */
+	int B200 = 0x0006;
+	/** Baudrate: 300 */
+	int B300 = 0x0007;
+	/** Baudrate: 600 */
+	int B600 = 0x0008;
+	/** Baudrate: 1200 */
+	int B1200 = 0x0009;
+	/** Baudrate: 1800 */
+	int B1800 = 0x000A;
+	/** Baudrate: 2400 */
+	int B2400 = 0x000B;
+	/** Baudrate: 4800 */
+	int B4800 = 0x000C;
+	/** Baudrate: 9600 */
+	int B9600 = 0x000D;
+	/** Baudrate: 19200 */
+	int B19200 = 0x000E;
+	/** Baudrate: 38400 */
+	int B38400 = 0x000F;
+	/** Baudrate: 57600 */
+	int B57600 = 0x1001;
+	/** Baudrate: 115200 */
+	int B115200 = 0x1002;
+	/** Baudrate: 230400 */
+	int B230400 = 0x1003;
+	/** Baudrate: 460800 */
+	int B460800 = 0x1004;
+	/** Baudrate: 500000 */
+	int B500000 = 0x1005;
+	/** Baudrate: 576000 */
+	int B576000 = 0x1006;
+	/** Baudrate: 921600 */
+	int B921600 = 0x1007;
+	/** Baudrate: 1000000 */
+	int B1000000 = 0x1008;
+	/** Baudrate: 1152000 */
+	int B1152000 = 0x1009;
+	/** Baudrate: 1500000 */
+	int B1500000 = 0x100A;
+	/** Baudrate: 2000000 */
+	int B2000000 = 0x100B;
+	/** Baudrate: 2500000 */
+	int B2500000 = 0x100C;
+	/** Baudrate: 3000000 */
+	int B3000000 = 0x100D;
+	/** Baudrate: 3500000 */
+	int B3500000 = 0x100E;
+	/** Baudrate: 4000000 */
+	int B4000000 = 0x100F;
+
+	/**
+	 * Opens the file specified by <code>pathname</code> and returns a file descriptor.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/open.2.html">open(2)</a> for more
+	 * details.</i>
+	 *
+	 * @param pathname
+	 *            the path of the device, e.g. "/dev/ttyS0", must not be <code>null</code>
+	 * @param flags
+	 *            the access mode and the file status flags, e.g. {@link #O_RDWR} |
+	 *            {@link #O_NOCTTY}
+	 * @return the new file descriptor, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int open(@Nonnull String pathname, int flags);
+
+	/**
+	 * Closes a file descriptor, so that it no longer refers to any file and may be reused.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/close.2.html">close(2)</a> for
+	 * more details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	int close(int fd);
+
+	/**
+	 * Attempts to read up to <code>count</code> bytes from the file descriptor into the given
+	 * direct buffer, starting at the given <code>offset</code>. The position of the buffer is not
+	 * changed.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/read.2.html">read(2)</a> for more
+	 * details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @param buffer
+	 *            a direct buffer that receives the data, must not be <code>null</code>
+	 * @param offset
+	 *            the index of the buffer, where the first byte is stored
+	 * @param count
+	 *            the maximum number of bytes to be read
+	 * @return the number of bytes read, <code>0</code> on end of file, or <code>-1</code> if an
+	 *         error occurred
+	 */
+	@CheckReturnValue
+	int read(int fd, @Nonnull ByteBuffer buffer, @Nonnegative int offset, @Nonnegative int count);
+
+	/**
+	 * Writes up to <code>count</code> bytes from the given direct buffer, starting at the given
+	 * <code>offset</code>, to the file descriptor. The position of the buffer is not changed.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/write.2.html">write(2)</a> for
+	 * more details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @param buffer
+	 *            a direct buffer that contains the data, must not be <code>null</code>
+	 * @param offset
+	 *            the index of the first byte in the buffer, that should be written
+	 * @param count
+	 *            the number of bytes to be written
+	 * @return the number of bytes written, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int write(int fd, @Nonnull ByteBuffer buffer, @Nonnegative int offset, @Nonnegative int count);
+
+	/**
+	 * Manipulates the underlying device parameters of special files.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/ioctl.2.html">ioctl(2)</a> and <a
+	 * href="http://man7.org/linux/man-pages/man4/tty_ioctl.4.html">tty_ioctl(4)</a> for more
+	 * details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @param request
+	 *            the device-dependent request code, e.g. {@link #FIONREAD}
+	 * @param argp
+	 *            the argument of the request, it's value is passed to and read from the request;
+	 *            <code>null</code> for requests that don't need an argument
+	 * @return usually <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int ioctl(int fd, int request, @Nullable INT argp);
+
+	/**
+	 * Applies or removes an advisory lock on the open file.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/flock.2.html">flock(2)</a> for
+	 * more details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @param operation
+	 *            the lock operation, e.g. {@link #LOCK_EX} | {@link #LOCK_NB}
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int flock(int fd, int operation);
+
+	/**
+	 * Gets the parameters associated with the terminal and stores them in the given
+	 * {@link Termios}.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man3/termios.3.html">termios(3)</a>
+	 * for more details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @param termios
+	 *            receives the parameters, must not be <code>null</code>
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int tcgetattr(int fd, @Nonnull Termios termios);
+
+	/**
+	 * Sets the parameters associated with the terminal from the given {@link Termios}.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man3/termios.3.html">termios(3)</a>
+	 * for more details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @param optionalActions
+	 *            specifies when the changes take effect, e.g. {@link #TCSANOW}
+	 * @param termios
+	 *            the parameters, must not be <code>null</code>
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int tcsetattr(int fd, int optionalActions, @Nonnull Termios termios);
+
+	/**
+	 * Discards data written to the terminal but not transmitted, or data received but not read,
+	 * depending on the value of <code>queueSelector</code>.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man3/termios.3.html">termios(3)</a>
+	 * for more details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @param queueSelector
+	 *            the queues to flush, e.g. {@link #TCIOFLUSH}
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int tcflush(int fd, int queueSelector);
+
+	/**
+	 * Creates a new epoll instance.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://man7.org/linux/man-pages/man2/epoll_create.2.html">epoll_create(2)</a> for more
+	 * details.</i>
+	 *
+	 * @param flags
+	 *            <code>0</code> or {@link #EPOLL_CLOEXEC}
+	 * @return the file descriptor of the new epoll instance, or <code>-1</code> if an error
+	 *         occurred
+	 */
+	@CheckReturnValue
+	int epoll_create1(int flags);
+
+	/**
+	 * Adds, modifies, or removes entries in the interest list of the epoll instance.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/epoll_ctl.2.html">epoll_ctl(2)</a>
+	 * for more details.</i>
+	 *
+	 * @param epfd
+	 *            the file descriptor of the epoll instance
+	 * @param op
+	 *            the operation, e.g. {@link #EPOLL_CTL_ADD}
+	 * @param fd
+	 *            the target file descriptor, it is also returned by {@link #epoll_wait} when one of
+	 *            the events is signaled
+	 * @param events
+	 *            the event mask, e.g. {@link #EPOLLIN}
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int epoll_ctl(int epfd, int op, int fd, int events);
+
+	/**
+	 * Waits for events on the epoll instance. The file descriptors and the event masks of the
+	 * signaled entries are stored in the given arrays.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://man7.org/linux/man-pages/man2/epoll_wait.2.html">epoll_wait(2)</a> for more
+	 * details.</i>
+	 *
+	 * @param epfd
+	 *            the file descriptor of the epoll instance
+	 * @param fds
+	 *            receives the file descriptors, the length of the array is the maximum number of
+	 *            returned events, must not be <code>null</code>
+	 * @param events
+	 *            receives the event masks, must have the same length as <code>fds</code>
+	 * @param timeout
+	 *            the timeout in milliseconds, <code>-1</code> causes to block indefinitely
+	 * @return the number of file descriptors ready, <code>0</code> if the timeout elapsed, or
+	 *         <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int epoll_wait(int epfd, @Nonnull int[] fds, @Nonnull int[] events, int timeout);
+
+	/**
+	 * Creates an "eventfd object" that can be used as an event wait/notify mechanism.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man2/eventfd.2.html">eventfd(2)</a>
+	 * for more details.</i>
+	 *
+	 * @param initval
+	 *            the initial value of the counter
+	 * @param flags
+	 *            e.g. {@link #EFD_NONBLOCK} | {@link #EFD_CLOEXEC}
+	 * @return the new file descriptor, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int eventfd(int initval, int flags);
+
+	/**
+	 * Adds the given value to the counter of the eventfd object, this signals the file descriptor
+	 * readable.
+	 *
+	 * @param fd
+	 *            the file descriptor of the eventfd object
+	 * @param value
+	 *            the value to add
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int eventfd_write(int fd, long value);
+
+	/**
+	 * Finds an available pseudoterminal and returns file descriptors for the master and the slave.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man3/openpty.3.html">openpty(3)</a>
+	 * for more details.</i>
+	 *
+	 * @param master
+	 *            receives the file descriptor of the master, must not be <code>null</code>
+	 * @param slave
+	 *            receives the file descriptor of the slave, must not be <code>null</code>
+	 * @return <code>0</code> on success, or <code>-1</code> if an error occurred
+	 */
+	@CheckReturnValue
+	int openpty(@Nonnull INT master, @Nonnull INT slave);
+
+	/**
+	 * Returns the pathname of the terminal device that is open on the file descriptor.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man3/ttyname.3.html">ttyname(3)</a>
+	 * for more details.</i>
+	 *
+	 * @param fd
+	 *            the file descriptor
+	 * @return the pathname, or <code>null</code> if an error occurred
+	 */
+	@CheckForNull
+	String ttyname(int fd);
+
+	/**
+	 * Returns a string that describes the given error code.
+	 * <p>
+	 * <i>Please see <a href="http://man7.org/linux/man-pages/man3/strerror.3.html">strerror(3)</a>
+	 * for more details.</i>
+	 *
+	 * @param errnum
+	 *            the error code
+	 * @return the description of the error code, never <code>null</code>
+	 */
+	@Nonnull
+	String strerror(int errnum);
+
+	/**
+	 * Returns the error code of the last failed call of the current thread.
+	 *
+	 * @return the error code of the last failed call
+	 */
+	int errno();
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.Integer.MAX_VALUE;
+import static java.lang.Math.min;
+import static java.lang.Thread.interrupted;
+import static org.xidobi.PosixApi.EAGAIN;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.FIONREAD;
+import static org.xidobi.PosixApi.INFINITE;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.spi.Reader;
+import org.xidobi.structs.INT;
+
+/**
+ * Implementation for read operations.
+ *
+ * @author Christian Schwarz
+ */
+public class ReaderImpl extends IoOperationImpl implements Reader {
+
+	/**
+	 * Buffer for read data, it is kept for the lifetime of this reader and only reallocated if more
+	 * bytes are available than it can hold
+	 */
+	private ByteBuffer readBuffer;
+
+	/** Receives the number of available bytes, it is reused for every call of <code>ioctl</code> */
+	private final INT availableBytes = new INT(0);
+
+	/**
+	 * Creates a new read operation.
+	 *
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param fd
+	 *            the file descriptor of the serial port
+	 */
+	public ReaderImpl(	@Nonnull SerialPort port,
+						@Nonnull PosixApi os,
+						int fd) {
+		super(port, os, fd, EPOLLIN);
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public byte[] read() throws IOException {
+		disposeLock.lock();
+		try {
+			checkIfClosedOrDisposed();
+
+			int bytesRead = readIntoReadBuffer(MAX_VALUE);
+
+			byte[] data = new byte[bytesRead];
+			readBuffer.clear();
+			readBuffer.get(data);
+			return data;
+		}
+		finally {
+			disposeLock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int read(@Nonnull ByteBuffer dst) throws IOException {
+		disposeLock.lock();
+		try {
+			checkIfClosedOrDisposed();
+
+			if (!dst.isDirect()) {
+				// we must not read more bytes than the buffer can hold, the remaining bytes stay in
+				// the input buffer of the port
+				int bytesRead = readIntoReadBuffer(dst.remaining());
+
+				readBuffer.clear();
+				readBuffer.limit(bytesRead);
+				dst.put(readBuffer);
+				return bytesRead;
+			}
+
+			// the data can be read directly into the memory of the buffer
+			while (true) {
+				int numberOfBytesToRead = min(awaitAvailableBytes(), dst.remaining());
+
+				int bytesRead = readAvailableBytes(dst, dst.position(), numberOfBytesToRead);
+				if (bytesRead == 0)
+					// the data is gone, we must wait again
+					continue;
+
+				dst.position(dst.position() + bytesRead);
+				return bytesRead;
+			}
+		}
+		finally {
+			disposeLock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks until data is available, reads at most the given number of bytes into the read buffer
+	 * and returns the number of bytes that were read.
+	 */
+	private int readIntoReadBuffer(int maxBytes) throws IOException {
+		while (true) {
+			int numberOfBytesToRead = min(awaitAvailableBytes(), maxBytes);
+
+			// ensure that the read buffer is large enough
+			readBuffer = ensureCapacity(readBuffer, numberOfBytesToRead);
+
+			int bytesRead = readAvailableBytes(readBuffer, 0, numberOfBytesToRead);
+			if (bytesRead == 0)
+				// the data is gone, we must wait again
+				continue;
+
+			return bytesRead;
+		}
+	}
+
+	/** Blocks until data is available and returns the number of available bytes. */
+	private int awaitAvailableBytes() throws IOException {
+		// Repeat until data is available:
+		while (true) {
+
+			// check if the current thread is interrupted
+			if (interrupted())
+				throw new InterruptedIOException("The thread for the read operation is interrupted!");
+
+			// how many bytes are available for read?
+			int availableBytes = getAvailableBytes();
+			if (availableBytes > 0)
+				return availableBytes;
+
+			// wait for some data to arrive, there is no timeout, the wait is only finished when
+			// data arrives or this reader is closed
+			awaitEvents(INFINITE);
+		}
+	}
+
+	/** Returns the number of bytes that are available to read. */
+	private int getAvailableBytes() throws IOException {
+		availableBytes.value = 0;
+		if (os.ioctl(fd, FIONREAD, availableBytes) == -1)
+			handleNativeError("ioctl", os.errno());
+		return availableBytes.value;
+	}
+
+	/**
+	 * Reads the given number of bytes into the given buffer, beginning at the given offset, and
+	 * returns the number of bytes that were read. The position of the buffer is not modified.
+	 *
+	 * @return the number of bytes that were read, <code>0</code> if the data is not available
+	 *         anymore
+	 */
+	private int readAvailableBytes(ByteBuffer buffer, int offset, int numberOfBytesToRead) throws IOException {
+		int bytesRead = os.read(fd, buffer, offset, numberOfBytesToRead);
+		if (bytesRead > 0)
+			return bytesRead;
+		if (bytesRead == 0)
+			// end of file, this happens when the device was removed
+			throw portClosedException("Read operation failed, because the end of file was reached.");
+
+		int errno = os.errno();
+		if (errno != EAGAIN && errno != EINTR)
+			handleNativeError("read", errno);
+		return 0;
+	}
+
+}
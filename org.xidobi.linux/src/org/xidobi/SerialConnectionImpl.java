@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.ENODEV;
+import static org.xidobi.PosixApi.ENXIO;
+import static org.xidobi.PosixApi.TCIOFLUSH;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+import static org.xidobi.utils.Throwables.newNativeCodeException;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.BasicSerialConnection;
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.spi.SerialConnectionMetrics;
+
+/**
+ * Implementation of the interface {@link SerialConnection} for Linux.
+ *
+ * @author Christian Schwarz
+ *
+ * @see SerialConnection
+ * @see BasicSerialConnection
+ */
+public class SerialConnectionImpl extends BasicSerialConnection {
+
+	/** the native POSIX-API */
+	private final PosixApi os;
+	/** the file descriptor of the serial port */
+	private final int fd;
+
+	/** the reader of this connection */
+	private final ReaderImpl reader;
+	/** the writer of this connection */
+	private final WriterImpl writer;
+
+	/** the key of the selector, this connection is registered with, maybe <code>null</code> */
+	@Nullable
+	private volatile SerialSelectionKeyImpl selectionKey;
+
+	/**
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param fd
+	 *            the file descriptor of the serial port
+	 */
+	public SerialConnectionImpl(@Nonnull SerialPort port,
+								@Nonnull PosixApi os,
+								int fd) {
+		this(port, os, fd, new SerialConnectionMetrics());
+	}
+
+	/** The metrics are shared with the writer, that records the latency of the write operations. */
+	private SerialConnectionImpl(	SerialPort port,
+									PosixApi os,
+									int fd,
+									SerialConnectionMetrics metrics) {
+		this(port, os, fd, new ReaderImpl(port, os, fd), new WriterImpl(port, os, fd, metrics), metrics);
+	}
+
+	/** Creates a new connection that uses the given reader and writer. */
+	private SerialConnectionImpl(	SerialPort port,
+									PosixApi os,
+									int fd,
+									ReaderImpl reader,
+									WriterImpl writer,
+									SerialConnectionMetrics metrics) {
+		super(port, reader, writer, metrics);
+
+		this.os = os;
+		this.fd = fd;
+		this.reader = reader;
+		this.writer = writer;
+	}
+
+	@Override
+	protected void closeInternal() throws IOException {
+		//@formatter:off
+		try {
+			cancelSelectionKey();
+		} finally {	try {
+			awaitTermination();
+		} finally {	try {
+			flush();
+		} finally {
+			closeFileDescriptor();
+		}}}
+		//@formatter:on
+	}
+
+	/**
+	 * Cancels the key of the selector, this connection is registered with. The file descriptor
+	 * must be removed from the selector before it is closed, otherwise the selector would never
+	 * notice that the connection was closed.
+	 */
+	private void cancelSelectionKey() {
+		SerialSelectionKeyImpl key = selectionKey;
+		if (key != null)
+			key.connectionClosed();
+	}
+
+	/**
+	 * Awaits the termination of the read and write operations, that were woken up by closing the
+	 * reader and writer. The file descriptor must not be closed before, otherwise it could be
+	 * reused by the OS while an operation is still in progress.
+	 */
+	private void awaitTermination() {
+		try {
+			reader.awaitTermination();
+		}
+		finally {
+			writer.awaitTermination();
+		}
+	}
+
+	/**
+	 * Discards all characters from the output and input buffer of the serial port, that were not
+	 * transmitted or read.
+	 */
+	private void flush() {
+		if (os.tcflush(fd, TCIOFLUSH) == -1)
+			handleNativeError("tcflush", os.errno());
+	}
+
+	/** Closes the file descriptor of the serial port. */
+	private void closeFileDescriptor() {
+		if (os.close(fd) == -1)
+			handleNativeError("close", os.errno());
+	}
+
+	/**
+	 * Returns the file descriptor of the serial port.
+	 * 
+	 * @return the file descriptor
+	 */
+	final int getFileDescriptor() {
+		return fd;
+	}
+
+	/**
+	 * Sets the key of the selector, this connection is registered with. The key is notified, when
+	 * this connection is closed.
+	 * 
+	 * @param selectionKey
+	 *            the key or <code>null</code>, if this connection isn't registered
+	 */
+	final void setSelectionKey(@Nullable SerialSelectionKeyImpl selectionKey) {
+		this.selectionKey = selectionKey;
+	}
+
+	/**
+	 * Handles the native error.
+	 * <p>
+	 * This method throws a {@link NativeCodeException}, if the given error code is none of the
+	 * following:
+	 * <ul>
+	 * <li>{@link PosixApi#EBADF EBADF}
+	 * <li>{@link PosixApi#EINTR EINTR}
+	 * <li>{@link PosixApi#EIO EIO}
+	 * <li>{@link PosixApi#ENXIO ENXIO}
+	 * <li>{@link PosixApi#ENODEV ENODEV}
+	 * </ul>
+	 *
+	 * @param nativeMethodName
+	 *            the name of the native method, must not be <code>null</code>
+	 * @param errorCode
+	 *            the last error code
+	 * @exception NativeCodeException
+	 *                for all unexpected error codes
+	 */
+	protected final void handleNativeError(@Nonnull String nativeMethodName, int errorCode) {
+		checkArgumentNotNull(nativeMethodName, "nativeMethodName");
+		switch (errorCode) {
+			case EBADF:
+			case EINTR:
+			case EIO:
+			case ENXIO:
+			case ENODEV:
+				return;
+			default:
+				throw newNativeCodeException(os, nativeMethodName + " failed unexpected!", errorCode);
+		}
+	}
+}
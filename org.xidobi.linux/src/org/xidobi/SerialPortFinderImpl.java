@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Implementation of the interface {@link SerialPortFinder}, that finds all serial ports that are
+ * listed in the sysfs directory <code>/sys/class/tty</code>.
+ * <p>
+ * Only the terminals that are backed by a device are returned. Virtual terminals and the
+ * placeholders of the serial8250 driver for non existing legacy ports (subsystem
+ * <code>platform</code>) are ignored.
+ *
+ * @author Christian Schwarz
+ *
+ * @see SerialPortFinder
+ */
+public class SerialPortFinderImpl implements SerialPortFinder {
+
+	/** The subsystem of the placeholders for non existing legacy ports */
+	private static final String SUBSYSTEM_PLATFORM = "platform";
+
+	/** the native POSIX-API, never <code>null</code> */
+	private final PosixApi os;
+
+	/** the sysfs directory of the tty class, e.g. "/sys/class/tty" */
+	private final File ttyClassDir;
+	/** the directory of the device files, e.g. "/dev" */
+	private final File devDir;
+
+	/**
+	 * Creates a new instance, that finds all serial ports that are listed in the sysfs.
+	 * <p>
+	 * <b>IMPORTANT:</b> Please do not remove this constructor. It is invoced per reflection by the
+	 * {@link SerialPortProvider}.
+	 */
+	public SerialPortFinderImpl() {
+		this(OS.OS, new File("/sys/class/tty"), new File("/dev"));
+	}
+
+	/**
+	 * Creates a new instance, that finds all serial ports that are listed in the given sysfs
+	 * directory.
+	 *
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param ttyClassDir
+	 *            the sysfs directory of the tty class, must not be <code>null</code>
+	 * @param devDir
+	 *            the directory of the device files, must not be <code>null</code>
+	 */
+	public SerialPortFinderImpl(@Nonnull PosixApi os,
+								@Nonnull File ttyClassDir,
+								@Nonnull File devDir) {
+		this.os = checkArgumentNotNull(os, "os");
+		this.ttyClassDir = checkArgumentNotNull(ttyClassDir, "ttyClassDir");
+		this.devDir = checkArgumentNotNull(devDir, "devDir");
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public Set<SerialPort> getAll() {
+		Set<SerialPort> ports = new HashSet<SerialPort>();
+
+		File[] ttys = ttyClassDir.listFiles();
+		if (ttys == null)
+			// the sysfs is not available
+			return ports;
+
+		for (File tty : ttys) {
+			File device = new File(tty, "device");
+			if (!device.exists())
+				// a virtual terminal, e.g. tty0 or ptmx
+				continue;
+			if (SUBSYSTEM_PLATFORM.equals(getLinkTarget(new File(device, "subsystem"))))
+				// a placeholder for a legacy port, that doesn't exist
+				continue;
+
+			String portName = new File(devDir, tty.getName()).getPath();
+			String description = getLinkTarget(new File(device, "driver"));
+			ports.add(new SerialPortImpl(os, portName, description));
+		}
+
+		return ports;
+	}
+
+	/** {@inheritDoc} */
+	@CheckForNull
+	public SerialPort get(@Nonnull String portName) {
+		checkArgumentNotNull(portName, "portName");
+		for (SerialPort port : getAll())
+			if (port.getPortName().equals(portName))
+				return port;
+		return null;
+	}
+
+	/**
+	 * Returns the name of the file the given symbolic link points to, or <code>null</code> if the
+	 * link doesn't exist.
+	 */
+	@CheckForNull
+	private String getLinkTarget(File link) {
+		if (!link.exists())
+			return null;
+		try {
+			return link.getCanonicalFile().getName();
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.PosixApi.CRTSCTS;
+import static org.xidobi.PosixApi.EBUSY;
+import static org.xidobi.PosixApi.EINVAL;
+import static org.xidobi.PosixApi.ENODEV;
+import static org.xidobi.PosixApi.ENOENT;
+import static org.xidobi.PosixApi.ENOTTY;
+import static org.xidobi.PosixApi.ENXIO;
+import static org.xidobi.PosixApi.EWOULDBLOCK;
+import static org.xidobi.PosixApi.LOCK_EX;
+import static org.xidobi.PosixApi.LOCK_NB;
+import static org.xidobi.PosixApi.O_CLOEXEC;
+import static org.xidobi.PosixApi.O_NOCTTY;
+import static org.xidobi.PosixApi.O_NONBLOCK;
+import static org.xidobi.PosixApi.O_RDWR;
+import static org.xidobi.PosixApi.TCIOFLUSH;
+import static org.xidobi.PosixApi.TCSANOW;
+import static org.xidobi.PosixApi.TIOCEXCL;
+import static org.xidobi.PosixApi.TIOCMBIC;
+import static org.xidobi.PosixApi.TIOCMBIS;
+import static org.xidobi.PosixApi.TIOCM_DTR;
+import static org.xidobi.PosixApi.TIOCM_RTS;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+import static org.xidobi.utils.Throwables.newIOException;
+import static org.xidobi.utils.Throwables.newNativeCodeException;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.Termios;
+
+/**
+ * {@link SerialPort} to open a serial port.
+ *
+ * @author Christian Schwarz
+ *
+ * @see SerialPort
+ */
+public class SerialPortImpl implements SerialPort {
+
+	/** the native POSIX-API, never <code>null</code> */
+	@Nonnull
+	private final PosixApi os;
+
+	/** the name of this port, this is the path of the device, eg. "/dev/ttyS0", never <code>null</code> */
+	@Nonnull
+	private final String portName;
+
+	/**
+	 * configures the native Termios "struct" with the values from the serial port settings, never
+	 * <code>null</code>
+	 */
+	@Nonnull
+	private final TermiosConfigurator configurator;
+
+	/** The additional description for the serial port, maybe <code>null</code> */
+	@Nullable
+	private String description;
+
+	/**
+	 * Creates a new handle using the native POSIX-API provided by the {@link PosixApi}.
+	 *
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param portName
+	 *            the name of this port, this is the path of the device, must not be
+	 *            <code>null</code>
+	 * @param description
+	 *            the additional description for the serial port, maybe <code>null</code>
+	 */
+	public SerialPortImpl(	@Nonnull PosixApi os,
+							@Nonnull String portName,
+							@Nullable String description) {
+		this(os, portName, description, new TermiosConfigurator());
+	}
+
+	/**
+	 * Creates a new handle using the native POSIX-API provided by the {@link PosixApi}.
+	 *
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param portName
+	 *            the name of this port, this is the path of the device, must not be
+	 *            <code>null</code>
+	 * @param description
+	 *            the additional description for the serial port, maybe <code>null</code>
+	 * @param configurator
+	 *            configures the native Termios "struct" with the values from the serial port
+	 *            settings, must not be <code>null</code>
+	 */
+	public SerialPortImpl(	@Nonnull PosixApi os,
+							@Nonnull String portName,
+							@Nullable String description,
+							@Nonnull TermiosConfigurator configurator) {
+		this.portName = checkArgumentNotNull(portName, "portName");
+		this.os = checkArgumentNotNull(os, "os");
+		this.configurator = checkArgumentNotNull(configurator, "configurator");
+		this.description = description;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public SerialConnection open(@Nonnull SerialPortSettings settings) throws IOException {
+		checkArgumentNotNull(settings, "settings");
+
+		final int fd = tryOpen(portName);
+		try {
+			lockExclusive(fd);
+			boolean isHardwareFlowControl = applySettings(fd, settings);
+			applyModemLines(fd, settings, isHardwareFlowControl);
+			clearIOBuffers(fd);
+		}
+		catch (IOException e) {
+			os.close(fd);
+			throw e;
+		}
+		catch (NativeCodeException e) {
+			os.close(fd);
+			throw e;
+		}
+		catch (IllegalArgumentException e) {
+			os.close(fd);
+			throw e;
+		}
+
+		return new SerialConnectionImpl(this, os, fd);
+	}
+
+	/**
+	 * Tries to open the port and returns the file descriptor of the port.
+	 *
+	 * @return the file descriptor of the port on success
+	 * @throws IOException
+	 *             if the port is already open or does not exist
+	 */
+	private int tryOpen(final String portName) throws IOException {
+		int fd = os.open(portName, O_RDWR | O_NOCTTY | O_NONBLOCK | O_CLOEXEC);
+
+		if (fd != -1)
+			return fd;
+
+		int err = os.errno();
+
+		switch (err) {
+			case EBUSY:
+				throw new IOException("Port in use (" + portName + ")!");
+			case ENOENT:
+			case ENODEV:
+			case ENXIO:
+				throw new IOException("Port not found (" + portName + ")!");
+		}
+		throw newIOException(os, "Unable to open port (" + portName + ")!", err);
+	}
+
+	/**
+	 * Ensures that the port can't be opened a second time, neither by this nor by another process.
+	 *
+	 * @throws IOException
+	 *             if the port is already in use
+	 */
+	private void lockExclusive(final int fd) throws IOException {
+		if (os.flock(fd, LOCK_EX | LOCK_NB) == -1) {
+			int err = os.errno();
+			if (err == EWOULDBLOCK)
+				throw new IOException("Port in use (" + portName + ")!");
+			throw newNativeCodeException(os, "flock failed!", err);
+		}
+
+		if (os.ioctl(fd, TIOCEXCL, null) == -1)
+			throw newNativeCodeException(os, "ioctl failed! Unable to set exclusive mode.", os.errno());
+	}
+
+	/**
+	 * Tries to apply the {@link SerialPortSettings} to the port.
+	 *
+	 * @return <code>true</code>, if hardware flow control is enabled
+	 * @throws IOException
+	 *             if it was not possible to apply the settings e.g. if they are invalid
+	 */
+	private boolean applySettings(final int fd, final SerialPortSettings settings) throws IOException {
+		final Termios termios = new Termios();
+
+		if (os.tcgetattr(fd, termios) == -1)
+			throw lastError("Unable to retrieve the current control settings for port (" + portName + ")!");
+
+		configurator.configureTermios(termios, settings);
+
+		if (os.tcsetattr(fd, TCSANOW, termios) == -1)
+			throw lastError("Unable to set the control settings (" + portName + ")!");
+
+		return (termios.c_cflag & CRTSCTS) != 0;
+	}
+
+	/**
+	 * Sets the RTS and DTR line as specified by the {@link SerialPortSettings}. The RTS line is
+	 * controlled by the driver, if hardware flow control is enabled.
+	 */
+	private void applyModemLines(final int fd, final SerialPortSettings settings, boolean isHardwareFlowControl) {
+		if (!isHardwareFlowControl)
+			setModemLine(fd, TIOCM_RTS, settings.isRTS());
+		setModemLine(fd, TIOCM_DTR, settings.isDTR());
+	}
+
+	/**
+	 * Sets or clears the given modem line. Devices without modem lines, e.g. pseudo terminals, are
+	 * ignored.
+	 */
+	private void setModemLine(final int fd, int line, boolean enabled) {
+		if (os.ioctl(fd, enabled ? TIOCMBIS : TIOCMBIC, new INT(line)) != -1)
+			return;
+
+		int err = os.errno();
+		if (err == ENOTTY || err == EINVAL)
+			// the device doesn't support modem lines
+			return;
+		throw newNativeCodeException(os, "ioctl failed! Unable to set the modem lines.", err);
+	}
+
+	/**
+	 * Discards all characters from the output and input buffer of the port.
+	 *
+	 * @param fd
+	 *            the file descriptor of the port to clear
+	 */
+	private void clearIOBuffers(final int fd) {
+		if (os.tcflush(fd, TCIOFLUSH) != -1)
+			return;
+		throw newNativeCodeException(os, "tcflush failed!", os.errno());
+	}
+
+	/**
+	 * Returns a new {@link IOException} containing the given message and the error code that is
+	 * returned by {@link PosixApi#errno()}.
+	 */
+	private IOException lastError(String message) {
+		return newIOException(os, message, os.errno());
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public String getPortName() {
+		return portName;
+	}
+
+	/** {@inheritDoc} */
+	@Nullable
+	public String getDescription() {
+		return description;
+	}
+
+	@Override
+	public String toString() {
+		return "SerialPortImpl [portName=" + getPortName() + ", description=" + getDescription() + "]";
+	}
+}
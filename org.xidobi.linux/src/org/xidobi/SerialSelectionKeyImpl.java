@@ -0,0 +1,319 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.IoOperationImpl.ensureCapacity;
+import static org.xidobi.PosixApi.EAGAIN;
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EIO;
+import static org.xidobi.PosixApi.ENODEV;
+import static org.xidobi.PosixApi.ENXIO;
+import static org.xidobi.PosixApi.EPOLLERR;
+import static org.xidobi.PosixApi.EPOLLHUP;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLLOUT;
+import static org.xidobi.PosixApi.EPOLL_CTL_DEL;
+import static org.xidobi.PosixApi.EPOLL_CTL_MOD;
+import static org.xidobi.PosixApi.FIONREAD;
+import static org.xidobi.utils.Throwables.newIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.BasicSerialSelectionKey;
+import org.xidobi.structs.INT;
+
+/**
+ * Implementation of the interface {@link SerialSelectionKey} for Linux.
+ * <p>
+ * The file descriptor of the connection is registered on the epoll instance of the selector. It
+ * is always registered for {@link PosixApi#EPOLLIN EPOLLIN}, {@link PosixApi#EPOLLOUT EPOLLOUT} is
+ * only added while a write operation is in progress. All native operations are synchronized on
+ * this key, so that the file descriptor can't be closed by the connection while the selector
+ * uses it.
+ *
+ * @author Christian Schwarz
+ *
+ * @see SerialSelectorImpl
+ */
+public class SerialSelectionKeyImpl extends BasicSerialSelectionKey {
+
+	/** the initial size of the read buffer */
+	private static final int INITIAL_READ_BUFFER_SIZE = 1024;
+
+	/** the selector that created this key */
+	private final SerialSelectorImpl selector;
+	/** the registered connection */
+	private final SerialConnectionImpl connection;
+	/** the native POSIX-API */
+	private final PosixApi os;
+	/** the file descriptor of the epoll instance of the selector */
+	private final int epfd;
+	/** the file descriptor of the serial port */
+	private final int fd;
+
+	/**
+	 * Buffer for read data, it is passed to the handler and reused for every read; it is only
+	 * reallocated if more bytes are available than it can hold
+	 */
+	@Nullable
+	private ByteBuffer readBuffer;
+	/** Receives the number of available bytes, it is reused for every call of <code>ioctl</code> */
+	private final INT availableBytes = new INT(0);
+
+	/** Staging buffer for the data of the write operation in progress */
+	@Nullable
+	private ByteBuffer writeBuffer;
+	/** the number of bytes of the staging buffer, that were already written */
+	private int writeOffset;
+	/** the number of bytes in the staging buffer */
+	private int writeLength;
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if a write operation is in progress
+	 * <li> <code>false</code> if no write operation is in progress
+	 * </ul>
+	 */
+	private boolean isWriting;
+
+	/**
+	 * Creates a new key. The file descriptor of the connection must already be registered on the
+	 * epoll instance of the selector.
+	 *
+	 * @param selector
+	 *            the selector that created this key, must not be <code>null</code>
+	 * @param connection
+	 *            the registered connection, must not be <code>null</code>
+	 * @param handler
+	 *            receives the events of the connection, must not be <code>null</code>
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param epfd
+	 *            the file descriptor of the epoll instance of the selector
+	 */
+	public SerialSelectionKeyImpl(	@Nonnull SerialSelectorImpl selector,
+									@Nonnull SerialConnectionImpl connection,
+									@Nonnull SerialEventHandler handler,
+									@Nonnull PosixApi os,
+									int epfd) {
+		super(selector, connection, handler);
+		this.selector = selector;
+		this.connection = connection;
+		this.os = os;
+		this.epfd = epfd;
+		this.fd = connection.getFileDescriptor();
+	}
+
+	/**
+	 * Processes the events, that were signaled by the epoll instance for the file descriptor of
+	 * the connection. Must only be called by the thread that selects.
+	 *
+	 * @param events
+	 *            the signaled events
+	 * @return the number of events that were dispatched to the handler
+	 */
+	final int processEvents(int events) {
+		int dispatchedEvents = 0;
+		if ((events & EPOLLIN) != 0)
+			dispatchedEvents += processReadable();
+		if ((events & EPOLLOUT) != 0)
+			dispatchedEvents += processWritable();
+		if ((events & (EPOLLHUP | EPOLLERR)) != 0 && isValid()) {
+			fireFailed(portClosedException("I/O operation failed, because a hang up or an error was signaled."));
+			dispatchedEvents++;
+		}
+		return dispatchedEvents;
+	}
+
+	/** Reads the available bytes and dispatches them to the handler. */
+	private int processReadable() {
+		int bytesRead;
+		try {
+			bytesRead = readAvailableBytes();
+		}
+		catch (IOException e) {
+			fireFailed(e);
+			return 1;
+		}
+		if (bytesRead == 0)
+			return 0;
+
+		readBuffer.clear();
+		readBuffer.limit(bytesRead);
+		fireDataReceived(readBuffer);
+		return 1;
+	}
+
+	/**
+	 * Reads the available bytes into the read buffer and returns the number of bytes that were
+	 * read, <code>0</code> if no data is available or this key was cancelled.
+	 */
+	private synchronized int readAvailableBytes() throws IOException {
+		if (!isValid())
+			return 0;
+
+		availableBytes.value = 0;
+		if (os.ioctl(fd, FIONREAD, availableBytes) == -1)
+			throw handleNativeError("ioctl", os.errno());
+
+		// ensure that the read buffer is large enough
+		readBuffer = ensureCapacity(readBuffer, Math.max(availableBytes.value, INITIAL_READ_BUFFER_SIZE));
+
+		int bytesRead = os.read(fd, readBuffer, 0, readBuffer.capacity());
+		if (bytesRead > 0)
+			return bytesRead;
+		if (bytesRead == 0)
+			// end of file, this happens when the device was removed
+			throw portClosedException("Read operation failed, because the end of file was reached.");
+
+		int errno = os.errno();
+		if (errno == EAGAIN || errno == EINTR)
+			// the data is gone, we must wait again
+			return 0;
+		throw handleNativeError("read", errno);
+	}
+
+	/** Continues the write operation in progress and dispatches its completion to the handler. */
+	private int processWritable() {
+		boolean isCompleted;
+		try {
+			isCompleted = writeStagedBytes();
+		}
+		catch (IOException e) {
+			fireFailed(e);
+			return 1;
+		}
+		if (!isCompleted)
+			return 0;
+
+		fireWriteCompleted();
+		return 1;
+	}
+
+	/**
+	 * Writes the staged bytes until the output buffer of the port is full and returns
+	 * <code>true</code>, if all bytes were written. The file descriptor is unregistered for
+	 * {@link PosixApi#EPOLLOUT EPOLLOUT} in this case.
+	 */
+	private synchronized boolean writeStagedBytes() throws IOException {
+		if (!isValid() || !isWriting)
+			return false;
+
+		while (writeOffset < writeLength) {
+			int bytesWritten = os.write(fd, writeBuffer, writeOffset, writeLength - writeOffset);
+			if (bytesWritten >= 0) {
+				writeOffset += bytesWritten;
+				continue;
+			}
+
+			int errno = os.errno();
+			if (errno == EINTR)
+				// the write operation was interrupted by a signal, we must write again
+				continue;
+			if (errno == EAGAIN)
+				// the output buffer of the port is full, wait until it can take more data
+				return false;
+			throw handleNativeError("write", errno);
+		}
+
+		isWriting = false;
+		modify(EPOLLIN);
+		return true;
+	}
+
+	@Override
+	protected synchronized void startWrite(@Nonnull ByteBuffer src) throws IOException {
+		// copy the data to the staging buffer, the position of src must not be modified
+		writeLength = src.remaining();
+		writeOffset = 0;
+		writeBuffer = ensureCapacity(writeBuffer, Math.max(writeLength, 1));
+		writeBuffer.clear();
+		writeBuffer.put(src.duplicate());
+		isWriting = true;
+
+		// the data is written, when the port signals that it can take more data
+		modify(EPOLLIN | EPOLLOUT);
+	}
+
+	/** Changes the events, the file descriptor is registered for on the epoll instance. */
+	private void modify(int events) throws IOException {
+		if (os.epoll_ctl(epfd, EPOLL_CTL_MOD, fd, events) == -1)
+			throw handleNativeError("epoll_ctl", os.errno());
+	}
+
+	@Override
+	protected synchronized void cancelInternal() {
+		// NOTE: The result is ignored, because the file descriptor is also removed when it is
+		// closed.
+		os.epoll_ctl(epfd, EPOLL_CTL_DEL, fd, 0);
+		selector.removeKey(fd, this);
+		connection.setSelectionKey(null);
+	}
+
+	/**
+	 * Cancels this key, because the connection is about to be closed, and passes an
+	 * {@link IOException} to the handler by the thread that selects next. Nothing happens, if this
+	 * key is already cancelled.
+	 */
+	final void connectionClosed() {
+		// NOTE: The lock ensures that the selector doesn't use the file descriptor anymore, when
+		// this method returns.
+		synchronized (this) {
+			if (!invalidate())
+				return;
+			cancelInternal();
+		}
+
+		final IOException cause = portClosedException(null);
+		selector.post(new Runnable() {
+			public void run() {
+				notifyFailed(cause);
+			}
+		});
+	}
+
+	/**
+	 * Returns an {@link IOException} for the given error code of the given native method. The
+	 * error codes {@link PosixApi#EBADF EBADF}, {@link PosixApi#EIO EIO}, {@link PosixApi#ENXIO
+	 * ENXIO} and {@link PosixApi#ENODEV ENODEV} indicate that the port was closed.
+	 */
+	private IOException handleNativeError(String nativeMethodName, int errorCode) {
+		switch (errorCode) {
+			case EBADF:
+				return portClosedException("I/O operation failed, because the file descriptor is invalid.");
+			case EIO:
+				return portClosedException("I/O operation failed, because of an input/output error.");
+			case ENXIO:
+			case ENODEV:
+				return portClosedException("I/O operation failed, because the device was removed.");
+			default:
+				return newIOException(os, nativeMethodName + " failed unexpected!", errorCode);
+		}
+	}
+
+	/** Returns a new {@link IOException} indicating that the port is closed. */
+	private IOException portClosedException(@Nullable String message) {
+		if (message == null)
+			message = "";
+		else
+			message = " " + message;
+		return new IOException("Port " + connection.getPort().getPortName() + " was closed!" + message);
+	}
+}
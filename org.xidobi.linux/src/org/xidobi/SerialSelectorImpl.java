@@ -0,0 +1,344 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.xidobi.PosixApi.EBADF;
+import static org.xidobi.PosixApi.EFD_CLOEXEC;
+import static org.xidobi.PosixApi.EFD_NONBLOCK;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EPOLLIN;
+import static org.xidobi.PosixApi.EPOLL_CLOEXEC;
+import static org.xidobi.PosixApi.EPOLL_CTL_ADD;
+import static org.xidobi.PosixApi.INFINITE;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+import static org.xidobi.utils.Throwables.newNativeCodeException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Implementation of the interface {@link SerialSelector} for Linux.
+ * <p>
+ * The file descriptors of all registered connections are waited for by one epoll instance. An
+ * eventfd object, that is registered on the same epoll instance, is used to wake up a waiting
+ * selection operation. The selection operations are serialized, only one thread waits on the
+ * epoll instance at a time.
+ *
+ * @author Christian Schwarz
+ *
+ * @see SerialSelectionKeyImpl
+ */
+public class SerialSelectorImpl implements SerialSelector {
+
+	/** the maximum number of events, that are returned by one call of <code>epoll_wait</code> */
+	private static final int MAX_EVENTS = 16;
+
+	/** the native POSIX-API */
+	private final PosixApi os;
+
+	/** the file descriptor of the epoll instance */
+	private final int epfd;
+	/** the file descriptor of the eventfd object, that wakes up a waiting selection operation */
+	private final int eventFd;
+
+	/** the valid keys by the file descriptor of their connection */
+	private final Map<Integer, SerialSelectionKeyImpl> keys = new HashMap<Integer, SerialSelectionKeyImpl>();
+	/** events that were posted by other threads and are dispatched by the next selection */
+	private final List<Runnable> postedEvents = new ArrayList<Runnable>();
+
+	/** ensures that only one thread waits on the epoll instance at a time */
+	private final ReentrantLock selectLock = new ReentrantLock();
+	/** Receives the file descriptors of the signaled events, it is reused for every selection */
+	private final int[] signaledFds = new int[MAX_EVENTS];
+	/** Receives the signaled events, it is reused for every selection */
+	private final int[] signaledEvents = new int[MAX_EVENTS];
+	/** Receives the counter of the eventfd object, it is reused for every selection */
+	private final ByteBuffer eventFdCounter = allocateDirect(8);
+	/** Set to <code>true</code>, when the eventfd object was signaled during a selection */
+	private boolean isWokenUp;
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if this selector is closed
+	 * <li> <code>false</code> if this selector is open
+	 * </ul>
+	 */
+	private volatile boolean isClosed;
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if the native resources are disposed
+	 * <li> <code>false</code> if the native resources are not disposed
+	 * </ul>
+	 */
+	private boolean isDisposed;
+
+	/** Creates a new selector, that uses the native POSIX-API. */
+	public SerialSelectorImpl() {
+		this(OS.OS);
+	}
+
+	/**
+	 * Creates a new selector.
+	 *
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 */
+	public SerialSelectorImpl(@Nonnull PosixApi os) {
+		this.os = checkArgumentNotNull(os, "os");
+
+		epfd = os.epoll_create1(EPOLL_CLOEXEC);
+		if (epfd == -1)
+			throw newNativeCodeException(os, "epoll_create1 failed unexpected!", os.errno());
+
+		eventFd = os.eventfd(0, EFD_NONBLOCK | EFD_CLOEXEC);
+		if (eventFd == -1) {
+			int errno = os.errno();
+			os.close(epfd);
+			throw newNativeCodeException(os, "eventfd failed unexpected!", errno);
+		}
+		if (os.epoll_ctl(epfd, EPOLL_CTL_ADD, eventFd, EPOLLIN) == -1) {
+			int errno = os.errno();
+			os.close(eventFd);
+			os.close(epfd);
+			throw newNativeCodeException(os, "epoll_ctl failed unexpected!", errno);
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public SerialSelectionKey register(@Nonnull SerialConnection connection, @Nonnull SerialEventHandler handler) throws IOException {
+		checkArgumentNotNull(connection, "connection");
+		checkArgumentNotNull(handler, "handler");
+		checkArgument(connection instanceof SerialConnectionImpl, "connection", "The connection wasn't opened by xidobi for Linux!");
+
+		SerialConnectionImpl connectionImpl = (SerialConnectionImpl) connection;
+		int fd = connectionImpl.getFileDescriptor();
+
+		SerialSelectionKeyImpl key;
+		synchronized (keys) {
+			checkIfClosed();
+			if (connection.isClosed())
+				throw new IOException("Port " + connection.getPort().getPortName() + " was closed!");
+			checkArgument(!keys.containsKey(fd), "connection", "The connection is already registered!");
+
+			if (os.epoll_ctl(epfd, EPOLL_CTL_ADD, fd, EPOLLIN) == -1) {
+				int errno = os.errno();
+				if (errno == EBADF)
+					throw new IOException("Port " + connection.getPort().getPortName() + " was closed!");
+				throw newNativeCodeException(os, "epoll_ctl failed unexpected!", errno);
+			}
+
+			key = new SerialSelectionKeyImpl(this, connectionImpl, handler, os, epfd);
+			keys.put(fd, key);
+		}
+
+		connectionImpl.setSelectionKey(key);
+		if (connection.isClosed())
+			// the connection was closed concurrently, before it could notify the key
+			key.connectionClosed();
+		return key;
+	}
+
+	/** {@inheritDoc} */
+	public int select() throws IOException {
+		selectLock.lock();
+		try {
+			checkIfClosed();
+			isWokenUp = false;
+			while (true) {
+				int dispatchedEvents = selectNow(INFINITE);
+				if (dispatchedEvents > 0 || isWokenUp || isClosed)
+					return dispatchedEvents;
+			}
+		}
+		finally {
+			selectLock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int select(@Nonnegative int timeout) throws IOException {
+		checkArgument(timeout >= 0, "timeout", "Expected a value greater or equal to 0!");
+
+		selectLock.lock();
+		try {
+			checkIfClosed();
+			return selectNow(timeout);
+		}
+		finally {
+			selectLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits once on the epoll instance with the given timeout and dispatches the signaled events.
+	 * Returns the number of dispatched events.
+	 */
+	private int selectNow(int timeout) {
+		int numberOfEvents = os.epoll_wait(epfd, signaledFds, signaledEvents, timeout);
+		if (numberOfEvents == -1) {
+			int errno = os.errno();
+			if (errno == EINTR)
+				// the wait was interrupted by a signal
+				return 0;
+			throw newNativeCodeException(os, "epoll_wait failed unexpected!", errno);
+		}
+
+		int dispatchedEvents = 0;
+		for (int i = 0; i < numberOfEvents; i++) {
+			if (isDisposed)
+				// this selector was closed by the handler
+				break;
+
+			if (signaledFds[i] == eventFd) {
+				isWokenUp = true;
+				dispatchedEvents += dispatchPostedEvents();
+				continue;
+			}
+
+			SerialSelectionKeyImpl key = getKey(signaledFds[i]);
+			if (key != null)
+				dispatchedEvents += key.processEvents(signaledEvents[i]);
+		}
+		return dispatchedEvents;
+	}
+
+	/**
+	 * Resets the counter of the eventfd object and dispatches the events, that were posted by
+	 * other threads. Returns the number of dispatched events.
+	 */
+	private int dispatchPostedEvents() {
+		// NOTE: The result is ignored, the read fails with EAGAIN if the counter is already reset.
+		os.read(eventFd, eventFdCounter, 0, 8);
+
+		List<Runnable> events;
+		synchronized (keys) {
+			events = new ArrayList<Runnable>(postedEvents);
+			postedEvents.clear();
+		}
+		for (Runnable event : events)
+			event.run();
+		return events.size();
+	}
+
+	/** {@inheritDoc} */
+	public void wakeup() {
+		synchronized (keys) {
+			if (isDisposed)
+				return;
+			if (os.eventfd_write(eventFd, 1) == -1)
+				throw newNativeCodeException(os, "eventfd_write failed unexpected!", os.errno());
+		}
+	}
+
+	/** {@inheritDoc} */
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	/** {@inheritDoc} */
+	public void close() throws IOException {
+		List<SerialSelectionKeyImpl> keysToCancel;
+		synchronized (keys) {
+			if (isClosed)
+				return;
+			isClosed = true;
+			keysToCancel = new ArrayList<SerialSelectionKeyImpl>(keys.values());
+		}
+		for (SerialSelectionKeyImpl key : keysToCancel)
+			key.cancel();
+
+		// wake up the selection operation in progress and wait until it has returned
+		wakeup();
+		selectLock.lock();
+		try {
+			dispose();
+		}
+		finally {
+			selectLock.unlock();
+		}
+	}
+
+	/** Closes the eventfd object and the epoll instance. */
+	private void dispose() {
+		//@formatter:off
+		synchronized (keys) {
+			postedEvents.clear();
+			isDisposed = true;
+		try {
+			os.close(eventFd);
+		} finally {
+			os.close(epfd);
+		}}
+		// @formatter:on
+	}
+
+	/** Throws an {@link IOException}, if this selector is closed. */
+	private void checkIfClosed() throws IOException {
+		if (isClosed)
+			throw new IOException("The selector was closed!");
+	}
+
+	/** Returns the valid key of the given file descriptor or <code>null</code>. */
+	private SerialSelectionKeyImpl getKey(int fd) {
+		synchronized (keys) {
+			return keys.get(fd);
+		}
+	}
+
+	/**
+	 * Removes the given key of the given file descriptor, it is called when the key is cancelled.
+	 *
+	 * @param fd
+	 *            the file descriptor of the connection
+	 * @param key
+	 *            the cancelled key, must not be <code>null</code>
+	 */
+	final void removeKey(int fd, @Nonnull SerialSelectionKeyImpl key) {
+		synchronized (keys) {
+			if (keys.get(fd) == key)
+				keys.remove(fd);
+		}
+	}
+
+	/**
+	 * Posts the given event, it is dispatched by the thread that selects next. This method may be
+	 * called by any thread.
+	 *
+	 * @param event
+	 *            the event to dispatch, must not be <code>null</code>
+	 */
+	final void post(@Nonnull Runnable event) {
+		synchronized (keys) {
+			if (isClosed)
+				// events are not dispatched by a closed selector
+				return;
+			postedEvents.add(event);
+		}
+		wakeup();
+	}
+}
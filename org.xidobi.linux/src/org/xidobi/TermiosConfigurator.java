@@ -0,0 +1,357 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.PosixApi.B1000000;
+import static org.xidobi.PosixApi.B110;
+import static org.xidobi.PosixApi.B1152000;
+import static org.xidobi.PosixApi.B115200;
+import static org.xidobi.PosixApi.B1200;
+import static org.xidobi.PosixApi.B134;
+import static org.xidobi.PosixApi.B1500000;
+import static org.xidobi.PosixApi.B150;
+import static org.xidobi.PosixApi.B1800;
+import static org.xidobi.PosixApi.B19200;
+import static org.xidobi.PosixApi.B2000000;
+import static org.xidobi.PosixApi.B200;
+import static org.xidobi.PosixApi.B230400;
+import static org.xidobi.PosixApi.B2400;
+import static org.xidobi.PosixApi.B2500000;
+import static org.xidobi.PosixApi.B3000000;
+import static org.xidobi.PosixApi.B300;
+import static org.xidobi.PosixApi.B3500000;
+import static org.xidobi.PosixApi.B38400;
+import static org.xidobi.PosixApi.B4000000;
+import static org.xidobi.PosixApi.B460800;
+import static org.xidobi.PosixApi.B4800;
+import static org.xidobi.PosixApi.B500000;
+import static org.xidobi.PosixApi.B50;
+import static org.xidobi.PosixApi.B576000;
+import static org.xidobi.PosixApi.B57600;
+import static org.xidobi.PosixApi.B600;
+import static org.xidobi.PosixApi.B75;
+import static org.xidobi.PosixApi.B921600;
+import static org.xidobi.PosixApi.B9600;
+import static org.xidobi.PosixApi.BRKINT;
+import static org.xidobi.PosixApi.CBAUD;
+import static org.xidobi.PosixApi.CLOCAL;
+import static org.xidobi.PosixApi.CMSPAR;
+import static org.xidobi.PosixApi.CREAD;
+import static org.xidobi.PosixApi.CRTSCTS;
+import static org.xidobi.PosixApi.CS5;
+import static org.xidobi.PosixApi.CS6;
+import static org.xidobi.PosixApi.CS7;
+import static org.xidobi.PosixApi.CS8;
+import static org.xidobi.PosixApi.CSIZE;
+import static org.xidobi.PosixApi.CSTOPB;
+import static org.xidobi.PosixApi.ECHO;
+import static org.xidobi.PosixApi.ECHONL;
+import static org.xidobi.PosixApi.ICANON;
+import static org.xidobi.PosixApi.ICRNL;
+import static org.xidobi.PosixApi.IEXTEN;
+import static org.xidobi.PosixApi.IGNBRK;
+import static org.xidobi.PosixApi.IGNCR;
+import static org.xidobi.PosixApi.INLCR;
+import static org.xidobi.PosixApi.INPCK;
+import static org.xidobi.PosixApi.ISIG;
+import static org.xidobi.PosixApi.ISTRIP;
+import static org.xidobi.PosixApi.IXANY;
+import static org.xidobi.PosixApi.IXOFF;
+import static org.xidobi.PosixApi.IXON;
+import static org.xidobi.PosixApi.OPOST;
+import static org.xidobi.PosixApi.PARENB;
+import static org.xidobi.PosixApi.PARMRK;
+import static org.xidobi.PosixApi.PARODD;
+import static org.xidobi.PosixApi.VMIN;
+import static org.xidobi.PosixApi.VSTART;
+import static org.xidobi.PosixApi.VSTOP;
+import static org.xidobi.PosixApi.VTIME;
+import static org.xidobi.StopBits.STOPBITS_1_5;
+import static org.xidobi.StopBits.STOPBITS_2;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.structs.Termios;
+
+/**
+ * Configures the native {@link Termios} with the values from the {@link SerialPortSettings}.
+ * Additionally it verifies the settings to be valid.
+ * <p>
+ * The terminal is always configured in raw mode, that means no characters are interpreted or
+ * translated and the input is available character by character. The RTS and DTR lines are not
+ * part of the {@link Termios}, they are set by the {@link SerialPortImpl}.
+ *
+ * @author Christian Schwarz
+ *
+ * @see Termios
+ * @see SerialPortSettings
+ */
+public class TermiosConfigurator {
+
+	/** The XON character (DC1) */
+	private static final byte XON = 17;
+	/** The XOFF character (DC3) */
+	private static final byte XOFF = 19;
+
+	/**
+	 * Configures the native {@link Termios} with the values from the given serial port settings.
+	 *
+	 * @param termios
+	 *            the {@link Termios} that should be configured, must not be <code>null</code>
+	 * @param settings
+	 *            the serial port settings, must not be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             <ul>
+	 *             <li>if <code>termios == null</code></li>
+	 *             <li>if <code>settings == null</code></li>
+	 *             <li>if the baud rate is not supported by termios</li>
+	 *             <li>if 9 data bits are used, termios supports only 5 to 8 data bits</li>
+	 *             <li>if the serial port settings contains illegal value combinations: <i>The use
+	 *             of 5 data bits with 2 stop bits is an invalid combination, as is 6, 7, or 8 data
+	 *             bits with 1.5 stop bits.</i></li>
+	 *             </ul>
+	 */
+	public void configureTermios(@Nonnull Termios termios, @Nonnull SerialPortSettings settings) throws IllegalArgumentException {
+		checkArgumentNotNull(termios, "termios");
+		checkArgumentNotNull(settings, "settings");
+
+		checkPortSettings(settings);
+
+		configureRawMode(termios);
+
+		configureBaudRate(termios, settings);
+		configureDataBits(termios, settings);
+		configureStopBits(termios, settings);
+		configureParity(termios, settings);
+
+		configureFlowControl(termios, settings);
+	}
+
+	/**
+	 * Checks the serial port settings for invalid combinations.
+	 * <p>
+	 * <i>The use of 5 data bits with 2 stop bits is an invalid combination, as is 6, 7, or 8 data
+	 * bits with 1.5 stop bits.</i>
+	 */
+	private void checkPortSettings(SerialPortSettings settings) throws IllegalArgumentException {
+		DataBits dataBits = settings.getDataBits();
+		StopBits stopBits = settings.getStopBits();
+		switch (dataBits) {
+			case DATABITS_5:
+				if (stopBits == STOPBITS_2)
+					throw new IllegalArgumentException("Invalid serial port settings! The use of 2 stop bits with 5 data bits is an invalid combination.");
+				return;
+			case DATABITS_6:
+			case DATABITS_7:
+			case DATABITS_8:
+				if (stopBits == STOPBITS_1_5)
+					throw new IllegalArgumentException("Invalid serial port settings! The use of 1.5 stop bits with 6, 7 or 8 data bits is an invalid combination.");
+				return;
+			case DATABITS_9:
+				throw new IllegalArgumentException("Invalid serial port settings! 9 data bits are not supported.");
+		}
+	}
+
+	/**
+	 * Disables the processing of input and output characters, in the same way as
+	 * <code>cfmakeraw()</code> does. The read operations return as soon as a single byte is
+	 * available.
+	 */
+	private void configureRawMode(Termios termios) {
+		termios.c_iflag &= ~(IGNBRK | BRKINT | PARMRK | ISTRIP | INLCR | IGNCR | ICRNL | IXON | IXOFF | IXANY | INPCK);
+		termios.c_oflag &= ~OPOST;
+		termios.c_lflag &= ~(ECHO | ECHONL | ICANON | ISIG | IEXTEN);
+		termios.c_cflag |= CLOCAL | CREAD;
+
+		// IMPORTANT: The port is opened in non-blocking mode, the values must be set in this way to
+		// get EAGAIN instead of 0 from read(), if no data is available.
+		termios.c_cc[VMIN] = 1;
+		termios.c_cc[VTIME] = 0;
+	}
+
+	/** Configures the baud rate on the {@link Termios}. */
+	private void configureBaudRate(Termios termios, SerialPortSettings settings) {
+		termios.c_cflag &= ~CBAUD;
+		termios.c_cflag |= toBaudRateConstant(settings.getBauds());
+	}
+
+	/**
+	 * Returns the termios constant for the given baud rate.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the baud rate is not supported
+	 */
+	private int toBaudRateConstant(int bauds) {
+		switch (bauds) {
+			case 50:
+				return B50;
+			case 75:
+				return B75;
+			case 110:
+				return B110;
+			case 134:
+				return B134;
+			case 150:
+				return B150;
+			case 200:
+				return B200;
+			case 300:
+				return B300;
+			case 600:
+				return B600;
+			case 1200:
+				return B1200;
+			case 1800:
+				return B1800;
+			case 2400:
+				return B2400;
+			case 4800:
+				return B4800;
+			case 9600:
+				return B9600;
+			case 19200:
+				return B19200;
+			case 38400:
+				return B38400;
+			case 57600:
+				return B57600;
+			case 115200:
+				return B115200;
+			case 230400:
+				return B230400;
+			case 460800:
+				return B460800;
+			case 500000:
+				return B500000;
+			case 576000:
+				return B576000;
+			case 921600:
+				return B921600;
+			case 1000000:
+				return B1000000;
+			case 1152000:
+				return B1152000;
+			case 1500000:
+				return B1500000;
+			case 2000000:
+				return B2000000;
+			case 2500000:
+				return B2500000;
+			case 3000000:
+				return B3000000;
+			case 3500000:
+				return B3500000;
+			case 4000000:
+				return B4000000;
+			default:
+				throw new IllegalArgumentException("Invalid serial port settings! The baud rate " + bauds + " is not supported.");
+		}
+	}
+
+	/** Configures the data bits on the {@link Termios}. */
+	private void configureDataBits(Termios termios, SerialPortSettings settings) {
+		termios.c_cflag &= ~CSIZE;
+		switch (settings.getDataBits()) {
+			case DATABITS_5:
+				termios.c_cflag |= CS5;
+				return;
+			case DATABITS_6:
+				termios.c_cflag |= CS6;
+				return;
+			case DATABITS_7:
+				termios.c_cflag |= CS7;
+				return;
+			case DATABITS_8:
+				termios.c_cflag |= CS8;
+				return;
+		}
+	}
+
+	/**
+	 * Configures the stop bits on the {@link Termios}. The flag <code>CSTOPB</code> selects 1.5
+	 * stop bits, if 5 data bits are used.
+	 */
+	private void configureStopBits(Termios termios, SerialPortSettings settings) {
+		switch (settings.getStopBits()) {
+			case STOPBITS_1:
+				termios.c_cflag &= ~CSTOPB;
+				return;
+			case STOPBITS_1_5:
+			case STOPBITS_2:
+				termios.c_cflag |= CSTOPB;
+				return;
+		}
+	}
+
+	/** Configures the parity on the {@link Termios}. */
+	private void configureParity(Termios termios, SerialPortSettings settings) {
+
+		// reset the parity settings:
+		termios.c_cflag &= ~(PARENB | PARODD | CMSPAR);
+
+		switch (settings.getParity()) {
+			case PARITY_NONE:
+				return;
+			case PARITY_EVEN:
+				termios.c_cflag |= PARENB;
+				return;
+			case PARITY_ODD:
+				termios.c_cflag |= PARENB | PARODD;
+				return;
+			case PARITY_MARK:
+				termios.c_cflag |= PARENB | CMSPAR | PARODD;
+				return;
+			case PARITY_SPACE:
+				termios.c_cflag |= PARENB | CMSPAR;
+				return;
+		}
+	}
+
+	/**
+	 * Configures the flow control on the {@link Termios}. Linux doesn't distinguish between RTS/CTS
+	 * flow control for input and output, <code>CRTSCTS</code> enables both.
+	 */
+	private void configureFlowControl(Termios termios, SerialPortSettings settings) {
+
+		// reset the flow control settings:
+		termios.c_cflag &= ~CRTSCTS;
+		termios.c_iflag &= ~(IXON | IXOFF | IXANY);
+
+		termios.c_cc[VSTART] = XON;
+		termios.c_cc[VSTOP] = XOFF;
+
+		// set the flow control:
+		switch (settings.getFlowControl()) {
+			case FLOWCONTROL_NONE:
+				return;
+			case FLOWCONTROL_RTSCTS_IN:
+			case FLOWCONTROL_RTSCTS_OUT:
+			case FLOWCONTROL_RTSCTS_IN_OUT:
+				termios.c_cflag |= CRTSCTS;
+				return;
+			case FLOWCONTROL_XONXOFF_IN:
+				termios.c_iflag |= IXOFF;
+				return;
+			case FLOWCONTROL_XONXOFF_OUT:
+				termios.c_iflag |= IXON;
+				return;
+			case FLOWCONTROL_XONXOFF_IN_OUT:
+				termios.c_iflag |= IXOFF | IXON;
+				return;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.System.nanoTime;
+import static org.xidobi.PosixApi.EAGAIN;
+import static org.xidobi.PosixApi.EINTR;
+import static org.xidobi.PosixApi.EPOLLOUT;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.spi.SerialConnectionMetrics;
+import org.xidobi.spi.Writer;
+
+/**
+ * Implementation for write operations.
+ *
+ * @author Christian Schwarz
+ */
+public class WriterImpl extends IoOperationImpl implements Writer {
+
+	/** Write timeout in milliseconds */
+	private int writeTimeout = 2000;
+
+	/**
+	 * Staging buffer for the data to write, it is kept for the lifetime of this writer and only
+	 * reallocated if more bytes should be written than it can hold
+	 */
+	private ByteBuffer writeBuffer;
+
+	/** the metrics, that receive the latency of the write operations */
+	private final SerialConnectionMetrics metrics;
+
+	/**
+	 * Creates a new write operation.
+	 *
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param fd
+	 *            the file descriptor of the serial port
+	 */
+	public WriterImpl(	@Nonnull SerialPort port,
+						@Nonnull PosixApi os,
+						int fd) {
+		this(port, os, fd, new SerialConnectionMetrics());
+	}
+
+	/**
+	 * Creates a new write operation, that records the latency of its writes in the given metrics.
+	 *
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native POSIX-API, must not be <code>null</code>
+	 * @param fd
+	 *            the file descriptor of the serial port
+	 * @param metrics
+	 *            the metrics of the connection, must not be <code>null</code>
+	 */
+	public WriterImpl(	@Nonnull SerialPort port,
+						@Nonnull PosixApi os,
+						int fd,
+						@Nonnull SerialConnectionMetrics metrics) {
+		super(port, os, fd, EPOLLOUT);
+		this.metrics = checkArgumentNotNull(metrics, "metrics");
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data, int offset, int length) throws IOException {
+		disposeLock.lock();
+		try {
+			checkIfClosedOrDisposed();
+
+			if (length == 0)
+				// nothing to write
+				return;
+
+			// copy the data to the staging buffer
+			writeBuffer = ensureCapacity(writeBuffer, length);
+			writeBuffer.clear();
+			writeBuffer.put(data, offset, length);
+
+			writeStagedBytes(length);
+		}
+		finally {
+			disposeLock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull ByteBuffer[] srcs) throws IOException {
+		disposeLock.lock();
+		try {
+			checkIfClosedOrDisposed();
+
+			int length = 0;
+			for (ByteBuffer src : srcs)
+				length += src.remaining();
+			if (length == 0)
+				// nothing to write
+				return;
+
+			// gather the remaining bytes of all buffers in the staging buffer
+			writeBuffer = ensureCapacity(writeBuffer, length);
+			writeBuffer.clear();
+			for (ByteBuffer src : srcs)
+				stage(src);
+
+			writeStagedBytes(length);
+
+			// all bytes were written, so the buffers are consumed
+			for (ByteBuffer src : srcs)
+				src.position(src.limit());
+		}
+		finally {
+			disposeLock.unlock();
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer to the staging buffer. The position of the
+	 * given buffer is not modified.
+	 */
+	private void stage(ByteBuffer src) {
+		int position = src.position();
+		writeBuffer.put(src);
+		src.position(position);
+	}
+
+	/**
+	 * Writes the given number of bytes from the staging buffer to the serial port. If the output
+	 * buffer of the port is full, it waits until the port can take more data. The latency is
+	 * recorded when all bytes were written.
+	 */
+	private void writeStagedBytes(int length) throws IOException {
+		long start = nanoTime();
+		int offset = 0;
+		while (offset < length) {
+			int bytesWritten = os.write(fd, writeBuffer, offset, length - offset);
+			if (bytesWritten >= 0) {
+				offset += bytesWritten;
+				continue;
+			}
+
+			int errno = os.errno();
+			if (errno == EINTR)
+				// the write operation was interrupted by a signal, we must write again
+				continue;
+			if (errno != EAGAIN)
+				handleNativeError("write", errno);
+
+			// the output buffer of the port is full, wait until it can take more data
+			if (awaitEvents(writeTimeout) == 0)
+				// I/O operation has timed out
+				throw new InterruptedIOException("Write operation timed out after " + writeTimeout + " milliseconds!");
+		}
+		metrics.recordWriteCompletion(nanoTime() - start);
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.structs;
+
+import static org.xidobi.PosixApi.NCCS;
+
+/**
+ * Defines the terminal attributes of a serial communications device. The fields are copied from
+ * and to the native <code>struct termios</code> by <code>tcgetattr</code> and
+ * <code>tcsetattr</code>.
+ * <p>
+ * <i>Please see <a href="http://man7.org/linux/man-pages/man3/termios.3.html">termios(3)</a> for
+ * detailed information!</i>
+ *
+ * @author Christian Schwarz
+ */
+public class Termios {
+
+	/** input modes */
+	public int c_iflag;
+	/** output modes */
+	public int c_oflag;
+	/** control modes, contains the baud rate, the data bits, the stop bits and the parity */
+	public int c_cflag;
+	/** local modes */
+	public int c_lflag;
+	/** line discipline */
+	public byte c_line;
+	/** special characters, the array has always a length of {@link org.xidobi.PosixApi#NCCS NCCS} */
+	public final byte[] c_cc = new byte[NCCS];
+
+	@Override
+	public String toString() {
+		return "Termios [c_iflag=" + c_iflag + ", c_oflag=" + c_oflag + ", c_cflag=" + c_cflag + ", c_lflag=" + c_lflag + ", c_line=" + c_line + "]";
+	}
+
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <termios.h>
+#include <pty.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
+#include <sys/file.h>
+#include <sys/ioctl.h>
+
+#include <jni.h>
+
+#include "OS_structs.h"
+#include "OS.h"
+
+/* the maximum number of events, that are returned by a single call of epoll_wait */
+#define MAX_EPOLL_EVENTS 16
+
+/*
+ * Stores the errno of the last failed call in the given INT.
+ */
+void preserveLastError(JNIEnv *env, jobject lastError) {
+	int err = errno;
+	setINT(env, lastError, &err);
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    open
+ * Signature: (Ljava/lang/String;ILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_open(JNIEnv *env, jobject this,
+		jstring pathname,
+		jint flags,
+		jobject lastError) {
+
+	const char *path = (*env)->GetStringUTFChars(env, pathname, NULL);
+
+	int fd = open(path, (int) flags);
+
+	preserveLastError(env, lastError);
+
+	(*env)->ReleaseStringUTFChars(env, pathname, path);
+
+	return (jint) fd;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    close
+ * Signature: (ILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_close(JNIEnv *env, jobject this,
+		jint fd,
+		jobject lastError) {
+
+	int result = close((int) fd);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    read
+ * Signature: (ILjava/nio/ByteBuffer;IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_read(JNIEnv *env, jobject this,
+		jint fd,
+		jobject buf,
+		jint offset,
+		jint count,
+		jobject lastError) {
+
+	jbyte *buffer = getDirectByteBuffer(env, buf);
+
+	ssize_t result = read((int) fd, buffer + offset, (size_t) count);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    write
+ * Signature: (ILjava/nio/ByteBuffer;IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_write(JNIEnv *env, jobject this,
+		jint fd,
+		jobject buf,
+		jint offset,
+		jint count,
+		jobject lastError) {
+
+	jbyte *buffer = getDirectByteBuffer(env, buf);
+
+	ssize_t result = write((int) fd, buffer + offset, (size_t) count);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    ioctl
+ * Signature: (IILorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_ioctl(JNIEnv *env, jobject this,
+		jint fd,
+		jint request,
+		jobject argp,
+		jobject lastError) {
+
+	int arg = 0;
+	if (argp != NULL)
+		getINT(env, argp, &arg);
+
+	int result = ioctl((int) fd, (unsigned long) (unsigned int) request, &arg);
+
+	preserveLastError(env, lastError);
+
+	if (argp != NULL)
+		setINT(env, argp, &arg);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    flock
+ * Signature: (IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_flock(JNIEnv *env, jobject this,
+		jint fd,
+		jint operation,
+		jobject lastError) {
+
+	int result = flock((int) fd, (int) operation);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    tcgetattr
+ * Signature: (ILorg/xidobi/structs/Termios;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_tcgetattr(JNIEnv *env, jobject this,
+		jint fd,
+		jobject termiosObject,
+		jobject lastError) {
+
+	struct termios termiosStruct;
+	memset(&termiosStruct, 0, sizeof(struct termios));
+
+	int result = tcgetattr((int) fd, &termiosStruct);
+
+	preserveLastError(env, lastError);
+
+	if (result == 0)
+		setTermiosFields(env, termiosObject, &termiosStruct);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    tcsetattr
+ * Signature: (IILorg/xidobi/structs/Termios;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_tcsetattr(JNIEnv *env, jobject this,
+		jint fd,
+		jint optionalActions,
+		jobject termiosObject,
+		jobject lastError) {
+
+	struct termios termiosStruct;
+	memset(&termiosStruct, 0, sizeof(struct termios));
+	getTermiosFields(env, termiosObject, &termiosStruct);
+
+	int result = tcsetattr((int) fd, (int) optionalActions, &termiosStruct);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    tcflush
+ * Signature: (IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_tcflush(JNIEnv *env, jobject this,
+		jint fd,
+		jint queueSelector,
+		jobject lastError) {
+
+	int result = tcflush((int) fd, (int) queueSelector);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    epoll_create1
+ * Signature: (ILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_epoll_1create1(JNIEnv *env, jobject this,
+		jint flags,
+		jobject lastError) {
+
+	int result = epoll_create1((int) flags);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    epoll_ctl
+ * Signature: (IIIILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_epoll_1ctl(JNIEnv *env, jobject this,
+		jint epfd,
+		jint op,
+		jint fd,
+		jint events,
+		jobject lastError) {
+
+	struct epoll_event event;
+	memset(&event, 0, sizeof(struct epoll_event));
+	event.events = (uint32_t) events;
+	event.data.fd = (int) fd;
+
+	int result = epoll_ctl((int) epfd, (int) op, (int) fd, &event);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    epoll_wait
+ * Signature: (I[I[IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_epoll_1wait(JNIEnv *env, jobject this,
+		jint epfd,
+		jintArray fds,
+		jintArray events,
+		jint timeout,
+		jobject lastError) {
+
+	struct epoll_event readyEvents[MAX_EPOLL_EVENTS];
+
+	int maxEvents = (*env)->GetArrayLength(env, fds);
+	if ((*env)->GetArrayLength(env, events) < maxEvents)
+		maxEvents = (*env)->GetArrayLength(env, events);
+	if (maxEvents > MAX_EPOLL_EVENTS)
+		maxEvents = MAX_EPOLL_EVENTS;
+
+	int result = epoll_wait((int) epfd, readyEvents, maxEvents, (int) timeout);
+
+	preserveLastError(env, lastError);
+
+	int i;
+	for (i = 0; i < result; i++) {
+		jint fd = (jint) readyEvents[i].data.fd;
+		jint event = (jint) readyEvents[i].events;
+		(*env)->SetIntArrayRegion(env, fds, i, 1, &fd);
+		(*env)->SetIntArrayRegion(env, events, i, 1, &event);
+	}
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    eventfd
+ * Signature: (IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_eventfd(JNIEnv *env, jobject this,
+		jint initval,
+		jint flags,
+		jobject lastError) {
+
+	int result = eventfd((unsigned int) initval, (int) flags);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    eventfd_write
+ * Signature: (IJLorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_eventfd_1write(JNIEnv *env, jobject this,
+		jint fd,
+		jlong value,
+		jobject lastError) {
+
+	int result = eventfd_write((int) fd, (eventfd_t) value);
+
+	preserveLastError(env, lastError);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    openpty
+ * Signature: (Lorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_openpty(JNIEnv *env, jobject this,
+		jobject amaster,
+		jobject aslave,
+		jobject lastError) {
+
+	int master = -1;
+	int slave = -1;
+
+	int result = openpty(&master, &slave, NULL, NULL, NULL);
+
+	preserveLastError(env, lastError);
+
+	setINT(env, amaster, &master);
+	setINT(env, aslave, &slave);
+
+	return (jint) result;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    ttyname
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL
+Java_org_xidobi_OS_ttyname(JNIEnv *env, jobject this,
+		jint fd) {
+
+	char name[256];
+	if (ttyname_r((int) fd, name, sizeof(name)) != 0)
+		return NULL;
+
+	return (*env)->NewStringUTF(env, name);
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    strerror
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL
+Java_org_xidobi_OS_strerror(JNIEnv *env, jobject this,
+		jint errnum) {
+
+	return (*env)->NewStringUTF(env, strerror((int) errnum));
+}
@@ -0,0 +1,150 @@
+/* DO NOT EDIT THIS FILE - it is machine generated */
+#include <jni.h>
+/* Header for class org_xidobi_OS */
+
+#ifndef _Included_org_xidobi_OS
+#define _Included_org_xidobi_OS
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    open
+ * Signature: (Ljava/lang/String;ILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_open
+  (JNIEnv *, jobject, jstring, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    close
+ * Signature: (ILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_close
+  (JNIEnv *, jobject, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    read
+ * Signature: (ILjava/nio/ByteBuffer;IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_read
+  (JNIEnv *, jobject, jint, jobject, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    write
+ * Signature: (ILjava/nio/ByteBuffer;IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_write
+  (JNIEnv *, jobject, jint, jobject, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    ioctl
+ * Signature: (IILorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_ioctl
+  (JNIEnv *, jobject, jint, jint, jobject, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    flock
+ * Signature: (IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_flock
+  (JNIEnv *, jobject, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    tcgetattr
+ * Signature: (ILorg/xidobi/structs/Termios;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_tcgetattr
+  (JNIEnv *, jobject, jint, jobject, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    tcsetattr
+ * Signature: (IILorg/xidobi/structs/Termios;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_tcsetattr
+  (JNIEnv *, jobject, jint, jint, jobject, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    tcflush
+ * Signature: (IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_tcflush
+  (JNIEnv *, jobject, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    epoll_create1
+ * Signature: (ILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_epoll_1create1
+  (JNIEnv *, jobject, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    epoll_ctl
+ * Signature: (IIIILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_epoll_1ctl
+  (JNIEnv *, jobject, jint, jint, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    epoll_wait
+ * Signature: (I[I[IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_epoll_1wait
+  (JNIEnv *, jobject, jint, jintArray, jintArray, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    eventfd
+ * Signature: (IILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_eventfd
+  (JNIEnv *, jobject, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    eventfd_write
+ * Signature: (IJLorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_eventfd_1write
+  (JNIEnv *, jobject, jint, jlong, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    openpty
+ * Signature: (Lorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_openpty
+  (JNIEnv *, jobject, jobject, jobject, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    ttyname
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_org_xidobi_OS_ttyname
+  (JNIEnv *, jobject, jint);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    strerror
+ * Signature: (I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_org_xidobi_OS_strerror
+  (JNIEnv *, jobject, jint);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
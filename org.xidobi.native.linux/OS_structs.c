@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <stdlib.h>
+#include <string.h>
+#include <termios.h>
+
+#include <jni.h>
+
+#include "OS_structs.h"
+
+// ***********************************************************************
+// **** Termios: *********************************************************
+// ***********************************************************************
+
+/*
+ * a struct to cache the Termios fields
+ */
+typedef struct Termios_FID_CACHE {
+	int cached;
+	jclass clazz;
+	jfieldID c_iflag, c_oflag, c_cflag, c_lflag, c_line, c_cc;
+} Termios_FID_CACHE;
+// cache for Termios fields
+Termios_FID_CACHE Termiosc;
+
+/*
+ * Caches the Termios fields in the Termios_FID_CACHE.
+ */
+void cacheTermiosFields(JNIEnv *env, jobject termiosObject) {
+	if (Termiosc.cached)
+		return;
+
+	Termiosc.clazz = (*env)->GetObjectClass(env, termiosObject);
+	Termiosc.c_iflag = (*env)->GetFieldID(env, Termiosc.clazz, "c_iflag", "I");
+	Termiosc.c_oflag = (*env)->GetFieldID(env, Termiosc.clazz, "c_oflag", "I");
+	Termiosc.c_cflag = (*env)->GetFieldID(env, Termiosc.clazz, "c_cflag", "I");
+	Termiosc.c_lflag = (*env)->GetFieldID(env, Termiosc.clazz, "c_lflag", "I");
+	Termiosc.c_line = (*env)->GetFieldID(env, Termiosc.clazz, "c_line", "B");
+	Termiosc.c_cc = (*env)->GetFieldID(env, Termiosc.clazz, "c_cc", "[B");
+
+	Termiosc.cached = 1;
+}
+
+/*
+ * Retrieves the fields from the given jobject and returns it as struct termios*.
+ */
+struct termios *getTermiosFields(JNIEnv *env, jobject termiosObject, struct termios *termiosStruct) {
+	if (!Termiosc.cached)
+		cacheTermiosFields(env, termiosObject);
+
+	termiosStruct->c_iflag = (tcflag_t) (*env)->GetIntField(env, termiosObject, Termiosc.c_iflag);
+	termiosStruct->c_oflag = (tcflag_t) (*env)->GetIntField(env, termiosObject, Termiosc.c_oflag);
+	termiosStruct->c_cflag = (tcflag_t) (*env)->GetIntField(env, termiosObject, Termiosc.c_cflag);
+	termiosStruct->c_lflag = (tcflag_t) (*env)->GetIntField(env, termiosObject, Termiosc.c_lflag);
+	termiosStruct->c_line = (cc_t) (*env)->GetByteField(env, termiosObject, Termiosc.c_line);
+
+	jbyteArray c_cc = (jbyteArray) (*env)->GetObjectField(env, termiosObject, Termiosc.c_cc);
+	(*env)->GetByteArrayRegion(env, c_cc, 0, NCCS, (jbyte *) termiosStruct->c_cc);
+
+#ifdef _HAVE_STRUCT_TERMIOS_C_ISPEED
+	// the baud rate is encoded in c_cflag, the separate speed fields must match it
+	termiosStruct->c_ispeed = termiosStruct->c_cflag & CBAUD;
+	termiosStruct->c_ospeed = termiosStruct->c_cflag & CBAUD;
+#endif
+
+	return termiosStruct;
+}
+
+/*
+ * Sets the fields of the given jobject to the value of the given struct termios*.
+ */
+void setTermiosFields(JNIEnv *env, jobject termiosObject, struct termios *termiosStruct) {
+	if (!Termiosc.cached)
+		cacheTermiosFields(env, termiosObject);
+
+	(*env)->SetIntField(env, termiosObject, Termiosc.c_iflag, (jint) termiosStruct->c_iflag);
+	(*env)->SetIntField(env, termiosObject, Termiosc.c_oflag, (jint) termiosStruct->c_oflag);
+	(*env)->SetIntField(env, termiosObject, Termiosc.c_cflag, (jint) termiosStruct->c_cflag);
+	(*env)->SetIntField(env, termiosObject, Termiosc.c_lflag, (jint) termiosStruct->c_lflag);
+	(*env)->SetByteField(env, termiosObject, Termiosc.c_line, (jbyte) termiosStruct->c_line);
+
+	jbyteArray c_cc = (jbyteArray) (*env)->GetObjectField(env, termiosObject, Termiosc.c_cc);
+	(*env)->SetByteArrayRegion(env, c_cc, 0, NCCS, (jbyte *) termiosStruct->c_cc);
+}
+
+// ***********************************************************************
+// **** INT: *************************************************************
+// ***********************************************************************
+
+/*
+ * a struct to cache the INT fields
+ */
+typedef struct INT_FID_CACHE {
+	int cached;
+	jclass clazz;
+	jfieldID value;
+} INT_FID_CACHE;
+// cache for INT fields
+INT_FID_CACHE INTc;
+
+/*
+ * Caches the INT fields in the INT_FID_CACHE.
+ */
+void cacheINT(JNIEnv *env, jobject intObject) {
+	if (INTc.cached)
+		return;
+
+	INTc.clazz = (*env)->GetObjectClass(env, intObject);
+	INTc.value = (*env)->GetFieldID(env, INTc.clazz, "value", "I");
+
+	INTc.cached = 1;
+}
+
+/*
+ * Retrieves the fields from the given jobject and returns it as int*.
+ */
+int *getINT(JNIEnv *env, jobject intObject, int *intPointer) {
+	if (!INTc.cached)
+		cacheINT(env, intObject);
+
+	*intPointer = (int) (*env)->GetIntField(env, intObject, INTc.value);
+
+	return intPointer;
+}
+
+/*
+ * Sets the fields of the given jobject to the value of the given int*.
+ */
+void setINT(JNIEnv *env, jobject intObject, int *intPointer) {
+	if (!INTc.cached)
+		cacheINT(env, intObject);
+
+	(*env)->SetIntField(env, intObject, INTc.value, (jint) *intPointer);
+}
+
+// ***********************************************************************
+// **** ByteBuffer: ******************************************************
+// ***********************************************************************
+
+/*
+ * Returns the address of the memory region of the given direct buffer.
+ */
+jbyte *getDirectByteBuffer(JNIEnv *env, jobject byteBuffer) {
+	return (jbyte *) (*env)->GetDirectBufferAddress(env, byteBuffer);
+}
@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 #include <stdlib.h>
+#include <string.h>
 #include <windows.h>
 
 #include "jni.h"
@@ -169,7 +170,7 @@ Java_org_xidobi_OS_CreateEventA(JNIEnv *env, jobject this,
  * Signature: (I[BILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
  */
 JNIEXPORT jboolean JNICALL
-Java_org_xidobi_OS_WriteFile(JNIEnv *env, jobject this,
+Java_org_xidobi_OS_WriteFile__I_3BILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2(JNIEnv *env, jobject this,
 		jint handle,
 		jbyteArray lpBuffer,
 		jint nNumberOfBytesToWrite,
@@ -197,13 +198,45 @@ Java_org_xidobi_OS_WriteFile(JNIEnv *env, jobject this,
 	return JNI_FALSE;
 }
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    WriteFile
+ * Signature: (ILorg/xidobi/structs/NativeByteArray;ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_xidobi_OS_WriteFile__ILorg_xidobi_structs_NativeByteArray_2ILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2(JNIEnv *env, jobject this,
+		jint handle,
+		jobject lpBuffer,
+		jint nNumberOfBytesToWrite,
+		jobject lpNumberOfBytesWritten,
+		jobject lpOverlapped,
+		jobject lastError) {
+
+	DWORD *bytesWritten = getDWORD(env, lpNumberOfBytesWritten);
+	OVERLAPPED *overlapped = getOVERLAPPED(env, lpOverlapped);
+
+	const jbyte *jBuffer = getNativeByteArray(env, lpBuffer);
+
+	BOOL result = WriteFile( (HANDLE) handle,
+							 (LPCVOID) jBuffer,
+							 (DWORD) nNumberOfBytesToWrite,
+							 bytesWritten,
+							 overlapped);
+
+	preserveLastError(env, lastError);
+
+	if (result)
+		return JNI_TRUE;
+	return JNI_FALSE;
+}
+
 /*
  * Class:     org_xidobi_OS
  * Method:    ReadFile
  * Signature: (ILorg/xidobi/structs/NativeByteArray;ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
  */
 JNIEXPORT jboolean JNICALL
-Java_org_xidobi_OS_ReadFile(JNIEnv *env, jobject this,
+Java_org_xidobi_OS_ReadFile__ILorg_xidobi_structs_NativeByteArray_2ILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2(JNIEnv *env, jobject this,
 		jint handle,
 		jobject lpBuffer,
 		jint nNumberOfBytesToRead,
@@ -229,6 +262,38 @@ Java_org_xidobi_OS_ReadFile(JNIEnv *env, jobject this,
 	return JNI_FALSE;
 }
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    ReadFile
+ * Signature: (ILjava/nio/ByteBuffer;ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_xidobi_OS_ReadFile__ILjava_nio_ByteBuffer_2ILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2(JNIEnv *env, jobject this,
+		jint handle,
+		jobject lpBuffer,
+		jint nNumberOfBytesToRead,
+		jobject lpNumberOfBytesRead,
+		jobject lpOverlapped,
+		jobject lastError) {
+
+	DWORD *bytesRead = getDWORD(env, lpNumberOfBytesRead);
+	OVERLAPPED *overlapped = getOVERLAPPED(env, lpOverlapped);
+
+	jbyte *jBuffer = getDirectByteBuffer(env, lpBuffer);
+
+	BOOL result = ReadFile( (HANDLE) handle,
+							 (PVOID) jBuffer,
+							 (DWORD) nNumberOfBytesToRead,
+							 bytesRead,
+							 overlapped);
+
+	preserveLastError(env, lastError);
+
+	if (result)
+		return JNI_TRUE;
+	return JNI_FALSE;
+}
+
 /*
  * Class:     org_xidobi_OS
  * Method:    MAKELANGID
@@ -421,6 +486,30 @@ Java_org_xidobi_OS_RegEnumValueA(JNIEnv *env, jobject this,
 	return (jint) result;
 }
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    RegNotifyChangeKeyValue
+ * Signature: (Lorg/xidobi/structs/HKEY;ZIIZ)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_RegNotifyChangeKeyValue(JNIEnv *env, jobject this,
+		jobject hKey,
+		jboolean bWatchSubtree,
+		jint dwNotifyFilter,
+		jint hEvent,
+		jboolean fAsynchronous) {
+
+	HKEY *phkey = getHKEY(env, hKey);
+
+	LONG result = RegNotifyChangeKeyValue((HKEY) *phkey,
+										  (BOOL) bWatchSubtree,
+										  (DWORD) dwNotifyFilter,
+										  (HANDLE) hEvent,
+										  (BOOL) fAsynchronous);
+
+	return (jint) result;
+}
+
 /*
  * Class:     org_xidobi_OS
  * Method:    SetCommMask
@@ -491,18 +580,19 @@ Java_org_xidobi_OS_PurgeComm(JNIEnv *env, jobject this,
 
 /*
  * Class:     org_xidobi_OS
- * Method:    ClearCommError
- * Signature: (ILorg/xidobi/structs/INT;Lorg/xidobi/structs/COMSTAT;Lorg/xidobi/structs/INT;)Z
+ * Method:    ClearCommError0
+ * Signature: (ILorg/xidobi/structs/INT;Lorg/xidobi/structs/COMSTAT;)I
+ *
+ * Returns ERROR_SUCCESS or the last error code, so that no INT must be allocated for the last
+ * error. The fields are set through the cached field IDs.
  */
-JNIEXPORT jboolean JNICALL
-Java_org_xidobi_OS_ClearCommError(JNIEnv *env, jobject this,
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_ClearCommError0(JNIEnv *env, jobject this,
 		jint hFile,
 		jobject lpErrors,
-		jobject lpStat,
-		jobject lastError) {
+		jobject lpStat) {
 
 	DWORD errors = 0;
-	getINT(env, lpErrors, &errors);
 
 	COMSTAT comstat;
 	FillMemory(&comstat, sizeof(comstat), 0);
@@ -511,14 +601,146 @@ Java_org_xidobi_OS_ClearCommError(JNIEnv *env, jobject this,
 								 &errors,
 								 &comstat);
 
+	DWORD lastError = ERROR_SUCCESS;
+	if (!result) {
+		lastError = GetLastError();
+		// the caller must be able to detect the failure
+		if (lastError == ERROR_SUCCESS)
+			lastError = ERROR_GEN_FAILURE;
+	}
+
+	setINT(env, lpErrors, &errors);
+	setCOMSTATFields(env, lpStat, &comstat);
+
+	return (jint) lastError;
+}
+
+/*
+ * The maximum time in milliseconds to wait for the completion of a ReadFile operation, all bytes
+ * to be read are already in the input buffer.
+ */
+#define READ_FILE_TIMEOUT 100
+
+/*
+ * Waits until data is available in the input buffer and reads it into >buffer<. Returns the
+ * number of bytes read, 0 if a communication event was signaled without data being available
+ * or -1 if a function failed. In the latter case the last error is set to ERROR_IO_PENDING, if
+ * the wait was canceled or the read didn't complete in time.
+ */
+static jint waitAndReadAvailable(HANDLE handle,
+		DWORD *evtMask,
+		volatile DWORD *canceled,
+		OVERLAPPED *overlapped,
+		jbyte *buffer,
+		DWORD numberOfBytesToRead,
+		DWORD *errors,
+		COMSTAT *comstat) {
+
+	DWORD newErrors = 0;
+	DWORD transferred = 0;
+	// the low-order bit may be set to skip the I/O completion port, see getOVERLAPPED()
+	HANDLE event = (HANDLE) ((DWORD_PTR) overlapped->hEvent & ~1);
+
+	if (!ClearCommError(handle, errors, comstat))
+		return -1;
+
+	if (comstat->cbInQue == 0) {
+		// no data is available, so we have to wait for the arrival of data
+		*evtMask = 0;
+		if (!ResetEvent(event))
+			return -1;
+
+		if (!WaitCommEvent(handle, evtMask, overlapped)) {
+			if (GetLastError() != ERROR_IO_PENDING)
+				return -1;
+
+			// WaitCommEvent resets the event, so a cancellation that happened before can only be
+			// detected by the flag. A later one signals the event.
+			if (!*canceled) {
+				DWORD waitResult = WaitForSingleObject(event, INFINITE);
+				if (waitResult == WAIT_FAILED)
+					return -1;
+			}
+			if (*canceled || !HasOverlappedIoCompleted(overlapped)) {
+				SetLastError(ERROR_IO_PENDING);
+				return -1;
+			}
+			if (!GetOverlappedResult(handle, overlapped, &transferred, FALSE))
+				return -1;
+		}
+
+		if (!ClearCommError(handle, &newErrors, comstat))
+			return -1;
+		*errors |= newErrors;
+
+		if (comstat->cbInQue == 0)
+			// the event was signaled without data, the caller must check the event mask
+			return 0;
+	}
+
+	// the bytes are available, so the read completes immediately in most cases
+	DWORD length = min(comstat->cbInQue, numberOfBytesToRead);
+	if (!ReadFile(handle, buffer, length, &transferred, overlapped)) {
+		if (GetLastError() != ERROR_IO_PENDING)
+			return -1;
+
+		DWORD waitResult = WaitForSingleObject(event, READ_FILE_TIMEOUT);
+		if (waitResult == WAIT_TIMEOUT)
+			SetLastError(ERROR_IO_PENDING);
+		if (waitResult != WAIT_OBJECT_0)
+			return -1;
+		if (!GetOverlappedResult(handle, overlapped, &transferred, TRUE))
+			return -1;
+	}
+
+	comstat->cbInQue -= min(comstat->cbInQue, transferred);
+	return (jint) transferred;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    WaitAndReadAvailable
+ * Signature: (ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Ljava/nio/ByteBuffer;ILorg/xidobi/structs/INT;Lorg/xidobi/structs/COMSTAT;Lorg/xidobi/structs/INT;)I
+ *
+ * Performs a complete read operation with a single transition from Java to native code.
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_WaitAndReadAvailable(JNIEnv *env, jobject this,
+		jint hFile,
+		jobject lpEvtMask,
+		jobject lpCanceled,
+		jobject lpOverlapped,
+		jobject lpBuffer,
+		jint nNumberOfBytesToRead,
+		jobject lpErrors,
+		jobject lpStat,
+		jobject lastError) {
+
+	DWORD *evtMask = getDWORD(env, lpEvtMask);
+	DWORD *canceled = getDWORD(env, lpCanceled);
+	OVERLAPPED *overlapped = getOVERLAPPED(env, lpOverlapped);
+	jbyte *jBuffer = getDirectByteBuffer(env, lpBuffer);
+
+	DWORD errors = 0;
+
+	COMSTAT comstat;
+	FillMemory(&comstat, sizeof(comstat), 0);
+
+	jint result = waitAndReadAvailable(	(HANDLE) hFile,
+										evtMask,
+										canceled,
+										overlapped,
+										jBuffer,
+										(DWORD) nNumberOfBytesToRead,
+										&errors,
+										&comstat);
+
 	preserveLastError(env, lastError);
 
 	setINT(env, lpErrors, &errors);
 	setCOMSTATFields(env, lpStat, &comstat);
 
-	if (result)
-		return JNI_TRUE;
-	return JNI_FALSE;
+	return result;
 }
 
 /*
@@ -616,6 +838,108 @@ Java_org_xidobi_OS_SetEvent(JNIEnv *env, jobject this,
 	return JNI_FALSE;
 }
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    CreateIoCompletionPort
+ * Signature: (IIIILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL
+Java_org_xidobi_OS_CreateIoCompletionPort(JNIEnv *env, jobject this,
+		jint FileHandle,
+		jint ExistingCompletionPort,
+		jint CompletionKey,
+		jint NumberOfConcurrentThreads,
+		jobject lastError) {
+
+	HANDLE handle = CreateIoCompletionPort((HANDLE) FileHandle,
+										   (HANDLE) ExistingCompletionPort,
+										   (ULONG_PTR) CompletionKey,
+										   (DWORD) NumberOfConcurrentThreads);
+
+	preserveLastError(env, lastError);
+
+	return (jint) handle;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    GetQueuedCompletionStatus
+ * Signature: (ILorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;ILorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_xidobi_OS_GetQueuedCompletionStatus(JNIEnv *env, jobject this,
+		jint CompletionPort,
+		jobject lpNumberOfBytes,
+		jobject lpCompletionKey,
+		jobject lpOverlapped,
+		jint dwMilliseconds,
+		jobject lastError) {
+
+	DWORD numberOfBytes = 0;
+	ULONG_PTR completionKey = 0;
+	LPOVERLAPPED overlapped = NULL;
+
+	BOOL result = GetQueuedCompletionStatus((HANDLE) CompletionPort,
+											&numberOfBytes,
+											&completionKey,
+											&overlapped,
+											(DWORD) dwMilliseconds);
+
+	preserveLastError(env, lastError);
+
+	// the completion key and the address of the OVERLAPPED struct are returned as INT
+	DWORD key = (DWORD) completionKey;
+	DWORD address = (DWORD) overlapped;
+	setINT(env, lpNumberOfBytes, &numberOfBytes);
+	setINT(env, lpCompletionKey, &key);
+	setINT(env, lpOverlapped, &address);
+
+	if (result)
+		return JNI_TRUE;
+	return JNI_FALSE;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    PostQueuedCompletionStatus
+ * Signature: (IIIILorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_xidobi_OS_PostQueuedCompletionStatus(JNIEnv *env, jobject this,
+		jint CompletionPort,
+		jint dwNumberOfBytesTransferred,
+		jint dwCompletionKey,
+		jint lpOverlapped,
+		jobject lastError) {
+
+	BOOL result = PostQueuedCompletionStatus((HANDLE) CompletionPort,
+											 (DWORD) dwNumberOfBytesTransferred,
+											 (ULONG_PTR) dwCompletionKey,
+											 (LPOVERLAPPED) lpOverlapped);
+
+	preserveLastError(env, lastError);
+
+	if (result)
+		return JNI_TRUE;
+	return JNI_FALSE;
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    HasOverlappedIoCompleted
+ * Signature: (Lorg/xidobi/structs/OVERLAPPED;)Z
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_xidobi_OS_HasOverlappedIoCompleted(JNIEnv *env, jobject this,
+		jobject lpOverlapped) {
+
+	OVERLAPPED *overlapped = getOVERLAPPED(env, lpOverlapped);
+
+	if (HasOverlappedIoCompleted(overlapped))
+		return JNI_TRUE;
+	return JNI_FALSE;
+}
+
 /*
  * Class:     org_xidobi_OS
  * Method:    malloc
@@ -697,6 +1021,40 @@ Java_org_xidobi_OS_getByteArray(JNIEnv *env, jobject this,
 	return result;
 }
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    setByteArray
+ * Signature: (Lorg/xidobi/structs/NativeByteArray;I[BII)V
+ */
+JNIEXPORT void JNICALL
+Java_org_xidobi_OS_setByteArray(JNIEnv *env, jobject this,
+		jobject nativeByteArray,
+		jint offset,
+		jbyteArray data,
+		jint dataOffset,
+		jint length) {
+
+	jbyte *bytes = getNativeByteArray(env, nativeByteArray);
+	(*env)->GetByteArrayRegion(env, data, dataOffset, length, bytes + offset);
+}
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    setByteBuffer
+ * Signature: (Lorg/xidobi/structs/NativeByteArray;ILjava/nio/ByteBuffer;I)V
+ */
+JNIEXPORT void JNICALL
+Java_org_xidobi_OS_setByteBuffer(JNIEnv *env, jobject this,
+		jobject nativeByteArray,
+		jint offset,
+		jobject data,
+		jint length) {
+
+	jbyte *bytes = getNativeByteArray(env, nativeByteArray);
+	jbyte *src = getDirectByteBuffer(env, data);
+	memcpy(bytes + offset, src, (size_t) length);
+}
+
 /*
  * Class:     org_xidobi_OS
  * Method:    getValue_DWORD
@@ -723,3 +1081,16 @@ Java_org_xidobi_OS_setValue_1DWORD(JNIEnv *env, jobject this,
 	DWORD *ptr = getDWORD(env, dword);
 	*ptr = (DWORD) value;
 }
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    newDirectByteBuffer0
+ * Signature: (II)Ljava/nio/ByteBuffer;
+ */
+JNIEXPORT jobject JNICALL
+Java_org_xidobi_OS_newDirectByteBuffer0(JNIEnv *env, jobject this,
+		jint address,
+		jint capacity) {
+
+	return (*env)->NewDirectByteBuffer(env, (void *) address, (jlong) capacity);
+}
@@ -53,15 +53,31 @@ JNIEXPORT jint JNICALL Java_org_xidobi_OS_CreateEventA
  * Method:    WriteFile
  * Signature: (I[BILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
  */
-JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_WriteFile
+JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_WriteFile__I_3BILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2
   (JNIEnv *, jobject, jint, jbyteArray, jint, jobject, jobject, jobject);
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    WriteFile
+ * Signature: (ILorg/xidobi/structs/NativeByteArray;ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_WriteFile__ILorg_xidobi_structs_NativeByteArray_2ILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2
+  (JNIEnv *, jobject, jint, jobject, jint, jobject, jobject, jobject);
+
 /*
  * Class:     org_xidobi_OS
  * Method:    ReadFile
  * Signature: (ILorg/xidobi/structs/NativeByteArray;ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
  */
-JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_ReadFile
+JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_ReadFile__ILorg_xidobi_structs_NativeByteArray_2ILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2
+  (JNIEnv *, jobject, jint, jobject, jint, jobject, jobject, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    ReadFile
+ * Signature: (ILjava/nio/ByteBuffer;ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Lorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_ReadFile__ILjava_nio_ByteBuffer_2ILorg_xidobi_structs_DWORD_2Lorg_xidobi_structs_OVERLAPPED_2Lorg_xidobi_structs_INT_2
   (JNIEnv *, jobject, jint, jobject, jint, jobject, jobject, jobject);
 
 /*
@@ -120,6 +136,14 @@ JNIEXPORT jint JNICALL Java_org_xidobi_OS_RegCloseKey
 JNIEXPORT jint JNICALL Java_org_xidobi_OS_RegEnumValueA
   (JNIEnv *, jobject, jobject, jint, jbyteArray, jobject, jint, jobject, jbyteArray, jobject);
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    RegNotifyChangeKeyValue
+ * Signature: (Lorg/xidobi/structs/HKEY;ZIIZ)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_RegNotifyChangeKeyValue
+  (JNIEnv *, jobject, jobject, jboolean, jint, jint, jboolean);
+
 /*
  * Class:     org_xidobi_OS
  * Method:    SetCommMask
@@ -146,11 +170,19 @@ JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_PurgeComm
 
 /*
  * Class:     org_xidobi_OS
- * Method:    ClearCommError
- * Signature: (ILorg/xidobi/structs/INT;Lorg/xidobi/structs/COMSTAT;Lorg/xidobi/structs/INT;)Z
+ * Method:    ClearCommError0
+ * Signature: (ILorg/xidobi/structs/INT;Lorg/xidobi/structs/COMSTAT;)I
  */
-JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_ClearCommError
-  (JNIEnv *, jobject, jint, jobject, jobject, jobject);
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_ClearCommError0
+  (JNIEnv *, jobject, jint, jobject, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    WaitAndReadAvailable
+ * Signature: (ILorg/xidobi/structs/DWORD;Lorg/xidobi/structs/DWORD;Lorg/xidobi/structs/OVERLAPPED;Ljava/nio/ByteBuffer;ILorg/xidobi/structs/INT;Lorg/xidobi/structs/COMSTAT;Lorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_WaitAndReadAvailable
+  (JNIEnv *, jobject, jint, jobject, jobject, jobject, jobject, jint, jobject, jobject, jobject);
 
 /*
  * Class:     org_xidobi_OS
@@ -192,6 +224,38 @@ JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_ResetEvent
 JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_SetEvent
   (JNIEnv *, jobject, jint, jobject);
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    CreateIoCompletionPort
+ * Signature: (IIIILorg/xidobi/structs/INT;)I
+ */
+JNIEXPORT jint JNICALL Java_org_xidobi_OS_CreateIoCompletionPort
+  (JNIEnv *, jobject, jint, jint, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    GetQueuedCompletionStatus
+ * Signature: (ILorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;Lorg/xidobi/structs/INT;ILorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_GetQueuedCompletionStatus
+  (JNIEnv *, jobject, jint, jobject, jobject, jobject, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    PostQueuedCompletionStatus
+ * Signature: (IIIILorg/xidobi/structs/INT;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_PostQueuedCompletionStatus
+  (JNIEnv *, jobject, jint, jint, jint, jint, jobject);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    HasOverlappedIoCompleted
+ * Signature: (Lorg/xidobi/structs/OVERLAPPED;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_xidobi_OS_HasOverlappedIoCompleted
+  (JNIEnv *, jobject, jobject);
+
 /*
  * Class:     org_xidobi_OS
  * Method:    malloc
@@ -248,6 +312,22 @@ JNIEXPORT jint JNICALL Java_org_xidobi_OS_sizeOf_1DWORD
 JNIEXPORT jbyteArray JNICALL Java_org_xidobi_OS_getByteArray
   (JNIEnv *, jobject, jobject, jint);
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    setByteArray
+ * Signature: (Lorg/xidobi/structs/NativeByteArray;I[BII)V
+ */
+JNIEXPORT void JNICALL Java_org_xidobi_OS_setByteArray
+  (JNIEnv *, jobject, jobject, jint, jbyteArray, jint, jint);
+
+/*
+ * Class:     org_xidobi_OS
+ * Method:    setByteBuffer
+ * Signature: (Lorg/xidobi/structs/NativeByteArray;ILjava/nio/ByteBuffer;I)V
+ */
+JNIEXPORT void JNICALL Java_org_xidobi_OS_setByteBuffer
+  (JNIEnv *, jobject, jobject, jint, jobject, jint);
+
 /*
  * Class:     org_xidobi_OS
  * Method:    getValue_DWORD
@@ -264,6 +344,14 @@ JNIEXPORT jint JNICALL Java_org_xidobi_OS_getValue_1DWORD
 JNIEXPORT void JNICALL Java_org_xidobi_OS_setValue_1DWORD
   (JNIEnv *, jobject, jobject, jint);
 
+/*
+ * Class:     org_xidobi_OS
+ * Method:    newDirectByteBuffer0
+ * Signature: (II)Ljava/nio/ByteBuffer;
+ */
+JNIEXPORT jobject JNICALL Java_org_xidobi_OS_newDirectByteBuffer0
+  (JNIEnv *, jobject, jint, jint);
+
 #ifdef __cplusplus
 }
 #endif
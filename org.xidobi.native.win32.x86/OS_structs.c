@@ -166,7 +166,7 @@ typedef struct OVERLAPPED_FID_CACHE {
 	int cached;
 	jclass clazz;
 	jfieldID cPointer, /* Internal, InternalHigh, Offset, OffsetHigh, Pointer, */
-			 hEvent;
+			 hEvent, skipCompletionPort;
 } OVERLAPPED_FID_CACHE;
 // cache for OVERLAPPED fields
 OVERLAPPED_FID_CACHE OVERLAPPEDc;
@@ -190,6 +190,8 @@ void cacheOVERLAPPEDFields(JNIEnv *env, jobject overlappedObject) {
 //	OVERLAPPEDc.Pointer = (*env)->GetFieldID(env, OVERLAPPEDc.clazz, "Pointer", "I");
 	OVERLAPPEDc.hEvent = (*env)->GetFieldID(env, OVERLAPPEDc.clazz, "hEvent",
 			"I");
+	OVERLAPPEDc.skipCompletionPort = (*env)->GetFieldID(env, OVERLAPPEDc.clazz,
+			"skipCompletionPort", "Z");
 
 	OVERLAPPEDc.cached = TRUE;
 }
@@ -210,6 +212,10 @@ OVERLAPPED *getOVERLAPPED(JNIEnv *env, jobject overlappedObject) {
 //	overlapped->OffsetHigh = (*env)->GetIntField(env, overlappedObject, OVERLAPPEDc.OffsetHigh);
 //	overlapped->Pointer = (PVOID) (*env)->GetIntField(env, overlappedObject, OVERLAPPEDc.Pointer);
 	overlapped->hEvent = (HANDLE) (*env)->GetIntField(env, overlappedObject, OVERLAPPEDc.hEvent);
+	// a set low-order bit of the event handle prevents that the completion is queued to the I/O
+	// completion port of the file handle
+	if ((*env)->GetBooleanField(env, overlappedObject, OVERLAPPEDc.skipCompletionPort))
+		overlapped->hEvent = (HANDLE) ((DWORD_PTR) overlapped->hEvent | 1);
 
 	return overlapped;
 }
@@ -348,6 +354,47 @@ jbyte *getNativeByteArray(JNIEnv *env, jobject nativeByteArray) {
 	return bytes;
 }
 
+// ***********************************************************************
+// **** ByteBuffer: ******************************************************
+// ***********************************************************************
+
+/*
+ * a struct to cache the ByteBuffer methods
+ */
+typedef struct ByteBuffer_MID_CACHE {
+	int cached;
+	jclass clazz;
+	jmethodID position;
+} ByteBuffer_MID_CACHE;
+// cache for ByteBuffer methods
+ByteBuffer_MID_CACHE ByteBufferc;
+
+/*
+ * Caches the ByteBuffer methods in the ByteBuffer_MID_CACHE.
+ */
+void cacheByteBufferMethods(JNIEnv *env, jobject byteBuffer) {
+	if (ByteBufferc.cached)
+		return;
+
+	ByteBufferc.clazz = (*env)->FindClass(env, "java/nio/Buffer");
+	ByteBufferc.position = (*env)->GetMethodID(env, ByteBufferc.clazz, "position", "()I");
+
+	ByteBufferc.cached = TRUE;
+}
+
+/*
+ * Returns a pointer to the memory of the given direct ByteBuffer at its current position.
+ */
+jbyte *getDirectByteBuffer(JNIEnv *env, jobject byteBuffer) {
+	if (!ByteBufferc.cached)
+		cacheByteBufferMethods(env, byteBuffer);
+
+	jbyte *bytes = (jbyte *) (*env)->GetDirectBufferAddress(env, byteBuffer);
+	jint position = (*env)->CallIntMethod(env, byteBuffer, ByteBufferc.position);
+
+	return bytes + position;
+}
+
 // ***********************************************************************
 // **** DWORD: *************************************************
 // ***********************************************************************
@@ -38,6 +38,10 @@ HKEY *getHKEY(JNIEnv *, jobject);
 void cacheNativeByteArrayFields(JNIEnv *, jobject);
 jbyte *getNativeByteArray(JNIEnv *, jobject);
 
+// ByteBuffer:
+void cacheByteBufferMethods(JNIEnv *, jobject);
+jbyte *getDirectByteBuffer(JNIEnv *, jobject);
+
 // DWORD:
 void cacheDWORDFields(JNIEnv *, jobject);
 DWORD *getDWORD(JNIEnv *, jobject);
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+/**
+ * Tests the class {@link AsyncSerialConnection}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestAsyncSerialConnection {
+
+	/** constant for better readability */
+	private static final IOException IO_EXCEPTION = new IOException();
+
+	/** the class under test */
+	private AsyncSerialConnection asyncConnection;
+
+	@Mock
+	private SerialSelector selector;
+	@Mock
+	private SerialSelectionKey key;
+	@Mock
+	private SerialConnection connection;
+	@Mock
+	private SerialPort port;
+
+	/** the handler, that was registered with the selector */
+	private SerialEventHandler handler;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		when(connection.getPort()).thenReturn(port);
+		when(port.getPortName()).thenReturn("COM1");
+		when(key.getConnection()).thenReturn(connection);
+		when(selector.register(eq(connection), any(SerialEventHandler.class))).thenReturn(key);
+
+		asyncConnection = new AsyncSerialConnection(selector, connection);
+
+		ArgumentCaptor<SerialEventHandler> handlerCaptor = ArgumentCaptor.forClass(SerialEventHandler.class);
+		verify(selector).register(eq(connection), handlerCaptor.capture());
+		handler = handlerCaptor.getValue();
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>null</code> is
+	 * passed.
+	 */
+	@Test
+	@SuppressWarnings("unused")
+	public void new_nullSelector() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >selector< must not be null!");
+
+		new AsyncSerialConnection(null, connection);
+	}
+
+	/**
+	 * Verifies that a pending read operation is completed with a copy of the received data.
+	 */
+	@Test
+	public void readAsync() throws Exception {
+		Future<ByteBuffer> future = asyncConnection.readAsync();
+		assertThat(future.isDone(), is(false));
+
+		ByteBuffer data = ByteBuffer.wrap("Hello".getBytes());
+		handler.dataReceived(key, data);
+
+		assertThat(toString(future.get()), is("Hello"));
+		assertThat(future.get(), is(not(sameInstance(data))));
+	}
+
+	/**
+	 * Verifies that data, that is received while no read operation is pending, is returned by the
+	 * next read operations in the order it was received.
+	 */
+	@Test
+	public void readAsync_bufferedData() throws Exception {
+		handler.dataReceived(key, ByteBuffer.wrap("Hel".getBytes()));
+		handler.dataReceived(key, ByteBuffer.wrap("lo".getBytes()));
+
+		assertThat(toString(asyncConnection.readAsync().get()), is("Hel"));
+		assertThat(toString(asyncConnection.readAsync().get()), is("lo"));
+	}
+
+	/**
+	 * Verifies that a cancelled read operation doesn't consume received data.
+	 */
+	@Test
+	public void readAsync_cancelled() throws Exception {
+		asyncConnection.readAsync().cancel(false);
+		Future<ByteBuffer> future = asyncConnection.readAsync();
+
+		handler.dataReceived(key, ByteBuffer.wrap("Hello".getBytes()));
+
+		assertThat(toString(future.get()), is("Hello"));
+	}
+
+	/**
+	 * Verifies that the write operations are started and completed in order.
+	 */
+	@Test
+	public void writeAsync() throws Exception {
+		ByteBuffer first = ByteBuffer.wrap("Hel".getBytes());
+		ByteBuffer second = ByteBuffer.wrap("lo".getBytes());
+		Future<ByteBuffer> firstFuture = asyncConnection.writeAsync(first);
+		Future<ByteBuffer> secondFuture = asyncConnection.writeAsync(second);
+
+		verify(key).write(first);
+		verify(key).write(second);
+
+		handler.writeCompleted(key, first);
+		assertThat(firstFuture.get(), is(sameInstance(first)));
+		assertThat(secondFuture.isDone(), is(false));
+
+		handler.writeCompleted(key, second);
+		assertThat(secondFuture.get(), is(sameInstance(second)));
+	}
+
+	/**
+	 * Verifies that the write operation fails, when the write couldn't be started.
+	 */
+	@Test
+	public void writeAsync_writeFails() throws Exception {
+		doThrow(IO_EXCEPTION).when(key).write(any(ByteBuffer.class));
+
+		Future<ByteBuffer> future = asyncConnection.writeAsync(ByteBuffer.allocate(1));
+
+		assertFailedWith(future, IO_EXCEPTION);
+	}
+
+	/**
+	 * Verifies that all pending and following operations fail, when an I/O error occurs.
+	 */
+	@Test
+	public void failed() throws Exception {
+		Future<ByteBuffer> read = asyncConnection.readAsync();
+		Future<ByteBuffer> write = asyncConnection.writeAsync(ByteBuffer.allocate(1));
+
+		handler.failed(key, IO_EXCEPTION);
+
+		assertFailedWith(read, IO_EXCEPTION);
+		assertFailedWith(write, IO_EXCEPTION);
+		assertFailedWith(asyncConnection.readAsync(), IO_EXCEPTION);
+		assertFailedWith(asyncConnection.writeAsync(ByteBuffer.allocate(1)), IO_EXCEPTION);
+	}
+
+	/**
+	 * Verifies that the key is cancelled and the pending operations fail, when the asynchronous
+	 * connection is closed.
+	 */
+	@Test
+	public void close() throws Exception {
+		Future<ByteBuffer> read = asyncConnection.readAsync();
+
+		asyncConnection.close();
+
+		verify(key).cancel();
+		try {
+			read.get();
+			fail("ExecutionException expected!");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), is("The asynchronous connection to port COM1 was closed!"));
+		}
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Returns the remaining bytes of the given buffer as string. */
+	private static String toString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return new String(bytes);
+	}
+
+	/** Verifies that the given future failed with the given cause. */
+	private static void assertFailedWith(Future<ByteBuffer> future, IOException cause) throws InterruptedException {
+		try {
+			future.get();
+			fail("ExecutionException expected!");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause(), is(sameInstance((Throwable) cause)));
+		}
+	}
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the class {@link BufferedSerialConnection}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestBufferedSerialConnection {
+
+	/** constant for better readability */
+	private static final int MAX_BYTES = 8;
+	/** constant for better readability */
+	private static final int MAX_DELAY = 5;
+	/** constant for better readability */
+	private static final IOException IO_EXCEPTION = new IOException();
+
+	/** the class under test */
+	private BufferedSerialConnection buffered;
+
+	@Mock
+	private SerialConnection connection;
+	@Mock
+	private ScheduledExecutorService scheduler;
+	@Mock
+	private ScheduledFuture<?> scheduledFlush;
+	@Mock
+	private Executor flushExecutor;
+
+	/** the bytes passed to each write of the underlying connection */
+	private List<byte[]> writes;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		writes = new ArrayList<byte[]>();
+		doAnswer(recordWrite()).when(connection).write(any(ByteBuffer[].class));
+		doAnswer(recordWrite()).when(connection).write(any(byte[].class), anyInt(), anyInt());
+		doReturn(scheduledFlush).when(scheduler).schedule(any(Runnable.class), anyLong(), eq(MILLISECONDS));
+
+		buffered = new BufferedSerialConnection(connection, MAX_BYTES, MAX_DELAY, scheduler, flushExecutor);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullConnection() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< must not be null!");
+
+		new BufferedSerialConnection(null, MAX_BYTES, MAX_DELAY, scheduler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when the buffer size is 0.
+	 */
+	@Test
+	public void new_zeroMaxBytes() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >maxBytes< is invalid! Expected a value greater than 0!");
+
+		new BufferedSerialConnection(connection, 0, MAX_DELAY, scheduler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when the delay is negative.
+	 */
+	@Test
+	public void new_negativeMaxDelay() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >maxDelay< is invalid! Expected a value greater or equal to 0!");
+
+		new BufferedSerialConnection(connection, MAX_BYTES, -1, scheduler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * as flush executor.
+	 */
+	@Test
+	public void new_nullFlushExecutor() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >flushExecutor< must not be null!");
+
+		new BufferedSerialConnection(connection, MAX_BYTES, MAX_DELAY, scheduler, null);
+	}
+
+	/**
+	 * Verifies that small writes are buffered and written with one write operation, when the
+	 * buffer is flushed.
+	 */
+	@Test
+	public void write_coalesced() throws Exception {
+		buffered.write(new byte[] { 1, 2 });
+		buffered.write(new byte[] { 3 });
+		buffered.write(ByteBuffer.wrap(new byte[] { 4 }), ByteBuffer.wrap(new byte[] { 5 }));
+		assertThat(writes.size(), is(0));
+
+		buffered.flush();
+
+		assertThat(writes.size(), is(1));
+		assertThat(writes.get(0), is(new byte[] { 1, 2, 3, 4, 5 }));
+	}
+
+	/**
+	 * Verifies that only the given range of the data is buffered.
+	 */
+	@Test
+	public void write_range() throws Exception {
+		buffered.write(new byte[] { 1, 2, 3, 4 }, 1, 2);
+
+		buffered.flush();
+
+		assertThat(writes.get(0), is(new byte[] { 2, 3 }));
+	}
+
+	/**
+	 * Verifies that the output stream writes through the buffer and that flushing the stream
+	 * flushes the buffer.
+	 */
+	@Test
+	public void getOutputStream_flush() throws Exception {
+		buffered.getOutputStream().write(new byte[] { 1, 2 });
+		buffered.getOutputStream().write(3);
+		assertThat(writes.size(), is(0));
+
+		buffered.getOutputStream().flush();
+
+		assertThat(writes.size(), is(1));
+		assertThat(writes.get(0), is(new byte[] { 1, 2, 3 }));
+	}
+
+	/**
+	 * Verifies that the buffer is written, as soon as it is full.
+	 */
+	@Test
+	public void write_bufferFull() throws Exception {
+		buffered.write(new byte[5]);
+		buffered.write(new byte[3]);
+
+		assertThat(writes.size(), is(1));
+		assertThat(writes.get(0).length, is(MAX_BYTES));
+	}
+
+	/**
+	 * Verifies that the buffer is written first, if the data doesn't fit into the remaining space.
+	 */
+	@Test
+	public void write_notEnoughSpace() throws Exception {
+		buffered.write(new byte[] { 1, 2, 3, 4, 5 });
+		buffered.write(new byte[] { 6, 7, 8, 9 });
+
+		assertThat(writes.size(), is(1));
+		assertThat(writes.get(0), is(new byte[] { 1, 2, 3, 4, 5 }));
+
+		buffered.flush();
+
+		assertThat(writes.get(1), is(new byte[] { 6, 7, 8, 9 }));
+	}
+
+	/**
+	 * Verifies that data, that doesn't fit into the buffer, is written directly after the buffered
+	 * bytes.
+	 */
+	@Test
+	public void write_large() throws Exception {
+		byte[] large = new byte[MAX_BYTES + 1];
+		buffered.write(new byte[] { 1 });
+
+		buffered.write(large);
+
+		InOrder inOrder = inOrder(connection);
+		inOrder.verify(connection).write(any(ByteBuffer[].class));
+		inOrder.verify(connection).write(large, 0, large.length);
+		assertThat(writes.size(), is(2));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is
+	 * written.
+	 */
+	@Test
+	public void write_null() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >data< must not be null!");
+
+		buffered.write((byte[]) null);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when the length exceeds the
+	 * data.
+	 */
+	@Test
+	public void write_invalidLength() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >length< is invalid! Expected a value between 0 and data.length - offset!");
+
+		buffered.write(new byte[2], 1, 2);
+	}
+
+	/**
+	 * Verifies that the flush is scheduled once, when the first bytes are buffered.
+	 */
+	@Test
+	public void write_schedulesFlush() throws Exception {
+		buffered.write(new byte[1]);
+		buffered.write(new byte[1]);
+
+		verify(scheduler).schedule(any(Runnable.class), eq((long) MAX_DELAY), eq(MILLISECONDS));
+	}
+
+	/**
+	 * Verifies that no flush is scheduled, if the maximum delay is 0.
+	 */
+	@Test
+	public void write_noDelay() throws Exception {
+		buffered = new BufferedSerialConnection(connection, MAX_BYTES, 0, scheduler);
+
+		buffered.write(new byte[1]);
+
+		verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), eq(MILLISECONDS));
+	}
+
+	/**
+	 * Verifies that the buffered bytes are written, when the scheduled flush is executed.
+	 */
+	@Test
+	public void delayedFlush() throws Exception {
+		buffered.write(new byte[] { 1, 2 });
+
+		runScheduledFlush();
+
+		assertThat(writes.size(), is(1));
+		assertThat(writes.get(0), is(new byte[] { 1, 2 }));
+	}
+
+	/**
+	 * Verifies that the scheduler only hands the delayed flush over to the flush executor, so a
+	 * blocking write doesn't block the scheduler.
+	 */
+	@Test
+	public void delayedFlush_writtenByFlushExecutor() throws Exception {
+		buffered.write(new byte[] { 1, 2 });
+
+		ArgumentCaptor<Runnable> trigger = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler).schedule(trigger.capture(), anyLong(), eq(MILLISECONDS));
+		trigger.getValue().run();
+
+		assertThat(writes.size(), is(0));
+		verify(flushExecutor).execute(any(Runnable.class));
+	}
+
+	/**
+	 * Verifies that the scheduled flush is cancelled, when the buffer is flushed explicitly.
+	 */
+	@Test
+	public void flush_cancelsScheduledFlush() throws Exception {
+		buffered.write(new byte[1]);
+
+		buffered.flush();
+
+		verify(scheduledFlush).cancel(false);
+	}
+
+	/**
+	 * Verifies that a delayed flush, that was already handed over to the flush executor when the
+	 * buffer was flushed explicitly, doesn't flush the next batch early.
+	 */
+	@Test
+	public void delayedFlush_staleAfterFlush() throws Exception {
+		buffered.write(new byte[] { 1 });
+		ArgumentCaptor<Runnable> trigger = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler).schedule(trigger.capture(), anyLong(), eq(MILLISECONDS));
+		trigger.getValue().run();
+		ArgumentCaptor<Runnable> staleFlush = ArgumentCaptor.forClass(Runnable.class);
+		verify(flushExecutor).execute(staleFlush.capture());
+
+		buffered.flush();
+		buffered.write(new byte[] { 2 });
+		staleFlush.getValue().run();
+
+		assertThat(writes.size(), is(1));
+		assertThat(writes.get(0), is(new byte[] { 1 }));
+		verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), eq(MILLISECONDS));
+	}
+
+	/**
+	 * Verifies that nothing is written, if the buffer is empty.
+	 */
+	@Test
+	public void flush_empty() throws Exception {
+		buffered.flush();
+
+		assertThat(writes.size(), is(0));
+	}
+
+	/**
+	 * Verifies that the error of a scheduled flush is thrown by the next write.
+	 */
+	@Test
+	public void delayedFlush_fails() throws Exception {
+		buffered.write(new byte[1]);
+		doThrow(IO_EXCEPTION).when(connection).write(any(ByteBuffer[].class));
+		runScheduledFlush();
+
+		try {
+			buffered.write(new byte[1]);
+		}
+		catch (IOException e) {
+			assertThat(e, is(IO_EXCEPTION));
+		}
+
+		buffered.flush();
+	}
+
+	/**
+	 * Verifies that the buffered bytes are written before the connection is closed.
+	 */
+	@Test
+	public void close() throws Exception {
+		buffered.write(new byte[] { 1 });
+
+		buffered.close();
+
+		InOrder inOrder = inOrder(connection);
+		inOrder.verify(connection).write(any(ByteBuffer[].class));
+		inOrder.verify(connection).close();
+	}
+
+	/**
+	 * Verifies that the connection is closed, even if the buffered bytes couldn't be written.
+	 */
+	@Test
+	public void close_flushFails() throws Exception {
+		buffered.write(new byte[] { 1 });
+		doThrow(IO_EXCEPTION).when(connection).write(any(ByteBuffer[].class));
+
+		try {
+			buffered.close();
+		}
+		catch (IOException e) {
+			assertThat(e, is(IO_EXCEPTION));
+		}
+
+		verify(connection).close();
+	}
+
+	/**
+	 * Verifies that nothing is written, if the connection is already closed.
+	 */
+	@Test
+	public void close_alreadyClosed() throws Exception {
+		buffered.write(new byte[] { 1 });
+		when(connection.isClosed()).thenReturn(true);
+
+		buffered.close();
+
+		assertThat(writes.size(), is(0));
+		verify(connection).close();
+	}
+
+	/**
+	 * Verifies that reads are delegated to the underlying connection.
+	 */
+	@Test
+	public void read() throws Exception {
+		byte[] data = new byte[1];
+		when(connection.read()).thenReturn(data);
+
+		assertThat(buffered.read(), is(data));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/**
+	 * Runs the flush, that was scheduled by the buffered connection, and the write that it handed
+	 * over to the flush executor.
+	 */
+	private void runScheduledFlush() {
+		ArgumentCaptor<Runnable> trigger = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler).schedule(trigger.capture(), anyLong(), eq(MILLISECONDS));
+		trigger.getValue().run();
+
+		ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+		verify(flushExecutor).execute(flush.capture());
+		flush.getValue().run();
+	}
+
+	/** Records the remaining bytes of the buffers or the range of the array passed to a write. */
+	private Answer<Void> recordWrite() {
+		return new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				Object[] args = invocation.getArguments();
+				if (args[0] instanceof byte[]) {
+					byte[] data = (byte[]) args[0];
+					int offset = (Integer) args[1];
+					int length = (Integer) args[2];
+					byte[] copy = new byte[length];
+					System.arraycopy(data, offset, copy, 0, length);
+					writes.add(copy);
+					return null;
+				}
+				ByteBuffer src = (ByteBuffer) args[0];
+				byte[] copy = new byte[src.remaining()];
+				src.get(copy);
+				writes.add(copy);
+				return null;
+			}
+		};
+	}
+}
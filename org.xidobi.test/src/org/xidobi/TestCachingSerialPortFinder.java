@@ -0,0 +1,498 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.spi.NativeCodeException;
+
+/**
+ * Tests the class {@link CachingSerialPortFinder}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestCachingSerialPortFinder {
+
+	/** the class under test */
+	private CachingSerialPortFinder cache;
+
+	@Mock
+	private SerialPortFinder finder;
+	@Mock
+	private SerialPortListener listener;
+	@Mock
+	private SerialPortListener secondListener;
+	@Mock
+	private UncaughtExceptionHandler handler;
+	/** the default handler, that was replaced by the mock */
+	private UncaughtExceptionHandler defaultHandler;
+
+	private SerialPort com1;
+	private SerialPort com2;
+
+	/** reports the changes to a monitored cache */
+	private QueueMonitor monitor;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+
+		com1 = newPort("COM1");
+		com2 = newPort("COM2");
+		when(finder.getAll()).thenReturn(ports(com1));
+
+		cache = new CachingSerialPortFinder(finder, 1, HOURS);
+		monitor = new QueueMonitor();
+
+		defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler(handler);
+	}
+
+	@After
+	public void tearDown() {
+		cache.close();
+		Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullFinder() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >finder< must not be null!");
+
+		new CachingSerialPortFinder(null, 1, HOURS);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when a negative maximum age is
+	 * passed to the constructor.
+	 */
+	@Test
+	public void new_negativeMaxAge() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >maxAge< is invalid! Expected a value greater than or equal to 0!");
+
+		new CachingSerialPortFinder(finder, -1, HOURS);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * as monitor.
+	 */
+	@Test
+	public void new_nullMonitor() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >monitor< must not be null!");
+
+		new CachingSerialPortFinder(finder, null);
+	}
+
+	/**
+	 * Verifies that the ports are found only once, as long as the cache isn't older than the
+	 * maximum age.
+	 */
+	@Test
+	public void get_cached() {
+		assertThat(cache.get("COM1"), is(sameInstance(com1)));
+		assertThat(cache.get("COM1"), is(sameInstance(com1)));
+		assertThat(cache.getAll(), is(ports(com1)));
+
+		verify(finder, times(1)).getAll();
+	}
+
+	/**
+	 * Verifies that <code>null</code> is returned for an unknown port.
+	 */
+	@Test
+	public void get_unknownPort() {
+		assertThat(cache.get("COM2"), is(nullValue()));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed.
+	 */
+	@Test
+	public void get_null() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >portName< must not be null!");
+
+		cache.get(null);
+	}
+
+	/**
+	 * Verifies that the cache is refreshed on access, when it is older than the maximum age.
+	 */
+	@Test
+	public void get_stale() throws Exception {
+		cache = new CachingSerialPortFinder(finder, 1, MILLISECONDS);
+
+		cache.get("COM1");
+		Thread.sleep(5);
+		cache.get("COM1");
+
+		verify(finder, times(2)).getAll();
+	}
+
+	/**
+	 * Verifies that the returned {@link Set} can't be modified.
+	 */
+	@Test
+	public void getAll_unmodifiable() {
+		exception.expect(UnsupportedOperationException.class);
+
+		cache.getAll().clear();
+	}
+
+	/**
+	 * Verifies that a refresh keeps the instance of a port, that is still available.
+	 */
+	@Test
+	public void refresh_keepsInstance() {
+		cache.get("COM1");
+		Set<SerialPort> foundAgain = ports(newPort("COM1"));
+		when(finder.getAll()).thenReturn(foundAgain);
+
+		cache.refresh();
+
+		assertThat(cache.get("COM1"), is(sameInstance(com1)));
+	}
+
+	/**
+	 * Verifies that the listeners are notified about the added and removed ports.
+	 */
+	@Test
+	public void refresh_notifiesListener() {
+		cache.refresh();
+		cache.addListener(listener);
+		when(finder.getAll()).thenReturn(ports(com2));
+
+		cache.refresh();
+
+		verify(listener).portRemoved(com1);
+		verify(listener).portAdded(com2);
+		assertThat(cache.get("COM1"), is(nullValue()));
+		assertThat(cache.get("COM2"), is(sameInstance(com2)));
+	}
+
+	/**
+	 * Verifies that the listeners are not notified, if the ports haven't changed.
+	 */
+	@Test
+	public void refresh_unchanged() {
+		cache.refresh();
+		cache.addListener(listener);
+
+		cache.refresh();
+
+		verifyZeroInteractions(listener);
+	}
+
+	/**
+	 * Verifies that the first refresh reports all found ports as added.
+	 */
+	@Test
+	public void refresh_first() {
+		cache.addListener(listener);
+
+		cache.refresh();
+
+		verify(listener).portAdded(com1);
+	}
+
+	/**
+	 * Verifies that the listeners are notified outside of the lock of the refresh, so a listener
+	 * can wait for a refresh by another thread.
+	 */
+	@Test(timeout = 5000)
+	public void refresh_listenerWaitsForRefresh() throws Exception {
+		final Thread[] refreshing = new Thread[1];
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				refreshing[0] = new Thread(new Runnable() {
+					public void run() {
+						cache.refresh();
+					}
+				});
+				refreshing[0].start();
+				refreshing[0].join(1000);
+				return null;
+			}
+		}).when(listener).portAdded(com1);
+		cache.addListener(listener);
+
+		cache.refresh();
+
+		assertThat(refreshing[0].isAlive(), is(false));
+	}
+
+	/**
+	 * Verifies that the changes of a concurrent refresh are reported, after the listener returned.
+	 */
+	@Test(timeout = 5000)
+	public void refresh_fromListener() {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				when(finder.getAll()).thenReturn(ports(com2));
+				cache.refresh();
+				verify(listener, never()).portAdded(com2);
+				return null;
+			}
+		}).when(listener).portAdded(com1);
+		cache.addListener(listener);
+
+		cache.refresh();
+
+		verify(listener).portRemoved(com1);
+		verify(listener).portAdded(com2);
+	}
+
+	/**
+	 * Verifies that a failing listener doesn't prevent the notification of the other listeners and
+	 * that its failure is passed to the {@link UncaughtExceptionHandler}.
+	 */
+	@Test
+	public void refresh_failingListener() {
+		RuntimeException failure = new IllegalStateException("failed");
+		doThrow(failure).when(listener).portAdded(com1);
+		cache.addListener(listener);
+		cache.addListener(secondListener);
+
+		cache.refresh();
+
+		verify(secondListener).portAdded(com1);
+		verify(handler).uncaughtException(Thread.currentThread(), failure);
+	}
+
+	/**
+	 * Verifies that a monitored cache is refreshed, when the monitor reports a change.
+	 */
+	@Test(timeout = 5000)
+	public void monitored_refreshedOnChange() throws Exception {
+		cache = new CachingSerialPortFinder(finder, monitor);
+		monitor.awaitCalls(2);
+		cache.addListener(listener);
+
+		when(finder.getAll()).thenReturn(ports(com2));
+		monitor.changed();
+
+		verify(listener, timeout(1000)).portRemoved(com1);
+		verify(listener, timeout(1000)).portAdded(com2);
+		assertThat(cache.isMonitored(), is(true));
+	}
+
+	/**
+	 * Verifies that a failing listener doesn't stop the monitoring of the cache.
+	 */
+	@Test(timeout = 5000)
+	public void monitored_failingListener() throws Exception {
+		cache = new CachingSerialPortFinder(finder, monitor);
+		monitor.awaitCalls(2);
+		doThrow(new IllegalStateException("failed")).when(listener).portAdded(com2);
+		cache.addListener(listener);
+
+		when(finder.getAll()).thenReturn(ports(com2));
+		monitor.changed();
+		verify(listener, timeout(1000)).portAdded(com2);
+		when(finder.getAll()).thenReturn(ports(com1));
+		monitor.changed();
+
+		verify(listener, timeout(1000)).portAdded(com1);
+		verify(handler).uncaughtException(any(Thread.class), any(IllegalStateException.class));
+		assertThat(cache.isMonitored(), is(true));
+	}
+
+	/**
+	 * Verifies that an unexpected failure of the monitor is passed to the
+	 * {@link UncaughtExceptionHandler}, afterwards the cache is refreshed on access.
+	 */
+	@Test(timeout = 5000)
+	public void monitored_monitorFails() throws Exception {
+		SerialPortMonitor failingMonitor = mock(SerialPortMonitor.class);
+		NativeCodeException failure = new NativeCodeException("failed");
+		doThrow(failure).when(failingMonitor).awaitChange();
+
+		cache = new CachingSerialPortFinder(finder, failingMonitor);
+		while (cache.isMonitored())
+			Thread.sleep(1);
+
+		verify(handler, timeout(1000)).uncaughtException(any(Thread.class), any(NativeCodeException.class));
+		reset(finder);
+		when(finder.getAll()).thenReturn(ports(com1));
+		cache.get("COM1");
+		cache.get("COM1");
+		verify(finder, times(2)).getAll();
+	}
+
+	/**
+	 * Verifies that a monitored cache isn't refreshed on access, as long as no change is reported.
+	 */
+	@Test(timeout = 5000)
+	public void monitored_cached() throws Exception {
+		cache = new CachingSerialPortFinder(finder, monitor);
+		monitor.awaitCalls(2);
+
+		assertThat(cache.get("COM1"), is(sameInstance(com1)));
+		assertThat(cache.getAll(), is(ports(com1)));
+
+		verify(finder, times(1)).getAll();
+	}
+
+	/**
+	 * Verifies that closing a monitored cache closes the monitor, afterwards it is refreshed on
+	 * access.
+	 */
+	@Test(timeout = 5000)
+	public void monitored_close() throws Exception {
+		cache = new CachingSerialPortFinder(finder, monitor);
+
+		cache.close();
+		while (cache.isMonitored())
+			Thread.sleep(1);
+
+		assertThat(monitor.isClosed, is(true));
+		// the thread may have refreshed the cache before it was stopped
+		reset(finder);
+		when(finder.getAll()).thenReturn(ports(com1));
+		cache.get("COM1");
+		cache.get("COM1");
+		verify(finder, times(2)).getAll();
+	}
+
+	/**
+	 * Verifies that a removed listener isn't notified anymore.
+	 */
+	@Test
+	public void removeListener() {
+		cache.addListener(listener);
+		cache.removeListener(listener);
+
+		cache.refresh();
+
+		verify(listener, never()).portAdded(any(SerialPort.class));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is
+	 * registered.
+	 */
+	@Test
+	public void addListener_null() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >listener< must not be null!");
+
+		cache.addListener(null);
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Returns a new port mock with the given name. */
+	private static SerialPort newPort(String portName) {
+		SerialPort port = mock(SerialPort.class);
+		when(port.getPortName()).thenReturn(portName);
+		return port;
+	}
+
+	/**
+	 * A {@link SerialPortMonitor}, whose {@link #awaitChange()} returns when {@link #changed()} is
+	 * called.
+	 */
+	private static class QueueMonitor implements SerialPortMonitor {
+
+		/** a <code>true</code> element for each reported change */
+		private final BlockingQueue<Boolean> changes = new LinkedBlockingQueue<Boolean>();
+		/** the number of calls of {@link #awaitChange()} */
+		private volatile int calls;
+		/** <code>true</code>, if the monitor was closed */
+		private volatile boolean isClosed;
+
+		public void awaitChange() throws IOException {
+			if (calls++ > 0)
+				try {
+					changes.take();
+				}
+				catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+			if (isClosed)
+				throw new IOException("closed");
+		}
+
+		/** Waits until {@link #awaitChange()} was called the given number of times. */
+		public void awaitCalls(int count) throws InterruptedException {
+			while (calls < count)
+				Thread.sleep(1);
+		}
+
+		/** Reports a change of the ports. */
+		public void changed() {
+			changes.add(true);
+		}
+
+		public void close() {
+			isClosed = true;
+			changes.add(true);
+		}
+	}
+
+	/** Returns a mutable {@link Set} with the given ports, like a platform finder. */
+	private static Set<SerialPort> ports(SerialPort... ports) {
+		Set<SerialPort> set = new HashSet<SerialPort>();
+		for (SerialPort port : ports)
+			set.add(port);
+		return set;
+	}
+}
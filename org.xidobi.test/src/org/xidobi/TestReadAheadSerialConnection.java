@@ -0,0 +1,471 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.ReadAheadSerialConnection.OverflowPolicy.BLOCK;
+import static org.xidobi.ReadAheadSerialConnection.OverflowPolicy.DISCARD;
+import static org.xidobi.ReadAheadSerialConnection.OverflowPolicy.FAIL;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.ReadAheadSerialConnection.OverflowPolicy;
+import org.xidobi.spi.NativeCodeException;
+
+/**
+ * Tests the class {@link ReadAheadSerialConnection}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestReadAheadSerialConnection {
+
+	/** constant for better readability */
+	private static final int CAPACITY = 4;
+	/** constant for better readability */
+	private static final IOException IO_EXCEPTION = new IOException();
+
+	/** the class under test */
+	private ReadAheadSerialConnection readAhead;
+
+	@Mock
+	private SerialConnection connection;
+	@Mock
+	private SerialPort port;
+
+	/** the chunks that are returned by the read operations of the underlying connection */
+	private BlockingQueue<Object> received;
+	/** the thread that reads ahead */
+	private Thread reader;
+	/** <code>true</code> if the underlying connection was closed */
+	private volatile boolean closed;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		received = new LinkedBlockingQueue<Object>();
+		when(connection.getPort()).thenReturn(port);
+		when(port.getPortName()).thenReturn("COM1");
+		doAnswer(receive()).when(connection).read(any(ByteBuffer.class));
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				closed = true;
+				received.add(new IOException("closed"));
+				return null;
+			}
+		}).when(connection).close();
+		when(connection.isClosed()).thenAnswer(new Answer<Boolean>() {
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				return closed;
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (readAhead != null)
+			readAhead.close();
+		if (reader != null)
+			reader.join(5000);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullConnection() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< must not be null!");
+
+		new ReadAheadSerialConnection(null, CAPACITY, BLOCK);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the capacity isn't a power
+	 * of 2.
+	 */
+	@Test
+	public void new_invalidCapacity() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >capacity< is invalid!");
+
+		new ReadAheadSerialConnection(connection, 3, BLOCK);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullOverflowPolicy() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >overflowPolicy< must not be null!");
+
+		new ReadAheadSerialConnection(connection, CAPACITY, null);
+	}
+
+	/**
+	 * Verifies that the reading thread is named after the port.
+	 */
+	@Test
+	public void new_namesThread() {
+		start(BLOCK);
+
+		assertThat(reader.getName(), is("xidobi read-ahead COM1"));
+	}
+
+	/**
+	 * Verifies that the received bytes are returned by the read operation.
+	 */
+	@Test(timeout = 5000)
+	public void read() throws Exception {
+		start(BLOCK);
+
+		received.add(new byte[] { 1, 2, 3 });
+
+		assertThat(readAhead.read(), is(new byte[] { 1, 2, 3 }));
+	}
+
+	/**
+	 * Verifies that only the remaining bytes of the buffer are read, the other bytes are returned
+	 * by the next read operation.
+	 */
+	@Test(timeout = 5000)
+	public void read_byteBuffer() throws Exception {
+		start(BLOCK);
+		received.add(new byte[] { 1, 2, 3 });
+		awaitAvailable(3);
+
+		ByteBuffer dst = ByteBuffer.allocate(2);
+		int result = readAhead.read(dst);
+
+		assertThat(result, is(2));
+		assertThat(dst.array(), is(new byte[] { 1, 2 }));
+		assertThat(readAhead.read(), is(new byte[] { 3 }));
+	}
+
+	/**
+	 * Verifies that the timed read operation returns 0, if no bytes were received within the
+	 * timeout, and the received bytes otherwise.
+	 */
+	@Test(timeout = 5000)
+	public void read_timeout() throws Exception {
+		start(BLOCK);
+		ByteBuffer dst = ByteBuffer.allocate(4);
+
+		assertThat(readAhead.read(dst, 10, MILLISECONDS), is(0));
+
+		received.add(new byte[] { 1, 2 });
+
+		assertThat(readAhead.read(dst, 5, SECONDS), is(2));
+	}
+
+	/**
+	 * Verifies that the timed read operation throws an {@link IOException}, if the connection was
+	 * closed.
+	 */
+	@Test(timeout = 5000)
+	public void read_timeoutClosed() throws Exception {
+		start(BLOCK);
+		readAhead.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		readAhead.read(ByteBuffer.allocate(4), 10, MILLISECONDS);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the buffer is read-only.
+	 */
+	@Test
+	public void read_readOnlyBuffer() throws Exception {
+		start(BLOCK);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >dst< is invalid!");
+
+		readAhead.read(ByteBuffer.allocate(2).asReadOnlyBuffer());
+	}
+
+	/**
+	 * Verifies that the reading thread waits, while the ring is full, so no bytes are lost.
+	 */
+	@Test(timeout = 5000)
+	public void overflow_block() throws Exception {
+		start(BLOCK);
+
+		received.add(new byte[] { 1, 2, 3, 4 });
+		received.add(new byte[] { 5, 6 });
+
+		assertThat(readAhead.read(), is(new byte[] { 1, 2, 3, 4 }));
+		assertThat(readAhead.read(), is(new byte[] { 5, 6 }));
+		assertThat(readAhead.getDiscardedBytes(), is(0L));
+	}
+
+	/**
+	 * Verifies that the bytes, which are received while the ring is full, are discarded.
+	 */
+	@Test(timeout = 5000)
+	public void overflow_discard() throws Exception {
+		start(DISCARD);
+
+		received.add(new byte[] { 1, 2, 3, 4 });
+		received.add(new byte[] { 5, 6 });
+		while (readAhead.getDiscardedBytes() < 2)
+			Thread.sleep(1);
+
+		assertThat(readAhead.read(), is(new byte[] { 1, 2, 3, 4 }));
+		received.add(new byte[] { 7 });
+		assertThat(readAhead.read(), is(new byte[] { 7 }));
+		assertThat(readAhead.getDiscardedBytes(), is(2L));
+	}
+
+	/**
+	 * Verifies that the bytes, which are received after the ring was full, are buffered as far as
+	 * bytes were consumed in the meantime.
+	 */
+	@Test(timeout = 5000)
+	public void overflow_spaceFreedWhileReading() throws Exception {
+		start(FAIL);
+		received.add(new byte[] { 1, 2, 3, 4 });
+		awaitAvailable(4);
+
+		assertThat(readAhead.read(), is(new byte[] { 1, 2, 3, 4 }));
+		received.add(new byte[] { 5, 6 });
+
+		assertThat(readAhead.read(), is(new byte[] { 5, 6 }));
+	}
+
+	/**
+	 * Verifies that the buffered bytes are returned and then an {@link IOException} is thrown, if
+	 * bytes are received while the ring is full.
+	 */
+	@Test(timeout = 5000)
+	public void overflow_fail() throws Exception {
+		start(FAIL);
+
+		received.add(new byte[] { 1, 2, 3, 4 });
+		received.add(new byte[] { 5 });
+		reader.join();
+
+		assertThat(readAhead.read(), is(new byte[] { 1, 2, 3, 4 }));
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The read-ahead buffer of port COM1 overflowed, 1 bytes were discarded!");
+
+		readAhead.read();
+	}
+
+	/**
+	 * Verifies that the buffered bytes are returned and then the {@link IOException} of the
+	 * underlying connection is thrown.
+	 */
+	@Test(timeout = 5000)
+	public void read_failure() throws Exception {
+		start(BLOCK);
+
+		received.add(new byte[] { 1 });
+		received.add(IO_EXCEPTION);
+		reader.join();
+
+		assertThat(readAhead.read(), is(new byte[] { 1 }));
+
+		exception.expect(is(IO_EXCEPTION));
+
+		readAhead.read();
+	}
+
+	/**
+	 * Verifies that an unexpected {@link RuntimeException} of the underlying connection is thrown
+	 * as cause of an {@link IOException}, after the buffered bytes were returned.
+	 */
+	@Test(timeout = 5000)
+	public void read_unexpectedFailure() throws Exception {
+		start(BLOCK);
+		NativeCodeException failure = new NativeCodeException("failed");
+
+		received.add(new byte[] { 1 });
+		received.add(failure);
+		reader.join();
+
+		assertThat(readAhead.read(), is(new byte[] { 1 }));
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The read-ahead of port COM1 failed unexpected!");
+		exception.expect(hasProperty("cause", is(failure)));
+
+		readAhead.read();
+	}
+
+	/**
+	 * Verifies that all buffered bytes are returned by consecutive reads, before the
+	 * {@link IOException} of the failed underlying connection is thrown.
+	 */
+	@Test(timeout = 5000)
+	public void readByteBuffer_failureAfterBufferedBytes() throws Exception {
+		start(BLOCK);
+
+		received.add(new byte[] { 1, 2 });
+		received.add(IO_EXCEPTION);
+		reader.join();
+
+		ByteBuffer dst = ByteBuffer.allocate(1);
+		assertThat(readAhead.read(dst), is(1));
+		assertThat(dst.get(0), is((byte) 1));
+		dst.clear();
+		assertThat(readAhead.read(dst, 1, SECONDS), is(1));
+		assertThat(dst.get(0), is((byte) 2));
+		dst.clear();
+
+		exception.expect(is(IO_EXCEPTION));
+
+		readAhead.read(dst, 1, SECONDS);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown that the port was closed, if the connection
+	 * was closed after the underlying connection failed.
+	 */
+	@Test(timeout = 5000)
+	public void read_closedAfterFailure() throws Exception {
+		start(BLOCK);
+
+		received.add(new byte[] { 1 });
+		received.add(IO_EXCEPTION);
+		reader.join();
+		readAhead.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		readAhead.read();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the connection was closed.
+	 */
+	@Test(timeout = 5000)
+	public void read_closed() throws Exception {
+		start(BLOCK);
+		readAhead.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		readAhead.read();
+	}
+
+	/**
+	 * Verifies that closing the connection closes the underlying connection and stops the reading
+	 * thread.
+	 */
+	@Test(timeout = 5000)
+	public void close() throws Exception {
+		start(BLOCK);
+
+		readAhead.close();
+		reader.join();
+
+		verify(connection).close();
+		assertThat(readAhead.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that the write operations are delegated.
+	 */
+	@Test
+	public void write() throws Exception {
+		start(BLOCK);
+		byte[] data = { 1, 2 };
+		ByteBuffer src = ByteBuffer.allocate(1);
+
+		readAhead.write(data);
+		readAhead.write(data, 1, 1);
+		readAhead.write(src);
+
+		verify(connection).write(data);
+		verify(connection).write(data, 1, 1);
+		verify(connection).write(src);
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Creates the class under test and keeps a reference to its reading thread. */
+	private void start(OverflowPolicy overflowPolicy) {
+		readAhead = new ReadAheadSerialConnection(connection, CAPACITY, overflowPolicy, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				reader = new Thread(runnable);
+				reader.setDaemon(true);
+				return reader;
+			}
+		});
+	}
+
+	/** Waits until the given number of bytes were read ahead. */
+	private void awaitAvailable(int count) throws InterruptedException {
+		while (readAhead.available() < count)
+			Thread.sleep(1);
+	}
+
+	/**
+	 * Takes the next chunk and puts it into the buffer or throws it, if it is an exception. Like a
+	 * real connection, the underlying connection reports that it is closed once it failed.
+	 */
+	private Answer<Integer> receive() {
+		return new Answer<Integer>() {
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				Object chunk = received.take();
+				if (chunk instanceof RuntimeException)
+					throw (RuntimeException) chunk;
+				if (chunk instanceof IOException) {
+					closed = true;
+					throw (IOException) chunk;
+				}
+				byte[] data = (byte[]) chunk;
+				((ByteBuffer) invocation.getArguments()[0]).put(data);
+				return data.length;
+			}
+		};
+	}
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the class {@link ResilientSerialConnection}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestResilientSerialConnection {
+
+	/** constant for better readability */
+	private static final IOException IO_EXCEPTION = new IOException("The device was unplugged!");
+
+	/** the class under test */
+	private ResilientSerialConnection connection;
+
+	@Mock
+	private SerialPortFinder platformFinder;
+	@Mock
+	private SerialPort port;
+	@Mock
+	private SerialConnection first;
+	@Mock
+	private SerialConnection second;
+	@Mock
+	private SerialPortMonitor monitor;
+
+	private CachingSerialPortFinder finder;
+	private SerialPortSettings settings;
+
+	/** the ports, that are found by the platform finder */
+	private volatile Set<SerialPort> availablePorts;
+	/** the number of times, the platform finder was asked for the ports */
+	private AtomicInteger lookups;
+
+	/** a <code>true</code> element for each change reported by the monitor */
+	private BlockingQueue<Boolean> changes;
+	/** the number of calls of {@link SerialPortMonitor#awaitChange()} */
+	private AtomicInteger awaitedChanges;
+
+	/** runs the blocking operations in the background */
+	private ExecutorService executor;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		settings = from9600bauds8N1().create();
+		when(port.getPortName()).thenReturn("COM1");
+		when(port.open(settings)).thenReturn(first, second);
+		when(first.getPort()).thenReturn(port);
+		when(second.getPort()).thenReturn(port);
+		when(second.read()).thenReturn(new byte[] { 2 });
+
+		availablePorts = portSet(port);
+		lookups = new AtomicInteger();
+		when(platformFinder.getAll()).thenAnswer(new Answer<Set<SerialPort>>() {
+			public Set<SerialPort> answer(InvocationOnMock invocation) {
+				lookups.incrementAndGet();
+				return new HashSet<SerialPort>(availablePorts);
+			}
+		});
+		finder = new CachingSerialPortFinder(platformFinder, 1, HOURS);
+
+		changes = new LinkedBlockingQueue<Boolean>();
+		awaitedChanges = new AtomicInteger();
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				// the first call returns immediately, like a real monitor
+				if (awaitedChanges.getAndIncrement() > 0 && !changes.take())
+					throw new IOException("closed");
+				return null;
+			}
+		}).when(monitor).awaitChange();
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				changes.add(false);
+				return null;
+			}
+		}).when(monitor).close();
+
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (connection != null)
+			connection.close();
+		finder.close();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the port isn't available.
+	 */
+	@Test
+	public void new_portNotFound() throws Exception {
+		availablePorts = Collections.emptySet();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was not found!");
+
+		new ResilientSerialConnection(finder, "COM1", settings);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the maximum delay is less
+	 * than the initial delay.
+	 */
+	@Test
+	public void new_maxDelayLessThanInitialDelay() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >maxDelay< is invalid! Expected a value greater than or equal to the initial delay!");
+
+		new ResilientSerialConnection(finder, "COM1", settings, 2, 1, 0, MILLISECONDS, daemonThreads());
+	}
+
+	/**
+	 * Verifies that the operations are delegated to the open connection.
+	 */
+	@Test(timeout = 1000)
+	public void read_delegates() throws Exception {
+		when(first.read()).thenReturn(new byte[] { 1 });
+		connection = open(1, 1, 0, MILLISECONDS);
+
+		assertThat(connection.read(), is(new byte[] { 1 }));
+		assertThat(connection.isConnected(), is(true));
+		assertThat(connection.getPort(), is(port));
+	}
+
+	/**
+	 * Verifies that the exception of a failed operation is thrown, and that the port is reopened
+	 * with the same settings.
+	 */
+	@Test(timeout = 1000)
+	public void read_failureReopensPort() throws Exception {
+		when(first.read()).thenThrow(IO_EXCEPTION);
+		connection = open(1, 1, 0, MILLISECONDS);
+
+		try {
+			connection.read();
+			fail("IOException expected!");
+		}
+		catch (IOException e) {
+			assertThat(e, is(IO_EXCEPTION));
+		}
+
+		assertThat(connection.awaitConnected(1, SECONDS), is(true));
+		assertThat(connection.read(), is(new byte[] { 2 }));
+		assertThat(connection.getReconnects(), is(1));
+		verify(port, times(2)).open(settings);
+	}
+
+	/**
+	 * Verifies that an interrupted or timed out operation doesn't count as lost port, the open
+	 * connection is kept.
+	 */
+	@Test(timeout = 1000)
+	public void read_interruptedKeepsConnection() throws Exception {
+		InterruptedIOException interrupted = new InterruptedIOException("The thread was interrupted!");
+		when(first.read()).thenThrow(interrupted).thenReturn(new byte[] { 1 });
+		connection = open(1, 1, 0, MILLISECONDS);
+
+		try {
+			connection.read();
+			fail("InterruptedIOException expected!");
+		}
+		catch (InterruptedIOException e) {
+			assertThat(e, is(interrupted));
+		}
+
+		assertThat(connection.isConnected(), is(true));
+		assertThat(connection.read(), is(new byte[] { 1 }));
+		verify(first, never()).close();
+		verify(port, times(1)).open(settings);
+	}
+
+	/**
+	 * Verifies that the port is reopened, if an interrupted operation has closed the connection.
+	 */
+	@Test(timeout = 1000)
+	public void read_interruptedClosedConnectionReopensPort() throws Exception {
+		when(first.read()).thenThrow(new InterruptedIOException("Write operation timed out!"));
+		when(first.isClosed()).thenReturn(true);
+		connection = open(1, 1, 0, MILLISECONDS);
+
+		try {
+			connection.read();
+			fail("InterruptedIOException expected!");
+		}
+		catch (InterruptedIOException expected) {}
+
+		assertThat(connection.awaitConnected(1, SECONDS), is(true));
+		assertThat(connection.read(), is(new byte[] { 2 }));
+	}
+
+	/**
+	 * Verifies that the connection is closed and the port is reopened, when the finder reports the
+	 * port as removed, without waiting for a failing operation.
+	 */
+	@Test(timeout = 1000)
+	public void portRemoved_reopensPort() throws Exception {
+		connection = open(1, 1, 0, MILLISECONDS);
+
+		// the port is unplugged
+		availablePorts = Collections.emptySet();
+		finder.refresh();
+		assertThat(connection.isConnected(), is(false));
+		verify(first, timeout(1000)).close();
+
+		availablePorts = portSet(port);
+
+		assertThat(connection.awaitConnected(1, SECONDS), is(true));
+		assertThat(connection.read(), is(new byte[] { 2 }));
+		assertThat(connection.getReconnects(), is(1));
+	}
+
+	/**
+	 * Verifies that a write blocks while the port is missing, and continues with the reopened
+	 * connection when the port reappears.
+	 */
+	@Test(timeout = 1000)
+	public void write_blocksUntilPortReappears() throws Exception {
+		doThrow(IO_EXCEPTION).when(first).write(new byte[] { 1 });
+		connection = open(1, 4, 0, MILLISECONDS);
+		availablePorts = Collections.emptySet();
+		failWrite();
+
+		Future<?> write = writeInBackground(new byte[] { 3 });
+		Thread.sleep(50);
+		assertThat(write.isDone(), is(false));
+		availablePorts = portSet(port);
+
+		write.get();
+		verify(second).write(new byte[] { 3 });
+	}
+
+	/**
+	 * Verifies that the port is reopened without waiting for the backoff, when the finder reports
+	 * the port as added.
+	 */
+	@Test(timeout = 1000)
+	public void portAdded_wakesUpReconnect() throws Exception {
+		doThrow(IO_EXCEPTION).when(first).write(new byte[] { 1 });
+		connection = open(1, 1, 0, HOURS);
+		availablePorts = Collections.emptySet();
+		failWrite();
+		Thread.sleep(50);
+		assertThat(connection.isConnected(), is(false));
+
+		availablePorts = portSet(port);
+		finder.refresh();
+
+		assertThat(connection.awaitConnected(1, SECONDS), is(true));
+	}
+
+	/**
+	 * Verifies that a monitored finder isn't refreshed by the reconnecting thread, the port is
+	 * reopened when the monitor reports the change.
+	 */
+	@Test(timeout = 1000)
+	public void monitored_reopensOnChange() throws Exception {
+		finder = new CachingSerialPortFinder(platformFinder, monitor);
+		while (awaitedChanges.get() < 2)
+			Thread.sleep(1);
+		connection = open(1, 1, 0, HOURS);
+
+		// the port is unplugged, the monitor reports it as removed
+		availablePorts = Collections.emptySet();
+		changes.add(true);
+		while (connection.isConnected())
+			Thread.sleep(1);
+		int lookupsAfterRemoval = lookups.get();
+		Thread.sleep(50);
+		assertThat(connection.isConnected(), is(false));
+		assertThat(lookups.get(), is(lookupsAfterRemoval));
+
+		availablePorts = portSet(port);
+		changes.add(true);
+
+		assertThat(connection.awaitConnected(1, SECONDS), is(true));
+		assertThat(lookups.get(), is(lookupsAfterRemoval + 1));
+	}
+
+	/**
+	 * Verifies that a flapping port, which disappears within the debounce time, isn't reopened.
+	 */
+	@Test(timeout = 1000)
+	public void debounce_flappingPortNotReopened() throws Exception {
+		doThrow(IO_EXCEPTION).when(first).write(new byte[] { 1 });
+		connection = open(1, 1, 10, MILLISECONDS);
+		when(platformFinder.getAll()).thenAnswer(new Answer<Set<SerialPort>>() {
+			private int calls;
+
+			public Set<SerialPort> answer(InvocationOnMock invocation) {
+				// the port is found by every second lookup
+				return calls++ % 2 == 0 ? portSet(port) : Collections.<SerialPort> emptySet();
+			}
+		});
+		failWrite();
+
+		assertThat(connection.awaitConnected(200, MILLISECONDS), is(false));
+		verify(port, times(1)).open(settings);
+	}
+
+	/**
+	 * Verifies that an operation, which waits for the port, is woken up with an {@link IOException}
+	 * when the connection is closed.
+	 */
+	@Test(timeout = 1000)
+	public void close_wakesUpBlockedOperation() throws Exception {
+		doThrow(IO_EXCEPTION).when(first).write(new byte[] { 1 });
+		connection = open(1, 1, 0, HOURS);
+		availablePorts = Collections.emptySet();
+		failWrite();
+
+		Future<?> write = writeInBackground(new byte[] { 3 });
+		Thread.sleep(50);
+		connection.close();
+
+		try {
+			write.get();
+			fail("IOException expected!");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), is("Port COM1 was closed!"));
+		}
+		assertThat(connection.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that the open connection is closed, and that the operations throw an
+	 * {@link IOException} afterwards.
+	 */
+	@Test(timeout = 1000)
+	public void close() throws Exception {
+		connection = open(1, 1, 0, MILLISECONDS);
+
+		connection.close();
+
+		verify(first).close();
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+		connection.read();
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Opens the connection with the given backoff and debounce time. */
+	private ResilientSerialConnection open(long initialDelay, long maxDelay, long debounce, TimeUnit unit) throws IOException {
+		return new ResilientSerialConnection(finder, "COM1", settings, initialDelay, maxDelay, debounce, unit, daemonThreads());
+	}
+
+	/** Writes the bytes, that fail on the first connection. */
+	private void failWrite() {
+		try {
+			connection.write(new byte[] { 1 });
+			fail("IOException expected!");
+		}
+		catch (IOException expected) {}
+	}
+
+	/** Writes the given bytes in the background. */
+	private Future<?> writeInBackground(final byte[] data) {
+		return executor.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				connection.write(data);
+				return null;
+			}
+		});
+	}
+
+	/** Returns a mutable {@link Set} with the given ports. */
+	private static Set<SerialPort> portSet(SerialPort... ports) {
+		Set<SerialPort> set = new HashSet<SerialPort>();
+		for (SerialPort port : ports)
+			set.add(port);
+		return set;
+	}
+
+	/** Returns a factory for daemon threads. */
+	private static ThreadFactory daemonThreads() {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
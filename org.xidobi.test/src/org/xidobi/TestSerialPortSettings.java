@@ -93,6 +93,7 @@ public class TestSerialPortSettings {
 		assertThat(result.getFlowControl(), is(FLOWCONTROL_NONE));
 		assertThat(result.isRTS(), is(true));
 		assertThat(result.isDTR(), is(true));
+		assertThat(result.getMaxPendingWrites(), is(1));
 	}
 
 	/**
@@ -279,4 +280,24 @@ public class TestSerialPortSettings {
 		assertThat(result.isDTR(), is(false));
 	}
 
+
+	/**
+	 * Verifies that a valid {@link SerialPortSettings} is returned, when a valid value for the
+	 * maximum number of pending writes (4) is passed.
+	 */
+	@Test
+	public void create_withMaxPendingWrites() {
+		SerialPortSettings result = builder.maxPendingWrites(4).create();
+
+		assertThat(result.getMaxPendingWrites(), is(4));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when a maximum number of
+	 * pending writes of 0 is passed.
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void create_withMaxPendingWrites0() {
+		builder.maxPendingWrites(0).create();
+	}
 }
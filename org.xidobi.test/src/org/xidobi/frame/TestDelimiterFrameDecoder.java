@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.xidobi.frame.FrameDecoder.INCOMPLETE;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link DelimiterFrameDecoder}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestDelimiterFrameDecoder {
+
+	/** constant for better readability */
+	private static final byte CR = '\r';
+	/** constant for better readability */
+	private static final byte LF = '\n';
+
+	/** the class under test */
+	private final DelimiterFrameDecoder decoder = new DelimiterFrameDecoder(CR, LF);
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the delimiter is empty.
+	 */
+	@Test
+	public void new_emptyDelimiter() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >delimiter< is invalid!");
+
+		new DelimiterFrameDecoder();
+	}
+
+	/**
+	 * Verifies that the frame ends after the delimiter.
+	 */
+	@Test
+	public void decode() {
+		ByteBuffer received = ByteBuffer.wrap(new byte[] { 'a', 'b', CR, LF, 'c' });
+
+		assertThat(decoder.decode(received, false), is(4));
+	}
+
+	/**
+	 * Verifies that the search starts at the position of the buffer.
+	 */
+	@Test
+	public void decode_fromPosition() {
+		ByteBuffer received = ByteBuffer.wrap(new byte[] { CR, LF, 'a', CR, LF });
+		received.position(2);
+
+		assertThat(decoder.decode(received, false), is(3));
+	}
+
+	/**
+	 * Verifies that the frame is incomplete, if only a part of the delimiter was received.
+	 */
+	@Test
+	public void decode_incomplete() {
+		assertThat(decoder.decode(ByteBuffer.wrap(new byte[] { 'a', CR }), false), is(INCOMPLETE));
+		assertThat(decoder.decode(ByteBuffer.wrap(new byte[] { 'a', LF, CR }), false), is(INCOMPLETE));
+	}
+}
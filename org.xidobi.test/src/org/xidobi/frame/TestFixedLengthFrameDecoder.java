@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.xidobi.frame.FrameDecoder.INCOMPLETE;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link FixedLengthFrameDecoder}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestFixedLengthFrameDecoder {
+
+	/** the class under test */
+	private final FixedLengthFrameDecoder decoder = new FixedLengthFrameDecoder(3);
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the frame length is 0.
+	 */
+	@Test
+	public void new_zeroFrameLength() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >frameLength< is invalid!");
+
+		new FixedLengthFrameDecoder(0);
+	}
+
+	/**
+	 * Verifies that the frame is incomplete, until the frame length was received.
+	 */
+	@Test
+	public void decode() {
+		assertThat(decoder.decode(ByteBuffer.wrap(new byte[2]), false), is(INCOMPLETE));
+		assertThat(decoder.decode(ByteBuffer.wrap(new byte[3]), false), is(3));
+		assertThat(decoder.decode(ByteBuffer.wrap(new byte[7]), false), is(3));
+		assertThat(decoder.getIdleTimeout(), is(0L));
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.ReadAheadSerialConnection;
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialPort;
+
+/**
+ * Tests the class {@link FrameReader}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestFrameReader {
+
+	/** constant for better readability */
+	private static final byte LF = '\n';
+
+	/** the class under test */
+	private FrameReader reader;
+
+	@Mock
+	private SerialConnection connection;
+	@Mock
+	private SerialPort port;
+
+	/** the chunks that are returned by the read operations of the connection */
+	private Queue<byte[]> received;
+	/** the buffers passed to the read operations of the connection */
+	private Queue<ByteBuffer> readBuffers;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		received = new LinkedList<byte[]>();
+		readBuffers = new LinkedList<ByteBuffer>();
+		when(connection.getPort()).thenReturn(port);
+		when(port.getPortName()).thenReturn("COM1");
+		doAnswer(receive()).when(connection).read(any(ByteBuffer.class));
+
+		reader = new FrameReader(connection, new DelimiterFrameDecoder(LF), 8);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullDecoder() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >decoder< must not be null!");
+
+		new FrameReader(connection, null, 8);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the decoder completes frames
+	 * by time, but the connection can't read with a timeout.
+	 */
+	@Test
+	public void new_gapDecoderWithoutReadAhead() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< is invalid!");
+
+		new FrameReader(connection, new GapFrameDecoder(5, MILLISECONDS), 8);
+	}
+
+	/**
+	 * Verifies that the connection reads directly into a direct buffer.
+	 */
+	@Test
+	public void readFrame_readsIntoDirectBuffer() throws Exception {
+		received.add(bytes('a', LF));
+
+		reader.readFrame();
+
+		assertThat(readBuffers.poll().isDirect(), is(true));
+	}
+
+	/**
+	 * Verifies that a frame is reassembled from several chunks.
+	 */
+	@Test
+	public void readFrame_reassembled() throws Exception {
+		received.add(bytes('a', 'b'));
+		received.add(bytes('c', LF));
+
+		assertThat(toBytes(reader.readFrame()), is(bytes('a', 'b', 'c', LF)));
+	}
+
+	/**
+	 * Verifies that several frames of one chunk are returned one after another, without reading
+	 * from the connection again.
+	 */
+	@Test
+	public void readFrame_severalFramesInOneChunk() throws Exception {
+		received.add(bytes('a', LF, 'b', LF, 'c'));
+		received.add(bytes(LF));
+
+		assertThat(toBytes(reader.readFrame()), is(bytes('a', LF)));
+		assertThat(toBytes(reader.readFrame()), is(bytes('b', LF)));
+		assertThat(received.size(), is(1));
+		assertThat(toBytes(reader.readFrame()), is(bytes('c', LF)));
+	}
+
+	/**
+	 * Verifies that the returned frame is a slice, that starts at position 0.
+	 */
+	@Test
+	public void readFrame_slice() throws Exception {
+		received.add(bytes('a', LF, 'b', LF));
+		reader.readFrame();
+
+		ByteBuffer frame = reader.readFrame();
+
+		assertThat(frame.position(), is(0));
+		assertThat(frame.limit(), is(2));
+		assertThat(frame.get(0), is((byte) 'b'));
+	}
+
+	/**
+	 * Verifies that the bytes of an incomplete frame are moved to the start of the buffer, when
+	 * the end of the buffer is reached.
+	 */
+	@Test
+	public void readFrame_makesSpace() throws Exception {
+		received.add(bytes('a', 'b', 'c', LF, 'd', 'e', 'f', 'g'));
+		received.add(bytes('h', 'i', LF));
+
+		reader.readFrame();
+
+		assertThat(toBytes(reader.readFrame()), is(bytes('d', 'e', 'f', 'g', 'h', 'i', LF)));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if a frame doesn't fit into the buffer, and
+	 * that the next frame is read afterwards.
+	 */
+	@Test
+	public void readFrame_frameTooLarge() throws Exception {
+		received.add(bytes('a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'));
+		received.add(bytes('i', LF));
+
+		try {
+			reader.readFrame();
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage(), is("The frame of port COM1 exceeds 8 bytes!"));
+		}
+
+		assertThat(toBytes(reader.readFrame()), is(bytes('i', LF)));
+	}
+
+	/**
+	 * Verifies that the buffered bytes are discarded, if the decoder rejects them.
+	 */
+	@Test
+	public void readFrame_decoderFails() throws Exception {
+		FrameDecoder decoder = mock(FrameDecoder.class);
+		IOException failure = new IOException();
+		when(decoder.decode(any(ByteBuffer.class), eq(false))).thenThrow(failure).thenReturn(1);
+		reader = new FrameReader(connection, decoder, 8);
+		received.add(bytes('a', 'b'));
+		received.add(bytes('c'));
+
+		try {
+			reader.readFrame();
+		}
+		catch (IOException e) {
+			assertThat(e, is(failure));
+		}
+
+		assertThat(toBytes(reader.readFrame()), is(bytes('c')));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the decoder returns a length that exceeds
+	 * the received bytes.
+	 */
+	@Test
+	public void readFrame_invalidLength() throws Exception {
+		FrameDecoder decoder = mock(FrameDecoder.class);
+		when(decoder.decode(any(ByteBuffer.class), eq(false))).thenReturn(3);
+		reader = new FrameReader(connection, decoder, 8);
+		received.add(bytes('a', 'b'));
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The decoder returned an invalid frame length: 3!");
+
+		reader.readFrame();
+	}
+
+	/**
+	 * Verifies that a frame of a time based decoder is completed, when no bytes were received for
+	 * the idle time.
+	 */
+	@Test
+	public void readFrame_gap() throws Exception {
+		ReadAheadSerialConnection readAhead = mock(ReadAheadSerialConnection.class);
+		doAnswer(receive()).when(readAhead).read(any(ByteBuffer.class));
+		doAnswer(receive()).when(readAhead).read(any(ByteBuffer.class), eq(5000000L), eq(NANOSECONDS));
+		reader = new FrameReader(readAhead, new GapFrameDecoder(5, MILLISECONDS), 8);
+		received.add(bytes(1, 2));
+		received.add(bytes(3));
+		received.add(bytes());
+
+		assertThat(toBytes(reader.readFrame()), is(bytes(1, 2, 3)));
+	}
+
+	/**
+	 * Verifies that the read operation of a time based decoder blocks without timeout, until the
+	 * first byte of a frame was received.
+	 */
+	@Test
+	public void readFrame_gapFirstReadBlocks() throws Exception {
+		ReadAheadSerialConnection readAhead = mock(ReadAheadSerialConnection.class);
+		doAnswer(receive()).when(readAhead).read(any(ByteBuffer.class));
+		when(readAhead.read(any(ByteBuffer.class), anyLong(), eq(NANOSECONDS))).thenReturn(0);
+		reader = new FrameReader(readAhead, new GapFrameDecoder(5, MILLISECONDS), 8);
+		received.add(bytes(1));
+
+		assertThat(toBytes(reader.readFrame()), is(bytes(1)));
+		assertThat(received.isEmpty(), is(true));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Returns the given values as bytes. */
+	private static byte[] bytes(int... values) {
+		byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++)
+			result[i] = (byte) values[i];
+		return result;
+	}
+
+	/** Returns the remaining bytes of the given buffer. */
+	private static byte[] toBytes(ByteBuffer buffer) {
+		byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+		return result;
+	}
+
+	/** Puts the next chunk into the buffer. */
+	private Answer<Integer> receive() {
+		return new Answer<Integer>() {
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				ByteBuffer dst = (ByteBuffer) invocation.getArguments()[0];
+				readBuffers.add(dst);
+				byte[] data = received.remove();
+				dst.put(data);
+				return data.length;
+			}
+		};
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.xidobi.frame.FrameDecoder.INCOMPLETE;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link GapFrameDecoder}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestGapFrameDecoder {
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the gap is 0.
+	 */
+	@Test
+	public void new_zeroGap() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >gap< is invalid!");
+
+		new GapFrameDecoder(0, MILLISECONDS);
+	}
+
+	/**
+	 * Verifies that all received bytes are a frame, when the connection is idle.
+	 */
+	@Test
+	public void decode() {
+		GapFrameDecoder decoder = new GapFrameDecoder(5, MILLISECONDS);
+		ByteBuffer received = ByteBuffer.wrap(new byte[3]);
+
+		assertThat(decoder.decode(received, false), is(INCOMPLETE));
+		assertThat(decoder.decode(received, true), is(3));
+		assertThat(decoder.getIdleTimeout(), is(5000000L));
+	}
+
+	/**
+	 * Verifies that the gap of Modbus RTU is 3.5 character times of 11 bits.
+	 */
+	@Test
+	public void forModbusRtu() {
+		assertThat(GapFrameDecoder.forModbusRtu(9600).getIdleTimeout(), is(4010416L));
+		assertThat(GapFrameDecoder.forModbusRtu(19200).getIdleTimeout(), is(2005208L));
+	}
+
+	/**
+	 * Verifies that the gap of Modbus RTU is 1.75 milliseconds above 19200 baud.
+	 */
+	@Test
+	public void forModbusRtu_fixedGap() {
+		assertThat(GapFrameDecoder.forModbusRtu(115200).getIdleTimeout(), is(1750000L));
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static java.nio.ByteOrder.BIG_ENDIAN;
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.xidobi.frame.FrameDecoder.INCOMPLETE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link LengthFieldFrameDecoder}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestLengthFieldFrameDecoder {
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the length of the length
+	 * field is not supported.
+	 */
+	@Test
+	public void new_invalidLengthFieldLength() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >lengthFieldLength< is invalid! Expected 1, 2 or 4!");
+
+		new LengthFieldFrameDecoder(0, 3, 0, BIG_ENDIAN);
+	}
+
+	/**
+	 * Verifies that the length of the frame is read from an unsigned length field after the
+	 * offset.
+	 */
+	@Test
+	public void decode_oneByte() throws Exception {
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 1, 0, BIG_ENDIAN);
+		ByteBuffer received = ByteBuffer.allocate(300);
+		received.put(1, (byte) 0xff);
+
+		assertThat(decoder.decode(received, false), is(257));
+	}
+
+	/**
+	 * Verifies that the byte order and the length adjustment are applied.
+	 */
+	@Test
+	public void decode_twoBytesLittleEndian() throws Exception {
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 2, 2, LITTLE_ENDIAN);
+		ByteBuffer received = ByteBuffer.wrap(new byte[] { 3, 0, 1, 2, 3, 4, 5, 6 });
+
+		assertThat(decoder.decode(received, false), is(7));
+		assertThat(received.order(), is(BIG_ENDIAN));
+	}
+
+	/**
+	 * Verifies that the length field is read relative to the position of the buffer.
+	 */
+	@Test
+	public void decode_fromPosition() throws Exception {
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 4, 0, BIG_ENDIAN);
+		ByteBuffer received = ByteBuffer.wrap(new byte[] { 9, 0, 0, 0, 1, 7 });
+		received.position(1);
+
+		assertThat(decoder.decode(received, false), is(5));
+	}
+
+	/**
+	 * Verifies that the frame is incomplete, until the header and all bytes of the frame were
+	 * received.
+	 */
+	@Test
+	public void decode_incomplete() throws Exception {
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(1, 1, 0, BIG_ENDIAN);
+
+		assertThat(decoder.decode(ByteBuffer.wrap(new byte[] { 0 }), false), is(INCOMPLETE));
+		assertThat(decoder.decode(ByteBuffer.wrap(new byte[] { 0, 2, 0 }), false), is(INCOMPLETE));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the frame would be shorter than its
+	 * header.
+	 */
+	@Test
+	public void decode_invalidLength() throws Exception {
+		LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(0, 1, -2, BIG_ENDIAN);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The length field of the frame is invalid, the frame would have 0 bytes!");
+
+		decoder.decode(ByteBuffer.wrap(new byte[] { 1 }), false);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link BasicFuture}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestBasicFuture {
+
+	/** constant for better readability */
+	private static final IOException IO_EXCEPTION = new IOException();
+
+	/** the class under test */
+	private BasicFuture<String> future;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		future = new BasicFuture<String>();
+	}
+
+	/**
+	 * Verifies that a new future is not done.
+	 */
+	@Test
+	public void new_isNotDone() {
+		assertThat(future.isDone(), is(false));
+		assertThat(future.isCancelled(), is(false));
+	}
+
+	/**
+	 * Verifies that the result of a completed future is returned.
+	 */
+	@Test
+	public void complete() throws Exception {
+		assertThat(future.complete("result"), is(true));
+
+		assertThat(future.isDone(), is(true));
+		assertThat(future.get(), is("result"));
+	}
+
+	/**
+	 * Verifies that a future can be completed only once.
+	 */
+	@Test
+	public void complete_twice() throws Exception {
+		future.complete("first");
+
+		assertThat(future.complete("second"), is(false));
+		assertThat(future.fail(IO_EXCEPTION), is(false));
+		assertThat(future.get(), is("first"));
+	}
+
+	/**
+	 * Verifies that the failure of a failed future is thrown as cause of an
+	 * {@link ExecutionException}.
+	 */
+	@Test
+	public void fail() throws Exception {
+		assertThat(future.fail(IO_EXCEPTION), is(true));
+
+		try {
+			future.get();
+			org.junit.Assert.fail("ExecutionException expected!");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause(), is(sameInstance((Throwable) IO_EXCEPTION)));
+		}
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>null</code> is
+	 * passed.
+	 */
+	@Test
+	public void fail_null() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >cause< must not be null!");
+
+		future.fail(null);
+	}
+
+	/**
+	 * Verifies that a {@link CancellationException} is thrown by a cancelled future.
+	 */
+	@Test
+	public void cancel() throws Exception {
+		assertThat(future.cancel(true), is(true));
+
+		assertThat(future.isCancelled(), is(true));
+		assertThat(future.complete("result"), is(false));
+		exception.expect(CancellationException.class);
+		future.get();
+	}
+
+	/**
+	 * Verifies that a completed future can't be cancelled.
+	 */
+	@Test
+	public void cancel_completed() throws Exception {
+		future.complete(null);
+
+		assertThat(future.cancel(true), is(false));
+		assertThat(future.get(), is(nullValue()));
+	}
+
+	/**
+	 * Verifies that a {@link TimeoutException} is thrown, when the future isn't completed within
+	 * the timeout.
+	 */
+	@Test(timeout = 1000)
+	public void get_timeout() throws Exception {
+		exception.expect(TimeoutException.class);
+
+		future.get(10, MILLISECONDS);
+	}
+
+	/**
+	 * Verifies that {@link BasicFuture#get()} waits until the future is completed by another
+	 * thread.
+	 */
+	@Test(timeout = 1000)
+	public void get_completedByOtherThread() throws Exception {
+		new Thread() {
+			@Override
+			public void run() {
+				future.complete("result");
+			}
+		}.start();
+
+		assertThat(future.get(), is("result"));
+	}
+}
@@ -15,16 +15,23 @@
  */
 package org.xidobi.spi;
 
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
 import static junit.framework.Assert.fail;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.management.ObjectName;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -99,6 +106,27 @@ public class TestBasicSerialConnection {
 		assertThat(result, is(portHandle));
 	}
 
+	/**
+	 * Verifies that the stream and channel views are created once per connection.
+	 */
+	@Test
+	public void views_sameInstance() {
+		assertThat(port.getChannel(), is(sameInstance(port.getChannel())));
+		assertThat(port.getInputStream(), is(sameInstance(port.getInputStream())));
+		assertThat(port.getOutputStream(), is(sameInstance(port.getOutputStream())));
+	}
+
+	/**
+	 * Verifies that closing the channel view closes the connection.
+	 */
+	@Test
+	public void getChannel_closeClosesConnection() throws Exception {
+		port.getChannel().close();
+
+		assertThat(port.isClosed(), is(true));
+		assertThat(port.getChannel().isOpen(), is(false));
+	}
+
 	/**
 	 * Verifies that the read and write operation are closed and disposed, when the connection is
 	 * closed.
@@ -273,7 +301,7 @@ public class TestBasicSerialConnection {
 		exception.expect(IllegalArgumentException.class);
 		exception.expectMessage("Argument >data< must not be null!");
 
-		port.write(null);
+		port.write((byte[]) null);
 	}
 
 	/**
@@ -351,6 +379,8 @@ public class TestBasicSerialConnection {
 	 */
 	@Test
 	public void read_delegate() throws IOException {
+		when(reader.read()).thenReturn(BYTES);
+
 		port.read();
 
 		verify(reader).read();
@@ -398,6 +428,305 @@ public class TestBasicSerialConnection {
 		assertThat(port.isClosed(), is(true));
 	}
 
+	/**
+	 * Verifies that an {@link IOException} is thrown when the port is closed.
+	 */
+	@Test
+	public void readByteBuffer_portIsClosed() throws Exception {
+		port.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		port.read(ByteBuffer.allocate(1));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed.
+	 */
+	@Test
+	public void readByteBuffer_nullBuffer() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >dst< must not be null!");
+
+		port.read((ByteBuffer) null);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when a read-only buffer is
+	 * passed.
+	 */
+	@Test
+	public void readByteBuffer_readOnlyBuffer() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >dst< is invalid! Expected a writable buffer!");
+
+		port.read(ByteBuffer.allocate(1).asReadOnlyBuffer());
+	}
+
+	/**
+	 * Verifies that {@link SerialConnection#read(ByteBuffer)} returns 0 without reading from the
+	 * port, when the buffer has no bytes remaining.
+	 */
+	@Test
+	public void readByteBuffer_noRemaining() throws Exception {
+		ByteBuffer dst = ByteBuffer.allocate(0);
+
+		int result = port.read(dst);
+
+		assertThat(result, is(0));
+		verify(reader, never()).read(dst);
+	}
+
+	/**
+	 * Verifies that {@link SerialConnection#read(ByteBuffer)} is delegated to
+	 * {@link Reader#read(ByteBuffer)} if the port is not closed.
+	 */
+	@Test
+	public void readByteBuffer_delegate() throws Exception {
+		ByteBuffer dst = ByteBuffer.allocate(1);
+		when(reader.read(dst)).thenReturn(1);
+
+		int result = port.read(dst);
+
+		assertThat(result, is(1));
+	}
+
+	/**
+	 * Verifies that in case of an {@link IOException} the port will be closed
+	 */
+	@Test
+	public void readByteBuffer_closePortOnIOException() throws Exception {
+		ByteBuffer dst = ByteBuffer.allocate(1);
+		doThrow(IO_EXCEPTION).when(reader).read(dst);
+
+		try {
+			port.read(dst);
+			fail("expected an IOException");
+		}
+		catch (IOException ignore) {}
+
+		verify(reader).close();
+		verify(writer).close();
+		verify(portInternal).closeInternal();
+		verify(reader).dispose();
+		verify(writer).dispose();
+		assertThat(port.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the offset is negative.
+	 */
+	@Test
+	public void writeRange_negativeOffset() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >offset< is invalid! Expected a value between 0 and data.length!");
+
+		port.write(new byte[2], -1, 1);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the range exceeds the
+	 * array.
+	 */
+	@Test
+	public void writeRange_lengthTooLarge() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >length< is invalid! Expected a value between 0 and data.length - offset!");
+
+		port.write(new byte[2], 1, 2);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when the port is closed.
+	 */
+	@Test
+	public void writeRange_portIsClosed() throws Exception {
+		port.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		port.write(new byte[2], 0, 2);
+	}
+
+	/**
+	 * Verifies that {@link SerialConnection#write(byte[], int, int)} delegates to the
+	 * {@link Writer}.
+	 */
+	@Test
+	public void writeRange_delegate() throws Exception {
+		byte[] data = new byte[3];
+
+		port.write(data, 1, 2);
+
+		verify(writer).write(data, 1, 2);
+	}
+
+	/**
+	 * Verifies that in case of an {@link IOException} the port will be closed
+	 */
+	@Test
+	public void writeRange_closePortOnIOException() throws Exception {
+		byte[] data = new byte[3];
+		doThrow(IO_EXCEPTION).when(writer).write(data, 1, 2);
+
+		try {
+			port.write(data, 1, 2);
+			fail("expected an IOException");
+		}
+		catch (IOException ignore) {}
+
+		verify(portInternal).closeInternal();
+		assertThat(port.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the array of buffers is
+	 * <code>null</code>.
+	 */
+	@Test
+	public void writeByteBuffers_null() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >srcs< must not be null!");
+
+		port.write((ByteBuffer[]) null);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when one of the buffers is
+	 * <code>null</code>.
+	 */
+	@Test
+	public void writeByteBuffers_nullElement() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >srcs< must not be null!");
+
+		port.write(ByteBuffer.allocate(1), null);
+	}
+
+	/**
+	 * Verifies that {@link SerialConnection#write(ByteBuffer...)} delegates to the {@link Writer}.
+	 */
+	@Test
+	public void writeByteBuffers_delegate() throws Exception {
+		ByteBuffer[] srcs = { ByteBuffer.allocate(1), ByteBuffer.allocate(2) };
+
+		port.write(srcs);
+
+		verify(writer).write(srcs);
+	}
+
+	/**
+	 * Verifies that in case of an {@link IOException} the port will be closed
+	 */
+	@Test
+	public void writeByteBuffers_closePortOnIOException() throws Exception {
+		ByteBuffer[] srcs = { ByteBuffer.allocate(1) };
+		doThrow(IO_EXCEPTION).when(writer).write(srcs);
+
+		try {
+			port.write(srcs);
+			fail("expected an IOException");
+		}
+		catch (IOException ignore) {}
+
+		verify(portInternal).closeInternal();
+		assertThat(port.isClosed(), is(true));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> metrics
+	 * are passed to the constructor.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_nullMetrics() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >metrics< must not be null!");
+
+		new BasicSerialConnection(portHandle, reader, writer, null);
+	}
+
+	/**
+	 * Verifies that the read operations are recorded in the metrics.
+	 */
+	@Test
+	public void read_recordsMetrics() throws Exception {
+		when(reader.read()).thenReturn(new byte[3]);
+		when(reader.read(any(ByteBuffer.class))).thenReturn(2);
+
+		port.read();
+		port.read(ByteBuffer.allocate(5));
+
+		SerialConnectionMetrics metrics = port.getMetrics();
+		assertThat(metrics.getBytesRead(), is(5L));
+		assertThat(metrics.getReadOperations(), is(2L));
+		assertThat(metrics.getBytesPerRead().getMax(), is(3L));
+		assertThat(metrics.getReadWaitTime().getCount(), is(2L));
+	}
+
+	/**
+	 * Verifies that a failed read operation is not recorded in the metrics.
+	 */
+	@Test
+	public void read_failureNotRecorded() throws Exception {
+		doThrow(IO_EXCEPTION).when(reader).read();
+
+		try {
+			port.read();
+			fail("expected an IOException");
+		}
+		catch (IOException ignore) {}
+
+		assertThat(port.getMetrics().getReadOperations(), is(0L));
+	}
+
+	/**
+	 * Verifies that the write operations are recorded in the metrics.
+	 */
+	@Test
+	public void write_recordsMetrics() throws Exception {
+		port.write(new byte[3]);
+		port.write(new byte[5], 1, 2);
+		port.write(ByteBuffer.allocate(1), ByteBuffer.allocate(4));
+
+		SerialConnectionMetrics metrics = port.getMetrics();
+		assertThat(metrics.getBytesWritten(), is(10L));
+		assertThat(metrics.getWriteOperations(), is(3L));
+		assertThat(metrics.getWriteSubmitTime().getCount(), is(3L));
+	}
+
+	/**
+	 * Verifies that the close duration is recorded, even if the close fails.
+	 */
+	@Test
+	public void close_recordsDuration() throws Exception {
+		doThrow(NATIVE_CODE_EXCEPTION).when(portInternal).closeInternal();
+		assertThat(port.getMetrics().getCloseDuration(), is(-1L));
+
+		try {
+			port.close();
+			fail("expected a NativeCodeException");
+		}
+		catch (NativeCodeException ignore) {}
+
+		assertThat(port.getMetrics().getCloseDuration() >= 0, is(true));
+	}
+
+	/**
+	 * Verifies that the MBean of the metrics is unregistered, when the connection is closed.
+	 */
+	@Test
+	public void close_unregistersMetricsMBean() throws Exception {
+		ObjectName name = port.registerMetricsMBean();
+		assertThat(getPlatformMBeanServer().isRegistered(name), is(true));
+
+		port.close();
+
+		assertThat(getPlatformMBeanServer().isRegistered(name), is(false));
+	}
+
 	/**
 	 * Verifies that {@link AbstractSerialConnection#portClosedException()} returns an
 	 * {@link IOException} with a message 'Port ??? is closed!'.
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialEventHandler;
+import org.xidobi.SerialPort;
+import org.xidobi.SerialSelectionKey;
+import org.xidobi.SerialSelector;
+
+/**
+ * Tests the class {@link BasicSerialSelectionKey}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestBasicSerialSelectionKey {
+
+	/** constant for better readability */
+	private static final IOException IO_EXCEPTION = new IOException();
+
+	/** the class under test */
+	private _BasicSerialSelectionKey key;
+
+	@Mock
+	private SerialSelector selector;
+	@Mock
+	private SerialConnection connection;
+	@Mock
+	private SerialPort port;
+	@Mock
+	private SerialEventHandler handler;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+
+		when(connection.getPort()).thenReturn(port);
+		when(port.getPortName()).thenReturn("COM1");
+
+		key = new _BasicSerialSelectionKey(selector, connection, handler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullHandler() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >handler< must not be null!");
+
+		new _BasicSerialSelectionKey(selector, connection, null);
+	}
+
+	/**
+	 * Verifies that the getters return the values passed to the constructor.
+	 */
+	@Test
+	public void getters() {
+		assertThat(key.getSelector(), is(selector));
+		assertThat(key.getConnection(), is(connection));
+		assertThat(key.isValid(), is(true));
+	}
+
+	/**
+	 * Verifies that the first write is started immediately.
+	 */
+	@Test
+	public void write() throws Exception {
+		ByteBuffer src = ByteBuffer.allocate(2);
+
+		key.write(src);
+
+		assertThat(key.startedWrites.size(), is(1));
+		assertThat(key.startedWrites.get(0), is(sameInstance(src)));
+	}
+
+	/**
+	 * Verifies that a write is not started, before the previous write is completed.
+	 */
+	@Test
+	public void write_queuedUntilCompleted() throws Exception {
+		ByteBuffer first = ByteBuffer.allocate(2);
+		ByteBuffer second = ByteBuffer.allocate(2);
+
+		key.write(first);
+		key.write(second);
+		assertThat(key.startedWrites.size(), is(1));
+
+		key.fireWriteCompleted();
+
+		assertThat(key.startedWrites.size(), is(2));
+		assertThat(key.startedWrites.get(1), is(sameInstance(second)));
+	}
+
+	/**
+	 * Verifies that the completion is dispatched and the position of the buffer is advanced to
+	 * its limit.
+	 */
+	@Test
+	public void fireWriteCompleted() throws Exception {
+		ByteBuffer src = ByteBuffer.allocate(2);
+		key.write(src);
+
+		key.fireWriteCompleted();
+
+		verify(handler).writeCompleted(key, src);
+		assertThat(src.hasRemaining(), is(false));
+	}
+
+	/**
+	 * Verifies that the next write is started, even if the handler throws an exception.
+	 */
+	@Test
+	public void fireWriteCompleted_handlerThrows() throws Exception {
+		ByteBuffer first = ByteBuffer.allocate(2);
+		ByteBuffer second = ByteBuffer.allocate(2);
+		key.write(first);
+		key.write(second);
+		doThrow(new IllegalStateException()).when(handler).writeCompleted(key, first);
+
+		try {
+			key.fireWriteCompleted();
+		}
+		catch (IllegalStateException expected) {}
+
+		assertThat(key.startedWrites.size(), is(2));
+	}
+
+	/**
+	 * Verifies that the key is cancelled and the error is dispatched, if the next write can't be
+	 * started.
+	 */
+	@Test
+	public void fireWriteCompleted_nextWriteFails() throws Exception {
+		key.write(ByteBuffer.allocate(2));
+		key.write(ByteBuffer.allocate(2));
+		key.startWriteFailure = IO_EXCEPTION;
+
+		key.fireWriteCompleted();
+
+		verify(handler).failed(key, IO_EXCEPTION);
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown and the key is cancelled, if the write can't
+	 * be started.
+	 */
+	@Test
+	public void write_startFails() throws Exception {
+		key.startWriteFailure = IO_EXCEPTION;
+
+		try {
+			key.write(ByteBuffer.allocate(2));
+		}
+		catch (IOException e) {
+			assertThat(e, is(IO_EXCEPTION));
+		}
+
+		assertThat(key.isValid(), is(false));
+		assertThat(key.cancelCount, is(1));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the key was cancelled.
+	 */
+	@Test
+	public void write_cancelled() throws Exception {
+		key.cancel();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selection key of port COM1 is not valid!");
+
+		key.write(ByteBuffer.allocate(2));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is
+	 * written.
+	 */
+	@Test
+	public void write_null() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >src< must not be null!");
+
+		key.write(null);
+	}
+
+	/**
+	 * Verifies that {@link BasicSerialSelectionKey#cancelInternal()} is called only once.
+	 */
+	@Test
+	public void cancel_twice() {
+		key.cancel();
+		key.cancel();
+
+		assertThat(key.isValid(), is(false));
+		assertThat(key.cancelCount, is(1));
+	}
+
+	/**
+	 * Verifies that the pending writes are discarded, when the key is cancelled.
+	 */
+	@Test
+	public void cancel_discardsPendingWrites() throws Exception {
+		key.write(ByteBuffer.allocate(2));
+		key.write(ByteBuffer.allocate(2));
+
+		key.cancel();
+		key.fireWriteCompleted();
+
+		assertThat(key.startedWrites.size(), is(1));
+		verify(handler, never()).writeCompleted(any(SerialSelectionKey.class), any(ByteBuffer.class));
+	}
+
+	/**
+	 * Verifies that received data is dispatched only while the key is valid.
+	 */
+	@Test
+	public void fireDataReceived() {
+		ByteBuffer data = ByteBuffer.allocate(2);
+
+		key.fireDataReceived(data);
+		key.cancel();
+		key.fireDataReceived(data);
+
+		verify(handler).dataReceived(key, data);
+	}
+
+	/**
+	 * Verifies that the key is cancelled before the error is dispatched, and that the error is
+	 * dispatched only once.
+	 */
+	@Test
+	public void fireFailed() {
+		key.fireFailed(IO_EXCEPTION);
+		key.fireFailed(IO_EXCEPTION);
+
+		InOrder inOrder = inOrder(handler);
+		inOrder.verify(handler).failed(key, IO_EXCEPTION);
+		inOrder.verifyNoMoreInteractions();
+		assertThat(key.cancelCount, is(1));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Records the started writes and the cancellation. */
+	private static class _BasicSerialSelectionKey extends BasicSerialSelectionKey {
+
+		private final List<ByteBuffer> startedWrites = new ArrayList<ByteBuffer>();
+		private IOException startWriteFailure;
+		private int cancelCount;
+
+		public _BasicSerialSelectionKey(SerialSelector selector,
+										SerialConnection connection,
+										SerialEventHandler handler) {
+			super(selector, connection, handler);
+		}
+
+		@Override
+		protected void startWrite(ByteBuffer src) throws IOException {
+			if (startWriteFailure != null)
+				throw startWriteFailure;
+			startedWrites.add(src);
+		}
+
+		@Override
+		protected void cancelInternal() {
+			cancelCount++;
+		}
+	}
+}
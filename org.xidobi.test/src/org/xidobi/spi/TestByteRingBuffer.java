@@ -0,0 +1,338 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link ByteRingBuffer}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestByteRingBuffer {
+
+	/** constant for better readability */
+	private static final int CAPACITY = 8;
+
+	/** the class under test */
+	private ByteRingBuffer ring;
+
+	/** runs the other side of the ring */
+	private ExecutorService executor;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		ring = new ByteRingBuffer(CAPACITY);
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the capacity isn't a power
+	 * of 2.
+	 */
+	@Test
+	@SuppressWarnings("unused")
+	public void new_invalidCapacity() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >capacity< is invalid! Expected a power of 2!");
+
+		new ByteRingBuffer(6);
+	}
+
+	/**
+	 * Verifies that the whole capacity is writable, when the ring is empty.
+	 */
+	@Test
+	public void writableRegion_empty() {
+		ByteBuffer region = ring.writableRegion();
+
+		assertThat(region.remaining(), is(CAPACITY));
+		assertThat(region.isDirect(), is(true));
+		assertThat(ring.available(), is(0));
+	}
+
+	/**
+	 * Verifies that the published bytes are read in the order they were written.
+	 */
+	@Test
+	public void read() {
+		publish(1, 2, 3);
+
+		byte[] b = new byte[5];
+		int result = ring.read(b, 1, 4);
+
+		assertThat(result, is(3));
+		assertThat(b, is(new byte[] { 0, 1, 2, 3, 0 }));
+		assertThat(ring.available(), is(0));
+	}
+
+	/**
+	 * Verifies that only the remaining bytes of the buffer are read, the other bytes stay readable.
+	 */
+	@Test
+	public void read_byteBuffer() {
+		publish(1, 2, 3);
+
+		ByteBuffer dst = ByteBuffer.allocate(2);
+		int result = ring.read(dst);
+
+		assertThat(result, is(2));
+		assertThat(dst.array(), is(new byte[] { 1, 2 }));
+		assertThat(ring.available(), is(1));
+	}
+
+	/**
+	 * Verifies that 0 is returned, if the ring is empty.
+	 */
+	@Test
+	public void read_empty() {
+		assertThat(ring.read(ByteBuffer.allocate(2)), is(0));
+		assertThat(ring.read(new byte[2], 0, 2), is(0));
+	}
+
+	/**
+	 * Verifies that the writable region ends at the end of the ring, and that bytes which wrap
+	 * around are read in order.
+	 */
+	@Test
+	public void read_wrapAround() {
+		publish(1, 2, 3, 4, 5, 6);
+		ring.read(new byte[6], 0, 6);
+
+		assertThat(ring.writableRegion().remaining(), is(2));
+		publish(7, 8);
+		publish(9, 10, 11);
+
+		ByteBuffer dst = ByteBuffer.allocate(8);
+		int result = ring.read(dst);
+
+		assertThat(result, is(5));
+		assertThat(dst.get(0), is((byte) 7));
+		assertThat(dst.get(4), is((byte) 11));
+	}
+
+	/**
+	 * Verifies that the writable region is empty, when the ring is full, and that it becomes
+	 * writable when bytes were read.
+	 */
+	@Test
+	public void writableRegion_full() {
+		publish(1, 2, 3, 4, 5, 6, 7, 8);
+
+		assertThat(ring.writableRegion().hasRemaining(), is(false));
+
+		ring.read(new byte[3], 0, 3);
+
+		assertThat(ring.writableRegion().remaining(), is(3));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if more bytes are committed
+	 * than free space is available.
+	 */
+	@Test
+	public void commitWrite_tooLarge() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >length< is invalid!");
+
+		ring.writableRegion();
+		ring.commitWrite(CAPACITY + 1);
+	}
+
+	/**
+	 * Verifies that {@link ByteRingBuffer#awaitData()} returns immediately, if bytes are readable.
+	 */
+	@Test
+	public void awaitData_available() throws Exception {
+		publish(1);
+
+		assertThat(ring.awaitData(), is(true));
+	}
+
+	/**
+	 * Verifies that a waiting consumer wakes up, when the producer publishes bytes.
+	 */
+	@Test(timeout = 5000)
+	public void awaitData_wakesUp() throws Exception {
+		Future<Boolean> result = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return ring.awaitData();
+			}
+		});
+		Thread.sleep(20);
+
+		publish(1);
+
+		assertThat(result.get(5, SECONDS), is(true));
+	}
+
+	/**
+	 * Verifies that a waiting consumer wakes up, when the ring is closed, and that bytes which were
+	 * published before are still readable.
+	 */
+	@Test(timeout = 5000)
+	public void awaitData_closed() throws Exception {
+		Future<Boolean> result = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return ring.awaitData();
+			}
+		});
+		Thread.sleep(20);
+
+		ring.close();
+
+		assertThat(result.get(5, SECONDS), is(false));
+		assertThat(ring.isClosed(), is(true));
+
+		publish(1);
+		assertThat(ring.awaitData(), is(true));
+	}
+
+	/**
+	 * Verifies that <code>false</code> is returned, if no bytes were published within the
+	 * timeout.
+	 */
+	@Test(timeout = 5000)
+	public void awaitData_timeout() throws Exception {
+		assertThat(ring.awaitData(10, MILLISECONDS), is(false));
+
+		publish(1);
+
+		assertThat(ring.awaitData(10, MILLISECONDS), is(true));
+	}
+
+	/**
+	 * Verifies that an {@link InterruptedIOException} is thrown, if the waiting thread is
+	 * interrupted.
+	 */
+	@Test
+	public void awaitData_interrupted() throws Exception {
+		Thread.currentThread().interrupt();
+
+		exception.expect(InterruptedIOException.class);
+
+		ring.awaitData();
+	}
+
+	/**
+	 * Verifies that a waiting producer wakes up, when the consumer reads bytes.
+	 */
+	@Test(timeout = 5000)
+	public void awaitSpace_wakesUp() throws Exception {
+		publish(1, 2, 3, 4, 5, 6, 7, 8);
+		Future<Boolean> result = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return ring.awaitSpace();
+			}
+		});
+		Thread.sleep(20);
+
+		ring.read(new byte[1], 0, 1);
+
+		assertThat(result.get(5, SECONDS), is(true));
+	}
+
+	/**
+	 * Verifies that a waiting producer wakes up, when the ring is closed.
+	 */
+	@Test(timeout = 5000)
+	public void awaitSpace_closed() throws Exception {
+		publish(1, 2, 3, 4, 5, 6, 7, 8);
+		Future<Boolean> result = executor.submit(new Callable<Boolean>() {
+			public Boolean call() throws Exception {
+				return ring.awaitSpace();
+			}
+		});
+		Thread.sleep(20);
+
+		ring.close();
+
+		assertThat(result.get(5, SECONDS), is(false));
+	}
+
+	/**
+	 * Verifies that all bytes are transferred in order, while producer and consumer run
+	 * concurrently.
+	 */
+	@Test(timeout = 10000)
+	public void concurrentTransfer() throws Exception {
+		final int count = 100000;
+		Future<?> producer = executor.submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				for (int i = 0; i < count;) {
+					ByteBuffer region = ring.writableRegion();
+					if (!region.hasRemaining()) {
+						ring.awaitSpace();
+						continue;
+					}
+					int length = 0;
+					while (region.hasRemaining() && i < count) {
+						region.put((byte) i++);
+						length++;
+					}
+					ring.commitWrite(length);
+				}
+				return null;
+			}
+		});
+
+		byte[] b = new byte[CAPACITY];
+		int expected = 0;
+		while (expected < count) {
+			ring.awaitData();
+			int length = ring.read(b, 0, b.length);
+			for (int i = 0; i < length; i++)
+				assertThat(b[i], is((byte) expected++));
+		}
+		producer.get();
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Puts the given bytes into the writable region and publishes them. */
+	private void publish(int... bytes) {
+		ByteBuffer region = ring.writableRegion();
+		for (int b : bytes)
+			region.put((byte) b);
+		ring.commitWrite(bytes.length);
+	}
+}
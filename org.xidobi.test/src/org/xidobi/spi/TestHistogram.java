@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link Histogram}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestHistogram {
+
+	/** the class under test */
+	private Histogram histogram;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		histogram = new Histogram();
+	}
+
+	/**
+	 * Verifies that an empty histogram returns 0 for all values.
+	 */
+	@Test
+	public void empty() {
+		assertThat(histogram.getCount(), is(0L));
+		assertThat(histogram.getMax(), is(0L));
+		assertThat(histogram.getMean(), is(0.0));
+		assertThat(histogram.getValueAtPercentile(99), is(0L));
+	}
+
+	/**
+	 * Verifies that count, max and mean are exact.
+	 */
+	@Test
+	public void record() {
+		histogram.record(1);
+		histogram.record(2);
+		histogram.record(1000);
+
+		assertThat(histogram.getCount(), is(3L));
+		assertThat(histogram.getMax(), is(1000L));
+		assertThat(histogram.getMean(), is(1003 / 3.0));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when a negative value is
+	 * recorded.
+	 */
+	@Test
+	public void record_negative() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >value< is invalid!");
+
+		histogram.record(-1);
+	}
+
+	/**
+	 * Verifies that small values are counted exactly.
+	 */
+	@Test
+	public void getValueAtPercentile_smallValues() {
+		for (int i = 1; i <= 10; i++)
+			histogram.record(i);
+
+		assertThat(histogram.getValueAtPercentile(0), is(1L));
+		assertThat(histogram.getValueAtPercentile(50), is(5L));
+		assertThat(histogram.getValueAtPercentile(90), is(9L));
+		assertThat(histogram.getValueAtPercentile(100), is(10L));
+	}
+
+	/**
+	 * Verifies that the relative error of large values is below 1/16.
+	 */
+	@Test
+	public void getValueAtPercentile_largeValues() {
+		for (int i = 0; i < 99; i++)
+			histogram.record(1000);
+		histogram.record(1000000);
+
+		long p50 = histogram.getValueAtPercentile(50);
+		assertThat(p50 >= 1000 && p50 < 1000 + 1000 / 16, is(true));
+		assertThat(histogram.getValueAtPercentile(100), is(1000000L));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the percentile is out of
+	 * range.
+	 */
+	@Test
+	public void getValueAtPercentile_invalid() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >percentile< is invalid!");
+
+		histogram.getValueAtPercentile(100.1);
+	}
+
+	/**
+	 * Verifies that every value is counted by a bucket, whose upper bound is greater than or equal
+	 * to the value, and that the buckets are contiguous.
+	 */
+	@Test
+	public void indexOf() {
+		long[] values = { 0, 15, 16, 17, 31, 32, 1000, 1L << 40, Long.MAX_VALUE };
+		for (long value : values) {
+			int index = Histogram.indexOf(value);
+			assertThat(Histogram.highestValueOf(index) >= value, is(true));
+			if (index > 0)
+				assertThat(Histogram.highestValueOf(index - 1) < value, is(true));
+		}
+		assertThat(Histogram.highestValueOf(Histogram.indexOf(Long.MAX_VALUE)), is(Long.MAX_VALUE));
+	}
+}
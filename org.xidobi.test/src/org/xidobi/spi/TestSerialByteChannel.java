@@ -0,0 +1,240 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.SerialConnection;
+
+/**
+ * Tests the class {@link SerialByteChannel}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestSerialByteChannel {
+
+	/** the bytes that are received */
+	private static final byte[] DATA = { 1, 2, 3, 4, 5 };
+
+	/** the class under test */
+	private SerialByteChannel channel;
+
+	@Mock
+	private SerialConnection connection;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		doAnswer(receive(DATA)).when(connection).read(any(ByteBuffer.class));
+
+		channel = new SerialByteChannel(connection, 8);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_nullConnection() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< must not be null!");
+
+		new SerialByteChannel(null);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when the buffer size is 0.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_invalidBufferSize() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >bufferSize< is invalid!");
+
+		new SerialByteChannel(connection, 0);
+	}
+
+	/**
+	 * Verifies that a direct buffer is passed to the connection, so the data isn't copied.
+	 */
+	@Test
+	public void read_directBuffer() throws Exception {
+		ByteBuffer dst = ByteBuffer.allocateDirect(10);
+
+		int result = channel.read(dst);
+
+		assertThat(result, is(DATA.length));
+		verify(connection).read(dst);
+		assertThat(channel.available(), is(0));
+	}
+
+	/**
+	 * Verifies that the data is read into the internal buffer and copied into a heap buffer.
+	 */
+	@Test
+	public void read_heapBuffer() throws Exception {
+		ByteBuffer dst = ByteBuffer.allocate(10);
+
+		int result = channel.read(dst);
+
+		assertThat(result, is(DATA.length));
+		assertThat(dst.position(), is(DATA.length));
+		assertThat(dst.get(0), is((byte) 1));
+		assertThat(dst.get(4), is((byte) 5));
+		verify(connection, never()).read(dst);
+	}
+
+	/**
+	 * Verifies that the bytes that don't fit into the buffer are returned by the next read
+	 * operation, without reading from the connection.
+	 */
+	@Test
+	public void read_remainingBytesAreBuffered() throws Exception {
+		ByteBuffer first = ByteBuffer.allocate(3);
+		ByteBuffer second = ByteBuffer.allocateDirect(10);
+
+		channel.read(first);
+		assertThat(channel.available(), is(2));
+		int result = channel.read(second);
+
+		assertThat(result, is(2));
+		assertThat(second.get(0), is((byte) 4));
+		assertThat(second.get(1), is((byte) 5));
+		verify(connection, times(1)).read(any(ByteBuffer.class));
+	}
+
+	/**
+	 * Verifies that 0 is returned, if the buffer has no bytes remaining.
+	 */
+	@Test
+	public void read_noRemaining() throws Exception {
+		int result = channel.read(ByteBuffer.allocate(0));
+
+		assertThat(result, is(0));
+		verify(connection, never()).read(any(ByteBuffer.class));
+	}
+
+	/**
+	 * Verifies that a {@link ClosedChannelException} is thrown, when the connection is closed.
+	 */
+	@Test
+	public void read_closed() throws Exception {
+		when(connection.isClosed()).thenReturn(true);
+
+		exception.expect(ClosedChannelException.class);
+
+		channel.read(ByteBuffer.allocate(1));
+	}
+
+	/**
+	 * Verifies that the internal buffer stays empty, if the read operation fails.
+	 */
+	@Test
+	public void read_fails() throws Exception {
+		IOException failure = new IOException();
+		doThrow(failure).when(connection).read(any(ByteBuffer.class));
+
+		try {
+			channel.read(ByteBuffer.allocate(1));
+		}
+		catch (IOException e) {
+			assertThat(e, is(failure));
+		}
+
+		assertThat(channel.available(), is(0));
+	}
+
+	/**
+	 * Verifies that the write operation is delegated and returns the number of written bytes.
+	 */
+	@Test
+	public void write() throws Exception {
+		ByteBuffer src = ByteBuffer.allocate(4);
+
+		int result = channel.write(src);
+
+		assertThat(result, is(4));
+		verify(connection).write(src);
+	}
+
+	/**
+	 * Verifies that a {@link ClosedChannelException} is thrown, when the connection is closed.
+	 */
+	@Test
+	public void write_closed() throws Exception {
+		when(connection.isClosed()).thenReturn(true);
+
+		exception.expect(ClosedChannelException.class);
+
+		channel.write(ByteBuffer.allocate(1));
+	}
+
+	/**
+	 * Verifies that the channel is open as long as the connection is open, and that closing the
+	 * channel closes the connection.
+	 */
+	@Test
+	public void close() throws Exception {
+		assertThat(channel.isOpen(), is(true));
+
+		channel.close();
+
+		verify(connection).close();
+		when(connection.isClosed()).thenReturn(true);
+		assertThat(channel.isOpen(), is(false));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Puts as many of the given bytes into the buffer as fit. */
+	private Answer<Integer> receive(final byte[] data) {
+		return new Answer<Integer>() {
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				ByteBuffer dst = (ByteBuffer) invocation.getArguments()[0];
+				int length = Math.min(dst.remaining(), data.length);
+				dst.put(data, 0, length);
+				return length;
+			}
+		};
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link SerialConnectionMetrics}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestSerialConnectionMetrics {
+
+	/** the class under test */
+	private SerialConnectionMetrics metrics;
+
+	@Before
+	public void setUp() {
+		metrics = new SerialConnectionMetrics();
+	}
+
+	/**
+	 * Verifies that the read operations are counted.
+	 */
+	@Test
+	public void recordRead() {
+		metrics.recordRead(2, 100);
+		metrics.recordRead(4, 300);
+
+		assertThat(metrics.getBytesRead(), is(6L));
+		assertThat(metrics.getReadOperations(), is(2L));
+		assertThat(metrics.getMeanBytesPerRead(), is(3.0));
+		assertThat(metrics.getReadWaitTime().getMax(), is(300L));
+	}
+
+	/**
+	 * Verifies that the write operations are counted.
+	 */
+	@Test
+	public void recordWrite() {
+		metrics.recordWrite(2, 100);
+		metrics.recordWrite(4, 300);
+
+		assertThat(metrics.getBytesWritten(), is(6L));
+		assertThat(metrics.getWriteOperations(), is(2L));
+		assertThat(metrics.getMaxWriteSubmitTime(), is(300L));
+		assertThat(metrics.getWriteLatency().getCount(), is(0L));
+	}
+
+	/**
+	 * Verifies that the completion latency of the write operations is recorded separately from
+	 * their submit time.
+	 */
+	@Test
+	public void recordWriteCompletion() {
+		metrics.recordWrite(2, 100);
+		metrics.recordWriteCompletion(500);
+
+		assertThat(metrics.getWriteOperations(), is(1L));
+		assertThat(metrics.getMaxWriteSubmitTime(), is(100L));
+		assertThat(metrics.getMaxWriteLatency(), is(500L));
+		assertThat(metrics.getWriteSubmitTime().getCount(), is(1L));
+	}
+
+	/**
+	 * Verifies that the error flags are combined and that reports without errors are ignored.
+	 */
+	@Test
+	public void recordCommErrors() {
+		metrics.recordCommErrors(0x1);
+		metrics.recordCommErrors(0);
+		metrics.recordCommErrors(0x8);
+
+		assertThat(metrics.getCommErrors(), is(0x9));
+		assertThat(metrics.getCommErrorCount(), is(2L));
+	}
+
+	/**
+	 * Verifies that the close duration is -1, until the close is recorded.
+	 */
+	@Test
+	public void recordClose() {
+		assertThat(metrics.getCloseDuration(), is(-1L));
+
+		metrics.recordClose(123);
+
+		assertThat(metrics.getCloseDuration(), is(123L));
+	}
+
+	/**
+	 * Verifies that the MBean is registered with the port name and exposes the metrics.
+	 */
+	@Test
+	public void registerMBean() throws Exception {
+		metrics.recordRead(2, 100);
+
+		ObjectName name = metrics.registerMBean("COM1");
+		try {
+			assertThat(name, is(new ObjectName("org.xidobi:type=SerialConnection,port=\"COM1\"")));
+			assertThat((Long) getPlatformMBeanServer().getAttribute(name, "BytesRead"), is(2L));
+		}
+		finally {
+			metrics.unregisterMBean();
+		}
+		assertThat(getPlatformMBeanServer().isRegistered(name), is(false));
+	}
+
+	/**
+	 * Verifies that unregistering does nothing, if the MBean was not registered or was already
+	 * unregistered.
+	 */
+	@Test
+	public void unregisterMBean_notRegistered() throws Exception {
+		metrics.unregisterMBean();
+
+		ObjectName name = metrics.registerMBean("COM1");
+		getPlatformMBeanServer().unregisterMBean(name);
+		metrics.unregisterMBean();
+	}
+}
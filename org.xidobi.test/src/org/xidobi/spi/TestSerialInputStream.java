@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.SerialConnection;
+
+/**
+ * Tests the class {@link SerialInputStream}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestSerialInputStream {
+
+	/** the bytes that are received */
+	private static final byte[] DATA = { (byte) 0xff, 2, 3 };
+
+	/** the class under test */
+	private SerialInputStream in;
+
+	@Mock
+	private SerialConnection connection;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		doAnswer(new Answer<Integer>() {
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				((ByteBuffer) invocation.getArguments()[0]).put(DATA);
+				return DATA.length;
+			}
+		}).when(connection).read(any(ByteBuffer.class));
+
+		in = new SerialInputStream(new SerialByteChannel(connection));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_nullChannel() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >channel< must not be null!");
+
+		new SerialInputStream(null);
+	}
+
+	/**
+	 * Verifies that single bytes are returned as unsigned values and the remaining bytes are
+	 * available without blocking.
+	 */
+	@Test
+	public void read() throws Exception {
+		assertThat(in.read(), is(0xff));
+		assertThat(in.available(), is(2));
+		assertThat(in.read(), is(2));
+		assertThat(in.read(), is(3));
+		assertThat(in.available(), is(0));
+	}
+
+	/**
+	 * Verifies that the bytes are read into the given range of the array.
+	 */
+	@Test
+	public void read_array() throws Exception {
+		byte[] b = new byte[5];
+
+		int result = in.read(b, 1, 4);
+
+		assertThat(result, is(3));
+		assertThat(b, is(new byte[] { 0, (byte) 0xff, 2, 3, 0 }));
+	}
+
+	/**
+	 * Verifies that an {@link IndexOutOfBoundsException} is thrown, if the range is invalid.
+	 */
+	@Test
+	public void read_invalidRange() throws Exception {
+		exception.expect(IndexOutOfBoundsException.class);
+
+		in.read(new byte[5], 2, 4);
+	}
+
+	/**
+	 * Verifies that 0 is returned, if 0 bytes should be read.
+	 */
+	@Test
+	public void read_zeroLength() throws Exception {
+		assertThat(in.read(new byte[5], 2, 0), is(0));
+	}
+
+	/**
+	 * Verifies that closing the stream closes the connection.
+	 */
+	@Test
+	public void close() throws Exception {
+		in.close();
+
+		verify(connection).close();
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.Flushable;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.xidobi.SerialConnection;
+
+/**
+ * Tests the class {@link SerialOutputStream}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestSerialOutputStream {
+
+	/** the class under test */
+	private SerialOutputStream out;
+
+	@Mock
+	private SerialConnection connection;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+
+		out = new SerialOutputStream(connection);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_nullConnection() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< must not be null!");
+
+		new SerialOutputStream(null);
+	}
+
+	/**
+	 * Verifies that a single byte is written.
+	 */
+	@Test
+	public void write() throws Exception {
+		out.write(0x1ff);
+
+		verify(connection).write(new byte[] { (byte) 0xff });
+	}
+
+	/**
+	 * Verifies that the range of the array is written without copying it.
+	 */
+	@Test
+	public void write_array() throws Exception {
+		byte[] b = new byte[5];
+
+		out.write(b, 1, 3);
+
+		verify(connection).write(b, 1, 3);
+	}
+
+	/**
+	 * Verifies that an {@link IndexOutOfBoundsException} is thrown, if the range is invalid.
+	 */
+	@Test
+	public void write_invalidRange() throws Exception {
+		exception.expect(IndexOutOfBoundsException.class);
+
+		out.write(new byte[5], -1, 3);
+	}
+
+	/**
+	 * Verifies that a {@link Flushable} connection is flushed.
+	 */
+	@Test
+	public void flush() throws Exception {
+		SerialConnection flushableConnection = mock(SerialConnection.class, withSettings().extraInterfaces(Flushable.class));
+		out = new SerialOutputStream(flushableConnection);
+
+		out.flush();
+
+		verify((Flushable) flushableConnection).flush();
+	}
+
+	/**
+	 * Verifies that closing the stream closes the connection.
+	 */
+	@Test
+	public void close() throws Exception {
+		out.close();
+
+		verify(connection).close();
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialEventHandler;
+import org.xidobi.SerialPort;
+import org.xidobi.SerialSelectionKey;
+
+/**
+ * Tests the class {@link ThreadedSerialSelector}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestThreadedSerialSelector {
+
+	/** constant for better readability */
+	private static final IOException IO_EXCEPTION = new IOException();
+
+	/** the class under test */
+	private ThreadedSerialSelector selector;
+
+	@Mock
+	private SerialConnection connection;
+	@Mock
+	private SerialPort port;
+	@Mock
+	private SerialEventHandler handler;
+
+	/** the data that is returned by the blocking read of the connection */
+	private BlockingQueue<Object> receivedData = new LinkedBlockingQueue<Object>();
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		when(connection.getPort()).thenReturn(port);
+		when(port.getPortName()).thenReturn("COM1");
+		when(connection.read()).thenAnswer(new Answer<byte[]>() {
+			public byte[] answer(InvocationOnMock invocation) throws Throwable {
+				Object data = receivedData.take();
+				if (data instanceof RuntimeException)
+					throw (RuntimeException) data;
+				if (data instanceof IOException)
+					throw (IOException) data;
+				return (byte[]) data;
+			}
+		});
+
+		selector = new ThreadedSerialSelector();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		selector.close();
+		// releases the reader threads
+		receivedData.add(new IOException());
+	}
+
+	/**
+	 * Verifies that the received data is dispatched by the selecting thread.
+	 */
+	@Test(timeout = 2000)
+	public void select_dataReceived() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+		receivedData.add(new byte[] { 1, 2, 3 });
+
+		assertThat(selector.select(), is(1));
+
+		ArgumentCaptor<ByteBuffer> data = ArgumentCaptor.forClass(ByteBuffer.class);
+		verify(handler).dataReceived(any(SerialSelectionKey.class), data.capture());
+		assertThat(data.getValue(), is(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+		assertThat(key.isValid(), is(true));
+	}
+
+	/**
+	 * Verifies that the key is cancelled and the error is dispatched, if the read fails.
+	 */
+	@Test(timeout = 2000)
+	public void select_readFails() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+		receivedData.add(IO_EXCEPTION);
+
+		assertThat(selector.select(), is(1));
+
+		verify(handler).failed(key, IO_EXCEPTION);
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that the buffer is written by another thread and the completion is dispatched by
+	 * the selecting thread.
+	 */
+	@Test(timeout = 2000)
+	public void select_writeCompleted() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+		ByteBuffer src = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+
+		key.write(src);
+
+		assertThat(selector.select(), is(1));
+		verify(connection).write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+		verify(handler).writeCompleted(key, src);
+		assertThat(src.hasRemaining(), is(false));
+	}
+
+	/**
+	 * Verifies that the key is cancelled and an {@link IOException} is dispatched, if the read
+	 * fails unexpected.
+	 */
+	@Test(timeout = 2000)
+	public void select_readFailsUnexpected() throws Exception {
+		NativeCodeException failure = new NativeCodeException("failed");
+		SerialSelectionKey key = selector.register(connection, handler);
+		receivedData.add(failure);
+
+		assertThat(selector.select(), is(1));
+
+		ArgumentCaptor<IOException> cause = ArgumentCaptor.forClass(IOException.class);
+		verify(handler).failed(eq(key), cause.capture());
+		assertThat(cause.getValue().getMessage(), is("The read operation of port COM1 failed unexpected!"));
+		assertThat(cause.getValue().getCause(), is((Throwable) failure));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that the key is cancelled and the error is dispatched, if the write fails.
+	 */
+	@Test(timeout = 2000)
+	public void select_writeFails() throws Exception {
+		doThrow(IO_EXCEPTION).when(connection).write(any(ByteBuffer.class));
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		key.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+		assertThat(selector.select(), is(1));
+		verify(handler).failed(key, IO_EXCEPTION);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is dispatched, if the write fails unexpected.
+	 */
+	@Test(timeout = 2000)
+	public void select_writeFailsUnexpected() throws Exception {
+		NativeCodeException failure = new NativeCodeException("failed");
+		doThrow(failure).when(connection).write(any(ByteBuffer.class));
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		key.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+
+		assertThat(selector.select(), is(1));
+		ArgumentCaptor<IOException> cause = ArgumentCaptor.forClass(IOException.class);
+		verify(handler).failed(eq(key), cause.capture());
+		assertThat(cause.getValue().getMessage(), is("The write operation of port COM1 failed unexpected!"));
+		assertThat(cause.getValue().getCause(), is((Throwable) failure));
+	}
+
+	/**
+	 * Verifies that <code>select(int)</code> returns <code>0</code>, if no event is available
+	 * within the timeout.
+	 */
+	@Test(timeout = 2000)
+	public void select_timeout() throws Exception {
+		selector.register(connection, handler);
+
+		assertThat(selector.select(10), is(0));
+	}
+
+	/**
+	 * Verifies that {@link ThreadedSerialSelector#wakeup()} causes the blocked selection to
+	 * return.
+	 */
+	@Test(timeout = 2000)
+	public void wakeup() throws Exception {
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					sleep(50);
+				}
+				catch (InterruptedException e) {}
+				selector.wakeup();
+			}
+		}.start();
+
+		assertThat(selector.select(), is(0));
+	}
+
+	/**
+	 * Verifies that no events are dispatched after the key was cancelled.
+	 */
+	@Test(timeout = 2000)
+	public void cancel() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+		receivedData.add(new byte[] { 1 });
+		verify(connection, timeout(1000).times(2)).read();
+
+		key.cancel();
+		selector.select(0);
+
+		verify(handler, never()).dataReceived(any(SerialSelectionKey.class), any(ByteBuffer.class));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that a connection can be registered again, after its key was cancelled.
+	 */
+	@Test(timeout = 2000)
+	public void register_afterCancel() throws Exception {
+		selector.register(connection, handler).cancel();
+
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		assertThat(key.isValid(), is(true));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, if the connection is already
+	 * registered.
+	 */
+	@Test
+	public void register_twice() throws Exception {
+		selector.register(connection, handler);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< is invalid! The connection is already registered!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the connection is closed.
+	 */
+	@Test
+	public void register_closedConnection() throws Exception {
+		when(connection.isClosed()).thenReturn(true);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed.
+	 */
+	@Test
+	public void register_nullHandler() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >handler< must not be null!");
+
+		selector.register(connection, null);
+	}
+
+	/**
+	 * Verifies that all keys are cancelled, when the selector is closed.
+	 */
+	@Test
+	public void close() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		selector.close();
+
+		assertThat(selector.isClosed(), is(true));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the selector was closed.
+	 */
+	@Test
+	public void select_closed() throws Exception {
+		selector.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selector was closed!");
+
+		selector.select();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the selector was closed.
+	 */
+	@Test
+	public void register_closed() throws Exception {
+		selector.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selector was closed!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that a blocked selection returns, when the selector is closed.
+	 */
+	@Test(timeout = 2000)
+	public void close_wakesUpSelect() throws Exception {
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					sleep(50);
+					selector.close();
+				}
+				catch (Exception e) {}
+			}
+		}.start();
+
+		assertThat(selector.select(), is(0));
+	}
+}
@@ -0,0 +1,1006 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.xidobi.structs.DCB.NOPARITY;
+import static org.xidobi.structs.DCB.ONESTOPBIT;
+import static org.xidobi.structs.DCB.TWOSTOPBITS;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.structs.COMSTAT;
+import org.xidobi.structs.DCB;
+import org.xidobi.structs.DWORD;
+import org.xidobi.structs.HKEY;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.NativeByteArray;
+import org.xidobi.structs.OVERLAPPED;
+
+/**
+ * A pure Java implementation of the {@link WinApi}, that simulates serial ports in memory. It
+ * allows to run the whole stack from {@link SerialPortImpl#open(SerialPortSettings)} through the
+ * {@link ReaderImpl} and the {@link WriterImpl} without the native library and without serial
+ * devices.
+ * <p>
+ * The simulated ports are connected pairwise like with a null-modem cable, the bytes written to
+ * one port are received by the other one. The simulation models:
+ * <ul>
+ * <li>overlapped operations with manual-reset events, <code>GetOverlappedResult</code> and
+ * <code>CancelIo</code>,
+ * <li><code>WaitCommEvent</code> for {@link #EV_RXCHAR}, that is aborted by
+ * <code>SetCommMask</code>,
+ * <li>the input queue with <code>cbInQue</code>, <code>cbOutQue</code> and
+ * {@link #CE_RXOVER} if it overflows,
+ * <li><code>PurgeComm</code>,
+ * <li>I/O completion ports, that receive a packet for every completed operation of the associated
+ * ports, including the operations that completed immediately,
+ * <li>the serial ports in the registry, and <code>RegNotifyChangeKeyValue</code>, whose event is
+ * signaled when ports are added.
+ * </ul>
+ * By default every write completes immediately. If the bit rate is emulated, a write is pending
+ * until the bytes were transmitted with the baud rate, data bits, parity and stop bits of the
+ * {@link DCB} of the port.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author Christian Schwarz
+ */
+public class LoopbackWinApi implements WinApi {
+
+	/** the default size of the input queue of a port */
+	private static final int DEFAULT_INPUT_QUEUE_SIZE = 4096;
+
+	/** the simulated ports by their name */
+	private final Map<String, Port> ports = new LinkedHashMap<String, Port>();
+	/** the open ports by their handle */
+	private final Map<Integer, Port> openPorts = new ConcurrentHashMap<Integer, Port>();
+	/** the event objects by their handle */
+	private final Map<Integer, Event> events = new ConcurrentHashMap<Integer, Event>();
+	/** the I/O completion ports by their handle */
+	private final Map<Integer, IoCompletionPort> completionPorts = new HashMap<Integer, IoCompletionPort>();
+	/** the last started operation of an overlapped */
+	private final Map<OVERLAPPED, Operation> operations = new IdentityHashMap<OVERLAPPED, Operation>();
+	/** the events, that are signaled by the next change of the registry */
+	private final Set<Integer> registryNotifications = new HashSet<Integer>();
+
+	/** the allocated memory blocks by their pointer */
+	private final Map<Integer, byte[]> memory = new ConcurrentHashMap<Integer, byte[]>();
+
+	/** the next handle of a port or an event object */
+	private final AtomicInteger nextHandle = new AtomicInteger(0x100);
+	/** the next pointer to allocated memory */
+	private final AtomicInteger nextPointer = new AtomicInteger(0x10000);
+
+	/** the last error code of each thread */
+	private final ThreadLocal<Integer> lastError = new ThreadLocal<Integer>() {
+		@Override
+		protected Integer initialValue() {
+			return ERROR_SUCCESS;
+		}
+	};
+
+	/** <code>true</code>, if the writes are delayed by the transmission time */
+	private boolean isBitRateEmulated;
+	/** <code>true</code>, if the combined read function is reported as available */
+	private boolean isWaitAndReadAvailableSupported;
+	/** completes the writes, when the bit rate is emulated */
+	@Nullable
+	private ScheduledExecutorService transmitter;
+
+	/**
+	 * Adds two ports, that are connected like with a null-modem cable.
+	 * 
+	 * @param portName1
+	 *            the name of the first port, e.g. "COM1", must not be <code>null</code>
+	 * @param portName2
+	 *            the name of the second port, e.g. "COM2", must not be <code>null</code>
+	 */
+	public synchronized void connect(@Nonnull String portName1, @Nonnull String portName2) {
+		Port port1 = new Port(portName1);
+		Port port2 = new Port(portName2);
+		port1.peer = port2;
+		port2.peer = port1;
+		ports.put(portName1, port1);
+		ports.put(portName2, port2);
+		notifyRegistryChanged();
+	}
+
+	/**
+	 * Enables or disables the emulation of the bit rate. If it is enabled, a write is pending until
+	 * all bytes were transmitted, the transmission time is determined by the {@link DCB} of the
+	 * port.
+	 * 
+	 * @param isBitRateEmulated
+	 *            <code>true</code> to delay the writes by the transmission time
+	 */
+	public synchronized void setBitRateEmulated(boolean isBitRateEmulated) {
+		this.isBitRateEmulated = isBitRateEmulated;
+	}
+
+	/**
+	 * Enables or disables the combined read function
+	 * {@link #WaitAndReadAvailable(int, DWORD, DWORD, OVERLAPPED, ByteBuffer, int, INT, COMSTAT)}.
+	 * It must be set before the ports are opened, because the readers decide at creation, whether
+	 * they use it.
+	 * 
+	 * @param isSupported
+	 *            <code>true</code> to report the combined read function as available
+	 */
+	public synchronized void setWaitAndReadAvailableSupported(boolean isSupported) {
+		this.isWaitAndReadAvailableSupported = isSupported;
+	}
+
+	/**
+	 * Sets the size of the input queue of the given port, received bytes that don't fit into the
+	 * queue are discarded.
+	 * 
+	 * @param portName
+	 *            the name of the port, must not be <code>null</code>
+	 * @param size
+	 *            the size of the input queue, must be greater than 0
+	 */
+	public synchronized void setInputQueueSize(@Nonnull String portName, @Nonnegative int size) {
+		ports.get(portName).input = new byte[size];
+	}
+
+	// Ports //////////////////////////////////////////////////////////////////////////////////
+
+	public synchronized int CreateFileA(String lpFileName, int dwDesiredAccess, int dwShareMode, int lpSecurityAttributes, int dwCreationDisposition, int dwFlagsAndAttributes, int hTemplateFile) {
+		Port port = ports.get(lpFileName.replace("\\\\.\\", ""));
+		if (port == null)
+			return fail(ERROR_FILE_NOT_FOUND, INVALID_HANDLE_VALUE);
+		if (port.handle != 0)
+			return fail(ERROR_ACCESS_DENIED, INVALID_HANDLE_VALUE);
+
+		port.handle = nextHandle.getAndIncrement();
+		port.clearInput();
+		port.errors = 0;
+		port.eventMask = 0;
+		port.isRxCharSignaled = false;
+		openPorts.put(port.handle, port);
+		return port.handle;
+	}
+
+	public synchronized boolean CloseHandle(int handle) {
+		if (events.remove(handle) != null)
+			return true;
+
+		IoCompletionPort completionPort = completionPorts.remove(handle);
+		if (completionPort != null) {
+			completionPort.isClosed = true;
+			notifyAll();
+			return true;
+		}
+
+		Port port = openPorts.remove(handle);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		port.abortAll();
+		port.handle = 0;
+		port.completionPort = null;
+		return true;
+	}
+
+	public synchronized boolean GetCommState(int handle, DCB dcb) {
+		Port port = openPorts.get(handle);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		dcb.BaudRate = port.baudRate;
+		dcb.ByteSize = port.byteSize;
+		dcb.Parity = port.parity;
+		dcb.StopBits = port.stopBits;
+		return true;
+	}
+
+	public synchronized boolean SetCommState(int handle, DCB dcb) {
+		Port port = openPorts.get(handle);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+		if (dcb.BaudRate <= 0)
+			return fail(ERROR_INVALID_PARAMETER, false);
+
+		port.baudRate = dcb.BaudRate;
+		port.byteSize = dcb.ByteSize;
+		port.parity = dcb.Parity;
+		port.stopBits = dcb.StopBits;
+		return true;
+	}
+
+	public synchronized boolean SetCommMask(int hFile, int dwEvtMask) {
+		Port port = openPorts.get(hFile);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		port.eventMask = dwEvtMask;
+		port.isRxCharSignaled = false;
+		if (port.pendingWait != null) {
+			// a pending WaitCommEvent completes with an event mask of 0
+			port.pendingWait.eventMask.setValue(0);
+			complete(port.pendingWait, 0, ERROR_SUCCESS);
+			port.pendingWait = null;
+		}
+		return true;
+	}
+
+	public synchronized boolean PurgeComm(int hFile, int dwFlags) {
+		Port port = openPorts.get(hFile);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		if ((dwFlags & PURGE_RXABORT) != 0 && port.pendingRead != null) {
+			complete(port.pendingRead, 0, ERROR_OPERATION_ABORTED);
+			port.pendingRead = null;
+		}
+		if ((dwFlags & PURGE_TXABORT) != 0)
+			port.abortWrites();
+		if ((dwFlags & PURGE_RXCLEAR) != 0)
+			port.clearInput();
+		return true;
+	}
+
+	public synchronized boolean ClearCommError(int hFile, INT lpErrors, COMSTAT lpStat) {
+		Port port = openPorts.get(hFile);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		lpErrors.value = port.errors;
+		port.errors = 0;
+		lpStat.cbInQue = port.inputLength;
+		lpStat.cbOutQue = port.outputLength;
+		return true;
+	}
+
+	public synchronized boolean CancelIo(int hFile) {
+		Port port = openPorts.get(hFile);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		port.abortAll();
+		return true;
+	}
+
+	public synchronized boolean SetCommBreak(int hFile) {
+		return openPorts.containsKey(hFile) || fail(ERROR_INVALID_HANDLE, false);
+	}
+
+	public synchronized boolean ClearCommBreak(int hFile) {
+		return openPorts.containsKey(hFile) || fail(ERROR_INVALID_HANDLE, false);
+	}
+
+	// I/O operations /////////////////////////////////////////////////////////////////////////
+
+	public boolean WriteFile(int handle, @Nonnull byte[] lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped) {
+		byte[] data = new byte[nNumberOfBytesToWrite];
+		System.arraycopy(lpBuffer, 0, data, 0, nNumberOfBytesToWrite);
+		return write(handle, data, lpNumberOfBytesWritten, lpOverlapped);
+	}
+
+	public boolean WriteFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped) {
+		byte[] data = new byte[nNumberOfBytesToWrite];
+		System.arraycopy(block(lpBuffer.address()), 0, data, 0, nNumberOfBytesToWrite);
+		return write(handle, data, lpNumberOfBytesWritten, lpOverlapped);
+	}
+
+	/**
+	 * Transmits the given data to the peer of the port, immediately or after the transmission time
+	 * if the bit rate is emulated.
+	 */
+	private synchronized boolean write(int handle, byte[] data, DWORD numberOfBytesWritten, OVERLAPPED overlapped) {
+		final Port port = openPorts.get(handle);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		if (!isBitRateEmulated) {
+			port.transmit(data);
+			return completeImmediately(port, overlapped, numberOfBytesWritten, data.length);
+		}
+
+		final Operation write = start(port, overlapped, numberOfBytesWritten);
+		write.data = data;
+		port.pendingWrites.add(write);
+		port.outputLength += data.length;
+
+		// the bytes are transmitted one after another, so a write has to wait for the previous ones
+		long now = System.nanoTime();
+		long start = Math.max(now, port.lineBusyUntil);
+		port.lineBusyUntil = start + port.getTransmissionTime(data.length);
+		getTransmitter().schedule(new Runnable() {
+			public void run() {
+				synchronized (LoopbackWinApi.this) {
+					if (write.isCompleted)
+						// the write was aborted
+						return;
+					port.pendingWrites.remove(write);
+					port.outputLength -= write.data.length;
+					port.transmit(write.data);
+					complete(write, write.data.length, ERROR_SUCCESS);
+				}
+			}
+		}, port.lineBusyUntil - now, NANOSECONDS);
+
+		return fail(ERROR_IO_PENDING, false);
+	}
+
+	public synchronized boolean ReadFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped) {
+		return read(handle, block(lpBuffer.address()), null, nNumberOfBytesToRead, lpNumberOfBytesRead, lpOverlapped);
+	}
+
+	public synchronized boolean ReadFile(int handle, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped) {
+		return read(handle, null, lpBuffer, nNumberOfBytesToRead, lpNumberOfBytesRead, lpOverlapped);
+	}
+
+	/**
+	 * Reads the given number of bytes from the input queue into the memory block or the buffer.
+	 * The read is pending, until enough bytes were received.
+	 */
+	private boolean read(int handle, byte[] block, ByteBuffer buffer, int length, DWORD numberOfBytesRead, OVERLAPPED overlapped) {
+		Port port = openPorts.get(handle);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+		if (port.pendingRead != null)
+			return fail(ERROR_INVALID_PARAMETER, false);
+
+		if (port.inputLength >= length) {
+			port.readInput(block, buffer, length);
+			return completeImmediately(port, overlapped, numberOfBytesRead, length);
+		}
+
+		Operation read = start(port, overlapped, numberOfBytesRead);
+		read.block = block;
+		read.buffer = buffer;
+		read.length = length;
+		port.pendingRead = read;
+		return fail(ERROR_IO_PENDING, false);
+	}
+
+	public synchronized boolean WaitCommEvent(int hFile, DWORD lpEvtMask, OVERLAPPED lpOverlapped) {
+		Port port = openPorts.get(hFile);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+		if (port.pendingWait != null)
+			return fail(ERROR_INVALID_PARAMETER, false);
+
+		if (port.isRxCharSignaled) {
+			// bytes were received since the last call
+			port.isRxCharSignaled = false;
+			lpEvtMask.setValue(EV_RXCHAR);
+			return completeImmediately(port, lpOverlapped, null, 0);
+		}
+
+		Operation wait = start(port, lpOverlapped, null);
+		wait.eventMask = lpEvtMask;
+		port.pendingWait = wait;
+		return fail(ERROR_IO_PENDING, false);
+	}
+
+	/**
+	 * Composes the single functions like the native implementation, so the same events and
+	 * completion packets are produced.
+	 */
+	public synchronized int WaitAndReadAvailable(int hFile, @Nonnull DWORD lpEvtMask, @Nonnull DWORD lpCanceled, @Nonnull OVERLAPPED lpOverlapped, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nonnull INT lpErrors, @Nonnull COMSTAT lpStat) {
+		if (!ClearCommError(hFile, lpErrors, lpStat))
+			return -1;
+
+		if (lpStat.cbInQue == 0) {
+			lpEvtMask.setValue(0);
+			if (!ResetEvent(lpOverlapped.hEvent))
+				return -1;
+
+			if (!WaitCommEvent(hFile, lpEvtMask, lpOverlapped)) {
+				if (GetLastError() != ERROR_IO_PENDING)
+					return -1;
+				if (getValue_DWORD(lpCanceled) == 0 && WaitForSingleObject(lpOverlapped.hEvent, INFINITE) == WAIT_FAILED)
+					return -1;
+				if (getValue_DWORD(lpCanceled) != 0 || !HasOverlappedIoCompleted(lpOverlapped))
+					return fail(ERROR_IO_PENDING, -1);
+
+				Operation wait = operations.get(lpOverlapped);
+				if (wait.errorCode != ERROR_SUCCESS)
+					return fail(wait.errorCode, -1);
+			}
+
+			INT errors = new INT(0);
+			if (!ClearCommError(hFile, errors, lpStat))
+				return -1;
+			lpErrors.value |= errors.value;
+
+			if (lpStat.cbInQue == 0)
+				return 0;
+		}
+
+		// the bytes are available, so the read completes immediately
+		int length = Math.min(lpStat.cbInQue, nNumberOfBytesToRead);
+		if (!ReadFile(hFile, lpBuffer, length, null, lpOverlapped))
+			return -1;
+		lpStat.cbInQue -= length;
+		return length;
+	}
+
+	public synchronized boolean isWaitAndReadAvailableSupported() {
+		return isWaitAndReadAvailableSupported;
+	}
+
+	public synchronized boolean GetOverlappedResult(int handle, OVERLAPPED lpOverlapped, DWORD lpNumberOfBytesTransferred, boolean bWait) {
+		Operation operation = operations.get(lpOverlapped);
+		if (operation == null)
+			return fail(ERROR_INVALID_PARAMETER, false);
+
+		while (!operation.isCompleted) {
+			if (!bWait)
+				return fail(ERROR_IO_INCOMPLETE, false);
+			await(0);
+		}
+
+		lpNumberOfBytesTransferred.setValue(operation.numberOfBytesTransferred);
+		if (operation.errorCode != ERROR_SUCCESS)
+			return fail(operation.errorCode, false);
+		return true;
+	}
+
+	public synchronized boolean HasOverlappedIoCompleted(OVERLAPPED lpOverlapped) {
+		Operation operation = operations.get(lpOverlapped);
+		return operation == null || operation.isCompleted;
+	}
+
+	/** Registers a pending operation for the given overlapped, its event is reset. */
+	private Operation start(Port port, OVERLAPPED overlapped, DWORD numberOfBytesTransferred) {
+		Operation operation = new Operation(port, overlapped, numberOfBytesTransferred);
+		operations.put(overlapped, operation);
+		setEventState(overlapped.hEvent, false);
+		return operation;
+	}
+
+	/** Registers an operation that is completed immediately and returns <code>true</code>. */
+	private boolean completeImmediately(Port port, OVERLAPPED overlapped, DWORD numberOfBytesTransferred, int length) {
+		if (numberOfBytesTransferred != null)
+			numberOfBytesTransferred.setValue(length);
+		if (overlapped == null)
+			return true;
+
+		Operation operation = new Operation(port, overlapped, numberOfBytesTransferred);
+		operations.put(overlapped, operation);
+		complete(operation, length, ERROR_SUCCESS);
+		return true;
+	}
+
+	/**
+	 * Completes the given operation and signals its event. A packet is queued to the I/O completion
+	 * port, that the port of the operation was associated with when it was started.
+	 */
+	private void complete(Operation operation, int numberOfBytesTransferred, int errorCode) {
+		operation.isCompleted = true;
+		operation.numberOfBytesTransferred = numberOfBytesTransferred;
+		operation.errorCode = errorCode;
+		if (operation.numberOfBytesTransferredPointer != null && errorCode == ERROR_SUCCESS)
+			operation.numberOfBytesTransferredPointer.setValue(numberOfBytesTransferred);
+		setEventState(operation.hEvent, true);
+
+		IoCompletionPort completionPort = operation.completionPort;
+		if (completionPort != null && !completionPort.isClosed)
+			completionPort.packets.add(new Packet(numberOfBytesTransferred, operation.completionKey, operation.overlappedAddress, errorCode));
+	}
+
+	// Events /////////////////////////////////////////////////////////////////////////////////
+
+	public int CreateEventA(int lpEventAttributes, boolean bManualReset, boolean bInitialState, @Nullable String lpName) {
+		int handle = nextHandle.getAndIncrement();
+		Event event = new Event();
+		event.isSignaled = bInitialState;
+		events.put(handle, event);
+		return handle;
+	}
+
+	public synchronized boolean ResetEvent(int hEvent) {
+		return setEventState(hEvent, false) || fail(ERROR_INVALID_HANDLE, false);
+	}
+
+	public synchronized boolean SetEvent(int hEvent) {
+		return setEventState(hEvent, true) || fail(ERROR_INVALID_HANDLE, false);
+	}
+
+	/** Sets the state of the event and returns <code>false</code> if the handle is invalid. */
+	private boolean setEventState(int hEvent, boolean isSignaled) {
+		Event event = events.get(hEvent);
+		if (event == null)
+			return false;
+		event.isSignaled = isSignaled;
+		if (isSignaled)
+			notifyAll();
+		return true;
+	}
+
+	public synchronized int WaitForSingleObject(int hHandle, int dwMilliseconds) {
+		Event event = events.get(hHandle);
+		if (event == null)
+			return fail(ERROR_INVALID_HANDLE, WAIT_FAILED);
+
+		long deadline = System.currentTimeMillis() + dwMilliseconds;
+		while (!event.isSignaled) {
+			if (dwMilliseconds == INFINITE)
+				await(0);
+			else {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return WAIT_TIMEOUT;
+				await(remaining);
+			}
+		}
+		return WAIT_OBJECT_0;
+	}
+
+	/** Waits until the state of an event or an operation changes. */
+	private void await(long timeout) {
+		try {
+			wait(timeout);
+		}
+		catch (InterruptedException e) {
+			// like a native wait, the wait is not interruptible
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int GetLastError() {
+		return lastError.get();
+	}
+
+	/** Sets the last error code of the current thread and returns the given result. */
+	private <T> T fail(int errorCode, T result) {
+		lastError.set(errorCode);
+		return result;
+	}
+
+	// I/O completion ports ///////////////////////////////////////////////////////////////////
+
+	public synchronized int CreateIoCompletionPort(int FileHandle, int ExistingCompletionPort, int CompletionKey, int NumberOfConcurrentThreads) {
+		if (FileHandle == INVALID_HANDLE_VALUE) {
+			if (ExistingCompletionPort != NULL)
+				return fail(ERROR_INVALID_PARAMETER, NULL);
+			int handle = nextHandle.getAndIncrement();
+			completionPorts.put(handle, new IoCompletionPort());
+			return handle;
+		}
+
+		Port port = openPorts.get(FileHandle);
+		if (port == null)
+			return fail(ERROR_INVALID_HANDLE, NULL);
+		IoCompletionPort completionPort = completionPorts.get(ExistingCompletionPort);
+		if (completionPort == null)
+			return fail(ERROR_INVALID_HANDLE, NULL);
+		if (port.completionPort != null)
+			// a handle can be associated with one I/O completion port only
+			return fail(ERROR_INVALID_PARAMETER, NULL);
+
+		port.completionPort = completionPort;
+		port.completionKey = CompletionKey;
+		return ExistingCompletionPort;
+	}
+
+	public synchronized boolean GetQueuedCompletionStatus(int CompletionPort, @Nonnull INT lpNumberOfBytes, @Nonnull INT lpCompletionKey, @Nonnull INT lpOverlapped, int dwMilliseconds) {
+		lpOverlapped.value = NULL;
+		IoCompletionPort completionPort = completionPorts.get(CompletionPort);
+		if (completionPort == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		long deadline = System.currentTimeMillis() + dwMilliseconds;
+		while (completionPort.packets.isEmpty()) {
+			if (completionPort.isClosed)
+				return fail(ERROR_INVALID_HANDLE, false);
+			if (dwMilliseconds == INFINITE)
+				await(0);
+			else {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return fail(WAIT_TIMEOUT, false);
+				await(remaining);
+			}
+		}
+
+		Packet packet = completionPort.packets.removeFirst();
+		lpNumberOfBytes.value = packet.numberOfBytesTransferred;
+		lpCompletionKey.value = packet.completionKey;
+		lpOverlapped.value = packet.overlappedAddress;
+		if (packet.errorCode != ERROR_SUCCESS)
+			return fail(packet.errorCode, false);
+		return true;
+	}
+
+	public synchronized boolean PostQueuedCompletionStatus(int CompletionPort, int dwNumberOfBytesTransferred, int dwCompletionKey, int lpOverlapped) {
+		IoCompletionPort completionPort = completionPorts.get(CompletionPort);
+		if (completionPort == null)
+			return fail(ERROR_INVALID_HANDLE, false);
+
+		completionPort.packets.add(new Packet(dwNumberOfBytesTransferred, dwCompletionKey, lpOverlapped, ERROR_SUCCESS));
+		notifyAll();
+		return true;
+	}
+
+	// Registry ///////////////////////////////////////////////////////////////////////////////
+
+	public int RegOpenKeyExA(int hKey, String lpSubKey, int ulOptions, int samDesired, HKEY phkResult) {
+		return ERROR_SUCCESS;
+	}
+
+	public int RegCloseKey(HKEY hKey) {
+		return ERROR_SUCCESS;
+	}
+
+	public synchronized int RegNotifyChangeKeyValue(HKEY hKey, boolean bWatchSubtree, int dwNotifyFilter, int hEvent, boolean fAsynchronous) {
+		if (!fAsynchronous)
+			throw new UnsupportedOperationException("Synchronous notifications are not supported!");
+		if (!events.containsKey(hEvent))
+			return ERROR_INVALID_HANDLE;
+		registryNotifications.add(hEvent);
+		return ERROR_SUCCESS;
+	}
+
+	/** Signals the events of the registered notifications, every notification is reported once. */
+	private void notifyRegistryChanged() {
+		for (int hEvent : registryNotifications)
+			setEventState(hEvent, true);
+		registryNotifications.clear();
+	}
+
+	public synchronized int RegEnumValueA(HKEY hKey, int dwIndex, byte[] lpValueName, INT lpcchValueName, int lpReserved, INT lpType, byte[] lpData, INT lpcbData) {
+		if (dwIndex >= ports.size())
+			return ERROR_NO_MORE_ITEMS;
+
+		// the value name is the description of the port, the data is the null terminated name
+		String portName = new ArrayList<String>(ports.keySet()).get(dwIndex);
+		lpcchValueName.value = copyAscii("\\Device\\Loopback" + dwIndex, lpValueName);
+		lpcbData.value = copyAscii(portName + "\0", lpData);
+		return ERROR_SUCCESS;
+	}
+
+	/** Copies the characters of the given string to the given array and returns their number. */
+	private static int copyAscii(String string, byte[] dst) {
+		for (int i = 0; i < string.length(); i++)
+			dst[i] = (byte) string.charAt(i);
+		return string.length();
+	}
+
+	// Error messages /////////////////////////////////////////////////////////////////////////
+
+	public int MAKELANGID(short usPrimaryLanguage, short usSubLanguage) {
+		return (usSubLanguage << 10) | usPrimaryLanguage;
+	}
+
+	public int FormatMessageA(int dwFlags, Void lpSource, int dwMessageId, int dwLanguageId, @Nonnull byte[] lpBuffer, int nSize, Void arguments) {
+		// no message available
+		return 0;
+	}
+
+	// Memory /////////////////////////////////////////////////////////////////////////////////
+
+	public int malloc(@Nonnegative int size) {
+		int pointer = nextPointer.getAndAdd(Math.max(size, 1));
+		memory.put(pointer, new byte[size]);
+		return pointer;
+	}
+
+	public void memset(int ptr, int value, int num) {
+		byte[] block = block(ptr);
+		for (int i = 0; i < num; i++)
+			block[i] = (byte) value;
+	}
+
+	public void free(int pointer) {
+		if (memory.remove(pointer) == null)
+			throw new IllegalStateException("The memory at " + pointer + " is not allocated!");
+	}
+
+	public int sizeOf_OVERLAPPED() {
+		return 20;
+	}
+
+	public int sizeOf_HKEY() {
+		return 4;
+	}
+
+	public int sizeOf_DWORD() {
+		return 4;
+	}
+
+	public byte[] getByteArray(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int length) {
+		byte[] result = new byte[length];
+		System.arraycopy(block(nativeByteArray.address()), 0, result, 0, length);
+		return result;
+	}
+
+	public void setByteArray(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int offset, @Nonnull byte[] data, @Nonnegative int dataOffset, @Nonnegative int length) {
+		System.arraycopy(data, dataOffset, block(nativeByteArray.address()), offset, length);
+	}
+
+	public void setByteBuffer(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int offset, @Nonnull ByteBuffer data, @Nonnegative int length) {
+		// like the native code, the position of the buffer is not modified
+		data.duplicate().get(block(nativeByteArray.address()), offset, length);
+	}
+
+	public int getValue_DWORD(@Nonnull DWORD dword) {
+		byte[] block = block(dword.address());
+		return (block[0] & 0xFF) | (block[1] & 0xFF) << 8 | (block[2] & 0xFF) << 16 | (block[3] & 0xFF) << 24;
+	}
+
+	public void setValue_DWORD(@Nonnull DWORD dword, int value) {
+		byte[] block = block(dword.address());
+		block[0] = (byte) value;
+		block[1] = (byte) (value >> 8);
+		block[2] = (byte) (value >> 16);
+		block[3] = (byte) (value >> 24);
+	}
+
+	/**
+	 * Returns a buffer over the memory block. It isn't direct, but like a direct buffer it shares
+	 * the memory with the other accessors, in the little endian byte order of x86.
+	 */
+	public ByteBuffer newDirectByteBuffer(int address, @Nonnegative int capacity) {
+		ByteBuffer buffer = ByteBuffer.wrap(block(address), 0, capacity).slice();
+		return buffer.order(LITTLE_ENDIAN);
+	}
+
+	/** Returns the memory block of the given pointer. */
+	private byte[] block(int pointer) {
+		byte[] block = memory.get(pointer);
+		if (block == null)
+			throw new IllegalStateException("The memory at " + pointer + " is not allocated!");
+		return block;
+	}
+
+	/** Returns the thread, that completes the writes when the bit rate is emulated. */
+	private ScheduledExecutorService getTransmitter() {
+		if (transmitter == null)
+			transmitter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "xidobi-loopback");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return transmitter;
+	}
+
+	// Simulated objects //////////////////////////////////////////////////////////////////////
+
+	/** A manual-reset event object. */
+	private static final class Event {
+		/** <code>true</code>, if the event is signaled */
+		private boolean isSignaled;
+	}
+
+	/** An I/O completion port. */
+	private static final class IoCompletionPort {
+		/** the queued completion packets */
+		private final LinkedList<Packet> packets = new LinkedList<Packet>();
+		/** <code>true</code>, if the handle of the I/O completion port was closed */
+		private boolean isClosed;
+	}
+
+	/** A completion packet. */
+	private static final class Packet {
+		private final int numberOfBytesTransferred;
+		private final int completionKey;
+		/** the address of the overlapped or {@link WinApi#NULL} for a posted packet */
+		private final int overlappedAddress;
+		private final int errorCode;
+
+		private Packet(	int numberOfBytesTransferred,
+						int completionKey,
+						int overlappedAddress,
+						int errorCode) {
+			this.numberOfBytesTransferred = numberOfBytesTransferred;
+			this.completionKey = completionKey;
+			this.overlappedAddress = overlappedAddress;
+			this.errorCode = errorCode;
+		}
+	}
+
+	/** An overlapped operation. */
+	private static final class Operation {
+		/** the event, that is signaled when the operation is completed */
+		private final int hEvent;
+		/** the address of the overlapped, it is queued to the I/O completion port */
+		private final int overlappedAddress;
+		/** receives the number of transferred bytes, may be <code>null</code> */
+		private final DWORD numberOfBytesTransferredPointer;
+		/** receives a packet when the operation is completed, may be <code>null</code> */
+		private final IoCompletionPort completionPort;
+		/** the completion key of the port */
+		private final int completionKey;
+
+		/** <code>true</code>, if the operation is completed */
+		private boolean isCompleted;
+		/** the number of transferred bytes, when the operation is completed */
+		private int numberOfBytesTransferred;
+		/** the error code, when the operation is completed */
+		private int errorCode;
+
+		/** the bytes of a write */
+		private byte[] data;
+		/** receives the bytes of a read, either the memory block or the buffer is set */
+		private byte[] block;
+		/** receives the bytes of a read, either the memory block or the buffer is set */
+		private ByteBuffer buffer;
+		/** the number of bytes to read */
+		private int length;
+		/** receives the events of a <code>WaitCommEvent</code> */
+		private DWORD eventMask;
+
+		private Operation(	Port port,
+							OVERLAPPED overlapped,
+							DWORD numberOfBytesTransferredPointer) {
+			hEvent = overlapped.hEvent;
+			overlappedAddress = overlapped.address();
+			this.numberOfBytesTransferredPointer = numberOfBytesTransferredPointer;
+			completionPort = port.completionPort;
+			completionKey = port.completionKey;
+		}
+	}
+
+	/** A simulated serial port, all fields are guarded by the enclosing instance. */
+	private final class Port {
+		/** the name of the port */
+		private final String name;
+		/** the port, that receives the written bytes */
+		private Port peer;
+		/** the handle of the open port or 0, if it is closed */
+		private int handle;
+		/** the I/O completion port, the handle is associated with, may be <code>null</code> */
+		private IoCompletionPort completionPort;
+		/** the completion key of the packets */
+		private int completionKey;
+
+		/** the settings of the line */
+		private int baudRate = 9600;
+		private byte byteSize = 8;
+		private byte parity = NOPARITY;
+		private byte stopBits = ONESTOPBIT;
+
+		/** the received bytes, they are stored in a ring */
+		private byte[] input = new byte[DEFAULT_INPUT_QUEUE_SIZE];
+		/** the index of the first received byte in the ring */
+		private int inputStart;
+		/** the number of received bytes */
+		private int inputLength;
+		/** the number of bytes, that wait for their transmission */
+		private int outputLength;
+		/** the communication errors, that occurred since the last ClearCommError */
+		private int errors;
+
+		/** the events, that are monitored */
+		private int eventMask;
+		/** <code>true</code>, if bytes were received since the last WaitCommEvent */
+		private boolean isRxCharSignaled;
+		/** the time, when the transmission of the pending writes is completed */
+		private long lineBusyUntil = Long.MIN_VALUE;
+
+		/** the pending operations */
+		private Operation pendingWait;
+		private Operation pendingRead;
+		private final List<Operation> pendingWrites = new ArrayList<Operation>();
+
+		private Port(String name) {
+			this.name = name;
+		}
+
+		/** Returns the time in nanoseconds, that is needed to transmit the given number of bytes. */
+		private long getTransmissionTime(int length) {
+			// start bit + data bits + parity bit + stop bits, in half bits for 1.5 stop bits
+			int halfBitsPerByte = 2 * (1 + byteSize + (parity == NOPARITY ? 0 : 1));
+			halfBitsPerByte += stopBits == ONESTOPBIT ? 2 : stopBits == TWOSTOPBITS ? 4 : 3;
+			return length * halfBitsPerByte * 500000000L / baudRate;
+		}
+
+		/** Sends the given bytes to the peer, they are lost if the peer isn't open. */
+		private void transmit(byte[] data) {
+			if (peer.handle != 0)
+				peer.receive(data);
+		}
+
+		/** Appends the given bytes to the input queue and completes the pending operations. */
+		private void receive(byte[] data) {
+			int length = Math.min(data.length, input.length - inputLength);
+			if (length < data.length)
+				errors |= CE_RXOVER;
+			for (int i = 0; i < length; i++)
+				input[(inputStart + inputLength + i) % input.length] = data[i];
+			inputLength += length;
+
+			if ((eventMask & EV_RXCHAR) != 0 && length > 0) {
+				if (pendingWait != null) {
+					pendingWait.eventMask.setValue(EV_RXCHAR);
+					complete(pendingWait, 0, ERROR_SUCCESS);
+					pendingWait = null;
+				}
+				else
+					isRxCharSignaled = true;
+			}
+
+			if (pendingRead != null && inputLength >= pendingRead.length) {
+				readInput(pendingRead.block, pendingRead.buffer, pendingRead.length);
+				complete(pendingRead, pendingRead.length, ERROR_SUCCESS);
+				pendingRead = null;
+			}
+		}
+
+		/** Removes the given number of bytes from the input queue and copies them. */
+		private void readInput(byte[] block, ByteBuffer buffer, int length) {
+			for (int i = 0; i < length; i++) {
+				byte b = input[(inputStart + i) % input.length];
+				if (block != null)
+					block[i] = b;
+				else
+					// like the native code, the position of the buffer is not advanced
+					buffer.put(buffer.position() + i, b);
+			}
+			inputStart = (inputStart + length) % input.length;
+			inputLength -= length;
+		}
+
+		/** Discards the received bytes. */
+		private void clearInput() {
+			inputStart = 0;
+			inputLength = 0;
+		}
+
+		/** Aborts the pending writes, their bytes are not transmitted. */
+		private void abortWrites() {
+			for (Operation write : pendingWrites)
+				complete(write, 0, ERROR_OPERATION_ABORTED);
+			pendingWrites.clear();
+			outputLength = 0;
+			lineBusyUntil = Long.MIN_VALUE;
+		}
+
+		/** Aborts all pending operations. */
+		private void abortAll() {
+			if (pendingWait != null) {
+				complete(pendingWait, 0, ERROR_OPERATION_ABORTED);
+				pendingWait = null;
+			}
+			if (pendingRead != null) {
+				complete(pendingRead, 0, ERROR_OPERATION_ABORTED);
+				pendingRead = null;
+			}
+			abortWrites();
+		}
+
+		@Override
+		public String toString() {
+			return "Port [name=" + name + ", handle=" + handle + "]";
+		}
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Tests the class {@link CompletionPoller} with the whole stack from
+ * {@link SerialPortImpl#open(SerialPortSettings)} through the {@link ReaderImpl} and the
+ * {@link WriterImpl} on the {@link LoopbackWinApi}.
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestCompletionPoller {
+
+	/** the simulated Win32-API, it counts the waits, that block in native code */
+	private _LoopbackWinApi os;
+
+	/** the class under test */
+	private CompletionPoller poller;
+
+	/** runs the port handlers */
+	private ExecutorService executor;
+
+	/** the connections, that are closed after each test */
+	private List<SerialConnection> connections;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		os = new _LoopbackWinApi();
+		os.connect("COM1", "COM2");
+
+		poller = new CompletionPoller(os);
+		executor = newPortHandlerExecutor();
+		connections = new ArrayList<SerialConnection>();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		for (SerialConnection connection : connections)
+			if (!connection.isClosed())
+				connection.close();
+		poller.close();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullOs() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >os< must not be null!");
+
+		new CompletionPoller(null);
+	}
+
+	/**
+	 * Verifies that a read, that waits for data, is parked until the bytes are written, without
+	 * blocking in native code.
+	 */
+	@Test(timeout = 1000)
+	public void read_parkedUntilWritten() throws Exception {
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		Future<byte[]> read = readInBackground(com2);
+		Thread.sleep(50);
+		assertThat(read.isDone(), is(false));
+
+		com1.write(new byte[] { 1, 2, 3 });
+
+		assertThat(read.get(), is(new byte[] { 1, 2, 3 }));
+		assertThat(os.blockingWaits.get(), is(0));
+	}
+
+	/**
+	 * Verifies that a parked read is woken up with an {@link IOException}, when the connection is
+	 * closed.
+	 */
+	@Test(timeout = 1000)
+	public void read_close() throws Exception {
+		SerialConnection com1 = open("COM1");
+
+		Future<byte[]> read = readInBackground(com1);
+		Thread.sleep(50);
+		com1.close();
+
+		try {
+			read.get();
+			fail("IOException expected!");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof IOException, is(true));
+		}
+	}
+
+	/**
+	 * Verifies that the writes, which are pending while the bit rate is emulated, are parked until
+	 * they are completed.
+	 */
+	@Test(timeout = 1000)
+	public void write_bitRateEmulated() throws Exception {
+		os.setBitRateEmulated(true);
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		com1.write(new byte[] { 1, 2, 3 });
+
+		assertThat(com2.read(), is(new byte[] { 1, 2, 3 }));
+		assertThat(os.blockingWaits.get(), is(0));
+	}
+
+	/**
+	 * Verifies that the poller thread is stopped by {@link CompletionPoller#close()}, and that the
+	 * connections wait in native code afterwards.
+	 */
+	@Test(timeout = 1000)
+	public void close() throws Exception {
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		poller.close();
+		assertThat(isPollerThreadAlive(), is(false));
+
+		Future<byte[]> read = readInBackground(com2);
+		Thread.sleep(50);
+		com1.write(new byte[] { 1 });
+
+		assertThat(read.get(), is(new byte[] { 1 }));
+		assertThat(os.blockingWaits.get(), is(1));
+	}
+
+	/**
+	 * Verifies that a second close is ignored.
+	 */
+	@Test(timeout = 1000)
+	public void close_twice() throws Exception {
+		poller.close();
+		poller.close();
+	}
+
+	/**
+	 * Verifies that many ports are served by one poller thread: every handler receives all bytes
+	 * of its peer, and no thread blocks in native code. The handlers run on virtual threads, if the
+	 * JDK supports them.
+	 */
+	@Test(timeout = 20000)
+	public void stress_manyPorts() throws Exception {
+		final int pairs = 250;
+		final int messages = 20;
+		final byte[] message = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+		List<Future<Integer>> received = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < pairs; i++) {
+			os.connect("A" + i, "B" + i);
+			final SerialConnection writer = open("A" + i);
+			final SerialConnection reader = open("B" + i);
+
+			received.add(executor.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					int count = 0;
+					while (count < messages * message.length)
+						count += reader.read().length;
+					return count;
+				}
+			}));
+			executor.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					for (int m = 0; m < messages; m++)
+						writer.write(message);
+					return null;
+				}
+			});
+		}
+
+		for (Future<Integer> count : received)
+			assertThat(count.get(), is(messages * message.length));
+		assertThat(os.blockingWaits.get(), is(0));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Opens the port with the given name with 9600 bauds 8N1, its connection uses the poller. */
+	private SerialConnection open(String portName) throws IOException {
+		SerialPort port = new SerialPortImpl(os, portName, null, new DCBConfigurator(), poller);
+		SerialConnection connection = port.open(from9600bauds8N1().create());
+		connections.add(connection);
+		return connection;
+	}
+
+	/** Reads from the given connection in the background. */
+	private Future<byte[]> readInBackground(final SerialConnection connection) {
+		return executor.submit(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				return connection.read();
+			}
+		});
+	}
+
+	/** Returns <code>true</code>, if a thread of a completion poller is alive. */
+	private static boolean isPollerThreadAlive() {
+		for (Thread thread : Thread.getAllStackTraces().keySet())
+			if (thread.getName().equals("xidobi completion poller") && thread.isAlive())
+				return true;
+		return false;
+	}
+
+	/**
+	 * Returns an executor, that starts a virtual thread for each task if the JDK supports them,
+	 * otherwise a platform thread.
+	 */
+	private static ExecutorService newPortHandlerExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Exception e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/** Counts the calls of <code>WaitForSingleObject</code>, that may block the calling thread. */
+	private static class _LoopbackWinApi extends LoopbackWinApi {
+
+		private final AtomicInteger blockingWaits = new AtomicInteger();
+
+		@Override
+		public synchronized int WaitForSingleObject(int hHandle, int dwMilliseconds) {
+			if (dwMilliseconds != 0)
+				blockingWaits.incrementAndGet();
+			return super.WaitForSingleObject(hHandle, dwMilliseconds);
+		}
+	}
+}
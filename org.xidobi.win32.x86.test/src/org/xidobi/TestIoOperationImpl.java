@@ -15,16 +15,25 @@
  */
 package org.xidobi;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.WinApi.INFINITE;
 import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
+import static org.xidobi.WinApi.WAIT_OBJECT_0;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.xidobi.spi.NativeCodeException;
 import org.xidobi.structs.DWORD;
@@ -144,29 +153,92 @@ public class TestIoOperationImpl {
 	}
 
 	/**
-	 * Verifies that all resource are freed that were allocated in the construction
+	 * Verifies that the native operations of an operation without poller are not queued to an I/O
+	 * completion port, the handle may be associated with by a selector.
+	 */
+	@Test
+	public void new_skipsCompletionPort() {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+
+		operation = new _IoOperation(port, os, PORT_HANDLE);
+
+		assertThat(operation.overlapped.skipCompletionPort, is(true));
+		assertThat(operation.overlapped.hEvent, is(eventHandle));
+	}
+
+	/**
+	 * Verifies that the native operations of an operation with poller are queued to the I/O
+	 * completion port of the poller.
+	 */
+	@Test
+	public void new_withPollerUsesCompletionPort() {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+
+		operation = new _IoOperation(port, os, PORT_HANDLE, mock(CompletionPoller.class));
+
+		assertThat(operation.overlapped.skipCompletionPort, is(false));
+	}
+
+	/**
+	 * Verifies that the event handle is not closed by <code>close()</code>, because it is needed
+	 * to await the pending operations on <code>dispose()</code>.
 	 * 
 	 * @throws Exception
 	 */
 	@Test
 	public void close() throws Exception {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
-		when(os.CloseHandle(eventHandle)).thenReturn(true);
 		operation = new _IoOperation(port, os, PORT_HANDLE);
 
 		operation.close();
 
+		verify(os, never()).CloseHandle(anyInt());
+	}
+
+	/**
+	 * Verifies that all resource are freed that were allocated in the construction
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose() throws Exception {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.CloseHandle(eventHandle)).thenReturn(true);
+		operation = new _IoOperation(port, os, PORT_HANDLE);
+
+		operation.dispose();
+
 		verify(os).CloseHandle(eventHandle);
+		verify(os).free(ptrOverlapped);
+		verify(os).free(ptrBytesTransferred);
+	}
+
+	/**
+	 * Verifies that the native memory of the operation is accounted until it is disposed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void getAllocatedBytes() throws Exception {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.CloseHandle(eventHandle)).thenReturn(true);
+		operation = new _IoOperation(port, os, PORT_HANDLE);
+		assertThat(operation.getAllocatedBytes(), is((long) OVERLAPPED_SIZE + DWORD_SIZE));
+
+		operation.dispose();
+
+		assertThat(operation.getAllocatedBytes(), is(0L));
+		assertThat(operation.getLeakedBytes(), is(0L));
 	}
 
 	/**
 	 * Verifies that a {@link NativeCodeException} is thrown, when <code>CloseHandle</code> returns
-	 * <code>false</code>.
+	 * <code>false</code>, and that the resources are freed anyway.
 	 * 
 	 * @throws Exception
 	 */
 	@Test
-	public void close_CloseHandleFailsUnexpected() throws Exception {
+	public void dispose_CloseHandleFailsUnexpected() throws Exception {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
 		when(os.CloseHandle(eventHandle)).thenReturn(false);
 		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
@@ -175,23 +247,108 @@ public class TestIoOperationImpl {
 		exception.expect(NativeCodeException.class);
 		exception.expectMessage("CloseHandle failed unexpected!");
 
-		operation.close();
+		try {
+			operation.dispose();
+		}
+		finally {
+			verify(os).free(ptrOverlapped);
+			verify(os).free(ptrBytesTransferred);
+		}
 	}
 
 	/**
-	 * Verifies that all resource are freed that were allocated in the construction
+	 * Verifies that <code>dispose()</code> waits for the completion of a pending operation, before
+	 * the overlapped is freed. The event must be reset before the state of the operation is
+	 * checked.
 	 * 
 	 * @throws Exception
 	 */
 	@Test
-	public void dispose() throws Exception {
+	public void dispose_awaitsPendingOperation() throws Exception {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.CloseHandle(eventHandle)).thenReturn(true);
+		operation = new _IoOperation(port, os, PORT_HANDLE);
+		operation.operationPending(operation.overlapped);
+		when(os.ResetEvent(eventHandle)).thenReturn(true);
+		when(os.HasOverlappedIoCompleted(operation.overlapped)).thenReturn(false);
+		when(os.WaitForSingleObject(eventHandle, INFINITE)).thenReturn(WAIT_OBJECT_0);
+
+		operation.dispose();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).ResetEvent(eventHandle);
+		inOrder.verify(os).HasOverlappedIoCompleted(operation.overlapped);
+		inOrder.verify(os).WaitForSingleObject(eventHandle, INFINITE);
+		inOrder.verify(os).CloseHandle(eventHandle);
+		inOrder.verify(os).free(ptrOverlapped);
+	}
+
+	/**
+	 * Verifies that <code>dispose()</code> doesn't wait, if the pending operation is already
+	 * completed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose_pendingOperationAlreadyCompleted() throws Exception {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.CloseHandle(eventHandle)).thenReturn(true);
 		operation = new _IoOperation(port, os, PORT_HANDLE);
+		operation.operationPending(operation.overlapped);
+		when(os.ResetEvent(eventHandle)).thenReturn(true);
+		when(os.HasOverlappedIoCompleted(operation.overlapped)).thenReturn(true);
 
 		operation.dispose();
 
+		verify(os, never()).WaitForSingleObject(anyInt(), anyInt());
 		verify(os).free(ptrOverlapped);
-		verify(os).free(ptrBytesTransferred);
+	}
+
+	/**
+	 * Verifies that <code>dispose()</code> doesn't wait for an operation, whose completion was
+	 * already observed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose_operationCompleted() throws Exception {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.CloseHandle(eventHandle)).thenReturn(true);
+		operation = new _IoOperation(port, os, PORT_HANDLE);
+		operation.operationPending(operation.overlapped);
+		operation.operationCompleted(operation.overlapped);
+
+		operation.dispose();
+
+		verify(os, never()).ResetEvent(anyInt());
+		verify(os, never()).WaitForSingleObject(anyInt(), anyInt());
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when the wait for a pending operation
+	 * fails, and that the resources are freed anyway.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose_awaitPendingOperationFails() throws Exception {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.CloseHandle(eventHandle)).thenReturn(true);
+		operation = new _IoOperation(port, os, PORT_HANDLE);
+		operation.operationPending(operation.overlapped);
+		when(os.ResetEvent(eventHandle)).thenReturn(false);
+		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("ResetEvent failed unexpected!");
+
+		try {
+			operation.dispose();
+		}
+		finally {
+			verify(os).free(ptrOverlapped);
+			verify(os).free(ptrBytesTransferred);
+		}
 	}
 
 	/**
@@ -203,6 +360,7 @@ public class TestIoOperationImpl {
 	@Test
 	public void dispose_2x() throws Exception {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.CloseHandle(eventHandle)).thenReturn(true);
 		operation = new _IoOperation(port, os, PORT_HANDLE);
 		operation.dispose();
 
@@ -226,6 +384,13 @@ public class TestIoOperationImpl {
 							int handle) {
 			super(port, os, handle);
 		}
+
+		public _IoOperation(SerialPort port,
+							WinApi os,
+							int handle,
+							CompletionPoller poller) {
+			super(port, os, handle, poller);
+		}
 	}
 
 }
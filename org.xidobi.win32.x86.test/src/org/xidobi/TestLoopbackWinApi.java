@@ -0,0 +1,403 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.xidobi.SerialPortSettings.from9600bauds8N1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xidobi.structs.INT;
+
+/**
+ * Tests the class {@link LoopbackWinApi} with the whole stack from
+ * {@link SerialPortImpl#open(SerialPortSettings)} through the {@link ReaderImpl} and the
+ * {@link WriterImpl}.
+ * 
+ * @author Christian Schwarz
+ */
+public class TestLoopbackWinApi {
+
+	/** the simulated Win32-API */
+	private LoopbackWinApi os;
+
+	/** reads in the background */
+	private ExecutorService executor;
+
+	/** the connections, that are closed after each test */
+	private List<SerialConnection> connections;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		os = new LoopbackWinApi();
+		os.connect("COM1", "COM2");
+
+		executor = Executors.newCachedThreadPool();
+		connections = new ArrayList<SerialConnection>();
+	}
+
+	@After
+	@SuppressWarnings("javadoc")
+	public void tearDown() throws IOException {
+		for (SerialConnection connection : connections)
+			if (!connection.isClosed())
+				connection.close();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Verifies that the connected ports are found in the registry.
+	 */
+	@Test(timeout = 1000)
+	public void getAll() {
+		List<String> portNames = new ArrayList<String>();
+		for (SerialPort port : new SerialPortFinderImpl(os).getAll())
+			portNames.add(port.getPortName());
+
+		assertThat(portNames.size(), is(2));
+		assertThat(portNames, hasItem("COM1"));
+		assertThat(portNames, hasItem("COM2"));
+	}
+
+	/**
+	 * Verifies that the bytes written to one port are received by the other one.
+	 */
+	@Test(timeout = 1000)
+	public void writeRead() throws Exception {
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		com1.write(new byte[] { 1, 2, 3 });
+		assertThat(com2.read(), is(new byte[] { 1, 2, 3 }));
+
+		com2.write(new byte[] { 4, 5 });
+		assertThat(com1.read(), is(new byte[] { 4, 5 }));
+	}
+
+	/**
+	 * Verifies that the bytes are read into a direct buffer, and that the remaining bytes stay in
+	 * the input queue.
+	 */
+	@Test(timeout = 1000)
+	public void read_directBuffer() throws Exception {
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+		ByteBuffer dst = ByteBuffer.allocateDirect(2);
+
+		com1.write(new byte[] { 1, 2, 3 });
+
+		assertThat(com2.read(dst), is(2));
+		assertThat(dst.get(0), is((byte) 1));
+		assertThat(dst.get(1), is((byte) 2));
+		assertThat(com2.read(), is(new byte[] { 3 }));
+	}
+
+	/**
+	 * Verifies that a read blocks until bytes are written by the other port.
+	 */
+	@Test(timeout = 1000)
+	public void read_blocksUntilWritten() throws Exception {
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		Future<byte[]> read = readInBackground(com2);
+		Thread.sleep(50);
+		assertThat(read.isDone(), is(false));
+
+		com1.write(new byte[] { 1 });
+
+		assertThat(read.get(), is(new byte[] { 1 }));
+	}
+
+	/**
+	 * Verifies that a blocked read is woken up with an {@link IOException}, when the connection is
+	 * closed.
+	 */
+	@Test(timeout = 1000)
+	public void read_close() throws Exception {
+		SerialConnection com1 = open("COM1");
+
+		Future<byte[]> read = readInBackground(com1);
+		Thread.sleep(50);
+		com1.close();
+
+		try {
+			read.get();
+			fail("IOException expected!");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof IOException, is(true));
+		}
+	}
+
+	/**
+	 * Verifies that the combined read function receives the written bytes, and that the bytes
+	 * which don't fit into the direct buffer stay in the input queue.
+	 */
+	@Test(timeout = 1000)
+	public void waitAndReadAvailable_writeRead() throws Exception {
+		os.setWaitAndReadAvailableSupported(true);
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+		ByteBuffer dst = ByteBuffer.allocateDirect(2);
+
+		com1.write(new byte[] { 1, 2, 3 });
+
+		assertThat(com2.read(dst), is(2));
+		assertThat(dst.get(0), is((byte) 1));
+		assertThat(dst.get(1), is((byte) 2));
+		assertThat(com2.read(), is(new byte[] { 3 }));
+	}
+
+	/**
+	 * Verifies that the combined read function blocks until bytes are written by the other port.
+	 */
+	@Test(timeout = 1000)
+	public void waitAndReadAvailable_blocksUntilWritten() throws Exception {
+		os.setWaitAndReadAvailableSupported(true);
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		Future<byte[]> read = readInBackground(com2);
+		Thread.sleep(50);
+		assertThat(read.isDone(), is(false));
+
+		com1.write(new byte[] { 1 });
+
+		assertThat(read.get(), is(new byte[] { 1 }));
+	}
+
+	/**
+	 * Verifies that a read, that is blocked in the combined read function, is woken up with an
+	 * {@link IOException}, when the connection is closed.
+	 */
+	@Test(timeout = 1000)
+	public void waitAndReadAvailable_close() throws Exception {
+		os.setWaitAndReadAvailableSupported(true);
+		SerialConnection com1 = open("COM1");
+
+		Future<byte[]> read = readInBackground(com1);
+		Thread.sleep(50);
+		com1.close();
+
+		try {
+			read.get();
+			fail("IOException expected!");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof IOException, is(true));
+		}
+	}
+
+	/**
+	 * Verifies that the bytes, which were received before the port was opened, are discarded.
+	 */
+	@Test(timeout = 1000)
+	public void open_discardsBytesOfClosedPort() throws Exception {
+		SerialConnection com1 = open("COM1");
+		com1.write(new byte[] { 1 });
+
+		SerialConnection com2 = open("COM2");
+		com1.write(new byte[] { 2 });
+
+		assertThat(com2.read(), is(new byte[] { 2 }));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the port is already open.
+	 */
+	@Test(timeout = 1000)
+	public void open_inUse() throws Exception {
+		open("COM1");
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port in use (COM1)!");
+
+		open("COM1");
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the port doesn't exist.
+	 */
+	@Test(timeout = 1000)
+	public void open_notFound() throws Exception {
+		exception.expect(IOException.class);
+		exception.expectMessage("Port not found (COM3)!");
+
+		open("COM3");
+	}
+
+	/**
+	 * Verifies that a port can be opened again, after it was closed.
+	 */
+	@Test(timeout = 1000)
+	public void open_afterClose() throws Exception {
+		open("COM1").close();
+
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+		com2.write(new byte[] { 1 });
+
+		assertThat(com1.read(), is(new byte[] { 1 }));
+	}
+
+	/**
+	 * Verifies that the bytes, that don't fit into the input queue, are discarded.
+	 */
+	@Test(timeout = 1000)
+	public void write_inputQueueOverflow() throws Exception {
+		os.setInputQueueSize("COM2", 2);
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		com1.write(new byte[] { 1, 2, 3 });
+
+		assertThat(com2.read(), is(new byte[] { 1, 2 }));
+	}
+
+	/**
+	 * Verifies that a write takes the transmission time, if the bit rate is emulated. With 9600
+	 * bauds and 8N1 every byte needs 10 bits, so 48 bytes need 50 milliseconds.
+	 */
+	@Test(timeout = 1000)
+	public void write_bitRateEmulated() throws Exception {
+		os.setBitRateEmulated(true);
+		SerialConnection com1 = open("COM1");
+		SerialConnection com2 = open("COM2");
+
+		long start = System.nanoTime();
+		com1.write(new byte[48]);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		assertThat(elapsed, is(greaterThanOrEqualTo(45L)));
+		assertThat(com2.read().length, is(48));
+	}
+
+	/**
+	 * Verifies that pipelined writes are received in order, if the bit rate is emulated.
+	 */
+	@Test(timeout = 1000)
+	public void write_pipelined() throws Exception {
+		os.setBitRateEmulated(true);
+		SerialConnection com1 = new SerialPortImpl(os, "COM1", null).open(from9600bauds8N1().bauds(115200).maxPendingWrites(4).create());
+		connections.add(com1);
+		SerialConnection com2 = open("COM2");
+
+		for (byte i = 0; i < 8; i++)
+			com1.write(new byte[] { i });
+
+		ByteBuffer received = ByteBuffer.allocate(8);
+		while (received.hasRemaining())
+			received.put(com2.read());
+		assertThat(received.array(), is(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 }));
+	}
+
+	/**
+	 * Verifies that a completion packet is queued for an operation of an associated port, even if
+	 * it completed immediately.
+	 */
+	@Test(timeout = 1000)
+	public void completionPort_packetOfWrite() throws Exception {
+		SerialConnectionImpl com1 = (SerialConnectionImpl) open("COM1");
+		int completionPort = os.CreateIoCompletionPort(WinApi.INVALID_HANDLE_VALUE, WinApi.NULL, 0, 1);
+		assertThat(os.CreateIoCompletionPort(com1.getHandle(), completionPort, 42, 0), is(completionPort));
+
+		com1.write(new byte[] { 1, 2, 3 });
+
+		INT numberOfBytes = new INT(0);
+		INT completionKey = new INT(0);
+		INT overlappedAddress = new INT(0);
+		assertThat(os.GetQueuedCompletionStatus(completionPort, numberOfBytes, completionKey, overlappedAddress, 100), is(true));
+		assertThat(numberOfBytes.value, is(3));
+		assertThat(completionKey.value, is(42));
+		assertThat(overlappedAddress.value != WinApi.NULL, is(true));
+	}
+
+	/**
+	 * Verifies that a handle can't be associated with a second I/O completion port.
+	 */
+	@Test(timeout = 1000)
+	public void completionPort_alreadyAssociated() throws Exception {
+		SerialConnectionImpl com1 = (SerialConnectionImpl) open("COM1");
+		int completionPort1 = os.CreateIoCompletionPort(WinApi.INVALID_HANDLE_VALUE, WinApi.NULL, 0, 1);
+		int completionPort2 = os.CreateIoCompletionPort(WinApi.INVALID_HANDLE_VALUE, WinApi.NULL, 0, 1);
+		os.CreateIoCompletionPort(com1.getHandle(), completionPort1, 0, 0);
+
+		assertThat(os.CreateIoCompletionPort(com1.getHandle(), completionPort2, 0, 0), is(WinApi.NULL));
+		assertThat(os.GetLastError(), is(WinApi.ERROR_INVALID_PARAMETER));
+	}
+
+	/**
+	 * Verifies that a posted packet is dequeued, and that the dequeue times out if no packet is
+	 * queued.
+	 */
+	@Test(timeout = 1000)
+	public void completionPort_postAndTimeout() throws Exception {
+		int completionPort = os.CreateIoCompletionPort(WinApi.INVALID_HANDLE_VALUE, WinApi.NULL, 0, 1);
+		INT numberOfBytes = new INT(0);
+		INT completionKey = new INT(0);
+		INT overlappedAddress = new INT(-1);
+
+		os.PostQueuedCompletionStatus(completionPort, 0, 7, WinApi.NULL);
+
+		assertThat(os.GetQueuedCompletionStatus(completionPort, numberOfBytes, completionKey, overlappedAddress, 0), is(true));
+		assertThat(completionKey.value, is(7));
+		assertThat(overlappedAddress.value, is(WinApi.NULL));
+
+		assertThat(os.GetQueuedCompletionStatus(completionPort, numberOfBytes, completionKey, overlappedAddress, 10), is(false));
+		assertThat(os.GetLastError(), is(WinApi.WAIT_TIMEOUT));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Opens the port with the given name with 9600 bauds 8N1. */
+	private SerialConnection open(String portName) throws IOException {
+		SerialConnection connection = new SerialPortImpl(os, portName, null).open(from9600bauds8N1().create());
+		connections.add(connection);
+		return connection;
+	}
+
+	/** Reads from the given connection in the background. */
+	private Future<byte[]> readInBackground(final SerialConnection connection) {
+		return executor.submit(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				return connection.read();
+			}
+		});
+	}
+}
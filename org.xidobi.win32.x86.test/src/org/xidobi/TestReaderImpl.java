@@ -16,14 +16,22 @@
 package org.xidobi;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.not;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.WinApi.CE_FRAME;
 import static org.xidobi.WinApi.ERROR_ACCESS_DENIED;
 import static org.xidobi.WinApi.ERROR_BAD_COMMAND;
 import static org.xidobi.WinApi.ERROR_GEN_FAILURE;
@@ -32,21 +40,27 @@ import static org.xidobi.WinApi.ERROR_IO_PENDING;
 import static org.xidobi.WinApi.ERROR_NOT_READY;
 import static org.xidobi.WinApi.ERROR_OPERATION_ABORTED;
 import static org.xidobi.WinApi.EV_RXCHAR;
+import static org.xidobi.WinApi.INFINITE;
 import static org.xidobi.WinApi.WAIT_ABANDONED;
 import static org.xidobi.WinApi.WAIT_FAILED;
 import static org.xidobi.WinApi.WAIT_OBJECT_0;
 import static org.xidobi.WinApi.WAIT_TIMEOUT;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.mockito.stubbing.OngoingStubbing;
 import org.xidobi.spi.NativeCodeException;
+import org.xidobi.spi.SerialConnectionMetrics;
 import org.xidobi.structs.COMSTAT;
 import org.xidobi.structs.DWORD;
 import org.xidobi.structs.INT;
@@ -72,9 +86,13 @@ public class TestReaderImpl {
 	private int PTR_BYTES_TRANSFERRED = 2;
 	/** pointer to an {@link DWORD}, that is used for the event mask */
 	private int PTR_EVT_MASK = 3;
+	/** pointer to an {@link DWORD}, that is used to cancel a combined read */
+	private int PTR_CANCELED = 6;
 
 	/** pointer to the native byte array */
 	private static final int PTR_NATIVE_BYTE_ARRAY = 4;
+	/** pointer to a native byte array, that is larger than the first one */
+	private static final int PTR_LARGER_NATIVE_BYTE_ARRAY = 5;
 
 	/** a dummy error code */
 	private static final int DUMMY_ERROR_CODE = 12345;
@@ -117,6 +135,7 @@ public class TestReaderImpl {
 		when(os.CloseHandle(anyInt())).thenReturn(true);
 		when(os.CreateEventA(0, true, false, null)).thenReturn(DUMMY_EVENT_HANDLE);
 		when(os.ResetEvent(DUMMY_EVENT_HANDLE)).thenReturn(true);
+		when(os.SetEvent(DUMMY_EVENT_HANDLE)).thenReturn(true);
 
 		reader = new ReaderImpl(port, os, DUMMY_PORT_HANDLE);
 	}
@@ -257,29 +276,110 @@ public class TestReaderImpl {
 	}
 
 	/**
-	 * Verifies that the available data is read. The first time when <code>WaitCommEvent(...)</code>
-	 * is called, the operation is pending and <code>WaitForSingleObject(...)</code> returns
-	 * <code>WAIT_TIMEOUT</code>. The second time it returns immediatly and the data can be read
-	 * successfull.
+	 * Verifies that a pending <code>WaitCommEvent(...)</code> is awaited without a timeout, so that
+	 * an idle port doesn't wake up the reading thread periodically.
 	 * 
 	 * @throws IOException
 	 */
 	@Test
-	public void read_WaitCommEventPendingReturnsWAIT_TIMEOUT() throws IOException {
+	public void read_WaitCommEventPendingWaitsInfinite() throws IOException {
 		//@formatter:off
 		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
-		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, 100)).thenReturn(WAIT_TIMEOUT, WAIT_OBJECT_0);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).thenReturn(WAIT_OBJECT_0);
 		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR, 
 		                                                DATA.length);
-			doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
 		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
 		when(os.getByteArray(any(NativeByteArray.class), eq(DATA.length))).thenReturn(DATA);
 		// @formatter:on
 
-		byte[] result = reader.read();
+		reader.read();
 
-		assertThat(result, is(DATA));
+		verify(os, times(1)).WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE);
+		verify(os, never()).WaitForSingleObject(eq(DUMMY_EVENT_HANDLE), not(eq(INFINITE)));
+	}
+
+	/**
+	 * Verifies that a pending <code>WaitCommEvent(...)</code> throws an {@link IOException}, when
+	 * the reader is closed while waiting for the arrival of data.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void read_WaitCommEventPendingClosed() throws Exception {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).then(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				// simulates a close while the read operation is waiting
+				reader.close();
+				return WAIT_OBJECT_0;
+			}
+		});
+		// @formatter:on
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed! Read operation was canceled.");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that the same <code>COMSTAT</code> is passed to every call of
+	 * <code>ClearCommError(...)</code>.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_reusesCOMSTAT() throws IOException {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getByteArray(any(NativeByteArray.class), eq(DATA.length))).thenReturn(DATA);
+		// @formatter:on
+		ArgumentCaptor<COMSTAT> comStat = ArgumentCaptor.forClass(COMSTAT.class);
+
+		reader.read();
+		reader.read();
+
+		verify(os, times(2)).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), comStat.capture());
+		assertThat(comStat.getAllValues().get(0), is(sameInstance(comStat.getAllValues().get(1))));
+	}
+
+	/**
+	 * Verifies that the communication errors, that are returned by <code>ClearCommError(...)</code>
+	 * , are recorded in the metrics.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_recordsCommErrors() throws IOException {
+		SerialConnectionMetrics metrics = new SerialConnectionMetrics();
+		reader = new ReaderImpl(port, os, DUMMY_PORT_HANDLE, metrics);
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				((INT) invocation.getArguments()[1]).value = CE_FRAME;
+				((COMSTAT) invocation.getArguments()[2]).cbInQue = DATA.length;
+				return true;
+			}
+		}).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getByteArray(any(NativeByteArray.class), eq(DATA.length))).thenReturn(DATA);
+		// @formatter:on
+
+		reader.read();
+
+		assertThat(metrics.getCommErrors(), is(CE_FRAME));
+		assertThat(metrics.getCommErrorCount(), is(1L));
 	}
 
 	/**
@@ -294,7 +394,7 @@ public class TestReaderImpl {
 		//@formatter:off
 		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
-		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, 100)).thenReturn(WAIT_OBJECT_0);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).thenReturn(WAIT_OBJECT_0);
 		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR, 
 		                                                DATA.length);
 		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
@@ -319,7 +419,7 @@ public class TestReaderImpl {
 		//@formatter:off
 		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
-		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, 100)).thenReturn(WAIT_ABANDONED);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).thenReturn(WAIT_ABANDONED);
 		// @formatter:on
 
 		exception.expect(NativeCodeException.class);
@@ -459,7 +559,7 @@ public class TestReaderImpl {
 		//@formatter:off
 		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING, DUMMY_ERROR_CODE);
-		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, 100)).thenReturn(DUMMY_ERROR_CODE);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).thenReturn(DUMMY_ERROR_CODE);
 		// @formatter:on
 
 		exception.expect(NativeCodeException.class);
@@ -510,6 +610,175 @@ public class TestReaderImpl {
 		assertThat(result, is(DATA));
 	}
 
+	/**
+	 * Verifies that the native read buffer is allocated only once and reused by subsequent reads,
+	 * when the number of available bytes doesn't exceed its capacity.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_reusesReadBuffer() throws IOException {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getByteArray(any(NativeByteArray.class), eq(DATA.length))).thenReturn(DATA);
+		//@formatter:on
+
+		for (int i = 0; i < 10000; i++)
+			reader.read();
+
+		verify(os, times(1)).malloc(DATA.length);
+		verify(os, never()).free(PTR_NATIVE_BYTE_ARRAY);
+	}
+
+	/**
+	 * Verifies that the native read buffer is replaced by a larger one, when more bytes are
+	 * available than it can hold. The capacity of the new buffer must be at least doubled.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_growsReadBuffer() throws IOException {
+		//@formatter:off
+		when(os.malloc(10)).thenReturn(PTR_LARGER_NATIVE_BYTE_ARRAY);
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		when(os.ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT())).
+			then(withAvailableBytes(DATA.length, true)).
+			then(withAvailableBytes(7, true));
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), anyInt(), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getByteArray(any(NativeByteArray.class), anyInt())).thenReturn(DATA);
+		//@formatter:on
+
+		reader.read();
+		reader.read();
+
+		verify(os).free(PTR_NATIVE_BYTE_ARRAY);
+		verify(os).malloc(10);
+		verify(os).getByteArray(any(NativeByteArray.class), eq(7));
+	}
+
+	/**
+	 * Verifies that the available data is read directly into a direct {@link ByteBuffer}, without
+	 * using the native read buffer.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void readByteBuffer_direct() throws IOException {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(ByteBuffer.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		//@formatter:on
+		ByteBuffer dst = ByteBuffer.allocateDirect(10);
+
+		int result = reader.read(dst);
+
+		assertThat(result, is(DATA.length));
+		assertThat(dst.position(), is(DATA.length));
+		verify(os).ReadFile(eq(DUMMY_PORT_HANDLE), eq(dst), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		verify(os, never()).malloc(DATA.length);
+	}
+
+	/**
+	 * Verifies that not more bytes are read than the {@link ByteBuffer} has remaining.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void readByteBuffer_directWithLessRemaining() throws IOException {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(ByteBuffer.class), eq(3), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		//@formatter:on
+		ByteBuffer dst = ByteBuffer.allocateDirect(3);
+
+		int result = reader.read(dst);
+
+		assertThat(result, is(3));
+		assertThat(dst.hasRemaining(), is(false));
+	}
+
+	/**
+	 * Verifies that the bytes, which were left in the input buffer by the last read, are read
+	 * without waiting for a communication event, because they don't signal one again.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void readByteBuffer_readsRemainingBytesWithoutWaiting() throws IOException {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true))
+			.doAnswer(withAvailableBytes(DATA.length - 3, true))
+			.when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(ByteBuffer.class), eq(3), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length - 3), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getByteArray(any(NativeByteArray.class), eq(DATA.length - 3))).thenReturn(new byte[DATA.length - 3]);
+		//@formatter:on
+
+		reader.read(ByteBuffer.allocateDirect(3));
+		byte[] result = reader.read();
+
+		assertThat(result.length, is(DATA.length - 3));
+		verify(os, times(1)).WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED());
+	}
+
+	/**
+	 * Verifies that the available data is read into a heap {@link ByteBuffer} using the native read
+	 * buffer.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void readByteBuffer_heap() throws IOException {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getByteArray(any(NativeByteArray.class), eq(DATA.length))).thenReturn(DATA);
+		//@formatter:on
+		ByteBuffer dst = ByteBuffer.allocate(10);
+
+		int result = reader.read(dst);
+
+		assertThat(result, is(DATA.length));
+		assertThat(dst.position(), is(DATA.length));
+	}
+
+	/**
+	 * Verifies that the position of a direct {@link ByteBuffer} is advanced, when
+	 * <code>ReadFile(...)</code> is pending and finishes successfull.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void readByteBuffer_directReadFilePendingSuccess() throws IOException {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR, DATA.length);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(ByteBuffer.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, 100)).thenReturn(WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(DUMMY_PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
+		//@formatter:on
+		ByteBuffer dst = ByteBuffer.allocateDirect(10);
+
+		int result = reader.read(dst);
+
+		assertThat(result, is(DATA.length));
+		assertThat(dst.position(), is(DATA.length));
+	}
+
 	/**
 	 * Verifies that the available data is read, when <code>ClearCommError(...)</code> indicates
 	 * that 0 bytes available at the first invocation. Only at the second call it indicates a number
@@ -960,7 +1229,258 @@ public class TestReaderImpl {
 	}
 
 	/**
-	 * Verifies that all handles are disposed, when the reader is closed.
+	 * Verifies that the data is read with a single native call, if the combined read function is
+	 * supported.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailable() throws IOException {
+		reader = newCombinedReader();
+		mockWaitAndReadAvailable().then(withBytesRead(DATA.length, 0));
+
+		byte[] result = reader.read();
+
+		assertThat(result.length, is(DATA.length));
+		verify(os, never()).ResetEvent(DUMMY_EVENT_HANDLE);
+		verify(os, never()).WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED());
+		verify(os, never()).malloc(DATA.length);
+	}
+
+	/**
+	 * Verifies that the buffer of the combined read is reused, if more bytes are available than it
+	 * can hold. The remaining bytes are read by the next read.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableReusesBuffer() throws IOException {
+		reader = newCombinedReader();
+		mockWaitAndReadAvailable().then(withBytesRead(4096, 2000)).then(withBytesRead(2000, 0));
+
+		assertThat(reader.read().length, is(4096));
+		assertThat(reader.read().length, is(2000));
+
+		ArgumentCaptor<ByteBuffer> buffers = ArgumentCaptor.forClass(ByteBuffer.class);
+		verify(os, times(2)).WaitAndReadAvailable(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyDWORD(), anyOVERLAPPED(), buffers.capture(), anyInt(), anyINT(), anyCOMSTAT());
+		assertThat(buffers.getAllValues().get(1), is(sameInstance(buffers.getAllValues().get(0))));
+	}
+
+	/**
+	 * Verifies that the data is read directly into a direct {@link ByteBuffer} with a single
+	 * native call, and that not more bytes are read than the buffer has remaining.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void readByteBuffer_waitAndReadAvailable() throws IOException {
+		reader = newCombinedReader();
+		mockWaitAndReadAvailable().then(withBytesRead(3, 2));
+		ByteBuffer dst = ByteBuffer.allocateDirect(3);
+
+		int result = reader.read(dst);
+
+		assertThat(result, is(3));
+		assertThat(dst.hasRemaining(), is(false));
+		verify(os).WaitAndReadAvailable(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyDWORD(), anyOVERLAPPED(), eq(dst), eq(3), anyINT(), anyCOMSTAT());
+	}
+
+	/**
+	 * Verifies that a heap {@link ByteBuffer} is read by the single native calls, even if the
+	 * combined read function is supported.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void readByteBuffer_heapWithWaitAndReadAvailableSupported() throws IOException {
+		reader = newCombinedReader();
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getByteArray(any(NativeByteArray.class), eq(DATA.length))).thenReturn(DATA);
+		//@formatter:on
+
+		int result = reader.read(ByteBuffer.allocate(10));
+
+		assertThat(result, is(DATA.length));
+		verify(os, never()).WaitAndReadAvailable(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyDWORD(), anyOVERLAPPED(), any(ByteBuffer.class), anyInt(), anyINT(), anyCOMSTAT());
+	}
+
+	/**
+	 * Verifies that the combined read is repeated, if a communication event was signaled without
+	 * data being available.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableWithoutData() throws IOException {
+		reader = newCombinedReader();
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		mockWaitAndReadAvailable().then(withBytesRead(0, 0)).then(withBytesRead(DATA.length, 0));
+
+		byte[] result = reader.read();
+
+		assertThat(result.length, is(DATA.length));
+		verify(os, times(2)).WaitAndReadAvailable(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyDWORD(), anyOVERLAPPED(), any(ByteBuffer.class), anyInt(), anyINT(), anyCOMSTAT());
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the combined read was woken up by a
+	 * communication error event.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableErrorEvent() throws IOException {
+		reader = newCombinedReader();
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(0);
+		mockWaitAndReadAvailable().then(withBytesRead(0, 0));
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed! Read operation failed, because a communication error event was signaled!");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that the communication errors of the combined read are recorded.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableRecordsCommErrors() throws IOException {
+		SerialConnectionMetrics metrics = new SerialConnectionMetrics();
+		when(os.isWaitAndReadAvailableSupported()).thenReturn(true);
+		reader = new ReaderImpl(port, os, DUMMY_PORT_HANDLE, metrics);
+		mockWaitAndReadAvailable().then(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				((INT) invocation.getArguments()[6]).value = CE_FRAME;
+				return DATA.length;
+			}
+		});
+
+		reader.read();
+
+		assertThat(metrics.getCommErrors(), is(CE_FRAME));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, if the combined read fails with
+	 * <code>ERROR_INVALID_HANDLE</code>.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableFailsWithERROR_INVALID_HANDLE() throws IOException {
+		reader = newCombinedReader();
+		mockWaitAndReadAvailable().thenReturn(-1);
+		when(os.GetLastError()).thenReturn(ERROR_INVALID_HANDLE);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed! I/O operation failed, because the handle is invalid.");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, if the combined read fails
+	 * unexpected.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableFailsUnexpected() throws IOException {
+		reader = newCombinedReader();
+		mockWaitAndReadAvailable().thenReturn(-1);
+		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("WaitAndReadAvailable failed unexpected!");
+
+		reader.read();
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown and the operation is awaited by
+	 * dispose, if the read of the combined read function didn't complete in time.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableReadTimedOut() throws IOException {
+		reader = newCombinedReader();
+		mockWaitAndReadAvailable().thenReturn(-1);
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).thenReturn(WAIT_OBJECT_0);
+
+		try {
+			reader.read();
+			fail("expected a NativeCodeException");
+		}
+		catch (NativeCodeException e) {
+			assertThat(e.getMessage(), startsWith("ReadFile timed out after 100 milliseconds!"));
+		}
+		reader.dispose();
+
+		verify(os).HasOverlappedIoCompleted(anyOVERLAPPED());
+	}
+
+	/**
+	 * Verifies that a combined read, that is waiting for data, is canceled by <code>close()</code>.
+	 * The flag must be set, before the event is signaled.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void read_waitAndReadAvailableCanceledByClose() throws IOException {
+		reader = newCombinedReader();
+		final DWORD[] canceled = new DWORD[1];
+		mockWaitAndReadAvailable().then(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				// simulates a close while the read operation is waiting
+				canceled[0] = (DWORD) invocation.getArguments()[2];
+				reader.close();
+				return -1;
+			}
+		});
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+
+		try {
+			reader.read();
+			fail("expected an IOException");
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage(), is("Port COM1 was closed! Read operation was canceled."));
+		}
+
+		assertThat(canceled[0].address(), is(PTR_CANCELED));
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).setValue_DWORD(canceled[0], 1);
+		inOrder.verify(os).SetEvent(DUMMY_EVENT_HANDLE);
+	}
+
+	/**
+	 * Verifies that the cancel flag of the combined read is disposed with the reader.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose_waitAndReadAvailable() throws Exception {
+		reader = newCombinedReader();
+
+		reader.dispose();
+
+		verify(os).free(PTR_EVT_MASK);
+		verify(os).free(PTR_CANCELED);
+	}
+
+	/**
+	 * Verifies that the handle of the event is not closed, when the reader is closed. It is
+	 * closed, when the reader is disposed.
 	 * 
 	 * @throws Exception
 	 */
@@ -969,7 +1489,42 @@ public class TestReaderImpl {
 
 		reader.close();
 
-		verify(os).CloseHandle(DUMMY_EVENT_HANDLE);
+		verify(os, never()).CloseHandle(DUMMY_EVENT_HANDLE);
+	}
+
+	/**
+	 * Verifies that the event is signaled, in order to wake up a waiting read operation.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void close_signalsEvent() throws Exception {
+
+		reader.close();
+
+		verify(os).SetEvent(DUMMY_EVENT_HANDLE);
+	}
+
+	/**
+	 * Verifies that the reader is closed, even if <code>SetEvent(...)</code> fails.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void close_SetEventFails() throws Exception {
+		when(os.SetEvent(DUMMY_EVENT_HANDLE)).thenReturn(false);
+		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
+
+		try {
+			reader.close();
+			fail("expected a NativeCodeException");
+		}
+		catch (NativeCodeException expected) {}
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		reader.read();
 	}
 
 	/**
@@ -982,11 +1537,71 @@ public class TestReaderImpl {
 
 		reader.dispose();
 
+		verify(os).CloseHandle(DUMMY_EVENT_HANDLE);
 		verify(os).free(PTR_BYTES_TRANSFERRED);
 		verify(os).free(PTR_OVERLAPPED);
 		verify(os).free(PTR_EVT_MASK);
 	}
 
+	/**
+	 * Verifies that the <code>WaitCommEvent(...)</code> operation of a read, that was canceled by
+	 * <code>close()</code>, is awaited before the resources are disposed. The system writes the
+	 * event mask, when the operation is aborted.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose_awaitsCanceledWaitCommEvent() throws Exception {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).then(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				// simulates a close while the read operation is waiting
+				reader.close();
+				return WAIT_OBJECT_0;
+			}
+		}).thenReturn(WAIT_OBJECT_0);
+		// @formatter:on
+		when(os.HasOverlappedIoCompleted(anyOVERLAPPED())).thenReturn(false);
+		try {
+			reader.read();
+			fail("expected an IOException");
+		}
+		catch (IOException expected) {}
+
+		reader.dispose();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).ResetEvent(DUMMY_EVENT_HANDLE);
+		inOrder.verify(os).HasOverlappedIoCompleted(anyOVERLAPPED());
+		inOrder.verify(os).WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE);
+		inOrder.verify(os).free(PTR_EVT_MASK);
+	}
+
+	/**
+	 * Verifies that a completed read operation is not awaited, when the reader is disposed.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose_afterCompletedRead() throws Exception {
+		//@formatter:off
+		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).thenReturn(WAIT_OBJECT_0);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length, true)).when(os).ClearCommError(eq(DUMMY_PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(DUMMY_PORT_HANDLE), any(NativeByteArray.class), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		// @formatter:on
+		reader.read();
+
+		reader.dispose();
+
+		verify(os, never()).HasOverlappedIoCompleted(anyOVERLAPPED());
+	}
+
 	// Utilities for this Testclass ///////////////////////////////////////////////////////////
 
 	/** matches any {@link OVERLAPPED} */
@@ -1024,6 +1639,33 @@ public class TestReaderImpl {
 		};
 	}
 
+	/** Returns a new reader, that uses the combined read function. */
+	private ReaderImpl newCombinedReader() {
+		when(os.malloc(DWORD_SIZE)).thenReturn(PTR_BYTES_TRANSFERRED, PTR_EVT_MASK, PTR_CANCELED);
+		when(os.isWaitAndReadAvailableSupported()).thenReturn(true);
+		return new ReaderImpl(port, os, DUMMY_PORT_HANDLE);
+	}
+
+	/** Starts the stubbing of <code>WaitAndReadAvailable</code> for any arguments. */
+	private OngoingStubbing<Integer> mockWaitAndReadAvailable() {
+		return when(os.WaitAndReadAvailable(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyDWORD(), anyOVERLAPPED(), any(ByteBuffer.class), anyInt(), anyINT(), anyCOMSTAT()));
+	}
+
+	/**
+	 * Returns an {@link Answer} for <code>WaitAndReadAvailable</code>, that returns the given
+	 * number of read bytes and sets the number of bytes that remain in the input buffer.
+	 */
+	private Answer<Integer> withBytesRead(final int bytesRead, final int remainingBytes) {
+		return new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				COMSTAT comstat = (COMSTAT) invocation.getArguments()[7];
+				comstat.cbInQue = remainingBytes;
+				return bytesRead;
+			}
+		};
+	}
+
 	/** Mocks <code>WaitCommEvent</code> to fail with the given error code. */
 	private void mockWaitCommEventFailsWith(int errorCode) {
 		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
@@ -1034,7 +1676,7 @@ public class TestReaderImpl {
 	private void mockWaitCommEventPendingFailsWith(int errorCode) {
 		when(os.WaitCommEvent(eq(DUMMY_PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING, errorCode);
-		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, 100)).thenReturn(WAIT_FAILED);
+		when(os.WaitForSingleObject(DUMMY_EVENT_HANDLE, INFINITE)).thenReturn(WAIT_FAILED);
 	}
 
 	/** Mocks <code>ReadFile</code> (pending) to fail with the given error code. */
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.WinApi.ERROR_SUCCESS;
+import static org.xidobi.WinApi.HKEY_LOCAL_MACHINE;
+import static org.xidobi.WinApi.INFINITE;
+import static org.xidobi.WinApi.KEY_NOTIFY;
+import static org.xidobi.WinApi.REG_NOTIFY_CHANGE_LAST_SET;
+import static org.xidobi.WinApi.REG_NOTIFY_CHANGE_NAME;
+import static org.xidobi.WinApi.WAIT_FAILED;
+import static org.xidobi.WinApi.WAIT_OBJECT_0;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.HKEY;
+
+/**
+ * Tests the class {@link RegistrySerialPortMonitor}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestRegistrySerialPortMonitor {
+
+	/** Some unspecified error code */
+	private static final int AN_ERROR_CODE = 123;
+	/** Size of HKEY */
+	private static final int SIZE_OF_HKEY = 1;
+	/** Pointer to HKEY */
+	private static final int HKEY_POINTER = 2;
+	/** a valid event handle */
+	private static final int EVENT_HANDLE = 3;
+	/** the reported changes */
+	private static final int NOTIFY_FILTER = REG_NOTIFY_CHANGE_NAME | REG_NOTIFY_CHANGE_LAST_SET;
+	/** Subkey for serial ports in the Windows Registry */
+	private static final String HARDWARE_DEVICEMAP_SERIALCOMM = "HARDWARE\\DEVICEMAP\\SERIALCOMM\\";
+
+	/** the class under test */
+	private RegistrySerialPortMonitor monitor;
+
+	@Mock
+	private WinApi os;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+
+		when(os.sizeOf_HKEY()).thenReturn(SIZE_OF_HKEY);
+		when(os.malloc(SIZE_OF_HKEY)).thenReturn(HKEY_POINTER);
+		when(os.RegOpenKeyExA(eq(HKEY_LOCAL_MACHINE), eq(HARDWARE_DEVICEMAP_SERIALCOMM), eq(0), eq(KEY_NOTIFY), any(HKEY.class))).thenReturn(ERROR_SUCCESS);
+		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
+		when(os.RegNotifyChangeKeyValue(any(HKEY.class), eq(false), eq(NOTIFY_FILTER), eq(EVENT_HANDLE), eq(true))).thenReturn(ERROR_SUCCESS);
+		when(os.WaitForSingleObject(EVENT_HANDLE, INFINITE)).thenReturn(WAIT_OBJECT_0);
+		when(os.ResetEvent(EVENT_HANDLE)).thenReturn(true);
+		when(os.SetEvent(EVENT_HANDLE)).thenReturn(true);
+		when(os.CloseHandle(EVENT_HANDLE)).thenReturn(true);
+		when(os.RegCloseKey(any(HKEY.class))).thenReturn(ERROR_SUCCESS);
+
+		monitor = new RegistrySerialPortMonitor(os);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	public void new_nullOS() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >os< must not be null!");
+
+		new RegistrySerialPortMonitor(null);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when the subkey can't be opened. The
+	 * allocated HKEY must be disposed.
+	 */
+	@Test
+	public void new_RegOpenKeyExAFails() {
+		when(os.RegOpenKeyExA(eq(HKEY_LOCAL_MACHINE), eq(HARDWARE_DEVICEMAP_SERIALCOMM), eq(0), eq(KEY_NOTIFY), any(HKEY.class))).thenReturn(AN_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("Couldn't open Windows Registry for subkey >" + HARDWARE_DEVICEMAP_SERIALCOMM + "<!\r\nError-Code " + AN_ERROR_CODE);
+
+		try {
+			new RegistrySerialPortMonitor(os);
+		}
+		finally {
+			verify(os).free(HKEY_POINTER);
+		}
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when the event can't be created. The
+	 * subkey must be closed.
+	 */
+	@Test
+	public void new_CreateEventAFails() {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(0);
+		when(os.GetLastError()).thenReturn(AN_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("CreateEventA failed unexpected!\r\nError-Code " + AN_ERROR_CODE);
+
+		try {
+			new RegistrySerialPortMonitor(os);
+		}
+		finally {
+			verify(os).RegCloseKey(any(HKEY.class));
+		}
+	}
+
+	/**
+	 * Verifies that the first call requests the notification and returns without waiting.
+	 */
+	@Test
+	public void awaitChange_first() throws Exception {
+		monitor.awaitChange();
+
+		verify(os).RegNotifyChangeKeyValue(any(HKEY.class), eq(false), eq(NOTIFY_FILTER), eq(EVENT_HANDLE), eq(true));
+		verify(os, never()).WaitForSingleObject(anyInt(), anyInt());
+	}
+
+	/**
+	 * Verifies that the following calls wait for the event and request the notification again.
+	 */
+	@Test
+	public void awaitChange_next() throws Exception {
+		monitor.awaitChange();
+
+		monitor.awaitChange();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).RegNotifyChangeKeyValue(any(HKEY.class), eq(false), eq(NOTIFY_FILTER), eq(EVENT_HANDLE), eq(true));
+		inOrder.verify(os).WaitForSingleObject(EVENT_HANDLE, INFINITE);
+		inOrder.verify(os).ResetEvent(EVENT_HANDLE);
+		inOrder.verify(os).RegNotifyChangeKeyValue(any(HKEY.class), eq(false), eq(NOTIFY_FILTER), eq(EVENT_HANDLE), eq(true));
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when the notification can't be
+	 * requested.
+	 */
+	@Test
+	public void awaitChange_RegNotifyChangeKeyValueFails() throws Exception {
+		when(os.RegNotifyChangeKeyValue(any(HKEY.class), eq(false), eq(NOTIFY_FILTER), eq(EVENT_HANDLE), eq(true))).thenReturn(AN_ERROR_CODE);
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("Couldn't observe Windows Registry subkey >" + HARDWARE_DEVICEMAP_SERIALCOMM + "<!\r\nError-Code " + AN_ERROR_CODE);
+
+		monitor.awaitChange();
+	}
+
+	/**
+	 * Verifies that the call after a failed request requests the notification again, without
+	 * waiting.
+	 */
+	@Test
+	public void awaitChange_afterRegNotifyChangeKeyValueFailed() throws Exception {
+		when(os.RegNotifyChangeKeyValue(any(HKEY.class), eq(false), eq(NOTIFY_FILTER), eq(EVENT_HANDLE), eq(true))).thenReturn(AN_ERROR_CODE).thenReturn(ERROR_SUCCESS);
+		try {
+			monitor.awaitChange();
+			fail("Expected a NativeCodeException!");
+		}
+		catch (NativeCodeException expected) {}
+
+		monitor.awaitChange();
+
+		verify(os, times(2)).RegNotifyChangeKeyValue(any(HKEY.class), eq(false), eq(NOTIFY_FILTER), eq(EVENT_HANDLE), eq(true));
+		verify(os, never()).WaitForSingleObject(anyInt(), anyInt());
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when the wait fails.
+	 */
+	@Test
+	public void awaitChange_WaitForSingleObjectFails() throws Exception {
+		when(os.WaitForSingleObject(EVENT_HANDLE, INFINITE)).thenReturn(WAIT_FAILED);
+		when(os.GetLastError()).thenReturn(AN_ERROR_CODE);
+		monitor.awaitChange();
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("WaitForSingleObject failed unexpected!\r\nError-Code " + AN_ERROR_CODE);
+
+		monitor.awaitChange();
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when the monitor was closed.
+	 */
+	@Test
+	public void awaitChange_closed() throws Exception {
+		monitor.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The monitor was closed!");
+
+		monitor.awaitChange();
+	}
+
+	/**
+	 * Verifies that closing signals the event, so a waiting thread is woken up, and releases the
+	 * handles.
+	 */
+	@Test
+	public void close() {
+		monitor.close();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).SetEvent(EVENT_HANDLE);
+		inOrder.verify(os).RegCloseKey(any(HKEY.class));
+		inOrder.verify(os).CloseHandle(EVENT_HANDLE);
+		verify(os).free(HKEY_POINTER);
+	}
+
+	/**
+	 * Verifies that closing twice releases the handles only once.
+	 */
+	@Test
+	public void close_twice() {
+		monitor.close();
+
+		monitor.close();
+
+		verify(os, times(1)).SetEvent(EVENT_HANDLE);
+		verify(os, times(1)).CloseHandle(EVENT_HANDLE);
+	}
+
+	/**
+	 * Verifies that a waiting thread is woken up, when ports are added to the registry of the
+	 * {@link LoopbackWinApi}.
+	 */
+	@Test(timeout = 5000)
+	public void awaitChange_loopback() throws Exception {
+		LoopbackWinApi loopback = new LoopbackWinApi();
+		final RegistrySerialPortMonitor loopbackMonitor = new RegistrySerialPortMonitor(loopback);
+		final IOException[] failure = new IOException[1];
+		Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					loopbackMonitor.awaitChange();
+					loopbackMonitor.awaitChange();
+				}
+				catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		};
+		waiting.start();
+
+		while (waiting.getState() != Thread.State.WAITING)
+			Thread.sleep(1);
+		loopback.connect("COM1", "COM2");
+		waiting.join();
+
+		assertThat(failure[0], is((IOException) null));
+		loopbackMonitor.close();
+	}
+
+	/**
+	 * Verifies that a waiting thread is woken up by {@link RegistrySerialPortMonitor#close()}.
+	 */
+	@Test(timeout = 5000)
+	public void close_wakesUpWaitingThread() throws Exception {
+		LoopbackWinApi loopback = new LoopbackWinApi();
+		final RegistrySerialPortMonitor loopbackMonitor = new RegistrySerialPortMonitor(loopback);
+		final IOException[] failure = new IOException[1];
+		Thread waiting = new Thread() {
+			@Override
+			public void run() {
+				try {
+					loopbackMonitor.awaitChange();
+					loopbackMonitor.awaitChange();
+				}
+				catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		};
+		waiting.start();
+
+		while (waiting.getState() != Thread.State.WAITING)
+			Thread.sleep(1);
+		loopbackMonitor.close();
+		waiting.join();
+
+		assertThat(failure[0].getMessage(), is("The monitor was closed!"));
+	}
+}
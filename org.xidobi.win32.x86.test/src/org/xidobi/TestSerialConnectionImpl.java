@@ -15,17 +15,18 @@
  */
 package org.xidobi;
 
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
-import static org.xidobi.WinApi.ERROR_ACCESS_DENIED;
-import static org.xidobi.WinApi.ERROR_FILE_NOT_FOUND;
 import static org.xidobi.WinApi.EV_RXCHAR;
-import static org.xidobi.WinApi.GENERIC_READ;
-import static org.xidobi.WinApi.GENERIC_WRITE;
 import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
-import static org.xidobi.WinApi.OPEN_EXISTING;
 import static org.xidobi.WinApi.PURGE_RXABORT;
 import static org.xidobi.WinApi.PURGE_RXCLEAR;
 import static org.xidobi.WinApi.PURGE_TXABORT;
@@ -35,6 +36,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.xidobi.spi.NativeCodeException;
 import org.xidobi.structs.DWORD;
@@ -75,7 +77,6 @@ public class TestSerialConnectionImpl {
 	private WinApi os;
 
 	private int handle = 1534;
-	private int terminationHandle = 13423;
 
 	@Before
 	@SuppressWarnings("javadoc")
@@ -90,6 +91,7 @@ public class TestSerialConnectionImpl {
 
 		when(port.getPortName()).thenReturn("COM1");
 		when(os.CreateEventA(0, true, false, null)).thenReturn(eventHandle);
+		when(os.SetEvent(eventHandle)).thenReturn(true);
 
 		serialConnectionImpl = new SerialConnectionImpl(port, os, handle);
 	}
@@ -137,9 +139,6 @@ public class TestSerialConnectionImpl {
 		when(os.CloseHandle(eventHandle)).thenReturn(true);
 		when(os.CloseHandle(handle)).thenReturn(true);
 
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(terminationHandle);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
-
 		try {
 			serialConnectionImpl.close();
 		}
@@ -163,9 +162,6 @@ public class TestSerialConnectionImpl {
 		when(os.CloseHandle(eventHandle)).thenReturn(true);
 		when(os.CloseHandle(handle)).thenReturn(true);
 
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(terminationHandle);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
-
 		exception.expect(NativeCodeException.class);
 
 		try {
@@ -191,9 +187,6 @@ public class TestSerialConnectionImpl {
 		when(os.SetCommMask(handle, EV_RXCHAR)).thenReturn(true);
 		when(os.CloseHandle(eventHandle)).thenReturn(true);
 		when(os.CloseHandle(handle)).thenReturn(true);
-
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(terminationHandle);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
 		//@formatter:on
 
 		exception.expect(NativeCodeException.class);
@@ -221,9 +214,6 @@ public class TestSerialConnectionImpl {
 		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
 		when(os.CloseHandle(eventHandle)).thenReturn(true);
 		when(os.CloseHandle(handle)).thenReturn(true);
-
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(terminationHandle);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
 		//@formatter:on
 
 		exception.expect(NativeCodeException.class);
@@ -251,9 +241,6 @@ public class TestSerialConnectionImpl {
 		when(os.CloseHandle(eventHandle)).thenReturn(false); /* fails! */
 		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
 		when(os.CloseHandle(handle)).thenReturn(true);
-		
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(terminationHandle);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
 		//@formatter:on
 
 		exception.expect(NativeCodeException.class);
@@ -281,9 +268,6 @@ public class TestSerialConnectionImpl {
 		when(os.CloseHandle(eventHandle)).thenReturn(true); 
 		when(os.CloseHandle(handle)).thenReturn(false); /* fails! */
 		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
-		
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(terminationHandle);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
 		//@formatter:on
 
 		exception.expect(NativeCodeException.class);
@@ -311,9 +295,6 @@ public class TestSerialConnectionImpl {
 		when(os.CloseHandle(eventHandle)).thenReturn(false); /* fails! */
 		when(os.CloseHandle(handle)).thenReturn(false); /* fails! */
 		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
-		
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(terminationHandle);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
 		//@formatter:on
 
 		exception.expect(NativeCodeException.class);
@@ -327,92 +308,72 @@ public class TestSerialConnectionImpl {
 	}
 
 	/**
-	 * Verifies that {@link SerialConnectionImpl#close()} awaits the termination of serial
-	 * connection, when the port is busy.
+	 * Verifies that {@link SerialConnectionImpl#close()} doesn't re-open the port in order to
+	 * determine if the pending operations are terminated.
 	 * 
 	 * @throws Exception
 	 */
 	@Test
-	public void close_waitForTermination_portBusy() throws Exception {
+	public void close_doesNotReopenPort() throws Exception {
 		// @formatter:off
 		when(os.CancelIo(handle)).thenReturn(true);
 		when(os.PurgeComm(handle, PURGE_RXABORT | PURGE_RXCLEAR | PURGE_TXABORT | PURGE_TXCLEAR)).thenReturn(true);
 		when(os.SetCommMask(handle, EV_RXCHAR)).thenReturn(true); 
 		when(os.CloseHandle(eventHandle)).thenReturn(true); 
 		when(os.CloseHandle(handle)).thenReturn(true); 
-		
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(INVALID_HANDLE_VALUE, terminationHandle);
-		when(os.GetLastError()).thenReturn(ERROR_ACCESS_DENIED);
-		when(os.CloseHandle(terminationHandle)).thenReturn(true);
 		//@formatter:on
 
-		try {
-			serialConnectionImpl.close();
-		}
-		finally {
-			verifyClosePort();
-			verify(os, times(2)).CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0);
-			verify(os).CloseHandle(terminationHandle);
-		}
+		serialConnectionImpl.close();
+
+		verify(os, never()).CreateFileA(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt(), anyInt());
 	}
 
 	/**
-	 * Verifies that {@link SerialConnectionImpl#close()} awaits the termination of serial
-	 * connection, when the port was not found.
+	 * Verifies that the event handles are closed after the port handle, because closing the port
+	 * handle aborts the pending operations, which signal their events.
 	 * 
 	 * @throws Exception
 	 */
 	@Test
-	public void close_waitForTermination_portNotFound() throws Exception {
+	public void close_closesEventHandlesAfterPortHandle() throws Exception {
 		// @formatter:off
 		when(os.CancelIo(handle)).thenReturn(true);
 		when(os.PurgeComm(handle, PURGE_RXABORT | PURGE_RXCLEAR | PURGE_TXABORT | PURGE_TXCLEAR)).thenReturn(true);
 		when(os.SetCommMask(handle, EV_RXCHAR)).thenReturn(true); 
 		when(os.CloseHandle(eventHandle)).thenReturn(true); 
 		when(os.CloseHandle(handle)).thenReturn(true); 
-		
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(INVALID_HANDLE_VALUE);
-		when(os.GetLastError()).thenReturn(ERROR_FILE_NOT_FOUND);
 		//@formatter:on
 
-		try {
-			serialConnectionImpl.close();
-		}
-		finally {
-			verifyClosePort();
-			verify(os).CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0);
-		}
+		serialConnectionImpl.close();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).CloseHandle(handle);
+		inOrder.verify(os, times(2)).CloseHandle(eventHandle);
+		inOrder.verify(os).free(ptrOverlapped);
 	}
 
 	/**
-	 * Verifies that a {@link NativeCodeException} is thrown, when <code>CreateFileA</code> fails
-	 * with an unexpected error during the wait for termination.
+	 * Verifies that the native memory of the reader and writer is accounted for the connection,
+	 * until it is closed.
 	 * 
 	 * @throws Exception
 	 */
 	@Test
-	public void close_waitForTerminationFailedUnexpected() throws Exception {
+	public void getAllocatedBytes() throws Exception {
 		// @formatter:off
 		when(os.CancelIo(handle)).thenReturn(true);
 		when(os.PurgeComm(handle, PURGE_RXABORT | PURGE_RXCLEAR | PURGE_TXABORT | PURGE_TXCLEAR)).thenReturn(true);
 		when(os.SetCommMask(handle, EV_RXCHAR)).thenReturn(true); 
 		when(os.CloseHandle(eventHandle)).thenReturn(true); 
 		when(os.CloseHandle(handle)).thenReturn(true); 
-		
-		when(os.CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0)).thenReturn(INVALID_HANDLE_VALUE);
-		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
 		//@formatter:on
+		// reader: overlapped, bytes transferred and event mask; writer: overlapped and bytes transferred
+		assertThat(serialConnectionImpl.getAllocatedBytes(), is((long) 2 * OVERLAPPED_SIZE + 3 * DWORD_SIZE));
 
-		exception.expect(NativeCodeException.class);
-		exception.expectMessage("Couldn't wait for close termination! CreateFileA failed unexpected!");
+		serialConnectionImpl.close();
 
-		try {
-			serialConnectionImpl.close();
-		}
-		finally {
-			verifyClosePort();
-			verify(os).CreateFileA("\\\\.\\COM1", GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0);
-		}
+		assertThat(serialConnectionImpl.getAllocatedBytes(), is(0L));
+		assertThat(serialConnectionImpl.getLeakedBytes(), is(0L));
 	}
 
 	// Utilities for this Testclass ///////////////////////////////////////////////////////////
@@ -291,6 +291,7 @@ public class TestSerialPortImpl {
 		when(os.PurgeComm(PORT_HANDLE, PURGE_RXCLEAR | PURGE_TXCLEAR)).thenReturn(true);
 		when(os.SetCommMask(PORT_HANDLE, EV_RXCHAR)).thenReturn(true);
 		when(os.CreateEventA(0, true, false, null)).thenReturn(1);
+		when(settings.getMaxPendingWrites()).thenReturn(1);
 
 		SerialConnection result = port.open(settings);
 
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.WinApi.ERROR_IO_PENDING;
+import static org.xidobi.WinApi.ERROR_OPERATION_ABORTED;
+import static org.xidobi.WinApi.EV_RXCHAR;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.structs.COMSTAT;
+import org.xidobi.structs.DWORD;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.NativeByteArray;
+import org.xidobi.structs.OVERLAPPED;
+
+/**
+ * Tests the class {@link SerialSelectionKeyImpl}.
+ * 
+ * @author Christian Schwarz
+ */
+public class TestSerialSelectionKeyImpl {
+
+	/** Dummy serial port handle */
+	private static final int PORT_HANDLE = 2;
+	/** Dummy handle of the I/O completion port */
+	private static final int COMPLETION_PORT = 3;
+	/** Dummy event handle of the connection */
+	private static final int EVENT_HANDLE = 4;
+
+	/** some dummy data */
+	private static final byte[] DATA = "Hello".getBytes();
+
+	/** some unspecific error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private WinApi os;
+	@Mock
+	private SerialPort port;
+	@Mock
+	private SerialEventHandler handler;
+
+	/** the next address, that is returned by <code>malloc</code> */
+	private int nextAddress = 100;
+
+	/** the registered connection */
+	private SerialConnectionImpl connection;
+
+	/** the selector of the key */
+	private SerialSelectorImpl selector;
+
+	/** the address of the overlapped of the <code>WaitCommEvent</code> operation */
+	private int waitOverlapped;
+	/** the address of the overlapped of the <code>ReadFile</code> operation */
+	private int readOverlapped;
+	/** the address of the overlapped of the <code>WriteFile</code> operation */
+	private int writeOverlapped;
+
+	/** Class under test */
+	private SerialSelectionKeyImpl key;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() throws Exception {
+		initMocks(this);
+
+		when(os.sizeOf_OVERLAPPED()).thenReturn(1);
+		when(os.sizeOf_DWORD()).thenReturn(2);
+		doAnswer(withNextAddress()).when(os).malloc(anyInt());
+
+		when(port.getPortName()).thenReturn("COM1");
+		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
+		when(os.CreateIoCompletionPort(anyInt(), anyInt(), anyInt(), anyInt())).thenReturn(COMPLETION_PORT);
+		when(os.WaitCommEvent(eq(PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+
+		connection = new SerialConnectionImpl(port, os, PORT_HANDLE);
+		selector = new SerialSelectorImpl(os);
+		key = new SerialSelectionKeyImpl(selector, connection, handler, os);
+		key.start();
+
+		waitOverlapped = key.getOverlappedAddresses()[0];
+		readOverlapped = key.getOverlappedAddresses()[1];
+		writeOverlapped = key.getOverlappedAddresses()[2];
+	}
+
+	/**
+	 * Verifies that the key waits for a communication event, when it is started.
+	 */
+	@Test
+	public void start() {
+		verify(os).WaitCommEvent(eq(PORT_HANDLE), anyDWORD(), overlappedAt(waitOverlapped));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when <code>WaitCommEvent</code> fails.
+	 */
+	@Test
+	public void start_WaitCommEventFails() throws Exception {
+		when(os.GetLastError()).thenReturn(ERROR_OPERATION_ABORTED);
+		key = new SerialSelectionKeyImpl(selector, connection, handler, os);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed! I/O operation has been aborted.");
+
+		key.start();
+	}
+
+	/**
+	 * Verifies that the available bytes are read, when a communication event occurred, and that
+	 * they are passed to the handler when the read operation is completed. Afterwards the key
+	 * waits for the next communication event.
+	 */
+	@Test
+	public void processCompletion_dataReceived() {
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(DATA.length)).when(os).ClearCommError(eq(PORT_HANDLE), anyINT(), anyCOMSTAT());
+		when(os.ReadFile(eq(PORT_HANDLE), anyByteBuffer(), eq(DATA.length), anyDWORD(), overlappedAt(readOverlapped))).thenReturn(false);
+
+		assertThat(key.processCompletion(waitOverlapped, true, 0, 0), is(0));
+		assertThat(key.processCompletion(readOverlapped, true, DATA.length, 0), is(1));
+
+		ArgumentCaptor<ByteBuffer> data = ArgumentCaptor.forClass(ByteBuffer.class);
+		verify(handler).dataReceived(eq(key), data.capture());
+		assertThat(data.getValue().remaining(), is(DATA.length));
+		verify(os, times(2)).WaitCommEvent(eq(PORT_HANDLE), anyDWORD(), overlappedAt(waitOverlapped));
+	}
+
+	/**
+	 * Verifies that the key waits again, when no bytes are available after a communication event.
+	 */
+	@Test
+	public void processCompletion_noAvailableBytes() {
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(EV_RXCHAR);
+		doAnswer(withAvailableBytes(0)).when(os).ClearCommError(eq(PORT_HANDLE), anyINT(), anyCOMSTAT());
+
+		assertThat(key.processCompletion(waitOverlapped, true, 0, 0), is(0));
+
+		verify(os, never()).ReadFile(anyInt(), anyByteBuffer(), anyInt(), anyDWORD(), anyOVERLAPPED());
+		verify(os, times(2)).WaitCommEvent(eq(PORT_HANDLE), anyDWORD(), overlappedAt(waitOverlapped));
+	}
+
+	/**
+	 * Verifies that the handler is notified, when the wait operation is released with an empty
+	 * event mask, this happens when the connection is closed.
+	 */
+	@Test
+	public void processCompletion_emptyEventMask() {
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(0);
+
+		assertThat(key.processCompletion(waitOverlapped, true, 0, 0), is(1));
+
+		verify(handler).failed(eq(key), failureWithMessage("Port COM1 was closed!"));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that the handler is notified, when the wait operation failed.
+	 */
+	@Test
+	public void processCompletion_waitFailed() {
+		assertThat(key.processCompletion(waitOverlapped, false, 0, ERROR_OPERATION_ABORTED), is(1));
+
+		verify(handler).failed(eq(key), failureWithMessage("Port COM1 was closed! I/O operation has been aborted."));
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that the handler is notified, when the read operation failed.
+	 */
+	@Test
+	public void processCompletion_readFailed() {
+		assertThat(key.processCompletion(readOverlapped, false, 0, DUMMY_ERROR_CODE), is(1));
+
+		verify(handler).failed(eq(key), failureWithMessage("ReadFile failed unexpected!"));
+		verify(handler, never()).dataReceived(eq(key), anyByteBuffer());
+	}
+
+	/**
+	 * Verifies that the staged data is written and that the completion is passed to the handler.
+	 */
+	@Test
+	public void write() throws Exception {
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), overlappedAt(writeOverlapped))).thenReturn(false);
+		ByteBuffer src = ByteBuffer.wrap(DATA);
+
+		key.write(src);
+		assertThat(key.processCompletion(writeOverlapped, true, DATA.length, 0), is(1));
+
+		verify(os).setByteArray(anyNativeByteArray(), eq(0), same(DATA), eq(0), eq(DATA.length));
+		verify(handler).writeCompleted(eq(key), same(src));
+		assertThat(src.remaining(), is(0));
+	}
+
+	/**
+	 * Verifies that the handler is notified, when an unexpected number of bytes was written.
+	 */
+	@Test
+	public void write_unexpectedNumberOfBytes() throws Exception {
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), overlappedAt(writeOverlapped))).thenReturn(true);
+
+		key.write(ByteBuffer.wrap(DATA));
+		key.processCompletion(writeOverlapped, true, 1, 0);
+
+		verify(handler).failed(eq(key), failureWithMessage("WriteFile returned an unexpected number of transferred bytes! Transferred: 1, expected: 5"));
+		verify(handler, never()).writeCompleted(eq(key), anyByteBuffer());
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown and the key is cancelled, when
+	 * <code>WriteFile</code> fails immediatly.
+	 */
+	@Test
+	public void write_WriteFileFails() throws Exception {
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), overlappedAt(writeOverlapped))).thenReturn(false);
+		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
+
+		try {
+			key.write(ByteBuffer.wrap(DATA));
+			fail("IOException expected!");
+		}
+		catch (IOException e) {
+			assertThat(e.getMessage().startsWith("WriteFile failed unexpected!"), is(true));
+		}
+		assertThat(key.isValid(), is(false));
+	}
+
+	/**
+	 * Verifies that the pending wait operation is released, when the key is cancelled, and that
+	 * the native resources are released when its completion packet is dequeued.
+	 */
+	@Test
+	public void cancel() {
+		key.cancel();
+
+		verify(os).SetCommMask(PORT_HANDLE, EV_RXCHAR);
+		verify(os, never()).free(waitOverlapped);
+
+		assertThat(key.processCompletion(waitOverlapped, true, 0, 0), is(0));
+
+		verify(os).free(waitOverlapped);
+		verify(os).free(readOverlapped);
+		verify(os).free(writeOverlapped);
+		verify(handler, never()).failed(eq(key), any(IOException.class));
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Returns an incrementing address for every call of <code>malloc</code>. */
+	private Answer<Integer> withNextAddress() {
+		return new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				return nextAddress++;
+			}
+		};
+	}
+
+	/** Sets the given number of available bytes to the {@link COMSTAT} of the invocation. */
+	private Answer<Boolean> withAvailableBytes(final int availableBytes) {
+		return new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				((COMSTAT) invocation.getArguments()[2]).cbInQue = availableBytes;
+				return true;
+			}
+		};
+	}
+
+	/** matches the {@link OVERLAPPED} at the given address */
+	private OVERLAPPED overlappedAt(final int address) {
+		return argThat(new ArgumentMatcher<OVERLAPPED>() {
+			@Override
+			public boolean matches(Object argument) {
+				return argument instanceof OVERLAPPED && ((OVERLAPPED) argument).address() == address;
+			}
+		});
+	}
+
+	/** matches an {@link IOException}, whose message starts with the given prefix */
+	private IOException failureWithMessage(final String prefix) {
+		return argThat(new ArgumentMatcher<IOException>() {
+			@Override
+			public boolean matches(Object argument) {
+				return argument instanceof IOException && ((IOException) argument).getMessage().startsWith(prefix);
+			}
+		});
+	}
+
+	/** matches any {@link OVERLAPPED} */
+	private OVERLAPPED anyOVERLAPPED() {
+		return any(OVERLAPPED.class);
+	}
+
+	/** matches any {@link DWORD} */
+	private DWORD anyDWORD() {
+		return any(DWORD.class);
+	}
+
+	/** matches any {@link INT} */
+	private INT anyINT() {
+		return any(INT.class);
+	}
+
+	/** matches any {@link COMSTAT} */
+	private COMSTAT anyCOMSTAT() {
+		return any(COMSTAT.class);
+	}
+
+	/** matches any {@link NativeByteArray} */
+	private NativeByteArray anyNativeByteArray() {
+		return any(NativeByteArray.class);
+	}
+
+	/** matches any {@link ByteBuffer} */
+	private ByteBuffer anyByteBuffer() {
+		return any(ByteBuffer.class);
+	}
+}
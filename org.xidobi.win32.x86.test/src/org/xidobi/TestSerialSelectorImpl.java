@@ -0,0 +1,419 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.xidobi.WinApi.ERROR_INVALID_HANDLE;
+import static org.xidobi.WinApi.ERROR_INVALID_PARAMETER;
+import static org.xidobi.WinApi.ERROR_IO_PENDING;
+import static org.xidobi.WinApi.EV_RXCHAR;
+import static org.xidobi.WinApi.INFINITE;
+import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
+import static org.xidobi.WinApi.NULL;
+import static org.xidobi.WinApi.WAIT_TIMEOUT;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.DWORD;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.OVERLAPPED;
+
+/**
+ * Tests the class {@link SerialSelectorImpl}.
+ * 
+ * @author Christian Schwarz
+ */
+public class TestSerialSelectorImpl {
+
+	/** Dummy serial port handle */
+	private static final int PORT_HANDLE = 2;
+	/** Dummy handle of the I/O completion port */
+	private static final int COMPLETION_PORT = 3;
+	/** Dummy event handle of the connection */
+	private static final int EVENT_HANDLE = 4;
+
+	/** some unspecific error code */
+	private static final int DUMMY_ERROR_CODE = 12345;
+
+	/** check exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Mock
+	private WinApi os;
+	@Mock
+	private SerialPort port;
+	@Mock
+	private SerialEventHandler handler;
+
+	/** the next address, that is returned by <code>malloc</code> */
+	private int nextAddress = 100;
+	/** the queued completion packets, they are dequeued by <code>GetQueuedCompletionStatus</code> */
+	private final Queue<int[]> completionPackets = new LinkedList<int[]>();
+	/** the error code, that is returned by <code>GetLastError</code> */
+	private int lastError = ERROR_IO_PENDING;
+
+	/** the connection to register */
+	private SerialConnectionImpl connection;
+
+	/** Class under test */
+	private SerialSelectorImpl selector;
+
+	@Before
+	@SuppressWarnings("javadoc")
+	public void setUp() {
+		initMocks(this);
+
+		when(os.sizeOf_OVERLAPPED()).thenReturn(1);
+		when(os.sizeOf_DWORD()).thenReturn(2);
+		doAnswer(withNextAddress()).when(os).malloc(anyInt());
+		doAnswer(withLastError()).when(os).GetLastError();
+		doAnswer(withQueuedCompletionPacket()).when(os).GetQueuedCompletionStatus(eq(COMPLETION_PORT), anyINT(), anyINT(), anyINT(), anyInt());
+
+		when(port.getPortName()).thenReturn("COM1");
+		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
+		when(os.CreateIoCompletionPort(INVALID_HANDLE_VALUE, NULL, 0, 1)).thenReturn(COMPLETION_PORT);
+		when(os.CreateIoCompletionPort(PORT_HANDLE, COMPLETION_PORT, PORT_HANDLE, 0)).thenReturn(COMPLETION_PORT);
+		when(os.WaitCommEvent(eq(PORT_HANDLE), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.PostQueuedCompletionStatus(COMPLETION_PORT, 0, 0, NULL)).thenReturn(true);
+		when(os.CloseHandle(COMPLETION_PORT)).thenReturn(true);
+
+		connection = new SerialConnectionImpl(port, os, PORT_HANDLE);
+		selector = new SerialSelectorImpl(os);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>null</code> is
+	 * passed.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_nullOs() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >os< must not be null!");
+
+		new SerialSelectorImpl(null);
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when the I/O completion port can't be
+	 * created.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_CreateIoCompletionPortFails() {
+		when(os.CreateIoCompletionPort(INVALID_HANDLE_VALUE, NULL, 0, 1)).thenReturn(NULL);
+		lastError = DUMMY_ERROR_CODE;
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("CreateIoCompletionPort failed unexpected!");
+
+		new SerialSelectorImpl(os);
+	}
+
+	/**
+	 * Verifies that the handle of the connection is associated with the I/O completion port and
+	 * that the key waits for data.
+	 */
+	@Test
+	public void register() throws Exception {
+		SerialSelectionKey key = selector.register(connection, handler);
+
+		assertThat(key.isValid(), is(true));
+		assertThat(key.getConnection(), is((SerialConnection) connection));
+		verify(os).CreateIoCompletionPort(PORT_HANDLE, COMPLETION_PORT, PORT_HANDLE, 0);
+		verify(os).WaitCommEvent(eq(PORT_HANDLE), anyDWORD(), anyOVERLAPPED());
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the connection wasn't
+	 * opened by xidobi for Windows.
+	 */
+	@Test
+	public void register_foreignConnection() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >connection< is invalid! The connection wasn't opened by xidobi for Windows!");
+
+		selector.register(mock(SerialConnection.class), handler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the connection is already
+	 * registered.
+	 */
+	@Test
+	public void register_alreadyRegistered() throws Exception {
+		selector.register(connection, handler);
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("The connection is already registered!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that the handle is associated only once, when the connection is registered again
+	 * after its key was cancelled.
+	 */
+	@Test
+	public void register_afterCancel() throws Exception {
+		selector.register(connection, handler).cancel();
+
+		selector.register(connection, handler);
+
+		verify(os, times(1)).CreateIoCompletionPort(PORT_HANDLE, COMPLETION_PORT, PORT_HANDLE, 0);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the handle is already
+	 * associated with another I/O completion port.
+	 */
+	@Test
+	public void register_registeredWithOtherSelector() throws Exception {
+		when(os.CreateIoCompletionPort(PORT_HANDLE, COMPLETION_PORT, PORT_HANDLE, 0)).thenReturn(NULL);
+		lastError = ERROR_INVALID_PARAMETER;
+
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("The connection was already registered with another selector!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when the handle of the connection is
+	 * invalid.
+	 */
+	@Test
+	public void register_invalidHandle() throws Exception {
+		when(os.CreateIoCompletionPort(PORT_HANDLE, COMPLETION_PORT, PORT_HANDLE, 0)).thenReturn(NULL);
+		lastError = ERROR_INVALID_HANDLE;
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when the selector is closed.
+	 */
+	@Test
+	public void register_closedSelector() throws Exception {
+		selector.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selector was closed!");
+
+		selector.register(connection, handler);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when a negative timeout is
+	 * passed.
+	 */
+	@Test
+	public void select_negativeTimeout() throws Exception {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >timeout< is invalid! Expected a value greater or equal to 0!");
+
+		selector.select(-1);
+	}
+
+	/**
+	 * Verifies that <code>0</code> is returned, when no completion packet is queued within the
+	 * timeout.
+	 */
+	@Test
+	public void select_timeout() throws Exception {
+		assertThat(selector.select(10), is(0));
+
+		verify(os).GetQueuedCompletionStatus(eq(COMPLETION_PORT), anyINT(), anyINT(), anyINT(), eq(10));
+	}
+
+	/**
+	 * Verifies that the completion packets are dispatched to the key of their overlapped struct.
+	 */
+	@Test
+	public void select_dispatchesCompletionPacket() throws Exception {
+		SerialSelectionKeyImpl key = (SerialSelectionKeyImpl) selector.register(connection, handler);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(0);
+		queueCompletionPacket(true, 0, key.getOverlappedAddresses()[0]);
+
+		assertThat(selector.select(), is(1));
+
+		verify(handler).failed(eq(key), any(IOException.class));
+	}
+
+	/**
+	 * Verifies that completion packets of unknown overlapped structs are ignored, they belong to
+	 * the read and write operations of the connection itself.
+	 */
+	@Test
+	public void select_ignoresUnknownCompletionPacket() throws Exception {
+		selector.register(connection, handler);
+		queueCompletionPacket(true, 5, 1);
+
+		assertThat(selector.select(0), is(0));
+
+		verify(handler, never()).dataReceived(any(SerialSelectionKey.class), any(ByteBuffer.class));
+	}
+
+	/**
+	 * Verifies that a {@link NativeCodeException} is thrown, when
+	 * <code>GetQueuedCompletionStatus</code> fails.
+	 */
+	@Test
+	public void select_GetQueuedCompletionStatusFails() throws Exception {
+		queueCompletionPacket(false, 0, NULL);
+		lastError = DUMMY_ERROR_CODE;
+
+		exception.expect(NativeCodeException.class);
+		exception.expectMessage("GetQueuedCompletionStatus failed unexpected!");
+
+		selector.select(0);
+	}
+
+	/**
+	 * Verifies that a wake up packet is posted and that it returns a waiting selection operation.
+	 */
+	@Test
+	public void wakeup() throws Exception {
+		selector.wakeup();
+		queueCompletionPacket(true, 0, NULL);
+
+		assertThat(selector.select(), is(0));
+
+		verify(os).PostQueuedCompletionStatus(COMPLETION_PORT, 0, 0, NULL);
+		verify(os).GetQueuedCompletionStatus(eq(COMPLETION_PORT), anyINT(), anyINT(), anyINT(), eq(INFINITE));
+	}
+
+	/**
+	 * Verifies that the keys are cancelled, that the completion packets of their pending
+	 * operations are dequeued and that the I/O completion port is closed.
+	 */
+	@Test
+	public void close() throws Exception {
+		SerialSelectionKeyImpl key = (SerialSelectionKeyImpl) selector.register(connection, handler);
+		int waitOverlapped = key.getOverlappedAddresses()[0];
+		queueCompletionPacket(true, 0, NULL);
+		queueCompletionPacket(true, 0, waitOverlapped);
+
+		selector.close();
+
+		assertThat(selector.isClosed(), is(true));
+		assertThat(key.isValid(), is(false));
+		verify(os).SetCommMask(PORT_HANDLE, EV_RXCHAR);
+		verify(os).free(waitOverlapped);
+		verify(os).CloseHandle(COMPLETION_PORT);
+		verify(handler, never()).failed(eq(key), any(IOException.class));
+	}
+
+	/**
+	 * Verifies that an {@link IOException} is thrown, when a closed selector selects.
+	 */
+	@Test
+	public void select_closedSelector() throws Exception {
+		selector.close();
+
+		exception.expect(IOException.class);
+		exception.expectMessage("The selector was closed!");
+
+		selector.select();
+	}
+
+	// Utilities for this Testclass ///////////////////////////////////////////////////////////
+
+	/** Queues a completion packet, that is dequeued by <code>GetQueuedCompletionStatus</code>. */
+	private void queueCompletionPacket(boolean succeeded, int numberOfBytes, int overlappedAddress) {
+		completionPackets.add(new int[] { succeeded ? 1 : 0, numberOfBytes, overlappedAddress });
+	}
+
+	/** Dequeues the next queued completion packet, a time out is signaled if there is none. */
+	private Answer<Boolean> withQueuedCompletionPacket() {
+		return new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				Object[] args = invocation.getArguments();
+				int[] packet = completionPackets.poll();
+				if (packet == null) {
+					((INT) args[3]).value = NULL;
+					lastError = WAIT_TIMEOUT;
+					return false;
+				}
+				((INT) args[1]).value = packet[1];
+				((INT) args[3]).value = packet[2];
+				return packet[0] == 1;
+			}
+		};
+	}
+
+	/** Returns an incrementing address for every call of <code>malloc</code>. */
+	private Answer<Integer> withNextAddress() {
+		return new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				return nextAddress++;
+			}
+		};
+	}
+
+	/** Returns the current value of {@link #lastError}. */
+	private Answer<Integer> withLastError() {
+		return new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				return lastError;
+			}
+		};
+	}
+
+	/** matches any {@link OVERLAPPED} */
+	private OVERLAPPED anyOVERLAPPED() {
+		return any(OVERLAPPED.class);
+	}
+
+	/** matches any {@link DWORD} */
+	private DWORD anyDWORD() {
+		return any(DWORD.class);
+	}
+
+	/** matches any {@link INT} */
+	private INT anyINT() {
+		return any(INT.class);
+	}
+}
@@ -15,9 +15,17 @@
  */
 package org.xidobi;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -29,6 +37,7 @@ import static org.xidobi.WinApi.ERROR_INVALID_HANDLE;
 import static org.xidobi.WinApi.ERROR_IO_PENDING;
 import static org.xidobi.WinApi.ERROR_NOT_READY;
 import static org.xidobi.WinApi.ERROR_OPERATION_ABORTED;
+import static org.xidobi.WinApi.INFINITE;
 import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
 import static org.xidobi.WinApi.WAIT_ABANDONED;
 import static org.xidobi.WinApi.WAIT_FAILED;
@@ -36,15 +45,23 @@ import static org.xidobi.WinApi.WAIT_OBJECT_0;
 import static org.xidobi.WinApi.WAIT_TIMEOUT;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.xidobi.spi.NativeCodeException;
+import org.xidobi.spi.SerialConnectionMetrics;
 import org.xidobi.structs.DWORD;
 import org.xidobi.structs.INT;
+import org.xidobi.structs.NativeByteArray;
 import org.xidobi.structs.OVERLAPPED;
 
 /**
@@ -63,12 +80,20 @@ public class TestWriterImpl {
 	private static final int DWORD_SIZE = 2;
 	/** Dummy pointer to an {@link DWORD} */
 	private int PTR_BYTES_TRANSFERRED = 2;
+	/** Dummy pointer to the staging buffer */
+	private static final int PTR_WRITE_BUFFER = 3;
+	/** Dummy pointer to a larger staging buffer */
+	private static final int PTR_LARGER_WRITE_BUFFER = 4;
 
 	/** some unspecific error code */
 	private static final int DUMMY_ERROR_CODE = 12345;
 
 	/** Dummy event handle */
 	private static final int EVENT_HANDLE = 1;
+	/** Dummy event handle of the second slot */
+	private static final int SECOND_EVENT_HANDLE = 5;
+	/** Dummy pointer to the {@link OVERLAPPED}-struct of the second slot */
+	private static final int PTR_SECOND_OVERLAPPED = 6;
 
 	/** Dummy serial port handle */
 	private static final int PORT_HANDLE = 2;
@@ -100,6 +125,8 @@ public class TestWriterImpl {
 		when(os.sizeOf_DWORD()).thenReturn(DWORD_SIZE);
 		when(os.malloc(DWORD_SIZE)).thenReturn(PTR_BYTES_TRANSFERRED);
 
+		when(os.malloc(DATA.length)).thenReturn(PTR_WRITE_BUFFER);
+
 		when(port.getPortName()).thenReturn("COM1");
 		when(os.CloseHandle(anyInt())).thenReturn(true);
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
@@ -155,12 +182,12 @@ public class TestWriterImpl {
 	 */
 	@Test
 	public void write_succeedImmediatly() throws IOException {
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
 		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
 
 		writer.write(DATA);
 
-		verify(os, times(1)).WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		verify(os, times(1)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
 	}
 
 	/**
@@ -171,7 +198,7 @@ public class TestWriterImpl {
 	 */
 	@Test
 	public void write_WriteFileReturnsUnexpectedNumberOfBytes() throws IOException {
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
 		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length - 1);
 
 		exception.expect(NativeCodeException.class);
@@ -179,7 +206,7 @@ public class TestWriterImpl {
 
 		writer.write(DATA);
 
-		verify(os, times(1)).WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		verify(os, times(1)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
 	}
 
 	/**
@@ -303,7 +330,7 @@ public class TestWriterImpl {
 	@Test
 	public void write_WriteFileFails() throws IOException {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(DUMMY_ERROR_CODE);
 
 		exception.expect(NativeCodeException.class);
@@ -321,7 +348,7 @@ public class TestWriterImpl {
 	@Test
 	public void write_WaitForSingleObjectReturnsUndefinedValue() throws IOException {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(DUMMY_ERROR_CODE);
 
@@ -340,7 +367,7 @@ public class TestWriterImpl {
 	@Test
 	public void write_successfull() throws IOException {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_OBJECT_0);
 		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
@@ -358,7 +385,7 @@ public class TestWriterImpl {
 	@Test
 	public void write_lessBytesWritten() throws IOException {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_OBJECT_0);
 		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
@@ -379,11 +406,11 @@ public class TestWriterImpl {
 	@Test
 	public void write_WaitForSingleObjectReturnsWAIT_TIMEOUT() throws IOException {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_TIMEOUT);
 
-		exception.expect(IOException.class);
+		exception.expect(InterruptedIOException.class);
 		exception.expectMessage("Write operation timed out after 2000 milliseconds!");
 
 		writer.write(DATA);
@@ -500,7 +527,7 @@ public class TestWriterImpl {
 	@Test
 	public void write_WaitForSingleObjectFails() throws IOException {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_FAILED);
 
@@ -519,7 +546,7 @@ public class TestWriterImpl {
 	@Test
 	public void write_WaitForSingleObjectReturnsWAIT_ABANDONED() throws IOException {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_ABANDONED);
 
@@ -649,7 +676,144 @@ public class TestWriterImpl {
 	}
 
 	/**
-	 * Verifies that a call to close() frees all handles.
+	 * Verifies that the data is copied to the staging buffer and written with a single
+	 * <code>WriteFile</code>.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void write_copiesDataToStagingBuffer() throws IOException {
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		writer.write(DATA);
+
+		verify(os, times(1)).setByteArray(anyNativeByteArray(), eq(0), same(DATA), eq(0), eq(DATA.length));
+		verify(os, times(1)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+	}
+
+	/**
+	 * Verifies that only the given range of the data is written.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void write_offsetAndLength() throws IOException {
+		byte[] data = new byte[10];
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		writer.write(data, 3, DATA.length);
+
+		verify(os, times(1)).setByteArray(anyNativeByteArray(), eq(0), same(data), eq(3), eq(DATA.length));
+		verify(os, times(1)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+	}
+
+	/**
+	 * Verifies that nothing is written, when the length is 0.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void write_zeroLength() throws IOException {
+		writer.write(DATA, 2, 0);
+
+		verify(os, never()).WriteFile(anyInt(), anyNativeByteArray(), anyInt(), anyDWORD(), anyOVERLAPPED());
+	}
+
+	/**
+	 * Verifies that the staging buffer is allocated only once for consecutive writes of the same
+	 * size.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void write_reusesStagingBuffer() throws IOException {
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		for (int i = 0; i < 1000; i++)
+			writer.write(DATA);
+
+		verify(os, times(1)).malloc(DATA.length);
+		verify(os, never()).free(PTR_WRITE_BUFFER);
+	}
+
+	/**
+	 * Verifies that the staging buffer is replaced by a larger one, when more bytes must be
+	 * written than it can hold.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void write_growsStagingBuffer() throws IOException {
+		byte[] largerData = new byte[DATA.length + 1];
+		when(os.malloc(2 * DATA.length)).thenReturn(PTR_LARGER_WRITE_BUFFER);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), anyInt(), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length, largerData.length);
+
+		writer.write(DATA);
+		writer.write(largerData);
+
+		verify(os, times(1)).malloc(2 * DATA.length);
+		verify(os, times(1)).free(PTR_WRITE_BUFFER);
+	}
+
+	/**
+	 * Verifies that the remaining bytes of all buffers are written with a single
+	 * <code>WriteFile</code> and that the positions of the buffers are advanced to their limit.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void writeByteBuffers_gathering() throws IOException {
+		ByteBuffer header = ByteBuffer.allocateDirect(2);
+		ByteBuffer payload = ByteBuffer.wrap(new byte[4]);
+		payload.position(1);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		writer.write(new ByteBuffer[] { header, payload });
+
+		verify(os, times(1)).setByteBuffer(anyNativeByteArray(), eq(0), same(header), eq(2));
+		verify(os, times(1)).setByteArray(anyNativeByteArray(), eq(2), same(payload.array()), eq(1), eq(3));
+		verify(os, times(1)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		assertThat(header.hasRemaining(), is(false));
+		assertThat(payload.hasRemaining(), is(false));
+	}
+
+	/**
+	 * Verifies that the content of a read-only buffer is copied and its position is advanced.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void writeByteBuffers_readOnly() throws IOException {
+		ByteBuffer src = ByteBuffer.wrap(DATA).asReadOnlyBuffer();
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		writer.write(new ByteBuffer[] { src });
+
+		verify(os, times(1)).setByteArray(anyNativeByteArray(), eq(0), eq(DATA), eq(0), eq(DATA.length));
+		assertThat(src.hasRemaining(), is(false));
+	}
+
+	/**
+	 * Verifies that nothing is written, when the buffers have no bytes remaining.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void writeByteBuffers_noRemaining() throws IOException {
+		writer.write(new ByteBuffer[] { ByteBuffer.allocate(0) });
+
+		verify(os, never()).WriteFile(anyInt(), anyNativeByteArray(), anyInt(), anyDWORD(), anyOVERLAPPED());
+	}
+
+	/**
+	 * Verifies that a call to close() doesn't close the event handle, it is needed to await the
+	 * pending write operations when the writer is disposed.
 	 * 
 	 * @throws Exception
 	 */
@@ -657,7 +821,7 @@ public class TestWriterImpl {
 	public void close() throws Exception {
 		writer.close();
 
-		verify(os).CloseHandle(EVENT_HANDLE);
+		verify(os, never()).CloseHandle(EVENT_HANDLE);
 	}
 
 	/**
@@ -669,12 +833,375 @@ public class TestWriterImpl {
 	public void dispose() {
 		writer.dispose();
 
+		verify(os).CloseHandle(EVENT_HANDLE);
 		verify(os).free(PTR_BYTES_TRANSFERRED);
 		verify(os).free(PTR_OVERLAPPED);
 	}
 
+	/**
+	 * Verifies that a call to dispose() frees the staging buffer.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void dispose_freesStagingBuffer() throws Exception {
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+		writer.write(DATA);
+
+		writer.dispose();
+
+		verify(os).free(PTR_WRITE_BUFFER);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the maximum number of
+	 * pending writes is less than 1.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_zeroMaxPendingWrites() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >maxPendingWrites< is invalid! Expected a value greater than 0!");
+
+		new WriterImpl(port, os, PORT_HANDLE, 0);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when the passed metrics are
+	 * <code>null</code>.
+	 */
+	@Test
+	@SuppressWarnings({ "resource", "unused" })
+	public void new_nullMetrics() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >metrics< must not be null!");
+
+		new WriterImpl(port, os, PORT_HANDLE, 1, null, null);
+	}
+
+	/**
+	 * Verifies that the latency of a write operation, that succeeded immediatly, is recorded.
+	 */
+	@Test
+	public void write_recordsLatency() throws Exception {
+		SerialConnectionMetrics metrics = new SerialConnectionMetrics();
+		writer = new WriterImpl(port, os, PORT_HANDLE, 1, metrics, null);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		writer.write(DATA);
+
+		assertThat(metrics.getWriteLatency().getCount(), is(1L));
+	}
+
+	/**
+	 * Verifies that a pipelined write returns without waiting, when the write operation is
+	 * pending.
+	 */
+	@Test
+	public void write_pipelinedReturnsWhilePending() throws Exception {
+		writer = newPipelinedWriter();
+		mockWriteFilePending();
+
+		writer.write(DATA);
+		writer.write(DATA);
+
+		verify(os, times(2)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		verify(os, never()).WaitForSingleObject(anyInt(), anyInt());
+	}
+
+	/**
+	 * Verifies that the oldest pending write is awaited, before its slot is reused.
+	 */
+	@Test
+	public void write_pipelinedAwaitsOldestPendingWrite() throws Exception {
+		writer = newPipelinedWriter();
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		writer.write(DATA);
+		writer.write(DATA);
+		writer.write(DATA);
+
+		verify(os, times(3)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).WaitForSingleObject(EVENT_HANDLE, 2000);
+		inOrder.verify(os).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		verify(os, never()).WaitForSingleObject(SECOND_EVENT_HANDLE, 2000);
+	}
+
+	/**
+	 * Verifies that the latency of a pending write is recorded, when its completion is awaited
+	 * before the slot is reused, and that it includes the time the write was pending.
+	 */
+	@Test
+	public void write_pipelinedRecordsLatencyOfReapedWrite() throws Exception {
+		SerialConnectionMetrics metrics = new SerialConnectionMetrics();
+		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE, SECOND_EVENT_HANDLE);
+		when(os.ResetEvent(SECOND_EVENT_HANDLE)).thenReturn(true);
+		writer = new WriterImpl(port, os, PORT_HANDLE, 2, metrics, null);
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+
+		writer.write(DATA);
+		writer.write(DATA);
+		assertThat(metrics.getWriteLatency().getCount(), is(0L));
+
+		Thread.sleep(10);
+		writer.write(DATA);
+
+		assertThat(metrics.getWriteLatency().getCount(), is(1L));
+		assertThat(metrics.getMaxWriteLatency(), is(greaterThanOrEqualTo(MILLISECONDS.toNanos(10))));
+	}
+
+	/**
+	 * Verifies that the error of a pending write is thrown by the write operation, that reuses its
+	 * slot.
+	 */
+	@Test
+	public void write_pipelinedPendingWriteFails() throws Exception {
+		writer = newPipelinedWriter();
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(false);
+
+		writer.write(DATA);
+		writer.write(DATA);
+		when(os.GetLastError()).thenReturn(ERROR_OPERATION_ABORTED);
+
+		exception.expect(IOException.class);
+		exception.expectMessage("Port COM1 was closed! I/O operation has been aborted.");
+
+		writer.write(DATA);
+	}
+
+	/**
+	 * Verifies that a call to close() awaits the pending write operations of all slots, oldest
+	 * first, and doesn't close the event handles of the slots.
+	 */
+	@Test
+	public void close_pipelined() throws Exception {
+		writer = newPipelinedWriter();
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(anyInt(), anyInt())).thenReturn(WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+		writer.write(DATA);
+		writer.write(DATA);
+
+		writer.close();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).WaitForSingleObject(eq(EVENT_HANDLE), anyInt());
+		inOrder.verify(os).WaitForSingleObject(eq(SECOND_EVENT_HANDLE), anyInt());
+		verify(os, never()).CloseHandle(EVENT_HANDLE);
+		verify(os, never()).CloseHandle(SECOND_EVENT_HANDLE);
+	}
+
+	/**
+	 * Verifies that a call to close() throws the error of a failed pending write operation, after
+	 * all pending write operations were awaited.
+	 */
+	@Test
+	public void close_pipelinedPendingWriteFails() throws Exception {
+		writer = newPipelinedWriter();
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(eq(EVENT_HANDLE), anyInt())).thenReturn(WAIT_TIMEOUT);
+		when(os.WaitForSingleObject(eq(SECOND_EVENT_HANDLE), anyInt())).thenReturn(WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+		writer.write(DATA);
+		writer.write(DATA);
+
+		try {
+			writer.close();
+		}
+		catch (InterruptedIOException e) {
+			assertThat(e.getMessage(), is("Write operation timed out after 2000 milliseconds!"));
+			verify(os).WaitForSingleObject(eq(SECOND_EVENT_HANDLE), anyInt());
+			return;
+		}
+		fail("InterruptedIOException expected");
+	}
+
+	/**
+	 * Verifies that a call to close() returns without waiting, while a write operation is blocked
+	 * by another thread.
+	 */
+	@Test(timeout = 5000)
+	public void close_whileWriteBlocked() throws Exception {
+		final CountDownLatch isWaiting = new CountDownLatch(1);
+		final CountDownLatch isAborted = new CountDownLatch(1);
+		final IOException[] failure = new IOException[1];
+		mockWriteFilePending();
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING, ERROR_OPERATION_ABORTED);
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenAnswer(new Answer<Integer>() {
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				isWaiting.countDown();
+				isAborted.await();
+				return WAIT_OBJECT_0;
+			}
+		});
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(false);
+		Thread writing = new Thread(new Runnable() {
+			public void run() {
+				try {
+					writer.write(DATA);
+				}
+				catch (IOException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		writing.start();
+		isWaiting.await();
+
+		writer.close();
+
+		verify(os, times(1)).WaitForSingleObject(anyInt(), anyInt());
+		isAborted.countDown();
+		writing.join();
+		assertThat(failure[0].getMessage(), is("Port COM1 was closed! I/O operation has been aborted."));
+	}
+
+	/**
+	 * Verifies that a call to close() doesn't await a write operation again, whose wait already
+	 * timed out.
+	 */
+	@Test
+	public void close_afterTimeout() throws Exception {
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_TIMEOUT);
+		try {
+			writer.write(DATA);
+			fail("InterruptedIOException expected");
+		}
+		catch (InterruptedIOException e) {
+			// the wait timed out
+		}
+
+		writer.close();
+
+		verify(os, times(1)).WaitForSingleObject(anyInt(), anyInt());
+	}
+
+	/**
+	 * Verifies that the slot of a write operation, whose wait timed out, is not reused before the
+	 * write operation is completed.
+	 */
+	@Test
+	public void write_afterTimeoutAwaitsPendingWrite() throws Exception {
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_TIMEOUT);
+		try {
+			writer.write(DATA);
+			fail("InterruptedIOException expected");
+		}
+		catch (InterruptedIOException e) {
+			// the wait timed out
+		}
+
+		exception.expect(InterruptedIOException.class);
+		exception.expectMessage("Write operation timed out after 2000 milliseconds!");
+
+		try {
+			writer.write(DATA);
+		}
+		finally {
+			verify(os, times(2)).WaitForSingleObject(EVENT_HANDLE, 2000);
+			verify(os, times(1)).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+			verify(os, times(1)).ResetEvent(EVENT_HANDLE);
+		}
+	}
+
+	/**
+	 * Verifies that the slot of a write operation, whose wait timed out, is reused after the write
+	 * operation was completed.
+	 */
+	@Test
+	public void write_afterTimeoutReusesCompletedSlot() throws Exception {
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_TIMEOUT, WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+		try {
+			writer.write(DATA);
+			fail("InterruptedIOException expected");
+		}
+		catch (InterruptedIOException e) {
+			// the wait timed out
+		}
+
+		writer.write(DATA);
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		inOrder.verify(os, times(2)).WaitForSingleObject(EVENT_HANDLE, 2000);
+		inOrder.verify(os).WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED());
+		inOrder.verify(os).WaitForSingleObject(EVENT_HANDLE, 2000);
+	}
+
+	/**
+	 * Verifies that a call to dispose() awaits the pending write operations of all slots, before
+	 * their resources are freed.
+	 */
+	@Test
+	public void dispose_pipelined() throws Exception {
+		writer = newPipelinedWriter();
+		when(os.malloc(OVERLAPPED_SIZE)).thenReturn(PTR_SECOND_OVERLAPPED);
+		mockWriteFilePending();
+		writer.write(DATA);
+		writer.write(DATA);
+		when(os.WaitForSingleObject(anyInt(), eq(INFINITE))).thenReturn(WAIT_OBJECT_0);
+
+		writer.dispose();
+
+		InOrder inOrder = inOrder(os);
+		inOrder.verify(os, times(2)).WaitForSingleObject(anyInt(), eq(INFINITE));
+		inOrder.verify(os).free(PTR_SECOND_OVERLAPPED);
+		verify(os).WaitForSingleObject(EVENT_HANDLE, INFINITE);
+		verify(os).WaitForSingleObject(SECOND_EVENT_HANDLE, INFINITE);
+		verify(os).CloseHandle(EVENT_HANDLE);
+		verify(os).CloseHandle(SECOND_EVENT_HANDLE);
+		verify(os).free(PTR_OVERLAPPED);
+	}
+
+	/**
+	 * Verifies that a completed write operation is not awaited, when the writer is disposed.
+	 */
+	@Test
+	public void dispose_afterCompletedWrite() throws Exception {
+		mockWriteFilePending();
+		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_OBJECT_0);
+		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(true);
+		when(os.getValue_DWORD(anyDWORD())).thenReturn(DATA.length);
+		writer.write(DATA);
+
+		writer.dispose();
+
+		verify(os, never()).HasOverlappedIoCompleted(anyOVERLAPPED());
+	}
+
 	// Utilities for this Testclass ///////////////////////////////////////////////////////////
 
+	/** Creates a writer, that allows two pending write operations. */
+	private WriterImpl newPipelinedWriter() {
+		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE, SECOND_EVENT_HANDLE);
+		when(os.ResetEvent(SECOND_EVENT_HANDLE)).thenReturn(true);
+		return new WriterImpl(port, os, PORT_HANDLE, 2);
+	}
+
+	/** Mocks <code>WriteFile</code> to return while the write operation is pending. */
+	private void mockWriteFilePending() {
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING);
+	}
+
 	/** matches any {@link OVERLAPPED} */
 	private OVERLAPPED anyOVERLAPPED() {
 		return any(OVERLAPPED.class);
@@ -685,16 +1212,21 @@ public class TestWriterImpl {
 		return any(DWORD.class);
 	}
 
+	/** matches any {@link NativeByteArray} */
+	private NativeByteArray anyNativeByteArray() {
+		return any(NativeByteArray.class);
+	}
+
 	/** Mocks <code>WriteFile</code> to fail with given error code. */
 	private void mockWriteFileFailsWith(int errorCode) {
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(errorCode);
 	}
 
 	/** Mocks <code>WriteFile</code> (pending) to fail with given error code. */
 	private void mockWaitForSingleObjectFailsWith(int errorCode) {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING, errorCode);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_FAILED);
 	}
@@ -702,7 +1234,7 @@ public class TestWriterImpl {
 	/** Mocks <code>GetOverlappedResult</code> to fail with given error code. */
 	private void mockGetOverlappedResultFailsWith(int errorCode) {
 		when(os.CreateEventA(0, true, false, null)).thenReturn(EVENT_HANDLE);
-		when(os.WriteFile(eq(PORT_HANDLE), eq(DATA), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
+		when(os.WriteFile(eq(PORT_HANDLE), anyNativeByteArray(), eq(DATA.length), anyDWORD(), anyOVERLAPPED())).thenReturn(false);
 		when(os.GetLastError()).thenReturn(ERROR_IO_PENDING, errorCode);
 		when(os.WaitForSingleObject(EVENT_HANDLE, 2000)).thenReturn(WAIT_OBJECT_0);
 		when(os.GetOverlappedResult(eq(PORT_HANDLE), anyOVERLAPPED(), anyDWORD(), eq(true))).thenReturn(false);
@@ -15,13 +15,19 @@
  */
 package org.xidobi.structs;
 
+import static java.nio.ByteOrder.nativeOrder;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -66,7 +72,7 @@ public class TestDWORD {
 	@SuppressWarnings("unused")
 	@Test(expected = IllegalArgumentException.class)
 	public void new_withNullOS() {
-		new DWORD(null);
+		new DWORD((WinApi) null);
 	}
 
 	/**
@@ -142,4 +148,22 @@ public class TestDWORD {
 		dword.setValue(200);
 	}
 
+	/**
+	 * Verifies that the value is read and written through the buffer over the memory, if the
+	 * WIN-API provides one.
+	 */
+	@Test
+	public void getAndSetValue_withMemoryBuffer() {
+		ByteBuffer memory = ByteBuffer.allocateDirect(SIZE).order(nativeOrder());
+		when(os.newDirectByteBuffer(POINTER, SIZE)).thenReturn(memory);
+		dword = new DWORD(os);
+
+		dword.setValue(200);
+
+		assertThat(memory.getInt(0), is(200));
+		assertThat(dword.getValue(), is(200));
+		verify(os, never()).setValue_DWORD(any(DWORD.class), anyInt());
+		verify(os, never()).getValue_DWORD(any(DWORD.class));
+	}
+
 }
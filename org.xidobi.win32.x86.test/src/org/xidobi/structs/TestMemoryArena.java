@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.structs;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.Mock;
+import org.xidobi.WinApi;
+
+/**
+ * Tests the class {@link MemoryArena}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestMemoryArena {
+
+	/** pointer to the first allocated memory */
+	private static final int PTR_FIRST = 3;
+	/** pointer to the second allocated memory */
+	private static final int PTR_SECOND = 7;
+	/** size of the first allocated memory */
+	private static final int FIRST_SIZE = 4;
+	/** size of the second allocated memory */
+	private static final int SECOND_SIZE = 16;
+
+	/** the class under test */
+	private MemoryArena arena;
+
+	@Mock
+	private WinApi os;
+
+	/** needed to verify exceptions */
+	@Rule
+	public ExpectedException exception = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		initMocks(this);
+		when(os.malloc(FIRST_SIZE)).thenReturn(PTR_FIRST);
+		when(os.malloc(SECOND_SIZE)).thenReturn(PTR_SECOND);
+
+		arena = new MemoryArena(os);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>null</code> is passed
+	 * to the constructor.
+	 */
+	@Test
+	@SuppressWarnings("unused")
+	public void new_nullWinApi() {
+		exception.expect(IllegalArgumentException.class);
+		exception.expectMessage("Argument >os< must not be null!");
+
+		new MemoryArena(null);
+	}
+
+	/**
+	 * Verifies that a new arena has not allocated any memory.
+	 */
+	@Test
+	public void new_noAllocations() {
+		assertThat(arena.getWinApi(), is(sameInstance(os)));
+		assertThat(arena.getAllocatedBytes(), is(0L));
+		assertThat(arena.getLeakedBytes(), is(0L));
+		assertThat(arena.isDisposed(), is(false));
+	}
+
+	/**
+	 * Verifies that the bytes of the pointers in the arena are counted until they are disposed.
+	 */
+	@Test
+	public void getAllocatedBytes() {
+		Pointer first = new Pointer(arena, FIRST_SIZE);
+		new Pointer(arena, SECOND_SIZE);
+		assertThat(arena.getAllocatedBytes(), is((long) FIRST_SIZE + SECOND_SIZE));
+
+		first.dispose();
+
+		assertThat(arena.getAllocatedBytes(), is((long) SECOND_SIZE));
+		assertThat(arena.getLeakedBytes(), is(0L));
+	}
+
+	/**
+	 * Verifies that the pointers of another arena are not counted.
+	 */
+	@Test
+	public void getAllocatedBytes_otherArena() {
+		new Pointer(new MemoryArena(os), FIRST_SIZE);
+		new Pointer(os, SECOND_SIZE);
+
+		assertThat(arena.getAllocatedBytes(), is(0L));
+	}
+
+	/**
+	 * Verifies that all pointers, which are not disposed yet, are freed in one step.
+	 */
+	@Test
+	public void dispose() {
+		Pointer first = new Pointer(arena, FIRST_SIZE);
+		Pointer second = new Pointer(arena, SECOND_SIZE);
+
+		arena.dispose();
+
+		verify(os).free(PTR_FIRST);
+		verify(os).free(PTR_SECOND);
+		assertThat(first.isDisposed(), is(true));
+		assertThat(second.isDisposed(), is(true));
+		assertThat(arena.getAllocatedBytes(), is(0L));
+		assertThat(arena.isDisposed(), is(true));
+	}
+
+	/**
+	 * Verifies that a pointer, that was disposed before, is not freed again.
+	 */
+	@Test
+	public void dispose_pointerAlreadyDisposed() {
+		new Pointer(arena, FIRST_SIZE).dispose();
+
+		arena.dispose();
+
+		verify(os, times(1)).free(PTR_FIRST);
+	}
+
+	/**
+	 * Verifies that the other pointers are freed, if one of them can't be freed, and that the
+	 * failure is rethrown.
+	 */
+	@Test
+	public void dispose_freeFails() {
+		new Pointer(arena, FIRST_SIZE);
+		new Pointer(arena, SECOND_SIZE);
+		IllegalStateException failure = new IllegalStateException();
+		doThrow(failure).when(os).free(PTR_FIRST);
+
+		try {
+			arena.dispose();
+			fail("expected an IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e, is(sameInstance(failure)));
+		}
+
+		verify(os).free(PTR_SECOND);
+		assertThat(arena.getAllocatedBytes(), is(0L));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalStateException} is thrown, when the arena is disposed twice.
+	 */
+	@Test
+	public void dispose_twice() {
+		arena.dispose();
+
+		exception.expect(IllegalStateException.class);
+		exception.expectMessage("This arena was already disposed!");
+
+		arena.dispose();
+	}
+
+	/**
+	 * Verifies that an {@link IllegalStateException} is thrown, when memory is allocated in a
+	 * disposed arena.
+	 */
+	@Test
+	@SuppressWarnings("unused")
+	public void allocate_afterDispose() {
+		arena.dispose();
+
+		exception.expect(IllegalStateException.class);
+		exception.expectMessage("Unable to allocate memory, the arena was already disposed!");
+
+		new Pointer(arena, FIRST_SIZE);
+	}
+
+	/**
+	 * Verifies that the memory of a pointer, that became unreachable without being disposed, is
+	 * freed in the background and counted as leaked.
+	 */
+	@Test(timeout = 10000)
+	public void leakedPointer_isFreed() throws Exception {
+		new Pointer(arena, FIRST_SIZE);
+
+		while (arena.getAllocatedBytes() > 0) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		verify(os).free(PTR_FIRST);
+		assertThat(arena.getLeakedBytes(), is((long) FIRST_SIZE));
+	}
+}
@@ -19,11 +19,15 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -69,7 +73,7 @@ public class TestNativeByteArray {
 	@SuppressWarnings("unused")
 	@Test(expected = IllegalArgumentException.class)
 	public void new_withNullOS() {
-		new NativeByteArray(null, LENGTH);
+		new NativeByteArray((WinApi) null, LENGTH);
 	}
 
 	/**
@@ -223,4 +227,42 @@ public class TestNativeByteArray {
 		byteArray.getByteArray(LENGTH);
 	}
 
+	/**
+	 * Verifies that the bytes are copied through the buffer over the memory, if the WIN-API
+	 * provides one.
+	 */
+	@Test
+	public void setAndGetByteArray_withMemoryBuffer() {
+		ByteBuffer memory = ByteBuffer.allocateDirect(LENGTH);
+		when(os.newDirectByteBuffer(DUMMY_POINTER, LENGTH)).thenReturn(memory);
+		byteArray = new NativeByteArray(os, LENGTH);
+
+		byteArray.setByteArray(1, new byte[] { 1, 2, 3, 4 }, 1, 3);
+
+		assertThat(memory.get(1), is((byte) 2));
+		assertThat(byteArray.getByteArray(4), is(new byte[] { 0, 2, 3, 4 }));
+		assertThat(memory.position(), is(0));
+		verify(os, never()).setByteArray(any(NativeByteArray.class), anyInt(), any(byte[].class), anyInt(), anyInt());
+		verify(os, never()).getByteArray(any(NativeByteArray.class), anyInt());
+	}
+
+	/**
+	 * Verifies that the remaining bytes of a direct buffer are copied through the buffer over the
+	 * memory, without modifying the position of the source buffer.
+	 */
+	@Test
+	public void setByteBuffer_withMemoryBuffer() {
+		ByteBuffer memory = ByteBuffer.allocateDirect(LENGTH);
+		when(os.newDirectByteBuffer(DUMMY_POINTER, LENGTH)).thenReturn(memory);
+		byteArray = new NativeByteArray(os, LENGTH);
+		ByteBuffer data = ByteBuffer.allocateDirect(3);
+		data.put(new byte[] { 1, 2, 3 }).position(1);
+
+		byteArray.setByteBuffer(2, data);
+
+		assertThat(byteArray.getByteArray(), is(new byte[] { 0, 0, 2, 3, 0 }));
+		assertThat(data.position(), is(1));
+		verify(os, never()).setByteBuffer(any(NativeByteArray.class), anyInt(), any(ByteBuffer.class), anyInt());
+	}
+
 }
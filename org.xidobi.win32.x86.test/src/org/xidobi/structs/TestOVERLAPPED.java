@@ -66,7 +66,7 @@ public class TestOVERLAPPED {
 	@SuppressWarnings("unused")
 	@Test(expected = IllegalArgumentException.class)
 	public void new_withNullOS() {
-		new OVERLAPPED(null);
+		new OVERLAPPED((WinApi) null);
 	}
 
 	/**
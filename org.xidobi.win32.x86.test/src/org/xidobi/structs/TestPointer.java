@@ -16,13 +16,18 @@
 package org.xidobi.structs;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.xidobi.WinApi.NULL;
 
+import java.nio.ByteBuffer;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -65,7 +70,16 @@ public class TestPointer {
 	@SuppressWarnings("unused")
 	@Test(expected = IllegalArgumentException.class)
 	public void new_withNullWinApi() {
-		new Pointer(null, DUMMY_SIZE);
+		new Pointer((WinApi) null, DUMMY_SIZE);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalArgumentException} is thrown, when <code>arena == null</code>.
+	 */
+	@SuppressWarnings("unused")
+	@Test(expected = IllegalArgumentException.class)
+	public void new_withNullArena() {
+		new Pointer((MemoryArena) null, DUMMY_SIZE);
 	}
 
 	/**
@@ -124,6 +138,53 @@ public class TestPointer {
 		verify(os).free(DUMMY_POINTER);
 	}
 
+	/**
+	 * Verifies that a pointer, that was allocated in an arena, is freed when the arena is disposed.
+	 */
+	@Test
+	public void new_inArena() {
+		MemoryArena arena = new MemoryArena(os);
+
+		pointer = new Pointer(arena, DUMMY_SIZE);
+		arena.dispose();
+
+		assertThat(pointer.isDisposed(), is(true));
+		verify(os).free(DUMMY_POINTER);
+	}
+
+	/**
+	 * Verifies that an {@link IllegalStateException} is thrown, when the arena is already
+	 * disposed, and that the allocated memory is freed immediately.
+	 */
+	@Test
+	public void new_inDisposedArena() {
+		MemoryArena arena = new MemoryArena(os);
+		arena.dispose();
+
+		try {
+			pointer = new Pointer(arena, DUMMY_SIZE);
+			fail("expected an IllegalStateException");
+		}
+		catch (IllegalStateException expected) {}
+
+		verify(os).free(DUMMY_POINTER);
+	}
+
+	/**
+	 * Verifies that the memory of a pointer in an arena is freed only once, when the pointer is
+	 * disposed before the arena.
+	 */
+	@Test
+	public void dispose_beforeArena() {
+		MemoryArena arena = new MemoryArena(os);
+		pointer = new Pointer(arena, DUMMY_SIZE);
+
+		pointer.dispose();
+		arena.dispose();
+
+		verify(os, times(1)).free(DUMMY_POINTER);
+	}
+
 	/**
 	 * Verifies that an {@link IllegalStateException} is thrown, when the pointer is already
 	 * disposed.
@@ -159,4 +220,43 @@ public class TestPointer {
 		assertThat(pointer.size(), is(DUMMY_SIZE));
 	}
 
+	/**
+	 * Verifies that {@link Pointer#memory()} returns the buffer over the allocated memory, that is
+	 * provided by the WIN-API.
+	 */
+	@Test
+	public void memory() {
+		ByteBuffer memory = ByteBuffer.allocateDirect(DUMMY_SIZE);
+		when(os.newDirectByteBuffer(DUMMY_POINTER, DUMMY_SIZE)).thenReturn(memory);
+
+		pointer = new Pointer(os, DUMMY_SIZE);
+
+		assertThat(pointer.memory(), is(sameInstance(memory)));
+	}
+
+	/**
+	 * Verifies that {@link Pointer#memory()} returns <code>null</code>, if the WIN-API can't
+	 * provide a buffer over the allocated memory.
+	 */
+	@Test
+	public void memory_notSupported() {
+		pointer = new Pointer(os, DUMMY_SIZE);
+
+		assertThat(pointer.memory(), is(nullValue()));
+	}
+
+	/**
+	 * Verifies that an {@link IllegalStateException} is thrown, when {@link Pointer#memory()} is
+	 * called and the {@link Pointer} was already disposed, because the memory was freed.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void memory_whenDisposed() {
+		when(os.newDirectByteBuffer(DUMMY_POINTER, DUMMY_SIZE)).thenReturn(ByteBuffer.allocateDirect(DUMMY_SIZE));
+		pointer = new Pointer(os, DUMMY_SIZE);
+
+		pointer.dispose();
+
+		pointer.memory();
+	}
+
 }
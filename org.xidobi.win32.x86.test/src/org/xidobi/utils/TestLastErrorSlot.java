@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.utils;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xidobi.structs.INT;
+
+/**
+ * Tests the class {@link LastErrorSlot}
+ * 
+ * @author Christian Schwarz
+ */
+@SuppressWarnings("javadoc")
+public class TestLastErrorSlot {
+
+	/** the class under test */
+	private LastErrorSlot lastError;
+
+	@Before
+	public void setUp() {
+		lastError = new LastErrorSlot();
+	}
+
+	/**
+	 * Verifies that no error is stored initially.
+	 */
+	@Test
+	public void get_initial() {
+		assertThat(lastError.get(), is(0));
+	}
+
+	/**
+	 * Verifies that the error code stored in the slot is returned, and that it is cleared for the
+	 * next call.
+	 */
+	@Test
+	public void clear() {
+		lastError.clear().value = 5;
+		assertThat(lastError.get(), is(5));
+
+		lastError.clear();
+		assertThat(lastError.get(), is(0));
+	}
+
+	/**
+	 * Verifies that the slot of a thread is reused, so a native call doesn't allocate.
+	 */
+	@Test
+	public void clear_reusesSlot() {
+		INT slot = lastError.clear();
+
+		assertThat(lastError.clear(), is(sameInstance(slot)));
+	}
+
+	/**
+	 * Verifies that every thread reads the error code of its own last call, while many threads
+	 * store error codes concurrently.
+	 */
+	@Test(timeout = 10000)
+	public void stress_threadsDontSeeOtherErrors() throws Exception {
+		final int threads = 16;
+		final int calls = 100000;
+		final CountDownLatch start = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Integer>> mismatches = new ArrayList<Future<Integer>>();
+			for (int t = 0; t < threads; t++) {
+				final int threadId = t;
+				mismatches.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						start.await();
+						int count = 0;
+						for (int i = 0; i < calls; i++) {
+							// like a native call, that fails with an error code of this thread
+							int errorCode = threadId * calls + i;
+							lastError.clear().value = errorCode;
+							if (lastError.get() != errorCode)
+								count++;
+						}
+						return count;
+					}
+				}));
+			}
+			start.countDown();
+
+			for (Future<Integer> count : mismatches)
+				assertThat(count.get(), is(0));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+}
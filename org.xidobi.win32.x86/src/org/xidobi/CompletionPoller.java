@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.WinApi.ERROR_INVALID_HANDLE;
+import static org.xidobi.WinApi.INFINITE;
+import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
+import static org.xidobi.WinApi.NULL;
+import static org.xidobi.WinApi.WAIT_TIMEOUT;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+import static org.xidobi.utils.Throwables.newNativeCodeException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.structs.INT;
+import org.xidobi.structs.OVERLAPPED;
+
+/**
+ * Waits for the completion of the overlapped operations of many serial ports with one thread, so
+ * the threads that read or write don't block in native code. The handles of the ports are
+ * associated with one I/O completion port, a dedicated daemon thread dequeues the completion
+ * packets and unparks the thread, that waits for the completed operation.
+ * <p>
+ * A thread that waits for an operation is parked with {@link LockSupport}, so on a JDK with
+ * virtual threads a waiting virtual thread doesn't occupy its carrier thread. Thousands of ports
+ * can be served by virtual threads on a few carrier threads this way.
+ * <p>
+ * <b>NOTE:</b> A handle can't be dissociated from an I/O completion port, so the connections of a
+ * poller can't be registered with a {@link SerialSelectorImpl}. The poller should be closed after
+ * all of its connections were closed, afterwards their operations block in native code again.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialPortImpl#SerialPortImpl(WinApi, String, String, DCBConfigurator, CompletionPoller)
+ */
+public class CompletionPoller implements Closeable {
+
+	/** the native Win32-API */
+	@Nonnull
+	private final WinApi os;
+
+	/** the handle of the I/O completion port */
+	private final int completionPort;
+
+	/** the threads, that wait for the completion of an operation, by the address of its overlapped */
+	private final Map<Integer, Thread> waitingThreads = new ConcurrentHashMap<Integer, Thread>();
+
+	/** dequeues the completion packets */
+	@Nonnull
+	private final Thread pollerThread;
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if the poller thread has stopped, because this poller was closed or
+	 * the I/O completion port failed
+	 * <li> <code>false</code> if the poller thread dequeues the completion packets
+	 * </ul>
+	 */
+	private volatile boolean isStopped;
+
+	/** <code>true</code> if this poller was closed */
+	private boolean isClosed;
+
+	/** Creates a new poller, that uses the native Win32-API. */
+	public CompletionPoller() {
+		this(OS.OS);
+	}
+
+	/**
+	 * Creates a new poller and starts its thread.
+	 * 
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 */
+	public CompletionPoller(@Nonnull WinApi os) {
+		this.os = checkArgumentNotNull(os, "os");
+
+		completionPort = os.CreateIoCompletionPort(INVALID_HANDLE_VALUE, NULL, 0, 1);
+		if (completionPort == NULL)
+			throw newNativeCodeException(os, "CreateIoCompletionPort failed unexpected!", os.GetLastError());
+
+		pollerThread = new Thread(new Runnable() {
+			public void run() {
+				pollUntilClosed();
+			}
+		}, "xidobi completion poller");
+		pollerThread.setDaemon(true);
+		pollerThread.start();
+	}
+
+	/**
+	 * Associates the given handle of a serial port with the I/O completion port of this poller.
+	 * 
+	 * @param port
+	 *            the serial port of the handle, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port
+	 * @throws IOException
+	 *             if the handle is invalid
+	 */
+	final void associate(@Nonnull SerialPort port, int handle) throws IOException {
+		if (os.CreateIoCompletionPort(handle, completionPort, handle, 0) != NULL)
+			return;
+
+		int lastError = os.GetLastError();
+		if (lastError == ERROR_INVALID_HANDLE)
+			throw new IOException("Port " + port.getPortName() + " was closed!");
+		// ERROR_INVALID_PARAMETER means, the handle is associated with another I/O completion port
+		throw newNativeCodeException(os, "CreateIoCompletionPort failed unexpected!", lastError);
+	}
+
+	/**
+	 * Waits until the event object of the given overlapped is signaled or the given time has
+	 * elapsed, like <code>WaitForSingleObject</code>. The calling thread is parked, until the
+	 * completion packet of the operation is dequeued or it is woken up by
+	 * {@link #wakeUp(OVERLAPPED)}. Like a native wait, the wait is not interruptible.
+	 * 
+	 * @param overlapped
+	 *            the overlapped of the operation, its handle must be associated with this poller
+	 * @param milliseconds
+	 *            the maximum time to wait or {@link WinApi#INFINITE}
+	 * @return the result of <code>WaitForSingleObject</code>
+	 */
+	final int await(@Nonnull OVERLAPPED overlapped, int milliseconds) {
+		Integer address = overlapped.address();
+		long deadline = System.nanoTime() + milliseconds * 1000000L;
+		boolean isInterrupted = false;
+
+		waitingThreads.put(address, Thread.currentThread());
+		try {
+			while (!isStopped) {
+				// the event is signaled by the completion or by a wake up, checking it doesn't block
+				int waitResult = os.WaitForSingleObject(overlapped.hEvent, 0);
+				if (waitResult != WAIT_TIMEOUT)
+					return waitResult;
+
+				if (milliseconds == INFINITE)
+					LockSupport.park();
+				else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						return WAIT_TIMEOUT;
+					LockSupport.parkNanos(remaining);
+				}
+				// the interrupt status is cleared, otherwise park() would return immediately
+				isInterrupted |= Thread.interrupted();
+			}
+		}
+		finally {
+			waitingThreads.remove(address);
+			if (isInterrupted)
+				Thread.currentThread().interrupt();
+		}
+
+		// the poller thread has stopped, so we have to wait in native code
+		long remaining = (deadline - System.nanoTime()) / 1000000L;
+		return os.WaitForSingleObject(overlapped.hEvent, milliseconds == INFINITE ? INFINITE : (int) Math.max(remaining, 0));
+	}
+
+	/**
+	 * Unparks the thread, that waits for the operation of the given overlapped. The event object of
+	 * the overlapped must be signaled before, otherwise the thread continues waiting.
+	 * 
+	 * @param overlapped
+	 *            the overlapped of the operation, must not be <code>null</code>
+	 */
+	final void wakeUp(@Nonnull OVERLAPPED overlapped) {
+		unpark(waitingThreads.get(overlapped.address()));
+	}
+
+	/** Dequeues the completion packets and unparks the waiting threads, until the poller stops. */
+	private void pollUntilClosed() {
+		INT numberOfBytes = new INT();
+		INT completionKey = new INT();
+		INT overlappedAddress = new INT();
+		try {
+			while (true) {
+				boolean succeeded = os.GetQueuedCompletionStatus(completionPort, numberOfBytes, completionKey, overlappedAddress, INFINITE);
+				if (overlappedAddress.value == NULL) {
+					// the packet of close() or the I/O completion port failed
+					if (isClosed() || !succeeded)
+						return;
+					continue;
+				}
+				// NOTE: A packet of an operation that completed immediately has no waiting thread.
+				unpark(waitingThreads.get(overlappedAddress.value));
+			}
+		}
+		finally {
+			isStopped = true;
+			for (Thread thread : waitingThreads.values())
+				unpark(thread);
+		}
+	}
+
+	/**
+	 * Stops the poller thread and closes the I/O completion port.
+	 * 
+	 * @throws IOException
+	 *             if the thread that closes the poller is interrupted
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			if (isClosed)
+				return;
+			isClosed = true;
+		}
+
+		if (!os.PostQueuedCompletionStatus(completionPort, 0, 0, NULL))
+			throw newNativeCodeException(os, "PostQueuedCompletionStatus failed unexpected!", os.GetLastError());
+		try {
+			pollerThread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The thread, that closes the completion poller, is interrupted!");
+		}
+
+		if (!os.CloseHandle(completionPort))
+			throw newNativeCodeException(os, "CloseHandle failed unexpected!", os.GetLastError());
+	}
+
+	/** Returns <code>true</code>, if this poller was closed. */
+	private synchronized boolean isClosed() {
+		return isClosed;
+	}
+
+	/** Unparks the given thread, if it isn't <code>null</code>. */
+	private static void unpark(Thread thread) {
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+}
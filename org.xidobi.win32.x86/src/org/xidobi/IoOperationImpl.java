@@ -15,18 +15,23 @@
  */
 package org.xidobi;
 
+import static java.lang.Math.max;
 import static org.xidobi.WinApi.ERROR_ACCESS_DENIED;
 import static org.xidobi.WinApi.ERROR_BAD_COMMAND;
 import static org.xidobi.WinApi.ERROR_GEN_FAILURE;
 import static org.xidobi.WinApi.ERROR_INVALID_HANDLE;
 import static org.xidobi.WinApi.ERROR_NOT_READY;
 import static org.xidobi.WinApi.ERROR_OPERATION_ABORTED;
+import static org.xidobi.WinApi.INFINITE;
 import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
+import static org.xidobi.WinApi.WAIT_OBJECT_0;
 import static org.xidobi.spi.Preconditions.checkArgument;
 import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
 import static org.xidobi.utils.Throwables.newNativeCodeException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -37,6 +42,8 @@ import javax.annotation.OverridingMethodsMustInvokeSuper;
 import org.xidobi.spi.IoOperation;
 import org.xidobi.spi.NativeCodeException;
 import org.xidobi.structs.DWORD;
+import org.xidobi.structs.MemoryArena;
+import org.xidobi.structs.NativeByteArray;
 import org.xidobi.structs.OVERLAPPED;
 
 /**
@@ -67,17 +74,32 @@ public abstract class IoOperationImpl implements IoOperation {
 	/** the native handle of the serial port */
 	protected final int handle;
 
+	/** the native memory of this operation, it is freed in one step by {@link #dispose()} */
+	@Nonnull
+	protected final MemoryArena arena;
+
 	/** Receives the number of bytes that are read or written. */
 	protected final DWORD numberOfBytesTransferred;
 	/** Overlapped */
 	protected final OVERLAPPED overlapped;
 
+	/** parks the threads waiting for a completion, <code>null</code> if they wait in native code */
+	@Nullable
+	private final CompletionPoller poller;
+
 	/**
 	 * Ensures that the shared resources can only be disposed, when no read or write operations are
 	 * in progress.
 	 */
 	protected final Lock disposeLock = new ReentrantLock(true);
 
+	/**
+	 * The overlapped structs of the native operations, that were started but whose completion
+	 * wasn't observed yet. The system may still write to them, so they must not be disposed before
+	 * these operations are completed.
+	 */
+	private final List<OVERLAPPED> pendingOperations = new ArrayList<OVERLAPPED>(1);
+
 	/**
 	 * <ul>
 	 * <li> <code>true</code> if this instance is disposed
@@ -107,19 +129,53 @@ public abstract class IoOperationImpl implements IoOperation {
 	public IoOperationImpl(	@Nonnull SerialPort port,
 							@Nonnull WinApi os,
 							int handle) {
+		this(port, os, handle, null);
+	}
+
+	/**
+	 * Creates a new I/O operation, that waits for the completion of its native operations with the
+	 * given poller.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port, it must be associated with the poller
+	 * @param poller
+	 *            the poller, <code>null</code> if the native operations should be awaited in
+	 *            native code
+	 */
+	public IoOperationImpl(	@Nonnull SerialPort port,
+							@Nonnull WinApi os,
+							int handle,
+							@Nullable CompletionPoller poller) {
 		this.port = checkArgumentNotNull(port, "port");
 		this.os = checkArgumentNotNull(os, "os");
 		checkArgument(handle != INVALID_HANDLE_VALUE, "handle", "Invalid handle value (-1)!");
 		this.handle = handle;
+		this.poller = poller;
+		arena = new MemoryArena(os);
 
 		// initialize shared resources:
-		overlapped = newOverlapped(os);
-		numberOfBytesTransferred = new DWORD(os);
+		overlapped = newOverlapped();
+		numberOfBytesTransferred = new DWORD(arena);
 	}
 
-	/** Creates a new overlapped with an event object. */
-	private OVERLAPPED newOverlapped(WinApi os) {
-		OVERLAPPED overlapped = new OVERLAPPED(os);
+	/**
+	 * Creates a new overlapped with an event object in the arena of this operation. The event
+	 * object must be closed, when it isn't used anymore.
+	 * <p>
+	 * If this operation has no {@link CompletionPoller}, the completions of its native operations
+	 * are not queued to an I/O completion port. Otherwise the completion packets would pile up in
+	 * the completion port of a {@link SerialSelectorImpl}, the handle was associated with.
+	 * 
+	 * @return a new overlapped, never <code>null</code>
+	 */
+	@Nonnull
+	protected final OVERLAPPED newOverlapped() {
+		OVERLAPPED overlapped = new OVERLAPPED(arena);
+		overlapped.skipCompletionPort = poller == null;
 
 		// Create an event for the overlapped struct
 		overlapped.hEvent = os.CreateEventA(0, true, false, null);
@@ -131,6 +187,110 @@ public abstract class IoOperationImpl implements IoOperation {
 		throw newNativeCodeException(os, "Create overlapped event failed!", os.GetLastError());
 	}
 
+	/**
+	 * Returns a native byte array that can hold at least the given number of bytes. The given
+	 * buffer is returned, if it is large enough. Otherwise it is disposed and replaced by a new one.
+	 * The capacity of the new buffer is at least doubled, to keep the number of reallocations low
+	 * when the amount of transferred data grows.
+	 * 
+	 * @param buffer
+	 *            the current buffer, may be <code>null</code>
+	 * @param size
+	 *            the number of bytes the buffer must be able to hold, must be greater than 0
+	 * @return the given buffer or a new one, never <code>null</code>
+	 */
+	@Nonnull
+	protected final NativeByteArray ensureCapacity(@Nullable NativeByteArray buffer, int size) {
+		if (buffer == null)
+			return new NativeByteArray(arena, size);
+		if (buffer.size() >= size)
+			// the current buffer is large enough
+			return buffer;
+
+		NativeByteArray newBuffer = new NativeByteArray(arena, max(size, buffer.size() * 2));
+		buffer.dispose();
+		return newBuffer;
+	}
+
+	/**
+	 * Waits until the event object of the given overlapped is signaled or the given time has
+	 * elapsed, like <code>WaitForSingleObject</code>. If this operation has a
+	 * {@link CompletionPoller}, the calling thread is parked instead of blocking in native code.
+	 * 
+	 * @param overlapped
+	 *            the overlapped of the native operation, must not be <code>null</code>
+	 * @param milliseconds
+	 *            the maximum time to wait or {@link WinApi#INFINITE}
+	 * @return the result of <code>WaitForSingleObject</code>
+	 */
+	protected final int waitForCompletion(@Nonnull OVERLAPPED overlapped, int milliseconds) {
+		if (poller == null)
+			return os.WaitForSingleObject(overlapped.hEvent, milliseconds);
+		return poller.await(overlapped, milliseconds);
+	}
+
+	/**
+	 * Wakes up the thread, that waits for the event object of the given overlapped with
+	 * {@link #waitForCompletion(OVERLAPPED, int)}. The event object must be signaled before.
+	 * 
+	 * @param overlapped
+	 *            the overlapped of the native operation, must not be <code>null</code>
+	 */
+	protected final void wakeUp(@Nonnull OVERLAPPED overlapped) {
+		if (poller != null)
+			poller.wakeUp(overlapped);
+	}
+
+	/**
+	 * Registers a native operation, that is pending for the given overlapped. It must be
+	 * unregistered with {@link #operationCompleted(OVERLAPPED)}, when its completion is observed.
+	 * 
+	 * @param overlapped
+	 *            the overlapped of the pending operation, must not be <code>null</code>
+	 */
+	protected final void operationPending(@Nonnull OVERLAPPED overlapped) {
+		synchronized (pendingOperations) {
+			pendingOperations.add(overlapped);
+		}
+	}
+
+	/**
+	 * Unregisters the native operation of the given overlapped, because it is completed.
+	 * 
+	 * @param overlapped
+	 *            the overlapped of the completed operation, must not be <code>null</code>
+	 */
+	protected final void operationCompleted(@Nonnull OVERLAPPED overlapped) {
+		synchronized (pendingOperations) {
+			pendingOperations.remove(overlapped);
+		}
+	}
+
+	/**
+	 * Blocks until all pending native operations are completed. The port must be closed before,
+	 * which aborts the pending operations, otherwise this method may block forever.
+	 */
+	private void awaitPendingOperations() {
+		List<OVERLAPPED> overlappeds;
+		synchronized (pendingOperations) {
+			overlappeds = new ArrayList<OVERLAPPED>(pendingOperations);
+		}
+
+		for (OVERLAPPED overlapped : overlappeds) {
+			// the event must be reset before the state is checked, otherwise the completion could
+			// be missed. It may be signaled by close() without the operation being completed.
+			if (!os.ResetEvent(overlapped.hEvent))
+				throw newNativeCodeException(os, "ResetEvent failed unexpected!", os.GetLastError());
+
+			if (!os.HasOverlappedIoCompleted(overlapped)) {
+				int waitResult = waitForCompletion(overlapped, INFINITE);
+				if (waitResult != WAIT_OBJECT_0)
+					throw newNativeCodeException(os, "WaitForSingleObject returned unexpected value! Got: " + waitResult, os.GetLastError());
+			}
+			operationCompleted(overlapped);
+		}
+	}
+
 	/** Resets the overlapped event handle */
 	protected final void resetOverlappedEventHandle() throws IOException {
 		boolean resetEventResult = os.ResetEvent(overlapped.hEvent);
@@ -194,16 +354,16 @@ public abstract class IoOperationImpl implements IoOperation {
 		}
 	}
 
-	/** {@inheritDoc} */
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * <b>NOTE:</b> The event object of the overlapped is closed by {@link #dispose()}, because it is
+	 * needed to await the pending operations.
+	 */
 	@OverridingMethodsMustInvokeSuper
 	public void close() throws IOException {
 		checkIfClosedOrDisposed();
 
-		// Close handle for overlapped event
-		boolean closeHandleResult = os.CloseHandle(overlapped.hEvent);
-		if (!closeHandleResult)
-			throw newNativeCodeException(os, "CloseHandle failed unexpected!", os.GetLastError());
-
 		isClosed = true;
 	}
 
@@ -254,32 +414,67 @@ public abstract class IoOperationImpl implements IoOperation {
 		return new IOException("Port " + port.getPortName() + " was closed!" + message);
 	}
 
-	/** {@inheritDoc} */
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Blocks until the native operations, which are still pending, are completed. Then the event
+	 * object is closed and all native memory of this operation is freed together with its arena.
+	 */
 	public final void dispose() {
 		//@formatter:off
 		disposeLock.lock();
 		try { 
 			checkIfDisposed();
 		try {
-			numberOfBytesTransferred.dispose();
+			awaitPendingOperations();
+		} finally {	try {
+			closeEventHandle();
 		} finally {	try {
-			overlapped.dispose();
-		} finally {
 			disposeInternal();
-		}}} finally {
+		} finally {
+			arena.dispose();
+		}}}} finally {
 			isDisposed = true;
 			disposeLock.unlock();
 		}
 		// @formatter:on
 	}
 
+	/** Closes the handle of the overlapped event. */
+	private void closeEventHandle() {
+		boolean closeHandleResult = os.CloseHandle(overlapped.hEvent);
+		if (!closeHandleResult)
+			throw newNativeCodeException(os, "CloseHandle failed unexpected!", os.GetLastError());
+	}
+
 	/**
-	 * Subclasses can overwrite this method in order to dispose their resources.
+	 * Subclasses can overwrite this method in order to dispose their resources. The memory, that
+	 * was allocated in the {@link #arena}, is freed afterwards.
 	 * <p>
 	 * <b>IMPORTANT:</b> Don't call this method yourself!
 	 */
 	protected void disposeInternal() {}
 
+	/**
+	 * Returns the number of bytes of native memory, that this operation has allocated and not freed
+	 * yet.
+	 * 
+	 * @return the number of allocated bytes, 0 after this operation was disposed
+	 */
+	public final long getAllocatedBytes() {
+		return arena.getAllocatedBytes();
+	}
+
+	/**
+	 * Returns the number of bytes of native memory, that this operation has allocated but lost
+	 * without disposing it.
+	 * 
+	 * @return the number of leaked bytes
+	 */
+	public final long getLeakedBytes() {
+		return arena.getLeakedBytes();
+	}
+
 	/**
 	 * Returns <code>true</code> if this instance is disposed.
 	 * 
@@ -16,10 +16,9 @@
 package org.xidobi;
 
 import static java.lang.System.loadLibrary;
-import static java.lang.Thread.currentThread;
+import static java.nio.ByteOrder.nativeOrder;
 
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.nio.ByteBuffer;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
@@ -33,6 +32,7 @@ import org.xidobi.structs.HKEY;
 import org.xidobi.structs.INT;
 import org.xidobi.structs.NativeByteArray;
 import org.xidobi.structs.OVERLAPPED;
+import org.xidobi.utils.LastErrorSlot;
 
 /**
  * This class contains one-to-one mappings of native methods used by the OS to control serial ports.
@@ -46,13 +46,17 @@ public class OS implements WinApi {
 	private static final String NATIVE_LIB = "xidobi";
 
 	/**
-	 * Stores the last native error codes. Contains:
-	 * <ul>
-	 * <li><b>key:</b> the thread that caused the error
-	 * <li><b>value:</b> the last native error code of the thread
-	 * </ul>
+	 * The name of the system property, that must be set to <code>true</code> to enable the combined
+	 * native read function
+	 * {@link #WaitAndReadAvailable(int, DWORD, DWORD, OVERLAPPED, ByteBuffer, int, INT, COMSTAT)}
 	 */
-	private final Map<Thread, Integer> lastNativeErrorCodes = new WeakHashMap<Thread, Integer>();
+	public static final String COMBINED_READ_PROPERTY = "org.xidobi.combinedRead";
+
+	/** <code>true</code>, if the combined native read function was enabled by the system property */
+	private static final boolean IS_COMBINED_READ_ENABLED = Boolean.getBoolean(COMBINED_READ_PROPERTY);
+
+	/** Stores the last native error code of each thread, the native methods write into it */
+	private final LastErrorSlot lastErrors = new LastErrorSlot();
 
 	/** The singleton instance of this class */
 	public final static WinApi OS = new OS();
@@ -72,18 +76,10 @@ public class OS implements WinApi {
 		}
 	}
 
-	/** Stores the last error code. */
-	private void preserveLastError(INT lastError) {
-		lastNativeErrorCodes.put(currentThread(), lastError.value);
-	}
-
 	/** {@inheritDoc} */
 	@CheckReturnValue
 	public int CreateFileA(String lpFileName, int dwDesiredAccess, int dwShareMode, int lpSecurityAttributes, int dwCreationDisposition, int dwFlagsAndAttributes, int hTemplateFile) {
-		INT lastError = new INT(0);
-		int result = CreateFileA(lpFileName, dwDesiredAccess, dwShareMode, lpSecurityAttributes, dwCreationDisposition, dwFlagsAndAttributes, hTemplateFile, lastError);
-		preserveLastError(lastError);
-		return result;
+		return CreateFileA(lpFileName, dwDesiredAccess, dwShareMode, lpSecurityAttributes, dwCreationDisposition, dwFlagsAndAttributes, hTemplateFile, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #CreateFileA(String, int, int, int, int, int, int)}. */
@@ -92,10 +88,7 @@ public class OS implements WinApi {
 	/** {@inheritDoc} */
 	@CheckReturnValue
 	public boolean CloseHandle(int handle) {
-		INT lastError = new INT(0);
-		boolean result = CloseHandle(handle, lastError);
-		preserveLastError(lastError);
-		return result;
+		return CloseHandle(handle, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #CloseHandle(int)}. */
@@ -104,10 +97,7 @@ public class OS implements WinApi {
 	/** {@inheritDoc} */
 	@CheckReturnValue
 	public boolean GetCommState(int handle, DCB dcb) {
-		INT lastError = new INT(0);
-		boolean result = GetCommState(handle, dcb, lastError);
-		preserveLastError(lastError);
-		return result;
+		return GetCommState(handle, dcb, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #GetCommState(int, DCB)}. */
@@ -116,10 +106,7 @@ public class OS implements WinApi {
 	/** {@inheritDoc} */
 	@CheckReturnValue
 	public boolean SetCommState(int handle, DCB dcb) {
-		INT lastError = new INT(0);
-		boolean result = SetCommState(handle, dcb, lastError);
-		preserveLastError(lastError);
-		return result;
+		return SetCommState(handle, dcb, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #SetCommState(int, DCB)}. */
@@ -128,10 +115,7 @@ public class OS implements WinApi {
 	/** {@inheritDoc} */
 	@CheckReturnValue
 	public int CreateEventA(int lpEventAttributes, boolean bManualReset, boolean bInitialState, @Nullable String lpName) {
-		INT lastError = new INT(0);
-		int result = CreateEventA(lpEventAttributes, bManualReset, bInitialState, lpName, lastError);
-		preserveLastError(lastError);
-		return result;
+		return CreateEventA(lpEventAttributes, bManualReset, bInitialState, lpName, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #CreateEventA(int, boolean, boolean, String)}. */
@@ -140,34 +124,42 @@ public class OS implements WinApi {
 	/** {@inheritDoc} */
 	@CheckReturnValue
 	public boolean WriteFile(int handle, @Nonnull byte[] lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped) {
-		INT lastError = new INT(0);
-		boolean result = WriteFile(handle, lpBuffer, nNumberOfBytesToWrite, lpNumberOfBytesWritten, lpOverlapped, lastError);
-		preserveLastError(lastError);
-		return result;
+		return WriteFile(handle, lpBuffer, nNumberOfBytesToWrite, lpNumberOfBytesWritten, lpOverlapped, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #WriteFile(int, byte[], int, DWORD, OVERLAPPED)}. */
 	private native boolean WriteFile(int handle, @Nonnull byte[] lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped, INT lastError);
 
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public boolean WriteFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped) {
+		return WriteFile(handle, lpBuffer, nNumberOfBytesToWrite, lpNumberOfBytesWritten, lpOverlapped, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #WriteFile(int, NativeByteArray, int, DWORD, OVERLAPPED)}. */
+	private native boolean WriteFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped, INT lastError);
+
 	/** {@inheritDoc} */
 	@CheckReturnValue
 	public boolean ReadFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped) {
-		INT lastError = new INT(0);
-		boolean result = ReadFile(handle, lpBuffer, nNumberOfBytesToRead, lpNumberOfBytesRead, lpOverlapped, lastError);
-		preserveLastError(lastError);
-		return result;
+		return ReadFile(handle, lpBuffer, nNumberOfBytesToRead, lpNumberOfBytesRead, lpOverlapped, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #ReadFile(int, NativeByteArray, int, DWORD, OVERLAPPED)}. */
 	private native boolean ReadFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped, INT lastError);
 
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public boolean ReadFile(int handle, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped) {
+		return ReadFile(handle, lpBuffer, nNumberOfBytesToRead, lpNumberOfBytesRead, lpOverlapped, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #ReadFile(int, ByteBuffer, int, DWORD, OVERLAPPED)}. */
+	private native boolean ReadFile(int handle, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped, INT lastError);
+
 	/** {@inheritDoc} */
 	public int GetLastError() {
-		Integer lastError = lastNativeErrorCodes.get(currentThread());
-		if (lastError == null)
-			// no error was stored
-			return ERROR_SUCCESS;
-		return lastError;
+		return lastErrors.get();
 	}
 
 	/** {@inheritDoc} */
@@ -175,10 +167,7 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public int FormatMessageA(int dwFlags, Void lpSource, int dwMessageId, int dwLanguageId, @Nonnull byte[] lpBuffer, int nSize, Void arguments) {
-		INT lastError = new INT(0);
-		int result = FormatMessageA(dwFlags, lpSource, dwMessageId, dwLanguageId, lpBuffer, nSize, arguments, lastError);
-		preserveLastError(lastError);
-		return result;
+		return FormatMessageA(dwFlags, lpSource, dwMessageId, dwLanguageId, lpBuffer, nSize, arguments, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #FormatMessageA(int, Void, int, int, byte[], int, Void)}. */
@@ -186,10 +175,7 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public boolean GetOverlappedResult(int handle, OVERLAPPED lpOverlapped, DWORD lpNumberOfBytesTransferred, boolean bWait) {
-		INT lastError = new INT(0);
-		boolean result = GetOverlappedResult(handle, lpOverlapped, lpNumberOfBytesTransferred, bWait, lastError);
-		preserveLastError(lastError);
-		return result;
+		return GetOverlappedResult(handle, lpOverlapped, lpNumberOfBytesTransferred, bWait, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #GetOverlappedResult(int, OVERLAPPED, DWORD, boolean)}. */
@@ -197,10 +183,7 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public int WaitForSingleObject(int hHandle, int dwMilliseconds) {
-		INT lastError = new INT(0);
-		int result = WaitForSingleObject(hHandle, dwMilliseconds, lastError);
-		preserveLastError(lastError);
-		return result;
+		return WaitForSingleObject(hHandle, dwMilliseconds, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #WaitForSingleObject(int, int)}. */
@@ -215,12 +198,12 @@ public class OS implements WinApi {
 	/** {@inheritDoc} */
 	public native int RegEnumValueA(HKEY hKey, int dwIndex, byte[] lpValueName, INT lpcchValueName, int lpReserved, INT lpType, byte[] lpData, INT lpcbData);
 
+	/** {@inheritDoc} */
+	public native int RegNotifyChangeKeyValue(HKEY hKey, boolean bWatchSubtree, int dwNotifyFilter, int hEvent, boolean fAsynchronous);
+
 	/** {@inheritDoc} */
 	public boolean SetCommMask(int hFile, int dwEvtMask) {
-		INT lastError = new INT(0);
-		boolean result = SetCommMask(hFile, dwEvtMask, lastError);
-		preserveLastError(lastError);
-		return result;
+		return SetCommMask(hFile, dwEvtMask, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #SetCommMask(int, int)}. */
@@ -228,10 +211,7 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public boolean WaitCommEvent(int hFile, DWORD lpEvtMask, OVERLAPPED lpOverlapped) {
-		INT lastError = new INT(0);
-		boolean result = WaitCommEvent(hFile, lpEvtMask, lpOverlapped, lastError);
-		preserveLastError(lastError);
-		return result;
+		return WaitCommEvent(hFile, lpEvtMask, lpOverlapped, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #WaitCommEvent(int, DWORD, OVERLAPPED)}. */
@@ -239,32 +219,57 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public boolean PurgeComm(int hFile, int dwFlags) {
-		INT lastError = new INT(0);
-		boolean result = PurgeComm(hFile, dwFlags, lastError);
-		preserveLastError(lastError);
-		return result;
+		return PurgeComm(hFile, dwFlags, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #PurgeComm(int, int)}. */
 	private native boolean PurgeComm(int hFile, int dwFlags, INT lastError);
 
-	/** {@inheritDoc} */
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * <b>NOTE:</b> This function is polled by every read operation, so it doesn't allocate any
+	 * object. The last error code is only preserved, if the function fails.
+	 */
 	public boolean ClearCommError(int hFile, INT lpErrors, COMSTAT lpStat) {
-		INT lastError = new INT(0);
-		boolean result = ClearCommError(hFile, lpErrors, lpStat, lastError);
-		preserveLastError(lastError);
-		return result;
+		int lastError = ClearCommError0(hFile, lpErrors, lpStat);
+		if (lastError == ERROR_SUCCESS)
+			return true;
+		lastErrors.clear().value = lastError;
+		return false;
 	}
 
-	/** Native reference to {@link #ClearCommError(int, INT, COMSTAT)}. */
-	private native boolean ClearCommError(int hFile, INT lpErrors, COMSTAT lpStat, INT lastError);
+	/**
+	 * Native reference to {@link #ClearCommError(int, INT, COMSTAT)}, returns
+	 * <code>ERROR_SUCCESS</code> if the function succeeds, otherwise the last error code.
+	 */
+	private native int ClearCommError0(int hFile, INT lpErrors, COMSTAT lpStat);
+
+	/** {@inheritDoc} */
+	public int WaitAndReadAvailable(int hFile, @Nonnull DWORD lpEvtMask, @Nonnull DWORD lpCanceled, @Nonnull OVERLAPPED lpOverlapped, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nonnull INT lpErrors, @Nonnull COMSTAT lpStat) {
+		return WaitAndReadAvailable(hFile, lpEvtMask, lpCanceled, lpOverlapped, lpBuffer, nNumberOfBytesToRead, lpErrors, lpStat, lastErrors.clear());
+	}
+
+	/**
+	 * Native reference to
+	 * {@link #WaitAndReadAvailable(int, DWORD, DWORD, OVERLAPPED, ByteBuffer, int, INT, COMSTAT)}.
+	 */
+	private native int WaitAndReadAvailable(int hFile, DWORD lpEvtMask, DWORD lpCanceled, OVERLAPPED lpOverlapped, ByteBuffer lpBuffer, int nNumberOfBytesToRead, INT lpErrors, COMSTAT lpStat, INT lastError);
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The combined read function is disabled by default, it must be enabled by setting the system
+	 * property {@value #COMBINED_READ_PROPERTY} to <code>true</code>. Otherwise the read operation
+	 * is performed by calling the single functions.
+	 */
+	public boolean isWaitAndReadAvailableSupported() {
+		return IS_COMBINED_READ_ENABLED;
+	}
 
 	/** {@inheritDoc} */
 	public boolean ResetEvent(int hEvent) {
-		INT lastError = new INT(0);
-		boolean result = ResetEvent(hEvent, lastError);
-		preserveLastError(lastError);
-		return result;
+		return ResetEvent(hEvent, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #ResetEvent(int)}. */
@@ -272,10 +277,7 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public boolean SetCommBreak(int hFile) {
-		INT lastError = new INT(0);
-		boolean result = SetCommBreak(hFile, lastError);
-		preserveLastError(lastError);
-		return result;
+		return SetCommBreak(hFile, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #SetCommBreak(int)}. */
@@ -283,10 +285,7 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public boolean ClearCommBreak(int hFile) {
-		INT lastError = new INT(0);
-		boolean result = ClearCommBreak(hFile, lastError);
-		preserveLastError(lastError);
-		return result;
+		return ClearCommBreak(hFile, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #ClearCommBreak(int)}. */
@@ -294,10 +293,7 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public boolean CancelIo(int hFile) {
-		INT lastError = new INT(0);
-		boolean result = CancelIo(hFile, lastError);
-		preserveLastError(lastError);
-		return result;
+		return CancelIo(hFile, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #CancelIo(int)}. */
@@ -305,15 +301,42 @@ public class OS implements WinApi {
 
 	/** {@inheritDoc} */
 	public boolean SetEvent(int hEvent) {
-		INT lastError = new INT(0);
-		boolean result = SetEvent(hEvent, lastError);
-		preserveLastError(lastError);
-		return result;
+		return SetEvent(hEvent, lastErrors.clear());
 	}
 
 	/** Native reference to {@link #SetEvent(int)}. */
 	private native boolean SetEvent(int hEvent, INT lastError);
 
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public int CreateIoCompletionPort(int FileHandle, int ExistingCompletionPort, int CompletionKey, int NumberOfConcurrentThreads) {
+		return CreateIoCompletionPort(FileHandle, ExistingCompletionPort, CompletionKey, NumberOfConcurrentThreads, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #CreateIoCompletionPort(int, int, int, int)}. */
+	private native int CreateIoCompletionPort(int FileHandle, int ExistingCompletionPort, int CompletionKey, int NumberOfConcurrentThreads, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public boolean GetQueuedCompletionStatus(int CompletionPort, @Nonnull INT lpNumberOfBytes, @Nonnull INT lpCompletionKey, @Nonnull INT lpOverlapped, int dwMilliseconds) {
+		return GetQueuedCompletionStatus(CompletionPort, lpNumberOfBytes, lpCompletionKey, lpOverlapped, dwMilliseconds, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #GetQueuedCompletionStatus(int, INT, INT, INT, int)}. */
+	private native boolean GetQueuedCompletionStatus(int CompletionPort, @Nonnull INT lpNumberOfBytes, @Nonnull INT lpCompletionKey, @Nonnull INT lpOverlapped, int dwMilliseconds, INT lastError);
+
+	/** {@inheritDoc} */
+	@CheckReturnValue
+	public boolean PostQueuedCompletionStatus(int CompletionPort, int dwNumberOfBytesTransferred, int dwCompletionKey, int lpOverlapped) {
+		return PostQueuedCompletionStatus(CompletionPort, dwNumberOfBytesTransferred, dwCompletionKey, lpOverlapped, lastErrors.clear());
+	}
+
+	/** Native reference to {@link #PostQueuedCompletionStatus(int, int, int, int)}. */
+	private native boolean PostQueuedCompletionStatus(int CompletionPort, int dwNumberOfBytesTransferred, int dwCompletionKey, int lpOverlapped, INT lastError);
+
+	/** {@inheritDoc} */
+	public native boolean HasOverlappedIoCompleted(@Nonnull OVERLAPPED lpOverlapped);
+
 	/** {@inheritDoc} */
 	public native int malloc(@Nonnegative int size);
 
@@ -335,10 +358,29 @@ public class OS implements WinApi {
 	/** {@inheritDoc} */
 	public native byte[] getByteArray(NativeByteArray nativeByteArray, int length);
 
+	/** {@inheritDoc} */
+	public native void setByteArray(@Nonnull NativeByteArray nativeByteArray, int offset, @Nonnull byte[] data, int dataOffset, int length);
+
+	/** {@inheritDoc} */
+	public native void setByteBuffer(@Nonnull NativeByteArray nativeByteArray, int offset, @Nonnull ByteBuffer data, int length);
+
 	/** {@inheritDoc} */
 	public native int getValue_DWORD(@Nonnull DWORD dword);
 
 	/** {@inheritDoc} */
 	public native void setValue_DWORD(@Nonnull DWORD dword, int value);
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * JNI creates the buffer in big endian byte order, it is changed to the native byte order.
+	 */
+	@Nonnull
+	public ByteBuffer newDirectByteBuffer(int address, @Nonnegative int capacity) {
+		return newDirectByteBuffer0(address, capacity).order(nativeOrder());
+	}
+
+	/** Native reference to {@link #newDirectByteBuffer(int, int)}. */
+	private native ByteBuffer newDirectByteBuffer0(int address, int capacity);
+
 }
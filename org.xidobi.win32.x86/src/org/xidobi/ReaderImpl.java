@@ -15,22 +15,28 @@
  */
 package org.xidobi;
 
+import static java.lang.Math.min;
 import static java.lang.Thread.interrupted;
 import static org.xidobi.WinApi.ERROR_IO_PENDING;
 import static org.xidobi.WinApi.EV_RXCHAR;
+import static org.xidobi.WinApi.INFINITE;
 import static org.xidobi.WinApi.WAIT_ABANDONED;
 import static org.xidobi.WinApi.WAIT_FAILED;
 import static org.xidobi.WinApi.WAIT_OBJECT_0;
 import static org.xidobi.WinApi.WAIT_TIMEOUT;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
 import static org.xidobi.utils.Throwables.newNativeCodeException;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.xidobi.spi.NativeCodeException;
 import org.xidobi.spi.Reader;
+import org.xidobi.spi.SerialConnectionMetrics;
 import org.xidobi.structs.COMSTAT;
 import org.xidobi.structs.DWORD;
 import org.xidobi.structs.INT;
@@ -47,15 +53,55 @@ public class ReaderImpl extends IoOperationImpl implements Reader {
 	/** Timeout for native <code>ReadFile</code> operation. */
 	private static final int READ_FILE_TIMEOUT = 100;
 
-	/** Read timeout in milliseconds */
-	private int readTimeout = 100;
+	/**
+	 * the capacity of the buffer, that is used by {@link #read()} for combined reads, it matches the
+	 * default size of the input buffer of the serial port driver
+	 */
+	private static final int DIRECT_READ_BUFFER_SIZE = 4096;
 
-	/** Buffer for read data */
+	/**
+	 * Buffer for read data, it is kept for the lifetime of this reader and only reallocated if more
+	 * bytes are available than it can hold
+	 */
 	private NativeByteArray readBuffer;
 
 	/** Receives the flags of a communication event */
 	private DWORD eventMask;
 
+	/**
+	 * Set to a nonzero value by {@link #close()}, to cancel the wait of a combined native read.
+	 * It is <code>null</code>, if the reads are not combined in a single native call.
+	 */
+	@Nullable
+	private final DWORD canceled;
+
+	/**
+	 * Receives the data of {@link #read()}, if the reads are combined in a single native call. It is
+	 * allocated once and kept for the lifetime of this reader.
+	 */
+	@Nullable
+	private final ByteBuffer directReadBuffer;
+
+	/** Receives the status of the port, it is reused for every call of <code>ClearCommError</code> */
+	private final COMSTAT comStat = new COMSTAT();
+	/** Receives the communication errors, it is reused for every call of <code>ClearCommError</code> */
+	private final INT commErrors = new INT(0);
+
+	/** records the communication errors */
+	private final SerialConnectionMetrics metrics;
+
+	/**
+	 * Set to <code>true</code> when a read left bytes in the input buffer of the port, these bytes
+	 * don't signal <code>EV_RXCHAR</code> again
+	 */
+	private boolean hasRemainingBytes;
+
+	/**
+	 * Set to <code>true</code> when this reader is closed, a read operation that is woken up while
+	 * waiting for data must not continue in this case
+	 */
+	private volatile boolean isCloseRequested;
+
 	/**
 	 * Creates a new read operation.
 	 * 
@@ -69,9 +115,64 @@ public class ReaderImpl extends IoOperationImpl implements Reader {
 	public ReaderImpl(	SerialPort port,
 						WinApi os,
 						int handle) {
-		super(port, os, handle);
+		this(port, os, handle, new SerialConnectionMetrics());
+	}
+
+	/**
+	 * Creates a new read operation, that records the communication errors in the given metrics.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port
+	 * @param metrics
+	 *            the metrics of the connection, must not be <code>null</code>
+	 */
+	public ReaderImpl(	SerialPort port,
+						WinApi os,
+						int handle,
+						SerialConnectionMetrics metrics) {
+		this(port, os, handle, metrics, null);
+	}
 
-		eventMask = new DWORD(os);
+	/**
+	 * Creates a new read operation, that records the communication errors in the given metrics and
+	 * waits for data with the given poller.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port
+	 * @param metrics
+	 *            the metrics of the connection, must not be <code>null</code>
+	 * @param poller
+	 *            the poller, the handle must be associated with, <code>null</code> if the read
+	 *            operation should wait in native code
+	 */
+	public ReaderImpl(	SerialPort port,
+						WinApi os,
+						int handle,
+						SerialConnectionMetrics metrics,
+						@Nullable CompletionPoller poller) {
+		super(port, os, handle, poller);
+
+		this.metrics = checkArgumentNotNull(metrics, "metrics");
+		eventMask = new DWORD(arena);
+
+		// the combined native read blocks in native code, so it can't be used with a poller
+		if (poller == null && os.isWaitAndReadAvailableSupported()) {
+			canceled = new DWORD(arena);
+			canceled.setValue(0);
+			directReadBuffer = ByteBuffer.allocateDirect(DIRECT_READ_BUFFER_SIZE);
+		}
+		else {
+			canceled = null;
+			directReadBuffer = null;
+		}
 	}
 
 	/** {@inheritDoc} */
@@ -81,34 +182,143 @@ public class ReaderImpl extends IoOperationImpl implements Reader {
 		try {
 			checkIfClosedOrDisposed();
 
+			if (canceled != null)
+				return waitAndReadAvailable();
+
 			resetOverlappedEventHandle();
 
-			// Repeat until data is available:
-			while (true) {
+			int availableBytes = awaitAvailableBytes();
 
-				// check if the current thread is interrupted
-				if (interrupted())
-					throw new InterruptedIOException("The thread for the read operation is interrupted!");
+			// now we can read the available data
+			return readAvailableBytes(availableBytes);
+		}
+		finally {
+			disposeLock.unlock();
+		}
+	}
 
-				// wait for some data to arrive
-				awaitArrivalOfData();
+	/** {@inheritDoc} */
+	public int read(@Nonnull ByteBuffer dst) throws IOException {
+		disposeLock.lock();
+		try {
+			checkIfClosedOrDisposed();
 
-				// how many bytes are available for read?
-				int availableBytes = getAvailableBytes();
-				if (availableBytes == 0)
-					// there is no data available for read
-					continue;
+			if (canceled != null && dst.isDirect() && dst.hasRemaining())
+				// the data can be read directly into the memory of the buffer by a single native call
+				return waitAndReadAvailable(dst);
 
-				// now we can read the available data
-				return readAvailableBytes(availableBytes);
-			}
+			resetOverlappedEventHandle();
+
+			// we must not read more bytes than the buffer can hold, the remaining bytes stay in the
+			// input buffer of the port
+			int availableBytes = awaitAvailableBytes();
+			int numberOfBytesToRead = min(availableBytes, dst.remaining());
+
+			if (dst.isDirect())
+				// the data can be read directly into the memory of the buffer
+				readAvailableBytes(dst, numberOfBytesToRead);
+			else
+				dst.put(readAvailableBytes(numberOfBytesToRead));
+
+			hasRemainingBytes = availableBytes > numberOfBytesToRead;
+			return numberOfBytesToRead;
 		}
 		finally {
 			disposeLock.unlock();
 		}
 	}
 
-	/** Blocks until data arrives or an {@link IOException} is thrown. */
+	/**
+	 * Blocks until data is available and returns it, the wait and the read are performed by a
+	 * single native call. If more bytes are available than the buffer can hold, the remaining bytes
+	 * stay in the input buffer of the port and are returned by the next read.
+	 */
+	private byte[] waitAndReadAvailable() throws IOException {
+		directReadBuffer.clear();
+
+		int bytesRead = waitAndReadAvailable(directReadBuffer);
+
+		byte[] data = new byte[bytesRead];
+		directReadBuffer.flip();
+		directReadBuffer.get(data);
+		return data;
+	}
+
+	/**
+	 * Blocks until data is available and reads it into the given direct buffer, the wait and the
+	 * read are performed by a single native call. The position of the buffer is advanced by the
+	 * number of bytes that were read.
+	 */
+	private int waitAndReadAvailable(ByteBuffer dst) throws IOException {
+		// Repeat until data is available:
+		while (true) {
+
+			// check if the current thread is interrupted
+			if (interrupted())
+				throw new InterruptedIOException("The thread for the read operation is interrupted!");
+
+			comStat.cbInQue = 0;
+			commErrors.value = 0;
+			int bytesRead = os.WaitAndReadAvailable(handle, eventMask, canceled, overlapped, dst, dst.remaining(), commErrors, comStat);
+			metrics.recordCommErrors(commErrors.value);
+
+			if (bytesRead > 0) {
+				dst.position(dst.position() + bytesRead);
+				return bytesRead;
+			}
+			if (bytesRead == 0) {
+				// a communication event was signaled, but there is no data available for read
+				checkEventMask(eventMask);
+				continue;
+			}
+
+			int lastError = os.GetLastError();
+			if (lastError != ERROR_IO_PENDING)
+				handleNativeError("WaitAndReadAvailable", lastError);
+			operationPending(overlapped);
+
+			if (isCloseRequested)
+				// the wait was canceled by close()
+				throw portClosedException("Read operation was canceled.");
+			throw new NativeCodeException("ReadFile timed out after " + READ_FILE_TIMEOUT + " milliseconds!");
+		}
+	}
+
+	/** Blocks until data is available and returns the number of available bytes. */
+	private int awaitAvailableBytes() throws IOException {
+		if (hasRemainingBytes) {
+			// the bytes left by the last read must be read without waiting for a communication
+			// event, because they won't signal one
+			hasRemainingBytes = false;
+			int availableBytes = getAvailableBytes();
+			if (availableBytes > 0)
+				return availableBytes;
+		}
+
+		// Repeat until data is available:
+		while (true) {
+
+			// check if the current thread is interrupted
+			if (interrupted())
+				throw new InterruptedIOException("The thread for the read operation is interrupted!");
+
+			// wait for some data to arrive
+			awaitArrivalOfData();
+
+			// how many bytes are available for read?
+			int availableBytes = getAvailableBytes();
+			if (availableBytes == 0)
+				// there is no data available for read
+				continue;
+
+			return availableBytes;
+		}
+	}
+
+	/**
+	 * Blocks until data arrives or an {@link IOException} is thrown. There is no timeout, the wait
+	 * is only finished when a communication event is signaled or this reader is closed.
+	 */
 	private void awaitArrivalOfData() throws IOException {
 
 		// reset eventMask
@@ -124,62 +334,89 @@ public class ReaderImpl extends IoOperationImpl implements Reader {
 		int lastError = os.GetLastError();
 		if (lastError != ERROR_IO_PENDING)
 			handleNativeError("WaitCommEvent", lastError);
+		operationPending(overlapped);
 
-		// Repeat until some data arrived:
-		while (true) {
+		if (isCloseRequested)
+			// the event may already be signaled by close()
+			throw portClosedException("Read operation was canceled.");
 
-			// wait for pending operation to complete
-			int waitResult = os.WaitForSingleObject(overlapped.hEvent, readTimeout);
-
-			switch (waitResult) {
-				case WAIT_OBJECT_0:
-					// wait finished successfull
-					checkEventMask(eventMask);
-					return;
-				case WAIT_TIMEOUT:
-					// operation has timed out
-					continue;
-				case WAIT_ABANDONED:
-					throw new NativeCodeException("WaitForSingleObject returned an unexpected value: WAIT_ABANDONED!");
-				case WAIT_FAILED:
-					handleNativeError("WaitForSingleObject", os.GetLastError());
-				default:
-					throw newNativeCodeException(os, "WaitForSingleObject returned unexpected value! Got: " + waitResult, os.GetLastError());
-			}
+		// wait for pending operation to complete, close() signals the event to wake us up
+		int waitResult = waitForCompletion(overlapped, INFINITE);
+
+		switch (waitResult) {
+			case WAIT_OBJECT_0:
+				if (isCloseRequested)
+					// the event was signaled by close(), the operation may still be pending
+					throw portClosedException("Read operation was canceled.");
+				// wait finished successfull
+				operationCompleted(overlapped);
+				checkEventMask(eventMask);
+				return;
+			case WAIT_ABANDONED:
+				throw new NativeCodeException("WaitForSingleObject returned an unexpected value: WAIT_ABANDONED!");
+			case WAIT_FAILED:
+				handleNativeError("WaitForSingleObject", os.GetLastError());
+				// handleNativeError() always throws, so this is never reached
+				throw new NativeCodeException("WaitForSingleObject failed unexpected!");
+			default:
+				throw newNativeCodeException(os, "WaitForSingleObject returned unexpected value! Got: " + waitResult, os.GetLastError());
 		}
 	}
 
 	/** Returns the number of bytes that are available to read. */
 	private int getAvailableBytes() throws IOException {
-		COMSTAT lpStat = new COMSTAT();
-		INT lpErrors = new INT(0);
-		boolean succeed = os.ClearCommError(handle, lpErrors, lpStat);
+		comStat.cbInQue = 0;
+		commErrors.value = 0;
+		boolean succeed = os.ClearCommError(handle, commErrors, comStat);
 		if (!succeed)
 			handleNativeError("ClearCommError", os.GetLastError());
-		return lpStat.cbInQue;
+		metrics.recordCommErrors(commErrors.value);
+		return comStat.cbInQue;
 	}
 
 	/** Reads and returns the data that is available in the read buffer. */
 	private byte[] readAvailableBytes(int numberOfBytesToRead) throws IOException {
 
-		// create a new read buffer
-		newReadBuffer(numberOfBytesToRead);
+		// ensure that the read buffer is large enough
+		readBuffer = ensureCapacity(readBuffer, numberOfBytesToRead);
 
 		boolean readFileResult = os.ReadFile(handle, readBuffer, numberOfBytesToRead, numberOfBytesTransferred, overlapped);
-		if (readFileResult)
-			// the read operation succeeded immediatly
-			return readBuffer.getByteArray();
+		if (!readFileResult)
+			// the read operation is pending
+			awaitReadFileCompletion(numberOfBytesToRead);
 
+		return readBuffer.getByteArray(numberOfBytesToRead);
+	}
+
+	/**
+	 * Reads the available data directly into the given direct buffer and advances its position by
+	 * the number of bytes that were read.
+	 */
+	private void readAvailableBytes(ByteBuffer dst, int numberOfBytesToRead) throws IOException {
+		boolean readFileResult = os.ReadFile(handle, dst, numberOfBytesToRead, numberOfBytesTransferred, overlapped);
+		if (!readFileResult)
+			// the read operation is pending
+			awaitReadFileCompletion(numberOfBytesToRead);
+
+		dst.position(dst.position() + numberOfBytesToRead);
+	}
+
+	/**
+	 * Awaits the completion of a <code>ReadFile</code> operation, that returned <code>false</code>.
+	 */
+	private void awaitReadFileCompletion(int numberOfBytesToRead) throws IOException {
 		int lastError = os.GetLastError();
 		if (lastError != ERROR_IO_PENDING)
 			handleNativeError("ReadFile", lastError);
+		operationPending(overlapped);
 
 		// wait for pending I/O operation to complete
-		int waitResult = os.WaitForSingleObject(overlapped.hEvent, READ_FILE_TIMEOUT);
+		int waitResult = waitForCompletion(overlapped, READ_FILE_TIMEOUT);
 		switch (waitResult) {
 			case WAIT_OBJECT_0:
 				// I/O operation has finished
 				boolean overlappedResult = os.GetOverlappedResult(handle, overlapped, numberOfBytesTransferred, true);
+				operationCompleted(overlapped);
 				if (!overlappedResult)
 					handleNativeError("GetOverlappedResult", os.GetLastError());
 
@@ -188,7 +425,7 @@ public class ReaderImpl extends IoOperationImpl implements Reader {
 				int bytesRead = numberOfBytesTransferred.getValue();
 				if (bytesRead != numberOfBytesToRead)
 					throw new NativeCodeException("GetOverlappedResult returned an unexpected number of read bytes! Read: " + bytesRead + ", expected: " + numberOfBytesToRead);
-				return readBuffer.getByteArray();
+				return;
 			case WAIT_TIMEOUT:
 				// ReadFile has timed out. This should not happen, because we determined that
 				// data is available
@@ -197,18 +434,13 @@ public class ReaderImpl extends IoOperationImpl implements Reader {
 				throw new NativeCodeException("WaitForSingleObject returned an unexpected value: WAIT_ABANDONED!");
 			case WAIT_FAILED:
 				handleNativeError("WaitForSingleObject", os.GetLastError());
+				// handleNativeError() always throws, so this is never reached
+				throw new NativeCodeException("WaitForSingleObject failed unexpected!");
 			default:
 				throw newNativeCodeException(os, "WaitForSingleObject returned unexpected value! Got: " + waitResult, os.GetLastError());
 		}
 	}
 
-	/** Disposes the current buffer and creates a new one. */
-	private void newReadBuffer(int numberOfBytesToRead) {
-		if (readBuffer != null)
-			readBuffer.dispose();
-		readBuffer = new NativeByteArray(os, numberOfBytesToRead);
-	}
-
 	/**
 	 * Throws an {@link IOException}, when the <code>EV_RXCHAR</code> flag in the given
 	 * <code>eventMask</code> is 0.
@@ -226,16 +458,27 @@ public class ReaderImpl extends IoOperationImpl implements Reader {
 		}
 	}
 
+	/**
+	 * Wakes up a read operation, that is waiting for the arrival of data, and closes this reader.
+	 * The waiting read operation throws an {@link IOException}.
+	 */
 	@Override
-	protected void disposeInternal() {
-		//@formatter:off
+	public void close() throws IOException {
+		checkIfClosedOrDisposed();
+
+		isCloseRequested = true;
 		try {
-			eventMask.dispose();
-		} finally {
-			if (readBuffer != null) {
-				readBuffer.dispose();
-		}}
-		//@formatter:on
+			if (canceled != null)
+				// the flag must be set before the event is signaled, see WaitAndReadAvailable
+				canceled.setValue(1);
+			boolean setEventResult = os.SetEvent(overlapped.hEvent);
+			if (!setEventResult)
+				throw newNativeCodeException(os, "SetEvent failed unexpected!", os.GetLastError());
+			wakeUp(overlapped);
+		}
+		finally {
+			super.close();
+		}
 	}
 
 }
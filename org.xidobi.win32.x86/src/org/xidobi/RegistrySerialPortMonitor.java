@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.SerialPortFinderImpl.HARDWARE_DEVICEMAP_SERIALCOMM;
+import static org.xidobi.WinApi.ERROR_SUCCESS;
+import static org.xidobi.WinApi.HKEY_LOCAL_MACHINE;
+import static org.xidobi.WinApi.INFINITE;
+import static org.xidobi.WinApi.KEY_NOTIFY;
+import static org.xidobi.WinApi.REG_NOTIFY_CHANGE_LAST_SET;
+import static org.xidobi.WinApi.REG_NOTIFY_CHANGE_NAME;
+import static org.xidobi.WinApi.WAIT_OBJECT_0;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+import static org.xidobi.utils.Throwables.newNativeCodeException;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.spi.NativeCodeException;
+import org.xidobi.structs.HKEY;
+
+/**
+ * A {@link SerialPortMonitor}, that observes the serial ports in the Windows Registry with
+ * <code>RegNotifyChangeKeyValue</code>. The subkey {@value SerialPortFinderImpl#HARDWARE_DEVICEMAP_SERIALCOMM}
+ * is changed by Windows, whenever a serial port is added or removed, e.g. when an USB-serial
+ * adapter is plugged in.
+ * <p>
+ * Windows cancels the notification, when the thread that requested it exits, so
+ * {@link #awaitChange()} must always be called by the same thread.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see CachingSerialPortFinder#CachingSerialPortFinder(SerialPortFinder, SerialPortMonitor)
+ */
+public class RegistrySerialPortMonitor implements SerialPortMonitor {
+
+	/** the native Win32-API, never <code>null</code> */
+	@Nonnull
+	private final WinApi os;
+
+	/** the handle of the observed subkey */
+	@Nonnull
+	private final HKEY keyHandle;
+	/** the manual-reset event, that is signaled by a change or by {@link #close()} */
+	private final int eventHandle;
+
+	/** held while a thread waits for a change, the handles are released under this lock */
+	private final Object waitLock = new Object();
+	/** <code>true</code>, if this monitor was closed */
+	private final AtomicBoolean isClosed = new AtomicBoolean();
+	/** <code>true</code>, if the next change is reported to the event, guarded by the wait lock */
+	private boolean isRegistered;
+
+	/**
+	 * Creates a monitor, that uses the native Win32-API.
+	 * 
+	 * @throws NativeCodeException
+	 *             if the subkey of the serial ports can't be opened
+	 */
+	public RegistrySerialPortMonitor() {
+		this(OS.OS);
+	}
+
+	/**
+	 * Creates a monitor.
+	 * 
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @throws NativeCodeException
+	 *             if the subkey of the serial ports can't be opened
+	 */
+	public RegistrySerialPortMonitor(@Nonnull WinApi os) {
+		this.os = checkArgumentNotNull(os, "os");
+
+		keyHandle = new HKEY(os);
+		int status = os.RegOpenKeyExA(HKEY_LOCAL_MACHINE, HARDWARE_DEVICEMAP_SERIALCOMM, 0, KEY_NOTIFY, keyHandle);
+		if (status != ERROR_SUCCESS) {
+			keyHandle.dispose();
+			throw newNativeCodeException(os, "Couldn't open Windows Registry for subkey >" + HARDWARE_DEVICEMAP_SERIALCOMM + "<!", status);
+		}
+
+		eventHandle = os.CreateEventA(0, true, false, null);
+		if (eventHandle == 0) {
+			int errorCode = os.GetLastError();
+			closeKey();
+			throw newNativeCodeException(os, "CreateEventA failed unexpected!", errorCode);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void awaitChange() throws IOException {
+		synchronized (waitLock) {
+			checkIfClosed();
+			if (!isRegistered) {
+				// the changes are observed from now on
+				register();
+				return;
+			}
+
+			int result = os.WaitForSingleObject(eventHandle, INFINITE);
+			if (result != WAIT_OBJECT_0)
+				throw newNativeCodeException(os, "WaitForSingleObject failed unexpected!", os.GetLastError());
+			checkIfClosed();
+
+			// the notification must be requested again for the next change
+			if (!os.ResetEvent(eventHandle))
+				throw newNativeCodeException(os, "ResetEvent failed unexpected!", os.GetLastError());
+			register();
+		}
+	}
+
+	/** Requests that the next change of the subkey signals the event. */
+	private void register() {
+		isRegistered = false;
+		int status = os.RegNotifyChangeKeyValue(keyHandle, false, REG_NOTIFY_CHANGE_NAME | REG_NOTIFY_CHANGE_LAST_SET, eventHandle, true);
+		if (status != ERROR_SUCCESS)
+			throw newNativeCodeException(os, "Couldn't observe Windows Registry subkey >" + HARDWARE_DEVICEMAP_SERIALCOMM + "<!", status);
+		isRegistered = true;
+	}
+
+	/** {@inheritDoc} */
+	public void close() {
+		if (!isClosed.compareAndSet(false, true))
+			return;
+
+		// wakes up the waiting thread, so it releases the wait lock
+		if (!os.SetEvent(eventHandle))
+			throw newNativeCodeException(os, "SetEvent failed unexpected!", os.GetLastError());
+
+		synchronized (waitLock) {
+			try {
+				closeKey();
+			}
+			finally {
+				if (!os.CloseHandle(eventHandle))
+					throw newNativeCodeException(os, "CloseHandle failed unexpected!", os.GetLastError());
+			}
+		}
+	}
+
+	/** Closes and releases the handle of the subkey. */
+	private void closeKey() {
+		try {
+			int status = os.RegCloseKey(keyHandle);
+			if (status != ERROR_SUCCESS)
+				throw newNativeCodeException(os, "Couldn't close Windows Registry subkey >" + HARDWARE_DEVICEMAP_SERIALCOMM + "<!", status);
+		}
+		finally {
+			keyHandle.dispose();
+		}
+	}
+
+	/** Throws an {@link IOException}, if this monitor was closed. */
+	private void checkIfClosed() throws IOException {
+		if (isClosed.get())
+			throw new IOException("The monitor was closed!");
+	}
+}
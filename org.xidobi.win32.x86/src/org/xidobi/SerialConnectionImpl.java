@@ -15,19 +15,13 @@
  */
 package org.xidobi;
 
-import static java.lang.Thread.sleep;
 import static org.xidobi.WinApi.ERROR_ACCESS_DENIED;
 import static org.xidobi.WinApi.ERROR_BAD_COMMAND;
-import static org.xidobi.WinApi.ERROR_FILE_NOT_FOUND;
 import static org.xidobi.WinApi.ERROR_GEN_FAILURE;
 import static org.xidobi.WinApi.ERROR_INVALID_HANDLE;
 import static org.xidobi.WinApi.ERROR_NOT_READY;
 import static org.xidobi.WinApi.ERROR_OPERATION_ABORTED;
 import static org.xidobi.WinApi.EV_RXCHAR;
-import static org.xidobi.WinApi.GENERIC_READ;
-import static org.xidobi.WinApi.GENERIC_WRITE;
-import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
-import static org.xidobi.WinApi.OPEN_EXISTING;
 import static org.xidobi.WinApi.PURGE_RXABORT;
 import static org.xidobi.WinApi.PURGE_RXCLEAR;
 import static org.xidobi.WinApi.PURGE_TXABORT;
@@ -36,12 +30,14 @@ import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
 import static org.xidobi.utils.Throwables.newNativeCodeException;
 
 import java.io.IOException;
-import java.io.InterruptedIOException;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.xidobi.spi.BasicSerialConnection;
 import org.xidobi.spi.NativeCodeException;
+import org.xidobi.spi.SerialConnectionMetrics;
 
 /**
  * Implementation of the interface {@link SerialConnection} for Windows (32-bit) on x86 platforms.
@@ -53,17 +49,18 @@ import org.xidobi.spi.NativeCodeException;
  */
 public class SerialConnectionImpl extends BasicSerialConnection {
 
-	/**
-	 * Specifies how often the port should be re-open in order to determine if the port is actualy
-	 * closed.
-	 */
-	private static final int TERMINATION_POLL_INTERVAL = 200;
-
 	/** the native Win32-API */
 	private WinApi os;
 	/** the native handle of the serial port */
 	private int handle;
 
+	/** the reader of this connection, never <code>null</code> */
+	@Nonnull
+	private final ReaderImpl reader;
+	/** the writer of this connection, never <code>null</code> */
+	@Nonnull
+	private final WriterImpl writer;
+
 	/**
 	 * @param port
 	 *            the serial port, must not be <code>null</code>
@@ -75,10 +72,77 @@ public class SerialConnectionImpl extends BasicSerialConnection {
 	public SerialConnectionImpl(@Nonnull SerialPort port,
 								@Nonnull WinApi os,
 								int handle) {
-		super(port, new ReaderImpl(port, os, handle), new WriterImpl(port, os, handle));
+		this(port, os, handle, 1);
+	}
+
+	/**
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port
+	 * @param maxPendingWrites
+	 *            the maximum number of write operations, that may be in progress at a time, must
+	 *            be greater than 0
+	 */
+	public SerialConnectionImpl(@Nonnull SerialPort port,
+								@Nonnull WinApi os,
+								int handle,
+								@Nonnegative int maxPendingWrites) {
+		this(port, os, handle, maxPendingWrites, null);
+	}
+
+	/**
+	 * Creates a connection, whose read and write operations wait with the given poller instead of
+	 * blocking in native code.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port, it must be associated with the poller
+	 * @param maxPendingWrites
+	 *            the maximum number of write operations, that may be in progress at a time, must
+	 *            be greater than 0
+	 * @param poller
+	 *            the poller, <code>null</code> if the operations should wait in native code
+	 */
+	public SerialConnectionImpl(@Nonnull SerialPort port,
+								@Nonnull WinApi os,
+								int handle,
+								@Nonnegative int maxPendingWrites,
+								@Nullable CompletionPoller poller) {
+		this(port, os, handle, maxPendingWrites, poller, new SerialConnectionMetrics());
+	}
+
+	/**
+	 * The metrics are shared with the reader, that records the communication errors, and the
+	 * writer, that records the completion latency of the write operations.
+	 */
+	private SerialConnectionImpl(	@Nonnull SerialPort port,
+									@Nonnull WinApi os,
+									int handle,
+									@Nonnegative int maxPendingWrites,
+									@Nullable CompletionPoller poller,
+									@Nonnull SerialConnectionMetrics metrics) {
+		this(port, os, handle, new ReaderImpl(port, os, handle, metrics, poller), new WriterImpl(port, os, handle, maxPendingWrites, metrics, poller), metrics);
+	}
+
+	/** Keeps the reader and writer to account for their native memory. */
+	private SerialConnectionImpl(	@Nonnull SerialPort port,
+									@Nonnull WinApi os,
+									int handle,
+									@Nonnull ReaderImpl reader,
+									@Nonnull WriterImpl writer,
+									@Nonnull SerialConnectionMetrics metrics) {
+		super(port, reader, writer, metrics);
 
 		this.os = os;
 		this.handle = handle;
+		this.reader = reader;
+		this.writer = writer;
 	}
 
 	@Override
@@ -90,11 +154,9 @@ public class SerialConnectionImpl extends BasicSerialConnection {
 			purgeComm();
 		} finally {	try {
 			releaseWaitCommEvent();
-		} finally {	try {
-			closePortHandle(handle);
 		} finally {
-			awaitCloseTermination();
-		}}}}
+			closePortHandle(handle);
+		}}}
 		//@formatter:on
 	}
 
@@ -134,47 +196,35 @@ public class SerialConnectionImpl extends BasicSerialConnection {
 			throw newNativeCodeException(os, "CloseHandle failed unexpected!", os.GetLastError());
 	}
 
-	/** Awaits the termination of all pending I/O operations. */
-	private void awaitCloseTermination() throws IOException {
-
-		String portName = getPort().getPortName();
-
-		// IMPORTANT: We need this workaround, because when the close operation returns, the pending
-		// I/O operations in the background are not canceled immediatly. We must wait until all I/O
-		// operations are finished. Only then we can dispose all allocated resources in the next
-		// step. The only way to find out that all pending I/O operations are finished and the
-		// port is really closed, is to re-open the port. If it is successfull, all pending
-		// operations should be terminated.
+	/**
+	 * Returns the native handle of the serial port, e.g. to associate it with an I/O completion
+	 * port.
+	 * 
+	 * @return the native handle
+	 */
+	final int getHandle() {
+		return handle;
+	}
 
-		while (true) {
-			int handle = os.CreateFileA("\\\\.\\" + portName, GENERIC_READ | GENERIC_WRITE, 0, 0, OPEN_EXISTING, 0, 0);
-			if (handle != INVALID_HANDLE_VALUE) {
-				// port was closed successful
-				closePortHandle(handle);
-				return;
-			}
-			int lastError = os.GetLastError();
-			switch (lastError) {
-				case ERROR_ACCESS_DENIED:
-					// the port is currently busy, we must wait and poll again
-					sleepUninterruptibly(TERMINATION_POLL_INTERVAL);
-					continue;
-				case ERROR_FILE_NOT_FOUND:
-					// the port couldn't been found, maybe the hardware was removed
-					return;
-			}
-			throw newNativeCodeException(os, "Couldn't wait for close termination! CreateFileA failed unexpected!", lastError);
-		}
+	/**
+	 * Returns the number of bytes of native memory, that the reader and writer of this connection
+	 * have allocated and not freed yet. After the connection was closed the value is 0, unless the
+	 * native resources couldn't be released.
+	 * 
+	 * @return the number of allocated bytes
+	 */
+	public long getAllocatedBytes() {
+		return reader.getAllocatedBytes() + writer.getAllocatedBytes();
 	}
 
-	/** Invokes <code>Thread.sleep(int)</code> uninterruptibly. */
-	private void sleepUninterruptibly(int duration) throws IOException {
-		try {
-			sleep(duration);
-		}
-		catch (InterruptedException e) {
-			throw new InterruptedIOException(e.getMessage());
-		}
+	/**
+	 * Returns the number of bytes of native memory, that the reader and writer of this connection
+	 * have allocated but lost without disposing it. Their memory was freed in the background.
+	 * 
+	 * @return the number of leaked bytes
+	 */
+	public long getLeakedBytes() {
+		return reader.getLeakedBytes() + writer.getLeakedBytes();
 	}
 
 	/**
@@ -27,6 +27,7 @@ import java.util.Set;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.xidobi.structs.HKEY;
 import org.xidobi.structs.INT;
@@ -42,11 +43,15 @@ import org.xidobi.structs.INT;
 public class SerialPortFinderImpl implements SerialPortFinder {
 
 	/** Subkey to the serial ports in the Windows Registry */
-	private static final String HARDWARE_DEVICEMAP_SERIALCOMM = "HARDWARE\\DEVICEMAP\\SERIALCOMM\\";
+	static final String HARDWARE_DEVICEMAP_SERIALCOMM = "HARDWARE\\DEVICEMAP\\SERIALCOMM\\";
 
 	/** the native Win32-API, never <code>null</code> */
 	private WinApi os;
 
+	/** the poller of the found ports, <code>null</code> if their connections wait in native code */
+	@Nullable
+	private final CompletionPoller poller;
+
 	/**
 	 * Creates a new instance, that finds all serial ports that are available in the Windows
 	 * Registry.
@@ -66,7 +71,24 @@ public class SerialPortFinderImpl implements SerialPortFinder {
 	 *            the native Win32-API, must not be <code>null</code>
 	 */
 	public SerialPortFinderImpl(@Nonnull WinApi os) {
+		this(os, null);
+	}
+
+	/**
+	 * Creates a new instance, that finds all serial ports that are available in the Windows
+	 * Registry. The connections of the found ports wait for the completion of their read and write
+	 * operations with the given poller.
+	 * 
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param poller
+	 *            the poller of the found ports, <code>null</code> if their connections should wait
+	 *            in native code
+	 */
+	public SerialPortFinderImpl(@Nonnull WinApi os,
+								@Nullable CompletionPoller poller) {
 		this.os = checkArgumentNotNull(os, "os");
+		this.poller = poller;
 	}
 
 	/** {@inheritDoc} */
@@ -132,7 +154,7 @@ public class SerialPortFinderImpl implements SerialPortFinder {
 			// add serial port values to set:
 			String portName = new String(registryValue, 0, sizeOfValue.value - 1);
 			String description = new String(registryKey, 0, sizeOfKey.value);
-			SerialPort serialPort = new SerialPortImpl(os, portName, description);
+			SerialPort serialPort = new SerialPortImpl(os, portName, description, new DCBConfigurator(), poller);
 			ports.add(serialPort);
 		}
 
@@ -67,6 +67,10 @@ public class SerialPortImpl implements SerialPort {
 	@Nullable
 	private String description;
 
+	/** parks the threads of the connections, <code>null</code> if they wait in native code */
+	@Nullable
+	private final CompletionPoller poller;
+
 	/**
 	 * Creates a new handle using the native Win32-API provided by the {@link WinApi}.
 	 * 
@@ -100,10 +104,37 @@ public class SerialPortImpl implements SerialPort {
 							@Nonnull String portName,
 							@Nullable String description,
 							@Nonnull DCBConfigurator configurator) {
+		this(os, portName, description, configurator, null);
+	}
+
+	/**
+	 * Creates a new handle using the native Win32-API provided by the {@link WinApi}. The
+	 * connections of this port wait for the completion of their read and write operations with the
+	 * given poller, so the waiting threads don't block in native code.
+	 * 
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param portName
+	 *            the name of this port, must not be <code>null</code>
+	 * @param description
+	 *            the additional description for the serial port, maybe <code>null</code>
+	 * @param configurator
+	 *            configures the native DCB "struct" with the values from the serial port settings,
+	 *            must not be <code>null</code>
+	 * @param poller
+	 *            the poller of the connections, <code>null</code> if they should wait in native
+	 *            code
+	 */
+	public SerialPortImpl(	@Nonnull WinApi os,
+							@Nonnull String portName,
+							@Nullable String description,
+							@Nonnull DCBConfigurator configurator,
+							@Nullable CompletionPoller poller) {
 		this.portName = checkArgumentNotNull(portName, "portName");
 		this.os = checkArgumentNotNull(os, "os");
 		this.configurator = checkArgumentNotNull(configurator, "configurator");
 		this.description = description;
+		this.poller = poller;
 	}
 
 	/** {@inheritDoc} */
@@ -116,6 +147,8 @@ public class SerialPortImpl implements SerialPort {
 			applySettings(handle, settings);
 			clearIOBuffers(handle);
 			registerRxEvent(handle);
+			if (poller != null)
+				poller.associate(this, handle);
 		}
 		catch (IOException e) {
 			os.CloseHandle(handle);
@@ -126,7 +159,7 @@ public class SerialPortImpl implements SerialPort {
 			throw e;
 		}
 
-		return new SerialConnectionImpl(this, os, handle);
+		return new SerialConnectionImpl(this, os, handle, settings.getMaxPendingWrites(), poller);
 	}
 
 	/**
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.Math.max;
+import static java.nio.ByteBuffer.allocateDirect;
+import static org.xidobi.WinApi.ERROR_ACCESS_DENIED;
+import static org.xidobi.WinApi.ERROR_BAD_COMMAND;
+import static org.xidobi.WinApi.ERROR_GEN_FAILURE;
+import static org.xidobi.WinApi.ERROR_INVALID_HANDLE;
+import static org.xidobi.WinApi.ERROR_IO_PENDING;
+import static org.xidobi.WinApi.ERROR_NOT_READY;
+import static org.xidobi.WinApi.ERROR_OPERATION_ABORTED;
+import static org.xidobi.WinApi.EV_RXCHAR;
+import static org.xidobi.utils.Throwables.newIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.BasicSerialSelectionKey;
+import org.xidobi.structs.COMSTAT;
+import org.xidobi.structs.DWORD;
+import org.xidobi.structs.INT;
+import org.xidobi.structs.NativeByteArray;
+import org.xidobi.structs.OVERLAPPED;
+
+/**
+ * Implementation of the interface {@link SerialSelectionKey} for Windows (32-bit) on x86
+ * platforms.
+ * <p>
+ * The handle of the connection is associated with the I/O completion port of the selector. Each
+ * key owns one OVERLAPPED struct for each kind of operation, the completion packets are
+ * dispatched by the selector to {@link #processCompletion(int, boolean, int, int)}. The key waits
+ * for a communication event with <code>WaitCommEvent</code> and reads the available bytes when it
+ * completes. The native resources are released, when the key is cancelled and all pending
+ * operations are completed, because the system uses them until then.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialSelectorImpl
+ */
+public class SerialSelectionKeyImpl extends BasicSerialSelectionKey {
+
+	/** the initial size of the read buffer */
+	private static final int INITIAL_READ_BUFFER_SIZE = 1024;
+
+	/** the selector that created this key */
+	private final SerialSelectorImpl selector;
+	/** the registered connection */
+	private final SerialConnectionImpl connection;
+	/** the native Win32-API */
+	private final WinApi os;
+	/** the native handle of the serial port */
+	private final int handle;
+
+	/** the overlapped of the pending <code>WaitCommEvent</code> operation */
+	private final OVERLAPPED waitOverlapped;
+	/** the overlapped of the pending <code>ReadFile</code> operation */
+	private final OVERLAPPED readOverlapped;
+	/** the overlapped of the pending <code>WriteFile</code> operation */
+	private final OVERLAPPED writeOverlapped;
+	/** the addresses of the overlapped structs, they identify the completion packets of this key */
+	private final int[] overlappedAddresses;
+
+	/** Receives the flags of a communication event */
+	private final DWORD eventMask;
+	/** Receives the number of read bytes, if <code>ReadFile</code> succeeds immediatly */
+	private final DWORD bytesRead;
+	/** Receives the number of written bytes, if <code>WriteFile</code> succeeds immediatly */
+	private final DWORD bytesWritten;
+
+	/** Receives the status of the port, it is reused for every call of <code>ClearCommError</code> */
+	private final COMSTAT comStat = new COMSTAT();
+	/** Receives the communication errors, it is reused for every call of <code>ClearCommError</code> */
+	private final INT commErrors = new INT(0);
+
+	/**
+	 * Buffer for read data, it is passed to the handler and reused for every read; it is only
+	 * reallocated if more bytes are available than it can hold
+	 */
+	@Nullable
+	private ByteBuffer readBuffer;
+	/** Staging buffer for the data of the write operation in progress */
+	@Nullable
+	private NativeByteArray writeBuffer;
+	/** the number of bytes in the staging buffer */
+	private int writeLength;
+
+	/** the number of operations, whose completion packet wasn't dequeued yet */
+	private int pendingOperations;
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if the native resources are disposed
+	 * <li> <code>false</code> if the native resources are not disposed
+	 * </ul>
+	 */
+	private boolean isDisposed;
+
+	/**
+	 * Creates a new key. The handle of the connection must already be associated with the I/O
+	 * completion port of the selector.
+	 * 
+	 * @param selector
+	 *            the selector that created this key, must not be <code>null</code>
+	 * @param connection
+	 *            the registered connection, must not be <code>null</code>
+	 * @param handler
+	 *            receives the events of the connection, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 */
+	public SerialSelectionKeyImpl(	@Nonnull SerialSelectorImpl selector,
+									@Nonnull SerialConnectionImpl connection,
+									@Nonnull SerialEventHandler handler,
+									@Nonnull WinApi os) {
+		super(selector, connection, handler);
+		this.selector = selector;
+		this.connection = connection;
+		this.os = os;
+		this.handle = connection.getHandle();
+
+		// NOTE: The overlapped structs have no event object, so the completions are only
+		// signaled by the I/O completion port.
+		waitOverlapped = new OVERLAPPED(os);
+		readOverlapped = new OVERLAPPED(os);
+		writeOverlapped = new OVERLAPPED(os);
+		overlappedAddresses = new int[] { waitOverlapped.address(), readOverlapped.address(), writeOverlapped.address() };
+
+		eventMask = new DWORD(os);
+		bytesRead = new DWORD(os);
+		bytesWritten = new DWORD(os);
+	}
+
+	/**
+	 * Returns the addresses of the overlapped structs of this key, the completion packets of this
+	 * key are identified by them.
+	 * 
+	 * @return the addresses, never <code>null</code>
+	 */
+	@Nonnull
+	final int[] getOverlappedAddresses() {
+		return overlappedAddresses;
+	}
+
+	/**
+	 * Starts waiting for data, it is called once by the selector after the key was created.
+	 * 
+	 * @throws IOException
+	 *             if the wait operation couldn't be started
+	 */
+	final synchronized void start() throws IOException {
+		awaitData();
+	}
+
+	/**
+	 * Processes the completion packet of one of the overlapped structs of this key. Must only be
+	 * called by the thread that selects.
+	 * 
+	 * @param overlappedAddress
+	 *            the address of the overlapped struct of the completed operation
+	 * @param succeeded
+	 *            <code>true</code>, if the operation completed successfully
+	 * @param numberOfBytes
+	 *            the number of transferred bytes
+	 * @param errorCode
+	 *            the error code of the failed operation
+	 * @return the number of events that were dispatched to the handler
+	 */
+	final int processCompletion(int overlappedAddress, boolean succeeded, int numberOfBytes, int errorCode) {
+		synchronized (this) {
+			pendingOperations--;
+		}
+		try {
+			if (overlappedAddress == overlappedAddresses[0])
+				return processCommEvent(succeeded, errorCode);
+			if (overlappedAddress == overlappedAddresses[1])
+				return processReadCompleted(succeeded, numberOfBytes, errorCode);
+			return processWriteCompleted(succeeded, numberOfBytes, errorCode);
+		}
+		finally {
+			synchronized (this) {
+				disposeIfUnused();
+			}
+		}
+	}
+
+	/** Reads the available bytes, when a communication event occurred. */
+	private int processCommEvent(boolean succeeded, int errorCode) {
+		try {
+			readAvailableBytes(succeeded, errorCode);
+			return 0;
+		}
+		catch (IOException e) {
+			fireFailed(e);
+			return 1;
+		}
+	}
+
+	/**
+	 * Starts reading the bytes, that are available after the completed <code>WaitCommEvent</code>
+	 * operation. The key waits again, if no bytes are available.
+	 */
+	private synchronized void readAvailableBytes(boolean succeeded, int errorCode) throws IOException {
+		if (!isValid())
+			return;
+		if (!succeeded)
+			throw handleNativeError("WaitCommEvent", errorCode);
+		if (eventMask.getValue() == 0 || connection.isClosed())
+			// the wait operation was released, because the connection is closed
+			throw portClosedException(null);
+
+		comStat.cbInQue = 0;
+		commErrors.value = 0;
+		if (!os.ClearCommError(handle, commErrors, comStat))
+			throw handleNativeError("ClearCommError", os.GetLastError());
+
+		int availableBytes = comStat.cbInQue;
+		if (availableBytes == 0) {
+			// the data is gone, we must wait again
+			awaitData();
+			return;
+		}
+
+		// ensure that the read buffer is large enough
+		readBuffer = ensureCapacity(readBuffer, max(availableBytes, INITIAL_READ_BUFFER_SIZE));
+		readBuffer.clear();
+		if (!os.ReadFile(handle, readBuffer, availableBytes, bytesRead, readOverlapped)) {
+			int lastError = os.GetLastError();
+			if (lastError != ERROR_IO_PENDING)
+				throw handleNativeError("ReadFile", lastError);
+		}
+		// NOTE: The completion packet is also queued, if the operation succeeded immediatly.
+		pendingOperations++;
+	}
+
+	/** Dispatches the read bytes to the handler and waits again for data. */
+	private int processReadCompleted(boolean succeeded, int numberOfBytes, int errorCode) {
+		if (!isValid())
+			return 0;
+		if (!succeeded) {
+			fireFailed(handleNativeError("ReadFile", errorCode));
+			return 1;
+		}
+
+		readBuffer.clear();
+		readBuffer.limit(numberOfBytes);
+		fireDataReceived(readBuffer);
+
+		try {
+			synchronized (this) {
+				if (isValid())
+					awaitData();
+			}
+			return 1;
+		}
+		catch (IOException e) {
+			fireFailed(e);
+			return 2;
+		}
+	}
+
+	/** Dispatches the completion of the write operation to the handler. */
+	private int processWriteCompleted(boolean succeeded, int numberOfBytes, int errorCode) {
+		if (!isValid())
+			return 0;
+		if (!succeeded) {
+			fireFailed(handleNativeError("WriteFile", errorCode));
+			return 1;
+		}
+
+		int expectedLength;
+		synchronized (this) {
+			expectedLength = writeLength;
+		}
+		if (numberOfBytes != expectedLength) {
+			fireFailed(new IOException("WriteFile returned an unexpected number of transferred bytes! Transferred: " + numberOfBytes + ", expected: " + expectedLength));
+			return 1;
+		}
+
+		fireWriteCompleted();
+		return 1;
+	}
+
+	/** Starts waiting for a communication event. */
+	private void awaitData() throws IOException {
+		eventMask.setValue(0);
+		if (!os.WaitCommEvent(handle, eventMask, waitOverlapped)) {
+			int lastError = os.GetLastError();
+			if (lastError != ERROR_IO_PENDING)
+				throw handleNativeError("WaitCommEvent", lastError);
+		}
+		// NOTE: The completion packet is also queued, if the operation succeeded immediatly.
+		pendingOperations++;
+	}
+
+	@Override
+	protected synchronized void startWrite(@Nonnull ByteBuffer src) throws IOException {
+		if (isDisposed)
+			throw portClosedException(null);
+
+		// copy the data to the staging buffer, the position of src must not be modified
+		writeLength = src.remaining();
+		writeBuffer = ensureCapacity(writeBuffer, max(writeLength, 1));
+		stage(src);
+
+		if (!os.WriteFile(handle, writeBuffer, writeLength, bytesWritten, writeOverlapped)) {
+			int lastError = os.GetLastError();
+			if (lastError != ERROR_IO_PENDING)
+				throw handleNativeError("WriteFile", lastError);
+		}
+		// NOTE: The completion packet is also queued, if the operation succeeded immediatly.
+		pendingOperations++;
+	}
+
+	/** Copies the remaining bytes of the given buffer to the staging buffer. */
+	private void stage(ByteBuffer src) {
+		if (writeLength == 0)
+			return;
+
+		if (src.isDirect())
+			writeBuffer.setByteBuffer(0, src);
+		else if (src.hasArray())
+			writeBuffer.setByteArray(0, src.array(), src.arrayOffset() + src.position(), writeLength);
+		else {
+			// the backing array of a read-only buffer is not accessible, so we need a copy
+			byte[] data = new byte[writeLength];
+			src.duplicate().get(data);
+			writeBuffer.setByteArray(0, data, 0, writeLength);
+		}
+	}
+
+	@Override
+	protected synchronized void cancelInternal() {
+		selector.removeKey(connection, this);
+
+		if (pendingOperations > 0 && !connection.isClosed())
+			// NOTE: Releases the pending WaitCommEvent operation, so that its completion packet
+			// is queued. The result is ignored, because the handle may be closed concurrently.
+			os.SetCommMask(handle, EV_RXCHAR);
+
+		disposeIfUnused();
+	}
+
+	/**
+	 * Releases the native resources, when this key is cancelled and the completion packets of all
+	 * operations were dequeued.
+	 */
+	private void disposeIfUnused() {
+		if (isValid() || pendingOperations > 0 || isDisposed)
+			return;
+		isDisposed = true;
+
+		selector.releaseOverlappedAddresses(overlappedAddresses);
+
+		waitOverlapped.dispose();
+		readOverlapped.dispose();
+		writeOverlapped.dispose();
+		eventMask.dispose();
+		bytesRead.dispose();
+		bytesWritten.dispose();
+		if (writeBuffer != null)
+			writeBuffer.dispose();
+	}
+
+	/**
+	 * Returns a direct buffer that can hold at least the given number of bytes. The given buffer is
+	 * returned, if it is large enough.
+	 */
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+		if (buffer != null && buffer.capacity() >= size)
+			return buffer;
+		return allocateDirect(max(size, buffer == null ? 0 : buffer.capacity() * 2));
+	}
+
+	/**
+	 * Returns a native byte array that can hold at least the given number of bytes. The given
+	 * array is returned, if it is large enough. Otherwise it is disposed and replaced by a new one.
+	 */
+	private NativeByteArray ensureCapacity(NativeByteArray buffer, int size) {
+		if (buffer != null && buffer.size() >= size)
+			return buffer;
+
+		NativeByteArray newBuffer = new NativeByteArray(os, max(size, buffer == null ? 0 : buffer.size() * 2));
+		if (buffer != null)
+			buffer.dispose();
+		return newBuffer;
+	}
+
+	/**
+	 * Returns an {@link IOException} for the given error code of the given native method, the
+	 * error codes are the same as for the {@link IoOperationImpl I/O operations} of the connection.
+	 */
+	private IOException handleNativeError(String nativeMethodName, int errorCode) {
+		switch (errorCode) {
+			case ERROR_INVALID_HANDLE:
+				return portClosedException("I/O operation failed, because the handle is invalid.");
+			case ERROR_ACCESS_DENIED:
+				return portClosedException("I/O operation failed, because access denied.");
+			case ERROR_OPERATION_ABORTED:
+				return portClosedException("I/O operation has been aborted.");
+			case ERROR_GEN_FAILURE:
+				return portClosedException("I/O operation failed, because a device attached to the system is not functioning.");
+			case ERROR_BAD_COMMAND:
+				return portClosedException("I/O operation failed, because the device doesn't recognize the command.");
+			case ERROR_NOT_READY:
+				return portClosedException("I/O operation failed, because the device is not ready.");
+			default:
+				return newIOException(os, nativeMethodName + " failed unexpected!", errorCode);
+		}
+	}
+
+	/** Returns a new {@link IOException} indicating that the port is closed. */
+	private IOException portClosedException(@Nullable String message) {
+		if (message == null)
+			message = "";
+		else
+			message = " " + message;
+		return new IOException("Port " + connection.getPort().getPortName() + " was closed!" + message);
+	}
+}
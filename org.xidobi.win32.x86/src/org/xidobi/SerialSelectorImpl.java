@@ -0,0 +1,355 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.lang.System.currentTimeMillis;
+import static org.xidobi.WinApi.ERROR_INVALID_HANDLE;
+import static org.xidobi.WinApi.ERROR_INVALID_PARAMETER;
+import static org.xidobi.WinApi.INFINITE;
+import static org.xidobi.WinApi.INVALID_HANDLE_VALUE;
+import static org.xidobi.WinApi.NULL;
+import static org.xidobi.WinApi.WAIT_TIMEOUT;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+import static org.xidobi.utils.Throwables.newNativeCodeException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.xidobi.structs.INT;
+
+/**
+ * Implementation of the interface {@link SerialSelector} for Windows (32-bit) on x86 platforms.
+ * <p>
+ * The handles of all registered connections are associated with one I/O completion port. The
+ * completion packets are identified by the address of the OVERLAPPED struct of the completed
+ * operation, a packet without an OVERLAPPED struct wakes up a waiting selection operation. The
+ * selection operations are serialized, only one thread waits on the I/O completion port at a time.
+ * <p>
+ * <b>NOTE:</b> A handle can't be dissociated from an I/O completion port, so a connection that
+ * was registered once can't be registered with another selector. The blocking read and write
+ * operations of a registered connection don't queue completion packets, because they set the
+ * low-order bit of the event handle of their OVERLAPPED structs, see
+ * {@link org.xidobi.structs.OVERLAPPED#skipCompletionPort}. So the connection may still be used
+ * after its key was cancelled or this selector was closed, without leaking completion packets.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialSelectionKeyImpl
+ */
+public class SerialSelectorImpl implements SerialSelector {
+
+	/**
+	 * the maximum time in milliseconds, the selector waits for the completion packets of the
+	 * cancelled keys when it is closed
+	 */
+	private static final int CLOSE_TIMEOUT = 2000;
+
+	/** the native Win32-API */
+	private final WinApi os;
+
+	/** the handle of the I/O completion port */
+	private final int completionPort;
+
+	/** the valid keys by their connection */
+	private final Map<SerialConnection, SerialSelectionKeyImpl> keys = new HashMap<SerialConnection, SerialSelectionKeyImpl>();
+	/** the connections whose handle is associated with the I/O completion port */
+	private final Map<SerialConnection, Boolean> associatedConnections = new WeakHashMap<SerialConnection, Boolean>();
+	/** the keys, that wait for completion packets, by the addresses of their overlapped structs */
+	private final Map<Integer, SerialSelectionKeyImpl> keysByOverlapped = new HashMap<Integer, SerialSelectionKeyImpl>();
+
+	/** ensures that only one thread waits on the I/O completion port at a time */
+	private final ReentrantLock selectLock = new ReentrantLock();
+	/** Receives the number of transferred bytes, it is reused for every selection */
+	private final INT numberOfBytes = new INT(0);
+	/** Receives the completion key, it is reused for every selection */
+	private final INT completionKey = new INT(0);
+	/** Receives the address of the overlapped struct, it is reused for every selection */
+	private final INT overlappedAddress = new INT(0);
+	/** Set to <code>true</code>, when a wake up packet was dequeued during a selection */
+	private boolean isWokenUp;
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if this selector is closed
+	 * <li> <code>false</code> if this selector is open
+	 * </ul>
+	 */
+	private volatile boolean isClosed;
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if the I/O completion port is closed
+	 * <li> <code>false</code> if the I/O completion port is not closed
+	 * </ul>
+	 */
+	private boolean isDisposed;
+
+	/** Creates a new selector, that uses the native Win32-API. */
+	public SerialSelectorImpl() {
+		this(OS.OS);
+	}
+
+	/**
+	 * Creates a new selector.
+	 * 
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 */
+	public SerialSelectorImpl(@Nonnull WinApi os) {
+		this.os = checkArgumentNotNull(os, "os");
+
+		completionPort = os.CreateIoCompletionPort(INVALID_HANDLE_VALUE, NULL, 0, 1);
+		if (completionPort == NULL)
+			throw newNativeCodeException(os, "CreateIoCompletionPort failed unexpected!", os.GetLastError());
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public SerialSelectionKey register(@Nonnull SerialConnection connection, @Nonnull SerialEventHandler handler) throws IOException {
+		checkArgumentNotNull(connection, "connection");
+		checkArgumentNotNull(handler, "handler");
+		checkArgument(connection instanceof SerialConnectionImpl, "connection", "The connection wasn't opened by xidobi for Windows!");
+
+		SerialConnectionImpl connectionImpl = (SerialConnectionImpl) connection;
+
+		SerialSelectionKeyImpl key;
+		synchronized (keys) {
+			checkIfClosed();
+			if (connection.isClosed())
+				throw new IOException("Port " + connection.getPort().getPortName() + " was closed!");
+			checkArgument(!keys.containsKey(connection), "connection", "The connection is already registered!");
+
+			associate(connectionImpl);
+
+			key = new SerialSelectionKeyImpl(this, connectionImpl, handler, os);
+			keys.put(connection, key);
+			for (int address : key.getOverlappedAddresses())
+				keysByOverlapped.put(address, key);
+		}
+
+		try {
+			key.start();
+		}
+		catch (IOException e) {
+			key.cancel();
+			throw e;
+		}
+		return key;
+	}
+
+	/** Associates the handle of the given connection with the I/O completion port, if necessary. */
+	private void associate(SerialConnectionImpl connection) throws IOException {
+		if (associatedConnections.containsKey(connection))
+			// the handle was associated by a previous registration
+			return;
+
+		int handle = connection.getHandle();
+		if (os.CreateIoCompletionPort(handle, completionPort, handle, 0) == NULL) {
+			int lastError = os.GetLastError();
+			switch (lastError) {
+				case ERROR_INVALID_PARAMETER:
+					throw new IllegalArgumentException("Argument >connection< is invalid! The connection was already registered with another selector!");
+				case ERROR_INVALID_HANDLE:
+					throw new IOException("Port " + connection.getPort().getPortName() + " was closed!");
+				default:
+					throw newNativeCodeException(os, "CreateIoCompletionPort failed unexpected!", lastError);
+			}
+		}
+		associatedConnections.put(connection, Boolean.TRUE);
+	}
+
+	/** {@inheritDoc} */
+	public int select() throws IOException {
+		selectLock.lock();
+		try {
+			checkIfClosed();
+			isWokenUp = false;
+			while (true) {
+				int dispatchedEvents = selectNow(INFINITE);
+				if (dispatchedEvents > 0 || isWokenUp || isClosed)
+					return dispatchedEvents;
+			}
+		}
+		finally {
+			selectLock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int select(@Nonnegative int timeout) throws IOException {
+		checkArgument(timeout >= 0, "timeout", "Expected a value greater or equal to 0!");
+
+		selectLock.lock();
+		try {
+			checkIfClosed();
+			return selectNow(timeout);
+		}
+		finally {
+			selectLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits with the given timeout for a completion packet and dispatches it and all other queued
+	 * packets. Returns the number of dispatched events.
+	 */
+	private int selectNow(int timeout) {
+		int dispatchedEvents = 0;
+		while (true) {
+			boolean succeeded = os.GetQueuedCompletionStatus(completionPort, numberOfBytes, completionKey, overlappedAddress, timeout);
+			int errorCode = succeeded ? 0 : os.GetLastError();
+			if (!succeeded && overlappedAddress.value == NULL) {
+				if (errorCode == WAIT_TIMEOUT)
+					// no more packets are queued
+					return dispatchedEvents;
+				throw newNativeCodeException(os, "GetQueuedCompletionStatus failed unexpected!", errorCode);
+			}
+
+			if (overlappedAddress.value == NULL)
+				isWokenUp = true;
+			else
+				dispatchedEvents += dispatch(overlappedAddress.value, succeeded, numberOfBytes.value, errorCode);
+
+			// the remaining packets are dequeued without waiting
+			timeout = 0;
+		}
+	}
+
+	/** Dispatches the completion packet of the given overlapped struct to its key. */
+	private int dispatch(int overlappedAddress, boolean succeeded, int numberOfBytes, int errorCode) {
+		SerialSelectionKeyImpl key;
+		synchronized (keys) {
+			key = keysByOverlapped.get(overlappedAddress);
+		}
+		if (key == null)
+			// NOTE: The read and write operations of the connection itself don't queue packets,
+			// so this packet belongs to a key, that was already released.
+			return 0;
+		return key.processCompletion(overlappedAddress, succeeded, numberOfBytes, errorCode);
+	}
+
+	/** {@inheritDoc} */
+	public void wakeup() {
+		synchronized (keys) {
+			if (isDisposed)
+				return;
+			if (!os.PostQueuedCompletionStatus(completionPort, 0, 0, NULL))
+				throw newNativeCodeException(os, "PostQueuedCompletionStatus failed unexpected!", os.GetLastError());
+		}
+	}
+
+	/** {@inheritDoc} */
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	/** {@inheritDoc} */
+	public void close() throws IOException {
+		List<SerialSelectionKeyImpl> keysToCancel;
+		synchronized (keys) {
+			if (isClosed)
+				return;
+			isClosed = true;
+			keysToCancel = new ArrayList<SerialSelectionKeyImpl>(keys.values());
+		}
+		for (SerialSelectionKeyImpl key : keysToCancel)
+			key.cancel();
+
+		// wake up the selection operation in progress and wait until it has returned
+		wakeup();
+		selectLock.lock();
+		try {
+			awaitPendingOperations();
+			dispose();
+		}
+		finally {
+			selectLock.unlock();
+		}
+	}
+
+	/**
+	 * Dequeues the completion packets of the cancelled keys, so that they can release their native
+	 * resources. The resources of keys, whose packets are not dequeued within the
+	 * {@link #CLOSE_TIMEOUT}, are not released, because the system may still use them.
+	 */
+	private void awaitPendingOperations() {
+		long deadline = currentTimeMillis() + CLOSE_TIMEOUT;
+		while (true) {
+			synchronized (keys) {
+				if (keysByOverlapped.isEmpty())
+					return;
+			}
+			long remaining = deadline - currentTimeMillis();
+			if (remaining <= 0)
+				return;
+			selectNow((int) remaining);
+		}
+	}
+
+	/** Closes the handle of the I/O completion port. */
+	private void dispose() {
+		synchronized (keys) {
+			isDisposed = true;
+			if (!os.CloseHandle(completionPort))
+				throw newNativeCodeException(os, "CloseHandle failed unexpected!", os.GetLastError());
+		}
+	}
+
+	/** Throws an {@link IOException}, if this selector is closed. */
+	private void checkIfClosed() throws IOException {
+		if (isClosed)
+			throw new IOException("The selector was closed!");
+	}
+
+	/**
+	 * Removes the given key of the given connection, it is called when the key is cancelled.
+	 * 
+	 * @param connection
+	 *            the connection of the key, must not be <code>null</code>
+	 * @param key
+	 *            the cancelled key, must not be <code>null</code>
+	 */
+	final void removeKey(@Nonnull SerialConnection connection, @Nonnull SerialSelectionKeyImpl key) {
+		synchronized (keys) {
+			if (keys.get(connection) == key)
+				keys.remove(connection);
+		}
+	}
+
+	/**
+	 * Releases the given addresses of overlapped structs, it is called when a cancelled key has
+	 * dequeued the completion packets of all its operations.
+	 * 
+	 * @param overlappedAddresses
+	 *            the addresses of the overlapped structs of the key, must not be
+	 *            <code>null</code>
+	 */
+	final void releaseOverlappedAddresses(@Nonnull int[] overlappedAddresses) {
+		synchronized (keys) {
+			for (int address : overlappedAddresses)
+				keysByOverlapped.remove(address);
+		}
+	}
+}
@@ -15,6 +15,8 @@
  */
 package org.xidobi;
 
+import java.nio.ByteBuffer;
+
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -92,6 +94,8 @@ public interface WinApi {
 	int ERROR_BAD_COMMAND = 22;
 	/** A device attached to the system is not functioning. */
 	int ERROR_GEN_FAILURE = 31;
+	/** The parameter is incorrect. */
+	int ERROR_INVALID_PARAMETER = 87;
 	/** More data is available. */
 	int ERROR_MORE_DATA = 234;
 	/** No more data is available. Indicates in an enumeration that no more elements are available. */
@@ -126,6 +130,16 @@ public interface WinApi {
 	 * values.
 	 */
 	int KEY_READ = 0x20019;
+	/** Required to request change notifications for a registry key or for subkeys of a registry key. */
+	int KEY_NOTIFY = 0x0010;
+
+	/** Notify the caller if a subkey is added or deleted. */
+	int REG_NOTIFY_CHANGE_NAME = 0x00000001;
+	/**
+	 * Notify the caller of changes to a value of the key. This can include adding or deleting a
+	 * value, or changing an existing value.
+	 */
+	int REG_NOTIFY_CHANGE_LAST_SET = 0x00000004;
 
 	/**
 	 * Registry entries subordinate to this key define the physical state of the computer, including
@@ -441,6 +455,41 @@ public interface WinApi {
 	@CheckReturnValue
 	boolean WriteFile(int handle, @Nonnull byte[] lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped);
 
+	/**
+	 * Writes data from the given native byte array to the specified file or input/output (I/O)
+	 * device. In contrast to {@link #WriteFile(int, byte[], int, DWORD, OVERLAPPED)} the data is
+	 * not copied, so the native byte array must remain valid until an asynchronous write operation
+	 * is completed.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/aa365747(v=vs.85).aspx">
+	 * WriteFile (MSDN)</a> for more details.</i>
+	 * 
+	 * @param handle
+	 *            {@code _In_ HANDLE} - A handle to the file or I/O device, see
+	 *            {@link #WriteFile(int, byte[], int, DWORD, OVERLAPPED)}.
+	 * @param lpBuffer
+	 *            {@code _In_ LPCVOID} - A pointer to the buffer containing the data to be written
+	 *            to the file or device. This buffer must remain valid for the duration of the write
+	 *            operation. The caller must not use this buffer until the write operation is
+	 *            completed.
+	 * @param nNumberOfBytesToWrite
+	 *            {@code _In_ DWORD} - The number of bytes to be written to the file or device.
+	 * @param lpNumberOfBytesWritten
+	 *            {@code _Out_opt_ LPDWORD} - A pointer to the variable that receives the number of
+	 *            bytes written when using a synchronous hFile parameter.
+	 * @param lpOverlapped
+	 *            {@code _Inout_opt_ LPOVERLAPPED} - A pointer to an {@link OVERLAPPED} structure is
+	 *            required if the hFile parameter was opened with FILE_FLAG_OVERLAPPED, otherwise
+	 *            this parameter can be NULL.
+	 * @return {@code BOOL} - If the function succeeds, the return value is nonzero (
+	 *         <code>true</code>). If the function fails, or is completing asynchronously, the
+	 *         return value is zero (<code>false</code>). To get extended error information, call
+	 *         the {@link #GetLastError()} function.
+	 */
+	@CheckReturnValue
+	boolean WriteFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToWrite, @Nullable DWORD lpNumberOfBytesWritten, @Nullable OVERLAPPED lpOverlapped);
+
 	/**
 	 * Reads data from the specified file or input/output (I/O) device. Reads occur at the position
 	 * specified by the file pointer if supported by the device.
@@ -484,6 +533,40 @@ public interface WinApi {
 	@CheckReturnValue
 	boolean ReadFile(int handle, @Nonnull NativeByteArray lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped);
 
+	/**
+	 * Reads data from the specified file or input/output (I/O) device directly into the memory of
+	 * the given direct {@link ByteBuffer}. The data is stored beginning at the current position of
+	 * the buffer. The position of the buffer is not modified.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/aa365467(v=vs.85).aspx">
+	 * ReadFile (MSDN)</a> for more details.</i>
+	 * 
+	 * @param handle
+	 *            {@code _In_ HANDLE} - A handle to the device, see
+	 *            {@link #ReadFile(int, NativeByteArray, int, DWORD, OVERLAPPED)}.
+	 * @param lpBuffer
+	 *            {@code _Out_ LPCVOID} - A direct buffer that receives the data read from a file or
+	 *            device, it must have at least <code>nNumberOfBytesToRead</code> bytes remaining.
+	 *            This buffer must remain valid for the duration of the read operation. The caller
+	 *            must not use this buffer until the read operation is completed.
+	 * @param nNumberOfBytesToRead
+	 *            {@code _In_ DWORD} - The maximum number of bytes to be read.
+	 * @param lpNumberOfBytesRead
+	 *            {@code _Out_opt_ LPDWORD} - A pointer to the variable that receives the number of
+	 *            bytes read when using a synchronous hFile parameter.
+	 * @param lpOverlapped
+	 *            {@code _Inout_opt_ LPOVERLAPPED} - A pointer to an {@link OVERLAPPED} structure is
+	 *            required if the hFile parameter was opened with FILE_FLAG_OVERLAPPED, otherwise it
+	 *            can be NULL.
+	 * @return {@code BOOL} - If the function succeeds, the return value is nonzero (
+	 *         <code>true</code>). If the function fails, or is completing asynchronously, the
+	 *         return value is zero (<code>false</code>). To get extended error information, call
+	 *         the {@link #GetLastError()} function.
+	 */
+	@CheckReturnValue
+	boolean ReadFile(int handle, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nullable DWORD lpNumberOfBytesRead, OVERLAPPED lpOverlapped);
+
 	/**
 	 * Returns the last error code, that occured during a native method call by the current thread.
 	 * This method is a workaround for an issue with {@link #GetLastError()} were JNI or the VM
@@ -712,6 +795,45 @@ public interface WinApi {
 	@CheckReturnValue
 	int RegEnumValueA(HKEY hKey, int dwIndex, byte[] lpValueName, INT lpcchValueName, int lpReserved, INT lpType, byte[] lpData, INT lpcbData);
 
+	/**
+	 * Notifies the caller about changes to the attributes or contents of a specified registry key.
+	 * <p>
+	 * <b>Remarks:</b> If the thread that called RegNotifyChangeKeyValue exits, the event is
+	 * signaled. To continue to monitor additional changes in the value of the key, call
+	 * RegNotifyChangeKeyValue again from another thread. If the specified key is closed, the event
+	 * is signaled. This function reports a single change, after the event was signaled it must be
+	 * called again to be notified about the next change.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/ms724892(v=vs.85).aspx">
+	 * RegNotifyChangeKeyValue (MSDN)</a> for more details.</i>
+	 * 
+	 * @param hKey
+	 *            {@code _In_ HKEY} - A handle to an open registry key. This handle is returned by
+	 *            the {@link #RegOpenKeyExA(int, String, int, int, HKEY)} function. The key must
+	 *            have been opened with the {@link #KEY_NOTIFY} access right.
+	 * @param bWatchSubtree
+	 *            {@code _In_ BOOL} - If this parameter is TRUE, the function reports changes in the
+	 *            specified key and its subkeys. If the parameter is FALSE, the function reports
+	 *            changes only in the specified key.
+	 * @param dwNotifyFilter
+	 *            {@code _In_ DWORD} - A value that indicates the changes that should be reported,
+	 *            e.g. {@link #REG_NOTIFY_CHANGE_NAME} or {@link #REG_NOTIFY_CHANGE_LAST_SET}.
+	 * @param hEvent
+	 *            {@code _In_opt_ HANDLE} - A handle to an event. If the fAsynchronous parameter is
+	 *            TRUE, the function returns immediately and changes are reported by signaling this
+	 *            event. If fAsynchronous is FALSE, hEvent is ignored.
+	 * @param fAsynchronous
+	 *            {@code _In_ BOOL} - If this parameter is TRUE, the function returns immediately and
+	 *            reports changes by signaling the specified event. If this parameter is FALSE, the
+	 *            function does not return until a change has occurred.
+	 * @return {@code LONG} - If the function succeeds, the return value is {@link #ERROR_SUCCESS}.
+	 *         If the function fails, the return value is a nonzero error code defined in
+	 *         Winerror.h.
+	 */
+	@CheckReturnValue
+	int RegNotifyChangeKeyValue(HKEY hKey, boolean bWatchSubtree, int dwNotifyFilter, int hEvent, boolean fAsynchronous);
+
 	/**
 	 * Creates a <a
 	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/dd318691(v=vs.85).aspx"
@@ -926,6 +1048,72 @@ public interface WinApi {
 	@CheckReturnValue
 	boolean ClearCommError(int hFile, INT lpErrors, COMSTAT lpStat);
 
+	/**
+	 * Waits until data is available in the input buffer of the communications device and reads it
+	 * directly into the memory of the given direct {@link ByteBuffer}. This is not a function of
+	 * the Win32-API, it combines the calls of {@link #ClearCommError(int, INT, COMSTAT)},
+	 * {@link #ResetEvent(int)}, {@link #WaitCommEvent(int, DWORD, OVERLAPPED)},
+	 * {@link #WaitForSingleObject(int, int)}, {@link #GetOverlappedResult(int, OVERLAPPED, DWORD, boolean)}
+	 * and {@link #ReadFile(int, ByteBuffer, int, DWORD, OVERLAPPED)}, that are needed for one read
+	 * operation, in a single native call.
+	 * <p>
+	 * The data is stored beginning at the current position of the buffer. The position of the
+	 * buffer is not modified. The wait for a communication event is not interruptible, it can only
+	 * be canceled by setting <code>lpCanceled</code> to a nonzero value and signaling the event of
+	 * the overlapped afterwards.
+	 * <p>
+	 * This function is only available if {@link #isWaitAndReadAvailableSupported()} returns
+	 * <code>true</code>.
+	 * 
+	 * @param hFile
+	 *            {@code _In_ HANDLE} - A handle to the communications device, it must be opened
+	 *            with FILE_FLAG_OVERLAPPED.
+	 * @param lpEvtMask
+	 *            {@code _Out_ LPDWORD} - Receives the mask of the communication event, if it was
+	 *            waited for one, see {@link #WaitCommEvent(int, DWORD, OVERLAPPED)}. It must
+	 *            remain valid for the duration of the wait.
+	 * @param lpCanceled
+	 *            {@code _In_ LPDWORD} - A variable that is set to a nonzero value by another
+	 *            thread, to cancel the wait for a communication event.
+	 * @param lpOverlapped
+	 *            {@code _Inout_ LPOVERLAPPED} - The {@link OVERLAPPED} structure that is used for
+	 *            the wait and the read, it must have a manual-reset event object.
+	 * @param lpBuffer
+	 *            {@code _Out_ LPVOID} - A direct buffer that receives the data, it must have at
+	 *            least <code>nNumberOfBytesToRead</code> bytes remaining.
+	 * @param nNumberOfBytesToRead
+	 *            {@code _In_ DWORD} - The maximum number of bytes to be read, must be greater than
+	 *            0. Available bytes beyond this number stay in the input buffer.
+	 * @param lpErrors
+	 *            {@code _Out_ LPDWORD} - Receives the mask of the communication errors, that were
+	 *            cleared during the call, see {@link #ClearCommError(int, INT, COMSTAT)}.
+	 * @param lpStat
+	 *            {@code _Out_ LPCOMSTAT} - Receives the status of the device after the read, the
+	 *            field <code>cbInQue</code> contains the number of bytes that remain in the input
+	 *            buffer.
+	 * @return The number of bytes that were read. The return value is 0, if a communication event
+	 *         was signaled without data being available, <code>lpEvtMask</code> contains the
+	 *         signaled event in this case. If the function fails, the return value is -1. To get
+	 *         extended error information, call {@link #GetLastError()}. The error code is
+	 *         {@link #ERROR_IO_PENDING}, if the wait was canceled or the read didn't complete in
+	 *         time, the operation of the overlapped is still pending in this case.
+	 */
+	@CheckReturnValue
+	int WaitAndReadAvailable(int hFile, @Nonnull DWORD lpEvtMask, @Nonnull DWORD lpCanceled, @Nonnull OVERLAPPED lpOverlapped, @Nonnull ByteBuffer lpBuffer, int nNumberOfBytesToRead, @Nonnull INT lpErrors, @Nonnull COMSTAT lpStat);
+
+	/**
+	 * Returns <code>true</code>, if
+	 * {@link #WaitAndReadAvailable(int, DWORD, DWORD, OVERLAPPED, ByteBuffer, int, INT, COMSTAT)}
+	 * is available. Otherwise the read operation must be performed by calling the single
+	 * functions.
+	 * 
+	 * @return <ul>
+	 *         <li> <code>true</code> if the combined read function is available
+	 *         <li> <code>false</code> if it is not available
+	 *         </ul>
+	 */
+	boolean isWaitAndReadAvailableSupported();
+
 	/**
 	 * Suspends character transmission for a specified communications device and places the
 	 * transmission line in a break state until the ClearCommBreak function is called.
@@ -1007,6 +1195,118 @@ public interface WinApi {
 	@CheckReturnValue
 	boolean SetEvent(int hEvent);
 
+	/**
+	 * Creates an input/output (I/O) completion port and associates it with a specified file handle,
+	 * or creates an I/O completion port that is not yet associated with a file handle, allowing
+	 * association at a later time.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/aa363862(v=vs.85).aspx">
+	 * CreateIoCompletionPort (MSDN)</a> for more details.</i>
+	 * 
+	 * @param FileHandle
+	 *            {@code _In_ HANDLE} - An open file handle, that was opened with
+	 *            {@link #FILE_FLAG_OVERLAPPED}, or {@link #INVALID_HANDLE_VALUE} to create an I/O
+	 *            completion port without associating it with a file handle.
+	 * @param ExistingCompletionPort
+	 *            {@code _In_opt_ HANDLE} - A handle to an existing I/O completion port or
+	 *            {@link #NULL}. If this parameter specifies an existing I/O completion port, the
+	 *            function associates it with the handle specified by the FileHandle parameter.
+	 * @param CompletionKey
+	 *            {@code _In_ ULONG_PTR} - The per-handle user-defined completion key that is
+	 *            included in every I/O completion packet for the specified file handle.
+	 * @param NumberOfConcurrentThreads
+	 *            {@code _In_ DWORD} - The maximum number of threads that the operating system can
+	 *            allow to concurrently process I/O completion packets for the I/O completion port.
+	 *            This parameter is ignored if the ExistingCompletionPort parameter is not
+	 *            {@link #NULL}.
+	 * @return {@code HANDLE} - If the function succeeds, the return value is the handle to an I/O
+	 *         completion port. If the function fails, the return value is {@link #NULL}. To get
+	 *         extended error information, call {@link #GetLastError()}. If the file handle is
+	 *         already associated with another I/O completion port, the function fails with
+	 *         {@link #ERROR_INVALID_PARAMETER}.
+	 */
+	@CheckReturnValue
+	int CreateIoCompletionPort(int FileHandle, int ExistingCompletionPort, int CompletionKey, int NumberOfConcurrentThreads);
+
+	/**
+	 * Attempts to dequeue an I/O completion packet from the specified I/O completion port. If
+	 * there is no completion packet queued, the function waits for a pending I/O operation
+	 * associated with the completion port to complete.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/aa364986(v=vs.85).aspx">
+	 * GetQueuedCompletionStatus (MSDN)</a> for more details.</i>
+	 * 
+	 * @param CompletionPort
+	 *            {@code _In_ HANDLE} - A handle to the completion port.
+	 * @param lpNumberOfBytes
+	 *            {@code _Out_ LPDWORD} - Receives the number of bytes transferred during an I/O
+	 *            operation that has completed, must not be <code>null</code>.
+	 * @param lpCompletionKey
+	 *            {@code _Out_ PULONG_PTR} - Receives the completion key value associated with the
+	 *            file handle whose I/O operation has completed, must not be <code>null</code>.
+	 * @param lpOverlapped
+	 *            {@code _Out_ LPOVERLAPPED *} - Receives the address of the OVERLAPPED structure
+	 *            that was specified when the completed I/O operation was started, must not be
+	 *            <code>null</code>.
+	 * @param dwMilliseconds
+	 *            {@code _In_ DWORD} - The number of milliseconds that the caller is willing to
+	 *            wait for a completion packet to appear at the completion port, or
+	 *            {@link #INFINITE}.
+	 * @return {@code BOOL} - Returns nonzero (TRUE) if successful or zero (FALSE) otherwise. If
+	 *         the function dequeues a completion packet for a failed I/O operation, the return
+	 *         value is zero and the address of the OVERLAPPED structure is stored in
+	 *         <code>lpOverlapped</code>. If the wait timed out, the return value is zero,
+	 *         <code>lpOverlapped</code> receives {@link #NULL} and {@link #GetLastError()} returns
+	 *         {@link #WAIT_TIMEOUT}.
+	 */
+	@CheckReturnValue
+	boolean GetQueuedCompletionStatus(int CompletionPort, @Nonnull INT lpNumberOfBytes, @Nonnull INT lpCompletionKey, @Nonnull INT lpOverlapped, int dwMilliseconds);
+
+	/**
+	 * Posts an I/O completion packet to an I/O completion port.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/aa365458(v=vs.85).aspx">
+	 * PostQueuedCompletionStatus (MSDN)</a> for more details.</i>
+	 * 
+	 * @param CompletionPort
+	 *            {@code _In_ HANDLE} - A handle to an I/O completion port to which the I/O
+	 *            completion packet is to be posted.
+	 * @param dwNumberOfBytesTransferred
+	 *            {@code _In_ DWORD} - The value to be returned through the lpNumberOfBytes
+	 *            parameter of the {@link #GetQueuedCompletionStatus} function.
+	 * @param dwCompletionKey
+	 *            {@code _In_ ULONG_PTR} - The value to be returned through the lpCompletionKey
+	 *            parameter of the {@link #GetQueuedCompletionStatus} function.
+	 * @param lpOverlapped
+	 *            {@code _In_opt_ LPOVERLAPPED} - The value to be returned through the
+	 *            lpOverlapped parameter of the {@link #GetQueuedCompletionStatus} function.
+	 * @return {@code BOOL} - If the function succeeds, the return value is nonzero. If the function
+	 *         fails, the return value is zero. To get extended error information, call
+	 *         {@link #GetLastError()}.
+	 */
+	@CheckReturnValue
+	boolean PostQueuedCompletionStatus(int CompletionPort, int dwNumberOfBytesTransferred, int dwCompletionKey, int lpOverlapped);
+
+	/**
+	 * Returns <code>true</code>, if the operation of the overlapped is completed. The state is read
+	 * from the <code>Internal</code> member of the overlapped, so it doesn't depend on the event
+	 * object.
+	 * <p>
+	 * <i>Please see <a
+	 * href="http://msdn.microsoft.com/en-us/library/windows/desktop/ms683244(v=vs.85).aspx">
+	 * HasOverlappedIoCompleted (MSDN)</a> for more details.</i>
+	 * 
+	 * @param lpOverlapped
+	 *            {@code _In_ LPOVERLAPPED} - A pointer to an OVERLAPPED structure that was
+	 *            specified when the overlapped I/O operation was started.
+	 * @return {@code BOOL} - <code>true</code>, if the I/O operation is completed, and
+	 *         <code>false</code> if it is still pending.
+	 */
+	boolean HasOverlappedIoCompleted(@Nonnull OVERLAPPED lpOverlapped);
+
 	/**
 	 * Allocates a block of {@code size} bytes of memory, returning a pointer to the beginning of
 	 * the block.
@@ -1080,6 +1380,39 @@ public interface WinApi {
 	 */
 	byte[] getByteArray(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int length);
 
+	/**
+	 * Copies bytes from the given byte array to the given native byte array.
+	 * 
+	 * @param nativeByteArray
+	 *            the native byte array pointer, must not be <code>null</code>
+	 * @param offset
+	 *            the offset in the native byte array, where the first byte is stored
+	 * @param data
+	 *            the bytes to copy, must not be <code>null</code>
+	 * @param dataOffset
+	 *            the offset of the first byte to copy in <code>data</code>
+	 * @param length
+	 *            the number of bytes to copy, the native byte array must be large enough to hold
+	 *            them
+	 */
+	void setByteArray(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int offset, @Nonnull byte[] data, @Nonnegative int dataOffset, @Nonnegative int length);
+
+	/**
+	 * Copies the remaining bytes of the given direct buffer to the given native byte array. The
+	 * position of the buffer is not modified.
+	 * 
+	 * @param nativeByteArray
+	 *            the native byte array pointer, must not be <code>null</code>
+	 * @param offset
+	 *            the offset in the native byte array, where the first byte is stored
+	 * @param data
+	 *            a direct buffer containing the bytes to copy, must not be <code>null</code>
+	 * @param length
+	 *            the number of bytes to copy, must not be greater than the number of remaining
+	 *            bytes of the buffer
+	 */
+	void setByteBuffer(@Nonnull NativeByteArray nativeByteArray, @Nonnegative int offset, @Nonnull ByteBuffer data, @Nonnegative int length);
+
 	/**
 	 * Returns the value of the DWORD pointer.
 	 * 
@@ -1099,4 +1432,23 @@ public interface WinApi {
 	 */
 	void setValue_DWORD(@Nonnull DWORD dword, int value);
 
+	/**
+	 * Returns a direct buffer over the allocated memory at the given address, like the JNI
+	 * function <code>NewDirectByteBuffer</code>. The buffer has the byte order of the native
+	 * platform, so the fields of a struct can be read and written with the absolute
+	 * <code>get</code> and <code>put</code> methods of the buffer, without calling native code.
+	 * <p>
+	 * <b>IMPORTANT:</b> The buffer must not be used after the memory was freed.
+	 * 
+	 * @param address
+	 *            the address of the allocated memory, see {@link #malloc(int)}
+	 * @param capacity
+	 *            the number of bytes of the memory, that are accessible through the buffer
+	 * @return a buffer over the memory, or <code>null</code> if the memory can't be accessed
+	 *         directly. The structs use the native accessors like
+	 *         {@link #getValue_DWORD(DWORD)} in this case.
+	 */
+	@Nullable
+	ByteBuffer newDirectByteBuffer(int address, @Nonnegative int capacity);
+
 }
@@ -15,22 +15,52 @@
  */
 package org.xidobi;
 
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.xidobi.WinApi.ERROR_IO_PENDING;
 import static org.xidobi.WinApi.WAIT_ABANDONED;
 import static org.xidobi.WinApi.WAIT_FAILED;
 import static org.xidobi.WinApi.WAIT_OBJECT_0;
 import static org.xidobi.WinApi.WAIT_TIMEOUT;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
 import static org.xidobi.utils.Throwables.newNativeCodeException;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import org.xidobi.spi.NativeCodeException;
+import org.xidobi.spi.SerialConnectionMetrics;
 import org.xidobi.spi.Writer;
+import org.xidobi.structs.DWORD;
+import org.xidobi.structs.NativeByteArray;
+import org.xidobi.structs.OVERLAPPED;
 
 /**
  * Implementation for write operations.
+ * <p>
+ * Up to {@link SerialPortSettings#getMaxPendingWrites()} write operations may be in progress at a
+ * time, each of them uses its own overlapped, event object and staging buffer. The write
+ * operations use the slots round-robin, so the slot of the next write operation always holds the
+ * oldest pending write, which is awaited before the slot is reused. With only one slot, every
+ * write operation waits until all bytes were written. A slot is only reused after its write
+ * operation was completed, even if the wait for it timed out.
+ * <p>
+ * When the writer is closed, it waits until the pending write operations, whose
+ * <code>write(..)</code> already returned, are completed and throws the error of the first one that
+ * failed, so their bytes are not discarded by the connection. The whole wait is bounded by the
+ * write timeout. If a <code>write(..)</code> is in progress, nothing is awaited, because the
+ * connection aborts the pending write operations when the port is closed and the
+ * <code>write(..)</code> in progress reports the failure.
+ * <p>
+ * The latency of a write operation is recorded in the metrics when its completion was confirmed,
+ * so with several pending write operations it includes the time the bytes were queued.
  * 
  * @author Christian Schwarz
  * @author Tobias Breler
@@ -41,7 +71,18 @@ public class WriterImpl extends IoOperationImpl implements Writer {
 	private int writeTimeout = 2000;
 
 	/**
-	 * Creates a new write operation.
+	 * The slots of the write operations, the first slot uses the overlapped of this I/O operation.
+	 * The other slots are created when they are used the first time.
+	 */
+	private final WriteSlot[] slots;
+	/** the index of the slot, that is used by the next write operation */
+	private int nextSlot;
+
+	/** the metrics, that receive the latency of the write operations */
+	private final SerialConnectionMetrics metrics;
+
+	/**
+	 * Creates a new write operation, that waits until all bytes were written.
 	 * 
 	 * @param port
 	 *            the serial port, must not be <code>null</code>
@@ -53,57 +94,359 @@ public class WriterImpl extends IoOperationImpl implements Writer {
 	public WriterImpl(	@Nonnull SerialPort port,
 						@Nonnull WinApi os,
 						int handle) {
-		super(port, os, handle);
+		this(port, os, handle, 1);
+	}
+
+	/**
+	 * Creates a new write operation.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port
+	 * @param maxPendingWrites
+	 *            the maximum number of write operations, that may be in progress at a time, must
+	 *            be greater than 0
+	 */
+	public WriterImpl(	@Nonnull SerialPort port,
+						@Nonnull WinApi os,
+						int handle,
+						@Nonnegative int maxPendingWrites) {
+		this(port, os, handle, maxPendingWrites, null);
+	}
+
+	/**
+	 * Creates a new write operation, that waits for the completion of its writes with the given
+	 * poller.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port
+	 * @param maxPendingWrites
+	 *            the maximum number of write operations, that may be in progress at a time, must
+	 *            be greater than 0
+	 * @param poller
+	 *            the poller, the handle must be associated with, <code>null</code> if the write
+	 *            operation should wait in native code
+	 */
+	public WriterImpl(	@Nonnull SerialPort port,
+						@Nonnull WinApi os,
+						int handle,
+						@Nonnegative int maxPendingWrites,
+						@Nullable CompletionPoller poller) {
+		this(port, os, handle, maxPendingWrites, new SerialConnectionMetrics(), poller);
+	}
+
+	/**
+	 * Creates a new write operation, that records the latency of its writes in the given metrics
+	 * and waits for their completion with the given poller.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 * @param handle
+	 *            the native handle of the serial port
+	 * @param maxPendingWrites
+	 *            the maximum number of write operations, that may be in progress at a time, must
+	 *            be greater than 0
+	 * @param metrics
+	 *            the metrics of the connection, must not be <code>null</code>
+	 * @param poller
+	 *            the poller, the handle must be associated with, <code>null</code> if the write
+	 *            operation should wait in native code
+	 */
+	public WriterImpl(	@Nonnull SerialPort port,
+						@Nonnull WinApi os,
+						int handle,
+						@Nonnegative int maxPendingWrites,
+						@Nonnull SerialConnectionMetrics metrics,
+						@Nullable CompletionPoller poller) {
+		super(port, os, handle, poller);
+		checkArgument(maxPendingWrites > 0, "maxPendingWrites", "Expected a value greater than 0!");
+		this.metrics = checkArgumentNotNull(metrics, "metrics");
+
+		slots = new WriteSlot[maxPendingWrites];
+		slots[0] = new WriteSlot(overlapped, numberOfBytesTransferred);
 	}
 
 	/** {@inheritDoc} */
 	public void write(@Nonnull byte[] data) throws IOException {
+		write(data, 0, data.length);
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data, int offset, int length) throws IOException {
 		disposeLock.lock();
 		try {
 			checkIfClosedOrDisposed();
 
-			resetOverlappedEventHandle();
+			if (length == 0)
+				// nothing to write
+				return;
+
+			WriteSlot slot = acquireSlot();
+
+			// copy the data to the staging buffer
+			slot.writeBuffer = ensureCapacity(slot.writeBuffer, length);
+			slot.writeBuffer.setByteArray(0, data, offset, length);
 
-			// write data to serial port
-			boolean succeed = os.WriteFile(handle, data, data.length, numberOfBytesTransferred, overlapped);
+			writeStagedBytes(slot, length);
+		}
+		finally {
+			disposeLock.unlock();
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull ByteBuffer[] srcs) throws IOException {
+		disposeLock.lock();
+		try {
+			checkIfClosedOrDisposed();
 
-			if (succeed) {
-				// the write operation succeeded immediatly
-				if (numberOfBytesTransferred.getValue() != data.length)
-					throw new NativeCodeException("WriteFile returned an unexpected number of transferred bytes! Transferred: " + numberOfBytesTransferred.getValue() + ", expected: " + data.length);
+			int length = 0;
+			for (ByteBuffer src : srcs)
+				length += src.remaining();
+			if (length == 0)
+				// nothing to write
 				return;
-			}
 
-			int lastError = os.GetLastError();
-			if (lastError != ERROR_IO_PENDING)
-				handleNativeError("WriteFile", lastError);
-
-			// wait for pending I/O operation to complete
-			int waitResult = os.WaitForSingleObject(overlapped.hEvent, writeTimeout);
-			switch (waitResult) {
-				case WAIT_OBJECT_0: // IO operation has finished
-					if (!os.GetOverlappedResult(handle, overlapped, numberOfBytesTransferred, true))
-						handleNativeError("GetOverlappedResult", os.GetLastError());
-
-					// verify that the number of transferred bytes is equal to the data length that
-					// was written:
-					if (numberOfBytesTransferred.getValue() != data.length)
-						throw new NativeCodeException("GetOverlappedResult returned an unexpected number of transferred bytes! Transferred: " + numberOfBytesTransferred.getValue() + ", expected: " + data.length);
-					return;
-				case WAIT_TIMEOUT:
-					// I/O operation has timed out
-					throw new IOException("Write operation timed out after " + writeTimeout + " milliseconds!");
-				case WAIT_ABANDONED:
-					throw new NativeCodeException("WaitForSingleObject returned an unexpected value: WAIT_ABANDONED!");
-				case WAIT_FAILED:
-					handleNativeError("WaitForSingleObject", os.GetLastError());
-				default:
-					throw newNativeCodeException(os, "WaitForSingleObject returned unexpected value! Got: " + waitResult, os.GetLastError());
+			WriteSlot slot = acquireSlot();
+
+			// gather the remaining bytes of all buffers in the staging buffer
+			slot.writeBuffer = ensureCapacity(slot.writeBuffer, length);
+			int offset = 0;
+			for (ByteBuffer src : srcs) {
+				stage(slot.writeBuffer, src, offset);
+				offset += src.remaining();
 			}
+
+			writeStagedBytes(slot, length);
+
+			// all bytes were written or staged, so the buffers are consumed
+			for (ByteBuffer src : srcs)
+				src.position(src.limit());
 		}
 		finally {
 			disposeLock.unlock();
 		}
 	}
 
+	/**
+	 * Copies the remaining bytes of the given buffer to the given staging buffer, beginning at the
+	 * given offset. The position of the given buffer is not modified.
+	 */
+	private void stage(NativeByteArray writeBuffer, ByteBuffer src, int offset) {
+		int length = src.remaining();
+		if (length == 0)
+			return;
+
+		if (src.isDirect())
+			writeBuffer.setByteBuffer(offset, src);
+		else if (src.hasArray())
+			writeBuffer.setByteArray(offset, src.array(), src.arrayOffset() + src.position(), length);
+		else {
+			// the backing array of a read-only buffer is not accessible, so we need a copy
+			byte[] data = new byte[length];
+			src.duplicate().get(data);
+			writeBuffer.setByteArray(offset, data, 0, length);
+		}
+	}
+
+	/**
+	 * Returns the slot for the next write operation. If the slot holds a pending write, it is the
+	 * oldest one and its completion is awaited.
+	 */
+	private WriteSlot acquireSlot() throws IOException {
+		WriteSlot slot = slots[nextSlot];
+		if (slot == null)
+			slot = slots[nextSlot] = new WriteSlot(newOverlapped(), new DWORD(arena));
+		nextSlot = (nextSlot + 1) % slots.length;
+
+		if (slot.isPending)
+			awaitCompletion(slot, writeTimeout);
+		return slot;
+	}
+
+	/**
+	 * Starts writing the given number of bytes from the staging buffer of the given slot to the
+	 * serial port. The completion is awaited, if only one write operation may be pending.
+	 */
+	private void writeStagedBytes(WriteSlot slot, int length) throws IOException {
+		boolean resetEventResult = os.ResetEvent(slot.overlapped.hEvent);
+		if (!resetEventResult)
+			handleNativeError("ResetEvent", os.GetLastError());
+
+		// write data to serial port
+		slot.startTime = nanoTime();
+		boolean succeed = os.WriteFile(handle, slot.writeBuffer, length, slot.numberOfBytesTransferred, slot.overlapped);
+
+		if (succeed) {
+			// the write operation succeeded immediatly
+			if (slot.numberOfBytesTransferred.getValue() != length)
+				throw new NativeCodeException("WriteFile returned an unexpected number of transferred bytes! Transferred: " + slot.numberOfBytesTransferred.getValue() + ", expected: " + length);
+			metrics.recordWriteCompletion(nanoTime() - slot.startTime);
+			return;
+		}
+
+		int lastError = os.GetLastError();
+		if (lastError != ERROR_IO_PENDING)
+			handleNativeError("WriteFile", lastError);
+
+		operationPending(slot.overlapped);
+		slot.isPending = true;
+		slot.isTimedOut = false;
+		slot.length = length;
+		if (slots.length == 1)
+			awaitCompletion(slot, writeTimeout);
+	}
+
+	/**
+	 * Waits up to the given number of milliseconds until the pending write operation of the given
+	 * slot is completed.
+	 */
+	private void awaitCompletion(WriteSlot slot, int timeout) throws IOException {
+		int length = slot.length;
+
+		// wait for pending I/O operation to complete
+		int waitResult = waitForCompletion(slot.overlapped, timeout);
+		switch (waitResult) {
+			case WAIT_OBJECT_0: // IO operation has finished
+				boolean overlappedResult = os.GetOverlappedResult(handle, slot.overlapped, slot.numberOfBytesTransferred, true);
+				operationCompleted(slot.overlapped);
+				// NOTE: The slot is released even if the write operation failed, but only after it
+				// was completed, because the system may still access its overlapped and buffer.
+				slot.isPending = false;
+				if (!overlappedResult)
+					handleNativeError("GetOverlappedResult", os.GetLastError());
+
+				// verify that the number of transferred bytes is equal to the data length that
+				// was written:
+				if (slot.numberOfBytesTransferred.getValue() != length)
+					throw new NativeCodeException("GetOverlappedResult returned an unexpected number of transferred bytes! Transferred: " + slot.numberOfBytesTransferred.getValue() + ", expected: " + length);
+				metrics.recordWriteCompletion(nanoTime() - slot.startTime);
+				return;
+			case WAIT_TIMEOUT:
+				// I/O operation has timed out, the slot stays pending until the operation is completed
+				slot.isTimedOut = true;
+				throw new InterruptedIOException("Write operation timed out after " + timeout + " milliseconds!");
+			case WAIT_ABANDONED:
+				throw new NativeCodeException("WaitForSingleObject returned an unexpected value: WAIT_ABANDONED!");
+			case WAIT_FAILED:
+				handleNativeError("WaitForSingleObject", os.GetLastError());
+				// handleNativeError() always throws, so this is never reached
+				throw new NativeCodeException("WaitForSingleObject failed unexpected!");
+			default:
+				throw newNativeCodeException(os, "WaitForSingleObject returned unexpected value! Got: " + waitResult, os.GetLastError());
+		}
+	}
+
+	/**
+	 * Closes this writer and waits until the pending write operations, whose
+	 * <code>write(..)</code> already returned, are completed. The wait is skipped, if a
+	 * <code>write(..)</code> is in progress.
+	 * 
+	 * @throws IOException
+	 *             the error of the first pending write operation, that failed
+	 */
+	@Override
+	public void close() throws IOException {
+		super.close();
+
+		// a write(..) in progress holds the lock, it must not delay the close, because it is
+		// aborted when the port is closed
+		if (!disposeLock.tryLock())
+			return;
+		try {
+			awaitPendingWrites();
+		}
+		finally {
+			disposeLock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until the pending write operations of all slots are completed, beginning with the
+	 * oldest one. All of them are awaited, even if one fails, but in total not longer than the
+	 * write timeout. Write operations whose wait already timed out are not awaited again, their
+	 * failure was already reported.
+	 * 
+	 * @throws IOException
+	 *             the error of the first pending write operation, that failed
+	 */
+	private void awaitPendingWrites() throws IOException {
+		long deadline = nanoTime() + MILLISECONDS.toNanos(writeTimeout);
+		IOException failure = null;
+		for (int i = 0; i < slots.length; i++) {
+			WriteSlot slot = slots[(nextSlot + i) % slots.length];
+			if (slot == null || !slot.isPending || slot.isTimedOut)
+				continue;
+			try {
+				awaitCompletion(slot, remainingMillis(deadline));
+			}
+			catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/** Returns the milliseconds until the given deadline, rounded up, or 0 if it has passed. */
+	private static int remainingMillis(long deadline) {
+		long remaining = deadline - nanoTime();
+		if (remaining <= 0)
+			return 0;
+		return (int) MILLISECONDS.convert(remaining + MILLISECONDS.toNanos(1) - 1, NANOSECONDS);
+	}
+
+	@Override
+	protected void disposeInternal() {
+		// the event object of the first slot is closed by the super class, the memory of all slots
+		// is freed with the arena, the pending write operations of all slots are already completed
+		boolean closeHandleResult = true;
+		for (int i = 1; i < slots.length; i++) {
+			WriteSlot slot = slots[i];
+			if (slot != null)
+				closeHandleResult &= os.CloseHandle(slot.overlapped.hEvent);
+		}
+		if (!closeHandleResult)
+			throw newNativeCodeException(os, "CloseHandle failed unexpected!", os.GetLastError());
+	}
+
+	/** The resources of one write operation. */
+	private static final class WriteSlot {
+
+		/** the overlapped of the write operation */
+		private final OVERLAPPED overlapped;
+		/** Receives the number of written bytes */
+		private final DWORD numberOfBytesTransferred;
+		/**
+		 * Staging buffer for the data to write, it is kept for the lifetime of this writer and only
+		 * reallocated if more bytes should be written than it can hold
+		 */
+		@Nullable
+		private NativeByteArray writeBuffer;
+		/** the number of bytes of the pending write operation */
+		private int length;
+		/** <code>true</code> if the write operation wasn't completed yet */
+		private boolean isPending;
+		/** <code>true</code> if the wait for the pending write operation timed out */
+		private boolean isTimedOut;
+		/** the time in nanoseconds, when the write operation was started */
+		private long startTime;
+
+		/** Creates a new slot with the given resources. */
+		private WriteSlot(	OVERLAPPED overlapped,
+							DWORD numberOfBytesTransferred) {
+			this.overlapped = overlapped;
+			this.numberOfBytesTransferred = numberOfBytesTransferred;
+		}
+	}
 }
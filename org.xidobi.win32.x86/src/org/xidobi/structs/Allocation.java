@@ -0,0 +1,138 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.structs;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.WinApi;
+
+/**
+ * The native memory of a {@link Pointer}. It is freed exactly once, when the pointer or its
+ * {@link MemoryArena} is disposed. If the pointer becomes unreachable before, the memory is freed
+ * by the cleaner thread.
+ * 
+ * @author Christian Schwarz
+ */
+final class Allocation extends PhantomReference<Pointer> {
+
+	/** receives the allocations, whose pointer became unreachable */
+	private static final ReferenceQueue<Pointer> UNREACHABLE = new ReferenceQueue<Pointer>();
+
+	/** keeps the allocations reachable until they are freed, otherwise they are never enqueued */
+	private static final Set<Allocation> NOT_FREED = Collections.synchronizedSet(new HashSet<Allocation>());
+
+	static {
+		new Cleaner().start();
+	}
+
+	/** the native Win32-API, never <code>null</code> */
+	@Nonnull
+	private final WinApi os;
+	/** the address of the allocated memory */
+	private final int address;
+	/** the size of the allocated memory */
+	private final int size;
+	/** the arena of the memory, <code>null</code> if it doesn't belong to an arena */
+	@Nullable
+	private final MemoryArena arena;
+
+	/** becomes <code>true</code>, when the memory is freed */
+	private final AtomicBoolean isFreed = new AtomicBoolean();
+
+	/**
+	 * Tracks the memory of the given pointer and adds it to the given arena.
+	 * 
+	 * @throws IllegalStateException
+	 *             when the arena was already disposed, the memory is not tracked then
+	 */
+	Allocation(	@Nonnull Pointer pointer,
+				@Nonnull WinApi os,
+				int address,
+				int size,
+				@Nullable MemoryArena arena) {
+		super(pointer, UNREACHABLE);
+		this.os = os;
+		this.address = address;
+		this.size = size;
+		this.arena = arena;
+
+		if (arena != null)
+			arena.register(this);
+		NOT_FREED.add(this);
+	}
+
+	/** Returns the size of the allocated memory. */
+	int size() {
+		return size;
+	}
+
+	/** Returns <code>true</code>, if the memory was freed. */
+	boolean isFreed() {
+		return isFreed.get();
+	}
+
+	/**
+	 * Frees the memory, if it wasn't freed yet.
+	 * 
+	 * @param leaked
+	 *            <code>true</code> if the pointer became unreachable without being disposed
+	 */
+	void free(boolean leaked) {
+		if (!isFreed.compareAndSet(false, true))
+			return;
+		clear();
+		NOT_FREED.remove(this);
+		try {
+			os.free(address);
+		}
+		finally {
+			if (arena != null)
+				arena.unregister(this, leaked);
+		}
+	}
+
+	/** Frees the memory of the pointers, that became unreachable without being disposed. */
+	private static final class Cleaner extends Thread {
+
+		private Cleaner() {
+			super("xidobi native memory cleaner");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					((Allocation) UNREACHABLE.remove()).free(true);
+				}
+				catch (InterruptedException e) {
+					// the cleaner runs as long as the VM
+				}
+				catch (RuntimeException e) {
+					// the memory can't be freed, but the other allocations must be cleaned anyway
+				}
+			}
+		}
+	}
+}
@@ -17,6 +17,8 @@ package org.xidobi.structs;
 
 import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
 
+import java.nio.ByteBuffer;
+
 import org.xidobi.WinApi;
 
 /**
@@ -26,6 +28,9 @@ import org.xidobi.WinApi;
  */
 public class DWORD extends Pointer {
 
+	/** the offset of the 32 bit value in the memory */
+	private static final int VALUE_OFFSET = 0;
+
 	/**
 	 * Creates a new pointer to a DWORD value in C.
 	 * <p>
@@ -38,6 +43,16 @@ public class DWORD extends Pointer {
 		super(os, sizeOfDWORD(os));
 	}
 
+	/**
+	 * Creates a new pointer to a DWORD value in C, that is freed together with the given arena.
+	 * 
+	 * @param arena
+	 *            the arena, must not be <code>null</code>
+	 */
+	public DWORD(MemoryArena arena) {
+		super(arena, sizeOfDWORD(checkArgumentNotNull(arena, "arena").getWinApi()));
+	}
+
 	/** Returns the size of a DWORD. */
 	private static int sizeOfDWORD(WinApi os) {
 		checkArgumentNotNull(os, "os");
@@ -50,7 +65,9 @@ public class DWORD extends Pointer {
 	 * @return the value
 	 */
 	public int getValue() {
-		checkIfDisposed();
+		ByteBuffer memory = memory();
+		if (memory != null)
+			return memory.getInt(VALUE_OFFSET);
 		return getWinApi().getValue_DWORD(this);
 	}
 
@@ -61,8 +78,11 @@ public class DWORD extends Pointer {
 	 *            the value
 	 */
 	public void setValue(int value) {
-		checkIfDisposed();
-		getWinApi().setValue_DWORD(this, value);
+		ByteBuffer memory = memory();
+		if (memory != null)
+			memory.putInt(VALUE_OFFSET, value);
+		else
+			getWinApi().setValue_DWORD(this, value);
 	}
 
 	// -- FOR DEBUGGING ONLY: -----------------
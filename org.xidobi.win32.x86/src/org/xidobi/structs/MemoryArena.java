@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.structs;
+
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.WinApi;
+
+/**
+ * A scope for native memory, e.g. of one serial connection. The {@link Pointer}s that are
+ * allocated in an arena are freed together, when the arena is disposed. They can be disposed
+ * individually before, e.g. to replace a buffer that became too small.
+ * <p>
+ * The arena counts the bytes of its outstanding allocations and the bytes of the pointers, that
+ * became unreachable without being disposed. The memory of these pointers is freed by a background
+ * thread, when the garbage collector discovers them.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author Christian Schwarz
+ */
+public final class MemoryArena {
+
+	/** the native Win32-API, never <code>null</code> */
+	@Nonnull
+	private final WinApi os;
+
+	/** the allocations, that are not freed yet, in the order they were made */
+	private final Set<Allocation> allocations = new LinkedHashSet<Allocation>();
+
+	/** the number of bytes of the allocations, that are not freed yet */
+	private long allocatedBytes;
+	/** the number of bytes, that were freed because their pointer became unreachable */
+	private long leakedBytes;
+
+	/** <code>true</code> if the arena is disposed */
+	private boolean isDisposed;
+
+	/**
+	 * Creates a new arena.
+	 * <p>
+	 * <b>Note:</b> The arena must be disposed, when its memory isn't used anymore!
+	 * 
+	 * @param os
+	 *            the native Win32-API, must not be <code>null</code>
+	 */
+	public MemoryArena(@Nonnull WinApi os) {
+		this.os = checkArgumentNotNull(os, "os");
+	}
+
+	/**
+	 * Returns the native Win32-API, that allocates the memory of this arena.
+	 * 
+	 * @return Win32-API, never <code>null</code>
+	 */
+	@Nonnull
+	public WinApi getWinApi() {
+		return os;
+	}
+
+	/**
+	 * Returns the number of bytes, that are allocated in this arena and not freed yet.
+	 * 
+	 * @return the number of allocated bytes
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Returns the number of bytes, that were allocated in this arena but not disposed before their
+	 * pointer became unreachable. A value greater than 0 indicates a leak, the memory itself was
+	 * freed in the background.
+	 * 
+	 * @return the number of leaked bytes
+	 */
+	public synchronized long getLeakedBytes() {
+		return leakedBytes;
+	}
+
+	/**
+	 * Returns <code>true</code>, if this arena was disposed.
+	 * 
+	 * @return <ul>
+	 *         <li> <code>true</code>, if the arena was disposed
+	 *         <li> <code>false</code>, if the arena is not disposed
+	 *         </ul>
+	 */
+	public synchronized boolean isDisposed() {
+		return isDisposed;
+	}
+
+	/**
+	 * Frees the memory of all pointers, that were allocated in this arena and are not disposed yet.
+	 * The pointers must not be used anymore, and no further pointers can be allocated in this
+	 * arena.
+	 * 
+	 * @throws IllegalStateException
+	 *             when this arena was already disposed
+	 */
+	public void dispose() {
+		Allocation[] remaining;
+		synchronized (this) {
+			if (isDisposed)
+				throw new IllegalStateException("This arena was already disposed!");
+			isDisposed = true;
+			remaining = allocations.toArray(new Allocation[allocations.size()]);
+		}
+
+		RuntimeException failure = null;
+		for (Allocation allocation : remaining) {
+			try {
+				allocation.free(false);
+			}
+			catch (RuntimeException e) {
+				// free the other allocations anyway
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Adds the given allocation to this arena.
+	 * 
+	 * @throws IllegalStateException
+	 *             when this arena was already disposed
+	 */
+	synchronized void register(@Nonnull Allocation allocation) {
+		if (isDisposed)
+			throw new IllegalStateException("Unable to allocate memory, the arena was already disposed!");
+		allocations.add(allocation);
+		allocatedBytes += allocation.size();
+	}
+
+	/** Removes the given allocation from this arena, after its memory was freed. */
+	synchronized void unregister(@Nonnull Allocation allocation, boolean leaked) {
+		if (!allocations.remove(allocation))
+			return;
+		allocatedBytes -= allocation.size();
+		if (leaked)
+			leakedBytes += allocation.size();
+	}
+}
@@ -16,6 +16,9 @@
 package org.xidobi.structs;
 
 import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.nio.ByteBuffer;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -44,6 +47,19 @@ public class NativeByteArray extends Pointer {
 		super(os, size);
 	}
 
+	/**
+	 * Creates a new byte array instance in the given arena, it is freed together with the arena.
+	 * 
+	 * @param arena
+	 *            the arena, must not be <code>null</code>
+	 * @param size
+	 *            the size of the native byte array, must be greater than 0
+	 */
+	public NativeByteArray(	@Nonnull MemoryArena arena,
+							@Nonnegative int size) {
+		super(arena, size);
+	}
+
 	/**
 	 * Returns the full byte array that is backed by this instance.
 	 * 
@@ -69,8 +85,85 @@ public class NativeByteArray extends Pointer {
 	public byte[] getByteArray(int length) {
 		checkArgument(length > 0, "length", "Expected a value greater than 0");
 		checkArgument(length <= size(), "length", "Expected a value lesser than or equal to the size of the byte array");
-		checkIfDisposed();
-		return getWinApi().getByteArray(this, length);
+		ByteBuffer memory = memory();
+		if (memory == null)
+			return getWinApi().getByteArray(this, length);
+
+		byte[] data = new byte[length];
+		memory.duplicate().get(data);
+		return data;
+	}
+
+	/**
+	 * Copies <code>length</code> bytes of the given byte array, beginning at
+	 * <code>dataOffset</code>, into this native byte array at the specified <code>offset</code>.
+	 * 
+	 * @param offset
+	 *            the offset in this native byte array, must be >=0
+	 * @param data
+	 *            the bytes to copy, must not be <code>null</code>
+	 * @param dataOffset
+	 *            the offset of the first byte to copy in <code>data</code>, must be >=0
+	 * @param length
+	 *            the number of bytes to copy, must be:
+	 *            <ul>
+	 *            <li>>=0
+	 *            <li><= <code>data.length - dataOffset</code>
+	 *            <li><= size of array - <code>offset</code>
+	 *            </ul>
+	 */
+	public void setByteArray(int offset, @Nonnull byte[] data, int dataOffset, int length) {
+		checkArgumentNotNull(data, "data");
+		checkArgument(dataOffset >= 0, "dataOffset", "Expected a value greater than or equal to 0");
+		checkArgument(length >= 0 && length <= data.length - dataOffset, "length", "Expected a value lesser than or equal to the number of bytes after dataOffset");
+		checkRange(offset, length);
+
+		ByteBuffer memory = memory();
+		if (memory == null)
+			getWinApi().setByteArray(this, offset, data, dataOffset, length);
+		else
+			at(memory, offset).put(data, dataOffset, length);
+	}
+
+	/**
+	 * Copies the remaining bytes of the given direct buffer into this native byte array at the
+	 * specified <code>offset</code>. The position of the buffer is not modified.
+	 * 
+	 * @param offset
+	 *            the offset in this native byte array, must be >=0 and the remaining bytes of the
+	 *            buffer must fit into this array
+	 * @param data
+	 *            a direct buffer containing the bytes to copy, must not be <code>null</code>
+	 */
+	public void setByteBuffer(int offset, @Nonnull ByteBuffer data) {
+		checkArgumentNotNull(data, "data");
+		checkArgument(data.isDirect(), "data", "Expected a direct buffer");
+		int length = data.remaining();
+		checkRange(offset, length);
+
+		ByteBuffer memory = memory();
+		if (memory == null)
+			getWinApi().setByteBuffer(this, offset, data, length);
+		else
+			at(memory, offset).put(data.duplicate());
+	}
+
+	/**
+	 * Returns a new buffer over the given memory, that is positioned at the given offset. The
+	 * memory may be used by other threads, so its position must not be modified.
+	 */
+	private static ByteBuffer at(ByteBuffer memory, int offset) {
+		ByteBuffer buffer = memory.duplicate();
+		buffer.position(offset);
+		return buffer;
+	}
+
+	/**
+	 * Ensures that <code>length</code> bytes starting at <code>offset</code> fit into this array.
+	 */
+	private void checkRange(int offset, int length) {
+		checkArgument(offset >= 0, "offset", "Expected a value greater than or equal to 0");
+		checkArgument(length <= size() - offset, "length", "Expected a value lesser than or equal to the size of the byte array minus offset");
 	}
 
 	// -- FOR DEBUGGING ONLY: -----------------
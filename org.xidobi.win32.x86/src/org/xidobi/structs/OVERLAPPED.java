@@ -75,6 +75,13 @@ public class OVERLAPPED extends Pointer {
 	/** {@code HANDLE} - Event handle */
 	public int hEvent;
 
+	/**
+	 * <code>true</code>, if the completion of the I/O request should not be queued to the I/O
+	 * completion port, that the file handle is associated with. The low-order bit of the native
+	 * {@link #hEvent} is set in that case, the Java field always holds the plain event handle.
+	 */
+	public boolean skipCompletionPort;
+
 	/**
 	 * Creates a new instance on the heap.
 	 * <p>
@@ -87,6 +94,16 @@ public class OVERLAPPED extends Pointer {
 		super(os, sizeOfOVERLAPPED(os));
 	}
 
+	/**
+	 * Creates a new instance in the given arena, it is freed together with the arena.
+	 * 
+	 * @param arena
+	 *            the arena, must not be <code>null</code>
+	 */
+	public OVERLAPPED(MemoryArena arena) {
+		super(arena, sizeOfOVERLAPPED(checkArgumentNotNull(arena, "arena").getWinApi()));
+	}
+
 	/** Returns the size of an OVERLAPPED struct. */
 	private static int sizeOfOVERLAPPED(WinApi os) {
 		checkArgumentNotNull(os, "os");
@@ -19,12 +19,21 @@ import static org.xidobi.WinApi.NULL;
 import static org.xidobi.spi.Preconditions.checkArgument;
 import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
 
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nullable;
+
 import org.xidobi.WinApi;
 
 /**
  * A pointer to an allocated memory on the heap.
  * <p>
- * <b>Note:</b> The instance must be disposed, when it isn't used anymore!
+ * If the {@link WinApi} provides a direct buffer over the memory, subclasses read and write their
+ * fields through it with plain memory access, otherwise they call the native accessors.
+ * <p>
+ * <b>Note:</b> The instance must be disposed, when it isn't used anymore! If it was allocated in a
+ * {@link MemoryArena}, it is disposed together with the arena. The memory of an instance, that
+ * becomes unreachable without being disposed, is freed in the background as a last resort.
  * 
  * @author Tobias Breler
  */
@@ -39,8 +48,15 @@ public class Pointer {
 	/** the size of the allocated memory */
 	private final int size;
 
-	/** <code>true</code> if the instance is disposed */
-	private boolean isDisposed = false;
+	/**
+	 * direct buffer over the allocated memory in the native byte order, <code>null</code> if the
+	 * memory can't be accessed directly
+	 */
+	@Nullable
+	private final ByteBuffer memory;
+
+	/** frees the allocated memory exactly once */
+	private final Allocation allocation;
 
 	/**
 	 * Allocates memory of the given size on the heap and stores a pointer to that memory.
@@ -54,16 +70,50 @@ public class Pointer {
 	 */
 	public Pointer(	WinApi os,
 					int size) {
-		this.os = checkArgumentNotNull(os, "os");
+		this(checkArgumentNotNull(os, "os"), null, size);
+	}
+
+	/**
+	 * Allocates memory of the given size in the given arena and stores a pointer to that memory.
+	 * The memory is freed, when this instance or the arena is disposed.
+	 * 
+	 * @param arena
+	 *            the arena, must not be <code>null</code>
+	 * @param size
+	 *            the size of the memory, must be greater than 0
+	 * @throws IllegalStateException
+	 *             when the arena was already disposed
+	 */
+	public Pointer(	MemoryArena arena,
+					int size) {
+		this(checkArgumentNotNull(arena, "arena").getWinApi(), arena, size);
+	}
+
+	/** Allocates the memory and adds it to the arena, if one is given. */
+	private Pointer(WinApi os,
+					@Nullable MemoryArena arena,
+					int size) {
+		this.os = os;
 		checkArgument(size > 0, "size", "Expected a value greater than 0");
 		this.size = size;
 
 		// allocate memory
-		cPointer = os.malloc(size());
+		cPointer = os.malloc(size);
 		if (cPointer == NULL)
 			throw new OutOfMemoryError("Unable to allocate " + size + " bytes of memory for type: " + getClass().getSimpleName());
 		// set all bytes to zero
-		os.memset(cPointer, 0, size());
+		os.memset(cPointer, 0, size);
+
+		memory = os.newDirectByteBuffer(cPointer, size);
+
+		try {
+			allocation = new Allocation(this, os, cPointer, size, arena);
+		}
+		catch (IllegalStateException e) {
+			// the arena was disposed, nobody would free the memory
+			os.free(cPointer);
+			throw e;
+		}
 	}
 
 	/**
@@ -76,6 +126,31 @@ public class Pointer {
 		return size;
 	}
 
+	/**
+	 * Returns the address of the allocated memory, e.g. to identify the OVERLAPPED struct of a
+	 * completion packet.
+	 * 
+	 * @return the address
+	 */
+	public int address() {
+		checkIfDisposed();
+		return cPointer;
+	}
+
+	/**
+	 * Returns the direct buffer over the allocated memory, its fields can be accessed with the
+	 * absolute <code>get</code> and <code>put</code> methods. The buffer must not be used after
+	 * this instance was disposed.
+	 * 
+	 * @return the buffer in the native byte order, or <code>null</code> if the memory can't be
+	 *         accessed directly
+	 */
+	@Nullable
+	protected final ByteBuffer memory() {
+		checkIfDisposed();
+		return memory;
+	}
+
 	/**
 	 * Returns <code>true</code>, if this instance was disposed.
 	 * 
@@ -85,12 +160,12 @@ public class Pointer {
 	 *         </ul>
 	 */
 	public boolean isDisposed() {
-		return isDisposed;
+		return allocation.isFreed();
 	}
 
 	/** Throws an {@link IllegalStateException} when this instance is disposed. */
 	protected void checkIfDisposed() {
-		if (isDisposed)
+		if (isDisposed())
 			throw new IllegalStateException("This instance was already disposed!");
 	}
 
@@ -99,8 +174,7 @@ public class Pointer {
 	 */
 	public void dispose() {
 		checkIfDisposed();
-		os.free(cPointer);
-		isDisposed = true;
+		allocation.free(false);
 	}
 
 	/**
@@ -112,11 +186,4 @@ public class Pointer {
 		return os;
 	}
 
-	@Override
-	protected void finalize() throws Throwable {
-		super.finalize();
-		if (!isDisposed)
-			dispose();
-	}
-
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.utils;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.structs.INT;
+
+/**
+ * Holds the last native error code of each thread. Every thread owns one {@link INT}, that is
+ * reused for all native calls of the thread. A native method stores its error code in the slot,
+ * so no object is allocated and no map is shared between the threads.
+ * 
+ * @author Christian Schwarz
+ */
+public final class LastErrorSlot {
+
+	/** the slot of each thread */
+	private final ThreadLocal<INT> slots = new ThreadLocal<INT>() {
+		@Override
+		protected INT initialValue() {
+			return new INT(0);
+		}
+	};
+
+	/**
+	 * Returns the slot of the current thread, that receives the error code of the next native
+	 * call. The error code of the previous call is cleared.
+	 * 
+	 * @return the slot of the current thread, never <code>null</code>
+	 */
+	@Nonnull
+	public INT clear() {
+		INT slot = slots.get();
+		slot.value = 0;
+		return slot;
+	}
+
+	/**
+	 * Returns the error code, that was stored by the last native call of the current thread.
+	 * 
+	 * @return the last error code, 0 if no error was stored
+	 */
+	public int get() {
+		return slots.get().value;
+	}
+}
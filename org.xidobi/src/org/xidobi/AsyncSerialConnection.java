@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.BasicFuture;
+
+/**
+ * Provides asynchronous read and write operations for a {@link SerialConnection}, that return a
+ * {@link Future} instead of blocking the caller. The connection is registered with a
+ * {@link SerialSelector}, the futures are completed by the thread that calls
+ * {@link SerialSelector#select()}. So any number of operations of any number of connections can
+ * be outstanding without a thread per connection.
+ * <p>
+ * Received data, that isn't requested by a pending read operation, is buffered until the next
+ * call of {@link #readAsync()}. When an I/O error occurs, all pending and all following operations
+ * fail with an {@link ExecutionException}, that is caused by the {@link IOException}.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialSelector
+ */
+public class AsyncSerialConnection implements Closeable {
+
+	/** the key of the registered connection */
+	@Nonnull
+	private final SerialSelectionKey key;
+
+	/** the read operations, that wait for data */
+	private final Queue<BasicFuture<ByteBuffer>> pendingReads = new LinkedList<BasicFuture<ByteBuffer>>();
+	/** the received data, that wasn't requested by a read operation yet */
+	private final Queue<ByteBuffer> receivedData = new LinkedList<ByteBuffer>();
+	/** the write operations, that are not completed yet, in the order they were started */
+	private final Queue<BasicFuture<ByteBuffer>> pendingWrites = new LinkedList<BasicFuture<ByteBuffer>>();
+
+	/** the I/O error, that failed the operations, or <code>null</code> */
+	@Nullable
+	private IOException failure;
+
+	/**
+	 * Registers the given connection with the given selector.
+	 * 
+	 * @param selector
+	 *            the selector, that completes the operations, must not be <code>null</code>
+	 * @param connection
+	 *            the connection, must not be <code>null</code>
+	 * @throws IOException
+	 *             if the connection couldn't be registered, e.g. because it is closed
+	 */
+	public AsyncSerialConnection(	@Nonnull SerialSelector selector,
+									@Nonnull SerialConnection connection) throws IOException {
+		checkArgumentNotNull(selector, "selector");
+		checkArgumentNotNull(connection, "connection");
+		key = selector.register(connection, new Handler());
+	}
+
+	/**
+	 * Returns a future, that is completed with the next received data. The data is returned in a
+	 * new buffer, that is owned by the caller.
+	 * 
+	 * @return the future of the read operation, never <code>null</code>
+	 */
+	@Nonnull
+	public Future<ByteBuffer> readAsync() {
+		BasicFuture<ByteBuffer> future = new BasicFuture<ByteBuffer>();
+		synchronized (pendingReads) {
+			ByteBuffer data = receivedData.poll();
+			if (data != null)
+				future.complete(data);
+			else if (failure != null)
+				future.fail(failure);
+			else
+				pendingReads.add(future);
+		}
+		return future;
+	}
+
+	/**
+	 * Starts writing the remaining bytes of the given buffer and returns a future, that is
+	 * completed with the buffer when all bytes were written. The buffers are written in the order
+	 * this method was called, the buffer must not be modified until its write was completed.
+	 * <p>
+	 * <b>NOTE:</b> Cancelling the future doesn't stop the write operation.
+	 * 
+	 * @param src
+	 *            the buffer to write, must not be <code>null</code>
+	 * @return the future of the write operation, never <code>null</code>
+	 */
+	@Nonnull
+	public Future<ByteBuffer> writeAsync(@Nonnull ByteBuffer src) {
+		checkArgumentNotNull(src, "src");
+
+		BasicFuture<ByteBuffer> future = new BasicFuture<ByteBuffer>();
+		synchronized (pendingReads) {
+			if (failure != null) {
+				future.fail(failure);
+				return future;
+			}
+
+			// NOTE: The lock ensures that the futures are queued in the order of the writes.
+			pendingWrites.add(future);
+			try {
+				key.write(src);
+			}
+			catch (IOException e) {
+				failAll(e);
+			}
+		}
+		return future;
+	}
+
+	/**
+	 * Returns the key of the registered connection.
+	 * 
+	 * @return the key, never <code>null</code>
+	 */
+	@Nonnull
+	public SerialSelectionKey getKey() {
+		return key;
+	}
+
+	/**
+	 * Cancels the registration of the connection and fails all pending operations. The connection
+	 * itself stays open.
+	 */
+	public void close() {
+		key.cancel();
+		synchronized (pendingReads) {
+			if (failure == null)
+				failAll(new IOException("The asynchronous connection to port " + key.getConnection().getPort().getPortName() + " was closed!"));
+		}
+	}
+
+	/** Fails all pending operations and all following operations with the given I/O error. */
+	private void failAll(IOException cause) {
+		failure = cause;
+		for (BasicFuture<ByteBuffer> future : pendingReads)
+			future.fail(cause);
+		pendingReads.clear();
+		for (BasicFuture<ByteBuffer> future : pendingWrites)
+			future.fail(cause);
+		pendingWrites.clear();
+	}
+
+	/** Completes the futures, it is called by the thread that selects. */
+	private final class Handler implements SerialEventHandler {
+
+		/** {@inheritDoc} */
+		public void dataReceived(@Nonnull SerialSelectionKey key, @Nonnull ByteBuffer data) {
+			// the buffer is reused by the selector, so we need a copy
+			ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+			copy.put(data);
+			copy.flip();
+
+			synchronized (pendingReads) {
+				BasicFuture<ByteBuffer> future;
+				while ((future = pendingReads.poll()) != null)
+					// NOTE: Cancelled read operations are skipped.
+					if (future.complete(copy))
+						return;
+				receivedData.add(copy);
+			}
+		}
+
+		/** {@inheritDoc} */
+		public void writeCompleted(@Nonnull SerialSelectionKey key, @Nonnull ByteBuffer src) {
+			BasicFuture<ByteBuffer> future;
+			synchronized (pendingReads) {
+				future = pendingWrites.poll();
+			}
+			if (future != null)
+				future.complete(src);
+		}
+
+		/** {@inheritDoc} */
+		public void failed(@Nonnull SerialSelectionKey key, @Nonnull IOException cause) {
+			synchronized (pendingReads) {
+				failAll(cause);
+			}
+		}
+	}
+}
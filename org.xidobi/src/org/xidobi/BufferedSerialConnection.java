@@ -0,0 +1,426 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.SerialByteChannel;
+import org.xidobi.spi.SerialInputStream;
+import org.xidobi.spi.SerialOutputStream;
+
+/**
+ * A {@link SerialConnection} that coalesces small writes into one write operation of the
+ * underlying connection, similar to a {@link java.io.BufferedOutputStream}. The buffered bytes are
+ * written, when
+ * <ul>
+ * <li>the buffer is full ({@code maxBytes}),
+ * <li>the oldest buffered byte waited {@code maxDelay} milliseconds,
+ * <li>{@link #flush()} or {@link #close()} is called.
+ * </ul>
+ * Writes that don't fit into an empty buffer are written directly. Read operations are delegated
+ * to the underlying connection, they don't flush the buffer. So a request should be flushed
+ * explicitly, if its response is awaited.
+ * <p>
+ * If a delayed flush fails, the {@link IOException} is thrown by the next write operation or
+ * {@link #flush()}.
+ * <p>
+ * The scheduler only triggers the delayed flushes, the buffered bytes are written by the flush
+ * executor. A write to the underlying connection may block while the port applies flow control,
+ * so the flush executor must not run the writes of different ports one after another on a single
+ * thread, otherwise a stalled port delays the flushes of all other ports.
+ * <p>
+ * The stream and channel views write through this connection, so their writes are coalesced too.
+ * {@link OutputStream#flush()} of the output stream flushes this connection.
+ * 
+ * @author Christian Schwarz
+ */
+public class BufferedSerialConnection implements SerialConnection, Flushable {
+
+	/** the scheduler for the delayed flushes, that is shared by default */
+	@Nullable
+	private static ScheduledExecutorService defaultScheduler;
+	/** the pool that writes the delayed flushes, that is shared by default */
+	@Nullable
+	private static ExecutorService defaultFlushExecutor;
+
+	/** the underlying connection */
+	@Nonnull
+	private final SerialConnection connection;
+	/** the maximum delay in milliseconds, before buffered bytes are written */
+	private final int maxDelay;
+	/** schedules the delayed flushes */
+	@Nonnull
+	private final ScheduledExecutorService scheduler;
+	/** writes the buffered bytes of the delayed flushes */
+	@Nonnull
+	private final Executor flushExecutor;
+
+	/** the buffered bytes, between the start and the position of the buffer */
+	@Nonnull
+	private final ByteBuffer buffer;
+
+	/** the channel view of this connection */
+	@Nonnull
+	private final SerialByteChannel channel = new SerialByteChannel(this);
+	/** the input stream view of this connection */
+	@Nonnull
+	private final InputStream inputStream = new SerialInputStream(channel);
+	/** the output stream view of this connection */
+	@Nonnull
+	private final OutputStream outputStream = new SerialOutputStream(this);
+
+	/** the scheduled flush of the buffered bytes or <code>null</code> */
+	@Nullable
+	private ScheduledFuture<?> scheduledFlush;
+	/**
+	 * the sequence number of the scheduled flush, it is incremented when a flush is scheduled or
+	 * cancelled, so a delayed flush that couldn't be cancelled anymore doesn't flush a newer batch
+	 */
+	private long flushSequence;
+	/** the error of the last delayed flush or <code>null</code> */
+	@Nullable
+	private IOException flushFailure;
+
+	/**
+	 * Creates a buffered connection, whose delayed flushes are scheduled by a daemon thread that is
+	 * shared by all buffered connections. The delayed flushes are written by a shared pool of daemon
+	 * threads, so a blocking write doesn't delay the flushes of other connections.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>
+	 * @param maxBytes
+	 *            the size of the buffer, must be greater than 0
+	 * @param maxDelay
+	 *            the maximum delay in milliseconds, before buffered bytes are written, must be
+	 *            greater or equal to 0. If it is 0 the bytes are only written, when the buffer is
+	 *            full or flushed.
+	 */
+	public BufferedSerialConnection(@Nonnull SerialConnection connection,
+									@Nonnegative int maxBytes,
+									@Nonnegative int maxDelay) {
+		this(connection, maxBytes, maxDelay, getDefaultScheduler());
+	}
+
+	/**
+	 * Creates a buffered connection, whose delayed flushes are written by a pool of daemon threads
+	 * that is shared by all buffered connections.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>
+	 * @param maxBytes
+	 *            the size of the buffer, must be greater than 0
+	 * @param maxDelay
+	 *            the maximum delay in milliseconds, before buffered bytes are written, must be
+	 *            greater or equal to 0. If it is 0 the bytes are only written, when the buffer is
+	 *            full or flushed.
+	 * @param scheduler
+	 *            triggers the delayed flushes, must not be <code>null</code>
+	 */
+	public BufferedSerialConnection(@Nonnull SerialConnection connection,
+									@Nonnegative int maxBytes,
+									@Nonnegative int maxDelay,
+									@Nonnull ScheduledExecutorService scheduler) {
+		this(connection, maxBytes, maxDelay, scheduler, getDefaultFlushExecutor());
+	}
+
+	/**
+	 * Creates a buffered connection.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>
+	 * @param maxBytes
+	 *            the size of the buffer, must be greater than 0
+	 * @param maxDelay
+	 *            the maximum delay in milliseconds, before buffered bytes are written, must be
+	 *            greater or equal to 0. If it is 0 the bytes are only written, when the buffer is
+	 *            full or flushed.
+	 * @param scheduler
+	 *            triggers the delayed flushes, must not be <code>null</code>. It may be shared
+	 *            across ports, because it never writes.
+	 * @param flushExecutor
+	 *            writes the buffered bytes of the delayed flushes, must not be <code>null</code>.
+	 *            It must not be a single thread that is shared across ports.
+	 */
+	public BufferedSerialConnection(@Nonnull SerialConnection connection,
+									@Nonnegative int maxBytes,
+									@Nonnegative int maxDelay,
+									@Nonnull ScheduledExecutorService scheduler,
+									@Nonnull Executor flushExecutor) {
+		this.connection = checkArgumentNotNull(connection, "connection");
+		checkArgument(maxBytes > 0, "maxBytes", "Expected a value greater than 0!");
+		checkArgument(maxDelay >= 0, "maxDelay", "Expected a value greater or equal to 0!");
+		this.maxDelay = maxDelay;
+		this.scheduler = checkArgumentNotNull(scheduler, "scheduler");
+		this.flushExecutor = checkArgumentNotNull(flushExecutor, "flushExecutor");
+
+		buffer = ByteBuffer.allocate(maxBytes);
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data) throws IOException {
+		checkArgumentNotNull(data, "data");
+		write(data, 0, data.length);
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data, int offset, int length) throws IOException {
+		checkArgumentNotNull(data, "data");
+		checkArgument(offset >= 0 && offset <= data.length, "offset", "Expected a value between 0 and data.length!");
+		checkArgument(length >= 0 && length <= data.length - offset, "length", "Expected a value between 0 and data.length - offset!");
+
+		synchronized (buffer) {
+			checkFlushFailure();
+			if (length > buffer.remaining())
+				flushBuffer();
+
+			if (length >= buffer.capacity()) {
+				// the data doesn't fit into the buffer
+				connection.write(data, offset, length);
+				return;
+			}
+
+			boolean wasEmpty = buffer.position() == 0;
+			buffer.put(data, offset, length);
+			bufferChanged(wasEmpty);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull ByteBuffer... srcs) throws IOException {
+		checkArgumentNotNull(srcs, "srcs");
+		int length = 0;
+		for (ByteBuffer src : srcs)
+			length += checkArgumentNotNull(src, "srcs").remaining();
+
+		synchronized (buffer) {
+			checkFlushFailure();
+			if (length > buffer.remaining())
+				flushBuffer();
+
+			if (length >= buffer.capacity()) {
+				// the data doesn't fit into the buffer
+				connection.write(srcs);
+				return;
+			}
+
+			boolean wasEmpty = buffer.position() == 0;
+			for (ByteBuffer src : srcs)
+				buffer.put(src);
+			bufferChanged(wasEmpty);
+		}
+	}
+
+	/**
+	 * Flushes a full buffer or schedules the flush, when the first bytes were added to the buffer.
+	 */
+	private void bufferChanged(boolean wasEmpty) throws IOException {
+		if (!buffer.hasRemaining())
+			flushBuffer();
+		else if (wasEmpty && buffer.position() > 0 && maxDelay > 0)
+			scheduledFlush = scheduler.schedule(new DelayedFlush(++flushSequence).trigger, maxDelay, MILLISECONDS);
+	}
+
+	/**
+	 * Writes the buffered bytes to the underlying connection with one write operation.
+	 * 
+	 * @throws IOException
+	 *             if the port was closed or an unexpected I/O error occurs
+	 */
+	public void flush() throws IOException {
+		synchronized (buffer) {
+			checkFlushFailure();
+			flushBuffer();
+		}
+	}
+
+	/** Writes the buffered bytes, the buffer is empty afterwards even if the write fails. */
+	private void flushBuffer() throws IOException {
+		if (scheduledFlush != null) {
+			// the delayed flush may already be handed over to the flush executor, it is ignored
+			// because of the new sequence number
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+			flushSequence++;
+		}
+		if (buffer.position() == 0)
+			return;
+
+		buffer.flip();
+		try {
+			connection.write(buffer);
+		}
+		finally {
+			buffer.clear();
+		}
+	}
+
+	/** Throws the error of the last delayed flush once. */
+	private void checkFlushFailure() throws IOException {
+		IOException failure = flushFailure;
+		if (failure == null)
+			return;
+		flushFailure = null;
+		throw failure;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public byte[] read() throws IOException {
+		return connection.read();
+	}
+
+	/** {@inheritDoc} */
+	public int read(@Nonnull ByteBuffer dst) throws IOException {
+		return connection.read(dst);
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public ByteChannel getChannel() {
+		return channel;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isClosed() {
+		return connection.isClosed();
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public SerialPort getPort() {
+		return connection.getPort();
+	}
+
+	/**
+	 * Writes the buffered bytes and closes the underlying connection. The connection is closed,
+	 * even if the buffered bytes couldn't be written.
+	 * 
+	 * @throws IOException
+	 *             if the buffered bytes couldn't be written or an I/O error occurs while closing
+	 */
+	public void close() throws IOException {
+		synchronized (buffer) {
+			try {
+				if (!connection.isClosed())
+					flushBuffer();
+			}
+			finally {
+				// NOTE: The bytes are discarded, if the flush failed.
+				buffer.clear();
+				connection.close();
+			}
+		}
+	}
+
+	/** Flushes the buffer, when the maximum delay of the batch with its sequence number has elapsed. */
+	private final class DelayedFlush implements Runnable {
+
+		/** the sequence number of the scheduled flush */
+		private final long sequence;
+
+		/**
+		 * runs on the scheduler, when the maximum delay has elapsed and hands the flush over to the
+		 * flush executor, so the scheduler never blocks on the buffer or the underlying connection
+		 */
+		private final Runnable trigger = new Runnable() {
+			public void run() {
+				flushExecutor.execute(DelayedFlush.this);
+			}
+		};
+
+		/** Creates a delayed flush with the given sequence number. */
+		private DelayedFlush(long sequence) {
+			this.sequence = sequence;
+		}
+
+		public void run() {
+			synchronized (buffer) {
+				if (sequence != flushSequence)
+					// the flush was cancelled, the buffer may already contain the next batch
+					return;
+				try {
+					flushBuffer();
+				}
+				catch (IOException e) {
+					flushFailure = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the scheduler, that is shared by all buffered connections by default. It only
+	 * triggers the delayed flushes, so its single thread never blocks.
+	 */
+	private static synchronized ScheduledExecutorService getDefaultScheduler() {
+		if (defaultScheduler == null)
+			defaultScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "xidobi-flush-scheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return defaultScheduler;
+	}
+
+	/**
+	 * Returns the pool, that writes the delayed flushes of all buffered connections by default. A
+	 * thread is started for each concurrently blocked flush, idle threads terminate.
+	 */
+	private static synchronized ExecutorService getDefaultFlushExecutor() {
+		if (defaultFlushExecutor == null)
+			defaultFlushExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "xidobi-flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		return defaultFlushExecutor;
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link SerialPortFinder}, that caches the serial ports found by another finder. The ports are
+ * indexed by their name, so {@link #get(String)} doesn't enumerate the ports of the system.
+ * <p>
+ * The cache is refreshed by {@link #refresh()} or when it is accessed and older than the maximum
+ * age. If the finder is created with a {@link SerialPortMonitor}, a daemon thread refreshes the
+ * cache whenever the ports of the system were changed instead, so the ports are found only after a
+ * change. A refresh keeps the instances of the ports, that are still available, and reports the
+ * added and removed ports to the registered {@link SerialPortListener}s. The first refresh reports
+ * all found ports as added.
+ * <p>
+ * The listeners are notified outside of the lock of the refresh, in the order of the refreshes.
+ * So a listener may access this finder, but a refresh may return before its changes were reported
+ * by the thread of a concurrent refresh. A {@link RuntimeException} thrown by a listener is passed
+ * to the {@link UncaughtExceptionHandler} of the notifying thread, the other listeners are notified
+ * anyway.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialPortListener
+ */
+public class CachingSerialPortFinder implements SerialPortFinder {
+
+	/** finds the ports of the system, never <code>null</code> */
+	@Nonnull
+	private final SerialPortFinder finder;
+
+	/** the maximum age of the cache in nanoseconds, if it isn't monitored */
+	private final long maxAge;
+
+	/** observes the changes of the ports or <code>null</code> */
+	@Nullable
+	private final SerialPortMonitor monitor;
+
+	/** receive the added and removed ports */
+	private final List<SerialPortListener> listeners = new CopyOnWriteArrayList<SerialPortListener>();
+
+	/** guards the refresh of the cache */
+	private final Object refreshLock = new Object();
+
+	/** the changes that were found by refreshes, but not yet reported to the listeners */
+	private final Queue<PortChange> pendingChanges = new ConcurrentLinkedQueue<PortChange>();
+	/** <code>true</code> while a thread reports the pending changes */
+	private final AtomicBoolean isNotifying = new AtomicBoolean();
+
+	/** the cached ports by their name, the map is replaced by a refresh */
+	private volatile Map<String, SerialPort> ports = emptyMap();
+	/** the cached ports, the set is replaced by a refresh */
+	private volatile Set<SerialPort> portSet = emptySet();
+
+	/** the time of the last refresh in nanoseconds, only valid if {@link #isRefreshed} */
+	private volatile long lastRefresh;
+	/** <code>true</code>, if the cache was refreshed at least once */
+	private volatile boolean isRefreshed;
+	/** <code>true</code>, while the cache is refreshed on the changes reported by the monitor */
+	private volatile boolean isMonitored;
+	/** <code>true</code>, if this finder was closed */
+	private volatile boolean isClosed;
+
+	/**
+	 * Creates a new finder, that caches the ports found by the given finder.
+	 * 
+	 * @param finder
+	 *            finds the ports of the system, must not be <code>null</code>
+	 * @param maxAge
+	 *            the maximum age of the cache, before it is refreshed on access, must not be
+	 *            negative
+	 * @param unit
+	 *            the unit of the maximum age, must not be <code>null</code>
+	 */
+	public CachingSerialPortFinder(	@Nonnull SerialPortFinder finder,
+									@Nonnegative long maxAge,
+									@Nonnull TimeUnit unit) {
+		this.finder = checkArgumentNotNull(finder, "finder");
+		checkArgument(maxAge >= 0, "maxAge", "Expected a value greater than or equal to 0!");
+		this.maxAge = checkArgumentNotNull(unit, "unit").toNanos(maxAge);
+		monitor = null;
+	}
+
+	/**
+	 * Creates a new finder, that caches the ports found by the given finder. The cache is
+	 * refreshed by a daemon thread, whenever the given monitor reports a change of the ports.
+	 * <p>
+	 * If the monitor fails or this finder was closed, the cache is refreshed on every access. An
+	 * unexpected failure of the monitor or of the refresh is passed to the
+	 * {@link UncaughtExceptionHandler} of the daemon thread.
+	 * 
+	 * @param finder
+	 *            finds the ports of the system, must not be <code>null</code>
+	 * @param monitor
+	 *            observes the changes of the ports of the system, must not be <code>null</code>.
+	 *            It is closed, when this finder is closed.
+	 */
+	public CachingSerialPortFinder(	@Nonnull SerialPortFinder finder,
+									@Nonnull SerialPortMonitor monitor) {
+		this.finder = checkArgumentNotNull(finder, "finder");
+		this.monitor = checkArgumentNotNull(monitor, "monitor");
+		maxAge = 0;
+
+		isMonitored = true;
+		Thread watcher = new Thread(new Runnable() {
+			public void run() {
+				refreshOnChanges();
+			}
+		}, "xidobi port monitor");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/** Refreshes the cache whenever the monitor reports a change, until the monitor is closed. */
+	private void refreshOnChanges() {
+		try {
+			while (!isClosed) {
+				monitor.awaitChange();
+				refresh();
+			}
+		}
+		catch (IOException e) {
+			// the monitor was closed or failed, the cache falls back to refreshes on access
+		}
+		catch (RuntimeException e) {
+			// e.g. a NativeCodeException of the monitor, the cache falls back to refreshes on
+			// access
+			reportFailure(e);
+		}
+		finally {
+			isMonitored = false;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The returned {@link Set} can't be modified.
+	 */
+	@Nonnull
+	public Set<SerialPort> getAll() {
+		refreshIfStale();
+		return portSet;
+	}
+
+	/** {@inheritDoc} */
+	@CheckForNull
+	public SerialPort get(@Nonnull String portName) {
+		checkArgumentNotNull(portName, "portName");
+
+		refreshIfStale();
+		return ports.get(portName);
+	}
+
+	/**
+	 * Finds the ports of the system and updates the cache. The listeners are notified about the
+	 * ports, that were added or removed since the last refresh.
+	 */
+	public void refresh() {
+		synchronized (refreshLock) {
+			updateCache();
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Finds the ports of the system, replaces the cached ports and queues the added and removed
+	 * ports for the listeners. The caller must hold the refresh lock.
+	 */
+	private void updateCache() {
+		Map<String, SerialPort> previousPorts = ports;
+		Map<String, SerialPort> currentPorts = new HashMap<String, SerialPort>();
+		List<PortChange> addedPorts = new ArrayList<PortChange>();
+
+		for (SerialPort port : finder.getAll()) {
+			String portName = port.getPortName();
+			SerialPort knownPort = previousPorts.get(portName);
+			if (knownPort == null) {
+				addedPorts.add(new PortChange(port, true));
+				currentPorts.put(portName, port);
+			}
+			else
+				// the port is still available, so the instance of the callers stays valid
+				currentPorts.put(portName, knownPort);
+		}
+
+		ports = unmodifiableMap(currentPorts);
+		portSet = unmodifiableSet(new HashSet<SerialPort>(currentPorts.values()));
+		lastRefresh = System.nanoTime();
+		isRefreshed = true;
+
+		for (SerialPort port : previousPorts.values())
+			if (!currentPorts.containsKey(port.getPortName()))
+				pendingChanges.add(new PortChange(port, false));
+		pendingChanges.addAll(addedPorts);
+	}
+
+	/**
+	 * Reports the pending changes to the listeners, unless another thread does. The changes are
+	 * reported outside of the refresh lock, so a listener may access this finder.
+	 */
+	private void notifyListeners() {
+		// checks again after releasing the flag, a change may have been queued meanwhile
+		while (!pendingChanges.isEmpty() && isNotifying.compareAndSet(false, true)) {
+			try {
+				PortChange change;
+				while ((change = pendingChanges.poll()) != null)
+					for (SerialPortListener listener : listeners)
+						notifyListener(listener, change);
+			}
+			finally {
+				isNotifying.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Reports the given change to the given listener. A failure of the listener is reported, so it
+	 * doesn't prevent the notification of the other listeners or stop the monitoring thread.
+	 */
+	private static void notifyListener(@Nonnull SerialPortListener listener, @Nonnull PortChange change) {
+		try {
+			if (change.isAdded)
+				listener.portAdded(change.port);
+			else
+				listener.portRemoved(change.port);
+		}
+		catch (RuntimeException e) {
+			reportFailure(e);
+		}
+	}
+
+	/**
+	 * Passes the given failure to the {@link UncaughtExceptionHandler} of the current thread,
+	 * without terminating the thread.
+	 */
+	private static void reportFailure(@Nonnull RuntimeException e) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+	}
+
+	/** Refreshes the cache, if it is older than the maximum age. */
+	private void refreshIfStale() {
+		if (!isStale())
+			return;
+
+		synchronized (refreshLock) {
+			// another thread may have refreshed the cache meanwhile
+			if (isStale())
+				updateCache();
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Returns <code>true</code>, if the cache was never refreshed, or if it isn't monitored and
+	 * older than the maximum age.
+	 */
+	private boolean isStale() {
+		return !isRefreshed || !isMonitored && System.nanoTime() - lastRefresh >= maxAge;
+	}
+
+	/**
+	 * Returns <code>true</code>, if the cache is refreshed whenever the ports of the system were
+	 * changed. Then the cached ports are up to date and {@link #refresh()} needs not to be called.
+	 * 
+	 * @return <code>true</code>, if a monitor reports the changes of the ports
+	 */
+	public boolean isMonitored() {
+		return isMonitored;
+	}
+
+	/**
+	 * Closes the monitor of this finder and stops the thread, that refreshes the cache. Afterwards
+	 * the cache is refreshed on every access. Does nothing, if this finder has no monitor.
+	 */
+	public void close() {
+		isClosed = true;
+		if (monitor != null)
+			monitor.close();
+	}
+
+	/**
+	 * Registers a listener, that is notified about the added and removed ports by the following
+	 * refreshes.
+	 * 
+	 * @param listener
+	 *            the listener, must not be <code>null</code>
+	 */
+	public void addListener(@Nonnull SerialPortListener listener) {
+		listeners.add(checkArgumentNotNull(listener, "listener"));
+	}
+
+	/**
+	 * Unregisters the given listener.
+	 * 
+	 * @param listener
+	 *            the listener, must not be <code>null</code>
+	 */
+	public void removeListener(@Nonnull SerialPortListener listener) {
+		listeners.remove(checkArgumentNotNull(listener, "listener"));
+	}
+
+	/** A port that was added or removed by a refresh. */
+	private static final class PortChange {
+
+		/** the added or removed port */
+		@Nonnull
+		final SerialPort port;
+		/** <code>true</code> if the port was added, <code>false</code> if it was removed */
+		final boolean isAdded;
+
+		PortChange(@Nonnull SerialPort port, boolean isAdded) {
+			this.port = port;
+			this.isAdded = isAdded;
+		}
+	}
+}
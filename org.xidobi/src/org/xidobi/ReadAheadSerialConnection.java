@@ -0,0 +1,400 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.ByteRingBuffer;
+import org.xidobi.spi.SerialByteChannel;
+import org.xidobi.spi.SerialInputStream;
+import org.xidobi.spi.SerialOutputStream;
+
+/**
+ * A {@link SerialConnection} that reads ahead with a dedicated thread. The thread drains the
+ * underlying connection into a {@link ByteRingBuffer} in off-heap memory, the read operations of
+ * this connection take the bytes from the ring. So a read operation, whose bytes were already
+ * received, neither calls native code nor shares a lock with the reading thread. The
+ * {@link OverflowPolicy} determines what happens, when bytes are received while the ring is full.
+ * <p>
+ * If the underlying connection fails, the bytes that were received before are still returned,
+ * afterwards the read operations throw the {@link IOException}. Write operations are delegated to
+ * the underlying connection.
+ * 
+ * @author Christian Schwarz
+ */
+public class ReadAheadSerialConnection implements SerialConnection {
+
+	/**
+	 * Determines what happens, when bytes are received while the ring buffer of a
+	 * {@link ReadAheadSerialConnection} is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * The reading thread waits until bytes were consumed. Further bytes stay in the input
+		 * buffer of the port, so the flow control of the port applies.
+		 */
+		BLOCK,
+		/** The received bytes are discarded, see {@link ReadAheadSerialConnection#getDiscardedBytes()}. */
+		DISCARD,
+		/**
+		 * The reading thread stops, the read operations throw an {@link IOException} once the
+		 * buffered bytes were consumed.
+		 */
+		FAIL
+	}
+
+	/** the maximum size of the buffer, that receives the bytes which don't fit into the ring */
+	private static final int MAX_OVERFLOW_BUFFER_SIZE = 4096;
+
+	/** the underlying connection */
+	@Nonnull
+	private final SerialConnection connection;
+	/** the bytes that were received, but not yet read */
+	@Nonnull
+	private final ByteRingBuffer ring;
+	/** what happens if the ring is full */
+	@Nonnull
+	private final OverflowPolicy overflowPolicy;
+
+	/** serializes the consumers of the ring, it is never held by the reading thread */
+	private final Object readLock = new Object();
+
+	/** the channel view of this connection */
+	@Nonnull
+	private final SerialByteChannel channel = new SerialByteChannel(this);
+	/** the input stream view of this connection */
+	@Nonnull
+	private final InputStream inputStream = new SerialInputStream(channel);
+	/** the output stream view of this connection */
+	@Nonnull
+	private final OutputStream outputStream = new SerialOutputStream(this);
+
+	/** receives the bytes that don't fit into the ring, it is only used by the reading thread */
+	@Nullable
+	private ByteBuffer overflowBuffer;
+	/** the number of received bytes, that were discarded because the ring was full */
+	private volatile long discardedBytes;
+	/** the error that stopped the reading thread or <code>null</code> */
+	@Nullable
+	private volatile IOException failure;
+	/** <code>true</code> if {@link #close()} was called on this connection */
+	private volatile boolean closed;
+
+	/**
+	 * Creates a connection that reads ahead with a daemon thread.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>
+	 * @param capacity
+	 *            the capacity of the ring buffer in bytes, must be a power of 2
+	 * @param overflowPolicy
+	 *            what happens, when bytes are received while the ring buffer is full, must not be
+	 *            <code>null</code>
+	 */
+	public ReadAheadSerialConnection(	@Nonnull SerialConnection connection,
+										@Nonnegative int capacity,
+										@Nonnull OverflowPolicy overflowPolicy) {
+		this(connection, capacity, overflowPolicy, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Creates a connection that reads ahead with a thread of the given factory.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>
+	 * @param capacity
+	 *            the capacity of the ring buffer in bytes, must be a power of 2
+	 * @param overflowPolicy
+	 *            what happens, when bytes are received while the ring buffer is full, must not be
+	 *            <code>null</code>
+	 * @param threadFactory
+	 *            creates the reading thread, must not be <code>null</code>
+	 */
+	public ReadAheadSerialConnection(	@Nonnull SerialConnection connection,
+										@Nonnegative int capacity,
+										@Nonnull OverflowPolicy overflowPolicy,
+										@Nonnull ThreadFactory threadFactory) {
+		this.connection = checkArgumentNotNull(connection, "connection");
+		ring = new ByteRingBuffer(capacity);
+		this.overflowPolicy = checkArgumentNotNull(overflowPolicy, "overflowPolicy");
+		checkArgumentNotNull(threadFactory, "threadFactory");
+
+		Thread reader = threadFactory.newThread(new Runnable() {
+			public void run() {
+				readUntilClosed();
+			}
+		});
+		reader.setName("xidobi read-ahead " + connection.getPort().getPortName());
+		reader.start();
+	}
+
+	/** Drains the underlying connection into the ring, until the ring or the connection is closed. */
+	private void readUntilClosed() {
+		try {
+			while (!ring.isClosed()) {
+				ByteBuffer region = ring.writableRegion();
+				if (region.hasRemaining())
+					ring.commitWrite(connection.read(region));
+				else if (overflowPolicy == OverflowPolicy.BLOCK)
+					ring.awaitSpace();
+				else
+					readOverflow();
+			}
+		}
+		catch (IOException e) {
+			failure = e;
+		}
+		catch (RuntimeException e) {
+			// e.g. a NativeCodeException of the underlying connection, the consumers must not
+			// get a misleading "closed" exception
+			IOException unexpected = new IOException("The read-ahead of port " + getPort().getPortName() + " failed unexpected!");
+			unexpected.initCause(e);
+			failure = unexpected;
+		}
+		finally {
+			// wakes up the waiting consumer
+			ring.close();
+		}
+	}
+
+	/**
+	 * Reads while the ring is full. The read bytes are copied into the ring, as far as the
+	 * consumer freed space in the meantime, the overflow policy is applied to the other bytes.
+	 */
+	private void readOverflow() throws IOException {
+		if (overflowBuffer == null)
+			overflowBuffer = ByteBuffer.allocateDirect(Math.min(ring.capacity(), MAX_OVERFLOW_BUFFER_SIZE));
+
+		overflowBuffer.clear();
+		connection.read(overflowBuffer);
+		overflowBuffer.flip();
+		// twice, because the free space may wrap around the end of the ring
+		transferOverflow();
+		transferOverflow();
+
+		int length = overflowBuffer.remaining();
+		if (length == 0)
+			return;
+		if (overflowPolicy == OverflowPolicy.FAIL)
+			throw new IOException("The read-ahead buffer of port " + getPort().getPortName() + " overflowed, " + length + " bytes were discarded!");
+		discardedBytes += length;
+	}
+
+	/** Copies bytes of the overflow buffer into the contiguous free space of the ring. */
+	private void transferOverflow() {
+		ByteBuffer region = ring.writableRegion();
+		int length = Math.min(region.remaining(), overflowBuffer.remaining());
+		if (length == 0)
+			return;
+
+		int limit = overflowBuffer.limit();
+		overflowBuffer.limit(overflowBuffer.position() + length);
+		region.put(overflowBuffer);
+		overflowBuffer.limit(limit);
+		ring.commitWrite(length);
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public byte[] read() throws IOException {
+		synchronized (readLock) {
+			awaitData();
+			byte[] data = new byte[ring.available()];
+			ring.read(data, 0, data.length);
+			return data;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int read(@Nonnull ByteBuffer dst) throws IOException {
+		checkArgumentNotNull(dst, "dst");
+		checkArgument(!dst.isReadOnly(), "dst", "Expected a writable buffer!");
+
+		synchronized (readLock) {
+			if (!dst.hasRemaining())
+				return 0;
+			awaitData();
+			return ring.read(dst);
+		}
+	}
+
+	/**
+	 * Reads into the given buffer like {@link #read(ByteBuffer)}, but waits at most the given time
+	 * for bytes to arrive.
+	 * 
+	 * @param dst
+	 *            the buffer to read into, must not be <code>null</code> or read-only
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout, must not be <code>null</code>
+	 * @return the number of bytes read, 0 if no bytes were received within the given time
+	 * @throws IOException
+	 *             if this port was closed or an unexpected I/O error occurs or the thread was
+	 *             interrupted
+	 */
+	public int read(@Nonnull ByteBuffer dst, long timeout, @Nonnull TimeUnit unit) throws IOException {
+		checkArgumentNotNull(dst, "dst");
+		checkArgument(!dst.isReadOnly(), "dst", "Expected a writable buffer!");
+		checkArgumentNotNull(unit, "unit");
+
+		synchronized (readLock) {
+			if (!dst.hasRemaining())
+				return 0;
+			if (closed)
+				throw portClosedException();
+			if (ring.awaitData(timeout, unit))
+				return ring.read(dst);
+			if (!ring.isClosed())
+				return 0;
+			throw stoppedException();
+		}
+	}
+
+	/**
+	 * Blocks until the ring contains bytes, or throws the error of the reading thread if it
+	 * stopped and all bytes were consumed. The bytes that were received before the underlying
+	 * connection failed are returned first, even if the underlying connection reports that it is
+	 * closed.
+	 */
+	private void awaitData() throws IOException {
+		if (closed)
+			throw portClosedException();
+		if (!ring.awaitData())
+			throw stoppedException();
+	}
+
+	/**
+	 * Returns that this connection was closed, if {@link #close()} was called, otherwise the error
+	 * that stopped the reading thread.
+	 */
+	@Nonnull
+	private IOException stoppedException() {
+		IOException cause = failure;
+		if (closed || cause == null)
+			return portClosedException();
+		return cause;
+	}
+
+	/**
+	 * Returns the number of bytes, that were received but not yet read. These bytes can be read
+	 * without blocking.
+	 * 
+	 * @return the number of buffered bytes
+	 */
+	@Nonnegative
+	public int available() {
+		return ring.available();
+	}
+
+	/**
+	 * Returns the number of received bytes, that were discarded because the ring buffer was full.
+	 * It is always 0, unless the overflow policy is {@link OverflowPolicy#DISCARD}.
+	 * 
+	 * @return the number of discarded bytes
+	 */
+	@Nonnegative
+	public long getDiscardedBytes() {
+		return discardedBytes;
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data) throws IOException {
+		connection.write(data);
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data, int offset, int length) throws IOException {
+		connection.write(data, offset, length);
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull ByteBuffer... srcs) throws IOException {
+		connection.write(srcs);
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public ByteChannel getChannel() {
+		return channel;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isClosed() {
+		return connection.isClosed();
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public SerialPort getPort() {
+		return connection.getPort();
+	}
+
+	/**
+	 * Closes the underlying connection, which stops the reading thread. The bytes that were
+	 * received but not yet read are discarded, the read operations throw an {@link IOException}
+	 * that the port was closed.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs while closing
+	 */
+	public void close() throws IOException {
+		closed = true;
+		try {
+			connection.close();
+		}
+		finally {
+			ring.close();
+		}
+	}
+
+	/** Returns the exception, that is thrown by read operations after the port was closed. */
+	@Nonnull
+	private IOException portClosedException() {
+		return new IOException("Port " + getPort().getPortName() + " was closed!");
+	}
+}
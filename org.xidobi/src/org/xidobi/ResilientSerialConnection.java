@@ -0,0 +1,600 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.spi.SerialByteChannel;
+import org.xidobi.spi.SerialInputStream;
+import org.xidobi.spi.SerialOutputStream;
+
+/**
+ * A {@link SerialConnection}, that reopens its port with the same {@link SerialPortSettings} when
+ * the port disappears and reappears, e.g. when an USB-serial adapter is unplugged and plugged in
+ * again.
+ * <p>
+ * When the finder reports the port as removed or an operation fails with an {@link IOException},
+ * the connection is closed and a dedicated thread tries to reopen the port. The exception is thrown
+ * to the caller, operations that are blocked on the lost connection fail when it is closed. The
+ * following operations block until the port is reopened or this connection is closed. An
+ * operation that was interrupted or timed out, signaled by an {@link InterruptedIOException},
+ * doesn't count as lost port, the connection is kept unless it was closed because of the failure.
+ * The thread looks up the port with a {@link CachingSerialPortFinder}, it waits with an exponential
+ * backoff between the attempts and is woken up immediately, when the finder reports the port as
+ * added. A port that reappears is opened only if it is still available after the debounce time, so
+ * a flapping port isn't reopened repeatedly.
+ * <p>
+ * If the finder is {@linkplain CachingSerialPortFinder#isMonitored() monitored}, its cache is up
+ * to date, so the thread only looks up the cached port and doesn't refresh the finder. While the
+ * port is missing, it waits for the finder to report the port as added, at most the maximum delay.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see CachingSerialPortFinder
+ */
+public class ResilientSerialConnection implements SerialConnection {
+
+	/** the default time, that is waited after the first failed attempt to reopen the port */
+	private static final long DEFAULT_INITIAL_DELAY = 10;
+	/** the default maximum time, that is waited between two attempts to reopen the port */
+	private static final long DEFAULT_MAX_DELAY = 1000;
+	/** the default time, a reappeared port must be available before it is reopened */
+	private static final long DEFAULT_DEBOUNCE = 50;
+
+	/** looks up the port, never <code>null</code> */
+	@Nonnull
+	private final CachingSerialPortFinder finder;
+	/** the name of the port, never <code>null</code> */
+	@Nonnull
+	private final String portName;
+	/** the settings, the port is reopened with, never <code>null</code> */
+	@Nonnull
+	private final SerialPortSettings settings;
+
+	/** the backoff and the debounce time in nanoseconds */
+	private final long initialDelay;
+	private final long maxDelay;
+	private final long debounce;
+
+	/** the thread, that reopens the port */
+	@Nonnull
+	private final Thread reconnector;
+
+	/** guards the current connection */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** signaled when the port was reopened or this connection was closed */
+	private final Condition connected = lock.newCondition();
+	/** signaled when the port was lost or added, or this connection was closed */
+	private final Condition changed = lock.newCondition();
+
+	/** the connection of the open port, <code>null</code> while the port is reopened */
+	@Nullable
+	private SerialConnection connection;
+	/** the connection of the lost port, until it is closed by the reconnecting thread */
+	@Nullable
+	private SerialConnection lostConnection;
+	/** the port of the last opened connection */
+	@Nonnull
+	private volatile SerialPort port;
+	/** <code>true</code>, if the port was reported as added since the last attempt */
+	private boolean isPortAdded;
+	/** <code>true</code>, if this connection was closed */
+	private volatile boolean isClosed;
+	/** the number of times the port was reopened */
+	private volatile int reconnects;
+
+	@Nonnull
+	private final SerialByteChannel channel = new SerialByteChannel(this);
+	@Nonnull
+	private final InputStream inputStream = new SerialInputStream(channel);
+	@Nonnull
+	private final OutputStream outputStream = new SerialOutputStream(this);
+
+	/**
+	 * wakes up the reconnecting thread, when the port is added, and discards the connection when
+	 * the port is removed
+	 */
+	private final SerialPortListener listener = new SerialPortListener() {
+		public void portAdded(@Nonnull SerialPort port) {
+			if (!port.getPortName().equals(portName))
+				return;
+			lock.lock();
+			try {
+				isPortAdded = true;
+				changed.signalAll();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+
+		public void portRemoved(@Nonnull SerialPort port) {
+			if (!port.getPortName().equals(portName))
+				return;
+			lock.lock();
+			try {
+				connectionLost(connection);
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+	};
+
+	/**
+	 * Opens the port with the given name, and reopens it with the default backoff and debounce
+	 * time whenever it is lost.
+	 * 
+	 * @param finder
+	 *            looks up the port, must not be <code>null</code>
+	 * @param portName
+	 *            the name of the port, must not be <code>null</code>
+	 * @param settings
+	 *            the settings of the port, must not be <code>null</code>
+	 * @throws IOException
+	 *             if the port isn't available or can't be opened
+	 */
+	public ResilientSerialConnection(	@Nonnull CachingSerialPortFinder finder,
+										@Nonnull String portName,
+										@Nonnull SerialPortSettings settings) throws IOException {
+		this(finder, portName, settings, DEFAULT_INITIAL_DELAY, DEFAULT_MAX_DELAY, DEFAULT_DEBOUNCE, MILLISECONDS, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Opens the port with the given name, and reopens it whenever it is lost.
+	 * 
+	 * @param finder
+	 *            looks up the port, must not be <code>null</code>
+	 * @param portName
+	 *            the name of the port, must not be <code>null</code>
+	 * @param settings
+	 *            the settings of the port, must not be <code>null</code>
+	 * @param initialDelay
+	 *            the time that is waited after the first failed attempt to reopen the port, it is
+	 *            doubled after every further attempt, must be greater than 0
+	 * @param maxDelay
+	 *            the maximum time between two attempts, must not be less than the initial delay
+	 * @param debounce
+	 *            the time a reappeared port must be available before it is reopened, must not be
+	 *            negative
+	 * @param unit
+	 *            the unit of the times, must not be <code>null</code>
+	 * @param threadFactory
+	 *            creates the thread, that reopens the port, must not be <code>null</code>
+	 * @throws IOException
+	 *             if the port isn't available or can't be opened
+	 */
+	public ResilientSerialConnection(	@Nonnull CachingSerialPortFinder finder,
+										@Nonnull String portName,
+										@Nonnull SerialPortSettings settings,
+										@Nonnegative long initialDelay,
+										@Nonnegative long maxDelay,
+										@Nonnegative long debounce,
+										@Nonnull TimeUnit unit,
+										@Nonnull ThreadFactory threadFactory) throws IOException {
+		this.finder = checkArgumentNotNull(finder, "finder");
+		this.portName = checkArgumentNotNull(portName, "portName");
+		this.settings = checkArgumentNotNull(settings, "settings");
+		checkArgument(initialDelay > 0, "initialDelay", "Expected a value greater than 0!");
+		checkArgument(maxDelay >= initialDelay, "maxDelay", "Expected a value greater than or equal to the initial delay!");
+		checkArgument(debounce >= 0, "debounce", "Expected a value greater than or equal to 0!");
+		checkArgumentNotNull(unit, "unit");
+		checkArgumentNotNull(threadFactory, "threadFactory");
+		this.initialDelay = unit.toNanos(initialDelay);
+		this.maxDelay = unit.toNanos(maxDelay);
+		this.debounce = unit.toNanos(debounce);
+
+		SerialPort port = finder.get(portName);
+		if (port == null)
+			throw new IOException("Port " + portName + " was not found!");
+		connection = port.open(settings);
+		this.port = port;
+
+		finder.addListener(listener);
+		reconnector = threadFactory.newThread(new Runnable() {
+			public void run() {
+				reconnectUntilClosed();
+			}
+		});
+		reconnector.setName("xidobi reconnect " + portName);
+		reconnector.start();
+	}
+
+	/** Waits until the port is lost and reopens it, until this connection is closed. */
+	private void reconnectUntilClosed() {
+		long delay = initialDelay;
+		lock.lock();
+		try {
+			while (!isClosed) {
+				if (lostConnection != null) {
+					// the port must be released, before it can be reopened
+					SerialConnection lost = lostConnection;
+					lostConnection = null;
+					lock.unlock();
+					try {
+						closeQuietly(lost);
+					}
+					finally {
+						lock.lock();
+					}
+					continue;
+				}
+
+				if (connection != null) {
+					changed.await();
+					delay = initialDelay;
+					continue;
+				}
+
+				isPortAdded = false;
+				SerialConnection reopened;
+				lock.unlock();
+				try {
+					reopened = tryReopen();
+				}
+				finally {
+					lock.lock();
+				}
+
+				if (reopened != null) {
+					if (isClosed)
+						closeQuietly(reopened);
+					else {
+						connection = reopened;
+						port = reopened.getPort();
+						reconnects++;
+						connected.signalAll();
+					}
+					continue;
+				}
+
+				// the backoff is cut short, when the finder reports the port as added
+				long remaining = isPortAwaited() ? maxDelay : delay;
+				while (!isClosed && !isPortAdded && remaining > 0)
+					remaining = changed.awaitNanos(remaining);
+				delay = Math.min(delay * 2, maxDelay);
+			}
+		}
+		catch (InterruptedException e) {
+			// the thread is interrupted by close()
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Looks up the port and reopens it, if it is available after the debounce time.
+	 * 
+	 * @return the reopened connection, <code>null</code> if the port isn't available or can't be
+	 *         opened
+	 */
+	@Nullable
+	private SerialConnection tryReopen() throws InterruptedException {
+		refreshUnlessMonitored();
+		if (finder.get(portName) == null)
+			return null;
+
+		if (debounce > 0) {
+			TimeUnit.NANOSECONDS.sleep(debounce);
+			refreshUnlessMonitored();
+		}
+		SerialPort reappeared = finder.get(portName);
+		if (reappeared == null)
+			return null;
+
+		try {
+			return reappeared.open(settings);
+		}
+		catch (IOException e) {
+			// the port may be in use or not ready yet, we try again after the backoff
+			return null;
+		}
+	}
+
+	/**
+	 * Refreshes the finder, unless it is monitored. The cache of a monitored finder is refreshed
+	 * on every change of the ports, so the lookup needs no native calls.
+	 */
+	private void refreshUnlessMonitored() {
+		if (!finder.isMonitored())
+			finder.refresh();
+	}
+
+	/**
+	 * Returns <code>true</code>, if the port is missing and the monitored finder reports it, when
+	 * it is added. Then the next attempt is started by the notification, not by the backoff.
+	 */
+	private boolean isPortAwaited() {
+		return finder.isMonitored() && finder.get(portName) == null;
+	}
+
+	/**
+	 * Returns the current connection, blocks until the port is reopened if it was lost.
+	 * 
+	 * @throws IOException
+	 *             if this connection is closed or the thread is interrupted
+	 */
+	@Nonnull
+	private SerialConnection awaitConnection() throws IOException {
+		lock.lock();
+		try {
+			while (connection == null && !isClosed)
+				connected.await();
+			if (isClosed)
+				throw portClosedException();
+			return connection;
+		}
+		catch (InterruptedException e) {
+			throw new InterruptedIOException("The thread was interrupted while waiting for port " + portName + "!");
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called when an operation of the given connection failed with the given exception. An
+	 * interrupted or timed out operation doesn't indicate a lost port, so the connection is kept
+	 * unless it was closed because of the failure.
+	 */
+	private void operationFailed(@Nonnull SerialConnection current, @Nonnull IOException e) {
+		if (e instanceof InterruptedIOException && !current.isClosed())
+			return;
+		connectionLost(current);
+	}
+
+	/**
+	 * Called when the port of the given connection was lost, the connection is closed and the port
+	 * is reopened by the reconnecting thread unless this connection was closed.
+	 */
+	private void connectionLost(@Nullable SerialConnection lost) {
+		lock.lock();
+		try {
+			if (lost == null || connection != lost)
+				// the failure was already reported
+				return;
+			connection = null;
+			lostConnection = lost;
+			changed.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks until the port is connected or the given time has elapsed.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout, must not be <code>null</code>
+	 * @return <code>true</code> if the port is connected, <code>false</code> if the time elapsed or
+	 *         this connection is closed
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public boolean awaitConnected(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+		checkArgumentNotNull(unit, "unit");
+
+		long remaining = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (connection == null && !isClosed && remaining > 0)
+				remaining = connected.awaitNanos(remaining);
+			return connection != null && !isClosed;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns <code>true</code>, if the port is open. It returns <code>false</code> while the port
+	 * is reopened and after this connection was closed.
+	 * 
+	 * @return <code>true</code>, if the port is open
+	 */
+	public boolean isConnected() {
+		lock.lock();
+		try {
+			return connection != null && !isClosed;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of times the port was reopened.
+	 * 
+	 * @return the number of reconnects
+	 */
+	@Nonnegative
+	public int getReconnects() {
+		return reconnects;
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data) throws IOException {
+		SerialConnection current = awaitConnection();
+		try {
+			current.write(data);
+		}
+		catch (IOException e) {
+			operationFailed(current, e);
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull byte[] data, int offset, int length) throws IOException {
+		SerialConnection current = awaitConnection();
+		try {
+			current.write(data, offset, length);
+		}
+		catch (IOException e) {
+			operationFailed(current, e);
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void write(@Nonnull ByteBuffer... srcs) throws IOException {
+		SerialConnection current = awaitConnection();
+		try {
+			current.write(srcs);
+		}
+		catch (IOException e) {
+			operationFailed(current, e);
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public byte[] read() throws IOException {
+		SerialConnection current = awaitConnection();
+		try {
+			return current.read();
+		}
+		catch (IOException e) {
+			operationFailed(current, e);
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int read(@Nonnull ByteBuffer dst) throws IOException {
+		SerialConnection current = awaitConnection();
+		try {
+			return current.read(dst);
+		}
+		catch (IOException e) {
+			operationFailed(current, e);
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public ByteChannel getChannel() {
+		return channel;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Returns the port of the last opened connection.
+	 */
+	@Nonnull
+	public SerialPort getPort() {
+		return port;
+	}
+
+	/**
+	 * Stops reopening the port and closes the current connection. Blocked operations throw an
+	 * {@link IOException}.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs while closing
+	 */
+	public void close() throws IOException {
+		SerialConnection current;
+		SerialConnection lost;
+		lock.lock();
+		try {
+			if (isClosed)
+				return;
+			isClosed = true;
+			current = connection;
+			connection = null;
+			lost = lostConnection;
+			lostConnection = null;
+			connected.signalAll();
+			changed.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+
+		finder.removeListener(listener);
+		reconnector.interrupt();
+		if (lost != null)
+			closeQuietly(lost);
+		if (current != null && !current.isClosed())
+			current.close();
+	}
+
+	/** Closes the given connection and ignores the errors, because it is broken anyway. */
+	private static void closeQuietly(@Nonnull SerialConnection connection) {
+		if (connection.isClosed())
+			return;
+		try {
+			connection.close();
+		}
+		catch (IOException e) {
+			// the connection is discarded
+		}
+	}
+
+	/** Returns the exception, that is thrown by the operations after this connection was closed. */
+	@Nonnull
+	private IOException portClosedException() {
+		return new IOException("Port " + portName + " was closed!");
+	}
+}
@@ -17,6 +17,10 @@ package org.xidobi;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
 
 import javax.annotation.Nonnull;
 
@@ -39,6 +43,37 @@ public interface SerialConnection extends Closeable {
 	 */
 	void write(@Nonnull byte[] data) throws IOException;
 
+	/**
+	 * Writes <code>length</code> bytes of the given <code>byte[]</code>, beginning at
+	 * <code>offset</code>. All bytes of the range were written.
+	 * 
+	 * @param data
+	 *            the data to write, must not be <code>null</code>
+	 * @param offset
+	 *            the index of the first byte to write, must be >=0 and <=
+	 *            <code>data.length</code>
+	 * @param length
+	 *            the number of bytes to write, must be >=0 and <= <code>data.length - offset</code>
+	 * @throws IOException
+	 *             if this port was closed or an unexpected I/O error occurs.
+	 */
+	void write(@Nonnull byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Writes the remaining bytes of the given buffers, in the order of the arguments, with a single
+	 * write operation. All remaining bytes were written and the position of each buffer is
+	 * advanced to its limit.
+	 * <p>
+	 * This is useful to send a frame that consists of several parts, e.g. a header and a payload,
+	 * without copying them into one array first.
+	 * 
+	 * @param srcs
+	 *            the buffers to write, must not be <code>null</code> or contain <code>null</code>
+	 * @throws IOException
+	 *             if this port was closed or an unexpected I/O error occurs.
+	 */
+	void write(@Nonnull ByteBuffer... srcs) throws IOException;
+
 	/**
 	 * Reads from this serial port and returns the read byte's or throws an {@link IOException} when
 	 * the port was closed or an other I/O error occurs. This method blocks until at least one byte
@@ -52,6 +87,61 @@ public interface SerialConnection extends Closeable {
 	@Nonnull
 	byte[] read() throws IOException;
 
+	/**
+	 * Reads from this serial port into the given buffer, starting at its current position. This
+	 * method blocks until at least one byte was read or an {@link IOException} is thrown. At most
+	 * {@link ByteBuffer#remaining()} bytes are read, all further bytes stay in the input buffer of
+	 * the port and will be returned by the next read operation. The position of the buffer is
+	 * advanced by the number of bytes that were read.
+	 * <p>
+	 * If the buffer is a direct buffer, the data is transferred from the port into the buffer
+	 * without intermediate copies. If the buffer has no bytes remaining, this method returns
+	 * <code>0</code> immediately.
+	 * 
+	 * @param dst
+	 *            the buffer to read into, must not be <code>null</code> or read-only
+	 * @return the number of bytes read
+	 * @throws IOException
+	 *             if this port was closed or an unexpected I/O error occurs or the thread was
+	 *             interrupted
+	 */
+	int read(@Nonnull ByteBuffer dst) throws IOException;
+
+	/**
+	 * Returns an {@link InputStream} view of this connection. The stream reads through the channel
+	 * returned by {@link #getChannel()}, so both share the bytes that were read but not yet
+	 * returned. These bytes are not returned by {@link #read()} or {@link #read(ByteBuffer)}, so
+	 * the views and the read methods of this connection should not be mixed.
+	 * <p>
+	 * The stream never reaches its end. Closing the stream closes this connection.
+	 * 
+	 * @return the input stream, always the same instance, never <code>null</code>
+	 */
+	@Nonnull
+	InputStream getInputStream();
+
+	/**
+	 * Returns an {@link OutputStream} view of this connection. Every write operation of the stream
+	 * is delegated to this connection. Closing the stream closes this connection.
+	 * 
+	 * @return the output stream, always the same instance, never <code>null</code>
+	 */
+	@Nonnull
+	OutputStream getOutputStream();
+
+	/**
+	 * Returns a {@link ByteChannel} view of this connection, which can be used as
+	 * {@link java.nio.channels.ReadableByteChannel ReadableByteChannel} and
+	 * {@link java.nio.channels.WritableByteChannel WritableByteChannel}. Read operations into a
+	 * direct buffer are transferred without intermediate copies, all other read operations copy
+	 * each byte once from an internal direct buffer. The channel is open as long as this
+	 * connection is open, closing the channel closes this connection.
+	 * 
+	 * @return the channel, always the same instance, never <code>null</code>
+	 */
+	@Nonnull
+	ByteChannel getChannel();
+
 	/**
 	 * Returns <code>true</code>, if the serial port is closed.
 	 * 
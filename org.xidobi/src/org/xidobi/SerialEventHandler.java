@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the events of the connections, that are registered with a {@link SerialSelector}. The
+ * methods are called by the threads that invoke {@link SerialSelector#select()}, they should
+ * return quickly because the events of the other connections are delayed meanwhile.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialSelector#register(SerialConnection, SerialEventHandler)
+ */
+public interface SerialEventHandler {
+
+	/**
+	 * Called when the connection has received data.
+	 * <p>
+	 * <b>IMPORTANT:</b> The buffer is owned by the selector and reused for the next read operation,
+	 * the data must be consumed or copied before this method returns.
+	 * 
+	 * @param key
+	 *            the key of the connection, never <code>null</code>
+	 * @param data
+	 *            the received bytes, between the position and the limit of the buffer, never
+	 *            <code>null</code>
+	 */
+	void dataReceived(@Nonnull SerialSelectionKey key, @Nonnull ByteBuffer data);
+
+	/**
+	 * Called when all bytes of a buffer, that was passed to
+	 * {@link SerialSelectionKey#write(ByteBuffer)}, were written.
+	 * 
+	 * @param key
+	 *            the key of the connection, never <code>null</code>
+	 * @param src
+	 *            the buffer that was written, its position is at its limit, never
+	 *            <code>null</code>
+	 */
+	void writeCompleted(@Nonnull SerialSelectionKey key, @Nonnull ByteBuffer src);
+
+	/**
+	 * Called when an I/O error occurred, e.g. the connection was closed or the device was removed.
+	 * The key is cancelled before this method is called. The connection is not closed by the
+	 * selector, the handler is responsible to close it.
+	 * 
+	 * @param key
+	 *            the key of the connection, never <code>null</code>
+	 * @param cause
+	 *            the I/O error, never <code>null</code>
+	 */
+	void failed(@Nonnull SerialSelectionKey key, @Nonnull IOException cause);
+}
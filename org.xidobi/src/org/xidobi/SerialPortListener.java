@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives the serial ports, that were added to or removed from the system. The ports are
+ * reported by a {@link CachingSerialPortFinder}, when it is refreshed.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see CachingSerialPortFinder#addListener(SerialPortListener)
+ */
+public interface SerialPortListener {
+
+	/**
+	 * Called when a serial port was found, that wasn't available before.
+	 * 
+	 * @param port
+	 *            the added port, never <code>null</code>
+	 */
+	void portAdded(@Nonnull SerialPort port);
+
+	/**
+	 * Called when a serial port isn't available anymore.
+	 * 
+	 * @param port
+	 *            the removed port, never <code>null</code>
+	 */
+	void portRemoved(@Nonnull SerialPort port);
+}
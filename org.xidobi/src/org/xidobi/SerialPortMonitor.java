@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Observes the serial ports of the system, so a {@link CachingSerialPortFinder} needs to find the
+ * ports only when they were changed, instead of after a maximum age.
+ * <p>
+ * The changes are observed from the first call of {@link #awaitChange()} on, so the first call
+ * returns immediately. A caller that finds the ports after each call of {@link #awaitChange()}
+ * never misses a change. Implementations may bind the observation to the calling thread, so
+ * {@link #awaitChange()} must always be called by the same thread.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see CachingSerialPortFinder#CachingSerialPortFinder(SerialPortFinder, SerialPortMonitor)
+ */
+public interface SerialPortMonitor extends Closeable {
+
+	/**
+	 * Blocks until the serial ports of the system may have changed since the previous call. The
+	 * first call returns immediately.
+	 * 
+	 * @throws IOException
+	 *             if this monitor was closed
+	 */
+	void awaitChange() throws IOException;
+
+	/**
+	 * Closes this monitor, a thread that is blocked in {@link #awaitChange()} is woken up and
+	 * throws an {@link IOException}. Does nothing, if this monitor was already closed.
+	 */
+	void close();
+}
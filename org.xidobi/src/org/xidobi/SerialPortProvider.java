@@ -15,9 +15,8 @@
  */
 package org.xidobi;
 
-
 /**
- * Provides the serial port finder implementation for the system it is running on.
+ * Provides the serial port finder and selector implementation for the system it is running on.
  * 
  * @author Christian Schwarz
  */
@@ -52,4 +51,36 @@ public class SerialPortProvider {
 	public static SerialPortFinder getSerialPortFinder() {
 		return finder;
 	}
+
+	/**
+	 * Opens a new {@link SerialSelector}, that can serve many serial connections with one or a few
+	 * threads.
+	 * 
+	 * @return a new {@link SerialSelector}, never <code>null</code>
+	 * @exception IllegalStateException
+	 *                if the platform doesn't provide a {@link SerialSelector} implementation
+	 */
+	public static SerialSelector openSelector() {
+		ClassLoader cl = SerialPortProvider.class.getClassLoader();
+		Class<?> selectorClass;
+		try {
+			selectorClass = cl.loadClass("org.xidobi.SerialSelectorImpl");
+		}
+		catch (ClassNotFoundException e) {
+			throw new IllegalStateException("The platform doesn't provide a serial selector!", e);
+		}
+
+		if (!SerialSelector.class.isAssignableFrom(selectorClass))
+			throw new ClassCastException(selectorClass + " does not implement " + SerialSelector.class);
+
+		try {
+			return (SerialSelector) selectorClass.newInstance();
+		}
+		catch (InstantiationException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 }
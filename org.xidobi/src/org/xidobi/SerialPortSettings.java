@@ -78,6 +78,8 @@ public class SerialPortSettings {
 		private boolean rts = true;
 		/** the DRT (Data Terminal Ready) */
 		private boolean dtr = true;
+		/** the maximum number of pending write operations, default is 1 */
+		private int maxPendingWrites = 1;
 
 		/** Creates a builder for serial port settings. */
 		private SerialPortSettingsBuilder() {}
@@ -188,6 +190,28 @@ public class SerialPortSettings {
 			return this;
 		}
 
+		/**
+		 * Sets the maximum number of write operations, that may be in progress at a time. With the
+		 * default of 1, a write operation returns after all bytes were written. With a greater
+		 * value, a write operation returns as soon as it was started and only waits for the oldest
+		 * pending write, when the maximum is reached. This keeps the line busy between small
+		 * frames, but an error of a pending write is thrown by one of the following write
+		 * operations.
+		 * <p>
+		 * <b>NOTE:</b> This setting has no effect on platforms, where the written data is buffered
+		 * by the operating system anyway, e.g. on Linux.
+		 * 
+		 * @param maxPendingWrites
+		 *            the maximum number of pending write operations, must be greater than 0
+		 * @return {@code this}
+		 */
+		@Nonnull
+		public SerialPortSettingsBuilder maxPendingWrites(@Nonnegative int maxPendingWrites) {
+			checkArgument(maxPendingWrites > 0, "maxPendingWrites", "Expected a value greater than 0!");
+			this.maxPendingWrites = maxPendingWrites;
+			return this;
+		}
+
 		/**
 		 * Creates and returns the serial port settings, specified by the current builder.
 		 * 
@@ -195,7 +219,7 @@ public class SerialPortSettings {
 		 */
 		@Nonnull
 		public SerialPortSettings create() {
-			return new SerialPortSettings(bauds, dataBits, stopBits, parity, flowControl, rts, dtr);
+			return new SerialPortSettings(bauds, dataBits, stopBits, parity, flowControl, rts, dtr, maxPendingWrites);
 		}
 
 	}
@@ -214,6 +238,8 @@ public class SerialPortSettings {
 	private final boolean rts;
 	/** the DRT (Data Terminal Ready) */
 	private final boolean dtr;
+	/** the maximum number of pending write operations */
+	private final int maxPendingWrites;
 
 	/**
 	 * Creates a serial port setting with the given values.
@@ -224,7 +250,8 @@ public class SerialPortSettings {
 								@Nonnull Parity parity,
 								@Nonnull FlowControl flowControl,
 								boolean rts,
-								boolean dtr) {
+								boolean dtr,
+								@Nonnegative int maxPendingWrites) {
 		this.bauds = bauds;
 		this.dataBits = dataBits;
 		this.stopBits = stopBits;
@@ -232,6 +259,7 @@ public class SerialPortSettings {
 		this.flowControl = flowControl;
 		this.rts = rts;
 		this.dtr = dtr;
+		this.maxPendingWrites = maxPendingWrites;
 	}
 
 	/**
@@ -245,6 +273,7 @@ public class SerialPortSettings {
 	 * <li>flow control = none</li>
 	 * <li>RTS = true (default)</li>
 	 * <li>DTR = true (default)</li>
+	 * <li>max pending writes = 1 (default)</li>
 	 * </ul>
 	 * 
 	 * @return a new builder for the serial port settings, never <code>null</code>
@@ -321,4 +350,14 @@ public class SerialPortSettings {
 	public boolean isDTR() {
 		return dtr;
 	}
+
+	/**
+	 * Returns the maximum number of write operations, that may be in progress at a time.
+	 * 
+	 * @return the maximum number of pending write operations, greater than 0
+	 */
+	@Nonnegative
+	public int getMaxPendingWrites() {
+		return maxPendingWrites;
+	}
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Represents the registration of a {@link SerialConnection} with a {@link SerialSelector}. A key
+ * is valid until it is cancelled, its selector is closed or an I/O error occurs.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialSelector#register(SerialConnection, SerialEventHandler)
+ */
+public interface SerialSelectionKey {
+
+	/**
+	 * Returns the registered connection.
+	 * 
+	 * @return the connection, never <code>null</code>
+	 */
+	@Nonnull
+	SerialConnection getConnection();
+
+	/**
+	 * Returns the selector the connection is registered with.
+	 * 
+	 * @return the selector, never <code>null</code>
+	 */
+	@Nonnull
+	SerialSelector getSelector();
+
+	/**
+	 * Starts writing the remaining bytes of the given buffer and returns immediately. When all
+	 * bytes were written, the position of the buffer is advanced to its limit and
+	 * {@link SerialEventHandler#writeCompleted(SerialSelectionKey, ByteBuffer)} is dispatched. The
+	 * buffers are written in the order this method was called, the buffer must not be modified
+	 * until its write was completed.
+	 * 
+	 * @param src
+	 *            the buffer to write, must not be <code>null</code>
+	 * @throws IOException
+	 *             if this key is not valid or an unexpected I/O error occurs
+	 */
+	void write(@Nonnull ByteBuffer src) throws IOException;
+
+	/**
+	 * Cancels the registration. No further events are dispatched for this key, writes that were
+	 * not completed yet are discarded. The connection stays open. If this key is already
+	 * cancelled, this method has no effect.
+	 */
+	void cancel();
+
+	/**
+	 * Returns <code>true</code>, if this key is valid.
+	 * 
+	 * @return <ul>
+	 *         <li> <code>true</code> if events are dispatched for this key
+	 *         <li> <code>false</code> if this key was cancelled, its selector was closed or an I/O
+	 *         error occurred
+	 *         </ul>
+	 */
+	boolean isValid();
+}
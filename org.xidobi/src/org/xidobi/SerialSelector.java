@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * A multiplexor for serial connections. Many connections can be registered with one selector, the
+ * data they receive and the completion of their write operations is dispatched to a
+ * {@link SerialEventHandler} by the threads that call {@link #select()}. This way one or a few
+ * threads can serve hundreds of serial ports, instead of one thread per port that is blocked in
+ * {@link SerialConnection#read()}.
+ * <p>
+ * While a connection is registered, it is read by the selector. The read methods of the
+ * connection must not be used until its key was cancelled. Clients must call {@link #close()} to
+ * free the resources of the selector after usage!
+ * <p>
+ * <b>IMPORTANT</b> Platform integrators should provide an implementation of this interface. The
+ * implementing class must be named {@code org.xidobi.SerialSelectorImpl}, in order to be
+ * instantiable for the {@link SerialPortProvider}!
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialSelectionKey
+ * @see SerialEventHandler
+ * @see SerialPortProvider#openSelector()
+ */
+public interface SerialSelector extends Closeable {
+
+	/**
+	 * Registers the given connection with this selector. The data that is received by the
+	 * connection and the completion of writes, that were started by
+	 * {@link SerialSelectionKey#write(java.nio.ByteBuffer)}, are dispatched to the given handler.
+	 * 
+	 * @param connection
+	 *            the connection to register, must not be <code>null</code>
+	 * @param handler
+	 *            receives the events of the connection, must not be <code>null</code>
+	 * @return the key that represents the registration, never <code>null</code>
+	 * @throws IOException
+	 *             if this selector or the connection was closed or an unexpected I/O error occurs
+	 * @exception IllegalArgumentException
+	 *                if the connection is already registered or it isn't supported by this
+	 *                selector, e.g. because it was opened by another implementation
+	 */
+	@Nonnull
+	SerialSelectionKey register(@Nonnull SerialConnection connection, @Nonnull SerialEventHandler handler) throws IOException;
+
+	/**
+	 * Blocks until at least one event was dispatched, {@link #wakeup()} is called or this selector
+	 * is closed. All events that are available are dispatched by the calling thread.
+	 * <p>
+	 * This method may be called by several threads. The events of one connection are never
+	 * dispatched concurrently.
+	 * 
+	 * @return the number of events that were dispatched
+	 * @throws IOException
+	 *             if this selector was closed or an unexpected I/O error occurs
+	 */
+	int select() throws IOException;
+
+	/**
+	 * Blocks until at least one event was dispatched, {@link #wakeup()} is called, this selector
+	 * is closed or the given timeout elapsed. All events that are available are dispatched by the
+	 * calling thread.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait in milliseconds, <code>0</code> dispatches only the
+	 *            events that are available without waiting
+	 * @return the number of events that were dispatched
+	 * @throws IOException
+	 *             if this selector was closed or an unexpected I/O error occurs
+	 * @see #select()
+	 */
+	int select(@Nonnegative int timeout) throws IOException;
+
+	/**
+	 * Causes the first selection operation that is blocked to return immediately. If no selection
+	 * operation is in progress, the next one will return immediately.
+	 */
+	void wakeup();
+
+	/**
+	 * Returns <code>true</code>, if this selector is closed.
+	 * 
+	 * @return <ul>
+	 *         <li> <code>true</code> if this selector is closed
+	 *         <li> <code>false</code> if this selector is open
+	 *         </ul>
+	 */
+	boolean isClosed();
+
+	/**
+	 * Closes this selector. All keys are cancelled, the registered connections stay open.
+	 * Selection operations that are in progress return immediately.
+	 * 
+	 * @throws IOException
+	 *             if an unexpected I/O error occurs
+	 */
+	void close() throws IOException;
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Decodes frames, that end with a delimiter, e.g. <code>CR LF</code>. The delimiter belongs to
+ * the frame.
+ * 
+ * @author Christian Schwarz
+ */
+public final class DelimiterFrameDecoder implements FrameDecoder {
+
+	/** the bytes that end a frame */
+	@Nonnull
+	private final byte[] delimiter;
+
+	/**
+	 * Creates a decoder for frames, that end with the given delimiter.
+	 * 
+	 * @param delimiter
+	 *            the bytes that end a frame, must not be <code>null</code> or empty
+	 */
+	public DelimiterFrameDecoder(@Nonnull byte... delimiter) {
+		checkArgumentNotNull(delimiter, "delimiter");
+		checkArgument(delimiter.length > 0, "delimiter", "Expected at least one byte!");
+		this.delimiter = delimiter.clone();
+	}
+
+	/** {@inheritDoc} */
+	public int decode(@Nonnull ByteBuffer received, boolean idle) {
+		int start = received.position();
+		int last = received.limit() - delimiter.length;
+		for (int i = start; i <= last; i++)
+			if (matchesAt(received, i))
+				return i - start + delimiter.length;
+		return INCOMPLETE;
+	}
+
+	/** Returns <code>true</code>, if the delimiter starts at the given index of the buffer. */
+	private boolean matchesAt(ByteBuffer received, int index) {
+		for (int i = 0; i < delimiter.length; i++)
+			if (received.get(index + i) != delimiter[i])
+				return false;
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	public long getIdleTimeout() {
+		return 0;
+	}
+}
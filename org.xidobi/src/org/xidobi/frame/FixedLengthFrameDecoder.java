@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static org.xidobi.spi.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Decodes frames, that all have the same length.
+ * 
+ * @author Christian Schwarz
+ */
+public final class FixedLengthFrameDecoder implements FrameDecoder {
+
+	/** the length of each frame */
+	private final int frameLength;
+
+	/**
+	 * Creates a decoder for frames of the given length.
+	 * 
+	 * @param frameLength
+	 *            the length of each frame, must be greater than 0
+	 */
+	public FixedLengthFrameDecoder(@Nonnegative int frameLength) {
+		checkArgument(frameLength > 0, "frameLength", "Expected a value greater than 0!");
+		this.frameLength = frameLength;
+	}
+
+	/** {@inheritDoc} */
+	public int decode(@Nonnull ByteBuffer received, boolean idle) {
+		if (received.remaining() < frameLength)
+			return INCOMPLETE;
+		return frameLength;
+	}
+
+	/** {@inheritDoc} */
+	public long getIdleTimeout() {
+		return 0;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Determines the boundaries of the frames of a protocol in the received bytes. A decoder is used
+ * by a {@link FrameReader}, which calls it whenever bytes were received, until it returns the
+ * length of a complete frame.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see FrameReader
+ */
+public interface FrameDecoder {
+
+	/** returned by {@link #decode(ByteBuffer, boolean)}, if more bytes are needed */
+	int INCOMPLETE = -1;
+
+	/**
+	 * Returns the length of the frame, that starts at the position of the given buffer, if all of
+	 * its bytes were received. The received bytes are between the position and the limit of the
+	 * buffer. The decoder may change the position and the limit, but must not modify the content
+	 * of the buffer.
+	 * 
+	 * @param received
+	 *            the received bytes, that don't belong to a previous frame, never
+	 *            <code>null</code>
+	 * @param idle
+	 *            <code>true</code> if no bytes were received for the time returned by
+	 *            {@link #getIdleTimeout()}
+	 * @return the length of the complete frame, greater than 0 and not greater than the number of
+	 *         received bytes, or {@link #INCOMPLETE}
+	 * @throws IOException
+	 *             if the received bytes can't be the start of a valid frame
+	 */
+	int decode(@Nonnull ByteBuffer received, boolean idle) throws IOException;
+
+	/**
+	 * Returns the time without received bytes, that completes a frame, in nanoseconds.
+	 * 
+	 * @return the idle time in nanoseconds, or 0 if frames are not completed by time
+	 */
+	@Nonnegative
+	long getIdleTimeout();
+}
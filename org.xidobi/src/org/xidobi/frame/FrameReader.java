@@ -0,0 +1,189 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.xidobi.ReadAheadSerialConnection;
+import org.xidobi.SerialConnection;
+
+/**
+ * Reads complete frames from a {@link SerialConnection}. The boundaries of the frames are
+ * determined by a {@link FrameDecoder}.
+ * <p>
+ * The reader receives the bytes into one direct buffer, that is reused for all frames. A frame is
+ * returned as a slice of this buffer, so its bytes are not copied. The slice is only valid until
+ * the next call of {@link #readFrame()}. Only the bytes of an incomplete frame are moved to the
+ * start of the buffer, when the end of the buffer is reached.
+ * <p>
+ * If the decoder rejects the received bytes or a frame doesn't fit into the buffer, the buffered
+ * bytes are discarded and an {@link IOException} is thrown. The next call of {@link #readFrame()}
+ * starts with the next received bytes.
+ * <p>
+ * This class is not thread-safe.
+ * 
+ * @author Christian Schwarz
+ */
+public class FrameReader {
+
+	/** the underlying connection */
+	@Nonnull
+	private final SerialConnection connection;
+	/** determines the boundaries of the frames */
+	@Nonnull
+	private final FrameDecoder decoder;
+
+	/** receives the bytes from the connection, its content is only changed by the connection */
+	@Nonnull
+	private final ByteBuffer buffer;
+	/** the view of the received bytes, that is passed to the decoder */
+	@Nonnull
+	private final ByteBuffer received;
+
+	/** the index of the first byte in the buffer, that doesn't belong to a returned frame */
+	private int start;
+	/** the index after the last received byte in the buffer */
+	private int end;
+
+	/**
+	 * Creates a reader for frames of the given connection.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>. It must be a
+	 *            {@link ReadAheadSerialConnection}, if the decoder completes frames by time.
+	 * @param decoder
+	 *            determines the boundaries of the frames, must not be <code>null</code>
+	 * @param maxFrameLength
+	 *            the maximum length of a frame, which is the size of the buffer, must be greater
+	 *            than 0
+	 */
+	public FrameReader(	@Nonnull SerialConnection connection,
+						@Nonnull FrameDecoder decoder,
+						@Nonnegative int maxFrameLength) {
+		this.connection = checkArgumentNotNull(connection, "connection");
+		this.decoder = checkArgumentNotNull(decoder, "decoder");
+		checkArgument(maxFrameLength > 0, "maxFrameLength", "Expected a value greater than 0!");
+		checkArgument(decoder.getIdleTimeout() == 0 || connection instanceof ReadAheadSerialConnection, "connection", "Expected a ReadAheadSerialConnection, because the decoder completes frames by time!");
+
+		buffer = ByteBuffer.allocateDirect(maxFrameLength);
+		received = buffer.duplicate();
+	}
+
+	/**
+	 * Reads the next complete frame. This method blocks until all bytes of the frame were
+	 * received.
+	 * 
+	 * @return the frame between its position and its limit, it is only valid until the next call
+	 *         of this method, never <code>null</code>
+	 * @throws IOException
+	 *             if the port was closed, the received bytes are not a valid frame or an unexpected
+	 *             I/O error occurs
+	 */
+	@Nonnull
+	public ByteBuffer readFrame() throws IOException {
+		boolean idle = false;
+		while (true) {
+			if (end > start) {
+				int length = decode(idle);
+				if (length != FrameDecoder.INCOMPLETE)
+					return nextFrame(length);
+			}
+
+			if (end == buffer.capacity())
+				makeSpace();
+			idle = receive() == 0;
+		}
+	}
+
+	/** Passes the received bytes to the decoder and returns the length of the complete frame. */
+	private int decode(boolean idle) throws IOException {
+		received.limit(end);
+		received.position(start);
+
+		int length;
+		try {
+			length = decoder.decode(received, idle);
+		}
+		catch (IOException e) {
+			discard();
+			throw e;
+		}
+
+		if (length != FrameDecoder.INCOMPLETE && (length <= 0 || length > end - start)) {
+			discard();
+			throw new IOException("The decoder returned an invalid frame length: " + length + "!");
+		}
+		return length;
+	}
+
+	/** Returns the frame of the given length as slice of the buffer. */
+	private ByteBuffer nextFrame(int length) {
+		received.limit(start + length);
+		received.position(start);
+		start += length;
+		return received.slice();
+	}
+
+	/** Moves the bytes of the incomplete frame to the start of the buffer. */
+	private void makeSpace() throws IOException {
+		if (start == 0) {
+			discard();
+			throw new IOException("The frame of port " + connection.getPort().getPortName() + " exceeds " + buffer.capacity() + " bytes!");
+		}
+
+		received.limit(end);
+		received.position(start);
+		buffer.clear();
+		buffer.put(received);
+		end -= start;
+		start = 0;
+	}
+
+	/**
+	 * Reads from the connection into the free space of the buffer. If the decoder completes frames
+	 * by time and bytes were already received, it waits at most the idle time.
+	 * 
+	 * @return the number of bytes read, 0 if the idle time elapsed
+	 */
+	private int receive() throws IOException {
+		buffer.limit(buffer.capacity());
+		buffer.position(end);
+
+		int length;
+		long idleTimeout = decoder.getIdleTimeout();
+		if (idleTimeout > 0 && end > start)
+			length = ((ReadAheadSerialConnection) connection).read(buffer, idleTimeout, NANOSECONDS);
+		else
+			length = connection.read(buffer);
+
+		end += length;
+		return length;
+	}
+
+	/** Discards the buffered bytes. */
+	private void discard() {
+		start = 0;
+		end = 0;
+	}
+}
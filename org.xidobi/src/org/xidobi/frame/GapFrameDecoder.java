@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Decodes frames, that are separated by a minimum time without transmission, like the frames of
+ * Modbus RTU. All bytes, that were received before the gap, belong to the frame.
+ * <p>
+ * <b>NOTE:</b> The gap is detected by the {@link FrameReader} with a timed read operation, so the
+ * reader must read from a {@link org.xidobi.ReadAheadSerialConnection ReadAheadSerialConnection}.
+ * Its accuracy depends on the scheduling of the threads, so the gap should not be shorter than a
+ * few milliseconds.
+ * 
+ * @author Christian Schwarz
+ */
+public final class GapFrameDecoder implements FrameDecoder {
+
+	/** the number of bits per character of Modbus RTU: start, 8 data, parity or stop, stop */
+	private static final int MODBUS_RTU_BITS_PER_CHARACTER = 11;
+	/** the fixed gap of Modbus RTU in nanoseconds, for baud rates above 19200 */
+	private static final long MODBUS_RTU_FIXED_GAP = 1750000;
+
+	/** the minimum time without transmission between two frames in nanoseconds */
+	private final long gap;
+
+	/**
+	 * Creates a decoder for frames, that are separated by the given time without transmission.
+	 * 
+	 * @param gap
+	 *            the minimum time without transmission between two frames, must be greater than 0
+	 * @param unit
+	 *            the unit of the gap, must not be <code>null</code>
+	 */
+	public GapFrameDecoder(@Nonnegative long gap, @Nonnull TimeUnit unit) {
+		checkArgument(gap > 0, "gap", "Expected a value greater than 0!");
+		checkArgumentNotNull(unit, "unit");
+		this.gap = unit.toNanos(gap);
+	}
+
+	/**
+	 * Creates a decoder for Modbus RTU frames. The frames are separated by 3.5 character times,
+	 * above 19200 baud by 1.75 milliseconds.
+	 * 
+	 * @param baudRate
+	 *            the baud rate of the port, must be greater than 0
+	 * @return the decoder, never <code>null</code>
+	 */
+	@Nonnull
+	public static GapFrameDecoder forModbusRtu(@Nonnegative int baudRate) {
+		checkArgument(baudRate > 0, "baudRate", "Expected a value greater than 0!");
+		if (baudRate > 19200)
+			return new GapFrameDecoder(MODBUS_RTU_FIXED_GAP, TimeUnit.NANOSECONDS);
+		// 3.5 character times
+		long gap = 7 * MODBUS_RTU_BITS_PER_CHARACTER * 1000000000L / (2L * baudRate);
+		return new GapFrameDecoder(gap, TimeUnit.NANOSECONDS);
+	}
+
+	/** {@inheritDoc} */
+	public int decode(@Nonnull ByteBuffer received, boolean idle) {
+		if (!idle)
+			return INCOMPLETE;
+		return received.remaining();
+	}
+
+	/** {@inheritDoc} */
+	public long getIdleTimeout() {
+		return gap;
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.frame;
+
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+/**
+ * Decodes frames, whose header contains the length of the frame. The length of a frame is
+ * 
+ * <pre>
+ * lengthFieldOffset + lengthFieldLength + value of the length field + lengthAdjustment
+ * </pre>
+ * 
+ * So the length adjustment is 0, if the length field contains the number of bytes that follow it.
+ * The header belongs to the frame.
+ * 
+ * @author Christian Schwarz
+ */
+public final class LengthFieldFrameDecoder implements FrameDecoder {
+
+	/** the index of the length field in the frame */
+	private final int lengthFieldOffset;
+	/** the number of bytes of the length field, 1, 2 or 4 */
+	private final int lengthFieldLength;
+	/** added to the value of the length field */
+	private final int lengthAdjustment;
+	/** the byte order of the length field */
+	@Nonnull
+	private final ByteOrder byteOrder;
+
+	/**
+	 * Creates a decoder for frames with a length field.
+	 * 
+	 * @param lengthFieldOffset
+	 *            the index of the length field in the frame, must be >=0
+	 * @param lengthFieldLength
+	 *            the number of bytes of the length field, must be 1, 2 or 4. A length field of 1
+	 *            or 2 bytes is unsigned.
+	 * @param lengthAdjustment
+	 *            added to the value of the length field, e.g. the length of a trailing checksum,
+	 *            that isn't included in the value
+	 * @param byteOrder
+	 *            the byte order of the length field, must not be <code>null</code>
+	 */
+	public LengthFieldFrameDecoder(	@Nonnegative int lengthFieldOffset,
+									int lengthFieldLength,
+									int lengthAdjustment,
+									@Nonnull ByteOrder byteOrder) {
+		checkArgument(lengthFieldOffset >= 0, "lengthFieldOffset", "Expected a value greater or equal to 0!");
+		checkArgument(lengthFieldLength == 1 || lengthFieldLength == 2 || lengthFieldLength == 4, "lengthFieldLength", "Expected 1, 2 or 4!");
+		this.lengthFieldOffset = lengthFieldOffset;
+		this.lengthFieldLength = lengthFieldLength;
+		this.lengthAdjustment = lengthAdjustment;
+		this.byteOrder = checkArgumentNotNull(byteOrder, "byteOrder");
+	}
+
+	/** {@inheritDoc} */
+	public int decode(@Nonnull ByteBuffer received, boolean idle) throws IOException {
+		int headerLength = lengthFieldOffset + lengthFieldLength;
+		if (received.remaining() < headerLength)
+			return INCOMPLETE;
+
+		long frameLength = headerLength + readLengthField(received) + lengthAdjustment;
+		if (frameLength < headerLength || frameLength > Integer.MAX_VALUE)
+			throw new IOException("The length field of the frame is invalid, the frame would have " + frameLength + " bytes!");
+		if (received.remaining() < frameLength)
+			return INCOMPLETE;
+		return (int) frameLength;
+	}
+
+	/** Returns the unsigned value of the length field. */
+	private long readLengthField(ByteBuffer received) {
+		ByteOrder order = received.order();
+		received.order(byteOrder);
+		try {
+			int index = received.position() + lengthFieldOffset;
+			switch (lengthFieldLength) {
+				case 1:
+					return received.get(index) & 0xffL;
+				case 2:
+					return received.getShort(index) & 0xffffL;
+				default:
+					return received.getInt(index) & 0xffffffffL;
+			}
+		}
+		finally {
+			received.order(order);
+		}
+	}
+
+	/** {@inheritDoc} */
+	public long getIdleTimeout() {
+		return 0;
+	}
+}
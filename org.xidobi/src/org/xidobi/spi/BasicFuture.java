@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Basic implementation of a {@link Future}, that is completed by the code that performs the
+ * operation, e.g. by the handler of a {@link org.xidobi.SerialSelector SerialSelector}. The future
+ * can be completed only once, later attempts to complete it are ignored.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @param <V>
+ *            the type of the result
+ */
+public class BasicFuture<V> implements Future<V> {
+
+	/** released when this future is done */
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	/** the result or <code>null</code> */
+	@Nullable
+	private V result;
+	/** the cause of the failure or <code>null</code> */
+	@Nullable
+	private Throwable failure;
+	/** <code>true</code> if this future was cancelled */
+	private boolean isCancelled;
+
+	/**
+	 * Completes this future with the given result.
+	 * 
+	 * @param result
+	 *            the result, may be <code>null</code>
+	 * @return <code>true</code>, if this future was completed by this call
+	 */
+	public final boolean complete(@Nullable V result) {
+		synchronized (done) {
+			if (isDone())
+				return false;
+			this.result = result;
+			done.countDown();
+			return true;
+		}
+	}
+
+	/**
+	 * Completes this future with the given failure, it is thrown by {@link #get()} wrapped in an
+	 * {@link ExecutionException}.
+	 * 
+	 * @param cause
+	 *            the cause of the failure, must not be <code>null</code>
+	 * @return <code>true</code>, if this future was completed by this call
+	 */
+	public final boolean fail(@Nonnull Throwable cause) {
+		checkArgumentNotNull(cause, "cause");
+		synchronized (done) {
+			if (isDone())
+				return false;
+			failure = cause;
+			done.countDown();
+			return true;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * <b>NOTE:</b> The operation itself is not interrupted, only the result is discarded.
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		synchronized (done) {
+			if (isDone())
+				return false;
+			isCancelled = true;
+			done.countDown();
+			return true;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final boolean isCancelled() {
+		synchronized (done) {
+			return isCancelled;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/** {@inheritDoc} */
+	public final V get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	/** {@inheritDoc} */
+	public final V get(long timeout, @Nonnull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit))
+			throw new TimeoutException("The operation wasn't completed within " + timeout + " " + unit + "!");
+		return getResult();
+	}
+
+	/** Returns the result, this future must be done. */
+	private V getResult() throws ExecutionException {
+		synchronized (done) {
+			if (isCancelled)
+				throw new CancellationException("The operation was cancelled!");
+			if (failure != null)
+				throw new ExecutionException(failure);
+			return result;
+		}
+	}
+}
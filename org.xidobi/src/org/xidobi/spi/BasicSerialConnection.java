@@ -15,14 +15,22 @@
  */
 package org.xidobi.spi;
 
+import static java.lang.System.nanoTime;
+import static org.xidobi.spi.Preconditions.checkArgument;
 import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.xidobi.SerialConnection;
 import org.xidobi.SerialPort;
@@ -32,6 +40,9 @@ import org.xidobi.SerialPort;
  * behaviour when the port is closed.
  * <p>
  * The class uses a {@link Reader} and {@link Writer}, which implement the different I/O operations.
+ * The I/O operations are recorded in the {@link SerialConnectionMetrics} of the connection. For
+ * write operations only the time they blocked the caller is recorded here, the completion latency
+ * is recorded by the {@link Writer}, that knows when the bytes were actually written.
  * 
  * @author Christian Schwarz
  * @author Tobias Breler
@@ -61,6 +72,20 @@ public class BasicSerialConnection implements SerialConnection {
 	@Nonnull
 	private final Writer writer;
 
+	/** the metrics of the I/O operations, never <code>null</code> */
+	@Nonnull
+	private final SerialConnectionMetrics metrics;
+
+	/** the channel view of this connection */
+	@Nonnull
+	private final SerialByteChannel channel = new SerialByteChannel(this);
+	/** the input stream view of this connection */
+	@Nonnull
+	private final InputStream inputStream = new SerialInputStream(channel);
+	/** the output stream view of this connection */
+	@Nonnull
+	private final OutputStream outputStream = new SerialOutputStream(this);
+
 	/**
 	 * Creates a new serial connection instance for the given serial port.
 	 * 
@@ -77,10 +102,35 @@ public class BasicSerialConnection implements SerialConnection {
 	protected BasicSerialConnection(@Nonnull SerialPort port,
 									@Nonnull Reader reader,
 									@Nonnull Writer writer) {
+		this(port, reader, writer, new SerialConnectionMetrics());
+	}
+
+	/**
+	 * Creates a new serial connection instance for the given serial port, that records its I/O
+	 * operations in the given metrics. The metrics may be shared with the reader and writer, in
+	 * order to record system dependent values.
+	 * 
+	 * @param port
+	 *            the serial port, must not be <code>null</code>
+	 * @param reader
+	 *            read operation, must not be <code>null</code>
+	 * @param writer
+	 *            write operation, must not be <code>null</code>
+	 * @param metrics
+	 *            the metrics of the I/O operations, must not be <code>null</code>
+	 * 
+	 * @exception IllegalArgumentException
+	 *                if one of the arguments is <code>null</code>
+	 */
+	protected BasicSerialConnection(@Nonnull SerialPort port,
+									@Nonnull Reader reader,
+									@Nonnull Writer writer,
+									@Nonnull SerialConnectionMetrics metrics) {
 
 		this.port = checkArgumentNotNull(port, "port");
 		this.reader = checkArgumentNotNull(reader, "reader");
 		this.writer = checkArgumentNotNull(writer, "writer");
+		this.metrics = checkArgumentNotNull(metrics, "metrics");
 	}
 
 	/**
@@ -93,12 +143,90 @@ public class BasicSerialConnection implements SerialConnection {
 		return port;
 	}
 
+	/**
+	 * Returns the metrics of the I/O operations of this serial connection. The metrics are
+	 * available even after this connection was closed.
+	 * 
+	 * @return the metrics, never <code>null</code>
+	 */
+	@Nonnull
+	public final SerialConnectionMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Registers the metrics of this serial connection as MBean at the platform MBean server, see
+	 * {@link SerialConnectionMetrics#registerMBean(String)}. The MBean is unregistered, when this
+	 * connection is closed.
+	 * 
+	 * @return the name of the registered MBean, never <code>null</code>
+	 * @throws JMException
+	 *             if the MBean can't be registered
+	 */
+	@Nonnull
+	public final ObjectName registerMetricsMBean() throws JMException {
+		return metrics.registerMBean(port.getPortName());
+	}
+
 	/** {@inheritDoc} */
 	public final void write(@Nonnull byte[] data) throws IOException {
 		checkArgumentNotNull(data, "data");
 		ensurePortIsOpen();
 		try {
+			long start = nanoTime();
 			writer.write(data);
+			metrics.recordWrite(data.length, nanoTime() - start);
+		}
+		catch (NativeCodeException e) {
+			// NOTE: If a NativeCodeException is thrown, the port must be closed in order to dispose
+			// all resources.
+			close();
+			throw e;
+		}
+		catch (IOException e) {
+			// NOTE: If a IOException is thrown, the port must be closed in order to dispose
+			// all resources.
+			close();
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final void write(@Nonnull byte[] data, int offset, int length) throws IOException {
+		checkArgumentNotNull(data, "data");
+		checkArgument(offset >= 0 && offset <= data.length, "offset", "Expected a value between 0 and data.length!");
+		checkArgument(length >= 0 && length <= data.length - offset, "length", "Expected a value between 0 and data.length - offset!");
+		ensurePortIsOpen();
+		try {
+			long start = nanoTime();
+			writer.write(data, offset, length);
+			metrics.recordWrite(length, nanoTime() - start);
+		}
+		catch (NativeCodeException e) {
+			// NOTE: If a NativeCodeException is thrown, the port must be closed in order to dispose
+			// all resources.
+			close();
+			throw e;
+		}
+		catch (IOException e) {
+			// NOTE: If a IOException is thrown, the port must be closed in order to dispose
+			// all resources.
+			close();
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final void write(@Nonnull ByteBuffer... srcs) throws IOException {
+		checkArgumentNotNull(srcs, "srcs");
+		long length = 0;
+		for (ByteBuffer src : srcs)
+			length += checkArgumentNotNull(src, "srcs").remaining();
+		ensurePortIsOpen();
+		try {
+			long start = nanoTime();
+			writer.write(srcs);
+			metrics.recordWrite(length, nanoTime() - start);
 		}
 		catch (NativeCodeException e) {
 			// NOTE: If a NativeCodeException is thrown, the port must be closed in order to dispose
@@ -119,7 +247,10 @@ public class BasicSerialConnection implements SerialConnection {
 	public final byte[] read() throws IOException {
 		ensurePortIsOpen();
 		try {
-			return reader.read();
+			long start = nanoTime();
+			byte[] data = reader.read();
+			metrics.recordRead(data.length, nanoTime() - start);
+			return data;
 		}
 		catch (NativeCodeException e) {
 			// NOTE: If a NativeCodeException is thrown, the port must be closed in order to dispose
@@ -135,12 +266,58 @@ public class BasicSerialConnection implements SerialConnection {
 		}
 	}
 
+	/** {@inheritDoc} */
+	public final int read(@Nonnull ByteBuffer dst) throws IOException {
+		checkArgumentNotNull(dst, "dst");
+		checkArgument(!dst.isReadOnly(), "dst", "Expected a writable buffer!");
+		ensurePortIsOpen();
+		if (!dst.hasRemaining())
+			return 0;
+		try {
+			long start = nanoTime();
+			int numberOfBytesRead = reader.read(dst);
+			metrics.recordRead(numberOfBytesRead, nanoTime() - start);
+			return numberOfBytesRead;
+		}
+		catch (NativeCodeException e) {
+			// NOTE: If a NativeCodeException is thrown, the port must be closed in order to dispose
+			// all resources.
+			close();
+			throw e;
+		}
+		catch (IOException e) {
+			// NOTE: If a IOException is thrown, the port must be closed in order to dispose
+			// all resources.
+			close();
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public final InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public final OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public final ByteChannel getChannel() {
+		return channel;
+	}
+
 	/** {@inheritDoc} */
 	public final void close() throws IOException {
 		closeLock.lock();
 		try {
 			if (isClosed)
 				return;
+			long start = nanoTime();
 			//@formatter:off
 			try {
 				// close the reader and writer
@@ -148,10 +325,13 @@ public class BasicSerialConnection implements SerialConnection {
 			} finally { try {
 				// close system dependent resources
 				closeInternal();
-			} finally {
+			} finally { try {
 				// dispose the allocated resources of the reader and writer
 				disposeReaderAndWriter();
-			}}
+			} finally {
+				metrics.recordClose(nanoTime() - start);
+				metrics.unregisterMBean();
+			}}}
 			// @formatter:on
 		}
 		finally {
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialEventHandler;
+import org.xidobi.SerialSelectionKey;
+import org.xidobi.SerialSelector;
+
+/**
+ * Basic implementation of a {@link SerialSelectionKey}, it keeps track of the validity of the key
+ * and queues the buffers to write, so that only one write operation is in progress at a time.
+ * Subclasses implement the system dependent operations.
+ * 
+ * @author Christian Schwarz
+ */
+public abstract class BasicSerialSelectionKey implements SerialSelectionKey {
+
+	/** the selector that created this key */
+	@Nonnull
+	private final SerialSelector selector;
+	/** the registered connection */
+	@Nonnull
+	private final SerialConnection connection;
+	/** receives the events of the connection */
+	@Nonnull
+	private final SerialEventHandler handler;
+
+	/** the buffers to write, the head of the queue is currently written */
+	private final Queue<ByteBuffer> pendingWrites = new LinkedList<ByteBuffer>();
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if events are dispatched for this key
+	 * <li> <code>false</code> if this key was cancelled
+	 * </ul>
+	 */
+	private volatile boolean isValid = true;
+
+	/**
+	 * Creates a new key.
+	 * 
+	 * @param selector
+	 *            the selector that created this key, must not be <code>null</code>
+	 * @param connection
+	 *            the registered connection, must not be <code>null</code>
+	 * @param handler
+	 *            receives the events of the connection, must not be <code>null</code>
+	 */
+	protected BasicSerialSelectionKey(	@Nonnull SerialSelector selector,
+										@Nonnull SerialConnection connection,
+										@Nonnull SerialEventHandler handler) {
+		this.selector = checkArgumentNotNull(selector, "selector");
+		this.connection = checkArgumentNotNull(connection, "connection");
+		this.handler = checkArgumentNotNull(handler, "handler");
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public final SerialConnection getConnection() {
+		return connection;
+	}
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public final SerialSelector getSelector() {
+		return selector;
+	}
+
+	/** {@inheritDoc} */
+	public final void write(@Nonnull ByteBuffer src) throws IOException {
+		checkArgumentNotNull(src, "src");
+
+		synchronized (pendingWrites) {
+			if (!isValid)
+				throw new IOException("The selection key of port " + connection.getPort().getPortName() + " is not valid!");
+			pendingWrites.add(src);
+			if (pendingWrites.size() > 1)
+				// the buffer is written, when the previous writes are completed
+				return;
+		}
+
+		try {
+			startWrite(src);
+		}
+		catch (IOException e) {
+			// NOTE: The key is cancelled, because the following writes would fail too.
+			cancel();
+			throw e;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public final void cancel() {
+		if (invalidate())
+			cancelInternal();
+	}
+
+	/** {@inheritDoc} */
+	public final boolean isValid() {
+		return isValid;
+	}
+
+	/**
+	 * Dispatches the received data to the handler, if this key is valid.
+	 * 
+	 * @param data
+	 *            the received bytes, must not be <code>null</code>
+	 */
+	protected final void fireDataReceived(@Nonnull ByteBuffer data) {
+		if (isValid)
+			handler.dataReceived(this, data);
+	}
+
+	/**
+	 * Must be called by subclasses, when the write operation that was started by
+	 * {@link #startWrite(ByteBuffer)} is completed. The completion is dispatched to the handler and
+	 * the next write operation is started, if there is one. Nothing happens, if this key isn't
+	 * valid.
+	 */
+	protected final void fireWriteCompleted() {
+		ByteBuffer src;
+		ByteBuffer next;
+		synchronized (pendingWrites) {
+			if (!isValid)
+				return;
+			src = pendingWrites.poll();
+			next = pendingWrites.peek();
+		}
+		if (src == null)
+			throw new IllegalStateException("No write operation is in progress!");
+
+		src.position(src.limit());
+		try {
+			handler.writeCompleted(this, src);
+		}
+		finally {
+			if (next != null)
+				startNextWrite(next);
+		}
+	}
+
+	/** Starts the next write operation, the key is cancelled if it can't be started. */
+	private void startNextWrite(ByteBuffer next) {
+		try {
+			startWrite(next);
+		}
+		catch (IOException e) {
+			fireFailed(e);
+		}
+	}
+
+	/**
+	 * Cancels this key and dispatches the given error to the handler. Nothing happens, if this key
+	 * is already cancelled.
+	 * 
+	 * @param cause
+	 *            the I/O error, must not be <code>null</code>
+	 */
+	protected final void fireFailed(@Nonnull IOException cause) {
+		if (invalidate()) {
+			cancelInternal();
+			notifyFailed(cause);
+		}
+	}
+
+	/**
+	 * Dispatches the given error to the handler, even if this key is already cancelled. Subclasses
+	 * can use this method, if the error was detected by another thread, that must not call the
+	 * handler.
+	 * 
+	 * @param cause
+	 *            the I/O error, must not be <code>null</code>
+	 */
+	protected final void notifyFailed(@Nonnull IOException cause) {
+		handler.failed(this, cause);
+	}
+
+	/**
+	 * Marks this key as cancelled and discards the writes that were not completed.
+	 * 
+	 * @return <code>true</code>, if this key was valid
+	 */
+	protected final boolean invalidate() {
+		synchronized (pendingWrites) {
+			if (!isValid)
+				return false;
+			isValid = false;
+			pendingWrites.clear();
+			return true;
+		}
+	}
+
+	/**
+	 * Starts writing the remaining bytes of the given buffer, the position of the buffer must not
+	 * be modified. The subclass must call {@link #fireWriteCompleted()}, when all bytes were
+	 * written. This method is only called if no other write operation is in progress.
+	 * 
+	 * @param src
+	 *            the buffer to write, never <code>null</code>
+	 * @throws IOException
+	 *             if the write operation couldn't be started
+	 */
+	protected abstract void startWrite(@Nonnull ByteBuffer src) throws IOException;
+
+	/**
+	 * Subclasses must implement this method in order to stop dispatching events, e.g. to remove
+	 * the connection from the native selector. It is called once, when this key is cancelled.
+	 * <p>
+	 * <b>IMPORTANT:</b> Don't call this method yourself!
+	 */
+	protected abstract void cancelInternal();
+}
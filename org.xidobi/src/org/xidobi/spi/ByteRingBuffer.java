@@ -0,0 +1,355 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.lang.Math.min;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A bounded ring buffer of bytes in off-heap memory, that passes bytes from one producer thread to
+ * one consumer thread without locks. The producer reads into the region returned by
+ * {@link #writableRegion()} and publishes the bytes with {@link #commitWrite(int)}, the consumer
+ * takes them with {@link #read(ByteBuffer)} or {@link #read(byte[], int, int)}.
+ * <p>
+ * Each side only writes its own volatile index and caches the index of the other side, so in most
+ * cases a transfer costs one volatile write and no volatile read of the other side. A thread that
+ * has to wait, because the buffer is empty or full, is parked until the other side made progress
+ * or the buffer was closed.
+ * <p>
+ * <b>NOTE:</b> At any time only one thread may act as producer and only one thread may act as
+ * consumer.
+ * 
+ * @author Christian Schwarz
+ */
+public final class ByteRingBuffer {
+
+	/** the memory of the ring */
+	@Nonnull
+	private final ByteBuffer buffer;
+	/** the capacity minus 1, to map an index to a position in the ring */
+	private final int mask;
+	/** the view of the producer on the ring, it is reused for every write */
+	@Nonnull
+	private final ByteBuffer writeView;
+	/** the view of the consumer on the ring, it is reused for every read */
+	@Nonnull
+	private final ByteBuffer readView;
+
+	/** the number of bytes that were consumed, it is only written by the consumer */
+	private volatile long head;
+	/** the number of bytes that were published, it is only written by the producer */
+	private volatile long tail;
+	/** the last value of {@link #head} seen by the producer */
+	private long cachedHead;
+	/** the last value of {@link #tail} seen by the consumer */
+	private long cachedTail;
+
+	/** the consumer that waits for bytes or <code>null</code> */
+	@Nullable
+	private volatile Thread waitingConsumer;
+	/** the producer that waits for free space or <code>null</code> */
+	@Nullable
+	private volatile Thread waitingProducer;
+	/** <code>true</code> if the ring was closed */
+	private volatile boolean closed;
+
+	/**
+	 * Creates a ring buffer with the given capacity in off-heap memory.
+	 * 
+	 * @param capacity
+	 *            the capacity in bytes, must be a power of 2
+	 */
+	public ByteRingBuffer(@Nonnegative int capacity) {
+		checkArgument(capacity > 0 && (capacity & (capacity - 1)) == 0, "capacity", "Expected a power of 2!");
+
+		buffer = ByteBuffer.allocateDirect(capacity);
+		mask = capacity - 1;
+		writeView = buffer.duplicate();
+		readView = buffer.duplicate();
+	}
+
+	/**
+	 * Returns the capacity of this ring.
+	 * 
+	 * @return the capacity in bytes
+	 */
+	@Nonnegative
+	public int capacity() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * Returns the number of bytes, that were published but not yet consumed.
+	 * 
+	 * @return the number of readable bytes
+	 */
+	@Nonnegative
+	public int available() {
+		long h = head;
+		return (int) (tail - h);
+	}
+
+	// Producer ////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Returns a view of the contiguous free space of the ring, between its position and its limit.
+	 * The producer puts bytes into it and publishes them with {@link #commitWrite(int)}. The view
+	 * has no bytes remaining, if the ring is full. The same instance is returned by every call.
+	 * 
+	 * @return the free space, never <code>null</code>
+	 */
+	@Nonnull
+	public ByteBuffer writableRegion() {
+		long t = tail;
+		if (t - cachedHead == buffer.capacity())
+			cachedHead = head;
+
+		int free = buffer.capacity() - (int) (t - cachedHead);
+		int index = (int) t & mask;
+		int length = min(free, buffer.capacity() - index);
+
+		writeView.limit(index + length);
+		writeView.position(index);
+		return writeView;
+	}
+
+	/**
+	 * Publishes the given number of bytes, that were put into the region returned by
+	 * {@link #writableRegion()}, and wakes up the waiting consumer.
+	 * 
+	 * @param length
+	 *            the number of bytes to publish, must be >=0 and must not exceed the free space
+	 */
+	public void commitWrite(@Nonnegative int length) {
+		checkArgument(length >= 0 && length <= buffer.capacity() - (int) (tail - cachedHead), "length", "Expected a value between 0 and the free space!");
+		if (length == 0)
+			return;
+
+		tail += length;
+		unpark(waitingConsumer);
+	}
+
+	/**
+	 * Blocks the producer until the ring has free space or was closed.
+	 * 
+	 * @return <code>true</code> if the ring has free space, <code>false</code> if it was closed
+	 * @throws InterruptedIOException
+	 *             if the thread was interrupted
+	 */
+	public boolean awaitSpace() throws InterruptedIOException {
+		waitingProducer = Thread.currentThread();
+		try {
+			while (tail - head == buffer.capacity()) {
+				if (closed)
+					return false;
+				LockSupport.park();
+				if (Thread.interrupted())
+					throw new InterruptedIOException("The thread, that waits for free space, is interrupted!");
+			}
+			return !closed;
+		}
+		finally {
+			waitingProducer = null;
+		}
+	}
+
+	// Consumer ////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Transfers as many published bytes as possible into the given buffer and wakes up the waiting
+	 * producer. This method doesn't block.
+	 * 
+	 * @param dst
+	 *            the buffer to read into, must not be <code>null</code>
+	 * @return the number of bytes transferred, 0 if the ring is empty
+	 */
+	@Nonnegative
+	public int read(@Nonnull ByteBuffer dst) {
+		checkArgumentNotNull(dst, "dst");
+
+		long h = head;
+		int length = readable(h, dst.remaining());
+		int index = (int) h & mask;
+		int first = min(length, buffer.capacity() - index);
+
+		readView.limit(index + first);
+		readView.position(index);
+		dst.put(readView);
+		if (first < length) {
+			// the bytes wrap around the end of the ring
+			readView.limit(length - first);
+			readView.position(0);
+			dst.put(readView);
+		}
+
+		consumed(h, length);
+		return length;
+	}
+
+	/**
+	 * Transfers up to <code>length</code> published bytes into the given array and wakes up the
+	 * waiting producer. This method doesn't block.
+	 * 
+	 * @param b
+	 *            the array to read into, must not be <code>null</code>
+	 * @param offset
+	 *            the index of the first byte to write into the array, must be >=0 and <=
+	 *            <code>b.length</code>
+	 * @param length
+	 *            the maximum number of bytes to transfer, must be >=0 and <=
+	 *            <code>b.length - offset</code>
+	 * @return the number of bytes transferred, 0 if the ring is empty
+	 */
+	@Nonnegative
+	public int read(@Nonnull byte[] b, int offset, int length) {
+		checkArgumentNotNull(b, "b");
+		checkArgument(offset >= 0 && offset <= b.length, "offset", "Expected a value between 0 and b.length!");
+		checkArgument(length >= 0 && length <= b.length - offset, "length", "Expected a value between 0 and b.length - offset!");
+
+		long h = head;
+		int count = readable(h, length);
+		int index = (int) h & mask;
+		int first = min(count, buffer.capacity() - index);
+
+		readView.limit(index + first);
+		readView.position(index);
+		readView.get(b, offset, first);
+		if (first < count) {
+			// the bytes wrap around the end of the ring
+			readView.limit(count - first);
+			readView.position(0);
+			readView.get(b, offset + first, count - first);
+		}
+
+		consumed(h, count);
+		return count;
+	}
+
+	/**
+	 * Blocks the consumer until bytes were published or the ring was closed. Bytes that were
+	 * published before the ring was closed are still readable.
+	 * 
+	 * @return <code>true</code> if bytes are readable, <code>false</code> if the ring is empty and
+	 *         was closed
+	 * @throws InterruptedIOException
+	 *             if the thread was interrupted
+	 */
+	public boolean awaitData() throws InterruptedIOException {
+		return awaitData(false, 0);
+	}
+
+	/**
+	 * Blocks the consumer until bytes were published, the ring was closed or the given time has
+	 * elapsed. Bytes that were published before the ring was closed are still readable.
+	 * 
+	 * @param timeout
+	 *            the maximum time to wait
+	 * @param unit
+	 *            the unit of the timeout, must not be <code>null</code>
+	 * @return <code>true</code> if bytes are readable, <code>false</code> if the time elapsed or
+	 *         the ring is empty and was closed
+	 * @throws InterruptedIOException
+	 *             if the thread was interrupted
+	 */
+	public boolean awaitData(long timeout, @Nonnull TimeUnit unit) throws InterruptedIOException {
+		checkArgumentNotNull(unit, "unit");
+		return awaitData(true, System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	/** Parks the consumer until bytes are readable, the ring was closed or the deadline passed. */
+	private boolean awaitData(boolean timed, long deadline) throws InterruptedIOException {
+		if (readable(head, 1) > 0)
+			return true;
+
+		waitingConsumer = Thread.currentThread();
+		try {
+			while (tail == head) {
+				if (closed)
+					// a last check, the producer may have published before the ring was closed
+					return tail != head;
+				if (!timed)
+					LockSupport.park();
+				else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						return false;
+					LockSupport.parkNanos(remaining);
+				}
+				if (Thread.interrupted())
+					throw new InterruptedIOException("The thread, that waits for data, is interrupted!");
+			}
+			return true;
+		}
+		finally {
+			waitingConsumer = null;
+		}
+	}
+
+	/**
+	 * Returns the number of readable bytes up to the wanted number, the index of the producer is
+	 * only read if the cached index isn't sufficient.
+	 */
+	private int readable(long h, int wanted) {
+		if (cachedTail - h < wanted)
+			cachedTail = tail;
+		return min(wanted, (int) (cachedTail - h));
+	}
+
+	/** Frees the consumed bytes and wakes up the waiting producer. */
+	private void consumed(long h, int length) {
+		if (length == 0)
+			return;
+		head = h + length;
+		unpark(waitingProducer);
+	}
+
+	// Both ////////////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Closes this ring and wakes up the waiting threads. The bytes that were already published
+	 * stay readable.
+	 */
+	public void close() {
+		closed = true;
+		unpark(waitingConsumer);
+		unpark(waitingProducer);
+	}
+
+	/**
+	 * Returns <code>true</code>, if this ring was closed.
+	 * 
+	 * @return <code>true</code> if the ring was closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/** Wakes up the given thread, if it isn't <code>null</code>. */
+	private static void unpark(@Nullable Thread thread) {
+		if (thread != null)
+			LockSupport.unpark(thread);
+	}
+}
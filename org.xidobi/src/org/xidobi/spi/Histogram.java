@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.lang.Long.numberOfLeadingZeros;
+import static org.xidobi.spi.Preconditions.checkArgument;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnegative;
+
+/**
+ * A histogram of non-negative values, e.g. durations in nanoseconds or numbers of bytes. Values
+ * are recorded without locking, so the histogram can be updated from the I/O threads without
+ * measurable costs.
+ * <p>
+ * Like a HDR histogram the values are counted in buckets of logarithmically growing width: every
+ * power of 2 is divided into {@value #SUB_BUCKET_COUNT} buckets of equal width. Values below
+ * {@value #SUB_BUCKET_COUNT} are counted exactly, all other values with a relative error below
+ * 1/{@value #SUB_BUCKET_COUNT}.
+ * <p>
+ * The getters may be called concurrently to {@link #record(long)}, in this case they return
+ * approximate values.
+ * 
+ * @author Christian Schwarz
+ */
+public final class Histogram {
+
+	/** the number of buckets per power of 2, must be a power of 2 */
+	private static final int SUB_BUCKET_COUNT = 16;
+	/** the number of bits needed to index a sub bucket */
+	private static final int SUB_BUCKET_BITS = 4;
+	/** the number of buckets that is needed to count any non-negative long */
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	/** the number of recorded values per bucket */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	/** the number of recorded values */
+	private final AtomicLong totalCount = new AtomicLong();
+	/** the sum of all recorded values */
+	private final AtomicLong totalSum = new AtomicLong();
+	/** the greatest recorded value */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the given value.
+	 * 
+	 * @param value
+	 *            the value to record, must not be negative
+	 * @exception IllegalArgumentException
+	 *                if {@code value < 0}
+	 */
+	public void record(@Nonnegative long value) {
+		checkArgument(value >= 0, "value", "Expected a value greater than or equal to 0!");
+
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+
+		long currentMax;
+		do {
+			currentMax = max.get();
+			if (value <= currentMax)
+				break;
+		}
+		while (!max.compareAndSet(currentMax, value));
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 * 
+	 * @return the number of recorded values
+	 */
+	@Nonnegative
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Returns the greatest recorded value.
+	 * 
+	 * @return the greatest value or 0, if no value was recorded
+	 */
+	@Nonnegative
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the arithmetic mean of the recorded values.
+	 * 
+	 * @return the mean or 0, if no value was recorded
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		if (count == 0)
+			return 0;
+		return (double) totalSum.get() / count;
+	}
+
+	/**
+	 * Returns the value, that is greater than or equal to the given percentage of the recorded
+	 * values. The result is the upper bound of the bucket, that contains the percentile, but never
+	 * greater than {@link #getMax()}.
+	 * 
+	 * @param percentile
+	 *            the percentile, must be between 0 and 100
+	 * @return the value at the given percentile or 0, if no value was recorded
+	 * @exception IllegalArgumentException
+	 *                if {@code percentile < 0 || percentile > 100}
+	 */
+	@Nonnegative
+	public long getValueAtPercentile(double percentile) {
+		checkArgument(percentile >= 0 && percentile <= 100, "percentile", "Expected a value between 0 and 100!");
+
+		long count = totalCount.get();
+		if (count == 0)
+			return 0;
+
+		long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long currentCount = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			currentCount += counts.get(i);
+			if (currentCount >= countAtPercentile)
+				return Math.min(highestValueOf(i), max.get());
+		}
+		// the values are recorded concurrently
+		return max.get();
+	}
+
+	/** Returns the index of the bucket, that counts the given value. */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKET_COUNT)
+			return (int) value;
+		int shift = 64 - SUB_BUCKET_BITS - 1 - numberOfLeadingZeros(value);
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+	}
+
+	/** Returns the greatest value, that is counted by the bucket with the given index. */
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKET_COUNT)
+			return index;
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long lowestValue = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+		return lowestValue + (1L << shift) - 1;
+	}
+}
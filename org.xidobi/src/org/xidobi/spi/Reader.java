@@ -16,6 +16,7 @@
 package org.xidobi.spi;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.annotation.Nonnull;
 
@@ -45,4 +46,30 @@ public interface Reader extends IoOperation {
 	@Nonnull
 	byte[] read() throws IOException;
 
+	/**
+	 * The implementation must block until at least one byte was read into the given buffer or an
+	 * {@link IOException} is thrown. The bytes must be stored beginning at the current position of
+	 * the buffer, which must be advanced by the number of bytes that were read. The implementation
+	 * must not read more than {@link ByteBuffer#remaining()} bytes.
+	 * <p>
+	 * This method will be called by {@link BasicSerialConnection#read(ByteBuffer)}, if following
+	 * conditions apply:
+	 * <ul>
+	 * <li>the port is open
+	 * <li>{@code dst != null}
+	 * <li>{@code !dst.isReadOnly()}
+	 * <li>{@code dst.hasRemaining()}.
+	 * </ul>
+	 * <b>IMPORTANT:</b> Dont call this method yourself! Otherwise there is no guaratee that the
+	 * port is currently open and the buffer has bytes remaining!
+	 * 
+	 * @param dst
+	 *            the buffer to read into, never <code>null</code>
+	 * @return the number of bytes read, always greater than 0
+	 * @throws IOException
+	 *             if this port was closed or an unexpected I/O error occurs or the thread was
+	 *             interrupted
+	 */
+	int read(@Nonnull ByteBuffer dst) throws IOException;
+
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.lang.Math.min;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.xidobi.SerialConnection;
+
+/**
+ * A {@link ByteChannel} view of a {@link SerialConnection}. The channel is open as long as the
+ * connection is open, closing the channel closes the connection.
+ * <p>
+ * Read operations into a direct buffer are delegated to the connection, so the data is transferred
+ * from the port into the buffer without intermediate copies. For other buffers the data is read
+ * into an internal direct buffer first and copied from there, so every byte is copied at most once.
+ * Bytes that don't fit into the given buffer stay in the internal buffer and are returned by the
+ * next read operation. Write operations are delegated to the connection.
+ * <p>
+ * This class is thread-safe.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialConnection#getChannel()
+ */
+public final class SerialByteChannel implements ByteChannel {
+
+	/** the default size of the internal read buffer */
+	private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+	/** the underlying connection */
+	@Nonnull
+	private final SerialConnection connection;
+	/** the size of the internal read buffer */
+	private final int bufferSize;
+
+	/** guards the read buffer */
+	private final Object readLock = new Object();
+	/**
+	 * the bytes that were read, but not yet returned, between the position and the limit. It is
+	 * allocated by the first read operation that needs it.
+	 */
+	@Nullable
+	private ByteBuffer readBuffer;
+
+	/**
+	 * Creates a channel for the given connection with an internal read buffer of 4096 bytes.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>
+	 */
+	public SerialByteChannel(@Nonnull SerialConnection connection) {
+		this(connection, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a channel for the given connection.
+	 * 
+	 * @param connection
+	 *            the underlying connection, must not be <code>null</code>
+	 * @param bufferSize
+	 *            the size of the internal read buffer, must be greater than 0
+	 */
+	public SerialByteChannel(	@Nonnull SerialConnection connection,
+								@Nonnegative int bufferSize) {
+		this.connection = checkArgumentNotNull(connection, "connection");
+		checkArgument(bufferSize > 0, "bufferSize", "Expected a value greater than 0!");
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Reads bytes into the given buffer. This method blocks until at least one byte was read, see
+	 * {@link SerialConnection#read(ByteBuffer)}.
+	 * 
+	 * @param dst
+	 *            the buffer to read into, must not be <code>null</code> or read-only
+	 * @return the number of bytes read, 0 only if the buffer has no bytes remaining
+	 * @throws ClosedChannelException
+	 *             if the connection is closed
+	 * @throws IOException
+	 *             if an I/O error occurs or the thread was interrupted
+	 */
+	public int read(@Nonnull ByteBuffer dst) throws IOException {
+		checkArgumentNotNull(dst, "dst");
+		checkArgument(!dst.isReadOnly(), "dst", "Expected a writable buffer!");
+		ensureOpen();
+
+		synchronized (readLock) {
+			if (!dst.hasRemaining())
+				return 0;
+			if (available() > 0)
+				return transferBufferedBytes(dst);
+			if (dst.isDirect())
+				// the connection reads directly into the memory of the buffer
+				return connection.read(dst);
+
+			fillReadBuffer();
+			return transferBufferedBytes(dst);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes, that can be read without blocking, because they are buffered.
+	 * 
+	 * @return the number of buffered bytes
+	 */
+	@Nonnegative
+	public int available() {
+		synchronized (readLock) {
+			if (readBuffer == null)
+				return 0;
+			return readBuffer.remaining();
+		}
+	}
+
+	/** Reads from the connection into the empty read buffer. */
+	private void fillReadBuffer() throws IOException {
+		if (readBuffer == null)
+			readBuffer = ByteBuffer.allocateDirect(bufferSize);
+
+		readBuffer.clear();
+		try {
+			connection.read(readBuffer);
+		}
+		finally {
+			readBuffer.flip();
+		}
+	}
+
+	/** Copies as many buffered bytes as possible into the given buffer. */
+	private int transferBufferedBytes(ByteBuffer dst) {
+		int length = min(dst.remaining(), readBuffer.remaining());
+		int limit = readBuffer.limit();
+		readBuffer.limit(readBuffer.position() + length);
+		dst.put(readBuffer);
+		readBuffer.limit(limit);
+		return length;
+	}
+
+	/**
+	 * Writes all remaining bytes of the given buffer, see
+	 * {@link SerialConnection#write(ByteBuffer...)}.
+	 * 
+	 * @param src
+	 *            the buffer to write, must not be <code>null</code>
+	 * @return the number of bytes written
+	 * @throws ClosedChannelException
+	 *             if the connection is closed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public int write(@Nonnull ByteBuffer src) throws IOException {
+		checkArgumentNotNull(src, "src");
+		ensureOpen();
+
+		int length = src.remaining();
+		connection.write(src);
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isOpen() {
+		return !connection.isClosed();
+	}
+
+	/**
+	 * Closes the underlying connection.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void close() throws IOException {
+		connection.close();
+	}
+
+	/** Throws a {@link ClosedChannelException}, if the connection is closed. */
+	private void ensureOpen() throws ClosedChannelException {
+		if (connection.isClosed())
+			throw new ClosedChannelException();
+	}
+}
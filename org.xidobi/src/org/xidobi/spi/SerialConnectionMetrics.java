@@ -0,0 +1,305 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.lang.management.ManagementFactory.getPlatformMBeanServer;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of the I/O operations of a {@link BasicSerialConnection}. The values are recorded
+ * by the connection and its {@link Reader}, they may be read at any time, even after the
+ * connection was closed.
+ * <p>
+ * All values are recorded without locking, in order to keep the costs on the I/O path as low as
+ * possible. Durations are given in nanoseconds.
+ * <p>
+ * The time a write operation blocks the caller is recorded as submit time. If several write
+ * operations may be pending, it is only the time until the bytes were handed over to the system.
+ * The time until the bytes were actually written is recorded by the {@link Writer} as write
+ * latency, when it reaps the completed operation.
+ * <p>
+ * The metrics can be registered as MBean at the platform MBean server with
+ * {@link #registerMBean(String)}, the MBean is unregistered, when the connection is closed.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see BasicSerialConnection#getMetrics()
+ */
+public final class SerialConnectionMetrics implements SerialConnectionMetricsMBean {
+
+	/** the domain of the {@link ObjectName} of the MBeans */
+	private static final String DOMAIN = "org.xidobi";
+
+	/** the number of bytes read */
+	private final AtomicLong bytesRead = new AtomicLong();
+	/** the number of read operations */
+	private final AtomicLong readOperations = new AtomicLong();
+	/** the number of bytes written */
+	private final AtomicLong bytesWritten = new AtomicLong();
+	/** the number of write operations */
+	private final AtomicLong writeOperations = new AtomicLong();
+
+	/** the number of bytes per read operation */
+	private final Histogram bytesPerRead = new Histogram();
+	/** the time, the read operations waited for data */
+	private final Histogram readWaitTime = new Histogram();
+	/** the time, the write operations blocked the caller */
+	private final Histogram writeSubmitTime = new Histogram();
+	/** the time from the start until the completion of the write operations */
+	private final Histogram writeLatency = new Histogram();
+
+	/** the reported communication error flags combined by a bitwise OR */
+	private final AtomicInteger commErrors = new AtomicInteger();
+	/** the number of reports of communication errors */
+	private final AtomicLong commErrorCount = new AtomicLong();
+
+	/** the close duration or -1, if the connection wasn't closed yet */
+	private volatile long closeDuration = -1;
+
+	/** the name of the registered MBean or <code>null</code> */
+	@Nullable
+	private volatile ObjectName mBeanName;
+
+	/**
+	 * Records a read operation.
+	 * 
+	 * @param numberOfBytes
+	 *            the number of bytes, that were read
+	 * @param waitTime
+	 *            the time in nanoseconds, the read operation waited until data was read
+	 */
+	public void recordRead(@Nonnegative int numberOfBytes, @Nonnegative long waitTime) {
+		bytesRead.addAndGet(numberOfBytes);
+		readOperations.incrementAndGet();
+		bytesPerRead.record(numberOfBytes);
+		readWaitTime.record(waitTime);
+	}
+
+	/**
+	 * Records a write operation, when it returned to the caller.
+	 * 
+	 * @param numberOfBytes
+	 *            the number of bytes, that were written
+	 * @param submitTime
+	 *            the time in nanoseconds, the write operation blocked the caller
+	 */
+	public void recordWrite(@Nonnegative long numberOfBytes, @Nonnegative long submitTime) {
+		bytesWritten.addAndGet(numberOfBytes);
+		writeOperations.incrementAndGet();
+		writeSubmitTime.record(submitTime);
+	}
+
+	/**
+	 * Records the completion of a write operation.
+	 * 
+	 * @param latency
+	 *            the time in nanoseconds from the start until the completion of the write
+	 *            operation
+	 */
+	public void recordWriteCompletion(@Nonnegative long latency) {
+		writeLatency.record(latency);
+	}
+
+	/**
+	 * Records communication errors, that were reported by the port. Does nothing if the given
+	 * flags are 0.
+	 * 
+	 * @param errors
+	 *            the system dependent error flags, e.g. the errors returned by
+	 *            <code>ClearCommError</code> on Windows
+	 */
+	public void recordCommErrors(int errors) {
+		if (errors == 0)
+			return;
+
+		int currentErrors;
+		do {
+			currentErrors = commErrors.get();
+		}
+		while (!commErrors.compareAndSet(currentErrors, currentErrors | errors));
+		commErrorCount.incrementAndGet();
+	}
+
+	/**
+	 * Records the time, that was needed to close the connection.
+	 * 
+	 * @param duration
+	 *            the close duration in nanoseconds
+	 */
+	public void recordClose(@Nonnegative long duration) {
+		closeDuration = duration;
+	}
+
+	/** {@inheritDoc} */
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	/** {@inheritDoc} */
+	public long getReadOperations() {
+		return readOperations.get();
+	}
+
+	/** {@inheritDoc} */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	/** {@inheritDoc} */
+	public long getWriteOperations() {
+		return writeOperations.get();
+	}
+
+	/**
+	 * Returns the histogram of the number of bytes per read operation.
+	 * 
+	 * @return the histogram, never <code>null</code>
+	 */
+	@Nonnull
+	public Histogram getBytesPerRead() {
+		return bytesPerRead;
+	}
+
+	/**
+	 * Returns the histogram of the time in nanoseconds, the read operations waited for data.
+	 * 
+	 * @return the histogram, never <code>null</code>
+	 */
+	@Nonnull
+	public Histogram getReadWaitTime() {
+		return readWaitTime;
+	}
+
+	/**
+	 * Returns the histogram of the time in nanoseconds, the write operations blocked the caller.
+	 * 
+	 * @return the histogram, never <code>null</code>
+	 */
+	@Nonnull
+	public Histogram getWriteSubmitTime() {
+		return writeSubmitTime;
+	}
+
+	/**
+	 * Returns the histogram of the time in nanoseconds from the start until the completion of the
+	 * write operations.
+	 * 
+	 * @return the histogram, never <code>null</code>
+	 */
+	@Nonnull
+	public Histogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	/** {@inheritDoc} */
+	public double getMeanBytesPerRead() {
+		return bytesPerRead.getMean();
+	}
+
+	/** {@inheritDoc} */
+	public long getReadWaitTime99thPercentile() {
+		return readWaitTime.getValueAtPercentile(99);
+	}
+
+	/** {@inheritDoc} */
+	public long getWriteSubmitTime99thPercentile() {
+		return writeSubmitTime.getValueAtPercentile(99);
+	}
+
+	/** {@inheritDoc} */
+	public long getMaxWriteSubmitTime() {
+		return writeSubmitTime.getMax();
+	}
+
+	/** {@inheritDoc} */
+	public long getWriteLatency99thPercentile() {
+		return writeLatency.getValueAtPercentile(99);
+	}
+
+	/** {@inheritDoc} */
+	public long getMaxWriteLatency() {
+		return writeLatency.getMax();
+	}
+
+	/** {@inheritDoc} */
+	public int getCommErrors() {
+		return commErrors.get();
+	}
+
+	/** {@inheritDoc} */
+	public long getCommErrorCount() {
+		return commErrorCount.get();
+	}
+
+	/** {@inheritDoc} */
+	public long getCloseDuration() {
+		return closeDuration;
+	}
+
+	/**
+	 * Registers these metrics as MBean at the platform MBean server. The name of the MBean is
+	 * <code>org.xidobi:type=SerialConnection,port=</code><i>portName</i>.
+	 * 
+	 * @param portName
+	 *            the name of the port, must not be <code>null</code>
+	 * @return the name of the registered MBean, never <code>null</code>
+	 * @throws JMException
+	 *             if the MBean can't be registered, e.g. because a MBean for a connection to the
+	 *             same port is already registered
+	 */
+	@Nonnull
+	public ObjectName registerMBean(@Nonnull String portName) throws JMException {
+		checkArgumentNotNull(portName, "portName");
+
+		ObjectName name = new ObjectName(DOMAIN + ":type=SerialConnection,port=" + ObjectName.quote(portName));
+		getPlatformMBeanServer().registerMBean(this, name);
+		mBeanName = name;
+		return name;
+	}
+
+	/**
+	 * Unregisters the MBean, that was registered by {@link #registerMBean(String)}. Does nothing
+	 * if no MBean is registered.
+	 */
+	public void unregisterMBean() {
+		ObjectName name = mBeanName;
+		if (name == null)
+			return;
+		mBeanName = null;
+
+		try {
+			getPlatformMBeanServer().unregisterMBean(name);
+		}
+		catch (InstanceNotFoundException e) {
+			// the MBean was already unregistered by someone else
+		}
+		catch (MBeanRegistrationException e) {
+			// can't happen, because these metrics don't implement MBeanRegistration
+			throw new IllegalStateException(e);
+		}
+	}
+}
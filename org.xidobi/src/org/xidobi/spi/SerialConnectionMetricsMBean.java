@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+/**
+ * The management interface of the {@link SerialConnectionMetrics}, that is registered by
+ * {@link SerialConnectionMetrics#registerMBean(String)}. Durations are given in nanoseconds.
+ * 
+ * @author Christian Schwarz
+ */
+public interface SerialConnectionMetricsMBean {
+
+	/**
+	 * Returns the number of bytes, that were read.
+	 * 
+	 * @return the number of bytes read
+	 */
+	long getBytesRead();
+
+	/**
+	 * Returns the number of read operations, that returned data.
+	 * 
+	 * @return the number of read operations
+	 */
+	long getReadOperations();
+
+	/**
+	 * Returns the number of bytes, that were written.
+	 * 
+	 * @return the number of bytes written
+	 */
+	long getBytesWritten();
+
+	/**
+	 * Returns the number of write operations, that were completed.
+	 * 
+	 * @return the number of write operations
+	 */
+	long getWriteOperations();
+
+	/**
+	 * Returns the mean number of bytes per read operation.
+	 * 
+	 * @return the mean number of bytes per read operation
+	 */
+	double getMeanBytesPerRead();
+
+	/**
+	 * Returns the 99th percentile of the time, a read operation waited for data.
+	 * 
+	 * @return the 99th percentile of the read wait time in nanoseconds
+	 */
+	long getReadWaitTime99thPercentile();
+
+	/**
+	 * Returns the 99th percentile of the time, a write operation blocked the caller. If several
+	 * write operations may be pending, it doesn't include the time until the bytes were written.
+	 * 
+	 * @return the 99th percentile of the write submit time in nanoseconds
+	 */
+	long getWriteSubmitTime99thPercentile();
+
+	/**
+	 * Returns the greatest time, a write operation blocked the caller.
+	 * 
+	 * @return the greatest write submit time in nanoseconds
+	 */
+	long getMaxWriteSubmitTime();
+
+	/**
+	 * Returns the 99th percentile of the latency of the write operations, from their start until
+	 * their completion.
+	 * 
+	 * @return the 99th percentile of the write latency in nanoseconds
+	 */
+	long getWriteLatency99thPercentile();
+
+	/**
+	 * Returns the greatest latency of the write operations, from their start until their
+	 * completion.
+	 * 
+	 * @return the greatest write latency in nanoseconds
+	 */
+	long getMaxWriteLatency();
+
+	/**
+	 * Returns the communication error flags, that were reported by the port, combined by a
+	 * bitwise OR.
+	 * 
+	 * @return the communication error flags or 0, if no error was reported
+	 */
+	int getCommErrors();
+
+	/**
+	 * Returns how often the port reported communication errors.
+	 * 
+	 * @return the number of reports of communication errors
+	 */
+	long getCommErrorCount();
+
+	/**
+	 * Returns the time, that was needed to close the connection.
+	 * 
+	 * @return the close duration in nanoseconds or -1, if the connection wasn't closed yet
+	 */
+	long getCloseDuration();
+}
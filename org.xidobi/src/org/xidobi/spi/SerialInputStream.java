@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.SerialConnection;
+
+/**
+ * An {@link InputStream} view of a {@link SerialConnection}, that reads through a
+ * {@link SerialByteChannel}. The bytes are read into the internal buffer of the channel and copied
+ * once into the given array. The stream never reaches its end, a read operation blocks until at
+ * least one byte was read or throws an {@link IOException}, if the connection is closed.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialConnection#getInputStream()
+ */
+public final class SerialInputStream extends InputStream {
+
+	/** the channel that reads from the connection */
+	@Nonnull
+	private final SerialByteChannel channel;
+
+	/** receives the byte of {@link #read()} */
+	private final byte[] singleByte = new byte[1];
+
+	/**
+	 * Creates a stream that reads through the given channel.
+	 * 
+	 * @param channel
+	 *            the channel, must not be <code>null</code>
+	 */
+	public SerialInputStream(@Nonnull SerialByteChannel channel) {
+		this.channel = checkArgumentNotNull(channel, "channel");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public synchronized int read() throws IOException {
+		read(singleByte, 0, 1);
+		return singleByte[0] & 0xff;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		return channel.read(ByteBuffer.wrap(b, off, len));
+	}
+
+	/**
+	 * Returns the number of bytes, that are buffered by the channel.
+	 * 
+	 * @return the number of bytes, that can be read without blocking
+	 */
+	@Override
+	public int available() {
+		return channel.available();
+	}
+
+	/**
+	 * Closes the underlying connection.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
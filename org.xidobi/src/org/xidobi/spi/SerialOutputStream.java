@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+
+import org.xidobi.SerialConnection;
+
+/**
+ * An {@link OutputStream} view of a {@link SerialConnection}. Every write operation is delegated
+ * to the connection without copying the data. Single bytes should be written to a
+ * {@link org.xidobi.BufferedSerialConnection BufferedSerialConnection}, which coalesces them.
+ * {@link #flush()} flushes the connection, if it is {@link Flushable}.
+ * 
+ * @author Christian Schwarz
+ * 
+ * @see SerialConnection#getOutputStream()
+ */
+public final class SerialOutputStream extends OutputStream {
+
+	/** the underlying connection */
+	@Nonnull
+	private final SerialConnection connection;
+
+	/**
+	 * Creates a stream that writes to the given connection.
+	 * 
+	 * @param connection
+	 *            the connection, must not be <code>null</code>
+	 */
+	public SerialOutputStream(@Nonnull SerialConnection connection) {
+		this.connection = checkArgumentNotNull(connection, "connection");
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(int b) throws IOException {
+		connection.write(new byte[] { (byte) b });
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void write(@Nonnull byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || len > b.length - off)
+			throw new IndexOutOfBoundsException();
+		connection.write(b, off, len);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void flush() throws IOException {
+		if (connection instanceof Flushable)
+			((Flushable) connection).flush();
+	}
+
+	/**
+	 * Closes the underlying connection.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		connection.close();
+	}
+}
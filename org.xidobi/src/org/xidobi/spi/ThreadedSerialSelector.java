@@ -0,0 +1,295 @@
+/*
+ * Copyright 2013 Gemtec GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xidobi.spi;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.xidobi.spi.Preconditions.checkArgument;
+import static org.xidobi.spi.Preconditions.checkArgumentNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.xidobi.SerialConnection;
+import org.xidobi.SerialEventHandler;
+import org.xidobi.SerialSelectionKey;
+import org.xidobi.SerialSelector;
+
+/**
+ * A {@link SerialSelector} written in pure Java, that works with every {@link SerialConnection}.
+ * Each registered connection is read by its own thread with the blocking
+ * {@link SerialConnection#read()} and written by another thread, the events are passed to the
+ * threads that call {@link #select()}.
+ * <p>
+ * This selector doesn't save any threads, it is a stand-in for tests and for platforms without a
+ * native selector.
+ * <p>
+ * <b>NOTE:</b> A blocking read can't be interrupted. If a key is cancelled, its reader thread
+ * terminates when the next data is received, that data is discarded, or when the connection is
+ * closed.
+ * 
+ * @author Christian Schwarz
+ */
+public class ThreadedSerialSelector implements SerialSelector {
+
+	/** marks a call of {@link #wakeup()} in the event queue */
+	private static final Runnable WAKEUP = new Runnable() {
+		public void run() {}
+	};
+
+	/** the events that are not dispatched yet */
+	private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<Runnable>();
+
+	/** the valid keys by their connection */
+	private final Map<SerialConnection, KeyImpl> keys = new HashMap<SerialConnection, KeyImpl>();
+
+	/**
+	 * <ul>
+	 * <li> <code>true</code> if this selector is closed
+	 * <li> <code>false</code> if this selector is open
+	 * </ul>
+	 */
+	private volatile boolean isClosed;
+
+	/** {@inheritDoc} */
+	@Nonnull
+	public SerialSelectionKey register(@Nonnull SerialConnection connection, @Nonnull SerialEventHandler handler) throws IOException {
+		checkArgumentNotNull(connection, "connection");
+		checkArgumentNotNull(handler, "handler");
+
+		KeyImpl key;
+		synchronized (keys) {
+			checkIfClosed();
+			if (connection.isClosed())
+				throw new IOException("Port " + connection.getPort().getPortName() + " was closed!");
+			checkArgument(!keys.containsKey(connection), "connection", "The connection is already registered!");
+
+			key = new KeyImpl(connection, handler);
+			keys.put(connection, key);
+		}
+		key.startReading();
+		return key;
+	}
+
+	/** {@inheritDoc} */
+	public int select() throws IOException {
+		checkIfClosed();
+		try {
+			return dispatch(events.take());
+		}
+		catch (InterruptedException e) {
+			throw new InterruptedIOException("The thread for the select operation is interrupted!");
+		}
+	}
+
+	/** {@inheritDoc} */
+	public int select(@Nonnegative int timeout) throws IOException {
+		checkArgument(timeout >= 0, "timeout", "Expected a value greater or equal to 0!");
+		checkIfClosed();
+		try {
+			return dispatch(events.poll(timeout, MILLISECONDS));
+		}
+		catch (InterruptedException e) {
+			throw new InterruptedIOException("The thread for the select operation is interrupted!");
+		}
+	}
+
+	/**
+	 * Dispatches the given event and all further events, that are available without waiting.
+	 * Returns the number of dispatched events.
+	 */
+	private int dispatch(Runnable event) {
+		int dispatchedEvents = 0;
+		while (event != null && event != WAKEUP) {
+			event.run();
+			dispatchedEvents++;
+			event = events.poll();
+		}
+		return dispatchedEvents;
+	}
+
+	/** {@inheritDoc} */
+	public void wakeup() {
+		events.add(WAKEUP);
+	}
+
+	/** {@inheritDoc} */
+	public boolean isClosed() {
+		return isClosed;
+	}
+
+	/** {@inheritDoc} */
+	public void close() throws IOException {
+		List<KeyImpl> keysToCancel;
+		synchronized (keys) {
+			if (isClosed)
+				return;
+			isClosed = true;
+			keysToCancel = new ArrayList<KeyImpl>(keys.values());
+		}
+		for (KeyImpl key : keysToCancel)
+			key.cancel();
+		events.clear();
+		wakeup();
+	}
+
+	/** Throws an {@link IOException}, if this selector is closed. */
+	private void checkIfClosed() throws IOException {
+		if (isClosed)
+			throw new IOException("The selector was closed!");
+	}
+
+	/** The key of a connection, that is read and written by its own threads. */
+	private final class KeyImpl extends BasicSerialSelectionKey {
+
+		/** the thread that reads from the connection */
+		private final Thread reader;
+
+		/** the write operations, that were not started yet */
+		private final BlockingQueue<Runnable> writes = new LinkedBlockingQueue<Runnable>();
+		/** the thread that writes to the connection, it is started by the first write */
+		private Thread writer;
+
+		/** Creates a new key for the given connection. */
+		private KeyImpl(SerialConnection connection,
+						SerialEventHandler handler) {
+			super(ThreadedSerialSelector.this, connection, handler);
+
+			reader = newThread(new Runnable() {
+				public void run() {
+					readUntilCancelled();
+				}
+			}, "reader");
+		}
+
+		/** Starts the thread that reads from the connection. */
+		private void startReading() {
+			reader.start();
+		}
+
+		/** Reads from the connection until this key is cancelled or an I/O error occurs. */
+		private void readUntilCancelled() {
+			try {
+				while (isValid()) {
+					final ByteBuffer data = ByteBuffer.wrap(getConnection().read());
+					events.add(new Runnable() {
+						public void run() {
+							fireDataReceived(data);
+						}
+					});
+				}
+			}
+			catch (IOException e) {
+				postFailed(e);
+			}
+			catch (RuntimeException e) {
+				// e.g. a NativeCodeException of the connection
+				postFailed(unexpectedFailure("read", e));
+			}
+		}
+
+		/** Executes the write operations until this key is cancelled. */
+		private void writeUntilCancelled() {
+			try {
+				while (isValid())
+					writes.take().run();
+			}
+			catch (InterruptedException e) {
+				// the key was cancelled
+			}
+		}
+
+		@Override
+		protected void startWrite(@Nonnull final ByteBuffer src) {
+			synchronized (this) {
+				if (writer == null) {
+					writer = newThread(new Runnable() {
+						public void run() {
+							writeUntilCancelled();
+						}
+					}, "writer");
+					writer.start();
+				}
+			}
+			writes.add(new Runnable() {
+				public void run() {
+					try {
+						// the position of the buffer is advanced, when the write is completed
+						getConnection().write(src.duplicate());
+					}
+					catch (IOException e) {
+						postFailed(e);
+						return;
+					}
+					catch (RuntimeException e) {
+						// e.g. a NativeCodeException of the connection
+						postFailed(unexpectedFailure("write", e));
+						return;
+					}
+					events.add(new Runnable() {
+						public void run() {
+							fireWriteCompleted();
+						}
+					});
+				}
+			});
+		}
+
+		/** Returns an {@link IOException}, that reports the given unexpected failure. */
+		private IOException unexpectedFailure(String operation, RuntimeException e) {
+			IOException failure = new IOException("The " + operation + " operation of port " + getConnection().getPort().getPortName() + " failed unexpected!");
+			failure.initCause(e);
+			return failure;
+		}
+
+		/** Passes the given error to the threads, that call {@link #select()}. */
+		private void postFailed(final IOException e) {
+			events.add(new Runnable() {
+				public void run() {
+					fireFailed(e);
+				}
+			});
+		}
+
+		@Override
+		protected void cancelInternal() {
+			synchronized (keys) {
+				keys.remove(getConnection());
+			}
+			synchronized (this) {
+				if (writer != null)
+					// wakes up the writer thread, if it waits for the next write
+					writer.interrupt();
+			}
+		}
+
+		/** Creates a daemon thread, that is named after the port. */
+		private Thread newThread(Runnable target, String role) {
+			Thread thread = new Thread(target, "xidobi " + role + " " + getConnection().getPort().getPortName());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
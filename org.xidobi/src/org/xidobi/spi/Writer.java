@@ -16,6 +16,7 @@
 package org.xidobi.spi;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.annotation.Nonnull;
 
@@ -47,4 +48,49 @@ public interface Writer extends IoOperation {
 	 */
 	void write(@Nonnull byte[] data) throws IOException;
 
+	/**
+	 * The implementation must write <code>length</code> bytes of the given {@code byte[]},
+	 * beginning at <code>offset</code>, to the port.
+	 * <p>
+	 * This method will be called by {@link BasicSerialConnection#write(byte[], int, int)}, if
+	 * following conditions apply:
+	 * <ul>
+	 * <li>the port is open
+	 * <li>{@code data != null}
+	 * <li>{@code offset} and {@code length} denote a valid range of {@code data}.
+	 * </ul>
+	 * <b>IMPORTANT:</b> Dont call this method yourself! Otherwise there is no guaratee that the
+	 * port is currently open and the arguments are valid!
+	 * 
+	 * @param data
+	 *            never <code>null</code>
+	 * @param offset
+	 *            the index of the first byte to write
+	 * @param length
+	 *            the number of bytes to write
+	 * @throws IOException
+	 *             when the write operation timed out or the serial port is not open
+	 */
+	void write(@Nonnull byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * The implementation must write the remaining bytes of all given buffers, in the order of the
+	 * array, to the port and must advance the position of each buffer to its limit.
+	 * <p>
+	 * This method will be called by {@link BasicSerialConnection#write(ByteBuffer...)}, if
+	 * following conditions apply:
+	 * <ul>
+	 * <li>the port is open
+	 * <li>{@code srcs != null} and does not contain <code>null</code> elements.
+	 * </ul>
+	 * <b>IMPORTANT:</b> Dont call this method yourself! Otherwise there is no guaratee that the
+	 * port is currently open and the buffers are not <code>null</code>!
+	 * 
+	 * @param srcs
+	 *            never <code>null</code>
+	 * @throws IOException
+	 *             when the write operation timed out or the serial port is not open
+	 */
+	void write(@Nonnull ByteBuffer[] srcs) throws IOException;
+
 }